@@ -0,0 +1,679 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.redhat.thermostat.common.Clock;
+import com.redhat.thermostat.common.SystemClock;
+import com.redhat.thermostat.common.utils.LoggingUtils;
+
+/**
+ * Runs the periodic work of all the backends of an agent on a fixed number
+ * of threads.
+ * <p>
+ * A single timer thread keeps every scheduled task on a timing wheel and
+ * hands the tasks that are due to a small pool of worker threads, so the
+ * number of threads the agent needs does not grow with the number of
+ * backends or monitored JVMs.
+ * <p>
+ * Backends get a {@link ScheduledExecutorService} of their own from
+ * {@link #createExecutor(String)}. Shutting that executor down only cancels
+ * the tasks scheduled through it. Fixed rate tasks keep to the rate they
+ * were scheduled at: a run that starts late does not push back the runs
+ * after it, and a run that is due while the previous one is still going is
+ * skipped and counted as an overrun instead of queueing up behind it. The
+ * first run of each fixed rate task is delayed by a small amount derived
+ * from the executor's name, so that backends polling at the same rate don't
+ * all wake up at the same moment.
+ * <p>
+ * Work that may block for long, such as calls into a monitored JVM over
+ * JMX, should not run on the shared workers, where it could hold up every
+ * other backend. {@link #createExecutor(String, int)} gives such work a
+ * bounded pool of threads of its own, while it is still timed by this
+ * scheduler.
+ * <p>
+ * The run count, overruns and lag of each periodic task are logged at
+ * {@code FINE} once the task is cancelled, for example when its backend
+ * is deactivated or the agent shuts down.
+ */
+public class BackendScheduler {
+
+    private static final Logger logger = LoggingUtils.getLogger(BackendScheduler.class);
+
+    static final long TICK_MILLIS = 10;
+    static final int WHEEL_SIZE = 512;
+    static final long MAX_JITTER_MILLIS = 200;
+    static final int DEFAULT_WORKERS = 4;
+
+    private static BackendScheduler instance;
+
+    private final Clock clock;
+    private final Executor workers;
+    private final long tickNanos;
+    private final long startNanos;
+
+    private final List<Task<?>>[] wheel;
+    private final Queue<Task<?>> pending = new ConcurrentLinkedQueue<>();
+    private final Set<Task<?>> tasks = Collections.newSetFromMap(new ConcurrentHashMap<Task<?>, Boolean>());
+    // only used by the timer thread
+    private long currentTick = -1;
+
+    private final AtomicBoolean timerStarted;
+    private volatile Thread timer;
+    private volatile boolean shutdown;
+
+    /**
+     * @return the scheduler shared by all backends of this agent
+     */
+    public static synchronized BackendScheduler getInstance() {
+        if (instance == null) {
+            instance = new BackendScheduler(new SystemClock(), createWorkers("Backend Scheduler Worker", DEFAULT_WORKERS), true);
+        }
+        return instance;
+    }
+
+    /*
+     * Package-private for testing. Without a timer thread, time only moves on
+     * when advanceTo() is called.
+     */
+    @SuppressWarnings("unchecked")
+    BackendScheduler(Clock clock, Executor workers, boolean useTimerThread) {
+        this.clock = clock;
+        this.workers = workers;
+        this.timerStarted = new AtomicBoolean(!useTimerThread);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+        this.startNanos = clock.getMonotonicTimeNanos();
+        this.wheel = new List[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+
+    private static ThreadPoolExecutor createWorkers(final String name, int count) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(count, count,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threads = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, name + " " + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // an idle agent should not keep threads around
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Creates an executor for a backend or plugin whose tasks run on this
+     * scheduler. The name is used to spread the first runs of fixed rate
+     * tasks of different executors apart.
+     */
+    public ScheduledExecutorService createExecutor(String name) {
+        return new BackendExecutor(name, jitter(name), workers, null);
+    }
+
+    /**
+     * Creates an executor like {@link #createExecutor(String)}, whose tasks
+     * run on a pool of up to the given number of threads of its own instead
+     * of on the shared workers. Use this for tasks that may block, so that
+     * they cannot hold up the tasks of other backends. The threads time out
+     * when idle and the pool is shut down along with the executor.
+     */
+    public ScheduledExecutorService createExecutor(String name, int threads) {
+        return createExecutor(name, createWorkers(name + " Worker", threads));
+    }
+
+    // Package-private for testing
+    ScheduledExecutorService createExecutor(String name, ExecutorService pool) {
+        return new BackendExecutor(name, jitter(name), pool, pool);
+    }
+
+    private long jitter(String name) {
+        long jitterTicks = (name.hashCode() & 0x7fffffff) % (MAX_JITTER_MILLIS / TICK_MILLIS);
+        return jitterTicks * tickNanos;
+    }
+
+    /**
+     * @return the tasks currently scheduled, with their run statistics
+     */
+    public List<Task<?>> getTasks() {
+        return new ArrayList<Task<?>>(tasks);
+    }
+
+    /**
+     * Cancels all tasks and stops the timer thread.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Task<?> task : tasks) {
+            task.cancel(false);
+        }
+        Thread timerThread = timer;
+        if (timerThread != null) {
+            LockSupport.unpark(timerThread);
+        }
+    }
+
+    private void enqueue(Task<?> task, long delayNanos) {
+        if (shutdown) {
+            throw new RejectedExecutionException("scheduler is shut down");
+        }
+        task.nextRunNanos = clock.getMonotonicTimeNanos() + Math.max(0, delayNanos);
+        tasks.add(task);
+        pending.add(task);
+        startTimer();
+    }
+
+    // the timer is started on first use, so that merely looking the
+    // scheduler up does not create any threads
+    private void startTimer() {
+        if (timerStarted.compareAndSet(false, true)) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runTimer();
+                }
+            }, "Backend Scheduler");
+            thread.setDaemon(true);
+            timer = thread;
+            thread.start();
+        }
+    }
+
+    private void runTimer() {
+        while (!shutdown) {
+            advanceTo(clock.getMonotonicTimeNanos());
+            long wait = startNanos + (currentTick + 1) * tickNanos - clock.getMonotonicTimeNanos();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+        }
+    }
+
+    /**
+     * Processes every tick up to the given time. Only called from the timer
+     * thread, and from tests.
+     */
+    void advanceTo(long nowNanos) {
+        long target = (nowNanos - startNanos) / tickNanos;
+        while (currentTick < target) {
+            currentTick++;
+            processTick(currentTick, target);
+        }
+    }
+
+    /**
+     * @param tick the tick to process
+     * @param target the tick the timer is catching up to; the same as
+     * {@code tick} unless the timer has fallen behind
+     */
+    private void processTick(long tick, long target) {
+        Task<?> task;
+        while ((task = pending.poll()) != null) {
+            if (!task.isCancelled()) {
+                task.deadlineTick = Math.max(tick, toTick(task.nextRunNanos));
+                wheel[index(task.deadlineTick)].add(task);
+            }
+        }
+
+        List<Task<?>> bucket = wheel[index(tick)];
+        if (bucket.isEmpty()) {
+            return;
+        }
+
+        List<Task<?>> due = new ArrayList<>();
+        for (Iterator<Task<?>> iter = bucket.iterator(); iter.hasNext();) {
+            task = iter.next();
+            if (task.isCancelled()) {
+                iter.remove();
+            } else if (task.deadlineTick <= tick) {
+                iter.remove();
+                due.add(task);
+            }
+        }
+
+        for (Task<?> dueTask : due) {
+            if (dueTask.periodTicks > 0) {
+                long nextTick = dueTask.deadlineTick + dueTask.periodTicks;
+                if (nextTick <= target) {
+                    // the timer fell behind and the next run is due as
+                    // well; don't run twice in a row to make up for it
+                    dueTask.overruns.incrementAndGet();
+                } else {
+                    dispatch(dueTask);
+                }
+                // keep to the original schedule
+                dueTask.deadlineTick = nextTick;
+                dueTask.nextRunNanos = toNanos(nextTick);
+                wheel[index(nextTick)].add(dueTask);
+            } else {
+                dispatch(dueTask);
+            }
+        }
+    }
+
+    private void dispatch(final Task<?> task) {
+        if (!task.running.compareAndSet(false, true)) {
+            task.overruns.incrementAndGet();
+            logger.fine("Skipping run of " + task.getName() + ", the previous one has not finished yet");
+            return;
+        }
+        final long scheduledNanos = toNanos(task.deadlineTick);
+        try {
+            task.executor.runner.execute(new Runnable() {
+                @Override
+                public void run() {
+                    task.run(scheduledNanos);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            task.running.set(false);
+            logger.log(Level.WARNING, "Unable to run " + task.getName(), e);
+        }
+    }
+
+    private long toTick(long nanos) {
+        // round up, so that tasks never run early
+        long delta = nanos - startNanos;
+        return delta <= 0 ? 0 : (delta + tickNanos - 1) / tickNanos;
+    }
+
+    private long toNanos(long tick) {
+        return startNanos + tick * tickNanos;
+    }
+
+    private static int index(long tick) {
+        return (int) (tick & (WHEEL_SIZE - 1));
+    }
+
+    private static long toTicks(long nanos, long tickNanos) {
+        return Math.max(1, (nanos + tickNanos / 2) / tickNanos);
+    }
+
+    /**
+     * A task scheduled on a {@link BackendScheduler}, with statistics about
+     * how timely its runs have been.
+     */
+    public class Task<V> implements ScheduledFuture<V> {
+
+        private final BackendExecutor executor;
+        private final Runnable action;
+        private final FutureTask<V> result;
+        // > 0 for fixed rate tasks, < 0 for fixed delay tasks
+        private final long periodNanos;
+        private final long periodTicks;
+
+        // only used by the timer thread
+        private long deadlineTick;
+        private volatile long nextRunNanos;
+
+        private final AtomicBoolean running = new AtomicBoolean();
+        private volatile boolean cancelled;
+
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong overruns = new AtomicLong();
+        private volatile long lastLagNanos;
+        private volatile long maxLagNanos;
+
+        private Task(BackendExecutor executor, FutureTask<V> result) {
+            this.executor = executor;
+            this.action = result;
+            this.result = result;
+            this.periodNanos = 0;
+            this.periodTicks = 0;
+        }
+
+        private Task(BackendExecutor executor, Runnable action, long periodNanos) {
+            this.executor = executor;
+            this.action = action;
+            this.result = null;
+            this.periodNanos = periodNanos;
+            this.periodTicks = periodNanos > 0 ? toTicks(periodNanos, tickNanos) : 0;
+        }
+
+        private void run(long scheduledNanos) {
+            long lag = clock.getMonotonicTimeNanos() - scheduledNanos;
+            lastLagNanos = lag;
+            if (lag > maxLagNanos) {
+                maxLagNanos = lag;
+            }
+            runs.incrementAndGet();
+            executor.runStarted();
+            try {
+                action.run();
+            } catch (Throwable t) {
+                // as with ScheduledExecutorService, a periodic task that
+                // throws is not run again
+                logger.log(Level.WARNING, getName() + " threw an exception", t);
+                cancel(false);
+            } finally {
+                running.set(false);
+            }
+
+            if (periodNanos == 0) {
+                done();
+            } else if (periodNanos < 0 && !cancelled) {
+                nextRunNanos = clock.getMonotonicTimeNanos() - periodNanos;
+                pending.add(this);
+            }
+            executor.runFinished();
+        }
+
+        private void done() {
+            tasks.remove(this);
+            executor.taskDone(this);
+            if (periodNanos != 0) {
+                logger.fine("Backend task statistics: " + this);
+            }
+        }
+
+        /**
+         * @return the name of the executor this task was scheduled through
+         */
+        public String getName() {
+            return executor.name;
+        }
+
+        /**
+         * @return how many times this task has run
+         */
+        public long getRuns() {
+            return runs.get();
+        }
+
+        /**
+         * @return how many runs of this task were skipped because the
+         * previous run had not finished yet or the scheduler fell behind
+         */
+        public long getOverruns() {
+            return overruns.get();
+        }
+
+        /**
+         * @return how late the last run started, compared to when it was due
+         */
+        public long getLastLag(TimeUnit unit) {
+            return unit.convert(lastLagNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return how late the latest starting run started, compared to when
+         * it was due
+         */
+        public long getMaxLag(TimeUnit unit) {
+            return unit.convert(maxLagNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return getName() + ": " + getRuns() + " runs (" + getOverruns() + " overruns), last lag "
+                    + getLastLag(TimeUnit.MILLISECONDS) + " ms, max lag "
+                    + getMaxLag(TimeUnit.MILLISECONDS) + " ms";
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(nextRunNanos - clock.getMonotonicTimeNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (result != null && !result.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            synchronized (this) {
+                if (cancelled) {
+                    return false;
+                }
+                cancelled = true;
+                notifyAll();
+            }
+            done();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled || (result != null && result.isDone());
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            if (result != null) {
+                return result.get();
+            }
+            // periodic tasks only complete by being cancelled
+            synchronized (this) {
+                while (!cancelled) {
+                    wait();
+                }
+            }
+            throw new CancellationException();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException
+        {
+            if (result != null) {
+                return result.get(timeout, unit);
+            }
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this) {
+                while (!cancelled) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        throw new TimeoutException();
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+            }
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * The view of the scheduler that one backend gets.
+     */
+    private class BackendExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+        private final String name;
+        private final long jitterNanos;
+        private final Executor runner;
+        // the pool owned by this executor, if any
+        private final ExecutorService ownPool;
+        private final Set<Task<?>> scheduled = Collections.newSetFromMap(new ConcurrentHashMap<Task<?>, Boolean>());
+        private final AtomicInteger active = new AtomicInteger();
+        private volatile boolean isShutdown;
+
+        private BackendExecutor(String name, long jitterNanos, Executor runner, ExecutorService ownPool) {
+            this.name = name;
+            this.jitterNanos = jitterNanos;
+            this.runner = runner;
+            this.ownPool = ownPool;
+        }
+
+        private <V> Task<V> schedule(Task<V> task, long delayNanos) {
+            if (isShutdown) {
+                throw new RejectedExecutionException(name + " is shut down");
+            }
+            scheduled.add(task);
+            enqueue(task, delayNanos);
+            return task;
+        }
+
+        private void runStarted() {
+            active.incrementAndGet();
+        }
+
+        private void runFinished() {
+            if (active.decrementAndGet() == 0 && isShutdown) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private void taskDone(Task<?> task) {
+            scheduled.remove(task);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return schedule(new Task<>(this, new FutureTask<Void>(command, null)),
+                            unit.toNanos(delay));
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            return schedule(new Task<>(this, new FutureTask<>(callable)),
+                            unit.toNanos(delay));
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+                long initialDelay, long period, TimeUnit unit) {
+            if (period <= 0) {
+                throw new IllegalArgumentException("period must be positive");
+            }
+            return schedule(new Task<Void>(this, command, unit.toNanos(period)),
+                            unit.toNanos(initialDelay) + jitterNanos);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+                long initialDelay, long delay, TimeUnit unit) {
+            if (delay <= 0) {
+                throw new IllegalArgumentException("delay must be positive");
+            }
+            return schedule(new Task<Void>(this, command, -unit.toNanos(delay)),
+                            unit.toNanos(initialDelay));
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            schedule(command, 0, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void shutdown() {
+            isShutdown = true;
+            for (Task<?> task : scheduled) {
+                task.cancel(false);
+            }
+            if (ownPool != null) {
+                // runs that have started are allowed to finish
+                ownPool.shutdown();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return isShutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return isShutdown && active.get() == 0;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this) {
+                while (!isTerminated()) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.backend.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import sun.jvmstat.monitor.Monitor;
+import sun.jvmstat.monitor.MonitorException;
+import sun.jvmstat.monitor.MonitoredVm;
+import sun.jvmstat.monitor.event.MonitorStatusChangeEvent;
+import sun.jvmstat.monitor.event.VmEvent;
+import sun.jvmstat.monitor.event.VmListener;
+
+import com.redhat.thermostat.backend.VmUpdateException;
+
+/**
+ * Samples the jvmstat performance counters of a single JVM on behalf of all
+ * {@link VmListenerWrapper}s interested in it. The JVM is polled by one
+ * jvmstat listener no matter how many backends observe it.
+ * <p>
+ * Counters are looked up by name once, the first time a listener asks for
+ * them. After that, every update reads the resolved {@link Monitor}s in a
+ * single pass into an immutable {@link VmUpdateImpl} which is handed to all
+ * listeners.
+ */
+public class VmCounterSampler implements VmListener {
+
+    private final MonitoredVm vm;
+    private final int pid;
+    // Detaches from the JVM once the last listener is removed, if set
+    private final VmCounterSamplers owner;
+    private final List<VmListenerWrapper> listeners = new CopyOnWriteArrayList<>();
+    // Resolved counters by name
+    private final ConcurrentMap<String, Monitor> monitors = new ConcurrentHashMap<>();
+    // Names of counters this JVM does not have. Looking those up again on
+    // every update would make jvmstat rescan its buffer for new counters.
+    private final Set<String> missing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public VmCounterSampler(MonitoredVm vm) {
+        this(vm, -1, null);
+    }
+
+    VmCounterSampler(MonitoredVm vm, int pid, VmCounterSamplers owner) {
+        this.vm = vm;
+        this.pid = pid;
+        this.owner = owner;
+    }
+
+    MonitoredVm getMonitoredVm() {
+        return vm;
+    }
+
+    void addListener(VmListenerWrapper listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(VmListenerWrapper listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Removes a listener that no longer wants updates, such as one that
+     * failed too often. Unlike {@link #removeListener}, this detaches from
+     * the JVM if it was the last listener.
+     */
+    void release(VmListenerWrapper listener) {
+        if (owner != null) {
+            owner.unsubscribe(pid, listener);
+        } else {
+            removeListener(listener);
+        }
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    @Override
+    public void monitorsUpdated(VmEvent event) {
+        if (!vm.equals(event.getMonitoredVm())) {
+            throw new AssertionError("Received change event for wrong VM");
+        }
+        VmUpdateImpl update = sample();
+        for (VmListenerWrapper listener : listeners) {
+            listener.countersUpdated(update);
+        }
+    }
+
+    @Override
+    public void monitorStatusChanged(MonitorStatusChangeEvent event) {
+        // Nothing to do here
+    }
+
+    @Override
+    public void disconnected(VmEvent event) {
+        // Nothing to do here
+    }
+
+    /**
+     * Reads all counters resolved so far.
+     */
+    VmUpdateImpl sample() {
+        Map<String, Object> values = new HashMap<>(monitors.size() * 2);
+        for (Map.Entry<String, Monitor> entry : monitors.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return new VmUpdateImpl(this, values);
+    }
+
+    /**
+     * Reads a counter which is not part of the current sample, resolving it
+     * so that it will be part of all future samples.
+     *
+     * @return the current value or {@code null} if the JVM does not have
+     *         such a counter
+     */
+    Object getValue(String name) throws VmUpdateException {
+        Monitor monitor = getMonitor(name);
+        return monitor == null ? null : monitor.getValue();
+    }
+
+    Monitor getMonitor(String name) throws VmUpdateException {
+        Monitor monitor = monitors.get(name);
+        if (monitor != null || missing.contains(name)) {
+            return monitor;
+        }
+        try {
+            monitor = vm.findByName(name);
+        } catch (MonitorException e) {
+            throw new VmUpdateException("Error communicating with monitored VM", e);
+        }
+        if (monitor == null) {
+            missing.add(name);
+        } else {
+            monitors.putIfAbsent(name, monitor);
+        }
+        return monitor;
+    }
+
+}
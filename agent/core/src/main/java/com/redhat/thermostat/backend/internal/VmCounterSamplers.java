@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.backend.internal;
+
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.jvmstat.monitor.HostIdentifier;
+import sun.jvmstat.monitor.MonitorException;
+import sun.jvmstat.monitor.MonitoredHost;
+import sun.jvmstat.monitor.MonitoredVm;
+import sun.jvmstat.monitor.VmIdentifier;
+
+import com.redhat.thermostat.backend.VmUpdateListener;
+import com.redhat.thermostat.common.utils.LoggingUtils;
+
+/**
+ * Keeps one {@link VmCounterSampler} per JVM for the whole agent. A JVM is
+ * attached to when the first listener subscribes to it and detached from
+ * when the last one unsubscribes.
+ */
+public class VmCounterSamplers {
+
+    private static final Logger logger = LoggingUtils.getLogger(VmCounterSamplers.class);
+
+    private static VmCounterSamplers instance;
+
+    private final MonitoredHost host;
+    private final Map<Integer, VmCounterSampler> samplers = new HashMap<>();
+
+    /**
+     * @return the samplers shared by all backends of this agent
+     */
+    public static synchronized VmCounterSamplers getInstance() throws BackendException {
+        if (instance == null) {
+            try {
+                HostIdentifier hostId = new HostIdentifier((String) null);
+                instance = new VmCounterSamplers(MonitoredHost.getMonitoredHost(hostId));
+            } catch (MonitorException me) {
+                throw new BackendException("Problems with connecting jvmstat to local machine", me);
+            } catch (URISyntaxException use) {
+                throw new BackendException("Failed to create host identifier", use);
+            }
+        }
+        return instance;
+    }
+
+    // package-private for testing
+    VmCounterSamplers(MonitoredHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Starts delivering counter updates of the JVM with the given pid to the
+     * listener. Attaches to the JVM unless some other listener already did.
+     */
+    public synchronized VmListenerWrapper subscribe(int pid, VmUpdateListener listener) throws MonitorException, URISyntaxException {
+        VmCounterSampler sampler = samplers.get(pid);
+        if (sampler == null) {
+            MonitoredVm vm = host.getMonitoredVm(host.getHostIdentifier().resolve(new VmIdentifier(String.valueOf(pid))));
+            sampler = new VmCounterSampler(vm, pid, this);
+            vm.addVmListener(sampler);
+            samplers.put(pid, sampler);
+            logger.finer("Attached to VM: " + pid);
+        }
+        VmListenerWrapper wrapper = new VmListenerWrapper(listener, sampler);
+        sampler.addListener(wrapper);
+        return wrapper;
+    }
+
+    /**
+     * Stops delivering counter updates to the given subscription. Detaches
+     * from the JVM if there are no subscriptions left. Does nothing if the
+     * subscription was already stopped.
+     */
+    public synchronized void unsubscribe(int pid, VmListenerWrapper wrapper) {
+        VmCounterSampler sampler = samplers.get(pid);
+        if (sampler == null || sampler != wrapper.getSampler()) {
+            return;
+        }
+        sampler.removeListener(wrapper);
+        if (sampler.hasListeners()) {
+            return;
+        }
+        samplers.remove(pid);
+        MonitoredVm vm = sampler.getMonitoredVm();
+        try {
+            vm.removeVmListener(sampler);
+        } catch (MonitorException e) {
+            logger.log(Level.WARNING, "can't remove vm listener", e);
+        }
+        vm.detach();
+        logger.finer("Detached from VM: " + pid);
+    }
+
+    /*
+     * For testing purposes only.
+     */
+    synchronized VmCounterSampler getSampler(int pid) {
+        return samplers.get(pid);
+    }
+
+}
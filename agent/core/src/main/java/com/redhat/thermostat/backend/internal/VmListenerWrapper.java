@@ -39,40 +39,29 @@ package com.redhat.thermostat.backend.internal;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.redhat.thermostat.backend.VmUpdate;
-import com.redhat.thermostat.backend.VmUpdateException;
 import com.redhat.thermostat.backend.VmUpdateListener;
 import com.redhat.thermostat.common.utils.LoggingUtils;
 
-import sun.jvmstat.monitor.Monitor;
-import sun.jvmstat.monitor.MonitorException;
-import sun.jvmstat.monitor.MonitoredVm;
-import sun.jvmstat.monitor.event.MonitorStatusChangeEvent;
-import sun.jvmstat.monitor.event.VmEvent;
-import sun.jvmstat.monitor.event.VmListener;
-
-public class VmListenerWrapper implements VmListener {
+/**
+ * Hands the counter samples of a {@link VmCounterSampler} to a single
+ * {@link VmUpdateListener}.
+ */
+public class VmListenerWrapper {
     
     private static final Logger logger = LoggingUtils.getLogger(VmListenerWrapper.class);
     // Threshold until this listener gets removed from the JVM in case of it throwing
     // exceptions on countersUpdated()
     private static final int EXCEPTION_THRESHOLD = 10;
     private final VmUpdateListener listener;
-    private final MonitoredVm vm;
-    private final VmUpdate update;
+    private final VmCounterSampler sampler;
     private int exceptionCount;
 
-    public VmListenerWrapper(VmUpdateListener listener, MonitoredVm vm) {
+    public VmListenerWrapper(VmUpdateListener listener, VmCounterSampler sampler) {
         this.listener = listener;
-        this.vm = vm;
-        this.update = new VmUpdateImpl(this);
+        this.sampler = sampler;
     }
 
-    @Override
-    public void monitorsUpdated(VmEvent event) {
-        if (!vm.equals(event.getMonitoredVm())) {
-            throw new AssertionError("Received change event for wrong VM");
-        }
+    void countersUpdated(VmUpdateImpl update) {
         try {
             listener.countersUpdated(update);
         } catch (Throwable t) {
@@ -87,34 +76,14 @@ public class VmListenerWrapper implements VmListener {
             exceptionCount++;
         } else {
             logger.fine("Removing bad listener " + listenerName + " due to too many repeated exceptions.");
-            try {
-                vm.removeVmListener(this);
-            } catch (MonitorException e) {
-                // ignore remove failures for bad listeners
-            }
+            sampler.release(this);
         }
     }
 
-    @Override
-    public void monitorStatusChanged(MonitorStatusChangeEvent event) {
-        // Nothing to do here
+    VmCounterSampler getSampler() {
+        return sampler;
     }
 
-    @Override
-    public void disconnected(VmEvent event) {
-        // Nothing to do here
-    }
-    
-    public Monitor getMonitor(String name) throws VmUpdateException {
-        Monitor result;
-        try {
-            result = vm.findByName(name);
-        } catch (MonitorException e) {
-            throw new VmUpdateException("Error communicating with monitored VM", e);
-        }
-        return result;
-    }
-    
     /*
      * For testing purposes only.
      */
@@ -123,4 +92,3 @@ public class VmListenerWrapper implements VmListener {
     }
     
 }
-
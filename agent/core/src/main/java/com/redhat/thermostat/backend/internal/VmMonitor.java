@@ -42,48 +42,43 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import sun.jvmstat.monitor.HostIdentifier;
 import sun.jvmstat.monitor.MonitorException;
-import sun.jvmstat.monitor.MonitoredHost;
-import sun.jvmstat.monitor.MonitoredVm;
-import sun.jvmstat.monitor.VmIdentifier;
 
 import com.redhat.thermostat.common.portability.ProcessChecker;
 import com.redhat.thermostat.backend.VmUpdateListener;
-import com.redhat.thermostat.common.Pair;
 import com.redhat.thermostat.common.utils.LoggingUtils;
 
+/**
+ * Tracks the {@link VmUpdateListener}s of a single backend. The JVMs
+ * themselves are attached to and sampled by the agent wide
+ * {@link VmCounterSamplers}.
+ */
 public class VmMonitor {
     
     private final Logger logger = LoggingUtils.getLogger(VmMonitor.class);
 
     private final ProcessChecker processChecker;
-    private MonitoredHost host;
-    private Map<Integer, Pair<MonitoredVm, VmListenerWrapper>> pidToData = new HashMap<>();
+    private final VmCounterSamplers samplers;
+    private Map<Integer, VmListenerWrapper> pidToData = new HashMap<>();
     
     public VmMonitor() throws BackendException {
         this(new ProcessChecker());
     }
 
     public VmMonitor(ProcessChecker processChecker) throws BackendException {
+        this(processChecker, VmCounterSamplers.getInstance());
+    }
+
+    // package-private for testing
+    VmMonitor(ProcessChecker processChecker, VmCounterSamplers samplers) {
         this.processChecker = processChecker;
-        try {
-            HostIdentifier hostId = new HostIdentifier((String) null);
-            host = MonitoredHost.getMonitoredHost(hostId);
-        } catch (MonitorException me) {
-            throw new BackendException("Problems with connecting jvmstat to local machine", me);
-        } catch (URISyntaxException use) {
-            throw new BackendException("Failed to create host identifier", use);
-        }
+        this.samplers = samplers;
     }
     
     public void handleNewVm(VmUpdateListener listener, int pid) {
         try {
-            MonitoredVm vm = host.getMonitoredVm(host.getHostIdentifier().resolve(new VmIdentifier(String.valueOf(pid))));
-            VmListenerWrapper wrapper = new VmListenerWrapper(listener, vm);
-            vm.addVmListener(wrapper);
-
-            pidToData.put(pid, new Pair<>(vm, wrapper));
+            VmListenerWrapper wrapper = samplers.subscribe(pid, listener);
+            pidToData.put(pid, wrapper);
             logger.finer("Attached " + listener.getClass().getName() + " for VM: " + pid);
         } catch (MonitorException e) {
             logMsg(pid, e);
@@ -102,31 +97,17 @@ public class VmMonitor {
     }
 
     public void handleStoppedVm(int pid) {
-        Pair<MonitoredVm, VmListenerWrapper> data = pidToData.remove(pid);
+        VmListenerWrapper wrapper = pidToData.remove(pid);
         // we were not monitoring pid at all, so nothing to do
-        if (data == null) {
+        if (wrapper == null) {
             return;
         }
-    
-        MonitoredVm vm = data.getFirst();
-        VmListenerWrapper listener = data.getSecond();
-        try {
-            vm.removeVmListener(listener);
-        } catch (MonitorException e) {
-            logger.log(Level.WARNING, "can't remove vm listener", e);
-        }
-        vm.detach();
+        samplers.unsubscribe(pid, wrapper);
     }
 
     public void removeVmListeners() {
-        for (Pair<MonitoredVm, VmListenerWrapper> data : pidToData.values()) {
-            MonitoredVm vm = data.getFirst();
-            VmListenerWrapper listener = data.getSecond();
-            try {
-                vm.removeVmListener(listener);
-            } catch (MonitorException e) {
-                logger.log(Level.WARNING, "can't remove vm listener", e);
-            }
+        for (Map.Entry<Integer, VmListenerWrapper> data : pidToData.entrySet()) {
+            samplers.unsubscribe(data.getKey(), data.getValue());
         }
         pidToData.clear();
     }
@@ -134,16 +115,8 @@ public class VmMonitor {
     /*
      * For testing purposes only.
      */
-    void setHost(MonitoredHost host) {
-        this.host = host;
-    }
-    
-    /*
-     * For testing purposes only.
-     */
-    Map<Integer, Pair<MonitoredVm, VmListenerWrapper>> getPidToDataMap() {
+    Map<Integer, VmListenerWrapper> getPidToDataMap() {
         return pidToData;
     }
 
 }
-
@@ -36,18 +36,24 @@
 
 package com.redhat.thermostat.backend.internal;
 
-import sun.jvmstat.monitor.Monitor;
+import java.util.Collections;
+import java.util.Map;
 
 import com.redhat.thermostat.backend.VmUpdate;
 import com.redhat.thermostat.backend.VmUpdateException;
 
-
+/**
+ * The counter values of a JVM as sampled for a single update. Instances are
+ * shared by all listeners of the JVM and never change.
+ */
 public class VmUpdateImpl implements VmUpdate {
-    
-    private VmListenerWrapper wrapper;
 
-    VmUpdateImpl(VmListenerWrapper wrapper) {
-        this.wrapper = wrapper;
+    private final VmCounterSampler sampler;
+    private final Map<String, Object> values;
+
+    VmUpdateImpl(VmCounterSampler sampler, Map<String, Object> values) {
+        this.sampler = sampler;
+        this.values = Collections.unmodifiableMap(values);
     }
     
     @Override
@@ -62,10 +68,11 @@ public class VmUpdateImpl implements VmUpdate {
     }
     
     private Object getPerformanceCounter(String name) throws VmUpdateException {
-        Object result = null;
-        Monitor monitor = wrapper.getMonitor(name);
-        if (monitor != null) {
-            result = monitor.getValue();
+        Object result = values.get(name);
+        if (result == null && !values.containsKey(name)) {
+            // First time anyone asked for this counter. It will be part of
+            // the following samples.
+            result = sampler.getValue(name);
         }
         return result;
     }
@@ -73,9 +80,15 @@ public class VmUpdateImpl implements VmUpdate {
     /*
      * For testing purposes only.
      */
-    VmListenerWrapper getWrapper() {
-        return wrapper;
+    VmCounterSampler getSampler() {
+        return sampler;
     }
 
-}
+    /*
+     * For testing purposes only.
+     */
+    Map<String, Object> getValues() {
+        return values;
+    }
 
+}
@@ -39,12 +39,12 @@ package com.redhat.thermostat.utils.management.internal;
 import java.io.File;
 import java.io.IOException;
 
-import com.redhat.thermostat.common.ExitStatus;
 import com.redhat.thermostat.shared.config.OS;
 
 class AgentProxyClient {
     
     private static final String SERVER_NAME = "thermostat-agent-proxy";
+    static final String PERSISTENT_FLAG = "--persistent";
     
     private final int pid;
     private final ProcessCreator procCreator;
@@ -52,6 +52,7 @@ class AgentProxyClient {
     private final String username;
     private final File ipcConfigFile;
     private final String serverName;
+    private Process proxy;
     
     AgentProxyClient(int pid, String user, File binPath, File ipcConfigFile, String serverName) {
         this(pid, user, binPath, ipcConfigFile, serverName, new ProcessCreator());
@@ -66,24 +67,39 @@ class AgentProxyClient {
         this.serverName = serverName;
     }
 
-    void runProcess() throws IOException, InterruptedException {
+    /**
+     * Starts a long-lived agent proxy that attaches to {@code pid} and then
+     * keeps serving attach requests sent to it over the IPC channel.
+     * Returns once the process has been launched.
+     */
+    synchronized void start() throws IOException {
         // Start the agent proxy
         String serverPath = binPath + File.separator + SERVER_NAME;
         String[] args = OS.IS_UNIX
-                ? new String[] { serverPath, String.valueOf(pid), username, ipcConfigFile.getAbsolutePath(), serverName }
-                : new String[] { "cmd", "/C", serverPath+".cmd", String.valueOf(pid), username, ipcConfigFile.getAbsolutePath(), serverName };
+                ? new String[] { serverPath, String.valueOf(pid), username, ipcConfigFile.getAbsolutePath(), serverName, PERSISTENT_FLAG }
+                : new String[] { "cmd", "/C", serverPath+".cmd", String.valueOf(pid), username, ipcConfigFile.getAbsolutePath(), serverName, PERSISTENT_FLAG };
         ProcessBuilder builder = new ProcessBuilder(args);
         builder.inheritIO();
-        Process proxy = procCreator.startProcess(builder);
-        
+        proxy = procCreator.startProcess(builder);
+    }
+    
+    synchronized boolean isRunning() {
+        if (proxy == null) {
+            return false;
+        }
         try {
-            // Wait for process to terminate
-            proxy.waitFor();
-            if (proxy.exitValue() != ExitStatus.EXIT_SUCCESS) {
-                throw new IOException("Agent proxy for " + pid + " exited with non-zero exit code");
-            }
-        } finally {
+            proxy.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            // Not yet exited
+            return true;
+        }
+    }
+    
+    synchronized void stop() {
+        if (proxy != null) {
             proxy.destroy();
+            proxy = null;
         }
     }
     
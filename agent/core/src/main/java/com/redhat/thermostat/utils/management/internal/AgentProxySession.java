@@ -0,0 +1,277 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.utils.management.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.redhat.thermostat.agent.ipc.server.AgentIPCService;
+import com.redhat.thermostat.agent.ipc.server.IPCMessage;
+import com.redhat.thermostat.agent.ipc.server.ThermostatIPCCallbacks;
+import com.redhat.thermostat.common.utils.LoggingUtils;
+import com.redhat.thermostat.utils.management.internal.MXBeanConnectionPoolImpl.ConnectorCreator;
+
+/**
+ * The agent's side of a long-lived agent proxy serving all JVMs owned by one user.
+ * <p>
+ * The proxy is started with the first PID to attach to. Every message it sends
+ * (either a "ready" notice or the result of an attach) is kept so that further
+ * PIDs can be sent to it as replies, without starting a new process. The proxy
+ * may have several attaches in flight, so results are matched to requests by PID.
+ * <p>
+ * A message that cannot be matched to a request means the proxy can no longer be
+ * trusted: all outstanding requests fail and the proxy is restarted on the next
+ * request.
+ */
+class AgentProxySession implements ThermostatIPCCallbacks {
+    
+    private static final Logger logger = LoggingUtils.getLogger(AgentProxySession.class);
+    static final String JSON_PID = "pid";
+    static final String JSON_JMX_URL = "jmxUrl";
+    static final String JSON_ERROR = "error";
+    static final String JSON_READY = "ready";
+    static final String JSON_SHUTDOWN = "shutdown";
+    
+    private final String serverName;
+    private final String username;
+    private final ConnectorCreator creator;
+    private final File binPath;
+    private final AgentIPCService ipcService;
+    
+    // pid -> entry waiting for its JMX service URL
+    private final Map<Integer, MXBeanConnectionPoolEntry> pending;
+    // PIDs not yet sent, because the proxy has not contacted us since it was started
+    private final Queue<Integer> unsent;
+    // PIDs whose requester gave up, a late reply for these is expected
+    private final Set<Integer> abandoned;
+    private AgentProxyClient proxy;
+    // Most recent message from the proxy, used to send it further requests
+    private IPCMessage replyTo;
+    
+    AgentProxySession(String serverName, String username, ConnectorCreator creator, File binPath, 
+            AgentIPCService ipcService) {
+        this.serverName = serverName;
+        this.username = username;
+        this.creator = creator;
+        this.binPath = binPath;
+        this.ipcService = ipcService;
+        this.pending = new HashMap<>();
+        this.unsent = new ArrayDeque<>();
+        this.abandoned = new HashSet<>();
+        this.proxy = null;
+        this.replyTo = null;
+    }
+    
+    /**
+     * Asks the proxy for the JMX service URL of {@code entry}'s PID. The result is
+     * delivered to {@code entry} once the proxy replies.
+     */
+    synchronized void request(MXBeanConnectionPoolEntry entry) throws IOException {
+        int pid = entry.getPid();
+        if (proxy == null || !proxy.isRunning()) {
+            reset(new IOException("Agent proxy for " + serverName + " exited"));
+            pending.put(pid, entry);
+            
+            // The proxy attaches to this PID first, then waits for more requests
+            File configFile = ipcService.getConfigurationFile();
+            AgentProxyClient newProxy = creator.createAgentProxy(pid, username, binPath, configFile, serverName);
+            newProxy.start();
+            proxy = newProxy;
+        } else {
+            pending.put(pid, entry);
+            if (replyTo == null) {
+                unsent.add(pid);
+            } else {
+                sendRequest(pid);
+            }
+        }
+    }
+    
+    /**
+     * Called when the requester of {@code pid} stopped waiting for the result.
+     */
+    synchronized void cancel(int pid) {
+        if (pending.remove(pid) != null) {
+            unsent.remove(pid);
+            abandoned.add(pid);
+        }
+    }
+    
+    synchronized void stop() {
+        if (replyTo != null) {
+            try {
+                JsonObject data = new JsonObject();
+                data.addProperty(JSON_SHUTDOWN, true);
+                send(data);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Failed to send shutdown request to agent proxy for " + serverName, e);
+            }
+        }
+        reset(new IOException("Agent proxy for " + serverName + " was shut down"));
+    }
+    
+    private void reset(Exception cause) {
+        for (MXBeanConnectionPoolEntry entry : pending.values()) {
+            entry.setException(cause);
+        }
+        pending.clear();
+        unsent.clear();
+        abandoned.clear();
+        replyTo = null;
+        if (proxy != null) {
+            proxy.stop();
+            proxy = null;
+        }
+    }
+    
+    @Override
+    public synchronized void messageReceived(IPCMessage message) {
+        ByteBuffer buf = message.get();
+        CharBuffer charBuf = Charset.forName("UTF-8").decode(buf);
+        String dataString = charBuf.toString();
+        try {
+            // Deserialize JSON data
+            GsonBuilder builder = new GsonBuilder();
+            Gson gson = builder.create();
+            JsonParser parser = new JsonParser();
+            
+            // Get root of JsonObject tree
+            JsonElement parsed = parser.parse(dataString);
+            requireNonNull(parsed, "Received empty JSON data");
+            if (!parsed.isJsonObject()) {
+                throw new IOException("Malformed data from agent proxy");
+            }
+            JsonObject jsonObj = parsed.getAsJsonObject();
+            
+            replyTo = message;
+            if (!jsonObj.has(JSON_READY)) {
+                handleResult(gson, jsonObj);
+            }
+            sendUnsent();
+        } catch (JsonParseException | IOException e) {
+            logger.log(Level.WARNING, "Bad message from agent proxy for " + serverName, e);
+            reset(e);
+        }
+    }
+    
+    private void handleResult(Gson gson, JsonObject jsonObj) throws IOException {
+        int pid = getPidFromJson(gson, jsonObj);
+        MXBeanConnectionPoolEntry entry = pending.remove(pid);
+        if (entry == null) {
+            if (abandoned.remove(pid)) {
+                logger.fine("Ignoring late reply from agent proxy for PID: " + pid);
+                return;
+            }
+            throw new IOException("Got message from agent proxy for unexpected PID: " + pid);
+        }
+        
+        JsonElement jsonError = jsonObj.get(JSON_ERROR);
+        if (jsonError != null && !jsonError.isJsonNull()) {
+            entry.setException(new IOException(gson.fromJson(jsonError, String.class)));
+            return;
+        }
+        try {
+            String jmxUrl = getJmxUrlFromJson(gson, jsonObj, pid);
+            entry.setJmxUrl(jmxUrl);
+        } catch (JsonParseException | IOException e) {
+            entry.setException(e);
+        }
+    }
+    
+    private void sendUnsent() throws IOException {
+        List<Integer> toSend = new ArrayList<>(unsent);
+        unsent.clear();
+        for (int pid : toSend) {
+            sendRequest(pid);
+        }
+    }
+    
+    private void sendRequest(int pid) throws IOException {
+        JsonObject data = new JsonObject();
+        data.addProperty(JSON_PID, pid);
+        send(data);
+    }
+    
+    private void send(JsonObject data) throws IOException {
+        Gson gson = new GsonBuilder().create();
+        String jsonData = gson.toJson(data);
+        replyTo.reply(ByteBuffer.wrap(jsonData.getBytes(Charset.forName("UTF-8"))));
+    }
+    
+    private int getPidFromJson(Gson gson, JsonObject json) throws IOException {
+        JsonElement jsonPid = json.get(JSON_PID);
+        requireNonNull(jsonPid, "No PID received from agent proxy");
+        return gson.fromJson(jsonPid, Integer.class);
+    }
+    
+    private String getJmxUrlFromJson(Gson gson, JsonObject json, int pid) throws IOException {
+        JsonElement jsonJmxUrl = json.get(JSON_JMX_URL);
+        requireNonNull(jsonJmxUrl, "No JMX service URL received from agent proxy for PID: " + pid);
+        return gson.fromJson(jsonJmxUrl, String.class);
+    }
+    
+    private void requireNonNull(JsonElement element, String errorMessage) throws IOException {
+        if (element == null || element.isJsonNull()) {
+            throw new IOException(errorMessage);
+        }
+    }
+    
+    // For testing purposes
+    synchronized AgentProxyClient getProxy() {
+        return proxy;
+    }
+
+}
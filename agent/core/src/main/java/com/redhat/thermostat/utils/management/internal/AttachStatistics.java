@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.utils.management.internal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the attaches performed by {@link MXBeanConnectionPoolImpl}, measured
+ * from the request for a new connection until the JMX connection is open.
+ * Connections served from the pool are not counted.
+ */
+public class AttachStatistics {
+    
+    private long attachCount;
+    private long failureCount;
+    private long totalNanos;
+    private long maxNanos;
+    
+    synchronized void recordAttach(long latencyNanos) {
+        attachCount++;
+        totalNanos += latencyNanos;
+        maxNanos = Math.max(maxNanos, latencyNanos);
+    }
+    
+    synchronized void recordFailure() {
+        failureCount++;
+    }
+    
+    public synchronized long getAttachCount() {
+        return attachCount;
+    }
+    
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+    
+    public synchronized long getMeanLatency(TimeUnit unit) {
+        if (attachCount == 0) {
+            return 0L;
+        }
+        return unit.convert(totalNanos / attachCount, TimeUnit.NANOSECONDS);
+    }
+    
+    public synchronized long getMaxLatency(TimeUnit unit) {
+        return unit.convert(maxNanos, TimeUnit.NANOSECONDS);
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return attachCount + " attaches (" + failureCount + " failed), mean latency " 
+                + getMeanLatency(TimeUnit.MILLISECONDS) + " ms, max latency " 
+                + getMaxLatency(TimeUnit.MILLISECONDS) + " ms";
+    }
+
+}
@@ -47,5 +47,10 @@ public interface MXBeanConnectionPoolControl extends MXBeanConnectionPool {
     boolean isStarted();
     
     void shutdown() throws IOException;
+    
+    /**
+     * @return latency of the attaches performed so far to open new connections
+     */
+    AttachStatistics getAttachStatistics();
 
 }
@@ -38,62 +38,51 @@ package com.redhat.thermostat.utils.management.internal;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
 import java.nio.file.FileSystems;
 import java.nio.file.attribute.UserPrincipal;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonParser;
 import com.redhat.thermostat.agent.ipc.server.AgentIPCService;
-import com.redhat.thermostat.agent.ipc.server.IPCMessage;
-import com.redhat.thermostat.agent.ipc.server.ThermostatIPCCallbacks;
 import com.redhat.thermostat.common.portability.ProcessUserInfo;
 import com.redhat.thermostat.common.portability.ProcessUserInfoBuilder;
 import com.redhat.thermostat.common.portability.ProcessUserInfoBuilderFactory;
 import com.redhat.thermostat.common.portability.linux.ProcDataSource;
+import com.redhat.thermostat.common.utils.LoggingUtils;
 import com.redhat.thermostat.agent.utils.management.MXBeanConnection;
 import com.redhat.thermostat.agent.utils.management.MXBeanConnectionException;
 import com.redhat.thermostat.agent.utils.management.MXBeanConnectionPool;
 import com.redhat.thermostat.common.portability.UserNameUtil;
 
-public class MXBeanConnectionPoolImpl implements MXBeanConnectionPoolControl, ThermostatIPCCallbacks {
+public class MXBeanConnectionPoolImpl implements MXBeanConnectionPoolControl {
 
-    private static final Object CURRENT_ENTRY_LOCK = new Object();
+    private static final Logger logger = LoggingUtils.getLogger(MXBeanConnectionPoolImpl.class);
     private static final String IPC_SERVER_PREFIX = "agent-proxy";
-    static final String JSON_PID = "pid";
-    static final String JSON_JMX_URL = "jmxUrl";
+    // Number of locks PIDs are spread across, attaches to PIDs using different locks run in parallel
+    private static final int LOCK_STRIPES = 64;
     
     // pid -> (usageCount, actualObject)
     private final Map<Integer, MXBeanConnectionPoolEntry> pool;
+    private final Object[] pidLocks;
     private final ConnectorCreator creator;
     private final File binPath;
     private final ProcessUserInfoBuilder userInfoBuilder;
     private final AgentIPCService ipcService;
     private final FileSystemUtils fsUtils;
+    private final AttachStatistics stats;
+    // Guards ipcServerNames and sessions
+    private final Object serverLock;
     // Keep track of IPC servers we created
     private final Set<String> ipcServerNames;
-    
-    /**
-     * Current {@link MXBeanConnectionPoolEntry} being created by {@link #acquire(int)} for use
-     * by {@link #messageReceived(IPCMessage)}. 
-     * Since {@link #acquire(int)} is a synchronized method and blocks until
-     * {@link #messageReceived(IPCMessage)} is invoked, only one entry can be processed at a time.
-     * Access/modification must be synchronized using {@link #CURRENT_ENTRY_LOCK}.
-     */
-    private MXBeanConnectionPoolEntry currentNewEntry;
-    private boolean started;
+    // IPC server name -> agent proxy serving that user
+    private final Map<String, AgentProxySession> sessions;
+    private volatile boolean started;
 
     public MXBeanConnectionPoolImpl(File binPath, UserNameUtil userNameUtil, AgentIPCService ipcService) {
         this(new ConnectorCreator(), binPath, ProcessUserInfoBuilderFactory.createBuilder(new ProcDataSource(), userNameUtil),
@@ -102,15 +91,21 @@ public class MXBeanConnectionPoolImpl implements MXBeanConnectionPoolControl, Th
 
     MXBeanConnectionPoolImpl(ConnectorCreator connectorCreator, File binPath, ProcessUserInfoBuilder userInfoBuilder, 
             AgentIPCService ipcService, FileSystemUtils fsUtils) {
-        this.pool = new HashMap<>();
+        this.pool = new ConcurrentHashMap<>();
+        this.pidLocks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < pidLocks.length; i++) {
+            pidLocks[i] = new Object();
+        }
         this.creator = connectorCreator;
         this.binPath = binPath;
         this.userInfoBuilder = userInfoBuilder;
         this.ipcService = ipcService;
         this.fsUtils = fsUtils;
-        this.currentNewEntry = null;
+        this.stats = new AttachStatistics();
         this.started = false;
+        this.serverLock = new Object();
         this.ipcServerNames = new HashSet<>();
+        this.sessions = new HashMap<>();
     }
 
     @Override
@@ -127,12 +122,21 @@ public class MXBeanConnectionPoolImpl implements MXBeanConnectionPoolControl, Th
     public synchronized void shutdown() throws IOException {
         this.started = false;
         
-        // Delete all IPC servers created by this class
-        Set<String> serverNames = new HashSet<>(ipcServerNames);
-        for (String serverName : serverNames) {
-            deleteServerIfExists(serverName);
-            ipcServerNames.remove(serverName);
+        synchronized (serverLock) {
+            // Stop all agent proxies
+            for (AgentProxySession session : sessions.values()) {
+                session.stop();
+            }
+            sessions.clear();
+            
+            // Delete all IPC servers created by this class
+            Set<String> serverNames = new HashSet<>(ipcServerNames);
+            for (String serverName : serverNames) {
+                deleteServerIfExists(serverName);
+                ipcServerNames.remove(serverName);
+            }
         }
+        logger.fine("Agent proxy attach statistics: " + stats);
     }
 
     private void deleteServerIfExists(String serverName) throws IOException {
@@ -142,124 +146,86 @@ public class MXBeanConnectionPoolImpl implements MXBeanConnectionPoolControl, Th
     }
     
     @Override
-    public void messageReceived(IPCMessage message) {
-        synchronized (CURRENT_ENTRY_LOCK) {
-            MXBeanConnectionPoolEntry entry = currentNewEntry;
-            Objects.requireNonNull(entry, "currentNewEntry was null, should never happen");
-            
-            ByteBuffer buf = message.get();
-            CharBuffer charBuf = Charset.forName("UTF-8").decode(buf);
-            String dataString = charBuf.toString();
-            try {
-                // Deserialize JSON data
-                GsonBuilder builder = new GsonBuilder();
-                Gson gson = builder.create();
-                JsonParser parser = new JsonParser();
-                
-                // Get root of JsonObject tree
-                JsonElement parsed = parser.parse(dataString);
-                requireNonNull(parsed, "Received empty JSON data");
-                if (!parsed.isJsonObject()) {
-                    throw new IOException("Malformed data from agent proxy");
-                }
-                JsonObject jsonObj = parsed.getAsJsonObject();
-                
-                int pid = getPidFromJson(gson, jsonObj);
-                // Verify PID is correct
-                if (entry.getPid() != pid) {
-                    throw new IOException("Expected message for PID: " + currentNewEntry.getPid() 
-                        + ", got message for PID: " + pid);
-                }
-
-                String jmxUrl = getJmxUrlFromJson(gson, jsonObj, pid);
-                entry.setJmxUrl(jmxUrl);
-            } catch (JsonParseException | IOException e) {
-                entry.setException(e);
-            }
-        }
-    }
-    
-    private int getPidFromJson(Gson gson, JsonObject json) throws IOException {
-        JsonElement jsonPid = json.get(JSON_PID);
-        requireNonNull(jsonPid, "No PID received from agent proxy");
-        return gson.fromJson(jsonPid, Integer.class);
-    }
-    
-    private String getJmxUrlFromJson(Gson gson, JsonObject json, int pid) throws IOException {
-        JsonElement jsonJmxUrl = json.get(JSON_JMX_URL);
-        requireNonNull(jsonJmxUrl, "No JMX service URL received from agent proxy for PID: " + pid);
-        return gson.fromJson(jsonJmxUrl, String.class);
-    }
-    
-    private void requireNonNull(JsonElement element, String errorMessage) throws IOException {
-        if (element == null || element.isJsonNull()) {
-            throw new IOException(errorMessage);
-        }
-    }
-    
-    @Override
-    public synchronized MXBeanConnection acquire(int pid) throws MXBeanConnectionException {
+    public MXBeanConnection acquire(int pid) throws MXBeanConnectionException {
         checkRunning();
-        MXBeanConnectionPoolEntry data = pool.get(pid);
-        if (data == null) {
-            MXBeanConnector connector = null;
+        synchronized (lockFor(pid)) {
+            MXBeanConnectionPoolEntry data = pool.get(pid);
+            if (data != null) {
+                data.incrementUsageCount();
+                return data.getConnection();
+            }
+            
             ProcessUserInfo info = userInfoBuilder.build(pid);
             String username = info.getUsername();
             if (username == null) {
                 throw new MXBeanConnectionException("Unable to determine owner of " + pid);
             }
-            // Create an Agent Proxy IPC server for this user if it does not already exist
-            String serverName = IPC_SERVER_PREFIX + "-" + String.valueOf(info.getUid());
+            
+            long startTime = System.nanoTime();
+            data = new MXBeanConnectionPoolEntry(pid);
+            AgentProxySession session = null;
             try {
-                // Check if we created an IPC server for this user already
-                if (!ipcServerNames.contains(serverName)) {
-                    createIPCServer(username, serverName);
-                }
+                session = getSession(info.getUid(), username);
                 
-                data = new MXBeanConnectionPoolEntry(pid);
-                // Synchronized to ensure any previous callback has completely finished 
-                // before changing currentNewEntry
-                synchronized (CURRENT_ENTRY_LOCK) {
-                    this.currentNewEntry = data;
-                }
-                // Add this to the map early, so our callback can find it
-                pool.put(pid, data);
-                
-                // Start agent proxy which will send the JMX service URL to the IPC server we created
-                File configFile = ipcService.getConfigurationFile();
-                AgentProxyClient proxy = creator.createAgentProxy(pid, username, binPath, configFile, serverName);
-                proxy.runProcess(); // Process completed when this returns
+                // Ask the agent proxy for this user to send us the JMX service URL
+                session.request(data);
                 
                 // Block until we get a JMX service URL, or Exception
                 String jmxUrl = data.getJmxUrlOrBlock();
-                connector = creator.createConnector(jmxUrl);
+                MXBeanConnector connector = creator.createConnector(jmxUrl);
                 MXBeanConnectionImpl connection = connector.connect();
                 data.setConnection(connection);
+                pool.put(pid, data);
             } catch (IOException e) {
-                pool.remove(pid);
+                attachFailed(session, pid);
                 throw new MXBeanConnectionException(e);
             } catch (InterruptedException e) {
-                pool.remove(pid);
+                attachFailed(session, pid);
                 Thread.currentThread().interrupt();
                 throw new MXBeanConnectionException(e);
-            } finally {
-                // Reset currentNewEntry
-                synchronized (CURRENT_ENTRY_LOCK) {
-                    this.currentNewEntry = null;
+            }
+            
+            long latency = System.nanoTime() - startTime;
+            stats.recordAttach(latency);
+            logger.fine("Attached to " + pid + " in " + TimeUnit.NANOSECONDS.toMillis(latency) + " ms");
+            return data.getConnection();
+        }
+    }
+    
+    private Object lockFor(int pid) {
+        return pidLocks[(pid & Integer.MAX_VALUE) % pidLocks.length];
+    }
+    
+    private void attachFailed(AgentProxySession session, int pid) {
+        if (session != null) {
+            session.cancel(pid);
+        }
+        stats.recordFailure();
+    }
+    
+    private AgentProxySession getSession(long uid, String username) throws IOException {
+        // Create an Agent Proxy IPC server for this user if it does not already exist
+        String serverName = IPC_SERVER_PREFIX + "-" + String.valueOf(uid);
+        synchronized (serverLock) {
+            AgentProxySession session = sessions.get(serverName);
+            if (session == null) {
+                session = new AgentProxySession(serverName, username, creator, binPath, ipcService);
+                // Check if we created an IPC server for this user already
+                if (!ipcServerNames.contains(serverName)) {
+                    createIPCServer(username, serverName, session);
                 }
+                sessions.put(serverName, session);
             }
-        } else {
-            data.incrementUsageCount();
+            return session;
         }
-        return data.getConnection();
     }
 
-    private void createIPCServer(String username, String serverName) throws IOException {
+    private void createIPCServer(String username, String serverName, AgentProxySession session) throws IOException {
         // Lookup UserPrincipal using username
         UserPrincipalLookupService lookup = fsUtils.getUserPrincipalLookupService();
         UserPrincipal principal = lookup.lookupPrincipalByName(username);
         deleteServerIfExists(serverName); // Chance of old server left behind
-        ipcService.createServer(serverName, this, principal);
+        ipcService.createServer(serverName, session, principal);
         ipcServerNames.add(serverName);
     }
 
@@ -270,31 +236,38 @@ public class MXBeanConnectionPoolImpl implements MXBeanConnectionPoolControl, Th
     }
 
     @Override
-    public synchronized void release(int pid, MXBeanConnection toRelease) throws MXBeanConnectionException {
+    public void release(int pid, MXBeanConnection toRelease) throws MXBeanConnectionException {
         checkRunning();
-        MXBeanConnectionPoolEntry data = pool.get(pid);
-        if (data == null) {
-            throw new MXBeanConnectionException("Unknown pid: " + pid);
-        }
-        MXBeanConnectionImpl connection = data.getConnection();
-        if (connection == null) {
-            throw new MXBeanConnectionException("No known open connection for pid: " + pid);
-        } else if (connection != toRelease) {
-            throw new MXBeanConnectionException("Connection mismatch for pid: " + pid);
-        }
-        
-        data.decrementUsageCount();
-        int usageCount = data.getUsageCount();
-        if (usageCount == 0) {
-            try {
-                connection.close();
-            } catch (IOException e) {
-                throw new MXBeanConnectionException(e);
+        synchronized (lockFor(pid)) {
+            MXBeanConnectionPoolEntry data = pool.get(pid);
+            if (data == null) {
+                throw new MXBeanConnectionException("Unknown pid: " + pid);
+            }
+            MXBeanConnectionImpl connection = data.getConnection();
+            if (connection == null) {
+                throw new MXBeanConnectionException("No known open connection for pid: " + pid);
+            } else if (connection != toRelease) {
+                throw new MXBeanConnectionException("Connection mismatch for pid: " + pid);
+            }
+            
+            data.decrementUsageCount();
+            int usageCount = data.getUsageCount();
+            if (usageCount == 0) {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    throw new MXBeanConnectionException(e);
+                }
+                pool.remove(pid);
             }
-            pool.remove(pid);
         }
     }
     
+    @Override
+    public AttachStatistics getAttachStatistics() {
+        return stats;
+    }
+    
     static class ConnectorCreator {
         AgentProxyClient createAgentProxy(int pid, String user, File binPath, File ipcConfigFile, String serverName) {
             return new AgentProxyClient(pid, user, binPath, ipcConfigFile, serverName);
@@ -318,9 +291,17 @@ public class MXBeanConnectionPoolImpl implements MXBeanConnectionPoolControl, Th
     }
     
     // For testing purposes
-    synchronized Set<String> getIPCServerNames() {
-        return ipcServerNames;
+    Set<String> getIPCServerNames() {
+        synchronized (serverLock) {
+            return ipcServerNames;
+        }
+    }
+    
+    // For testing purposes
+    AgentProxySession getSession(String serverName) {
+        synchronized (serverLock) {
+            return sessions.get(serverName);
+        }
     }
     
 }
-
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.backend.BackendScheduler.Task;
+import com.redhat.thermostat.common.Clock;
+import com.redhat.thermostat.common.SystemClock;
+
+public class BackendSchedulerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private FakeClock clock;
+    private QueueingExecutor workers;
+    private BackendScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        workers = new QueueingExecutor();
+        scheduler = new BackendScheduler(clock, workers, false);
+    }
+
+    @Test
+    public void fixedRateTasksRunOnSchedule() {
+        ScheduledExecutorService executor = scheduler.createExecutor("backend");
+        CountingRunnable action = new CountingRunnable();
+        ScheduledFuture<?> future = executor.scheduleAtFixedRate(action, 0, 100, TimeUnit.MILLISECONDS);
+
+        long firstRun = clock.now + future.getDelay(TimeUnit.NANOSECONDS);
+        advanceTo(firstRun - MS);
+        assertEquals(0, action.runs);
+
+        advanceTo(firstRun);
+        assertEquals(1, action.runs);
+
+        advanceTo(firstRun + 99 * MS);
+        assertEquals(1, action.runs);
+
+        advanceTo(firstRun + 100 * MS);
+        assertEquals(2, action.runs);
+    }
+
+    @Test
+    public void firstRunsAreSpreadByName() {
+        for (String name : new String[] { "host-cpu", "host-memory", "vm-cpu", "vm-numa" }) {
+            ScheduledFuture<?> future = scheduler.createExecutor(name).
+                    scheduleAtFixedRate(new CountingRunnable(), 0, 1, TimeUnit.SECONDS);
+            long delay = future.getDelay(TimeUnit.MILLISECONDS);
+            assertTrue(delay >= 0);
+            assertTrue(delay < BackendScheduler.MAX_JITTER_MILLIS);
+        }
+    }
+
+    @Test
+    public void runsDueWhileThePreviousOneIsGoingAreSkipped() {
+        ScheduledExecutorService executor = scheduler.createExecutor("slow");
+        CountingRunnable action = new CountingRunnable();
+        ScheduledFuture<?> future = executor.scheduleAtFixedRate(action, 0, 100, TimeUnit.MILLISECONDS);
+        long firstRun = clock.now + future.getDelay(TimeUnit.NANOSECONDS);
+
+        workers.runImmediately = false;
+        advanceTo(firstRun);
+        advanceTo(firstRun + 100 * MS);
+        advanceTo(firstRun + 200 * MS);
+
+        assertEquals(1, workers.queued.size());
+        Task<?> task = (Task<?>) future;
+        assertEquals(2, task.getOverruns());
+
+        workers.runQueued();
+        assertEquals(1, action.runs);
+        assertEquals(200, task.getLastLag(TimeUnit.MILLISECONDS));
+
+        workers.runImmediately = true;
+        advanceTo(firstRun + 300 * MS);
+        assertEquals(2, action.runs);
+        assertEquals(0, task.getLastLag(TimeUnit.MILLISECONDS));
+        assertEquals(200, task.getMaxLag(TimeUnit.MILLISECONDS));
+        assertEquals("slow: 2 runs (2 overruns), last lag 0 ms, max lag 200 ms", task.toString());
+    }
+
+    @Test
+    public void lateTicksDoNotShiftTheSchedule() {
+        ScheduledExecutorService executor = scheduler.createExecutor("backend");
+        CountingRunnable action = new CountingRunnable();
+        ScheduledFuture<?> future = executor.scheduleAtFixedRate(action, 0, 100, TimeUnit.MILLISECONDS);
+        long firstRun = clock.now + future.getDelay(TimeUnit.NANOSECONDS);
+
+        advanceTo(firstRun);
+        // the timer falls behind by a bit more than two periods
+        advanceTo(firstRun + 250 * MS);
+        assertEquals(2, action.runs);
+
+        advanceTo(firstRun + 299 * MS);
+        assertEquals(2, action.runs);
+        advanceTo(firstRun + 300 * MS);
+        assertEquals(3, action.runs);
+        assertEquals(1, ((Task<?>) future).getOverruns());
+    }
+
+    @Test
+    public void fixedDelayTasksWaitAfterEachRun() {
+        ScheduledExecutorService executor = scheduler.createExecutor("backend");
+        CountingRunnable action = new CountingRunnable();
+        executor.scheduleWithFixedDelay(action, 0, 100, TimeUnit.MILLISECONDS);
+
+        long start = clock.now;
+        advanceTo(start);
+        assertEquals(1, action.runs);
+
+        advanceTo(start + 99 * MS);
+        assertEquals(1, action.runs);
+        advanceTo(start + 100 * MS);
+        assertEquals(2, action.runs);
+    }
+
+    @Test
+    public void delayedTasksRunOnce() throws Exception {
+        ScheduledExecutorService executor = scheduler.createExecutor("backend");
+        ScheduledFuture<String> future = executor.schedule(new Callable<String>() {
+            @Override
+            public String call() {
+                return "done";
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        long start = clock.now;
+        advanceTo(start + 49 * MS);
+        assertFalse(future.isDone());
+
+        advanceTo(start + 50 * MS);
+        assertTrue(future.isDone());
+        assertEquals("done", future.get());
+        assertTrue(scheduler.getTasks().isEmpty());
+    }
+
+    @Test
+    public void shuttingAnExecutorDownOnlyCancelsItsOwnTasks() throws Exception {
+        ScheduledExecutorService first = scheduler.createExecutor("first");
+        ScheduledExecutorService second = scheduler.createExecutor("second");
+        CountingRunnable firstAction = new CountingRunnable();
+        CountingRunnable secondAction = new CountingRunnable();
+        ScheduledFuture<?> firstFuture = first.scheduleAtFixedRate(firstAction, 0, 100, TimeUnit.MILLISECONDS);
+        second.scheduleAtFixedRate(secondAction, 0, 100, TimeUnit.MILLISECONDS);
+
+        first.shutdown();
+
+        assertTrue(firstFuture.isCancelled());
+        assertTrue(first.isShutdown());
+        assertTrue(first.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getTasks().size());
+
+        advanceTo(clock.now + 1000 * MS);
+        assertEquals(0, firstAction.runs);
+        assertTrue(secondAction.runs > 0);
+
+        try {
+            first.scheduleAtFixedRate(firstAction, 0, 100, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (RejectedExecutionException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void periodicTasksThatThrowAreNotRunAgain() {
+        ScheduledExecutorService executor = scheduler.createExecutor("backend");
+        final CountingRunnable action = new CountingRunnable();
+        ScheduledFuture<?> future = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                action.run();
+                throw new RuntimeException("fail");
+            }
+        }, 0, 100, TimeUnit.MILLISECONDS);
+
+        advanceTo(clock.now + 1000 * MS);
+
+        assertEquals(1, action.runs);
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void tasksFarInTheFutureWaitForTheirRound() {
+        ScheduledExecutorService executor = scheduler.createExecutor("backend");
+        CountingRunnable action = new CountingRunnable();
+        long delay = BackendScheduler.WHEEL_SIZE * BackendScheduler.TICK_MILLIS * 3 + 5;
+        executor.schedule(action, delay, TimeUnit.MILLISECONDS);
+
+        long start = clock.now;
+        for (long ms = 0; ms < delay; ms += BackendScheduler.TICK_MILLIS) {
+            advanceTo(start + ms * MS);
+        }
+        assertEquals(0, action.runs);
+
+        advanceTo(start + (delay + BackendScheduler.TICK_MILLIS) * MS);
+        assertEquals(1, action.runs);
+    }
+
+    @Test(timeout = 10000)
+    public void timerThreadRunsTasks() throws Exception {
+        BackendScheduler realScheduler = new BackendScheduler(new SystemClock(),
+                Executors.newSingleThreadExecutor(), true);
+        try {
+            final CountDownLatch latch = new CountDownLatch(3);
+            realScheduler.createExecutor("backend").scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            }, 0, 20, TimeUnit.MILLISECONDS);
+            latch.await();
+        } finally {
+            realScheduler.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void blockingTasksOnTheirOwnPoolDoNotHoldUpOtherBackends() throws Exception {
+        ExecutorService sharedWorker = Executors.newSingleThreadExecutor();
+        ExecutorService jmxPool = Executors.newSingleThreadExecutor();
+        scheduler = new BackendScheduler(clock, sharedWorker, false);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch otherRan = new CountDownLatch(2);
+        try {
+            ScheduledExecutorService jmx = scheduler.createExecutor("jmx", jmxPool);
+            ScheduledFuture<?> blocking = jmx.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, 0, 100, TimeUnit.MILLISECONDS);
+            scheduler.createExecutor("backend").scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    otherRan.countDown();
+                }
+            }, 0, 100, TimeUnit.MILLISECONDS);
+
+            long start = clock.now;
+            advanceTo(start + BackendScheduler.MAX_JITTER_MILLIS * MS);
+            blocked.await();
+            advanceTo(start + (BackendScheduler.MAX_JITTER_MILLIS + 100) * MS);
+            // the other backend keeps running while the jmx task is stuck
+            otherRan.await();
+            assertEquals(1, ((Task<?>) blocking).getRuns());
+        } finally {
+            release.countDown();
+            scheduler.shutdown();
+            sharedWorker.shutdown();
+            jmxPool.shutdown();
+        }
+    }
+
+    @Test
+    public void shuttingAnExecutorDownShutsItsOwnPoolDown() {
+        ExecutorService pool = mock(ExecutorService.class);
+        ScheduledExecutorService executor = scheduler.createExecutor("jmx", pool);
+
+        executor.shutdown();
+
+        verify(pool).shutdown();
+    }
+
+    private void advanceTo(long nanos) {
+        clock.now = nanos;
+        scheduler.advanceTo(nanos);
+    }
+
+    private static class FakeClock implements Clock {
+        long now = 1_000_000_000l;
+
+        @Override
+        public long getRealTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(now);
+        }
+
+        @Override
+        public long getMonotonicTimeNanos() {
+            return now;
+        }
+    }
+
+    private static class QueueingExecutor implements Executor {
+        boolean runImmediately = true;
+        List<Runnable> queued = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            if (runImmediately) {
+                command.run();
+            } else {
+                queued.add(command);
+            }
+        }
+
+        void runQueued() {
+            for (Runnable command : queued) {
+                command.run();
+            }
+            queued.clear();
+        }
+    }
+
+    private static class CountingRunnable implements Runnable {
+        int runs;
+
+        @Override
+        public void run() {
+            runs++;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.backend.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.redhat.thermostat.backend.VmUpdate;
+import com.redhat.thermostat.backend.VmUpdateException;
+import com.redhat.thermostat.backend.VmUpdateListener;
+
+import sun.jvmstat.monitor.Monitor;
+import sun.jvmstat.monitor.MonitorException;
+import sun.jvmstat.monitor.MonitoredVm;
+import sun.jvmstat.monitor.event.VmEvent;
+
+public class VmCounterSamplerTest {
+
+    private static final String COUNTER = "myCounter";
+
+    private MonitoredVm monitoredVm;
+    private Monitor monitor;
+    private VmCounterSampler sampler;
+    private VmEvent event;
+
+    @Before
+    public void setUp() throws Exception {
+        monitoredVm = mock(MonitoredVm.class);
+        monitor = mock(Monitor.class);
+        when(monitor.getValue()).thenReturn(9001L);
+        when(monitoredVm.findByName(COUNTER)).thenReturn(monitor);
+        sampler = new VmCounterSampler(monitoredVm);
+        event = mock(VmEvent.class);
+        when(event.getMonitoredVm()).thenReturn(monitoredVm);
+    }
+
+    @Test
+    public void testMonitorsUpdatedSharesUpdate() {
+        VmUpdateListener listener1 = mock(VmUpdateListener.class);
+        VmUpdateListener listener2 = mock(VmUpdateListener.class);
+        sampler.addListener(new VmListenerWrapper(listener1, sampler));
+        sampler.addListener(new VmListenerWrapper(listener2, sampler));
+
+        sampler.monitorsUpdated(event);
+
+        ArgumentCaptor<VmUpdate> captor1 = ArgumentCaptor.forClass(VmUpdate.class);
+        verify(listener1).countersUpdated(captor1.capture());
+        ArgumentCaptor<VmUpdate> captor2 = ArgumentCaptor.forClass(VmUpdate.class);
+        verify(listener2).countersUpdated(captor2.capture());
+        assertSame(captor1.getValue(), captor2.getValue());
+    }
+
+    @Test(expected=AssertionError.class)
+    public void testMonitorsUpdatedWrongVm() {
+        MonitoredVm badVm = mock(MonitoredVm.class);
+        when(event.getMonitoredVm()).thenReturn(badVm);
+
+        sampler.monitorsUpdated(event);
+    }
+
+    @Test
+    public void testCounterResolvedOnce() throws Exception {
+        assertEquals(9001L, sampler.getValue(COUNTER));
+        VmUpdateImpl first = sampler.sample();
+        VmUpdateImpl second = sampler.sample();
+
+        assertEquals(9001L, first.getValues().get(COUNTER));
+        assertEquals(Long.valueOf(9001L), second.getPerformanceCounterLong(COUNTER));
+        verify(monitoredVm, times(1)).findByName(COUNTER);
+        verify(monitor, times(3)).getValue();
+    }
+
+    @Test
+    public void testCounterNotFoundCached() throws Exception {
+        when(monitoredVm.findByName(COUNTER)).thenReturn(null);
+
+        assertNull(sampler.getValue(COUNTER));
+        assertNull(sampler.sample().getPerformanceCounterLong(COUNTER));
+        assertTrue(sampler.sample().getValues().isEmpty());
+        verify(monitoredVm, times(1)).findByName(COUNTER);
+    }
+
+    @Test
+    public void testGetMonitor() throws Exception {
+        assertSame(monitor, sampler.getMonitor(COUNTER));
+    }
+
+    @Test(expected=VmUpdateException.class)
+    public void testGetMonitorError() throws Exception {
+        when(monitoredVm.findByName(any(String.class))).thenThrow(new MonitorException());
+
+        sampler.getMonitor(COUNTER);
+    }
+
+    @Test
+    public void testListeners() {
+        VmListenerWrapper wrapper = new VmListenerWrapper(mock(VmUpdateListener.class), sampler);
+        assertFalse(sampler.hasListeners());
+        sampler.addListener(wrapper);
+        assertTrue(sampler.hasListeners());
+        sampler.removeListener(wrapper);
+        assertFalse(sampler.hasListeners());
+    }
+
+}
@@ -36,50 +36,46 @@
 
 package com.redhat.thermostat.backend.internal;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
 
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.ArgumentCaptor;
 
 import com.redhat.thermostat.backend.VmUpdate;
-import com.redhat.thermostat.backend.VmUpdateException;
 import com.redhat.thermostat.backend.VmUpdateListener;
 import com.redhat.thermostat.common.internal.test.Bug;
 
-import sun.jvmstat.monitor.Monitor;
-import sun.jvmstat.monitor.MonitorException;
 import sun.jvmstat.monitor.MonitoredVm;
-import sun.jvmstat.monitor.event.VmEvent;
 
 public class VmListenerWrapperTest {
 
+    private VmCounterSampler sampler;
     private VmListenerWrapper wrapper;
-    private MonitoredVm monitoredVm;
     private VmUpdateListener listener;
 
     @Before
     public void setUp() throws Exception {
         listener = mock(VmUpdateListener.class);
-        monitoredVm = mock(MonitoredVm.class);
-        wrapper = new VmListenerWrapper(listener, monitoredVm);
+        sampler = new VmCounterSampler(mock(MonitoredVm.class));
+        wrapper = new VmListenerWrapper(listener, sampler);
+        sampler.addListener(wrapper);
     }
     
     /**
      * Verify that a bad listener which throws exceptions gets removed
      * from the JVM beyond a threshold.
-     * @throws MonitorException 
      */
     @Bug(id = "3242",
          summary = "Adverse Backend breaks other Backends badly ",
          url = "http://icedtea.classpath.org/bugzilla/show_bug.cgi?id=3242")
     @Test
-    public void testMonitorsUpdatedListenerExceptions() throws MonitorException {
+    public void testCountersUpdatedListenerExceptions() {
         final int beyondThresholdLimit = 11;
         VmUpdateListener badListener = new VmUpdateListener() {
             @Override
@@ -87,68 +83,33 @@ public class VmListenerWrapperTest {
                 throw new RuntimeException("countersUpdated() testing!");
             }
         };
-        VmListenerWrapper vmListenerWrapper = new VmListenerWrapper(badListener, monitoredVm);
-        VmEvent event = mock(VmEvent.class);
-        for (int i = 0; i < beyondThresholdLimit; i++) {
-            when(event.getMonitoredVm()).thenReturn(monitoredVm);
-            
-            vmListenerWrapper.monitorsUpdated(event);
-            
+        sampler.removeListener(wrapper);
+        VmListenerWrapper vmListenerWrapper = new VmListenerWrapper(badListener, sampler);
+        sampler.addListener(vmListenerWrapper);
+        for (int i = 0; i < beyondThresholdLimit - 1; i++) {
+            vmListenerWrapper.countersUpdated(createUpdate());
+            assertTrue(sampler.hasListeners());
         }
-        verify(monitoredVm, times(1)).removeVmListener(vmListenerWrapper);
+        vmListenerWrapper.countersUpdated(createUpdate());
+        assertFalse(sampler.hasListeners());
     }
 
     @Test
-    public void testMonitorsUpdated() {
-        VmEvent event = mock(VmEvent.class);
-        when(event.getMonitoredVm()).thenReturn(monitoredVm);
-        
-        wrapper.monitorsUpdated(event);
+    public void testCountersUpdated() {
+        VmUpdateImpl update = createUpdate();
         
-        ArgumentCaptor<VmUpdateImpl> captor = ArgumentCaptor.forClass(VmUpdateImpl.class);
-        verify(listener).countersUpdated(captor.capture());
-        VmUpdateImpl update = captor.getValue();
-        assertEquals(wrapper, update.getWrapper());
-    }
-    
-    @Test(expected=AssertionError.class)
-    public void testMonitorsUpdatedWrongVm() {
-        VmEvent event = mock(VmEvent.class);
-        MonitoredVm badVm = mock(MonitoredVm.class);
-        when(event.getMonitoredVm()).thenReturn(badVm);
+        wrapper.countersUpdated(update);
         
-        wrapper.monitorsUpdated(event);
+        verify(listener).countersUpdated(update);
     }
 
     @Test
-    public void testGetCounter() throws MonitorException, VmUpdateException {
-        final String counter = "myCounter";
-        
-        Monitor monitor = mock(Monitor.class);
-        when(monitoredVm.findByName(counter)).thenReturn(monitor);
-        
-        Monitor result = wrapper.getMonitor(counter);
-        assertEquals(monitor, result);
-    }
-    
-    @Test
-    public void testGetCounterNotFound() throws MonitorException, VmUpdateException {
-        final String counter = "myCounter";
-        
-        when(monitoredVm.findByName(counter)).thenReturn(null);
-        
-        Monitor result = wrapper.getMonitor(counter);
-        assertNull(result);
+    public void testGetSampler() {
+        assertSame(sampler, wrapper.getSampler());
     }
-    
-    @Test(expected=VmUpdateException.class)
-    public void testGetCounterError() throws MonitorException, VmUpdateException {
-        final String counter = "myCounter";
-        
-        when(monitoredVm.findByName(counter)).thenThrow(new MonitorException());
-        
-        wrapper.getMonitor(counter);
+
+    private VmUpdateImpl createUpdate() {
+        return new VmUpdateImpl(sampler, new HashMap<String, Object>());
     }
 
 }
-
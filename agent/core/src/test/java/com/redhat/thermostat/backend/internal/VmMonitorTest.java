@@ -38,16 +38,22 @@ package com.redhat.thermostat.backend.internal;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.net.URISyntaxException;
+import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,6 +65,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import com.redhat.thermostat.common.portability.ProcessChecker;
+import com.redhat.thermostat.backend.VmUpdate;
 import com.redhat.thermostat.backend.VmUpdateListener;
 
 import sun.jvmstat.monitor.HostIdentifier;
@@ -73,6 +80,7 @@ public class VmMonitorTest {
     private static final String PROCESS_NOT_FOUND = "Process not found";
     private static final int MONITOR_EXCEPTION_THROWING_PID = 999;
     private VmMonitor monitor;
+    private VmCounterSamplers samplers;
     private HostIdentifier hostIdentifier;
     private MonitoredHost host;
     private MonitoredVm monitoredVm;
@@ -109,8 +117,8 @@ public class VmMonitorTest {
 
         monitoredVm = mock(MonitoredVm.class);
 
-        monitor = new VmMonitor(checker);
-        monitor.setHost(host);
+        samplers = new VmCounterSamplers(host);
+        monitor = new VmMonitor(checker, samplers);
     }
     
     private Level setupTestLoggerAndReturnOriginalLevel() {
@@ -131,15 +139,49 @@ public class VmMonitorTest {
         VmUpdateListener listener = mock(VmUpdateListener.class);
         monitor.handleNewVm(listener, VM_PID);
         
-        // Check listener registered
-        ArgumentCaptor<VmListenerWrapper> captor = ArgumentCaptor.forClass(VmListenerWrapper.class);
+        // Check sampler registered
+        ArgumentCaptor<VmCounterSampler> captor = ArgumentCaptor.forClass(VmCounterSampler.class);
         verify(monitoredVm).addVmListener(captor.capture());
-        VmListenerWrapper wrapper = captor.getValue();
-        assertEquals(listener, wrapper.getVmUpdateListener());
+        VmCounterSampler sampler = captor.getValue();
+        assertSame(sampler, samplers.getSampler(VM_PID));
         
         // Check pid map
         assertTrue(monitor.getPidToDataMap().containsKey(VM_PID));
-        assertEquals(wrapper, monitor.getPidToDataMap().get(VM_PID).getSecond());
+        VmListenerWrapper wrapper = monitor.getPidToDataMap().get(VM_PID);
+        assertEquals(listener, wrapper.getVmUpdateListener());
+        assertSame(sampler, wrapper.getSampler());
+        assertTrue(sampler.hasListeners());
+    }
+
+    /*
+     * Backends observing the same JVM share a single attachment.
+     */
+    @Test
+    public void testNewVMSharedBetweenMonitors() throws MonitorException, URISyntaxException {
+        final int VM_PID = 1;
+        VmIdentifier VM_ID = new VmIdentifier(String.valueOf(VM_PID));
+        when(host.getMonitoredVm(VM_ID)).thenReturn(monitoredVm);
+        VmMonitor otherMonitor = new VmMonitor(checker, samplers);
+
+        VmUpdateListener listener1 = mock(VmUpdateListener.class);
+        VmUpdateListener listener2 = mock(VmUpdateListener.class);
+        monitor.handleNewVm(listener1, VM_PID);
+        otherMonitor.handleNewVm(listener2, VM_PID);
+
+        verify(host, times(1)).getMonitoredVm(VM_ID);
+        verify(monitoredVm, times(1)).addVmListener(any(VmListener.class));
+        assertSame(monitor.getPidToDataMap().get(VM_PID).getSampler(),
+                otherMonitor.getPidToDataMap().get(VM_PID).getSampler());
+
+        // Still attached while the other backend is interested
+        monitor.handleStoppedVm(VM_PID);
+        verify(monitoredVm, never()).detach();
+        assertNotNull(samplers.getSampler(VM_PID));
+
+        otherMonitor.handleStoppedVm(VM_PID);
+        verify(monitoredVm).removeVmListener(any(VmListener.class));
+        verify(monitoredVm).detach();
+        assertNull(samplers.getSampler(VM_PID));
     }
     
     /*
@@ -213,15 +255,46 @@ public class VmMonitorTest {
         monitor.handleNewVm(listener, VM_PID);
         monitor.handleStoppedVm(VM_PID);
 
-        // Check listener unregistered
-        ArgumentCaptor<VmListenerWrapper> captor = ArgumentCaptor.forClass(VmListenerWrapper.class);
+        // Check sampler unregistered
+        ArgumentCaptor<VmCounterSampler> captor = ArgumentCaptor.forClass(VmCounterSampler.class);
         verify(monitoredVm).removeVmListener(captor.capture());
-        VmListenerWrapper wrapper = captor.getValue();
-        assertEquals(listener, wrapper.getVmUpdateListener());
+        VmCounterSampler sampler = captor.getValue();
+        assertFalse(sampler.hasListeners());
+        verify(monitoredVm).detach();
         
         assertFalse(monitor.getPidToDataMap().containsKey(VM_PID));
     }
 
+    /*
+     * A listener removed for throwing too often releases the attachment
+     * just like a stopped VM does.
+     */
+    @Test
+    public void testRemovingFailingLastListenerDetaches() throws MonitorException, URISyntaxException {
+        final int VM_PID = 1;
+        VmIdentifier VM_ID = new VmIdentifier(String.valueOf(VM_PID));
+        when(host.getMonitoredVm(VM_ID)).thenReturn(monitoredVm);
+
+        VmUpdateListener badListener = mock(VmUpdateListener.class);
+        doThrow(new RuntimeException("countersUpdated() testing!")).when(badListener).countersUpdated(any(VmUpdate.class));
+        monitor.handleNewVm(badListener, VM_PID);
+        VmListenerWrapper wrapper = monitor.getPidToDataMap().get(VM_PID);
+        VmCounterSampler sampler = wrapper.getSampler();
+
+        for (int i = 0; i < 11; i++) {
+            wrapper.countersUpdated(new VmUpdateImpl(sampler, new HashMap<String, Object>()));
+        }
+
+        assertFalse(sampler.hasListeners());
+        verify(monitoredVm).removeVmListener(sampler);
+        verify(monitoredVm).detach();
+        assertNull(samplers.getSampler(VM_PID));
+
+        // The backend stopping the VM later must not detach again
+        monitor.handleStoppedVm(VM_PID);
+        verify(monitoredVm, times(1)).detach();
+    }
+
     @Test
     public void testUnknownVMStopped() throws URISyntaxException, MonitorException {
         final int VM_PID = 1;
@@ -266,17 +339,17 @@ public class VmMonitorTest {
         monitor.handleNewVm(listener1, VM_PID1);
         monitor.handleNewVm(listener2, VM_PID2);
         
-        monitor.removeVmListeners();
-        
-        ArgumentCaptor<VmListenerWrapper> captor1 = ArgumentCaptor.forClass(VmListenerWrapper.class);
-        verify(monitoredVm).removeVmListener(captor1.capture());
-        VmListenerWrapper wrapper1 = captor1.getValue();
+        VmListenerWrapper wrapper1 = monitor.getPidToDataMap().get(VM_PID1);
+        VmListenerWrapper wrapper2 = monitor.getPidToDataMap().get(VM_PID2);
         assertEquals(listener1, wrapper1.getVmUpdateListener());
-        
-        ArgumentCaptor<VmListenerWrapper> captor2 = ArgumentCaptor.forClass(VmListenerWrapper.class);
-        verify(monitoredVm2).removeVmListener(captor2.capture());
-        VmListenerWrapper wrapper2 = captor2.getValue();
         assertEquals(listener2, wrapper2.getVmUpdateListener());
+
+        monitor.removeVmListeners();
+        
+        verify(monitoredVm).removeVmListener(wrapper1.getSampler());
+        verify(monitoredVm).detach();
+        verify(monitoredVm2).removeVmListener(wrapper2.getSampler());
+        verify(monitoredVm2).detach();
         
         assertEquals(0, monitor.getPidToDataMap().size());
     }
@@ -39,31 +39,33 @@ package com.redhat.thermostat.backend.internal;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Test;
 
-import sun.jvmstat.monitor.Monitor;
-
 import com.redhat.thermostat.backend.VmUpdateException;
 
 public class VmUpdateImplTest {
 
     private VmUpdateImpl update;
-    private VmListenerWrapper wrapper;
+    private VmCounterSampler sampler;
+    private Map<String, Object> values;
 
     @Before
     public void setUp() throws Exception {
-        wrapper = mock(VmListenerWrapper.class);
-        update = new VmUpdateImpl(wrapper);
+        sampler = mock(VmCounterSampler.class);
+        values = new HashMap<>();
+        update = new VmUpdateImpl(sampler, values);
     }
 
     @Test
     public void testGetPerformanceCounterLong() throws VmUpdateException {
         final String counter = "myCounter";
         final Long value = 9001L;
-        Monitor monitor = mock(Monitor.class);
-        when(monitor.getValue()).thenReturn(value);
-        when(wrapper.getMonitor(counter)).thenReturn(monitor);
+        values.put(counter, value);
+        update = new VmUpdateImpl(sampler, values);
         
         Long result = update.getPerformanceCounterLong(counter);
         assertEquals(value, result);
@@ -73,9 +75,8 @@ public class VmUpdateImplTest {
     public void testGetPerformanceCounterLongBadType() throws VmUpdateException {
         final String counter = "myCounter";
         final String value = "myValue";
-        Monitor monitor = mock(Monitor.class);
-        when(monitor.getValue()).thenReturn(value);
-        when(wrapper.getMonitor(counter)).thenReturn(monitor);
+        values.put(counter, value);
+        update = new VmUpdateImpl(sampler, values);
         
         update.getPerformanceCounterLong(counter);
     }
@@ -83,19 +84,19 @@ public class VmUpdateImplTest {
     @Test
     public void testGetPerformanceCounterLongNoCounter() throws VmUpdateException {
         final String counter = "myCounter";
-        when(wrapper.getMonitor(counter)).thenReturn(null);
+        when(sampler.getValue(counter)).thenReturn(null);
         
         Long result = update.getPerformanceCounterLong(counter);
         assertNull(result);
+        verify(sampler).getValue(counter);
     }
 
     @Test
     public void testGetPerformanceCounterString() throws VmUpdateException {
         final String counter = "myCounter";
         final String value = "myValue";
-        Monitor monitor = mock(Monitor.class);
-        when(monitor.getValue()).thenReturn(value);
-        when(wrapper.getMonitor(counter)).thenReturn(monitor);
+        values.put(counter, value);
+        update = new VmUpdateImpl(sampler, values);
         
         String result = update.getPerformanceCounterString(counter);
         assertEquals(value, result);
@@ -105,9 +106,8 @@ public class VmUpdateImplTest {
     public void testGetPerformanceCounterStringBadType() throws VmUpdateException {
         final String counter = "myCounter";
         final Long value = 9001L;
-        Monitor monitor = mock(Monitor.class);
-        when(monitor.getValue()).thenReturn(value);
-        when(wrapper.getMonitor(counter)).thenReturn(monitor);
+        values.put(counter, value);
+        update = new VmUpdateImpl(sampler, values);
         
         update.getPerformanceCounterString(counter);
     }
@@ -115,11 +115,36 @@ public class VmUpdateImplTest {
     @Test
     public void testGetPerformanceCounterStringNoCounter() throws VmUpdateException {
         final String counter = "myCounter";
-        when(wrapper.getMonitor(counter)).thenReturn(null);
+        when(sampler.getValue(counter)).thenReturn(null);
         
         String result = update.getPerformanceCounterString(counter);
         assertNull(result);
+        verify(sampler).getValue(counter);
     }
 
-}
+    @Test
+    public void testGetPerformanceCounterSampled() throws VmUpdateException {
+        final String counter = "myCounter";
+        values.put(counter, 9001L);
+        update = new VmUpdateImpl(sampler, values);
+
+        assertEquals(Long.valueOf(9001L), update.getPerformanceCounterLong(counter));
+        assertEquals(Long.valueOf(9001L), update.getPerformanceCounterLong(counter));
+        verifyZeroInteractions(sampler);
+    }
+
+    @Test
+    public void testGetPerformanceCounterNotYetSampled() throws VmUpdateException {
+        final String counter = "myCounter";
+        when(sampler.getValue(counter)).thenReturn(9001L);
+
+        Long result = update.getPerformanceCounterLong(counter);
+        assertEquals(Long.valueOf(9001L), result);
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testValuesImmutable() {
+        update.getValues().put("myCounter", 1L);
+    }
 
+}
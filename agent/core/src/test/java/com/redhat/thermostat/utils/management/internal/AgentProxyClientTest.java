@@ -37,14 +37,15 @@
 package com.redhat.thermostat.utils.management.internal;
 
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.fail;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
-import java.io.IOException;
 import java.lang.ProcessBuilder.Redirect;
 import java.util.List;
 
@@ -80,8 +81,7 @@ public class AgentProxyClientTest {
     
     @Test
     public void testStart() throws Exception {
-        when(proxy.exitValue()).thenReturn(0);
-        client.runProcess();
+        client.start();
         
         ArgumentCaptor<ProcessBuilder> builderCaptor = ArgumentCaptor.forClass(ProcessBuilder.class);
         verify(procCreator).startProcess(builderCaptor.capture());
@@ -94,7 +94,7 @@ public class AgentProxyClientTest {
         
         // Check process arguments
         List<String> args = builder.command();
-        int expectedArgCount = OS.IS_WINDOWS ? 7 : 5; // account for extra "cmd", "/c" args on Windows
+        int expectedArgCount = OS.IS_WINDOWS ? 8 : 6; // account for extra "cmd", "/c" args on Windows
         assertEquals(expectedArgCount, args.size());
 
         if (OS.IS_WINDOWS) {
@@ -108,41 +108,44 @@ public class AgentProxyClientTest {
             assertEquals("Hello", args.get(4));
             assertEquals("/path/to/ipc/config", arg5);
             assertEquals(SERVER_NAME, args.get(6));
+            assertEquals(AgentProxyClient.PERSISTENT_FLAG, args.get(7));
         } else {
             assertEquals("/path/to/thermostat/bin/thermostat-agent-proxy", args.get(0));
             assertEquals("9000", args.get(1));
             assertEquals("Hello", args.get(2));
             assertEquals("/path/to/ipc/config", args.get(3));
             assertEquals(SERVER_NAME, args.get(4));
+            assertEquals(AgentProxyClient.PERSISTENT_FLAG, args.get(5));
         }
         
-        // Check cleanup
-        verify(proxy).waitFor();
-        verify(proxy).destroy();
+        // Should not wait for the proxy to exit
+        verify(proxy, never()).waitFor();
+        verify(proxy, never()).destroy();
     }
     
     @Test
-    public void testStartBadExit() throws Exception {
-        when(proxy.exitValue()).thenReturn(-1);
+    public void testIsRunning() throws Exception {
+        assertFalse(client.isRunning());
         
-        try {
-            client.runProcess();
-            fail("Expected IOException");
-        } catch (IOException e) {
-            verify(proxy).destroy();
-        }
+        when(proxy.exitValue()).thenThrow(new IllegalThreadStateException());
+        client.start();
+        assertTrue(client.isRunning());
     }
     
     @Test
-    public void testStartInterrupted() throws Exception {
-        when(proxy.waitFor()).thenThrow(new InterruptedException());
+    public void testIsRunningExited() throws Exception {
+        when(proxy.exitValue()).thenReturn(0);
+        client.start();
+        assertFalse(client.isRunning());
+    }
+    
+    @Test
+    public void testStop() throws Exception {
+        client.start();
+        client.stop();
         
-        try {
-            client.runProcess();
-            fail("Expected InterruptedException");
-        } catch (InterruptedException e) {
-            verify(proxy).destroy();
-        }
+        verify(proxy).destroy();
+        assertFalse(client.isRunning());
     }
 
 }
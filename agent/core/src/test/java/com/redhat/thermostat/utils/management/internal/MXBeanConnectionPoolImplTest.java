@@ -39,8 +39,12 @@ package com.redhat.thermostat.utils.management.internal;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -52,6 +56,10 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.attribute.UserPrincipal;
 import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import com.redhat.thermostat.common.portability.ProcessUserInfo;
 import com.redhat.thermostat.common.portability.ProcessUserInfoBuilder;
@@ -63,6 +71,7 @@ import org.mockito.stubbing.Answer;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.redhat.thermostat.agent.ipc.server.AgentIPCService;
 import com.redhat.thermostat.agent.ipc.server.IPCMessage;
 import com.redhat.thermostat.agent.utils.management.MXBeanConnection;
@@ -87,6 +96,7 @@ public class MXBeanConnectionPoolImplTest {
     private UserPrincipal principal;
 
     private ProcessUserInfoBuilder builder;
+    private List<String> repliesSent;
     
     @Before
     public void setup() throws Exception {
@@ -99,6 +109,7 @@ public class MXBeanConnectionPoolImplTest {
         fsUtils = mock(FileSystemUtils.class);
 
         proxy = mock(AgentProxyClient.class);
+        repliesSent = new ArrayList<>();
         when(creator.createConnector("jmxUrl://hello")).thenReturn(connector);
         when(connector.connect()).thenReturn(connection);
 
@@ -177,7 +188,7 @@ public class MXBeanConnectionPoolImplTest {
         verify(lookup).lookupPrincipalByName("Test");
         verify(ipcService).serverExists(IPC_SERVER_NAME);
         verify(ipcService, never()).destroyServer(IPC_SERVER_NAME);
-        verify(ipcService).createServer(IPC_SERVER_NAME, pool, principal);
+        verify(ipcService).createServer(IPC_SERVER_NAME, pool.getSession(IPC_SERVER_NAME), principal);
         verify(creator).createConnector("jmxUrl://hello");
 
         assertNotNull(result);
@@ -190,23 +201,45 @@ public class MXBeanConnectionPoolImplTest {
         invokeCallbacksOnProxyCreation(data, 8000, "Test", IPC_SERVER_NAME);
     }
     
-    private void invokeCallbacksOnProxyCreation(final byte[] data, int pid, String username, String ipcServerName) {
+    private void invokeCallbacksOnProxyCreation(final byte[] data, int pid, String username, final String ipcServerName) {
         when(creator.createAgentProxy(pid, username, binDir, ipcConfigFile, ipcServerName)).thenAnswer(new Answer<AgentProxyClient>() {
             @Override
             public AgentProxyClient answer(InvocationOnMock invocation) throws Throwable {
                 // Invoke callback
-                IPCMessage message = mock(IPCMessage.class);
-                when(message.get()).thenReturn(ByteBuffer.wrap(data));
-                pool.messageReceived(message);
+                IPCMessage message = createProxyMessage(data);
+                pool.getSession(ipcServerName).messageReceived(message);
                 return proxy;
             }
         });
     }
     
+    private IPCMessage createProxyMessage(byte[] data) throws Exception {
+        IPCMessage message = mock(IPCMessage.class);
+        when(message.get()).thenReturn(ByteBuffer.wrap(data));
+        // Act like a long-lived proxy: answer attach requests sent as replies to this message
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ByteBuffer buf = (ByteBuffer) invocation.getArguments()[0];
+                String request = Charset.forName("UTF-8").decode(buf).toString();
+                repliesSent.add(request);
+                JsonObject json = new JsonParser().parse(request).getAsJsonObject();
+                if (json.has(AgentProxySession.JSON_PID)) {
+                    int pid = json.get(AgentProxySession.JSON_PID).getAsInt();
+                    byte[] result = getJsonString(pid, "jmxUrl://" + pid);
+                    pool.getSession(IPC_SERVER_NAME).messageReceived(createProxyMessage(result));
+                }
+                return null;
+            }
+        }).when(message).reply(any(ByteBuffer.class));
+        return message;
+    }
+    
     @Test
     public void testAcquireNoPid() throws Exception {
         final byte[] data = getJsonString(null, "jmxUrl://hello");
         invokeCallbacksOnProxyCreation(data);
+        pool.start();
         try {
             pool.acquire(8000);
             fail("Expected MXBeanConnectionException");
@@ -220,6 +253,7 @@ public class MXBeanConnectionPoolImplTest {
     public void testAcquireBadPid() throws Exception {
         final byte[] data = getJsonString(9000, "jmxUrl://hello");
         invokeCallbacksOnProxyCreation(data);
+        pool.start();
         try {
             pool.acquire(8000);
             fail("Expected MXBeanConnectionException");
@@ -233,6 +267,7 @@ public class MXBeanConnectionPoolImplTest {
     public void testAcquireNullPid() throws Exception {
         final byte[] data = getJsonString(null, "jmxUrl://hello", true);
         invokeCallbacksOnProxyCreation(data);
+        pool.start();
         try {
             pool.acquire(8000);
             fail("Expected MXBeanConnectionException");
@@ -246,6 +281,7 @@ public class MXBeanConnectionPoolImplTest {
     public void testAcquireNoJmxUrl() throws Exception {
         final byte[] data = getJsonString(8000, null);
         invokeCallbacksOnProxyCreation(data);
+        pool.start();
         try {
             pool.acquire(8000);
             fail("Expected MXBeanConnectionException");
@@ -259,6 +295,7 @@ public class MXBeanConnectionPoolImplTest {
     public void testAcquireNullJmxUrl() throws Exception {
         final byte[] data = getJsonString(8000, null, true);
         invokeCallbacksOnProxyCreation(data);
+        pool.start();
         try {
             pool.acquire(8000);
             fail("Expected MXBeanConnectionException");
@@ -273,13 +310,14 @@ public class MXBeanConnectionPoolImplTest {
         GsonBuilder gsonBuilder = new GsonBuilder();
         Gson gson = gsonBuilder.create();
         JsonObject jsonData = new JsonObject();
-        jsonData.addProperty(MXBeanConnectionPoolImpl.JSON_PID, "this is not an integer");
-        jsonData.addProperty(MXBeanConnectionPoolImpl.JSON_JMX_URL, "jmxUrl://hello");
+        jsonData.addProperty(AgentProxySession.JSON_PID, "this is not an integer");
+        jsonData.addProperty(AgentProxySession.JSON_JMX_URL, "jmxUrl://hello");
         
         String jsonString = gson.toJson(jsonData);
         final byte[] data = jsonString.getBytes(Charset.forName("UTF-8"));
         
         invokeCallbacksOnProxyCreation(data);
+        pool.start();
         try {
             pool.acquire(8000);
             fail("Expected MXBeanConnectionException");
@@ -295,6 +333,7 @@ public class MXBeanConnectionPoolImplTest {
         final byte[] data = jsonString.getBytes(Charset.forName("UTF-8"));
         
         invokeCallbacksOnProxyCreation(data);
+        pool.start();
         try {
             pool.acquire(8000);
             fail("Expected MXBeanConnectionException");
@@ -327,7 +366,7 @@ public class MXBeanConnectionPoolImplTest {
         verify(lookup).lookupPrincipalByName("Test");
         verify(ipcService).serverExists(IPC_SERVER_NAME);
         verify(ipcService).destroyServer(IPC_SERVER_NAME);
-        verify(ipcService).createServer(IPC_SERVER_NAME, pool, principal);
+        verify(ipcService).createServer(IPC_SERVER_NAME, pool.getSession(IPC_SERVER_NAME), principal);
         verify(creator).createConnector("jmxUrl://hello");
 
         assertNotNull(result);
@@ -352,7 +391,7 @@ public class MXBeanConnectionPoolImplTest {
         verify(lookup).lookupPrincipalByName("Test");
         verify(ipcService).serverExists(IPC_SERVER_NAME);
         verify(ipcService, never()).destroyServer(IPC_SERVER_NAME);
-        verify(ipcService).createServer(IPC_SERVER_NAME, pool, principal);
+        verify(ipcService).createServer(IPC_SERVER_NAME, pool.getSession(IPC_SERVER_NAME), principal);
         
         assertEquals(connection1, connection);
         assertEquals(connection2, connection);
@@ -383,14 +422,14 @@ public class MXBeanConnectionPoolImplTest {
         verify(lookup).lookupPrincipalByName("Test");
         verify(ipcService).serverExists(IPC_SERVER_NAME);
         verify(ipcService, never()).destroyServer(IPC_SERVER_NAME);
-        verify(ipcService).createServer(IPC_SERVER_NAME, pool, principal);
+        verify(ipcService).createServer(IPC_SERVER_NAME, pool.getSession(IPC_SERVER_NAME), principal);
         verify(creator).createConnector("jmxUrl://hello");
         verify(connector).connect();
         
         verify(lookup).lookupPrincipalByName("Test1");
         verify(ipcService).serverExists("agent-proxy-1001");
         verify(ipcService, never()).destroyServer("agent-proxy-1001");
-        verify(ipcService).createServer("agent-proxy-1001", pool, otherPrincipal);
+        verify(ipcService).createServer("agent-proxy-1001", pool.getSession("agent-proxy-1001"), otherPrincipal);
         verify(creator).createConnector("jmxUrl://hello1");
         verify(otherConnector).connect();
     
@@ -398,6 +437,152 @@ public class MXBeanConnectionPoolImplTest {
         assertEquals(connection2, otherConnection);
     }
 
+    @Test
+    public void testAcquireSameUserReusesProxy() throws Exception {
+        byte[] data = getJsonString(8000, "jmxUrl://hello");
+        invokeCallbacksOnProxyCreation(data);
+        when(proxy.isRunning()).thenReturn(true);
+        when(builder.build(8002)).thenReturn(new ProcessUserInfo(8000, "Test"));
+        MXBeanConnector otherConnector = mock(MXBeanConnector.class);
+        when(creator.createConnector("jmxUrl://8002")).thenReturn(otherConnector);
+        MXBeanConnectionImpl otherConnection = mock(MXBeanConnectionImpl.class);
+        when(otherConnector.connect()).thenReturn(otherConnection);
+        
+        pool.start();
+        MXBeanConnection connection1 = pool.acquire(8000);
+        MXBeanConnection connection2 = pool.acquire(8002);
+        
+        // Second PID is requested from the running proxy
+        verify(creator).createAgentProxy(8000, "Test", binDir, ipcConfigFile, IPC_SERVER_NAME);
+        verify(creator, never()).createAgentProxy(8002, "Test", binDir, ipcConfigFile, IPC_SERVER_NAME);
+        verify(proxy).start();
+        assertEquals(1, repliesSent.size());
+        verify(ipcService).createServer(IPC_SERVER_NAME, pool.getSession(IPC_SERVER_NAME), principal);
+        
+        assertEquals(connection, connection1);
+        assertEquals(otherConnection, connection2);
+    }
+    
+    @Test
+    public void testAcquireRestartsExitedProxy() throws Exception {
+        byte[] data = getJsonString(8000, "jmxUrl://hello");
+        invokeCallbacksOnProxyCreation(data);
+        data = getJsonString(8002, "jmxUrl://hello");
+        invokeCallbacksOnProxyCreation(data, 8002, "Test", IPC_SERVER_NAME);
+        when(builder.build(8002)).thenReturn(new ProcessUserInfo(8000, "Test"));
+        when(proxy.isRunning()).thenReturn(false);
+        
+        pool.start();
+        pool.acquire(8000);
+        pool.acquire(8002);
+        
+        verify(creator).createAgentProxy(8000, "Test", binDir, ipcConfigFile, IPC_SERVER_NAME);
+        verify(creator).createAgentProxy(8002, "Test", binDir, ipcConfigFile, IPC_SERVER_NAME);
+        assertTrue(repliesSent.isEmpty());
+    }
+    
+    @Test
+    public void testAcquireProxyError() throws Exception {
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        Gson gson = gsonBuilder.create();
+        JsonObject jsonData = new JsonObject();
+        jsonData.addProperty(AgentProxySession.JSON_PID, 8000);
+        jsonData.addProperty(AgentProxySession.JSON_ERROR, "Failed to attach");
+        final byte[] data = gson.toJson(jsonData).getBytes(Charset.forName("UTF-8"));
+        invokeCallbacksOnProxyCreation(data);
+        
+        pool.start();
+        try {
+            pool.acquire(8000);
+            fail("Expected MXBeanConnectionException");
+        } catch (MXBeanConnectionException e) {
+            verify(creator, never()).createConnector(anyString());
+            assertNull(pool.getPoolEntry(8000));
+        }
+        AttachStatistics stats = pool.getAttachStatistics();
+        assertEquals(0, stats.getAttachCount());
+        assertEquals(1, stats.getFailureCount());
+    }
+    
+    @Test
+    public void testAttachStatistics() throws Exception {
+        byte[] data = getJsonString(8000, "jmxUrl://hello");
+        invokeCallbacksOnProxyCreation(data);
+        
+        pool.start();
+        pool.acquire(8000);
+        // Served from the pool, not an attach
+        pool.acquire(8000);
+        
+        AttachStatistics stats = pool.getAttachStatistics();
+        assertEquals(1, stats.getAttachCount());
+        assertEquals(0, stats.getFailureCount());
+        assertTrue(stats.getMaxLatency(TimeUnit.NANOSECONDS) >= stats.getMeanLatency(TimeUnit.NANOSECONDS));
+    }
+    
+    @Test(timeout=10000)
+    public void testAcquireDifferentPidsInParallel() throws Exception {
+        byte[] data = getJsonString(8000, "jmxUrl://hello");
+        invokeCallbacksOnProxyCreation(data);
+        data = getJsonString(8001, "jmxUrl://hello1");
+        invokeCallbacksOnProxyCreation(data, 8001, "Test1", "agent-proxy-1001");
+        when(builder.build(8001)).thenReturn(new ProcessUserInfo(1001, "Test1"));
+        MXBeanConnector otherConnector = mock(MXBeanConnector.class);
+        when(creator.createConnector("jmxUrl://hello1")).thenReturn(otherConnector);
+        MXBeanConnectionImpl otherConnection = mock(MXBeanConnectionImpl.class);
+        when(otherConnector.connect()).thenReturn(otherConnection);
+        
+        // Hold the connection to 8000 open until 8001 is done
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        when(connector.connect()).thenAnswer(new Answer<MXBeanConnectionImpl>() {
+            @Override
+            public MXBeanConnectionImpl answer(InvocationOnMock invocation) throws Throwable {
+                connecting.countDown();
+                proceed.await();
+                return connection;
+            }
+        });
+        
+        pool.start();
+        final MXBeanConnection[] result = new MXBeanConnection[1];
+        Thread slowAcquire = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = pool.acquire(8000);
+                } catch (MXBeanConnectionException e) {
+                    // result stays null
+                }
+            }
+        };
+        slowAcquire.start();
+        connecting.await();
+        
+        assertEquals(otherConnection, pool.acquire(8001));
+        
+        proceed.countDown();
+        slowAcquire.join();
+        assertEquals(connection, result[0]);
+    }
+    
+    @Test
+    public void testShutdownStopsProxy() throws Exception {
+        byte[] data = getJsonString(8000, "jmxUrl://hello");
+        invokeCallbacksOnProxyCreation(data);
+        when(proxy.isRunning()).thenReturn(true);
+        
+        pool.start();
+        pool.acquire(8000);
+        pool.shutdown();
+        
+        verify(proxy).stop();
+        assertEquals(1, repliesSent.size());
+        JsonObject request = new JsonParser().parse(repliesSent.get(0)).getAsJsonObject();
+        assertTrue(request.get(AgentProxySession.JSON_SHUTDOWN).getAsBoolean());
+        assertNull(pool.getSession(IPC_SERVER_NAME));
+    }
+
     @Test
     public void testRelease() throws Exception {
         byte[] data = getJsonString(8000, "jmxUrl://hello");
@@ -449,8 +634,8 @@ public class MXBeanConnectionPoolImplTest {
         Gson gson = gsonBuilder.create();
         JsonObject jsonData = new JsonObject();
 
-        jsonData.addProperty(MXBeanConnectionPoolImpl.JSON_PID, pid);
-        jsonData.addProperty(MXBeanConnectionPoolImpl.JSON_JMX_URL, jmxUrl);
+        jsonData.addProperty(AgentProxySession.JSON_PID, pid);
+        jsonData.addProperty(AgentProxySession.JSON_JMX_URL, jmxUrl);
 
         String jsonString = gson.toJson(jsonData);
         return jsonString.getBytes(Charset.forName("UTF-8"));
@@ -39,12 +39,19 @@ package com.redhat.thermostat.agent.proxy.server;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.redhat.thermostat.agent.ipc.client.ClientIPCService;
 import com.redhat.thermostat.agent.ipc.client.ClientIPCServiceFactory;
 import com.redhat.thermostat.agent.ipc.client.IPCMessageChannel;
@@ -60,6 +67,14 @@ public class AgentProxy {
     static final String CONFIG_FILE_PROP = "ipcConfigFile";
     static final String JSON_PID = "pid";
     static final String JSON_JMX_URL = "jmxUrl";
+    static final String JSON_ERROR = "error";
+    static final String JSON_READY = "ready";
+    static final String JSON_SHUTDOWN = "shutdown";
+    static final String PERSISTENT_FLAG = "--persistent";
+    // Number of attaches a long-lived proxy performs at once
+    private static final int ATTACH_THREADS = 4;
+    // How long a long-lived proxy waits for attaches in progress when asked to stop
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000L;
     
     private static ControlCreator creator = new ControlCreator();
     private static ClientIPCService ipcService = null;
@@ -95,6 +110,11 @@ public class AgentProxy {
         // Connect to IPC server
         IPCMessageChannel channel = ipcService.connectToServer(ipcServerName);
         
+        if (isPersistent(args)) {
+            servePersistent(channel, pid);
+            return;
+        }
+        
         // Start proxy agent
         AgentProxyControlImpl agent = creator.create(pid);
         
@@ -106,6 +126,115 @@ public class AgentProxy {
             cleanup(agent, channel, pid);
         }
     }
+    
+    private static boolean isPersistent(String[] args) {
+        // Flag follows the pid and IPC server name
+        for (int i = 2; i < args.length; i++) {
+            if (PERSISTENT_FLAG.equals(args[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /*
+     * Keeps serving attach requests from the agent until it asks us to stop,
+     * or the IPC server goes away. Each request is a JSON object holding a pid,
+     * answered the same way as a single attach, or with an error message.
+     */
+    private static void servePersistent(final IPCMessageChannel channel, int firstPid) throws IOException {
+        ExecutorService attachExecutor = Executors.newFixedThreadPool(ATTACH_THREADS);
+        try {
+            // Let the agent know it can send us requests
+            JsonObject ready = new JsonObject();
+            ready.addProperty(JSON_READY, true);
+            writeMessage(channel, ready);
+            
+            submitAttach(attachExecutor, channel, firstPid);
+            while (true) {
+                JsonObject request = readRequest(channel);
+                if (request.has(JSON_SHUTDOWN)) {
+                    break;
+                }
+                JsonElement jsonPid = request.get(JSON_PID);
+                if (jsonPid == null || jsonPid.isJsonNull()) {
+                    logger.warning("Ignoring request without PID from agent");
+                    continue;
+                }
+                submitAttach(attachExecutor, channel, jsonPid.getAsInt());
+            }
+        } catch (IOException e) {
+            // Agent has gone away, nobody is left to serve
+            logger.log(Level.FINE, "Lost connection to agent", e);
+        } finally {
+            attachExecutor.shutdown();
+            try {
+                attachExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close channel with agent", e);
+            }
+        }
+    }
+    
+    private static JsonObject readRequest(IPCMessageChannel channel) throws IOException {
+        ByteBuffer buf = channel.readMessage();
+        String dataString = Charset.forName("UTF-8").decode(buf).toString();
+        try {
+            JsonElement parsed = new JsonParser().parse(dataString);
+            if (parsed == null || !parsed.isJsonObject()) {
+                throw new IOException("Malformed request from agent");
+            }
+            return parsed.getAsJsonObject();
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed request from agent", e);
+        }
+    }
+    
+    private static void submitAttach(ExecutorService attachExecutor, final IPCMessageChannel channel, final int pid) {
+        attachExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                AgentProxyControlImpl agent = creator.create(pid);
+                try {
+                    attachToTarget(pid, agent);
+                    String connectorAddress = getJMXServiceURL(agent);
+                    sendConnectionInfo(channel, pid, connectorAddress);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to retrieve JMX service URL for VM (pid: " + pid + ")", e);
+                    sendError(channel, pid, e);
+                } finally {
+                    detach(agent, pid);
+                }
+            }
+        });
+    }
+    
+    private static void sendError(IPCMessageChannel channel, int pid, IOException cause) {
+        JsonObject data = new JsonObject();
+        data.addProperty(JSON_PID, pid);
+        data.addProperty(JSON_ERROR, String.valueOf(cause.getMessage()));
+        try {
+            writeMessage(channel, data);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to send error to agent for VM (pid: " + pid + ")", e);
+        }
+    }
+    
+    private static void writeMessage(IPCMessageChannel channel, JsonObject data) throws IOException {
+        GsonBuilder builder = new GsonBuilder();
+        Gson gson = builder.create();
+        String jsonData = gson.toJson(data);
+        ByteBuffer buf = ByteBuffer.wrap(jsonData.getBytes("UTF-8"));
+        // Attaches finish on several threads, keep their messages whole
+        synchronized (channel) {
+            channel.writeMessage(buf);
+        }
+    }
 
     private static void attachToTarget(int pid, AgentProxyControlImpl agent) throws IOException {
         try {
@@ -126,15 +255,10 @@ public class AgentProxy {
     private static void sendConnectionInfo(IPCMessageChannel channel, int pid, String connectorAddress) throws IOException {
         try {
             // As JSON, write pid first, followed by JMX service URL
-            GsonBuilder builder = new GsonBuilder();
-            Gson gson = builder.create();
             JsonObject data = new JsonObject();
             data.addProperty(JSON_PID, pid);
             data.addProperty(JSON_JMX_URL, connectorAddress);
-            
-            String jsonData = gson.toJson(data);
-            ByteBuffer buf = ByteBuffer.wrap(jsonData.getBytes("UTF-8"));
-            channel.writeMessage(buf);
+            writeMessage(channel, data);
         } catch (IOException e) {
             throw new IOException("Failed to send JMX connection information to agent", e);
         }
@@ -147,6 +271,10 @@ public class AgentProxy {
             logger.log(Level.WARNING, "Failed to close channel with agent for VM (pid: " + pid + ")", e);
         }
 
+        detach(agent, pid);
+    }
+    
+    private static void detach(AgentProxyControlImpl agent, int pid) {
         if (agent.isAttached()) {
             try {
                 agent.detach();
@@ -157,7 +285,7 @@ public class AgentProxy {
     }
 
     private static void usage() {
-        throw new RuntimeException("usage: java " + AgentProxy.class.getName() + " <pidOfTargetJvm> <userNameOfJvmOwner>");
+        throw new RuntimeException("usage: java " + AgentProxy.class.getName() + " <pidOfTargetJvm> <ipcServerName> [" + PERSISTENT_FLAG + "]");
     }
     
     static class ControlCreator {
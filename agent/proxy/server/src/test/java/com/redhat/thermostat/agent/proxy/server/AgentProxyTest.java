@@ -43,6 +43,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -228,5 +229,74 @@ public class AgentProxyTest {
         verify(control).detach();
     }
 
+    @Test
+    public void testMainPersistent() throws Exception {
+        when(channel.readMessage()).thenReturn(jsonBuffer(AgentProxy.JSON_PID, 8001), 
+                jsonBuffer(AgentProxy.JSON_SHUTDOWN, true));
+        
+        AgentProxy.main(new String[] { "8000", IPC_SERVER_NAME, AgentProxy.PERSISTENT_FLAG });
+        
+        verify(control, times(2)).attach();
+        verify(control, times(2)).detach();
+        verify(channel).writeMessage(eq(jsonBuffer(AgentProxy.JSON_READY, true)));
+        verify(channel).writeMessage(eq(resultBuffer(8000)));
+        verify(channel).writeMessage(eq(resultBuffer(8001)));
+        verify(channel, times(2)).readMessage();
+        verify(channel).close();
+    }
+    
+    @Test
+    public void testMainPersistentAgentGone() throws Exception {
+        when(channel.readMessage()).thenThrow(new IOException());
+        
+        // Should exit without error
+        AgentProxy.main(new String[] { "8000", IPC_SERVER_NAME, AgentProxy.PERSISTENT_FLAG });
+        
+        verify(control).attach();
+        verify(channel).writeMessage(eq(resultBuffer(8000)));
+        verify(channel).close();
+    }
+    
+    @Test
+    public void testMainPersistentAttachFails() throws Exception {
+        doThrow(new IOException("no attach")).when(control).attach();
+        when(control.isAttached()).thenReturn(false);
+        when(channel.readMessage()).thenReturn(jsonBuffer(AgentProxy.JSON_SHUTDOWN, true));
+        
+        AgentProxy.main(new String[] { "8000", IPC_SERVER_NAME, AgentProxy.PERSISTENT_FLAG });
+        
+        JsonObject data = new JsonObject();
+        data.addProperty(AgentProxy.JSON_PID, 8000);
+        data.addProperty(AgentProxy.JSON_ERROR, "Failed to attach to VM (pid: 8000)");
+        verify(channel).writeMessage(eq(toBuffer(data)));
+        verify(control, never()).getConnectorAddress();
+        verify(control, never()).detach();
+        verify(channel).close();
+    }
+    
+    private ByteBuffer resultBuffer(int pid) throws Exception {
+        JsonObject data = new JsonObject();
+        data.addProperty(AgentProxy.JSON_PID, pid);
+        data.addProperty(AgentProxy.JSON_JMX_URL, JMX_URL);
+        return toBuffer(data);
+    }
+    
+    private ByteBuffer jsonBuffer(String property, Number value) throws Exception {
+        JsonObject data = new JsonObject();
+        data.addProperty(property, value);
+        return toBuffer(data);
+    }
+    
+    private ByteBuffer jsonBuffer(String property, Boolean value) throws Exception {
+        JsonObject data = new JsonObject();
+        data.addProperty(property, value);
+        return toBuffer(data);
+    }
+    
+    private ByteBuffer toBuffer(JsonObject data) throws Exception {
+        Gson gson = new GsonBuilder().create();
+        return ByteBuffer.wrap(gson.toJson(data).getBytes("UTF-8"));
+    }
+
 }
 
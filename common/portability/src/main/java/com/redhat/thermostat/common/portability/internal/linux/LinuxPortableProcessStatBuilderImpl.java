@@ -37,13 +37,12 @@
 package com.redhat.thermostat.common.portability.internal.linux;
 
 import com.redhat.thermostat.common.portability.PortableProcessStat;
+import com.redhat.thermostat.common.portability.linux.ProcBuffer;
+import com.redhat.thermostat.common.portability.linux.ProcBufferPool;
 import com.redhat.thermostat.common.portability.linux.ProcDataSource;
 import com.redhat.thermostat.common.utils.LoggingUtils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.Reader;
-import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,6 +56,10 @@ public class LinuxPortableProcessStatBuilderImpl {
 
     private static final Logger logger = LoggingUtils.getLogger(LinuxPortableProcessStatBuilderImpl.class);
 
+    // Fields between the state and utime: ppid, pgrp, session, tty_nr,
+    // tpgid, flags, minflt, cminflt, majflt and cmajflt
+    private static final int FIELDS_BEFORE_UTIME = 10;
+
     private final ProcDataSource dataSource;
 
     public LinuxPortableProcessStatBuilderImpl(ProcDataSource dataSource) {
@@ -64,58 +67,40 @@ public class LinuxPortableProcessStatBuilderImpl {
     }
 
     public PortableProcessStat build(int pid) {
-        try (BufferedReader reader = new BufferedReader(dataSource.getStatReader(pid))) {
-            return build(reader);
+        ProcBuffer buffer = ProcBufferPool.acquire();
+        try {
+            dataSource.readStat(pid, buffer);
+            return build(buffer);
         } catch (IOException e) {
             logger.log(Level.FINE, "Unable to read stat info for: " + pid);
+        } finally {
+            ProcBufferPool.release(buffer);
         }
 
         return null;
     }
 
-    PortableProcessStat build(Reader r) throws IOException {
+    PortableProcessStat build(ProcBuffer buffer) throws IOException {
 
-        int pid = -1;
-        long utime = -1;
-        long stime = -1;
+        /* TODO map these (effectively c) data types to java types more sanely */
 
-        Scanner scanner = null;
+        int pid = buffer.nextInt();
 
-        /* TODO map these (effectively c) data types to java types more sanely */
+        /* be prepared for process names like '1 ) 2 3 4 foo 5' */
 
-        try (BufferedReader reader = new BufferedReader(r)) {
-            String statusLine = reader.readLine();
-
-            /* be prepared for process names like '1 ) 2 3 4 foo 5' */
-
-            scanner = new Scanner(statusLine);
-            pid = scanner.nextInt();
-            scanner.close();
-
-            int execEndNamePos = statusLine.lastIndexOf(')');
-
-            String cleanStatusLine = statusLine.substring(execEndNamePos + 1);
-
-            scanner = new Scanner(cleanStatusLine);
-            /* state = */scanner.next();
-            /* ppid = */scanner.nextInt();
-            /* pgrp = */scanner.nextInt();
-            /* session = */scanner.nextInt();
-            /* tty_nr = */scanner.nextInt();
-            /* tpgid = */scanner.nextInt();
-            /* flags = */scanner.nextInt();
-            /* minflt = */scanner.nextLong();
-            /* cminflt = */scanner.nextLong();
-            /* majflt = */scanner.nextLong();
-            /* cmajflt = */scanner.nextLong();
-            utime = scanner.nextLong();
-            stime = scanner.nextLong();
-            scanner.close();
+        if (!buffer.skipPastLast((byte) ')')) {
+            throw new IOException("Malformed stat line");
         }
 
+        /* state = */buffer.skipToken();
+        for (int i = 0; i < FIELDS_BEFORE_UTIME; i++) {
+            buffer.skipToken();
+        }
+        long utime = buffer.nextLong();
+        long stime = buffer.nextLong();
+
         return new PortableProcessStat(pid, utime, stime);
 
     }
 
 }
-
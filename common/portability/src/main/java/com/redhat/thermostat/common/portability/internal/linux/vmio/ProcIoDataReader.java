@@ -36,11 +36,12 @@
 
 package com.redhat.thermostat.common.portability.internal.linux.vmio;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.redhat.thermostat.common.portability.linux.ProcBuffer;
+import com.redhat.thermostat.common.portability.linux.ProcBufferPool;
 import com.redhat.thermostat.common.portability.linux.ProcDataSource;
 import com.redhat.thermostat.common.utils.LoggingUtils;
 
@@ -51,6 +52,14 @@ public class ProcIoDataReader {
 
     private static final Logger logger = LoggingUtils.getLogger(ProcIoDataReader.class);
 
+    private static final byte[] RCHAR = ProcBuffer.key("rchar:");
+    private static final byte[] WCHAR = ProcBuffer.key("wchar:");
+    private static final byte[] SYSCR = ProcBuffer.key("syscr:");
+    private static final byte[] SYSCW = ProcBuffer.key("syscw:");
+    private static final byte[] READ_BYTES = ProcBuffer.key("read_bytes:");
+    private static final byte[] WRITE_BYTES = ProcBuffer.key("write_bytes:");
+    private static final byte[] CANCELLED_WRITE_BYTES = ProcBuffer.key("cancelled_write_bytes:");
+
     private final ProcDataSource dataSource;
 
     public ProcIoDataReader(ProcDataSource dataSource) {
@@ -58,16 +67,20 @@ public class ProcIoDataReader {
     }
 
     public ProcIoData read(int pid) {
-        try (BufferedReader reader = new BufferedReader(dataSource.getIoReader(pid))) {
-            return read(reader);
+        ProcBuffer buffer = ProcBufferPool.acquire();
+        try {
+            dataSource.readIo(pid, buffer);
+            return read(buffer);
         } catch (IOException e) {
             logger.log(Level.FINE, "Unable to read io info for: " + pid);
+        } finally {
+            ProcBufferPool.release(buffer);
         }
 
         return null;
     }
 
-    private ProcIoData read(BufferedReader r) throws IOException {
+    private ProcIoData read(ProcBuffer buffer) {
         // The file format is described at:
         // http://git.kernel.org/cgit/linux/kernel/git/torvalds/linux.git/tree/Documentation/filesystems/proc.txt
 
@@ -80,38 +93,25 @@ public class ProcIoDataReader {
         long write_bytes = UNKNOWN_VALUE;
         long cancelled_write_bytes = UNKNOWN_VALUE;
 
-        String line;
-        while ((line = r.readLine()) != null) {
-            String[] parts = line.split(":");
-            String key = parts[0].trim();
-            String value = parts[1].trim();
-            switch (key) {
-                case "rchar":
-                    rchar = Long.valueOf(value);
-                    break;
-                case "wchar":
-                    wchar = Long.valueOf(value);
-                    break;
-                case "syscr":
-                    syscr = Long.valueOf(value);
-                    break;
-                case "syscw":
-                    syscw = Long.valueOf(value);
-                    break;
-                case "read_bytes":
-                    read_bytes = Long.valueOf(value);
-                    break;
-                case "write_bytes":
-                    write_bytes = Long.valueOf(value);
-                    break;
-                case "cancelled_write_bytes":
-                    cancelled_write_bytes = Long.valueOf(value);
-                    break;
+        do {
+            if (buffer.skip(RCHAR)) {
+                rchar = buffer.nextLong();
+            } else if (buffer.skip(WCHAR)) {
+                wchar = buffer.nextLong();
+            } else if (buffer.skip(SYSCR)) {
+                syscr = buffer.nextLong();
+            } else if (buffer.skip(SYSCW)) {
+                syscw = buffer.nextLong();
+            } else if (buffer.skip(READ_BYTES)) {
+                read_bytes = buffer.nextLong();
+            } else if (buffer.skip(WRITE_BYTES)) {
+                write_bytes = buffer.nextLong();
+            } else if (buffer.skip(CANCELLED_WRITE_BYTES)) {
+                cancelled_write_bytes = buffer.nextLong();
             }
-        }
+        } while (buffer.nextLine());
 
         return new ProcIoData(rchar, wchar, syscr, syscw, read_bytes, write_bytes, cancelled_write_bytes);
     }
 
 }
-
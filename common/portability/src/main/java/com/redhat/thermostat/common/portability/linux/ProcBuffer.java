@@ -0,0 +1,322 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.common.portability.linux;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A reusable buffer holding the contents of a file under {@code /proc/},
+ * with a cursor and byte-level parsers for the formats used there.
+ * <p>
+ * Files are read into a direct buffer which is kept (and grown if needed)
+ * across loads. Numbers are parsed straight from the bytes, so collectors
+ * polling {@code /proc/} frequently do not produce any garbage beyond
+ * opening the file. Use {@link ProcBufferPool} to share buffers between
+ * collectors.
+ * <p>
+ * The parsing methods assume ASCII contents, which holds for all the
+ * numeric files the agent reads. Instances are not thread safe.
+ */
+public final class ProcBuffer {
+
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private static final byte NEWLINE = '\n';
+
+    private ByteBuffer buffer;
+    private int position;
+    private int limit;
+
+    public ProcBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ProcBuffer(int initialCapacity) {
+        buffer = ByteBuffer.allocateDirect(initialCapacity);
+    }
+
+    /**
+     * Converts a key, as in {@code "MemTotal:"}, to the form expected by
+     * {@link #startsWith(byte[])} and {@link #skip(byte[])}. Meant for
+     * constants.
+     */
+    public static byte[] key(String key) {
+        return key.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Replaces the contents of this buffer with the contents of the given
+     * file and moves the cursor to the start.
+     */
+    public void load(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            load(channel);
+        }
+    }
+
+    /**
+     * Replaces the contents of this buffer with everything that can be read
+     * from the channel and moves the cursor to the start. Files under
+     * {@code /proc/} report a size of zero, so this reads until the end of
+     * the stream.
+     */
+    public void load(ReadableByteChannel channel) throws IOException {
+        buffer.clear();
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                grow();
+            }
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        position = 0;
+        limit = buffer.position();
+    }
+
+    private void grow() {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return the number of bytes loaded
+     */
+    public int length() {
+        return limit;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public void position(int newPosition) {
+        if (newPosition < 0 || newPosition > limit) {
+            throw new IndexOutOfBoundsException("position " + newPosition + " outside of [0, " + limit + "]");
+        }
+        position = newPosition;
+    }
+
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+
+    /**
+     * @return the byte at the cursor without consuming it, or {@code -1} at
+     *         the end of the contents
+     */
+    public int peek() {
+        return position < limit ? buffer.get(position) : -1;
+    }
+
+    /**
+     * Moves the cursor to the start of the next line.
+     *
+     * @return {@code true} if there is such a line
+     */
+    public boolean nextLine() {
+        return skipPast(NEWLINE) && hasRemaining();
+    }
+
+    /**
+     * Moves the cursor past the next occurrence of {@code b}, or to the end
+     * of the contents if there is none.
+     *
+     * @return {@code true} if {@code b} was found
+     */
+    public boolean skipPast(byte b) {
+        while (position < limit) {
+            if (buffer.get(position++) == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the cursor past the last occurrence of {@code b} in the
+     * remaining contents. The cursor does not move if there is none.
+     *
+     * @return {@code true} if {@code b} was found
+     */
+    public boolean skipPastLast(byte b) {
+        for (int i = limit - 1; i >= position; i--) {
+            if (buffer.get(i) == b) {
+                position = i + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the remaining contents start with {@code key}
+     */
+    public boolean startsWith(byte[] key) {
+        if (limit - position < key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(position + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the cursor past {@code key} if the remaining contents start with
+     * it.
+     *
+     * @return {@code true} if the cursor was moved
+     */
+    public boolean skip(byte[] key) {
+        if (startsWith(key)) {
+            position += key.length;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the cursor past spaces and tabs. Line ends are not skipped.
+     */
+    public void skipBlanks() {
+        while (position < limit && isBlank(buffer.get(position))) {
+            position++;
+        }
+    }
+
+    /**
+     * Moves the cursor past the next whitespace separated token on the
+     * current line.
+     */
+    public void skipToken() {
+        skipBlanks();
+        while (position < limit && !isWhitespace(buffer.get(position))) {
+            position++;
+        }
+    }
+
+    /**
+     * Parses the next decimal number on the current line, skipping leading
+     * spaces and tabs.
+     *
+     * @throws NumberFormatException if the cursor is not at a number
+     */
+    public long nextLong() {
+        skipBlanks();
+        boolean negative = false;
+        if (position < limit && buffer.get(position) == '-') {
+            negative = true;
+            position++;
+        }
+        int start = position;
+        long value = 0;
+        while (position < limit) {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            position++;
+        }
+        if (position == start) {
+            throw new NumberFormatException("No number at offset " + start);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the next decimal number on the current line, as
+     * {@link #nextLong()}.
+     */
+    public int nextInt() {
+        return (int) nextLong();
+    }
+
+    /**
+     * Parses numbers from the current line into {@code values}, until the
+     * array is full or the line has no more numbers.
+     *
+     * @return the number of values parsed
+     */
+    public int nextLongs(long[] values) {
+        int count = 0;
+        while (count < values.length) {
+            skipBlanks();
+            int next = peek();
+            if (next != '-' && (next < '0' || next > '9')) {
+                break;
+            }
+            values[count++] = nextLong();
+        }
+        return count;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return isBlank(b) || b == NEWLINE || b == '\r';
+    }
+
+    @Override
+    public String toString() {
+        byte[] contents = new byte[limit];
+        for (int i = 0; i < limit; i++) {
+            contents[i] = buffer.get(i);
+        }
+        return new String(contents, StandardCharsets.US_ASCII);
+    }
+
+}
+
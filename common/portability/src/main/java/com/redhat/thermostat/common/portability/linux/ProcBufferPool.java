@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.common.portability.linux;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A small pool of {@link ProcBuffer}s shared by the collectors reading
+ * {@code /proc/}. Buffers grow to fit the largest file they have held, so
+ * after warm up reads do not need to allocate buffer space at all.
+ *
+ * <pre>
+ * ProcBuffer buffer = ProcBufferPool.acquire();
+ * try {
+ *     dataSource.readStat(pid, buffer);
+ *     ...
+ * } finally {
+ *     ProcBufferPool.release(buffer);
+ * }
+ * </pre>
+ */
+public final class ProcBufferPool {
+
+    // Collectors run on a handful of threads, more buffers would just sit idle
+    static final int MAX_POOLED = 8;
+
+    // Buffers which grew beyond this, for an unusually large file, are not
+    // kept, so that one such read does not pin that much direct memory
+    static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    private static final BlockingQueue<ProcBuffer> pool = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private ProcBufferPool() {
+        // not instantiable
+    }
+
+    /**
+     * @return a pooled buffer, or a new one if all pooled buffers are in use
+     */
+    public static ProcBuffer acquire() {
+        ProcBuffer buffer = pool.poll();
+        return buffer != null ? buffer : new ProcBuffer();
+    }
+
+    /**
+     * Returns a buffer to the pool. It must not be used by the caller
+     * afterwards.
+     */
+    public static void release(ProcBuffer buffer) {
+        if (buffer.capacity() > MAX_POOLED_CAPACITY) {
+            return;
+        }
+        // Dropped if the pool is full
+        pool.offer(buffer);
+    }
+
+    /*
+     * For testing purposes only.
+     */
+    static int size() {
+        return pool.size();
+    }
+
+}
+
@@ -48,6 +48,10 @@ import java.io.Reader;
  *
  * Note that different Unix-like OSs may or may not have a /proc (and the format may be different)
  * for example Darwin/OSX doesn't have /proc
+ *
+ * The {@code read*} methods load a file into a reusable {@link ProcBuffer}
+ * instead of handing out a new {@link Reader}. Collectors which poll
+ * frequently should prefer those.
  */
 public class ProcDataSource {
 
@@ -125,6 +129,34 @@ public class ProcDataSource {
         return new FileReader(getPidFile(PID_NUMA_MAPS_FILE, pid));
     }
 
+    /**
+     * Loads /proc/stat into the given buffer. Kernel/System statistics.
+     */
+    public void readStat(ProcBuffer buffer) throws IOException {
+        buffer.load(STAT_FILE);
+    }
+
+    /**
+     * Loads /proc/meminfo into the given buffer
+     */
+    public void readMemInfo(ProcBuffer buffer) throws IOException {
+        buffer.load(MEMINFO_FILE);
+    }
+
+    /**
+     * Loads /proc/$PID/io into the given buffer
+     */
+    public void readIo(int pid, ProcBuffer buffer) throws IOException {
+        buffer.load(getPidFile(PID_IO_FILE, pid));
+    }
+
+    /**
+     * Loads /proc/$PID/stat into the given buffer
+     */
+    public void readStat(int pid, ProcBuffer buffer) throws IOException {
+        buffer.load(getPidFile(PID_STAT_FILE, pid));
+    }
+
     private String getPidFile(String fileName, int pid) {
         return fileName.replace("${pid}", Integer.toString(pid));
     }
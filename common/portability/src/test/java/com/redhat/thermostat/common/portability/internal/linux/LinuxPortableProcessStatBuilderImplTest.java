@@ -42,17 +42,23 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 
 import com.redhat.thermostat.common.portability.PortableProcessStat;
 import com.redhat.thermostat.shared.config.OS;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.redhat.thermostat.common.portability.linux.ProcBuffer;
 import com.redhat.thermostat.common.portability.linux.ProcDataSource;
 
 public class LinuxPortableProcessStatBuilderImplTest {
@@ -98,11 +104,11 @@ public class LinuxPortableProcessStatBuilderImplTest {
                 KERNEL_TIME_CHILDREN + " " + PRIORITY;
 
         ProcDataSource dataSource = mock(ProcDataSource.class);
-        when(dataSource.getStatReader(any(Integer.class))).thenReturn(new StringReader(statString));
+        doAnswer(load(statString)).when(dataSource).readStat(any(Integer.class), any(ProcBuffer.class));
         LinuxPortableProcessStatBuilderImpl builder = new LinuxPortableProcessStatBuilderImpl(dataSource);
         PortableProcessStat stat = builder.build(PID);
 
-        verify(dataSource).getStatReader(PID);
+        verify(dataSource).readStat(eq(PID), any(ProcBuffer.class));
         assertNotNull(stat);
         assertEquals(PID, stat.getPid());
         assertEquals(USER_TIME_TICKS, stat.getUserTime());
@@ -139,16 +145,27 @@ public class LinuxPortableProcessStatBuilderImplTest {
                 KERNEL_TIME_CHILDREN + " " + PRIORITY;
 
         ProcDataSource dataSource = mock(ProcDataSource.class);
-        when(dataSource.getStatReader(any(Integer.class))).thenReturn(new StringReader(statString));
+        doAnswer(load(statString)).when(dataSource).readStat(any(Integer.class), any(ProcBuffer.class));
         LinuxPortableProcessStatBuilderImpl builder = new LinuxPortableProcessStatBuilderImpl(dataSource);
         PortableProcessStat stat = builder.build(PID);
 
-        verify(dataSource).getStatReader(PID);
+        verify(dataSource).readStat(eq(PID), any(ProcBuffer.class));
         assertNotNull(stat);
         assertEquals(PID, stat.getPid());
         assertEquals(USER_TIME_TICKS, stat.getUserTime());
         assertEquals(KERNEL_TIME_TICKS, stat.getKernelTime());
     }
 
-}
+    private static Answer<Void> load(final String contents) {
+        return new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                ProcBuffer buffer = (ProcBuffer) args[args.length - 1];
+                buffer.load(Channels.newChannel(new ByteArrayInputStream(contents.getBytes(StandardCharsets.US_ASCII))));
+                return null;
+            }
+        };
+    }
 
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.common.portability.internal.linux;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Scanner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.redhat.thermostat.common.portability.PortableProcessStat;
+import com.redhat.thermostat.common.portability.linux.ProcDataSource;
+import com.redhat.thermostat.shared.config.OS;
+import com.redhat.thermostat.testutils.PerformanceTest;
+import com.redhat.thermostat.testutils.TestUtils;
+
+/**
+ * Compares the bytes allocated per read of {@code /proc/<pid>/stat} through
+ * a {@link java.io.Reader} and {@link Scanner}, as the collectors used to,
+ * and through a pooled {@link com.redhat.thermostat.common.portability.linux.ProcBuffer}.
+ *
+ * JUnit categorized performance test. It'll be only run for
+ * the perf-tests profile during a full build.
+ */
+@Category(PerformanceTest.class)
+public class ProcReaderAllocationPerformanceTest {
+
+    private static final boolean DEBUG = true;
+    private static final int WARMUP_ITERATIONS = 5_000;
+    private static final int ITERATIONS = 20_000;
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private ProcDataSource dataSource;
+    private int pid;
+
+    @Before
+    public void setup() {
+        assumeTrue(OS.IS_LINUX);
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        dataSource = new ProcDataSource();
+        pid = TestUtils.getProcessId();
+    }
+
+    @Test
+    public void procBufferAllocatesLessThanReaders() throws Exception {
+        LinuxPortableProcessStatBuilderImpl builder = new LinuxPortableProcessStatBuilderImpl(dataSource);
+        readWithReader(WARMUP_ITERATIONS);
+        readWithBuffer(builder, WARMUP_ITERATIONS);
+
+        long threadId = Thread.currentThread().getId();
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        readWithReader(ITERATIONS);
+        long withReader = threadBean.getThreadAllocatedBytes(threadId) - start;
+        start = threadBean.getThreadAllocatedBytes(threadId);
+        readWithBuffer(builder, ITERATIONS);
+        long withBuffer = threadBean.getThreadAllocatedBytes(threadId) - start;
+
+        if (DEBUG) {
+            System.out.println(ProcReaderAllocationPerformanceTest.class.getSimpleName() + ":");
+            System.out.println("  reader + scanner: " + (withReader / ITERATIONS) + " bytes/read");
+            System.out.println("  pooled buffer:    " + (withBuffer / ITERATIONS) + " bytes/read");
+        }
+        assertTrue("Expected buffer reads to allocate at least 10 times less", withReader > 10 * withBuffer);
+    }
+
+    private void readWithBuffer(LinuxPortableProcessStatBuilderImpl builder, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            PortableProcessStat stat = builder.build(pid);
+            assertTrue(stat != null);
+        }
+    }
+
+    // What LinuxPortableProcessStatBuilderImpl did before it used ProcBuffer
+    private void readWithReader(int iterations) throws IOException {
+        for (int i = 0; i < iterations; i++) {
+            try (BufferedReader reader = new BufferedReader(dataSource.getStatReader(pid))) {
+                String statusLine = reader.readLine();
+                Scanner scanner = new Scanner(statusLine);
+                scanner.nextInt();
+                scanner.close();
+                scanner = new Scanner(statusLine.substring(statusLine.lastIndexOf(')') + 1));
+                scanner.next();
+                for (int field = 0; field < 10; field++) {
+                    scanner.nextLong();
+                }
+                scanner.nextLong();
+                scanner.nextLong();
+                scanner.close();
+            }
+        }
+    }
+
+}
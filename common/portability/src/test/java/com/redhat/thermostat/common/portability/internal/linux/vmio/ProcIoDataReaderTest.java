@@ -36,15 +36,25 @@
 
 package com.redhat.thermostat.common.portability.internal.linux.vmio;
 
-import java.io.StringReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.redhat.thermostat.common.portability.linux.ProcBuffer;
 import com.redhat.thermostat.common.portability.linux.ProcDataSource;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
 
 public class ProcIoDataReaderTest {
 
@@ -60,7 +70,7 @@ public class ProcIoDataReaderTest {
                 "write_bytes: 811008\n" +
                 "cancelled_write_bytes: 16384\n";
         ProcDataSource dataSource = mock(ProcDataSource.class);
-        when(dataSource.getIoReader(SOME_PID)).thenReturn(new StringReader(fileContents));
+        doAnswer(load(fileContents)).when(dataSource).readIo(eq(SOME_PID), any(ProcBuffer.class));
 
         ProcIoData parsedData = new ProcIoDataReader(dataSource).read(SOME_PID);
 
@@ -73,4 +83,43 @@ public class ProcIoDataReaderTest {
         assertEquals(16384, parsedData.cancelled_write_bytes);
 
     }
+
+    @Test
+    public void verifyMissingFieldsAreUnknown() throws Exception {
+        final int SOME_PID = 0;
+        String fileContents = "" +
+                "rchar: 19961133\n" +
+                "syscw: 13870\n";
+        ProcDataSource dataSource = mock(ProcDataSource.class);
+        doAnswer(load(fileContents)).when(dataSource).readIo(eq(SOME_PID), any(ProcBuffer.class));
+
+        ProcIoData parsedData = new ProcIoDataReader(dataSource).read(SOME_PID);
+
+        assertEquals(19961133, parsedData.rchar);
+        assertEquals(-1, parsedData.wchar);
+        assertEquals(13870, parsedData.syscw);
+        assertEquals(-1, parsedData.cancelled_write_bytes);
+    }
+
+    @Test
+    public void verifyUnreadableFileReturnsNull() throws Exception {
+        final int SOME_PID = 0;
+        ProcDataSource dataSource = mock(ProcDataSource.class);
+        doThrow(new IOException()).when(dataSource).readIo(eq(SOME_PID), any(ProcBuffer.class));
+
+        assertNull(new ProcIoDataReader(dataSource).read(SOME_PID));
+    }
+
+    private static Answer<Void> load(final String contents) {
+        return new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                ProcBuffer buffer = (ProcBuffer) args[args.length - 1];
+                buffer.load(Channels.newChannel(new ByteArrayInputStream(contents.getBytes(StandardCharsets.US_ASCII))));
+                return null;
+            }
+        };
+    }
+
 }
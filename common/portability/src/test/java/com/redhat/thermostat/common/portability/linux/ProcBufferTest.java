@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.common.portability.linux;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ProcBufferTest {
+
+    @Test
+    public void testLoad() throws IOException {
+        ProcBuffer buffer = load(new ProcBuffer(), "cpu 1 2 3\n");
+        assertEquals(10, buffer.length());
+        assertEquals(0, buffer.position());
+        assertEquals("cpu 1 2 3\n", buffer.toString());
+    }
+
+    @Test
+    public void testLoadGrowsBuffer() throws IOException {
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            contents.append("line ").append(i).append('\n');
+        }
+        ProcBuffer buffer = load(new ProcBuffer(16), contents.toString());
+        assertEquals(contents.length(), buffer.length());
+        assertEquals(contents.toString(), buffer.toString());
+        assertTrue(buffer.capacity() >= contents.length());
+    }
+
+    @Test
+    public void testLoadReplacesContents() throws IOException {
+        ProcBuffer buffer = load(new ProcBuffer(), "a much longer first content\n");
+        buffer.nextLine();
+        load(buffer, "short");
+        assertEquals(0, buffer.position());
+        assertEquals("short", buffer.toString());
+    }
+
+    @Test
+    public void testNextLong() throws IOException {
+        ProcBuffer buffer = load(new ProcBuffer(), "  12\t-3 9223372036854775807");
+        assertEquals(12, buffer.nextLong());
+        assertEquals(-3, buffer.nextLong());
+        assertEquals(Long.MAX_VALUE, buffer.nextLong());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test(expected=NumberFormatException.class)
+    public void testNextLongNotANumber() throws IOException {
+        load(new ProcBuffer(), "abc").nextLong();
+    }
+
+    @Test(expected=NumberFormatException.class)
+    public void testNextLongDoesNotCrossLines() throws IOException {
+        ProcBuffer buffer = load(new ProcBuffer(), "1\n2");
+        buffer.nextLong();
+        buffer.nextLong();
+    }
+
+    @Test
+    public void testNextLongs() throws IOException {
+        ProcBuffer buffer = load(new ProcBuffer(), "cpu0 1 2 3\ncpu1 4");
+        long[] values = new long[5];
+        assertTrue(buffer.skip(ProcBuffer.key("cpu0")));
+        assertEquals(3, buffer.nextLongs(values));
+        assertEquals(1, values[0]);
+        assertEquals(2, values[1]);
+        assertEquals(3, values[2]);
+        assertTrue(buffer.nextLine());
+        assertTrue(buffer.skip(ProcBuffer.key("cpu1")));
+        assertEquals(1, buffer.nextLongs(new long[1]));
+    }
+
+    @Test
+    public void testLines() throws IOException {
+        ProcBuffer buffer = load(new ProcBuffer(), "first\nsecond\n");
+        assertTrue(buffer.startsWith(ProcBuffer.key("first")));
+        assertTrue(buffer.nextLine());
+        assertTrue(buffer.startsWith(ProcBuffer.key("second")));
+        assertFalse(buffer.nextLine());
+        assertFalse(buffer.hasRemaining());
+        assertEquals(-1, buffer.peek());
+    }
+
+    @Test
+    public void testSkip() throws IOException {
+        ProcBuffer buffer = load(new ProcBuffer(), "MemTotal:  100 kB");
+        assertFalse(buffer.skip(ProcBuffer.key("MemFree:")));
+        assertEquals(0, buffer.position());
+        assertTrue(buffer.skip(ProcBuffer.key("MemTotal:")));
+        assertEquals(100, buffer.nextLong());
+        buffer.skipBlanks();
+        assertEquals('k', buffer.peek());
+        assertFalse(buffer.startsWith(ProcBuffer.key("kB and more")));
+    }
+
+    @Test
+    public void testSkipToken() throws IOException {
+        ProcBuffer buffer = load(new ProcBuffer(), "S 1737 x");
+        buffer.skipToken();
+        assertEquals(1737, buffer.nextLong());
+        buffer.skipToken();
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testSkipPastLast() throws IOException {
+        ProcBuffer buffer = load(new ProcBuffer(), "1 (a) b) S 2");
+        assertFalse(buffer.skipPastLast((byte) '?'));
+        assertEquals(0, buffer.position());
+        assertTrue(buffer.skipPastLast((byte) ')'));
+        buffer.skipToken();
+        assertEquals(2, buffer.nextLong());
+    }
+
+    @Test
+    public void testPosition() throws IOException {
+        ProcBuffer buffer = load(new ProcBuffer(), "12 34");
+        buffer.position(3);
+        assertEquals(34, buffer.nextLong());
+        buffer.position(0);
+        assertEquals(12, buffer.nextLong());
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testPositionOutOfBounds() throws IOException {
+        load(new ProcBuffer(), "12").position(3);
+    }
+
+    @Test
+    public void testPoolReusesBuffers() {
+        ProcBuffer first = ProcBufferPool.acquire();
+        ProcBufferPool.release(first);
+        assertSame(first, ProcBufferPool.acquire());
+        ProcBuffer second = ProcBufferPool.acquire();
+        assertNotSame(first, second);
+        ProcBufferPool.release(first);
+        ProcBufferPool.release(second);
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        for (int i = 0; i < ProcBufferPool.MAX_POOLED * 2; i++) {
+            ProcBufferPool.release(new ProcBuffer());
+        }
+        assertEquals(ProcBufferPool.MAX_POOLED, ProcBufferPool.size());
+    }
+
+    @Test
+    public void testPoolDropsOversizedBuffers() {
+        while (ProcBufferPool.size() > 0) {
+            ProcBufferPool.acquire();
+        }
+        ProcBufferPool.release(new ProcBuffer(ProcBufferPool.MAX_POOLED_CAPACITY * 2));
+        assertEquals(0, ProcBufferPool.size());
+        ProcBufferPool.release(new ProcBuffer(ProcBufferPool.MAX_POOLED_CAPACITY));
+        assertEquals(1, ProcBufferPool.size());
+    }
+
+    static ProcBuffer load(ProcBuffer buffer, String contents) throws IOException {
+        buffer.load(Channels.newChannel(new ByteArrayInputStream(contents.getBytes(StandardCharsets.US_ASCII))));
+        return buffer;
+    }
+
+}
@@ -45,7 +45,9 @@ import com.redhat.thermostat.testutils.TestUtils;
 
 import org.junit.Assume;
 import org.junit.Test;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class ProcDataSourceTest {
 
@@ -117,5 +119,38 @@ public class ProcDataSourceTest {
         Reader r = new ProcDataSource().getNumaMapsReader(pid);
         assertNotNull(r);
     }
-}
 
+    @Test
+    public void testReadStat() throws Exception {
+        Assume.assumeTrue(OS.IS_LINUX);
+        ProcBuffer buffer = new ProcBuffer();
+        new ProcDataSource().readStat(buffer);
+        assertTrue(buffer.startsWith(ProcBuffer.key("cpu ")));
+    }
+
+    @Test
+    public void testReadMemInfo() throws Exception {
+        Assume.assumeTrue(OS.IS_LINUX);
+        ProcBuffer buffer = new ProcBuffer();
+        new ProcDataSource().readMemInfo(buffer);
+        assertTrue(buffer.startsWith(ProcBuffer.key("MemTotal:")));
+    }
+
+    @Test
+    public void testReadPidStat() throws Exception {
+        Assume.assumeTrue(OS.IS_LINUX);
+        int pid = TestUtils.getProcessId();
+        ProcBuffer buffer = new ProcBuffer();
+        new ProcDataSource().readStat(pid, buffer);
+        assertEquals(pid, buffer.nextInt());
+    }
+
+    @Test
+    public void testReadIo() throws Exception {
+        Assume.assumeTrue(OS.IS_LINUX);
+        int pid = TestUtils.getProcessId();
+        ProcBuffer buffer = new ProcBuffer();
+        new ProcDataSource().readIo(pid, buffer);
+        assertTrue(buffer.startsWith(ProcBuffer.key("rchar:")));
+    }
+}
@@ -46,9 +46,8 @@ import com.redhat.thermostat.common.cli.Console;
 import com.redhat.thermostat.shared.locale.Translate;
 import com.redhat.thermostat.storage.populator.internal.config.ConfigItem;
 import com.redhat.thermostat.storage.populator.internal.dependencies.SharedState;
+import com.redhat.thermostat.thread.dao.StackTraceStore;
 import com.redhat.thermostat.thread.dao.ThreadDao;
-import com.redhat.thermostat.thread.model.StackFrame;
-import com.redhat.thermostat.thread.model.StackTrace;
 import com.redhat.thermostat.thread.model.ThreadHarvestingStatus;
 import com.redhat.thermostat.thread.model.ThreadSession;
 import com.redhat.thermostat.thread.model.ThreadState;
@@ -154,6 +153,7 @@ public class ThreadPopulator extends BasePopulator {
         long currTime = System.currentTimeMillis();
         for (String agentId: agentIds) {
             for (String vmId: vmIds) {
+                StackTraceStore stackTraceStore = new StackTraceStore(dao, agentId, vmId);
                 for (int i = 0; i < perVmNumber; i++) {
                     ThreadSummary summary = new ThreadSummary();
                     summary.setAgentId(agentId);
@@ -187,21 +187,19 @@ public class ThreadPopulator extends BasePopulator {
                         threadState.setName(name);
                         threadState.setSession(SESSION);
 
-                        List<StackFrame> frames = new ArrayList<>();
+                        StackTraceElement[] frames = new StackTraceElement[NUM_SAMPLES];
                         for (int k = 0; k < NUM_SAMPLES; k++) {
-                            StackFrame frame = new StackFrame();
-                            frame.setFileName(FILE_NAMES[generator.nextInt(FILE_NAMES.length)]);
-                            frame.setPackageName(
-                                    PACKAGE_NAMES[generator.nextInt(PACKAGE_NAMES.length)]);
-                            frame.setClassName(CLASS_NAMES[generator.nextInt(CLASS_NAMES.length)]);
-                            frame.setMethodName(METHOD_NAME[generator.nextInt(METHOD_NAME.length)]);
+                            String fileName = FILE_NAMES[generator.nextInt(FILE_NAMES.length)];
+                            String className =
+                                    PACKAGE_NAMES[generator.nextInt(PACKAGE_NAMES.length)] + "." +
+                                    CLASS_NAMES[generator.nextInt(CLASS_NAMES.length)];
+                            String methodName = METHOD_NAME[generator.nextInt(METHOD_NAME.length)];
+                            // -2 marks a native method
                             int lineNumber = generator.nextInt(100_000) - 2;
-                            frame.setLineNumber(lineNumber);
-                            frame.setNativeMethod(lineNumber == -2);
-                            frames.add(frame);
+                            frames[k] = new StackTraceElement(className, methodName, fileName, lineNumber);
                         }
-                        StackTrace stackTrace = new StackTrace(frames);
-                        threadState.setStackTrace(stackTrace.toString());
+                        threadState.setStackTrace("");
+                        threadState.setStackTraceId(stackTraceStore.store(frames));
 
                         dao.addThreadState(threadState);
                     }
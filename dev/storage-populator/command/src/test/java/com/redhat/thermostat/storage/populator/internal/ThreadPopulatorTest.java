@@ -37,6 +37,7 @@
 package com.redhat.thermostat.storage.populator.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -229,6 +230,9 @@ public class ThreadPopulatorTest {
         List<ThreadState> savedValues = stateCaptor.getAllValues();
         assertEquals(totalCount * ThreadPopulator.NUM_SAMPLES, savedValues.size());
         checkInstances(savedValues, VMS.length * perVmCount * ThreadPopulator.NUM_SAMPLES);
+        for (ThreadState state : savedValues) {
+            assertNotNull(state.getStackTraceId());
+        }
     }
 
     private void assertThreadHarvestingStatus(int totalCount, int perVmCount) {
@@ -36,7 +36,6 @@
 
 package com.redhat.thermostat.host.cpu.agent.internal;
 
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.osgi.framework.BundleActivator;
@@ -44,6 +43,7 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 
 import com.redhat.thermostat.backend.Backend;
+import com.redhat.thermostat.backend.BackendScheduler;
 import com.redhat.thermostat.backend.BackendService;
 import com.redhat.thermostat.common.MultipleServiceTracker;
 import com.redhat.thermostat.common.MultipleServiceTracker.Action;
@@ -61,7 +61,7 @@ public class Activator implements BundleActivator {
     
     @Override
     public void start(final BundleContext context) throws Exception {
-        executor = Executors.newSingleThreadScheduledExecutor();
+        executor = BackendScheduler.getInstance().createExecutor("host-cpu");
 
         Class<?>[] deps = new Class<?>[] {
                 BackendService.class,
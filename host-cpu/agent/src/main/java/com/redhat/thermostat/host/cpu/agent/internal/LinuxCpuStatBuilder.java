@@ -36,11 +36,12 @@
 
 package com.redhat.thermostat.host.cpu.agent.internal;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.redhat.thermostat.common.portability.linux.ProcBuffer;
+import com.redhat.thermostat.common.portability.linux.ProcBufferPool;
 import com.redhat.thermostat.common.portability.linux.ProcDataSource;
 import com.redhat.thermostat.common.Clock;
 import com.redhat.thermostat.common.utils.LoggingUtils;
@@ -51,6 +52,8 @@ public class LinuxCpuStatBuilder implements CpuStatBuilder {
 
     private static final Logger logger = LoggingUtils.getLogger(LinuxCpuStatBuilder.class);
 
+    private static final byte[] CPU = ProcBuffer.key("cpu");
+
     private final ProcDataSource dataSource;
     private final Clock clock;
     private final long ticksPerSecond;
@@ -61,6 +64,9 @@ public class LinuxCpuStatBuilder implements CpuStatBuilder {
     private long[] previousCpuTicks;
     private long previousTime;
 
+    // user, user-nice and system times of a single CPU
+    private final long[] busyTicks = new long[3];
+
     LinuxCpuStatBuilder(Clock clock, ProcDataSource dataSource, long ticksPerSecond, WriterID writerId) {
         this.writerId = writerId;
         this.dataSource = dataSource;
@@ -106,18 +112,20 @@ public class LinuxCpuStatBuilder implements CpuStatBuilder {
     private long[] getCurrentCpuTicks() {
         int maxIndex = 0;
         long[] values = new long[1];
-        try (BufferedReader reader = new BufferedReader(dataSource.getStatReader())) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.startsWith("cpu")) {
+        ProcBuffer buffer = ProcBufferPool.acquire();
+        try {
+            dataSource.readStat(buffer);
+            do {
+                // only lines for individual CPUs, as in "cpu3 ..."
+                if (!buffer.skip(CPU)) {
                     continue;
                 }
-                String[] parts = line.split("\\s");
-                if (!parts[0].matches("cpu\\d+")) {
+                int next = buffer.peek();
+                if (next < '0' || next > '9') {
                     continue;
                 }
 
-                int cpuIndex = Integer.valueOf(parts[0].substring("cpu".length()));
+                int cpuIndex = buffer.nextInt();
                 if (cpuIndex > maxIndex) {
                     long[] newValues = new long[cpuIndex+1];
                     System.arraycopy(values, 0, newValues, 0, cpuIndex);
@@ -125,10 +133,13 @@ public class LinuxCpuStatBuilder implements CpuStatBuilder {
                     maxIndex = cpuIndex;
                 }
                 // add the user, user-nice and system times to get the CPU busy time
-                values[cpuIndex] = Long.valueOf(parts[1]) + Long.valueOf(parts[2]) + Long.valueOf(parts[3]);
-            }
+                buffer.nextLongs(busyTicks);
+                values[cpuIndex] = busyTicks[0] + busyTicks[1] + busyTicks[2];
+            } while (buffer.nextLine());
         } catch (IOException e) {
             logger.log(Level.WARNING, "error reading stat file", e);
+        } finally {
+            ProcBufferPool.release(buffer);
         }
 
         return values;
@@ -38,19 +38,25 @@ package com.redhat.thermostat.host.cpu.agent.internal;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 
 import com.redhat.thermostat.shared.config.OS;
 import org.junit.Assume;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.redhat.thermostat.common.portability.linux.ProcBuffer;
 import com.redhat.thermostat.common.portability.linux.ProcDataSource;
 import com.redhat.thermostat.common.Clock;
 import com.redhat.thermostat.common.SystemClock;
@@ -88,13 +94,11 @@ public class LinuxCpuStatBuilderTest {
             "cpu 100 0 0 1000 1000\n" +
             "cpu0 100 0 0 1000 1000\n" +
             "cpu1 10 80 10 1000 1000\n";
-        BufferedReader reader1 = new BufferedReader(new StringReader(firstReadContents));
 
         String secondReadContents =
             "cpu 400 0 0 1000 1000\n" +
             "cpu0 200 0 0 1000 1000\n" +
             "cpu1 30 50 120 1000 1000\n";
-        BufferedReader reader2 = new BufferedReader(new StringReader(secondReadContents));
 
         long ticksPerSecond = 100;
         Clock clock = mock(Clock.class);
@@ -102,7 +106,8 @@ public class LinuxCpuStatBuilderTest {
         when(clock.getMonotonicTimeNanos()).thenReturn((long)(CLOCK1 * 1E6)).thenReturn((long)(CLOCK2 * 1E6));
 
         ProcDataSource dataSource = mock(ProcDataSource.class);
-        when(dataSource.getStatReader()).thenReturn(reader1).thenReturn(reader2);
+        doAnswer(load(firstReadContents)).doAnswer(load(secondReadContents))
+                .when(dataSource).readStat(any(ProcBuffer.class));
         WriterID writerId = mock(WriterID.class);
         LinuxCpuStatBuilder builder = new LinuxCpuStatBuilder(clock, dataSource, ticksPerSecond, writerId);
 
@@ -110,9 +115,19 @@ public class LinuxCpuStatBuilderTest {
 
         CpuStat stat = builder.build();
 
-        verify(dataSource, times(2)).getStatReader();
+        verify(dataSource, times(2)).readStat(any(ProcBuffer.class));
         assertArrayEquals(new double[] {100, 100}, stat.getPerProcessorUsage(), 0.01);
     }
 
-}
+    private static Answer<Void> load(final String contents) {
+        return new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ProcBuffer buffer = (ProcBuffer) invocation.getArguments()[0];
+                buffer.load(Channels.newChannel(new ByteArrayInputStream(contents.getBytes(StandardCharsets.US_ASCII))));
+                return null;
+            }
+        };
+    }
 
+}
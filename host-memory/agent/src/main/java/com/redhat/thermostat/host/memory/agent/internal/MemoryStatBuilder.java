@@ -36,12 +36,13 @@
 
 package com.redhat.thermostat.host.memory.agent.internal;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.redhat.thermostat.common.portability.PortableMemoryStatFactory;
+import com.redhat.thermostat.common.portability.linux.ProcBuffer;
+import com.redhat.thermostat.common.portability.linux.ProcBufferPool;
 import com.redhat.thermostat.common.portability.linux.ProcDataSource;
 import com.redhat.thermostat.common.NotImplementedException;
 import com.redhat.thermostat.common.Size;
@@ -60,13 +61,18 @@ public class MemoryStatBuilder {
 
     private static final boolean IS_LINUX = OS.IS_LINUX;
 
-    private static final String KEY_MEMORY_TOTAL = "MemTotal";
-    private static final String KEY_MEMORY_FREE = "MemFree";
-    private static final String KEY_BUFFERS = "Buffers";
-    private static final String KEY_CACHED = "Cached";
-    private static final String KEY_SWAP_TOTAL = "SwapTotal";
-    private static final String KEY_SWAP_FREE = "SwapFree";
-    private static final String KEY_COMMIT_LIMIT = "CommitLimit";
+    private static final byte[] KEY_MEMORY_TOTAL = ProcBuffer.key("MemTotal:");
+    private static final byte[] KEY_MEMORY_FREE = ProcBuffer.key("MemFree:");
+    private static final byte[] KEY_BUFFERS = ProcBuffer.key("Buffers:");
+    private static final byte[] KEY_CACHED = ProcBuffer.key("Cached:");
+    private static final byte[] KEY_SWAP_TOTAL = ProcBuffer.key("SwapTotal:");
+    private static final byte[] KEY_SWAP_FREE = ProcBuffer.key("SwapFree:");
+    private static final byte[] KEY_COMMIT_LIMIT = ProcBuffer.key("CommitLimit:");
+
+    // /proc/meminfo uses kB instead of KiB, incorrectly
+    private static final byte[] UNIT_KB = ProcBuffer.key("kB");
+    private static final byte[] UNIT_KB_UPPER = ProcBuffer.key("KB");
+    private static final long BYTES_PER_KIB = (long) new Size(1, Size.Unit.KiB).convertTo(Size.Unit.B).getValue();
 
     private static final Logger logger = LoggingUtils.getLogger(MemoryStatBuilder.class);
 
@@ -93,32 +99,30 @@ public class MemoryStatBuilder {
         long cached = UNAVAILABLE;
         long commitLimit = UNAVAILABLE;
 
-        try (BufferedReader reader = new BufferedReader(dataSource.getMemInfoReader())) {
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(":");
-                if (parts.length == 2) {
-                    String key = parts[0].trim();
-                    long value = getValue(parts[1].trim());
-                    if (key.equals(KEY_MEMORY_TOTAL)) {
-                        total = value;
-                    } else if (key.equals(KEY_MEMORY_FREE)) {
-                        free = value;
-                    } else if (key.equals(KEY_SWAP_TOTAL)) {
-                        swapTotal = value;
-                    } else if (key.equals(KEY_SWAP_FREE)) {
-                        swapFree = value;
-                    } else if (key.equals(KEY_BUFFERS)) {
-                        buffers = value;
-                    } else if (key.equals(KEY_CACHED)) {
-                        cached = value;
-                    } else if (key.equals(KEY_COMMIT_LIMIT)) {
-                        commitLimit = value;
-                    }
+        ProcBuffer buffer = ProcBufferPool.acquire();
+        try {
+            dataSource.readMemInfo(buffer);
+            do {
+                if (buffer.skip(KEY_MEMORY_TOTAL)) {
+                    total = getValue(buffer);
+                } else if (buffer.skip(KEY_MEMORY_FREE)) {
+                    free = getValue(buffer);
+                } else if (buffer.skip(KEY_SWAP_TOTAL)) {
+                    swapTotal = getValue(buffer);
+                } else if (buffer.skip(KEY_SWAP_FREE)) {
+                    swapFree = getValue(buffer);
+                } else if (buffer.skip(KEY_BUFFERS)) {
+                    buffers = getValue(buffer);
+                } else if (buffer.skip(KEY_CACHED)) {
+                    cached = getValue(buffer);
+                } else if (buffer.skip(KEY_COMMIT_LIMIT)) {
+                    commitLimit = getValue(buffer);
                 }
-            }
+            } while (buffer.nextLine());
         } catch (IOException ioe) {
             logger.log(Level.WARNING, "unable to read memory info");
+        } finally {
+            ProcBufferPool.release(buffer);
         }
         String wId = writerId.getWriterID();
         return new MemoryStat(wId, timestamp, total, free, buffers, cached, swapTotal, swapFree, commitLimit);
@@ -134,25 +138,18 @@ public class MemoryStatBuilder {
         return new MemoryStat(wId, timestamp, memstat.getTotal(), memstat.getFree(), memstat.getBuffers(), memstat.getCached(), memstat.getSwapTotal(), memstat.getSwapFree(), memstat.getCommitLimit());
     }
 
-    private long getValue(String rawValue) {
-        String[] parts = rawValue.split(" +");
-        String value = rawValue;
-        String units = null;
-        if (parts.length > 1) {
-            value = parts[0];
-            units = parts[1];
-        }
-
+    private long getValue(ProcBuffer buffer) {
         long result = UNAVAILABLE;
         try {
-            result = Long.parseLong(value);
-            if (units != null) {
-                // /proc/meminfo uses kB instead of KiB, incorrectly
-                if (units.equals("kB") || units.equals("KB")) {
-                    result = (long) new Size(result, Size.Unit.KiB).convertTo(Size.Unit.B).getValue();
-                } else {
-                    throw new NotImplementedException("unit conversion from " + units + " not implemented");
-                }
+            result = buffer.nextLong();
+            buffer.skipBlanks();
+            if (buffer.skip(UNIT_KB) || buffer.skip(UNIT_KB_UPPER)) {
+                result = result * BYTES_PER_KIB;
+            } else if (buffer.peek() != '\n' && buffer.hasRemaining()) {
+                int start = buffer.position();
+                buffer.skipToken();
+                String units = buffer.toString().substring(start, buffer.position());
+                throw new NotImplementedException("unit conversion from " + units + " not implemented");
             }
         } catch (NumberFormatException nfe) {
             logger.log(Level.WARNING, "error extracting memory info");
@@ -161,4 +158,3 @@ public class MemoryStatBuilder {
         return result;
     }
 }
-
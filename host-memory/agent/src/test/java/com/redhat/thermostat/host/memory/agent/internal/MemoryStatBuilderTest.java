@@ -39,18 +39,24 @@ package com.redhat.thermostat.host.memory.agent.internal;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 
 import com.redhat.thermostat.shared.config.OS;
 import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.redhat.thermostat.common.portability.linux.ProcBuffer;
 import com.redhat.thermostat.common.portability.linux.ProcDataSource;
 import com.redhat.thermostat.host.memory.common.model.MemoryStat;
 import com.redhat.thermostat.storage.core.WriterID;
@@ -78,13 +84,12 @@ public class MemoryStatBuilderTest {
     public void testEmptyBuild() throws IOException {
         Assume.assumeTrue(OS.IS_LINUX);
         String memory = "";
-        StringReader memoryReader = new StringReader(memory);
         ProcDataSource dataSource = mock(ProcDataSource.class);
-        when(dataSource.getMemInfoReader()).thenReturn(memoryReader);
+        doAnswer(load(memory)).when(dataSource).readMemInfo(any(ProcBuffer.class));
 
         MemoryStat stat = new MemoryStatBuilder(dataSource, writerId).build();
         assertNotNull(stat);
-        verify(dataSource).getMemInfoReader();
+        verify(dataSource).readMemInfo(any(ProcBuffer.class));
     }
 
     @Test
@@ -108,9 +113,8 @@ public class MemoryStatBuilderTest {
                 "SwapTotal: " + SWAP_TOTAL + " kB\n" +
                 "SwapFree: " + SWAP_FREE + " kB\n";
 
-        StringReader memoryReader = new StringReader(memory);
         ProcDataSource dataSource = mock(ProcDataSource.class);
-        when(dataSource.getMemInfoReader()).thenReturn(memoryReader);
+        doAnswer(load(memory)).when(dataSource).readMemInfo(any(ProcBuffer.class));
 
         MemoryStat stat = new MemoryStatBuilder(dataSource, writerId).build();
 
@@ -123,7 +127,35 @@ public class MemoryStatBuilderTest {
         assertEquals(TOTAL * KILOBYTES_TO_BYTES, stat.getTotal());
         assertTrue(stat.getTimeStamp() != 0 && stat.getTimeStamp() != Long.MIN_VALUE);
         assertTrue(stat.getTimeStamp() <= System.currentTimeMillis());
-        verify(dataSource).getMemInfoReader();
+        verify(dataSource).readMemInfo(any(ProcBuffer.class));
     }
-}
 
+    @Test
+    public void testBuildSkipsUnknownKeys() throws IOException {
+        Assume.assumeTrue(OS.IS_LINUX);
+        String memory = "" +
+                "MemTotal: 4 kB\n" +
+                "SwapCached: 100 kB\n" +
+                "HugePages_Total: 0\n" +
+                "Cached: 2 kB\n";
+        ProcDataSource dataSource = mock(ProcDataSource.class);
+        doAnswer(load(memory)).when(dataSource).readMemInfo(any(ProcBuffer.class));
+
+        MemoryStat stat = new MemoryStatBuilder(dataSource, writerId).build();
+
+        assertEquals(4 * KILOBYTES_TO_BYTES, stat.getTotal());
+        assertEquals(2 * KILOBYTES_TO_BYTES, stat.getCached());
+        assertEquals(-1, stat.getFree());
+    }
+
+    private static Answer<Void> load(final String contents) {
+        return new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ProcBuffer buffer = (ProcBuffer) invocation.getArguments()[0];
+                buffer.load(Channels.newChannel(new ByteArrayInputStream(contents.getBytes(StandardCharsets.US_ASCII))));
+                return null;
+            }
+        };
+    }
+}
@@ -55,6 +55,14 @@ public abstract class AggregateQuery<T extends Pojo> implements Query<T> {
          * Find distinct values for a {@link Key}
          */
         DISTINCT,
+        /**
+         * Downsample the numeric values of a {@link Key} into consecutive
+         * {@link Key#TIMESTAMP} buckets. The query limit is the maximum
+         * number of buckets to produce.
+         *
+         * @see com.redhat.thermostat.storage.model.BucketedResult
+         */
+        BUCKETED,
     }
     
     protected final Query<T> queryToAggregate;
@@ -82,6 +82,14 @@ public class Category<T extends Pojo> {
      */
     protected List<Key<?>> indexedKeys;
 
+    /*
+     * A de-facto immutable field, set via the constructor. Null if data of
+     * this category is kept forever.
+     *
+     * This field gets serialized via JSON.
+     */
+    protected DataRetentionPolicy retentionPolicy;
+
     /*
      * A de-facto immutable field, set via setDataClass() called by the
      * constructor. If null dataClassName must be set. This is to make Category
@@ -142,12 +150,44 @@ public class Category<T extends Pojo> {
      *             before
      */
     public Category(String name, Class<T> dataClass, List<Key<?>> keys, List<Key<?>> indexedKeys) {
+        this(name, dataClass, keys, indexedKeys, null);
+    }
+
+    /**
+     * Creates a new Category instance with the specified name.
+     *
+     * @param name
+     *            the name of the category
+     * @param dataClass
+     *            the Class object representing the data
+     * @param keys
+     *            an array of Key object which represent the data for this category
+     * @param indexedKeys
+     *            the keys that will be used for sorting and should be indexed
+     *            (or otherwise optimized) by the storage
+     * @param retentionPolicy
+     *            how long the storage should keep data of this category, or
+     *            {@code null} to keep it forever. Data is aged by its
+     *            {@link Key#TIMESTAMP}, which must be one of the keys.
+     *
+     * @throws IllegalArgumentException
+     *             if a retention policy is given for a category without a
+     *             timestamp key
+     * @throws IllegalStateException
+     *             if a Category is created with a name that has been used
+     *             before
+     */
+    public Category(String name, Class<T> dataClass, List<Key<?>> keys, List<Key<?>> indexedKeys, DataRetentionPolicy retentionPolicy) {
+        if (retentionPolicy != null && !keys.contains(Key.TIMESTAMP)) {
+            throw new IllegalArgumentException("category " + name + " needs a " + Key.TIMESTAMP.getName() + " key for data retention");
+        }
         Map<String, Key<?>> keysMap = new HashMap<String, Key<?>>();
         for (Key<?> key : keys) {
             keysMap.put(key.getName(), key);
         }
         this.keys = Collections.unmodifiableMap(keysMap);
         this.indexedKeys = Collections.unmodifiableList(indexedKeys);
+        this.retentionPolicy = retentionPolicy;
         setName(name);
         setDataClass(dataClass);
     }
@@ -225,6 +265,14 @@ public class Category<T extends Pojo> {
     	return indexedKeys;
     }
 
+    /**
+     * @return how long the storage keeps data of this category, or
+     *         {@code null} if it is kept forever.
+     */
+    public DataRetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
     @Override
     public String toString() {
         return getName() + "|" + getDataClass().getName() + "|" + keys;
@@ -238,7 +286,7 @@ public class Category<T extends Pojo> {
          * constructor or AdaptedCategory.
          */
 
-        // ignore indexed keys intentionally
+        // ignore indexed keys and retention intentionally
         return Objects.hash(name, keys, getDataClass());
     }
 
@@ -248,7 +296,7 @@ public class Category<T extends Pojo> {
             return false;
         }
         Category<?> other = (Category<?>) o;
-        // ignore indexed keys intentionally
+        // ignore indexed keys and retention intentionally
         return Objects.equals(name, other.name) &&
                 Objects.equals(keys, other.keys) &&
                 Objects.equals(getDataClass(), other.getDataClass());
@@ -0,0 +1,478 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.redhat.thermostat.common.utils.LoggingUtils;
+import com.redhat.thermostat.storage.core.SaveFileListener.EventType;
+
+/**
+ * Stores large files as a sequence of compressed chunks, using
+ * {@link Storage#saveFile(String, InputStream, SaveFileListener)} and
+ * {@link Storage#loadFile(String)} of any storage.
+ * <p>
+ * Each chunk is compressed on its own and saved as
+ * {@code <filename>.chunk-<n>}. Several chunks are uploaded at a time, and a
+ * chunk that fails to save is retried without starting over. Once all chunks
+ * are saved, an index with the size and checksum of each chunk is saved
+ * under the file name itself, so a file is only visible once it is
+ * complete. The chunks of an upload which fails are deleted again.
+ * <p>
+ * {@link #loadFile(String)} decompresses the chunks while they are read and
+ * verifies their checksums. Files saved directly with {@link Storage} are
+ * returned unchanged.
+ */
+public class ChunkedFiles {
+
+    private static final Logger logger = LoggingUtils.getLogger(ChunkedFiles.class);
+
+    static final int INDEX_MAGIC = 0x54484346; // "THCF"
+    static final int INDEX_VERSION = 1;
+
+    static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    static final int DEFAULT_PARALLEL_CHUNKS = 4;
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final String CHUNK_SUFFIX = ".chunk-";
+
+    private final Storage storage;
+    private final int chunkSize;
+    private final int parallelChunks;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final Executor uploadExecutor;
+
+    public ChunkedFiles(Storage storage) {
+        this(storage, DEFAULT_CHUNK_SIZE, DEFAULT_PARALLEL_CHUNKS, DEFAULT_MAX_ATTEMPTS,
+                RETRY_DELAY_MILLIS, Executors.newCachedThreadPool(new UploadThreadFactory()));
+    }
+
+    ChunkedFiles(Storage storage, int chunkSize, int parallelChunks, int maxAttempts,
+            long retryDelayMillis, Executor uploadExecutor) {
+        this.storage = Objects.requireNonNull(storage);
+        this.chunkSize = chunkSize;
+        this.parallelChunks = parallelChunks;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+        this.uploadExecutor = uploadExecutor;
+    }
+
+    static String getChunkName(String filename, int chunk) {
+        return filename + CHUNK_SUFFIX + chunk;
+    }
+
+    /**
+     * @return the name of the file the given chunk belongs to, or the given
+     *         name itself if it does not name a chunk.
+     */
+    public static String getChunkedFileName(String name) {
+        int suffix = name.lastIndexOf(CHUNK_SUFFIX);
+        if (suffix <= 0 || suffix + CHUNK_SUFFIX.length() == name.length()) {
+            return name;
+        }
+        for (int i = suffix + CHUNK_SUFFIX.length(); i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return name;
+            }
+        }
+        return name.substring(0, suffix);
+    }
+
+    /**
+     * Saves the data in the background, like {@link Storage#saveFile}. The
+     * listener is notified once, after the last chunk and the index are saved
+     * or when saving failed. Callers close {@code data} when notified.
+     */
+    public void saveFile(final String filename, final InputStream data, final SaveFileListener listener) {
+        Objects.requireNonNull(listener);
+        uploadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    upload(filename, data);
+                    listener.notify(EventType.SAVE_COMPLETE, null);
+                } catch (IOException e) {
+                    listener.notify(EventType.EXCEPTION_OCCURRED, new StorageException(e));
+                } catch (StorageException e) {
+                    listener.notify(EventType.EXCEPTION_OCCURRED, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    listener.notify(EventType.EXCEPTION_OCCURRED, new StorageException(e));
+                }
+            }
+        });
+    }
+
+    /*
+     * A chunk, or the index, being saved.
+     */
+    private static class Part implements SaveFileListener {
+        final String name;
+        final int length;
+        final int compressedLength;
+        final long checksum;
+        // kept until saved, for retries
+        byte[] data;
+        int attempts;
+        volatile StorageException failure;
+        private final BlockingQueue<Part> finished;
+
+        Part(String name, byte[] data, int length, BlockingQueue<Part> finished) {
+            this.name = name;
+            this.data = data;
+            this.length = length;
+            this.compressedLength = data.length;
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            this.checksum = crc.getValue();
+            this.finished = finished;
+        }
+
+        @Override
+        public void notify(EventType type, Object additionalArguments) {
+            if (type == EventType.EXCEPTION_OCCURRED) {
+                failure = (StorageException) additionalArguments;
+            }
+            finished.add(this);
+        }
+    }
+
+    /*
+     * Saves parts, retrying failed ones.
+     */
+    private class Upload {
+        private final BlockingQueue<Part> finished = new LinkedBlockingQueue<>();
+        private int inFlight;
+
+        Part newPart(String name, byte[] data, int length) {
+            return new Part(name, data, length, finished);
+        }
+
+        void start(Part part) {
+            part.attempts++;
+            inFlight++;
+            storage.saveFile(part.name, new ByteArrayInputStream(part.data), part);
+        }
+
+        void awaitOne() throws InterruptedException {
+            Part part = finished.take();
+            inFlight--;
+            if (part.failure != null) {
+                if (part.attempts >= maxAttempts) {
+                    throw new StorageException("Unable to save " + part.name, part.failure);
+                }
+                logger.log(Level.WARNING, "Saving " + part.name + " failed, retrying", part.failure);
+                part.failure = null;
+                Thread.sleep(retryDelayMillis * part.attempts);
+                start(part);
+            } else {
+                part.data = null;
+            }
+        }
+
+        void awaitAll() throws InterruptedException {
+            while (inFlight > 0) {
+                awaitOne();
+            }
+        }
+
+        /*
+         * Waits for the parts still being saved, without retrying failed
+         * ones.
+         */
+        void abandon() {
+            try {
+                while (inFlight > 0) {
+                    finished.take();
+                    inFlight--;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void upload(String filename, InputStream data) throws IOException, InterruptedException {
+        Upload upload = new Upload();
+        List<Part> chunks = new ArrayList<>();
+        boolean complete = false;
+        try {
+            byte[] buffer = new byte[chunkSize];
+            int length;
+            do {
+                while (upload.inFlight >= parallelChunks) {
+                    upload.awaitOne();
+                }
+                length = readFully(data, buffer);
+                if (length > 0) {
+                    Part chunk = upload.newPart(getChunkName(filename, chunks.size()), compress(buffer, length), length);
+                    chunks.add(chunk);
+                    upload.start(chunk);
+                }
+            } while (length == buffer.length);
+            upload.awaitAll();
+
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            writeIndex(chunks, new DataOutputStream(index));
+            upload.start(upload.newPart(filename, index.toByteArray(), index.size()));
+            upload.awaitAll();
+            complete = true;
+        } finally {
+            if (!complete) {
+                // chunks still being saved must not outlive their deletion
+                upload.abandon();
+                deleteChunks(chunks);
+            }
+        }
+    }
+
+    private void deleteChunks(List<Part> chunks) {
+        for (Part chunk : chunks) {
+            try {
+                storage.deleteFile(chunk.name);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Unable to delete " + chunk.name + " of failed upload", e);
+            }
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static byte[] compress(byte[] data, int length) throws IOException {
+        // heap dumps and the like compress well even at the fastest level
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+            out.write(data, 0, length);
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    private static void writeIndex(List<Part> chunks, DataOutputStream out) throws IOException {
+        out.writeInt(INDEX_MAGIC);
+        out.writeByte(INDEX_VERSION);
+        out.writeInt(chunks.size());
+        for (Part chunk : chunks) {
+            out.writeInt(chunk.length);
+            out.writeInt(chunk.compressedLength);
+            out.writeLong(chunk.checksum);
+        }
+        out.flush();
+    }
+
+    /**
+     * Loads a file saved with {@link #saveFile}, or directly with
+     * {@link Storage#saveFile}.
+     *
+     * @return the uncompressed data, or {@code null} if there is no such file
+     */
+    public InputStream loadFile(String filename) {
+        InputStream stored = storage.loadFile(filename);
+        if (stored == null) {
+            return null;
+        }
+        BufferedInputStream in = new BufferedInputStream(stored);
+        try {
+            in.mark(4);
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() == INDEX_MAGIC) {
+                ChunkIndex index = ChunkIndex.read(data);
+                in.close();
+                return new ChunkedInputStream(filename, index);
+            }
+            in.reset();
+            return in;
+        } catch (EOFException tooShortForAnIndex) {
+            try {
+                in.reset();
+            } catch (IOException e) {
+                throw new StorageException(e);
+            }
+            return in;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private static class ChunkIndex {
+        long[] checksums;
+
+        static ChunkIndex read(DataInputStream in) throws IOException {
+            int version = in.readUnsignedByte();
+            if (version != INDEX_VERSION) {
+                throw new IOException("Unsupported chunk index version " + version);
+            }
+            ChunkIndex index = new ChunkIndex();
+            int chunks = in.readInt();
+            index.checksums = new long[chunks];
+            for (int i = 0; i < chunks; i++) {
+                in.readInt(); // uncompressed length
+                in.readInt(); // compressed length
+                index.checksums[i] = in.readLong();
+            }
+            return index;
+        }
+    }
+
+    /*
+     * Reads the chunks of a file one after another, decompressing them.
+     */
+    private class ChunkedInputStream extends InputStream {
+        private final String filename;
+        private final ChunkIndex index;
+        private int nextChunk;
+        private CheckedInputStream compressed;
+        private InputStream current;
+
+        ChunkedInputStream(String filename, ChunkIndex index) {
+            this.filename = filename;
+            this.index = index;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (current == null && !openNextChunk()) {
+                    return -1;
+                }
+                int read = current.read(b, off, len);
+                if (read >= 0) {
+                    return read;
+                }
+                finishChunk();
+            }
+        }
+
+        private boolean openNextChunk() throws IOException {
+            if (nextChunk >= index.checksums.length) {
+                return false;
+            }
+            String chunkName = getChunkName(filename, nextChunk);
+            InputStream chunk = storage.loadFile(chunkName);
+            if (chunk == null) {
+                throw new IOException("Missing chunk " + chunkName);
+            }
+            compressed = new CheckedInputStream(chunk, new CRC32());
+            current = new InflaterInputStream(compressed);
+            return true;
+        }
+
+        private void finishChunk() throws IOException {
+            int chunk = nextChunk++;
+            // the inflater may stop before the end of the stored data
+            byte[] rest = new byte[512];
+            while (compressed.read(rest) >= 0) {
+                // only checksummed
+            }
+            long checksum = compressed.getChecksum().getValue();
+            current.close();
+            current = null;
+            compressed = null;
+            if (checksum != index.checksums[chunk]) {
+                throw new IOException("Chunk " + chunk + " of " + filename + " is corrupt");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            nextChunk = index.checksums.length;
+        }
+    }
+
+    private static class UploadThreadFactory implements ThreadFactory {
+
+        private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = defaultFactory.newThread(r);
+            t.setName("ChunkedFiles-upload");
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
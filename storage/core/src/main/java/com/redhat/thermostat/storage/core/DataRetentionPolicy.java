@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes how long a storage keeps the data of a time-series
+ * {@link Category}. Data is aged by its {@link Key#TIMESTAMP}.
+ * <p>
+ * Raw samples are removed once they are older than the raw data retention.
+ * Optionally, the storage compacts raw samples into per-minute and per-hour
+ * rollups (see {@link RollupResolution}), which are kept for longer.
+ * <p>
+ * A policy only states what the category would like. Storages do not remove
+ * any data unless retention is enabled in their configuration. The mongodb
+ * storage enforces policies if the system property
+ * {@code com.redhat.thermostat.storage.retention.enabled} is {@code true}.
+ * {@code com.redhat.thermostat.storage.retention.<category name>} then
+ * overrides the raw data retention of a category in days, or disables
+ * retention for it if set to {@code off}.
+ * <p>
+ * This class is immutable. It gets serialized via JSON as part of its
+ * category.
+ */
+public final class DataRetentionPolicy {
+
+    // Spans up to these lengths are served at the given resolution if it
+    // still holds data for the requested interval.
+    static final long MAX_RAW_SPAN = TimeUnit.HOURS.toMillis(6);
+    static final long MAX_MINUTE_SPAN = TimeUnit.DAYS.toMillis(7);
+
+    private final long rawDataRetention;
+    private final long minuteRollupRetention;
+    private final long hourRollupRetention;
+
+    /**
+     * Creates a policy which removes raw samples after the given time and
+     * does not keep rollups.
+     */
+    public DataRetentionPolicy(long rawDataRetention, TimeUnit unit) {
+        this(rawDataRetention, 0, 0, unit);
+    }
+
+    /**
+     * Creates a policy which removes raw samples after the given time and
+     * keeps rollups in between.
+     * 
+     * @param rawDataRetention
+     *            how long raw samples are kept.
+     * @param minuteRollupRetention
+     *            how long per-minute rollups are kept, or 0 if the category
+     *            should not be rolled up per minute.
+     * @param hourRollupRetention
+     *            how long per-hour rollups are kept, or 0 if the category
+     *            should not be rolled up per hour.
+     * @param unit
+     *            the unit of all retention times.
+     * @throws IllegalArgumentException
+     *             if the raw data retention is not positive, a rollup
+     *             retention is negative, or raw samples would be removed
+     *             before a bucket of an enabled rollup resolution is complete.
+     */
+    public DataRetentionPolicy(long rawDataRetention, long minuteRollupRetention, long hourRollupRetention, TimeUnit unit) {
+        this.rawDataRetention = unit.toMillis(rawDataRetention);
+        this.minuteRollupRetention = unit.toMillis(minuteRollupRetention);
+        this.hourRollupRetention = unit.toMillis(hourRollupRetention);
+        if (this.rawDataRetention <= 0) {
+            throw new IllegalArgumentException("raw data retention must be positive");
+        }
+        if (this.minuteRollupRetention < 0 || this.hourRollupRetention < 0) {
+            throw new IllegalArgumentException("rollup retention must not be negative");
+        }
+        for (RollupResolution resolution : getRollupResolutions()) {
+            // Leave a full bucket of slack for rolling up a complete bucket
+            if (this.rawDataRetention < 2 * resolution.getBucketSize()) {
+                throw new IllegalArgumentException("raw data must be retained for at least two "
+                        + resolution.name().toLowerCase() + "s for rollups");
+            }
+        }
+    }
+
+    /**
+     * @return how long raw samples are kept, in milliseconds.
+     */
+    public long getRawDataRetention() {
+        return rawDataRetention;
+    }
+
+    /**
+     * @return how long rollups of the given resolution are kept, in
+     *         milliseconds, or 0 if there are no rollups of that resolution.
+     */
+    public long getRollupRetention(RollupResolution resolution) {
+        switch (resolution) {
+        case MINUTE:
+            return minuteRollupRetention;
+        case HOUR:
+            return hourRollupRetention;
+        default:
+            throw new AssertionError("unknown resolution " + resolution);
+        }
+    }
+
+    /**
+     * @return the resolutions this category is rolled up at, finest first.
+     */
+    public List<RollupResolution> getRollupResolutions() {
+        List<RollupResolution> resolutions = new ArrayList<>();
+        for (RollupResolution resolution : RollupResolution.values()) {
+            if (getRollupRetention(resolution) > 0) {
+                resolutions.add(resolution);
+            }
+        }
+        return Collections.unmodifiableList(resolutions);
+    }
+
+    /**
+     * Picks the resolution at which to serve the interval
+     * {@code [since, to)}. That is the finest resolution which still holds
+     * data from {@code since} on and does not return an excessive number of
+     * samples for the span of the interval. If no resolution satisfies both,
+     * the coarsest one is used.
+     * 
+     * @param now
+     *            the current time in milliseconds.
+     * @return the resolution to use, or {@code null} if raw samples should be
+     *         used.
+     */
+    public RollupResolution selectResolution(long since, long to, long now) {
+        List<RollupResolution> resolutions = getRollupResolutions();
+        long span = to - since;
+        if (resolutions.isEmpty() || (since >= now - rawDataRetention && span <= MAX_RAW_SPAN)) {
+            return null;
+        }
+        for (RollupResolution resolution : resolutions) {
+            boolean retained = since >= now - getRollupRetention(resolution);
+            boolean fine = resolution != RollupResolution.MINUTE || span <= MAX_MINUTE_SPAN;
+            if (retained && fine) {
+                return resolution;
+            }
+        }
+        return resolutions.get(resolutions.size() - 1);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(rawDataRetention, minuteRollupRetention, hourRollupRetention);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof DataRetentionPolicy)) {
+            return false;
+        }
+        DataRetentionPolicy other = (DataRetentionPolicy) obj;
+        return rawDataRetention == other.rawDataRetention
+                && minuteRollupRetention == other.minuteRollupRetention
+                && hourRollupRetention == other.hourRollupRetention;
+    }
+
+    @Override
+    public String toString() {
+        return "raw: " + rawDataRetention + "ms, minute rollups: " + minuteRollupRetention
+                + "ms, hour rollups: " + hourRollupRetention + "ms";
+    }
+}
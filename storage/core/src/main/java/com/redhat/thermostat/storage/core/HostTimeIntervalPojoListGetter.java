@@ -39,6 +39,8 @@ package com.redhat.thermostat.storage.core;
 import java.util.List;
 import java.util.logging.Logger;
 
+import com.redhat.thermostat.common.Clock;
+import com.redhat.thermostat.common.SystemClock;
 import com.redhat.thermostat.common.utils.LoggingUtils;
 import com.redhat.thermostat.storage.dao.AbstractDao;
 import com.redhat.thermostat.storage.dao.AbstractDaoQuery;
@@ -58,13 +60,23 @@ public class HostTimeIntervalPojoListGetter<T extends TimeStampedPojo> extends A
     private static final Logger logger = LoggingUtils.getLogger(HostTimeIntervalPojoListGetter.class);
 
     private final Storage storage;
-    private final Category<T> cat;
-    private final String query;
+    private final IntervalQueries<T> queries;
 
+    /**
+     * Creates a getter for the given category. If the category's
+     * {@link DataRetentionPolicy} keeps rollups, the rollup categories are
+     * registered with the storage and intervals are served at the
+     * resolution the policy selects for them.
+     */
     public HostTimeIntervalPojoListGetter(Storage storage, Category<T> cat) {
+        this(storage, cat, new SystemClock());
+    }
+
+    // package private for tests
+    HostTimeIntervalPojoListGetter(Storage storage, Category<T> cat, Clock clock) {
         this.storage = storage;
-        this.cat = cat;
-        this.query = String.format(HOST_INTERVAL_QUERY_FORMAT, cat.getName());
+        this.queries = new IntervalQueries<>(storage, cat, HOST_INTERVAL_QUERY_FORMAT,
+                HostBoundaryPojoGetter.DESC_NEWEST_HOST_STAT, clock);
     }
 
     /**
@@ -75,21 +87,43 @@ public class HostTimeIntervalPojoListGetter<T extends TimeStampedPojo> extends A
         return getLatest(new AgentId(hostRef.getAgentId()), since, to);
     }
 
+    /**
+     * Gets the samples of the host in {@code [since, to)}, newest first. If
+     * the retention policy selects a rollup resolution for the range, the
+     * part of it that has been rolled up is served from rollups, which only
+     * carry the averages of their buckets, and the rest from raw samples.
+     */
     public List<T> getLatest(final AgentId agentId, final long since, final long to) {
-        return executeQuery(new AbstractDaoQuery<T>(storage, cat, query) {
+        return queries.getInterval(agentId.get(), new IntervalQueries.Source<T>() {
+            @Override
+            public List<T> query(Category<T> category, String descriptor, final long since, final long to) {
+                return executeQuery(new AbstractDaoQuery<T>(storage, category, descriptor) {
+                    @Override
+                    public PreparedStatement<T> customize(PreparedStatement<T> preparedStatement) {
+                        preparedStatement.setString(0, agentId.get());
+                        preparedStatement.setLong(1, since);
+                        preparedStatement.setLong(2, to);
+                        return preparedStatement;
+                    }
+                }).asList();
+            }
+
             @Override
-            public PreparedStatement<T> customize(PreparedStatement<T> preparedStatement) {
-                preparedStatement.setString(0, agentId.get());
-                preparedStatement.setLong(1, since);
-                preparedStatement.setLong(2, to);
-                return preparedStatement;
+            public T queryNewest(Category<T> category, String descriptor) {
+                return executeQuery(new AbstractDaoQuery<T>(storage, category, descriptor) {
+                    @Override
+                    public PreparedStatement<T> customize(PreparedStatement<T> preparedStatement) {
+                        preparedStatement.setString(0, agentId.get());
+                        return preparedStatement;
+                    }
+                }).head();
             }
-        }).asList();
+        }, since, to);
     }
 
     // package private for testing
     String getQueryLatestDesc() {
-        return query;
+        return queries.getQuery(null);
     }
 
     @Override
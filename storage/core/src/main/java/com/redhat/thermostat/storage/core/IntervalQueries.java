@@ -0,0 +1,196 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.core;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.thermostat.common.Clock;
+import com.redhat.thermostat.storage.model.Pojo;
+import com.redhat.thermostat.storage.model.TimeStampedPojo;
+
+/**
+ * Interval query descriptors for a time-series category and its rollup
+ * categories, if its {@link DataRetentionPolicy} keeps any. The rollup
+ * categories are registered with the storage on construction.
+ * <p>
+ * Rollups only exist up to the last bucket the storage has rolled up, and
+ * not at all if the storage does not enforce retention. The end of the
+ * newest rollup of a source is its watermark: older data is served from
+ * rollups and newer data from raw samples. Watermarks are looked up once per
+ * {@link #WATERMARK_REFRESH} and source.
+ */
+final class IntervalQueries<T extends TimeStampedPojo> {
+
+    // The storage rolls up once a minute
+    static final long WATERMARK_REFRESH = TimeUnit.MINUTES.toMillis(1);
+    static final long NO_ROLLUPS = Long.MIN_VALUE;
+
+    /**
+     * Looks up the newest sample of one source of samples, such as an agent
+     * or a VM.
+     */
+    interface NewestQuery<T extends Pojo> {
+
+        /**
+         * @return the newest sample, or {@code null} if there is none
+         */
+        T queryNewest(Category<T> category, String descriptor);
+    }
+
+    /**
+     * Runs queries for one source of samples.
+     */
+    interface Source<T extends Pojo> extends NewestQuery<T> {
+
+        /**
+         * @return the samples in {@code [since, to)} newest first
+         */
+        List<T> query(Category<T> category, String descriptor, long since, long to);
+    }
+
+    private final Category<T> category;
+    private final String query;
+    private final DataRetentionPolicy retentionPolicy;
+    private final Map<RollupResolution, Category<T>> rollupCategories = new EnumMap<>(RollupResolution.class);
+    private final Map<RollupResolution, String> rollupQueries = new EnumMap<>(RollupResolution.class);
+    private final Map<RollupResolution, String> newestRollupQueries = new EnumMap<>(RollupResolution.class);
+    private final ConcurrentMap<String, Watermark> watermarks = new ConcurrentHashMap<>();
+    private final Clock clock;
+
+    /**
+     * @param queryFormat the interval query format, with the category name
+     *        as its only argument
+     * @param newestQueryFormat the format of the query for the newest
+     *        sample of a source, used on rollup categories
+     */
+    IntervalQueries(Storage storage, Category<T> category, String queryFormat, String newestQueryFormat, Clock clock) {
+        this.category = category;
+        this.query = String.format(queryFormat, category.getName());
+        this.retentionPolicy = category.getRetentionPolicy();
+        this.clock = clock;
+        if (retentionPolicy != null) {
+            for (RollupResolution resolution : retentionPolicy.getRollupResolutions()) {
+                Category<T> rollupCategory = resolution.getCategory(category);
+                storage.registerCategory(rollupCategory);
+                rollupCategories.put(resolution, rollupCategory);
+                rollupQueries.put(resolution, String.format(queryFormat, rollupCategory.getName()));
+                newestRollupQueries.put(resolution, String.format(newestQueryFormat, rollupCategory.getName()));
+            }
+        }
+    }
+
+    /**
+     * @return the resolution to query {@code [since, to)} at, or {@code null}
+     *         for raw samples.
+     */
+    RollupResolution selectResolution(long since, long to) {
+        if (rollupCategories.isEmpty()) {
+            return null;
+        }
+        return retentionPolicy.selectResolution(since, to, clock.getRealTimeMillis());
+    }
+
+    Set<RollupResolution> getRollupResolutions() {
+        return rollupCategories.keySet();
+    }
+
+    Category<T> getCategory(RollupResolution resolution) {
+        return resolution == null ? category : rollupCategories.get(resolution);
+    }
+
+    String getQuery(RollupResolution resolution) {
+        return resolution == null ? query : rollupQueries.get(resolution);
+    }
+
+    /**
+     * Gets the samples in {@code [since, to)}, newest first. Rollups of the
+     * selected resolution are used up to their watermark, and raw samples
+     * after it.
+     *
+     * @param sourceId identifies the source, for caching its watermarks
+     */
+    List<T> getInterval(String sourceId, Source<T> source, long since, long to) {
+        RollupResolution resolution = selectResolution(since, to);
+        long watermark = resolution == null ? NO_ROLLUPS : getWatermark(resolution, sourceId, source);
+        if (watermark <= since) {
+            return source.query(category, query, since, to);
+        }
+        Category<T> rollups = rollupCategories.get(resolution);
+        String rollupQuery = rollupQueries.get(resolution);
+        if (watermark >= to) {
+            return source.query(rollups, rollupQuery, since, to);
+        }
+        List<T> result = new ArrayList<>(source.query(category, query, watermark, to));
+        result.addAll(source.query(rollups, rollupQuery, since, watermark));
+        return result;
+    }
+
+    /**
+     * @return the end of the newest rollup bucket of the given source, or
+     *         {@link #NO_ROLLUPS} if it has no rollups.
+     */
+    long getWatermark(RollupResolution resolution, String sourceId, NewestQuery<T> source) {
+        long now = clock.getRealTimeMillis();
+        String key = resolution.name() + "/" + sourceId;
+        Watermark watermark = watermarks.get(key);
+        if (watermark == null || now - watermark.lookedUp >= WATERMARK_REFRESH) {
+            T newest = source.queryNewest(rollupCategories.get(resolution), newestRollupQueries.get(resolution));
+            long value = newest == null ? NO_ROLLUPS : newest.getTimeStamp() + resolution.getBucketSize();
+            watermark = new Watermark(value, now);
+            watermarks.put(key, watermark);
+        }
+        return watermark.value;
+    }
+
+    private static class Watermark {
+        private final long value;
+        private final long lookedUp;
+
+        Watermark(long value, long lookedUp) {
+            this.value = value;
+            this.lookedUp = lookedUp;
+        }
+    }
+}
@@ -36,20 +36,40 @@
 
 package com.redhat.thermostat.storage.core;
 
+import com.redhat.thermostat.storage.internal.statement.ParsedStatementCache;
 import com.redhat.thermostat.storage.internal.statement.PreparedStatementImpl;
 import com.redhat.thermostat.storage.model.Pojo;
 
 /**
  * Factory for instantiating a {@link PreparedStatement}.
+ * <p>
+ * Instances of this factory cache parsed descriptors for the storage they
+ * were created for. Storage implementations should hold one instance each,
+ * so that the cache is released along with the storage.
  *
  */
 public class PreparedStatementFactory {
 
+    private final ParsedStatementCache parsedStatements;
+
+    public PreparedStatementFactory(BackingStorage storage) {
+        this.parsedStatements = new ParsedStatementCache(storage);
+    }
+
+    public <T extends Pojo> PreparedStatement<T> prepareStatement(StatementDescriptor<T> desc)
+            throws DescriptorParsingException {
+        return new PreparedStatementImpl<>(parsedStatements, desc);
+    }
+
+    /**
+     * Parses the descriptor on every call. Use a factory instance in order
+     * to reuse parsed descriptors.
+     */
     public static <T extends Pojo> PreparedStatement<T> getInstance(BackingStorage storage,
             StatementDescriptor<T> desc) throws DescriptorParsingException {
-        // This is the sole method in order to avoid leaking impl details of
-        // this OSGi module. Storage implementations will have to use this
-        // factory.
+        // Together with the instance methods, this is the sole entry point
+        // in order to avoid leaking impl details of this OSGi module.
+        // Storage implementations will have to use this factory.
         return new PreparedStatementImpl<>(storage, desc);
     }
 }
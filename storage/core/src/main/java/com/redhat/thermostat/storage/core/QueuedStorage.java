@@ -49,6 +49,8 @@ import com.redhat.thermostat.common.Constants;
 import com.redhat.thermostat.common.utils.LoggingUtils;
 import com.redhat.thermostat.shared.perflog.PerformanceLogFormatter;
 import com.redhat.thermostat.shared.perflog.PerformanceLogFormatter.LogTag;
+import com.redhat.thermostat.storage.internal.AddBatcher;
+import com.redhat.thermostat.storage.internal.BatchSettingsRetriever;
 import com.redhat.thermostat.storage.internal.CountingDecorator;
 import com.redhat.thermostat.storage.internal.ThreadPoolSizeRetriever;
 import com.redhat.thermostat.storage.model.Pojo;
@@ -73,73 +75,124 @@ public class QueuedStorage implements Storage {
     protected final Storage delegate;
     protected final ExecutorService executor;
     protected final ExecutorService fileExecutor;
+    /*
+     * Coalesces queued adds into bulk writes. null if batching is disabled.
+     */
+    protected final AddBatcher batcher;
     
     private abstract static class SettingDecorator<T extends Pojo> implements PreparedStatementSetter, PreparedStatement<T> {
         
         protected final PreparedStatement<T> stmtDelegate;
+        /*
+         * A copy of the parameters set on the delegate. Only kept if writes
+         * get batched, since we then need to patch the statement ourselves.
+         * May be null.
+         */
+        protected final PreparedParameters recordedParams;
         
         private SettingDecorator(PreparedStatement<T> decoratee) {
+            this(decoratee, null);
+        }
+        
+        private SettingDecorator(PreparedStatement<T> decoratee, PreparedParameters recordedParams) {
             this.stmtDelegate = decoratee;
+            this.recordedParams = recordedParams;
         }
         
         @Override
         public void setBooleanList(int paramIndex, boolean[] paramValue) {
             stmtDelegate.setBooleanList(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setBooleanList(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setLongList(int paramIndex, long[] paramValue) {
             stmtDelegate.setLongList(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setLongList(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setIntList(int paramIndex, int[] paramValue) {
             stmtDelegate.setIntList(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setIntList(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setDouble(int paramIndex, double paramValue) {
             stmtDelegate.setDouble(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setDouble(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setDoubleList(int paramIndex, double[] paramValue) {
             stmtDelegate.setDoubleList(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setDoubleList(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setPojo(int paramIndex, Pojo paramValue) {
             stmtDelegate.setPojo(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setPojo(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setPojoList(int paramIndex, Pojo[] paramValue) {
             stmtDelegate.setPojoList(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setPojoList(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setBoolean(int paramIndex, boolean paramValue) {
             stmtDelegate.setBoolean(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setBoolean(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setLong(int paramIndex, long paramValue) {
             stmtDelegate.setLong(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setLong(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setInt(int paramIndex, int paramValue) {
             stmtDelegate.setInt(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setInt(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setString(int paramIndex, String paramValue) {
             stmtDelegate.setString(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setString(paramIndex, paramValue);
+            }
         }
 
         @Override
         public void setStringList(int paramIndex, String[] paramValue) {
             stmtDelegate.setStringList(paramIndex, paramValue);
+            if (recordedParams != null) {
+                recordedParams.setStringList(paramIndex, paramValue);
+            }
         }
         
     }
@@ -202,6 +255,11 @@ public class QueuedStorage implements Storage {
         
         @Override
         public int apply() {
+            if (batcher != null && write instanceof BatchableAdd) {
+                // written in bulk once enough adds have been queued
+                batcher.add((BatchableAdd<T>) write);
+                return DataModifyingStatement.DEFAULT_STATUS_SUCCESS;
+            }
             executor.execute(new Runnable() {
                 
                 @Override
@@ -308,6 +366,10 @@ public class QueuedStorage implements Storage {
 
         @Override
         public int apply() {
+            if (batcher != null && write.write instanceof BatchableAdd) {
+                // Batched writes get timed per bulk write by the batcher
+                return write.apply();
+            }
             executor.execute(new Runnable() {
                 
                 @Override
@@ -432,7 +494,11 @@ public class QueuedStorage implements Storage {
     class QueuedPreparedStatement<T extends Pojo> extends SettingDecorator<T> implements PreparedStatement<T> {
         
         private QueuedPreparedStatement(PreparedStatement<T> delegate) {
-            super(Objects.requireNonNull(delegate));
+            this(Objects.requireNonNull(delegate), null);
+        }
+        
+        private QueuedPreparedStatement(PreparedStatement<T> delegate, PreparedParameters recordedParams) {
+            super(Objects.requireNonNull(delegate), recordedParams);
         }
 
         @Override
@@ -485,7 +551,28 @@ public class QueuedStorage implements Storage {
         
         // This is to allow for proper decoration of it if timing is turned on.
         private int doExecute() throws StatementExecutionException {
-            return stmtDelegate.execute();
+            if (recordedParams == null) {
+                return stmtDelegate.execute();
+            }
+            // Batching is enabled. Patch the statement ourselves so that adds
+            // can be handed off to the batcher rather than being applied
+            // one by one.
+            Statement<T> stmt;
+            try {
+                stmt = stmtDelegate.getParsedStatement().patchStatement(recordedParams.getParams());
+            } catch (IllegalPatchException e) {
+                throw new StatementExecutionException(e);
+            }
+            if (stmt instanceof BatchableAdd) {
+                batcher.add((BatchableAdd<T>) stmt);
+                return DataModifyingStatement.DEFAULT_STATUS_SUCCESS;
+            } else if (stmt instanceof DataModifyingStatement) {
+                return ((DataModifyingStatement<T>) stmt).apply();
+            } else {
+                throw new IllegalStateException(
+                        "Can't execute statement which isn't an instance of "
+                                + DataModifyingStatement.class.getName());
+            }
         }
         
     }
@@ -507,6 +594,10 @@ public class QueuedStorage implements Storage {
     }
     
     QueuedStorage(Storage delegate, ExecutorService executor, ExecutorService fileExecutor, PerformanceLogFormatter perfLogFormatter) {
+        this(delegate, executor, fileExecutor, perfLogFormatter, new BatchSettingsRetriever());
+    }
+    
+    QueuedStorage(Storage delegate, ExecutorService executor, ExecutorService fileExecutor, PerformanceLogFormatter perfLogFormatter, BatchSettingsRetriever batchSettings) {
         this.delegate = delegate;
         this.fileExecutor = fileExecutor;
         this.isBackingStorageInProxy = !(delegate instanceof SecureStorage) && Boolean.getBoolean(Constants.IS_PROXIED_STORAGE);
@@ -519,6 +610,15 @@ public class QueuedStorage implements Storage {
             this.executor = executor;
         }
         this.perfLogFormatter = perfLogFormatter;
+        int batchSize = batchSettings.getBatchSize();
+        if (batchSize > 0) {
+            LogTag logTag = (isBackingStorageInProxy ? LogTag.STORAGE_BACKING_PROXIED : LogTag.STORAGE_FRONT_END);
+            PerformanceLogFormatter batchLogFormatter = (isTimedStatements ? perfLogFormatter : null);
+            this.batcher = new AddBatcher(this.executor, batchSize, batchSettings.getMaxLatencyMillis(),
+                    batchSettings.getQueueCapacity(batchSize), batchLogFormatter, logTag);
+        } else {
+            this.batcher = null;
+        }
     }
 
     ExecutorService getExecutor() {
@@ -529,6 +629,10 @@ public class QueuedStorage implements Storage {
         return fileExecutor;
     }
 
+    AddBatcher getBatcher() {
+        return batcher;
+    }
+
     @Override
     public void purge(final String agentId) {
 
@@ -558,6 +662,11 @@ public class QueuedStorage implements Storage {
         return delegate.loadFile(filename);
     }
 
+    @Override
+    public void deleteFile(String filename) {
+        delegate.deleteFile(filename);
+    }
+
     @Override
     public void registerCategory(final Category<?> category) {
         delegate.registerCategory(category);
@@ -567,7 +676,15 @@ public class QueuedStorage implements Storage {
     public <T extends Pojo> PreparedStatement<T> prepareStatement(final StatementDescriptor<T> desc)
             throws DescriptorParsingException {
         PreparedStatement<T> decoratee = delegate.prepareStatement(desc);
-        QueuedPreparedStatement<T> queuedPreparedStatement = new QueuedPreparedStatement<>(decoratee);
+        QueuedPreparedStatement<T> queuedPreparedStatement;
+        if (isBatchingDirectWrites()) {
+            // We need the parameters in order to patch statements ourselves
+            // for batching.
+            int numParams = decoratee.getParsedStatement().getNumParams();
+            queuedPreparedStatement = new QueuedPreparedStatement<>(decoratee, new PreparedParameters(numParams));
+        } else {
+            queuedPreparedStatement = new QueuedPreparedStatement<>(decoratee);
+        }
         return decorateWithTimingLoggerIfNecessary(queuedPreparedStatement, desc);
     }
     
@@ -578,6 +695,16 @@ public class QueuedStorage implements Storage {
         return decoratee;
     }
     
+    /*
+     * Statements of backing storage used directly (no proxy in front) are
+     * batched at PreparedStatement.execute(). Proxied backing storage is
+     * batched at ParsedStatement patching time instead. Other storage types,
+     * such as web, do their own buffering.
+     */
+    private boolean isBatchingDirectWrites() {
+        return batcher != null && !isBackingStorageInProxy && delegate instanceof BackingStorage;
+    }
+    
     @Override
     public Connection getConnection() {
         return delegate.getConnection();
@@ -596,6 +723,11 @@ public class QueuedStorage implements Storage {
         } catch (InterruptedException ex) {
             // Fall through. 
         }
+        if (batcher != null) {
+            // Write out adds which are still pending. Writes queued above
+            // either made it into the batcher or got applied directly.
+            batcher.shutdown();
+        }
         try {
             fileExecutor.shutdown();
             fileExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.thermostat.storage.model.Pojo;
+
+/**
+ * Resolutions at which a storage compacts the raw samples of a time-series
+ * {@link Category} with a {@link DataRetentionPolicy}.
+ * <p>
+ * Rollups of a category are kept in a sibling category with the same keys
+ * and data class. Each rollup is a single pojo per agent (and VM, if the
+ * category has a {@link Key#VM_ID}) and time bucket. Its
+ * {@link Key#TIMESTAMP} is the start of the bucket and its numeric
+ * properties are the averages of the raw samples in the bucket.
+ */
+public enum RollupResolution {
+
+    MINUTE(TimeUnit.MINUTES.toMillis(1), "-rollup-1m"),
+    HOUR(TimeUnit.HOURS.toMillis(1), "-rollup-1h"),
+    ;
+
+    private final long bucketSize;
+    private final String suffix;
+
+    private RollupResolution(long bucketSize, String suffix) {
+        this.bucketSize = bucketSize;
+        this.suffix = suffix;
+    }
+
+    /**
+     * @return the length of the time buckets of this resolution, in
+     *         milliseconds.
+     */
+    public long getBucketSize() {
+        return bucketSize;
+    }
+
+    /**
+     * @return the start of the bucket containing the given timestamp.
+     */
+    public long getBucketStart(long timeStamp) {
+        return timeStamp - (timeStamp % bucketSize);
+    }
+
+    /**
+     * @return the name of the category holding rollups of this resolution
+     *         for the category with the given name.
+     */
+    public String getCategoryName(String sourceCategoryName) {
+        return sourceCategoryName + suffix;
+    }
+
+    /**
+     * Returns the category holding rollups of this resolution for the given
+     * category. The rollup category is created on first use and has the
+     * same keys, indexed keys and data class as the source category.
+     * 
+     * @return the category in which rollups of the source category are
+     *         stored.
+     * @throws IllegalStateException
+     *             if a category with the name of the rollup category, but a
+     *             different data class exists already.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Pojo> Category<T> getCategory(Category<T> source) {
+        String name = getCategoryName(source.getName());
+        synchronized (Categories.class) {
+            Category<?> existing = Categories.getByName(name);
+            if (existing == null) {
+                List<Key<?>> keys = new ArrayList<>(source.getKeys());
+                return new Category<>(name, source.getDataClass(), keys, source.getIndexedKeys());
+            }
+            if (!source.getDataClass().equals(existing.getDataClass())) {
+                throw new IllegalStateException("category " + name + " is not a rollup of " + source.getName());
+            }
+            return (Category<T>) existing;
+        }
+    }
+
+    /**
+     * @return the resolution of rollups stored in the category with the given
+     *         name, or {@code null} if the name is not the one of a rollup
+     *         category.
+     */
+    public static RollupResolution fromCategoryName(String categoryName) {
+        for (RollupResolution resolution : values()) {
+            if (categoryName.endsWith(resolution.suffix)) {
+                return resolution;
+            }
+        }
+        return null;
+    }
+}
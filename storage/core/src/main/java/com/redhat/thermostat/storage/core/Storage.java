@@ -123,6 +123,15 @@ public interface Storage {
      */
     InputStream loadFile(String filename);
 
+    /**
+     * Delete the file with the given name. Does nothing if there is no such
+     * file.
+     *
+     * @throws StorageException
+     *            May be thrown if the delete operation fails
+     */
+    void deleteFile(String filename);
+
     /**
      * Shutdown the storage
      *
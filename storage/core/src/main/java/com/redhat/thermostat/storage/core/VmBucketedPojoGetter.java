@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.core;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.redhat.thermostat.common.utils.LoggingUtils;
+import com.redhat.thermostat.storage.dao.AbstractDao;
+import com.redhat.thermostat.storage.dao.AbstractDaoQuery;
+import com.redhat.thermostat.storage.model.BucketedResult;
+import com.redhat.thermostat.storage.model.TimeStampedPojo;
+
+/**
+ * Get the values of a numeric {@link Key} in a given time interval,
+ * downsampled by storage into at most a given number of time buckets.
+ * Useful for charts which cannot show more than about one point per
+ * pixel anyway.
+ * <p>
+ * If created for a {@link VmTimeIntervalPojoListGetter}, ranges are served
+ * from the same rollups as that getter up to their watermark. Buckets made
+ * of rollups keep the minimums and maximums of the samples rolled up.
+ *
+ * @see VmTimeIntervalPojoListGetter
+ */
+public class VmBucketedPojoGetter<T extends TimeStampedPojo> extends AbstractDao {
+
+    // QUERY-BUCKETED(%s) %s WHERE 'agentId' = ?s AND \
+    //                             'vmId' = ?s AND \
+    //                             'timeStamp' >= ?l AND \
+    //                             'timeStamp' < ?l \
+    //                             LIMIT ?i
+    public static final String VM_BUCKETED_QUERY_FORMAT = "QUERY-BUCKETED(%s) %s WHERE '"
+            + Key.AGENT_ID.getName() + "' = ?s AND '"
+            + Key.VM_ID.getName() + "' = ?s AND '"
+            + Key.TIMESTAMP.getName() + "' >= ?l AND '"
+            + Key.TIMESTAMP.getName() + "' < ?l LIMIT ?i";
+
+    private static final Logger logger = LoggingUtils.getLogger(VmBucketedPojoGetter.class);
+
+    private final Storage storage;
+    private final Category<BucketedResult> aggregateCategory;
+    private final Key<?> key;
+    private final String query;
+    private final VmTimeIntervalPojoListGetter<T> intervalGetter;
+    private final Map<RollupResolution, Category<BucketedResult>> rollupCategories = new EnumMap<>(RollupResolution.class);
+    private final Map<RollupResolution, String> rollupQueries = new EnumMap<>(RollupResolution.class);
+
+    /**
+     * Creates a getter which only queries raw samples.
+     *
+     * @param storage The storage to query.
+     * @param cat A registered category with a {@link Key#TIMESTAMP} key.
+     * @param key The numeric key to aggregate values for.
+     */
+    public VmBucketedPojoGetter(Storage storage, Category<T> cat, Key<?> key) {
+        this(storage, cat, key, null);
+    }
+
+    /**
+     * Creates a getter which queries the rollups of the given interval
+     * getter where that getter would.
+     *
+     * @param storage The storage to query.
+     * @param intervalGetter The interval getter of a category with a
+     *        {@link Key#TIMESTAMP} key.
+     * @param key The numeric key to aggregate values for.
+     */
+    public VmBucketedPojoGetter(Storage storage, VmTimeIntervalPojoListGetter<T> intervalGetter, Key<?> key) {
+        this(storage, intervalGetter.getQueries().getCategory(null), key, intervalGetter);
+    }
+
+    private VmBucketedPojoGetter(Storage storage, Category<T> cat, Key<?> key, VmTimeIntervalPojoListGetter<T> intervalGetter) {
+        this.storage = storage;
+        this.key = key;
+        this.aggregateCategory = adapt(cat);
+        this.query = String.format(VM_BUCKETED_QUERY_FORMAT, key.getName(), cat.getName());
+        this.intervalGetter = intervalGetter;
+        if (intervalGetter != null) {
+            IntervalQueries<T> queries = intervalGetter.getQueries();
+            for (RollupResolution resolution : queries.getRollupResolutions()) {
+                Category<T> rollupCategory = queries.getCategory(resolution);
+                rollupCategories.put(resolution, adapt(rollupCategory));
+                rollupQueries.put(resolution, String.format(VM_BUCKETED_QUERY_FORMAT, key.getName(), rollupCategory.getName()));
+            }
+        }
+    }
+
+    private static <T extends TimeStampedPojo> Category<BucketedResult> adapt(Category<T> cat) {
+        CategoryAdapter<T, BucketedResult> adapter = new CategoryAdapter<>(cat);
+        return adapter.getAdapted(BucketedResult.class);
+    }
+
+    /**
+     * @return The buckets for samples with {@code since <= timeStamp < to}.
+     *         Never {@code null}.
+     */
+    public BucketedResult getBuckets(final AgentId agentId, final VmId vmId, final long since, final long to, final int maxBuckets) {
+        RollupResolution resolution = intervalGetter == null ? null : intervalGetter.getQueries().selectResolution(since, to);
+        long watermark = resolution == null ? IntervalQueries.NO_ROLLUPS : intervalGetter.getWatermark(resolution, agentId, vmId);
+        if (watermark <= since || maxBuckets < 2) {
+            return queryBuckets(aggregateCategory, query, agentId, vmId, since, to, maxBuckets);
+        }
+        Category<BucketedResult> rollupCategory = rollupCategories.get(resolution);
+        String rollupQuery = rollupQueries.get(resolution);
+        if (watermark >= to) {
+            return queryBuckets(rollupCategory, rollupQuery, agentId, vmId, since, to, maxBuckets);
+        }
+        // Share the buckets by the time spans of both parts
+        long rollupShare = (watermark - since) * maxBuckets / (to - since);
+        int rollupBuckets = (int) Math.max(1, Math.min(maxBuckets - 1, rollupShare));
+        BucketedResult rollups = queryBuckets(rollupCategory, rollupQuery, agentId, vmId, since, watermark, rollupBuckets);
+        BucketedResult raw = queryBuckets(aggregateCategory, query, agentId, vmId, watermark, to, maxBuckets - rollupBuckets);
+        return concat(rollups, raw);
+    }
+
+    private BucketedResult queryBuckets(Category<BucketedResult> category, String descriptor, final AgentId agentId,
+            final VmId vmId, final long since, final long to, final int maxBuckets) {
+        BucketedResult result = executeQuery(new AbstractDaoQuery<BucketedResult>(storage, category, descriptor) {
+            @Override
+            public PreparedStatement<BucketedResult> customize(PreparedStatement<BucketedResult> preparedStatement) {
+                preparedStatement.setString(0, agentId.get());
+                preparedStatement.setString(1, vmId.get());
+                preparedStatement.setLong(2, since);
+                preparedStatement.setLong(3, to);
+                preparedStatement.setInt(4, maxBuckets);
+                return preparedStatement;
+            }
+        }).head();
+        if (result == null) {
+            // query failed, already logged
+            result = new BucketedResult();
+            result.setKey(key);
+        }
+        return result;
+    }
+
+    // package private for tests
+    static BucketedResult concat(BucketedResult older, BucketedResult newer) {
+        BucketedResult result = new BucketedResult();
+        result.setKey(older.getKey());
+        result.setBucketSize(Math.max(older.getBucketSize(), newer.getBucketSize()));
+        int size = older.size() + newer.size();
+        long[] timeStamps = new long[size];
+        long[] counts = new long[size];
+        double[] minimums = new double[size];
+        double[] maximums = new double[size];
+        double[] averages = new double[size];
+        double[] lasts = new double[size];
+        int n = older.size();
+        int m = newer.size();
+        System.arraycopy(older.getTimeStamps(), 0, timeStamps, 0, n);
+        System.arraycopy(newer.getTimeStamps(), 0, timeStamps, n, m);
+        System.arraycopy(older.getCounts(), 0, counts, 0, n);
+        System.arraycopy(newer.getCounts(), 0, counts, n, m);
+        System.arraycopy(older.getMinimums(), 0, minimums, 0, n);
+        System.arraycopy(newer.getMinimums(), 0, minimums, n, m);
+        System.arraycopy(older.getMaximums(), 0, maximums, 0, n);
+        System.arraycopy(newer.getMaximums(), 0, maximums, n, m);
+        System.arraycopy(older.getAverages(), 0, averages, 0, n);
+        System.arraycopy(newer.getAverages(), 0, averages, n, m);
+        System.arraycopy(older.getLasts(), 0, lasts, 0, n);
+        System.arraycopy(newer.getLasts(), 0, lasts, n, m);
+        result.setTimeStamps(timeStamps);
+        result.setCounts(counts);
+        result.setMinimums(minimums);
+        result.setMaximums(maximums);
+        result.setAverages(averages);
+        result.setLasts(lasts);
+        return result;
+    }
+
+    // package private for tests
+    String getQueryDesc() {
+        return query;
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return logger;
+    }
+}
@@ -39,6 +39,8 @@ package com.redhat.thermostat.storage.core;
 import java.util.List;
 import java.util.logging.Logger;
 
+import com.redhat.thermostat.common.Clock;
+import com.redhat.thermostat.common.SystemClock;
 import com.redhat.thermostat.common.utils.LoggingUtils;
 import com.redhat.thermostat.storage.dao.AbstractDao;
 import com.redhat.thermostat.storage.dao.AbstractDaoQuery;
@@ -66,13 +68,23 @@ public class VmTimeIntervalPojoListGetter<T extends TimeStampedPojo> extends Abs
     private static final Logger logger = LoggingUtils.getLogger(VmTimeIntervalPojoListGetter.class);
 
     private final Storage storage;
-    private final Category<T> cat;
-    private final String query;
+    private final IntervalQueries<T> queries;
 
+    /**
+     * Creates a getter for the given category. If the category's
+     * {@link DataRetentionPolicy} keeps rollups, the rollup categories are
+     * registered with the storage and intervals are served at the
+     * resolution the policy selects for them.
+     */
     public VmTimeIntervalPojoListGetter(Storage storage, Category<T> cat) {
+        this(storage, cat, new SystemClock());
+    }
+
+    // package private for tests
+    VmTimeIntervalPojoListGetter(Storage storage, Category<T> cat, Clock clock) {
         this.storage = storage;
-        this.cat = cat;
-        this.query = String.format(VM_INTERVAL_QUERY_FORMAT, cat.getName());
+        this.queries = new IntervalQueries<>(storage, cat, VM_INTERVAL_QUERY_FORMAT,
+                VmBoundaryPojoGetter.DESC_NEWEST_VM_STAT, clock);
     }
 
     /**
@@ -83,22 +95,72 @@ public class VmTimeIntervalPojoListGetter<T extends TimeStampedPojo> extends Abs
         return getLatest(new AgentId(vmRef.getHostRef().getAgentId()), new VmId(vmRef.getVmId()), since, to);
     }
 
+    /**
+     * Gets the samples of the VM in {@code [since, to)}, newest first. If
+     * the retention policy selects a rollup resolution for the range, the
+     * part of it that has been rolled up is served from rollups, which only
+     * carry the averages of their buckets, and the rest from raw samples.
+     * Use {@link VmBucketedPojoGetter} for minimums and maximums.
+     */
     public List<T> getLatest(final AgentId agentId, final VmId vmId, final long since, final long to) {
-        return executeQuery(new AbstractDaoQuery<T>(storage, cat, query) {
+        return queries.getInterval(getSourceId(agentId, vmId), new IntervalQueries.Source<T>() {
+            @Override
+            public List<T> query(Category<T> category, String descriptor, final long since, final long to) {
+                return executeQuery(new AbstractDaoQuery<T>(storage, category, descriptor) {
+                    @Override
+                    public PreparedStatement<T> customize(PreparedStatement<T> preparedStatement) {
+                        preparedStatement.setString(0, agentId.get());
+                        preparedStatement.setString(1, vmId.get());
+                        preparedStatement.setLong(2, since);
+                        preparedStatement.setLong(3, to);
+                        return preparedStatement;
+                    }
+                }).asList();
+            }
+
+            @Override
+            public T queryNewest(Category<T> category, String descriptor) {
+                return VmTimeIntervalPojoListGetter.this.queryNewest(category, descriptor, agentId, vmId);
+            }
+        }, since, to);
+    }
+
+    // package private for VmBucketedPojoGetter
+    IntervalQueries<T> getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return the end of the newest rollup of the VM at the given resolution
+     * @see IntervalQueries#getWatermark(RollupResolution, String, IntervalQueries.NewestQuery)
+     */
+    long getWatermark(RollupResolution resolution, final AgentId agentId, final VmId vmId) {
+        return queries.getWatermark(resolution, getSourceId(agentId, vmId), new IntervalQueries.NewestQuery<T>() {
+            @Override
+            public T queryNewest(Category<T> category, String descriptor) {
+                return VmTimeIntervalPojoListGetter.this.queryNewest(category, descriptor, agentId, vmId);
+            }
+        });
+    }
+
+    private T queryNewest(Category<T> category, String descriptor, final AgentId agentId, final VmId vmId) {
+        return executeQuery(new AbstractDaoQuery<T>(storage, category, descriptor) {
             @Override
             public PreparedStatement<T> customize(PreparedStatement<T> preparedStatement) {
                 preparedStatement.setString(0, agentId.get());
                 preparedStatement.setString(1, vmId.get());
-                preparedStatement.setLong(2, since);
-                preparedStatement.setLong(3, to);
                 return preparedStatement;
             }
-        }).asList();
+        }).head();
+    }
+
+    private static String getSourceId(AgentId agentId, VmId vmId) {
+        return agentId.get() + "/" + vmId.get();
     }
 
     // package private for tests
     String getQueryLatestDesc() {
-        return query;
+        return queries.getQuery(null);
     }
 
     @Override
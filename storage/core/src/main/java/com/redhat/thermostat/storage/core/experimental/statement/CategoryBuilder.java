@@ -37,6 +37,7 @@
 package com.redhat.thermostat.storage.core.experimental.statement;
 
 import com.redhat.thermostat.storage.core.Category;
+import com.redhat.thermostat.storage.core.DataRetentionPolicy;
 import com.redhat.thermostat.storage.core.Key;
 import com.redhat.thermostat.storage.model.Pojo;
 import java.lang.reflect.Constructor;
@@ -102,11 +103,16 @@ public class CategoryBuilder<T extends Pojo> {
             argumentObjects.add(bean);
             argumentObjects.add(keys);
 
-            // indexed keys are optional
-            if (!indexed.isEmpty()) {
+            // indexed keys are optional, unless there is a retention policy
+            Retained retained = bean.getAnnotation(Retained.class);
+            if (!indexed.isEmpty() || retained != null) {
                 argumentClasses.add(List.class);
                 argumentObjects.add(indexed);
             }
+            if (retained != null) {
+                argumentClasses.add(DataRetentionPolicy.class);
+                argumentObjects.add(new DataRetentionPolicy(retained.value(), retained.unit()));
+            }
 
             Class<?>[] classes = argumentClasses.toArray(new Class[argumentClasses.size()]);
             Object[] objects = argumentObjects.toArray();
@@ -123,6 +129,10 @@ public class CategoryBuilder<T extends Pojo> {
         // we are using this constructor:
         // Category(String name, Class<T> dataClass,
         //          List<Key<?>> keys, List<Key<?>> indexedKeys)
+        // or, for @Retained beans:
+        // Category(String name, Class<T> dataClass,
+        //          List<Key<?>> keys, List<Key<?>> indexedKeys,
+        //          DataRetentionPolicy retentionPolicy)
 
         try {
             Constructor<Category> constructor =
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.redhat.thermostat.common.utils.LoggingUtils;
+import com.redhat.thermostat.shared.perflog.PerformanceLogFormatter;
+import com.redhat.thermostat.shared.perflog.PerformanceLogFormatter.LogTag;
+import com.redhat.thermostat.storage.core.BatchableAdd;
+import com.redhat.thermostat.storage.core.QueuedStorage;
+
+/**
+ * Coalesces {@link BatchableAdd}s per category into bulk writes. Pending
+ * adds get written once {@code batchSize} adds are queued for a category or
+ * at the latest after {@code maxLatencyMillis}. Each category queue is
+ * bounded. If a queue is full, the caller writes out pending adds on its own
+ * thread, which throttles producers to the speed of storage.
+ *
+ * @see QueuedStorage
+ */
+public class AddBatcher {
+
+    private static final Logger logger = LoggingUtils.getLogger(AddBatcher.class);
+    private static final String QUEUE_SIZE_FORMAT = "Q_SIZE(%s) %s";
+    private static final String BATCH_WRITE_FORMAT = "DB_WRITE_BATCH(%s) %s";
+
+    private final ConcurrentMap<String, CategoryQueue> queues = new ConcurrentHashMap<>();
+    private final Executor flushExecutor;
+    private final ScheduledExecutorService timer;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final PerformanceLogFormatter perfLogFormatter;
+    private final LogTag logTag;
+    private volatile boolean closed;
+
+    /**
+     * 
+     * @param flushExecutor
+     *            The executor on which bulk writes are performed.
+     * @param batchSize
+     *            The maximum number of adds per bulk write.
+     * @param maxLatencyMillis
+     *            The maximum time adds get delayed.
+     * @param queueCapacity
+     *            The maximum number of pending adds per category.
+     * @param perfLogFormatter
+     *            The formatter for queue depth and timing messages. May be
+     *            {@code null} in which case no such messages are logged.
+     * @param logTag
+     *            The log tag to use when logging messages.
+     */
+    public AddBatcher(Executor flushExecutor, int batchSize, long maxLatencyMillis, int queueCapacity,
+            PerformanceLogFormatter perfLogFormatter, LogTag logTag) {
+        this(flushExecutor, batchSize, maxLatencyMillis, queueCapacity, perfLogFormatter, logTag,
+                Executors.newSingleThreadScheduledExecutor(new BatchTimerThreadFactory()));
+    }
+
+    AddBatcher(Executor flushExecutor, int batchSize, long maxLatencyMillis, int queueCapacity,
+            PerformanceLogFormatter perfLogFormatter, LogTag logTag, ScheduledExecutorService timer) {
+        if (batchSize <= 1 || queueCapacity < batchSize) {
+            throw new IllegalArgumentException("Invalid batch size (" + batchSize
+                    + ") or capacity (" + queueCapacity + ")");
+        }
+        this.flushExecutor = Objects.requireNonNull(flushExecutor);
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.perfLogFormatter = perfLogFormatter;
+        this.logTag = logTag;
+        this.timer = timer;
+        this.timer.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                for (CategoryQueue queue : queues.values()) {
+                    if (!queue.pending.isEmpty()) {
+                        scheduleFlush(queue);
+                    }
+                }
+            }
+        }, maxLatencyMillis, maxLatencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the given add for a later bulk write. Once this batcher has been
+     * shut down, adds are applied right away.
+     */
+    public void add(BatchableAdd<?> add) {
+        if (closed) {
+            applySingle(add);
+            return;
+        }
+        CategoryQueue queue = getQueue(add.getCategory().getName());
+        while (!queue.pending.offer(add)) {
+            // Queue is full. Apply backpressure by writing out a batch on
+            // the producer's thread.
+            if (queue.flushBatch() == 0) {
+                // Other threads keep filling the queue. Don't starve.
+                applySingle(add);
+                return;
+            }
+        }
+        int depth = queue.pending.size();
+        logQueueDepth(queue.categoryName, depth);
+        if (depth >= batchSize) {
+            scheduleFlush(queue);
+        }
+    }
+
+    /**
+     * Stops the latency timer and writes out all pending adds on the calling
+     * thread.
+     */
+    public void shutdown() {
+        closed = true;
+        timer.shutdownNow();
+        for (CategoryQueue queue : queues.values()) {
+            queue.flushAll();
+        }
+    }
+
+    // for testing
+    int getQueueDepth(String categoryName) {
+        CategoryQueue queue = queues.get(categoryName);
+        return queue == null ? 0 : queue.pending.size();
+    }
+
+    private CategoryQueue getQueue(String categoryName) {
+        CategoryQueue queue = queues.get(categoryName);
+        if (queue == null) {
+            CategoryQueue newQueue = new CategoryQueue(categoryName, queueCapacity);
+            queue = queues.putIfAbsent(categoryName, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        return queue;
+    }
+
+    private void scheduleFlush(final CategoryQueue queue) {
+        if (!queue.flushScheduled.compareAndSet(false, true)) {
+            // a flush is already pending and will pick up our add
+            return;
+        }
+        try {
+            flushExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    queue.flushScheduled.set(false);
+                    queue.flushAll();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // executor has been shut down. write it out ourselves.
+            queue.flushScheduled.set(false);
+            queue.flushAll();
+        }
+    }
+
+    private void applySingle(BatchableAdd<?> add) {
+        try {
+            add.apply();
+        } catch (RuntimeException e) {
+            // StorageException or, e.g., IllegalArgumentException for
+            // records the backing storage refuses
+            logger.log(Level.WARNING, "Failed to execute statement", e);
+        }
+    }
+
+    private void logQueueDepth(String categoryName, int depth) {
+        if (perfLogFormatter != null) {
+            String msg = String.format(QUEUE_SIZE_FORMAT, categoryName, depth);
+            logger.log(LoggingUtils.LogLevel.PERFLOG.getLevel(), perfLogFormatter.format(logTag, msg));
+        }
+    }
+
+    private void logBatchWrite(String categoryName, int retval, long durationNanos) {
+        if (perfLogFormatter != null) {
+            String msg = String.format(BATCH_WRITE_FORMAT, retval, categoryName);
+            logger.log(LoggingUtils.LogLevel.PERFLOG.getLevel(), perfLogFormatter.format(logTag, msg, durationNanos));
+        }
+    }
+
+    private class CategoryQueue {
+
+        private final String categoryName;
+        private final BlockingQueue<BatchableAdd<?>> pending;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+        private CategoryQueue(String categoryName, int capacity) {
+            this.categoryName = categoryName;
+            this.pending = new ArrayBlockingQueue<>(capacity);
+        }
+
+        private void flushAll() {
+            while (flushBatch() > 0) {
+                // keep going until drained
+            }
+        }
+
+        /*
+         * Writes at most batchSize pending adds. Returns the number of adds
+         * taken off the queue.
+         */
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private int flushBatch() {
+            List<BatchableAdd<?>> batch = new ArrayList<>(batchSize);
+            int drained = pending.drainTo(batch, batchSize);
+            if (drained == 0) {
+                return 0;
+            }
+            BatchableAdd first = batch.get(0);
+            try {
+                long start = System.nanoTime();
+                int retval = first.applyBatch((List) batch);
+                long end = System.nanoTime();
+                logBatchWrite(categoryName, retval, end - start);
+            } catch (RuntimeException e) {
+                // not only StorageException: the batch is off the queue
+                // already and the remaining batches still need draining
+                logger.log(Level.WARNING, "Failed to write batch of " + drained
+                        + " records into " + categoryName, e);
+            }
+            logQueueDepth(categoryName, pending.size());
+            return drained;
+        }
+    }
+
+    private static class BatchTimerThreadFactory implements ThreadFactory {
+
+        private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = defaultFactory.newThread(r);
+            t.setName("QueuedStorage-batch-timer");
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
+
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.internal;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.redhat.thermostat.common.utils.LoggingUtils;
+import com.redhat.thermostat.shared.config.InvalidConfigurationException;
+
+/**
+ * Reads the configuration of write batching in {@link AddBatcher} from
+ * system properties.
+ */
+public class BatchSettingsRetriever {
+
+    private static final Logger logger = LoggingUtils.getLogger(BatchSettingsRetriever.class);
+
+    /*
+     * Integer. The maximum number of adds which get coalesced into one bulk
+     * write. Batching is disabled if unset or set to a value <= 1.
+     */
+    static final String BATCH_SIZE = "com.redhat.thermostat.storage.queue.batchSize";
+
+    /*
+     * Long. The maximum time in milliseconds an add may wait in the batch
+     * queue before it gets written.
+     */
+    static final String BATCH_LATENCY = "com.redhat.thermostat.storage.queue.batchLatencyMillis";
+
+    /*
+     * Integer. The maximum number of adds queued per category. Once reached,
+     * callers write out pending adds themselves (backpressure).
+     */
+    static final String BATCH_QUEUE_CAPACITY = "com.redhat.thermostat.storage.queue.batchCapacity";
+
+    static final long DEFAULT_BATCH_LATENCY_MILLIS = 250;
+
+    /*
+     * Default capacity is a multiple of the configured batch size.
+     */
+    static final int DEFAULT_CAPACITY_FACTOR = 10;
+
+    /**
+     * 
+     * @return The configured batch size or {@code 0} if batching is disabled.
+     */
+    public int getBatchSize() {
+        Integer candidate = Integer.getInteger(BATCH_SIZE);
+        if (candidate == null || candidate <= 1) {
+            logger.log(Level.CONFIG, BATCH_SIZE + " unset or <= 1. Write batching disabled.");
+            return 0;
+        }
+        logger.log(Level.CONFIG, "Using a batch size of " + candidate + " for QueuedStorage");
+        return candidate;
+    }
+
+    public long getMaxLatencyMillis() {
+        Long candidate = Long.getLong(BATCH_LATENCY);
+        if (candidate == null) {
+            return DEFAULT_BATCH_LATENCY_MILLIS;
+        }
+        if (candidate <= 0) {
+            throw new InvalidConfigurationException("Value of property " +
+                    BATCH_LATENCY + ": " + candidate + " <= 0");
+        }
+        return candidate;
+    }
+
+    public int getQueueCapacity(int batchSize) {
+        Integer candidate = Integer.getInteger(BATCH_QUEUE_CAPACITY);
+        if (candidate == null) {
+            return batchSize * DEFAULT_CAPACITY_FACTOR;
+        }
+        if (candidate < batchSize) {
+            throw new InvalidConfigurationException("Value of property " +
+                    BATCH_QUEUE_CAPACITY + ": " + candidate + " < " + batchSize
+                    + " (the batch size)");
+        }
+        return candidate;
+    }
+}
+
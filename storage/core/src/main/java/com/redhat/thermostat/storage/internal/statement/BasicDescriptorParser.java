@@ -71,6 +71,8 @@ import com.redhat.thermostat.storage.query.BinaryLogicalOperator;
  * <ul>
  * <li>QUERY (read)</li>
  * <li>QUERY-COUNT (read)</li>
+ * <li>QUERY-DISTINCT (read)</li>
+ * <li>QUERY-BUCKETED (read)</li>
  * <li>ADD (write)</li>
  * <li>UPDATE (write)</li>
  * <li>REPLACE (write)</li>
@@ -80,7 +82,8 @@ import com.redhat.thermostat.storage.query.BinaryLogicalOperator;
  * <p><strong>Grammar:</strong></p>
  * <pre>
  * statementDesc := statementType category setList suffix
- * statementType := 'QUERY' | 'QUERY-COUNT' |
+ * statementType := 'QUERY' | 'QUERY-COUNT' | 'QUERY-DISTINCT' |
+ *                  'QUERY-BUCKETED' |
  *                  'ADD' | 'REPLACE' | 'UPDATE' |
  *                  'REMOVE'
  * category      := string
@@ -146,7 +149,9 @@ class BasicDescriptorParser<T extends Pojo> implements StatementDescriptorParser
     private static final String QUERY_COUNT_REGEXP = "QUERY-COUNT" + AGGREGATE_PARAM_REGEXP;
     private static final String QUERY_DISTINCT_REGEXP = "QUERY-DISTINCT" + AGGREGATE_PARAM_REGEXP;
     private static final Pattern QUERY_COUNT_PATTERN = Pattern.compile(QUERY_COUNT_REGEXP);
+    private static final String QUERY_BUCKETED_REGEXP = "QUERY-BUCKETED" + AGGREGATE_PARAM_REGEXP;
     private static final Pattern QUERY_DISTINCT_PATTERN = Pattern.compile(QUERY_DISTINCT_REGEXP);
+    private static final Pattern QUERY_BUCKETED_PATTERN = Pattern.compile(QUERY_BUCKETED_REGEXP);
     private static final String SORTLIST_SEP = ",";
     private static final String SETLIST_SEP = SORTLIST_SEP;
     private static final String KEYWORD_SET = "SET";
@@ -768,6 +773,7 @@ class BasicDescriptorParser<T extends Pojo> implements StatementDescriptorParser
         final String statementType = tokens[0];
         Matcher queryCountMatcher = QUERY_COUNT_PATTERN.matcher(statementType);
         Matcher queryDistinctMatcher = QUERY_DISTINCT_PATTERN.matcher(statementType);
+        Matcher queryBucketedMatcher = QUERY_BUCKETED_PATTERN.matcher(statementType);
         if (statementType.equals(KNOWN_STATEMENT_TYPES[IDX_QUERY])) {
             // regular query case
             Query<T> query = storage.createQuery(desc.getCategory());
@@ -792,6 +798,8 @@ class BasicDescriptorParser<T extends Pojo> implements StatementDescriptorParser
             this.parsedStatement = createAggregatePreparedStatement(AggregateFunction.COUNT, queryCountMatcher);
         } else if (queryDistinctMatcher.matches()) {
             this.parsedStatement = createAggregatePreparedStatement(AggregateFunction.DISTINCT, queryDistinctMatcher);
+        } else if (queryBucketedMatcher.matches()) {
+            this.parsedStatement = createAggregatePreparedStatement(AggregateFunction.BUCKETED, queryBucketedMatcher);
         } else {
             throw new IllegalStateException("Don't know how to create statement type '" + statementType + "'");
         }
@@ -830,6 +838,7 @@ class BasicDescriptorParser<T extends Pojo> implements StatementDescriptorParser
         final String statementType = tokens[currTokenIndex];
         Matcher queryCountMatcher = QUERY_COUNT_PATTERN.matcher(statementType);
         Matcher queryDistinctMatcher = QUERY_DISTINCT_PATTERN.matcher(statementType);
+        Matcher queryBucketedMatcher = QUERY_BUCKETED_PATTERN.matcher(statementType);
         if (statementType.equals(KNOWN_STATEMENT_TYPES[IDX_QUERY])) {
             // QUERY
             currTokenIndex++;
@@ -851,6 +860,9 @@ class BasicDescriptorParser<T extends Pojo> implements StatementDescriptorParser
         } else if (queryDistinctMatcher.matches()) {
             // QUERY-DISTINCT
             currTokenIndex++;
+        } else if (queryBucketedMatcher.matches()) {
+            // QUERY-BUCKETED
+            currTokenIndex++;
         } else {
             throw new DescriptorParsingException("Unknown statement type: '" + statementType + "'");
         }
@@ -96,10 +96,18 @@ class BinaryExpressionNode extends Node {
         
         Expression leftExpression = left.getExpression();
         Expression rightExpression = right.getExpression();
-        return createExpression(leftExpression, rightExpression);
+        Expression expression = createExpression(leftExpression, rightExpression);
+        if (expression == null) {
+            return null;
+        }
+        return new PatchedWhereExpressionImpl(expression);
     }
 
-    private PatchedWhereExpression createExpression(Expression leftExpression,
+    /*
+     * Combines the already patched children of this node. Also used by
+     * PatchTemplate, which patches children without walking the tree.
+     */
+    Expression createExpression(Expression leftExpression,
             Expression rightExpression) {
         if (operator instanceof BinaryComparisonOperator) {
             return getBinaryComparisonExpression(leftExpression, (BinaryComparisonOperator) operator, rightExpression);
@@ -109,20 +117,16 @@ class BinaryExpressionNode extends Node {
         return null;
     }
     
-    private PatchedWhereExpression getBinaryLogicalExpression(Expression a,
+    private Expression getBinaryLogicalExpression(Expression a,
             BinaryLogicalOperator op, Expression b) {
-        BinaryLogicalExpression<Expression, Expression> impl = new BinaryLogicalExpression<Expression, Expression>(
-                a, op, b);
-        return new PatchedWhereExpressionImpl(impl);
+        return new BinaryLogicalExpression<Expression, Expression>(a, op, b);
     }
 
     @SuppressWarnings("unchecked") // Unchecked casts to LiteralExpression
-    private <T> PatchedWhereExpressionImpl getBinaryComparisonExpression(Expression a, BinaryComparisonOperator op, Expression b) {
+    private <T> Expression getBinaryComparisonExpression(Expression a, BinaryComparisonOperator op, Expression b) {
         LiteralExpression<Key<T>> leftOperand = (LiteralExpression<Key<T>>) a;
         LiteralExpression<T> rightOperand = (LiteralExpression<T>)b;
-        BinaryComparisonExpression<T> impl = new BinaryComparisonExpression<>(
-                leftOperand, op, rightOperand);
-        return new PatchedWhereExpressionImpl(impl);
+        return new BinaryComparisonExpression<>(leftOperand, op, rightOperand);
     }
 
     @Override
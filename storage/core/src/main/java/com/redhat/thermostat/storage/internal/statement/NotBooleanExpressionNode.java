@@ -41,6 +41,7 @@ import java.util.Objects;
 import com.redhat.thermostat.storage.core.IllegalPatchException;
 import com.redhat.thermostat.storage.core.PreparedParameter;
 import com.redhat.thermostat.storage.query.ComparisonExpression;
+import com.redhat.thermostat.storage.query.Expression;
 import com.redhat.thermostat.storage.query.UnaryLogicalExpression;
 import com.redhat.thermostat.storage.query.UnaryLogicalOperator;
 
@@ -70,16 +71,22 @@ class NotBooleanExpressionNode extends UnaryExpressionNode {
         }
         Node node = (Node)getValue();
         PatchedWhereExpression patched = node.patch(params);
+        return new PatchedWhereExpressionImpl(createExpression(patched.getExpression()));
+    }
+    
+    /*
+     * Negates the already patched operand of this node. Also used by
+     * PatchTemplate.
+     */
+    Expression createExpression(Expression operand) {
         // If this cast fails we are in serious trouble. Mongodb doesn't support
         // something like NOT ( a AND b ). However, the grammar does not support
         // parenthesized expressions, NOT has higher precedence as AND/OR
         // expressions and the LHS and RHS of binary boolean expressions are
         // required to be binary comparison expressions.
         // Hence, we wouldn't parse an expression such as the above anyway.
-        ComparisonExpression expr = (ComparisonExpression)patched.getExpression();
-        UnaryLogicalExpression<ComparisonExpression> notExpr = new UnaryLogicalExpression<>(
-                expr, getOperator());
-        return new PatchedWhereExpressionImpl(notExpr);
+        ComparisonExpression expr = (ComparisonExpression)operand;
+        return new UnaryLogicalExpression<>(expr, getOperator());
     }
     
     @Override
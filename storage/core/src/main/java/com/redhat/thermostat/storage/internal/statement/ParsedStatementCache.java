@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.internal.statement;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.redhat.thermostat.storage.core.BackingStorage;
+import com.redhat.thermostat.storage.core.Category;
+import com.redhat.thermostat.storage.core.DescriptorParsingException;
+import com.redhat.thermostat.storage.core.StatementDescriptor;
+import com.redhat.thermostat.storage.model.Pojo;
+
+/**
+ * Bounded cache of parsed statement descriptors. DAOs prepare the same
+ * descriptors over and over again and parsing them is comparatively
+ * expensive. Parsed statements are not modified once parsed and only ever
+ * patch duplicates of their raw statement. Thus, they can be shared between
+ * prepared statements of any thread.
+ * <p>
+ * Raw statements of parsed statements are created by, and refer to, the
+ * storage. A cache therefore belongs to a single storage instance and is
+ * meant to be held by it, so that both can be garbage collected together.
+ *
+ * @see PreparedStatementImpl
+ */
+public final class ParsedStatementCache {
+
+    // Bound for the number of cached parsed descriptors
+    private static final int MAX_PARSED_STATEMENTS = 1024;
+
+    private final BackingStorage storage;
+    private final int maxSize;
+    private final ConcurrentMap<CacheKey, ParsedStatementImpl<?>> cache = new ConcurrentHashMap<>();
+
+    public ParsedStatementCache(BackingStorage storage) {
+        this(storage, MAX_PARSED_STATEMENTS);
+    }
+
+    ParsedStatementCache(BackingStorage storage, int maxSize) {
+        this.storage = storage;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 
+     * @param desc The descriptor to look up.
+     * @return The cached parsed statement or a newly parsed one.
+     * @throws DescriptorParsingException If the descriptor is not cached and
+     *                                    failed to parse.
+     */
+    <T extends Pojo> ParsedStatementImpl<T> get(StatementDescriptor<T> desc) throws DescriptorParsingException {
+        CacheKey key = new CacheKey(desc);
+        @SuppressWarnings("unchecked")
+        ParsedStatementImpl<T> parsed = (ParsedStatementImpl<T>) cache.get(key);
+        if (parsed != null) {
+            return parsed;
+        }
+        parsed = PreparedStatementImpl.parse(storage, desc);
+        if (cache.size() >= maxSize) {
+            // There are usually far fewer distinct descriptors than maxSize
+            cache.clear();
+        }
+        @SuppressWarnings("unchecked")
+        ParsedStatementImpl<T> existing = (ParsedStatementImpl<T>) cache.putIfAbsent(key, parsed);
+        return existing == null ? parsed : existing;
+    }
+
+    // for testing
+    int size() {
+        return cache.size();
+    }
+
+    /*
+     * Categories are compared by identity, since comparing them by value is
+     * comparatively expensive. DAOs create their categories once, so equal
+     * categories are usually the same instance anyway.
+     */
+    private static class CacheKey {
+
+        private final Category<?> category;
+        private final String desc;
+        private final int hashCode;
+
+        private CacheKey(StatementDescriptor<?> desc) {
+            this.category = desc.getCategory();
+            this.desc = desc.getDescriptor();
+            this.hashCode = 31 * System.identityHashCode(category) + this.desc.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return category == other.category && desc.equals(other.desc);
+        }
+    }
+}
+
@@ -61,6 +61,9 @@ class ParsedStatementImpl<T extends Pojo> implements ParsedStatement<T> {
     private int numParams;
     private SuffixExpression suffixExpn;
     private SetList setList;
+    // Created on first patch. Parsed statements get cached and patched
+    // concurrently, but creating the template twice is harmless.
+    private volatile PatchTemplate template;
 
     ParsedStatementImpl(Statement<T> statement) {
         this.statement = statement;
@@ -85,53 +88,62 @@ class ParsedStatementImpl<T extends Pojo> implements ParsedStatement<T> {
          */
         Statement<T> stmt = statement.getRawDuplicate();
         
-        patchSetList(stmt, params);
-        patchWhere(stmt, params);
-        patchSort(stmt, params);
-        patchLimit(stmt, params);
+        PatchTemplate template = getPatchTemplate();
+        patchSetList(template, stmt, params);
+        patchWhere(template, stmt, params);
+        patchSort(template, stmt, params);
+        patchLimit(template, stmt, params);
         // TODO count actual patches and throw an exception if not all vars
         // have been patched up.
         return stmt;
     }
 
-    private void patchSetList(Statement<T> stmt, PreparedParameter[] params) throws IllegalPatchException {
-        if (setList.getValues().size() == 0) {
+    private PatchTemplate getPatchTemplate() throws IllegalPatchException {
+        PatchTemplate result = template;
+        if (result == null) {
+            result = new PatchTemplate(suffixExpn, setList);
+            template = result;
+        }
+        return result;
+    }
+
+    private void patchSetList(PatchTemplate template, Statement<T> stmt, PreparedParameter[] params) throws IllegalPatchException {
+        // do the patching
+        PatchedSetListMember[] members = template.patchSetList(params);
+        if (members.length == 0) {
             // no set list, nothing to do
             return;
         }
-        // do the patching
-        PatchedSetList patchedSetList = setList.patch(params);
         // set the values
         if (stmt instanceof Add) {
             Add<T> add = (Add<T>)stmt;
-            for (PatchedSetListMember member: patchedSetList.getSetListMembers()) {
+            for (PatchedSetListMember member: members) {
                 add.set(member.getKey().getName(), member.getValue());
             }
         }
         if (stmt instanceof Replace) {
             Replace<T> replace = (Replace<T>)stmt;
-            for (PatchedSetListMember member: patchedSetList.getSetListMembers()) {
+            for (PatchedSetListMember member: members) {
                 replace.set(member.getKey().getName(), member.getValue());
             }
         }
         if (stmt instanceof Update) {
             Update<T> update = (Update<T>)stmt;
-            for (PatchedSetListMember member: patchedSetList.getSetListMembers()) {
+            for (PatchedSetListMember member: members) {
                 update.set(member.getKey().getName(), member.getValue());
             }
         }
     }
 
-    private void patchLimit(Statement<T> stmt, PreparedParameter[] params) throws IllegalPatchException {
-        LimitExpression expn = suffixExpn.getLimitExpn();
-        if (expn == null) {
+    private void patchLimit(PatchTemplate template, Statement<T> stmt, PreparedParameter[] params) throws IllegalPatchException {
+        if (!template.hasLimit()) {
             // no limit expn, nothing to do
             return;
         }
-        PatchedLimitExpression patchedExp = expn.patch(params);
+        int limit = template.patchLimit(params);
         if (stmt instanceof Query) {
             Query<T> query = (Query<T>) stmt;
-            query.limit(patchedExp.getLimitValue());
+            query.limit(limit);
         } else {
             String msg = "Patching 'limit' of non-query types not supported! Class was:"
                     + stmt.getClass().getName();
@@ -140,16 +152,14 @@ class ParsedStatementImpl<T extends Pojo> implements ParsedStatement<T> {
         }
     }
 
-    private void patchSort(Statement<T> stmt, PreparedParameter[] params) throws IllegalPatchException {
-        SortExpression expn = suffixExpn.getSortExpn();
-        if (expn == null) {
+    private void patchSort(PatchTemplate template, Statement<T> stmt, PreparedParameter[] params) throws IllegalPatchException {
+        PatchedSortMember[] members = template.patchSort(params);
+        if (members == null) {
             // no sort expn, nothing to do
             return;
         }
-        PatchedSortExpression patchedExp = expn.patch(params);
         if (stmt instanceof Query) {
             Query<T> query = (Query<T>) stmt;
-            PatchedSortMember[] members = patchedExp.getSortMembers();
             for (int i = 0; i < members.length; i++) {
                 query.sort(members[i].getSortKey(), members[i].getDirection());
             }
@@ -161,16 +171,14 @@ class ParsedStatementImpl<T extends Pojo> implements ParsedStatement<T> {
         }
     }
 
-    private void patchWhere(Statement<T> stmt, PreparedParameter[] params) throws IllegalPatchException {
-        WhereExpression expn = suffixExpn.getWhereExpn();
-        if (expn == null) {
+    private void patchWhere(PatchTemplate template, Statement<T> stmt, PreparedParameter[] params) throws IllegalPatchException {
+        // Only free parameters need to be patched. Constant parts of the
+        // where expression have been patched when creating the template.
+        Expression whereClause = template.patchWhere(params);
+        if (whereClause == null) {
             // no where, nothing to do
             return;
         }
-        // walk the tree, create actual expressions and patch values along
-        // the way.
-        PatchedWhereExpression patchedExp = expn.patch(params);
-        Expression whereClause = patchedExp.getExpression();
         if (stmt instanceof Query) {
             Query<T> query = (Query<T>) stmt;
             query.where(whereClause);
@@ -201,6 +209,7 @@ class ParsedStatementImpl<T extends Pojo> implements ParsedStatement<T> {
 
     void setSuffixExpression(SuffixExpression tree) {
         this.suffixExpn = tree;
+        this.template = null;
     }
 
     SuffixExpression getSuffixExpression() {
@@ -213,6 +222,7 @@ class ParsedStatementImpl<T extends Pojo> implements ParsedStatement<T> {
 
     void setSetList(SetList setList) {
         this.setList = setList;
+        this.template = null;
     }
 
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.internal.statement;
+
+import java.util.List;
+
+import com.redhat.thermostat.storage.core.IllegalPatchException;
+import com.redhat.thermostat.storage.core.Key;
+import com.redhat.thermostat.storage.core.PreparedParameter;
+import com.redhat.thermostat.storage.query.Expression;
+import com.redhat.thermostat.storage.query.LiteralExpression;
+
+/**
+ * Precompiled form of the patchable parts of a {@link ParsedStatementImpl}.
+ * Parts of the parse tree without free parameters are patched once when the
+ * template gets created. Patching then only has to fill in the free
+ * parameters, rather than walking the entire parse tree for every
+ * execution.
+ * 
+ * Instances are immutable and may be shared between threads.
+ *
+ * @see ParsedStatementImpl#patchStatement(PreparedParameter[])
+ */
+final class PatchTemplate {
+
+    // Used for patching parts of the tree without free parameters
+    private static final PreparedParameter[] NO_PARAMS = new PreparedParameter[0];
+
+    private final CompiledExpression where;
+    private final CompiledExpression[] setListKeys;
+    private final CompiledExpression[] setListValues;
+    // Either the patched sort members or, if there are free parameters, the
+    // sort expression to patch.
+    private final PatchedSortMember[] sortMembers;
+    private final SortExpression sortExpn;
+    // Either the patched limit or, if it's a free parameter, the limit
+    // expression to patch.
+    private final int limit;
+    private final LimitExpression limitExpn;
+    private final boolean hasLimit;
+
+    PatchTemplate(SuffixExpression suffixExpn, SetList setList) throws IllegalPatchException {
+        WhereExpression whereExpn = suffixExpn.getWhereExpn();
+        this.where = whereExpn == null ? null : compile((Node) whereExpn.getRoot().getValue());
+
+        List<SetListValue> values = setList.getValues();
+        this.setListKeys = new CompiledExpression[values.size()];
+        this.setListValues = new CompiledExpression[values.size()];
+        for (int i = 0; i < values.size(); i++) {
+            setListKeys[i] = compile(values.get(i).getKey());
+            setListValues[i] = compile(values.get(i).getValue());
+        }
+
+        SortExpression sort = suffixExpn.getSortExpn();
+        if (sort == null || hasFreeParameters(sort)) {
+            this.sortExpn = sort;
+            this.sortMembers = null;
+        } else {
+            this.sortExpn = null;
+            this.sortMembers = sort.patch(NO_PARAMS).getSortMembers();
+        }
+
+        LimitExpression limitExpression = suffixExpn.getLimitExpn();
+        this.hasLimit = limitExpression != null;
+        if (limitExpression == null || limitExpression.getValue() instanceof Unfinished) {
+            this.limitExpn = limitExpression;
+            this.limit = 0;
+        } else {
+            this.limitExpn = null;
+            this.limit = limitExpression.patch(NO_PARAMS).getLimitValue();
+        }
+    }
+
+    /**
+     * @return The patched where clause or {@code null} if there is none.
+     */
+    Expression patchWhere(PreparedParameter[] params) throws IllegalPatchException {
+        if (where == null) {
+            return null;
+        }
+        return where.patch(params);
+    }
+
+    /**
+     * @return The patched set list members. Empty if there is no set list.
+     */
+    PatchedSetListMember[] patchSetList(PreparedParameter[] params) throws IllegalPatchException {
+        PatchedSetListMember[] members = new PatchedSetListMember[setListKeys.length];
+        for (int i = 0; i < members.length; i++) {
+            Key<?> key = (Key<?>) getLiteralValue(setListKeys[i].patch(params));
+            Object value = getLiteralValue(setListValues[i].patch(params));
+            members[i] = new PatchedSetListMember(key, value);
+        }
+        return members;
+    }
+
+    /**
+     * @return The patched sort members or {@code null} if there is no sort
+     *         expression.
+     */
+    PatchedSortMember[] patchSort(PreparedParameter[] params) throws IllegalPatchException {
+        if (sortExpn != null) {
+            return sortExpn.patch(params).getSortMembers();
+        }
+        return sortMembers;
+    }
+
+    boolean hasLimit() {
+        return hasLimit;
+    }
+
+    int patchLimit(PreparedParameter[] params) throws IllegalPatchException {
+        if (limitExpn != null) {
+            return limitExpn.patch(params).getLimitValue();
+        }
+        return limit;
+    }
+
+    private static Object getLiteralValue(Expression expression) {
+        return ((LiteralExpression<?>) expression).getValue();
+    }
+
+    private static CompiledExpression compile(Node node) throws IllegalPatchException {
+        if (!hasFreeParameters(node)) {
+            // Patching nodes without free parameters always yields the
+            // same expression. This also reports malformed nodes early.
+            return new ConstantExpression(node.patch(NO_PARAMS).getExpression());
+        }
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            if (binary.getLeftChild() == null || binary.getRightChild() == null || binary.getOperator() == null) {
+                // Let the node report the problem when patching
+                return new TreeExpression(node);
+            }
+            return new BinaryExpression(binary, compile(binary.getLeftChild()), compile(binary.getRightChild()));
+        }
+        if (node instanceof NotBooleanExpressionNode) {
+            NotBooleanExpressionNode not = (NotBooleanExpressionNode) node;
+            return new NotExpression(not, compile((Node) not.getValue()));
+        }
+        if (node instanceof TerminalNode) {
+            return new TreeExpression(node);
+        }
+        // Plain nodes only wrap their value
+        return compile((Node) node.getValue());
+    }
+
+    private static boolean hasFreeParameters(Node node) {
+        if (node == null) {
+            return false;
+        }
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            return hasFreeParameters(binary.getLeftChild()) || hasFreeParameters(binary.getRightChild());
+        }
+        Object value = node.getValue();
+        if (node instanceof TerminalNode) {
+            return value instanceof Unfinished;
+        }
+        return value instanceof Node && hasFreeParameters((Node) value);
+    }
+
+    private static boolean hasFreeParameters(SortExpression sort) {
+        for (SortMember member : sort.getMembers()) {
+            if (member.getSortKey() instanceof Unfinished) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private interface CompiledExpression {
+
+        Expression patch(PreparedParameter[] params) throws IllegalPatchException;
+    }
+
+    private static class ConstantExpression implements CompiledExpression {
+
+        private final Expression expression;
+
+        private ConstantExpression(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public Expression patch(PreparedParameter[] params) {
+            return expression;
+        }
+    }
+
+    // Patches a part of the tree as is. Used for free parameters.
+    private static class TreeExpression implements CompiledExpression {
+
+        private final Node node;
+
+        private TreeExpression(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public Expression patch(PreparedParameter[] params) throws IllegalPatchException {
+            return node.patch(params).getExpression();
+        }
+    }
+
+    private static class BinaryExpression implements CompiledExpression {
+
+        private final BinaryExpressionNode node;
+        private final CompiledExpression left;
+        private final CompiledExpression right;
+
+        private BinaryExpression(BinaryExpressionNode node, CompiledExpression left, CompiledExpression right) {
+            this.node = node;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Expression patch(PreparedParameter[] params) throws IllegalPatchException {
+            return node.createExpression(left.patch(params), right.patch(params));
+        }
+    }
+
+    private static class NotExpression implements CompiledExpression {
+
+        private final NotBooleanExpressionNode node;
+        private final CompiledExpression operand;
+
+        private NotExpression(NotBooleanExpressionNode node, CompiledExpression operand) {
+            this.node = node;
+            this.operand = operand;
+        }
+
+        @Override
+        public Expression patch(PreparedParameter[] params) throws IllegalPatchException {
+            return node.createExpression(operand.patch(params));
+        }
+    }
+}
+
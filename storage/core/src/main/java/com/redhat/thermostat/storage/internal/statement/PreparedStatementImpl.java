@@ -64,9 +64,16 @@ final public class PreparedStatementImpl<T extends Pojo> implements PreparedStat
     private final ParsedStatementImpl<T> parsedStatement;
     
     public PreparedStatementImpl(BackingStorage storage, StatementDescriptor<T> desc) throws DescriptorParsingException {
+        this(desc, parse(storage, desc));
+    }
+    
+    public PreparedStatementImpl(ParsedStatementCache parsedStatements, StatementDescriptor<T> desc) throws DescriptorParsingException {
+        this(desc, parsedStatements.get(desc));
+    }
+    
+    PreparedStatementImpl(StatementDescriptor<T> desc, ParsedStatementImpl<T> parsedStatement) {
         this.desc = desc;
-        StatementDescriptorParser<T> parser = new SemanticsEnabledDescriptorParser<>(storage, desc);
-        this.parsedStatement = (ParsedStatementImpl<T>)parser.parse();
+        this.parsedStatement = parsedStatement;
         int numParams = parsedStatement.getNumParams();
         params = new PreparedParameters(numParams);
         Statement<T> statement = parsedStatement.getRawStatement();
@@ -77,6 +84,11 @@ final public class PreparedStatementImpl<T extends Pojo> implements PreparedStat
         }
     }
     
+    static <T extends Pojo> ParsedStatementImpl<T> parse(BackingStorage storage, StatementDescriptor<T> desc) throws DescriptorParsingException {
+        StatementDescriptorParser<T> parser = new SemanticsEnabledDescriptorParser<>(storage, desc);
+        return (ParsedStatementImpl<T>) parser.parse();
+    }
+    
     // used for testing ParsedStatements
     PreparedStatementImpl(int numParams) {
         params = new PreparedParameters(numParams);
@@ -161,9 +173,6 @@ final public class PreparedStatementImpl<T extends Pojo> implements PreparedStat
                             + Query.class.getName());
         }
         try {
-            // FIXME: I'm sure we can improve on this. We should avoid walking the
-            // tree each time. Some cache with unfinished nodes and a reference
-            // to the matching expression should be sufficient.
             query = (Query<T>)parsedStatement.patchStatement(params.getParams());
         } catch (IllegalPatchException e) {
             throw new StatementExecutionException(e);
@@ -128,6 +128,12 @@ class SemanticsEnabledDescriptorParser<T extends Pojo> extends
                     // distinct queries must have a known key
                     performKeyParamChecks(aggQuery);
                     break;
+                case BUCKETED:
+                    // bucketed queries must have a known key and a limit
+                    // for the number of buckets
+                    performKeyParamChecks(aggQuery);
+                    performBucketedChecks();
+                    break;
                 default:
                     throw new IllegalStateException("Unknown aggregate function: " + aggQuery.getAggregateFunction());
                 }
@@ -142,6 +148,20 @@ class SemanticsEnabledDescriptorParser<T extends Pojo> extends
         }
     }
 
+    private void performBucketedChecks() throws DescriptorParsingException {
+        if (desc.getCategory().getKey(Key.TIMESTAMP.getName()) == null) {
+            throw new DescriptorParsingException("QUERY-BUCKETED requires category '"
+                    + desc.getCategory().getName() + "' to have a '" + Key.TIMESTAMP.getName() + "' key");
+        }
+        if (this.tree.getLimitExpn() == null) {
+            throw new DescriptorParsingException("LIMIT required for QUERY-BUCKETED");
+        }
+        if (this.tree.getSortExpn() != null) {
+            // results are always in ascending bucket order
+            throw new DescriptorParsingException("SORT not allowed for QUERY-BUCKETED");
+        }
+    }
+
     private void performKeyParamChecksAllowNull(AggregateQuery<T> aggQuery) throws DescriptorParsingException {
         if (aggQuery.getAggregateKey() != null) {
             performKeyParamChecks(aggQuery);
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.model;
+
+import com.redhat.thermostat.storage.core.Cursor;
+import com.redhat.thermostat.storage.core.Entity;
+import com.redhat.thermostat.storage.core.Key;
+import com.redhat.thermostat.storage.core.Persist;
+
+/**
+ * Model class for aggregated query results which downsample the values
+ * of a numeric key into time buckets. Element {@code i} of each array
+ * describes the bucket starting at {@code getTimeStamps()[i]}. Buckets
+ * without any samples are omitted.
+ *
+ * @see com.redhat.thermostat.storage.core.AggregateQuery.AggregateFunction#BUCKETED
+ */
+@Entity
+public class BucketedResult implements AggregateResult {
+
+    private Key<?> key;
+    private long bucketSize;
+    private long[] timeStamps = new long[0];
+    private long[] counts = new long[0];
+    private double[] minimums = new double[0];
+    private double[] maximums = new double[0];
+    private double[] averages = new double[0];
+    private double[] lasts = new double[0];
+
+    /**
+     * @return The key the values of which have been aggregated.
+     */
+    @Persist
+    public Key<?> getKey() {
+        return key;
+    }
+
+    @Persist
+    public void setKey(Key<?> key) {
+        this.key = key;
+    }
+
+    /**
+     * @return The width of each bucket in milliseconds.
+     */
+    @Persist
+    public long getBucketSize() {
+        return bucketSize;
+    }
+
+    @Persist
+    public void setBucketSize(long bucketSize) {
+        this.bucketSize = bucketSize;
+    }
+
+    /**
+     * @return The start time stamp of each bucket in ascending order.
+     */
+    @Persist
+    public long[] getTimeStamps() {
+        return timeStamps;
+    }
+
+    @Persist
+    public void setTimeStamps(long[] timeStamps) {
+        this.timeStamps = timeStamps;
+    }
+
+    /**
+     * @return The number of samples in each bucket.
+     */
+    @Persist
+    public long[] getCounts() {
+        return counts;
+    }
+
+    @Persist
+    public void setCounts(long[] counts) {
+        this.counts = counts;
+    }
+
+    @Persist
+    public double[] getMinimums() {
+        return minimums;
+    }
+
+    @Persist
+    public void setMinimums(double[] minimums) {
+        this.minimums = minimums;
+    }
+
+    @Persist
+    public double[] getMaximums() {
+        return maximums;
+    }
+
+    @Persist
+    public void setMaximums(double[] maximums) {
+        this.maximums = maximums;
+    }
+
+    @Persist
+    public double[] getAverages() {
+        return averages;
+    }
+
+    @Persist
+    public void setAverages(double[] averages) {
+        this.averages = averages;
+    }
+
+    /**
+     * @return The value of the most recent sample in each bucket.
+     */
+    @Persist
+    public double[] getLasts() {
+        return lasts;
+    }
+
+    @Persist
+    public void setLasts(double[] lasts) {
+        this.lasts = lasts;
+    }
+
+    /**
+     * @return The number of buckets in this result.
+     */
+    public int size() {
+        return timeStamps.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Pojo> Cursor<T> getCursor() {
+        return (Cursor<T>) new AggregateCursor<>(this);
+    }
+
+}
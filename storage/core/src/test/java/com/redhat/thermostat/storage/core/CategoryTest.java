@@ -44,10 +44,13 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -177,6 +180,24 @@ public class CategoryTest {
         }
     }
     
+    @Test
+    public void testRetentionPolicy() {
+        Category<TestObj> noRetention = new Category<>("testNoRetention", TestObj.class, Key.TIMESTAMP);
+        assertNull(noRetention.getRetentionPolicy());
+
+        DataRetentionPolicy policy = new DataRetentionPolicy(1, TimeUnit.DAYS);
+        Category<TestObj> category = new Category<>("testRetentionPolicy", TestObj.class,
+                Arrays.<Key<?>>asList(Key.AGENT_ID, Key.TIMESTAMP), Arrays.<Key<?>>asList(Key.TIMESTAMP), policy);
+        assertEquals(policy, category.getRetentionPolicy());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRetentionPolicyRequiresTimeStamp() {
+        new Category<>("testRetentionPolicyRequiresTimeStamp", TestObj.class,
+                Arrays.<Key<?>>asList(Key.AGENT_ID), Collections.<Key<?>>emptyList(),
+                new DataRetentionPolicy(1, TimeUnit.DAYS));
+    }
+
     @Test
     public void getKeyByNameNull() {
         Category<TestObj> cat = new Category<>();
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.redhat.thermostat.storage.core.SaveFileListener.EventType;
+
+public class ChunkedFilesTest {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private Map<String, byte[]> files;
+    private Map<String, Integer> failuresLeft;
+    private Storage storage;
+    private ChunkedFiles chunkedFiles;
+
+    @Before
+    public void setUp() {
+        files = new HashMap<>();
+        failuresLeft = new HashMap<>();
+        storage = mock(Storage.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                String name = (String) invocation.getArguments()[0];
+                InputStream data = (InputStream) invocation.getArguments()[1];
+                SaveFileListener listener = (SaveFileListener) invocation.getArguments()[2];
+                Integer failures = failuresLeft.get(name);
+                if (failures != null && failures > 0) {
+                    failuresLeft.put(name, failures - 1);
+                    listener.notify(EventType.EXCEPTION_OCCURRED, new StorageException("failed"));
+                    return null;
+                }
+                files.put(name, readAll(data));
+                listener.notify(EventType.SAVE_COMPLETE, null);
+                return null;
+            }
+        }).when(storage).saveFile(anyString(), any(InputStream.class), any(SaveFileListener.class));
+        when(storage.loadFile(anyString())).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                byte[] data = files.get(invocation.getArguments()[0]);
+                return data == null ? null : new ByteArrayInputStream(data);
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                files.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(storage).deleteFile(anyString());
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        chunkedFiles = new ChunkedFiles(storage, CHUNK_SIZE, 2, 3, 0, directExecutor);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        byte[] data = compressibleData(10 * CHUNK_SIZE + 17);
+
+        RecordingListener listener = save("test-file", data);
+
+        assertEquals(EventType.SAVE_COMPLETE, listener.type);
+        // 11 chunks and the index
+        assertEquals(12, files.size());
+        assertTrue(files.get(ChunkedFiles.getChunkName("test-file", 0)).length < CHUNK_SIZE / 2);
+        assertArrayEquals(data, readAll(chunkedFiles.loadFile("test-file")));
+    }
+
+    @Test
+    public void testSaveAndLoadEmptyFile() throws IOException {
+        RecordingListener listener = save("empty", new byte[0]);
+
+        assertEquals(EventType.SAVE_COMPLETE, listener.type);
+        assertEquals(1, files.size());
+        assertArrayEquals(new byte[0], readAll(chunkedFiles.loadFile("empty")));
+    }
+
+    @Test
+    public void testFailedChunksAreRetried() throws IOException {
+        byte[] data = compressibleData(3 * CHUNK_SIZE);
+        failuresLeft.put(ChunkedFiles.getChunkName("test-file", 1), 2);
+        failuresLeft.put("test-file", 1);
+
+        RecordingListener listener = save("test-file", data);
+
+        assertEquals(EventType.SAVE_COMPLETE, listener.type);
+        assertArrayEquals(data, readAll(chunkedFiles.loadFile("test-file")));
+    }
+
+    @Test
+    public void testSaveFailsAfterMaxAttempts() {
+        failuresLeft.put(ChunkedFiles.getChunkName("test-file", 1), 3);
+
+        RecordingListener listener = save("test-file", compressibleData(3 * CHUNK_SIZE));
+
+        assertEquals(EventType.EXCEPTION_OCCURRED, listener.type);
+        assertTrue(listener.argument instanceof StorageException);
+        // an incomplete file is never visible
+        assertNull(chunkedFiles.loadFile("test-file"));
+        // and its chunks are deleted again
+        assertTrue(files.isEmpty());
+        verify(storage).deleteFile(ChunkedFiles.getChunkName("test-file", 0));
+    }
+
+    @Test
+    public void testFailedIndexDeletesChunks() {
+        failuresLeft.put("test-file", 3);
+
+        RecordingListener listener = save("test-file", compressibleData(3 * CHUNK_SIZE));
+
+        assertEquals(EventType.EXCEPTION_OCCURRED, listener.type);
+        assertTrue(files.isEmpty());
+    }
+
+    @Test
+    public void testChunkedFileName() {
+        assertEquals("test-file", ChunkedFiles.getChunkedFileName(ChunkedFiles.getChunkName("test-file", 0)));
+        assertEquals("test-file", ChunkedFiles.getChunkedFileName(ChunkedFiles.getChunkName("test-file", 123)));
+        assertEquals("test-file", ChunkedFiles.getChunkedFileName("test-file"));
+        assertEquals("test-file.chunk-", ChunkedFiles.getChunkedFileName("test-file.chunk-"));
+        assertEquals("test-file.chunk-1a", ChunkedFiles.getChunkedFileName("test-file.chunk-1a"));
+        assertEquals(".chunk-1", ChunkedFiles.getChunkedFileName(".chunk-1"));
+    }
+
+    @Test
+    public void testLoadFileSavedWithoutChunks() throws IOException {
+        files.put("plain", new byte[] { 1, 2, 3 });
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, readAll(chunkedFiles.loadFile("plain")));
+    }
+
+    @Test
+    public void testLoadMissingFile() {
+        assertNull(chunkedFiles.loadFile("missing"));
+    }
+
+    @Test
+    public void testCorruptChunkIsDetected() {
+        save("test-file", compressibleData(2 * CHUNK_SIZE));
+        byte[] chunk = files.get(ChunkedFiles.getChunkName("test-file", 1));
+        chunk[chunk.length - 1] ^= 0xff;
+
+        try {
+            readAll(chunkedFiles.loadFile("test-file"));
+            fail("corrupt chunk not detected");
+        } catch (IOException expected) {
+            // pass
+        }
+    }
+
+    @Test
+    public void testMissingChunkIsDetected() {
+        save("test-file", compressibleData(2 * CHUNK_SIZE));
+        files.remove(ChunkedFiles.getChunkName("test-file", 1));
+
+        try {
+            readAll(chunkedFiles.loadFile("test-file"));
+            fail("missing chunk not detected");
+        } catch (IOException expected) {
+            // pass
+        }
+    }
+
+    private RecordingListener save(String name, byte[] data) {
+        RecordingListener listener = new RecordingListener();
+        chunkedFiles.saveFile(name, new ByteArrayInputStream(data), listener);
+        return listener;
+    }
+
+    private static byte[] compressibleData(int length) {
+        byte[] data = new byte[length];
+        Random random = new Random(1);
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) random.nextInt(4);
+        }
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static class RecordingListener implements SaveFileListener {
+        EventType type;
+        Object argument;
+
+        @Override
+        public void notify(EventType type, Object argument) {
+            this.type = type;
+            this.argument = argument;
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DataRetentionPolicyTest {
+
+    private static final long NOW = TimeUnit.DAYS.toMillis(1000);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @Test
+    public void testRetentionTimes() {
+        DataRetentionPolicy policy = new DataRetentionPolicy(1, 7, 0, TimeUnit.DAYS);
+        assertEquals(DAY, policy.getRawDataRetention());
+        assertEquals(7 * DAY, policy.getRollupRetention(RollupResolution.MINUTE));
+        assertEquals(0, policy.getRollupRetention(RollupResolution.HOUR));
+        assertEquals(Arrays.asList(RollupResolution.MINUTE), policy.getRollupResolutions());
+    }
+
+    @Test
+    public void testNoRollups() {
+        DataRetentionPolicy policy = new DataRetentionPolicy(3, TimeUnit.HOURS);
+        assertEquals(3 * HOUR, policy.getRawDataRetention());
+        assertTrue(policy.getRollupResolutions().isEmpty());
+        // only raw samples exist, even if they don't reach back far enough
+        assertNull(policy.selectResolution(NOW - 30 * DAY, NOW, NOW));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRawRetentionMustBePositive() {
+        new DataRetentionPolicy(0, TimeUnit.DAYS);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRollupRetentionMustNotBeNegative() {
+        new DataRetentionPolicy(1, -1, 0, TimeUnit.DAYS);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRawRetentionMustCoverRollupBuckets() {
+        new DataRetentionPolicy(1, 0, 30, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void testSelectResolution() {
+        DataRetentionPolicy policy = new DataRetentionPolicy(1, 30, 365, TimeUnit.DAYS);
+
+        // recent, short intervals use raw samples
+        assertNull(policy.selectResolution(NOW - HOUR, NOW, NOW));
+        assertNull(policy.selectResolution(NOW - 6 * HOUR, NOW, NOW));
+        // longer intervals use minute rollups
+        assertEquals(RollupResolution.MINUTE, policy.selectResolution(NOW - 12 * HOUR, NOW, NOW));
+        assertEquals(RollupResolution.MINUTE, policy.selectResolution(NOW - 7 * DAY, NOW, NOW));
+        // as do short intervals of which there are no raw samples anymore
+        assertEquals(RollupResolution.MINUTE, policy.selectResolution(NOW - 2 * DAY, NOW - 2 * DAY + HOUR, NOW));
+        // long intervals use hour rollups
+        assertEquals(RollupResolution.HOUR, policy.selectResolution(NOW - 8 * DAY, NOW, NOW));
+        // as do intervals of which there are no minute rollups anymore
+        assertEquals(RollupResolution.HOUR, policy.selectResolution(NOW - 60 * DAY, NOW - 60 * DAY + HOUR, NOW));
+        // past all retention the coarsest resolution is used
+        assertEquals(RollupResolution.HOUR, policy.selectResolution(NOW - 400 * DAY, NOW, NOW));
+    }
+
+    @Test
+    public void testSelectResolutionMinuteRollupsOnly() {
+        DataRetentionPolicy policy = new DataRetentionPolicy(1, 30, 0, TimeUnit.DAYS);
+        assertNull(policy.selectResolution(NOW - HOUR, NOW, NOW));
+        assertEquals(RollupResolution.MINUTE, policy.selectResolution(NOW - 20 * DAY, NOW, NOW));
+    }
+
+    @Test
+    public void testEquals() {
+        DataRetentionPolicy policy = new DataRetentionPolicy(1, 30, 365, TimeUnit.DAYS);
+        assertEquals(policy, new DataRetentionPolicy(24, 30 * 24, 365 * 24, TimeUnit.HOURS));
+        assertEquals(policy.hashCode(), new DataRetentionPolicy(24, 30 * 24, 365 * 24, TimeUnit.HOURS).hashCode());
+        assertTrue(!policy.equals(new DataRetentionPolicy(1, TimeUnit.DAYS)));
+    }
+}
@@ -51,6 +51,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -58,6 +59,7 @@ import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -70,12 +72,14 @@ import java.util.concurrent.TimeoutException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import com.redhat.thermostat.common.Constants;
 import com.redhat.thermostat.storage.core.QueuedStorage.QueuedParsedStatement;
 import com.redhat.thermostat.storage.core.QueuedStorage.QueuedPreparedStatement;
 import com.redhat.thermostat.storage.core.QueuedStorage.QueuedWrite;
+import com.redhat.thermostat.storage.internal.BatchSettingsRetriever;
 import com.redhat.thermostat.storage.model.Pojo;
 
 
@@ -457,6 +461,99 @@ public class QueuedStorageTest {
         verifyNoMoreInteractions(mockQuery);
     }
     
+    /*
+     * With batching enabled and backing storage used directly, adds get
+     * patched on the executor and handed off to the batcher rather than being
+     * executed one by one.
+     */
+    @Test
+    public void testBatchedExecuteBackingNoProxy() throws DescriptorParsingException, StatementExecutionException, IllegalPatchException {
+        System.setProperty(Constants.IS_PROXIED_STORAGE, Boolean.FALSE.toString());
+        delegateStorage = mock(BackingStorage.class);
+        queuedStorage = new QueuedStorage(delegateStorage, executor, fileExecutor, null, batchSettings(2));
+        assertNotNull(queuedStorage.getBatcher());
+        
+        @SuppressWarnings("unchecked")
+        PreparedStatement<Pojo> statement = (PreparedStatement<Pojo>)mock(PreparedStatement.class);
+        when(delegateStorage.prepareStatement(anyStatementDescriptor())).thenReturn(statement);
+        @SuppressWarnings("unchecked")
+        ParsedStatement<Pojo> mockParsedStatement = (ParsedStatement<Pojo>)mock(ParsedStatement.class);
+        when(mockParsedStatement.getNumParams()).thenReturn(1);
+        when(statement.getParsedStatement()).thenReturn(mockParsedStatement);
+        @SuppressWarnings("unchecked")
+        BatchableAdd<Pojo> mockAdd = (BatchableAdd<Pojo>)mock(BatchableAdd.class);
+        Mockito.doReturn(TEST_CATEGORY).when(mockAdd).getCategory();
+        when(mockParsedStatement.patchStatement(any(PreparedParameter[].class))).thenReturn(mockAdd);
+        
+        StatementDescriptor<FooPojo> desc = new StatementDescriptor<>(TEST_CATEGORY, "ADD foo-table SET 'agentId' = ?s");
+        PreparedStatement<FooPojo> decorated = queuedStorage.prepareStatement(desc);
+        decorated.setString(0, "foo-agent");
+        decorated.execute();
+        assertNotNull(executor.getTask());
+        executor.getTask().run();
+        
+        verify(statement).setString(0, "foo-agent");
+        verify(statement, never()).execute();
+        ArgumentCaptor<PreparedParameter[]> params = ArgumentCaptor.forClass(PreparedParameter[].class);
+        verify(mockParsedStatement).patchStatement(params.capture());
+        assertEquals(1, params.getValue().length);
+        assertEquals("foo-agent", params.getValue()[0].getValue());
+        verify(mockAdd, never()).apply();
+        
+        // pending adds get written on shutdown
+        queuedStorage.shutdown();
+        verify(mockAdd).applyBatch(Arrays.<BatchableAdd<Pojo>>asList(mockAdd));
+    }
+    
+    /*
+     * For backing storage with a proxy in front, queued adds go to the
+     * batcher when the patched statement gets applied.
+     */
+    @Test
+    public void testBatchedApplyBackingProxied() throws DescriptorParsingException, IllegalPatchException {
+        System.setProperty(Constants.IS_PROXIED_STORAGE, Boolean.TRUE.toString());
+        queuedStorage = new QueuedStorage(delegateStorage, executor, fileExecutor, null, batchSettings(2));
+        
+        @SuppressWarnings("unchecked")
+        PreparedStatement<Pojo> statement = (PreparedStatement<Pojo>)mock(PreparedStatement.class);
+        when(delegateStorage.prepareStatement(anyStatementDescriptor())).thenReturn(statement);
+        @SuppressWarnings("unchecked")
+        ParsedStatement<Pojo> mockParsedStatement = (ParsedStatement<Pojo>)mock(ParsedStatement.class);
+        when(statement.getParsedStatement()).thenReturn(mockParsedStatement);
+        @SuppressWarnings("unchecked")
+        BatchableAdd<Pojo> mockAdd = (BatchableAdd<Pojo>)mock(BatchableAdd.class);
+        Mockito.doReturn(TEST_CATEGORY).when(mockAdd).getCategory();
+        when(mockParsedStatement.patchStatement(any(PreparedParameter[].class))).thenReturn(mockAdd);
+        
+        StatementDescriptor<FooPojo> desc = new StatementDescriptor<>(TEST_CATEGORY, "ADD foo-table SET 'agentId' = ?s");
+        ParsedStatement<FooPojo> parsed = queuedStorage.prepareStatement(desc).getParsedStatement();
+        Statement<FooPojo> patched = parsed.patchStatement(new PreparedParameter[]{});
+        assertTrue(patched instanceof QueuedWrite);
+        ((QueuedWrite<FooPojo>)patched).apply();
+        assertNull("adds should get batched", executor.getTask());
+        
+        // second add reaches the batch size and schedules a bulk write
+        ((QueuedWrite<FooPojo>)parsed.patchStatement(new PreparedParameter[]{})).apply();
+        assertNotNull(executor.getTask());
+        executor.getTask().run();
+        verify(mockAdd).applyBatch(Arrays.<BatchableAdd<Pojo>>asList(mockAdd, mockAdd));
+        verify(mockAdd, never()).apply();
+        queuedStorage.getBatcher().shutdown();
+    }
+    
+    private BatchSettingsRetriever batchSettings(int batchSize) {
+        BatchSettingsRetriever settings = mock(BatchSettingsRetriever.class);
+        when(settings.getBatchSize()).thenReturn(batchSize);
+        when(settings.getMaxLatencyMillis()).thenReturn(60000L);
+        when(settings.getQueueCapacity(batchSize)).thenReturn(batchSize * 10);
+        return settings;
+    }
+    
+    @Test
+    public void testBatchingDisabledByDefault() {
+        assertNull(queuedStorage.getBatcher());
+    }
+    
     /*
      * QueuedStorage decorates PreparedStatement, which may throw a
      * StatementExecution exception on stmt.execute(). All the decorator can do
@@ -614,6 +711,12 @@ public class QueuedStorageTest {
             throw new AssertionError();
         }
 
+        @Override
+        public void deleteFile(String filename) {
+            // not implemented
+            throw new AssertionError();
+        }
+
         @Override
         public void shutdown() {
             shutDownTime = System.currentTimeMillis();
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.redhat.thermostat.storage.model.Pojo;
+
+public class RollupResolutionTest {
+
+    private static final Key<Double> VALUE = new Key<>("value");
+    private static final Category<TestPojo> cat = new Category<>("rollup-resolution-category", TestPojo.class,
+            Arrays.<Key<?>>asList(Key.AGENT_ID, Key.TIMESTAMP, VALUE), Arrays.<Key<?>>asList(Key.TIMESTAMP),
+            new DataRetentionPolicy(1, 7, 30, TimeUnit.DAYS));
+
+    @Test
+    public void testBuckets() {
+        assertEquals(60_000L, RollupResolution.MINUTE.getBucketSize());
+        assertEquals(3_600_000L, RollupResolution.HOUR.getBucketSize());
+        assertEquals(120_000L, RollupResolution.MINUTE.getBucketStart(179_999L));
+        assertEquals(3_600_000L, RollupResolution.HOUR.getBucketStart(3_600_000L));
+    }
+
+    @Test
+    public void testCategoryNames() {
+        assertEquals("foo-rollup-1m", RollupResolution.MINUTE.getCategoryName("foo"));
+        assertEquals("foo-rollup-1h", RollupResolution.HOUR.getCategoryName("foo"));
+        assertEquals(RollupResolution.MINUTE, RollupResolution.fromCategoryName("foo-rollup-1m"));
+        assertEquals(RollupResolution.HOUR, RollupResolution.fromCategoryName("foo-rollup-1h"));
+        assertNull(RollupResolution.fromCategoryName("foo"));
+    }
+
+    @Test
+    public void testGetCategory() {
+        Category<TestPojo> rollups = RollupResolution.MINUTE.getCategory(cat);
+        assertEquals("rollup-resolution-category-rollup-1m", rollups.getName());
+        assertEquals(TestPojo.class, rollups.getDataClass());
+        assertEquals(cat.getIndexedKeys(), rollups.getIndexedKeys());
+        assertEquals(3, rollups.getKeys().size());
+        assertSame(VALUE, rollups.getKey(VALUE.getName()));
+        // rollups are not rolled up themselves
+        assertNull(rollups.getRetentionPolicy());
+        assertSame(Categories.getByName(rollups.getName()), rollups);
+        // the category is created once
+        assertSame(rollups, RollupResolution.MINUTE.getCategory(cat));
+    }
+
+    private static class TestPojo implements Pojo {
+        // Dummy class for testing.
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.redhat.thermostat.common.Clock;
+import com.redhat.thermostat.storage.model.BucketedResult;
+import com.redhat.thermostat.storage.model.Pojo;
+import com.redhat.thermostat.storage.model.TimeStampedPojo;
+
+public class VmBucketedPojoGetterTest {
+
+    private static final String AGENT_ID = "agentid";
+    private static final String VM_ID = "vmId";
+    private static final String CATEGORY_NAME = "vm-bucketed-category";
+    private static final Key<Double> VALUE_KEY = new Key<>("value");
+    // Make this one static so we don't get IllegalStateException from trying
+    // to make category of same name while running tests in same classloader.
+    private static final Category<TestPojo> cat = new Category<>(CATEGORY_NAME, TestPojo.class,
+            Key.AGENT_ID, Key.VM_ID, Key.TIMESTAMP, VALUE_KEY);
+    private static final Category<TestPojo> retainedCat = new Category<>("vm-bucketed-retained", TestPojo.class,
+            Arrays.<Key<?>>asList(Key.AGENT_ID, Key.VM_ID, Key.TIMESTAMP, VALUE_KEY), Arrays.<Key<?>>asList(Key.TIMESTAMP),
+            new DataRetentionPolicy(1, 30, 365, TimeUnit.DAYS));
+
+    private AgentId agentId;
+    private VmId vmId;
+
+    @Before
+    public void setUp() {
+        agentId = new AgentId(AGENT_ID);
+        vmId = new VmId(VM_ID);
+    }
+
+    @Test
+    public void verifyQueryDescriptorFormat() {
+        String expected = "QUERY-BUCKETED(%s) %s WHERE 'agentId' = ?s AND " +
+                "'vmId' = ?s AND 'timeStamp' >= ?l AND 'timeStamp' < ?l LIMIT ?i";
+        assertEquals(expected, VmBucketedPojoGetter.VM_BUCKETED_QUERY_FORMAT);
+    }
+
+    @Test
+    public void verifyQueryDescriptorIsSane() {
+        Storage storage = mock(Storage.class);
+        VmBucketedPojoGetter<TestPojo> getter = new VmBucketedPojoGetter<>(storage, cat, VALUE_KEY);
+        String expected = "QUERY-BUCKETED(value) vm-bucketed-category WHERE 'agentId' = ?s AND " +
+                "'vmId' = ?s AND 'timeStamp' >= ?l AND 'timeStamp' < ?l LIMIT ?i";
+        assertEquals(expected, getter.getQueryDesc());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGetBuckets() throws DescriptorParsingException, StatementExecutionException {
+        BucketedResult result = new BucketedResult();
+        result.setTimeStamps(new long[] { 100, 200 });
+        Cursor<BucketedResult> cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenReturn(true).thenReturn(false);
+        when(cursor.next()).thenReturn(result).thenReturn(null);
+
+        PreparedStatement<BucketedResult> query = (PreparedStatement<BucketedResult>) mock(PreparedStatement.class);
+        when(query.executeQuery()).thenReturn(cursor);
+
+        Storage storage = mock(Storage.class);
+        ArgumentCaptor<StatementDescriptor> descCaptor = ArgumentCaptor.forClass(StatementDescriptor.class);
+        when(storage.prepareStatement(descCaptor.capture())).thenReturn(query);
+
+        VmBucketedPojoGetter<TestPojo> getter = new VmBucketedPojoGetter<>(storage, cat, VALUE_KEY);
+        BucketedResult actual = getter.getBuckets(agentId, vmId, 100, 300, 640);
+
+        assertSame(result, actual);
+        StatementDescriptor<BucketedResult> desc = descCaptor.getValue();
+        assertEquals(BucketedResult.class, desc.getCategory().getDataClass());
+        assertEquals(CATEGORY_NAME, desc.getCategory().getName());
+        verify(query).setString(0, AGENT_ID);
+        verify(query).setString(1, VM_ID);
+        verify(query).setLong(2, 100);
+        verify(query).setLong(3, 300);
+        verify(query).setInt(4, 640);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGetBucketsQueryFailed() throws DescriptorParsingException, StatementExecutionException {
+        Storage storage = mock(Storage.class);
+        when(storage.prepareStatement(any(StatementDescriptor.class))).thenThrow(new DescriptorParsingException("test"));
+
+        VmBucketedPojoGetter<TestPojo> getter = new VmBucketedPojoGetter<>(storage, cat, VALUE_KEY);
+        BucketedResult actual = getter.getBuckets(agentId, vmId, 100, 300, 640);
+
+        assertEquals(0, actual.size());
+        assertEquals(VALUE_KEY, actual.getKey());
+    }
+
+    @Test
+    public void testGetBucketsStitchesRollupsAndRawSamplesAtWatermark() throws DescriptorParsingException, StatementExecutionException {
+        long now = TimeUnit.DAYS.toMillis(1000);
+        long day = TimeUnit.DAYS.toMillis(1);
+        long hour = TimeUnit.HOURS.toMillis(1);
+        long watermark = now - day;
+        Clock clock = mock(Clock.class);
+        when(clock.getRealTimeMillis()).thenReturn(now);
+        Category<TestPojo> hours = RollupResolution.HOUR.getCategory(retainedCat);
+        TestPojo newestRollup = mock(TestPojo.class);
+        when(newestRollup.getTimeStamp()).thenReturn(watermark - hour);
+        BucketedResult rollups = bucketAt(watermark - hour, hour, 1.0);
+        BucketedResult raw = bucketAt(now - 1000, 1000, 2.0);
+        Map<String, Pojo> results = new HashMap<>();
+        results.put(String.format(VmBoundaryPojoGetter.DESC_NEWEST_VM_STAT, hours.getName()), newestRollup);
+        String rollupQuery = String.format(VmBucketedPojoGetter.VM_BUCKETED_QUERY_FORMAT, VALUE_KEY.getName(), hours.getName());
+        results.put(rollupQuery, rollups);
+        String rawQuery = String.format(VmBucketedPojoGetter.VM_BUCKETED_QUERY_FORMAT, VALUE_KEY.getName(), retainedCat.getName());
+        results.put(rawQuery, raw);
+        Map<String, PreparedStatement<?>> statements = new HashMap<>();
+        Storage storage = storageReturning(results, statements);
+
+        VmTimeIntervalPojoListGetter<TestPojo> intervalGetter = new VmTimeIntervalPojoListGetter<>(storage, retainedCat, clock);
+        VmBucketedPojoGetter<TestPojo> getter = new VmBucketedPojoGetter<>(storage, intervalGetter, VALUE_KEY);
+        BucketedResult actual = getter.getBuckets(agentId, vmId, now - 30 * day, now, 300);
+
+        assertArrayEquals(new long[] { watermark - hour, now - 1000 }, actual.getTimeStamps());
+        assertArrayEquals(new long[] { 1, 1 }, actual.getCounts());
+        assertArrayEquals(new double[] { 1.0, 2.0 }, actual.getMinimums(), 0);
+        assertArrayEquals(new double[] { 1.0, 2.0 }, actual.getMaximums(), 0);
+        assertArrayEquals(new double[] { 1.0, 2.0 }, actual.getAverages(), 0);
+        assertArrayEquals(new double[] { 1.0, 2.0 }, actual.getLasts(), 0);
+        assertEquals(hour, actual.getBucketSize());
+        // 29 of 30 days are rolled up
+        PreparedStatement<?> rollupStatement = statements.get(rollupQuery);
+        verify(rollupStatement).setLong(2, now - 30 * day);
+        verify(rollupStatement).setLong(3, watermark);
+        verify(rollupStatement).setInt(4, 290);
+        PreparedStatement<?> rawStatement = statements.get(rawQuery);
+        verify(rawStatement).setLong(2, watermark);
+        verify(rawStatement).setLong(3, now);
+        verify(rawStatement).setInt(4, 10);
+    }
+
+    @Test
+    public void testGetBucketsWithoutRollupsQueriesRawSamples() throws DescriptorParsingException, StatementExecutionException {
+        long now = TimeUnit.DAYS.toMillis(1000);
+        Clock clock = mock(Clock.class);
+        when(clock.getRealTimeMillis()).thenReturn(now);
+        BucketedResult raw = bucketAt(now - 1000, 1000, 2.0);
+        Map<String, Pojo> results = new HashMap<>();
+        String rawQuery = String.format(VmBucketedPojoGetter.VM_BUCKETED_QUERY_FORMAT, VALUE_KEY.getName(), retainedCat.getName());
+        results.put(rawQuery, raw);
+        Map<String, PreparedStatement<?>> statements = new HashMap<>();
+        Storage storage = storageReturning(results, statements);
+
+        VmTimeIntervalPojoListGetter<TestPojo> intervalGetter = new VmTimeIntervalPojoListGetter<>(storage, retainedCat, clock);
+        VmBucketedPojoGetter<TestPojo> getter = new VmBucketedPojoGetter<>(storage, intervalGetter, VALUE_KEY);
+        BucketedResult actual = getter.getBuckets(agentId, vmId, now - TimeUnit.DAYS.toMillis(30), now, 300);
+
+        assertSame(raw, actual);
+        verify(statements.get(rawQuery)).setInt(4, 300);
+    }
+
+    private static BucketedResult bucketAt(long timeStamp, long bucketSize, double value) {
+        BucketedResult result = new BucketedResult();
+        result.setKey(VALUE_KEY);
+        result.setBucketSize(bucketSize);
+        result.setTimeStamps(new long[] { timeStamp });
+        result.setCounts(new long[] { 1 });
+        result.setMinimums(new double[] { value });
+        result.setMaximums(new double[] { value });
+        result.setAverages(new double[] { value });
+        result.setLasts(new double[] { value });
+        return result;
+    }
+
+    /**
+     * Creates a storage which answers each descriptor with the given result,
+     * or none, and records the prepared statements.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Storage storageReturning(final Map<String, Pojo> results, final Map<String, PreparedStatement<?>> statements)
+            throws DescriptorParsingException {
+        Storage storage = mock(Storage.class);
+        when(storage.prepareStatement(any(StatementDescriptor.class))).thenAnswer(new Answer<PreparedStatement>() {
+            @Override
+            public PreparedStatement answer(InvocationOnMock invocation) throws Throwable {
+                StatementDescriptor desc = (StatementDescriptor) invocation.getArguments()[0];
+                Pojo result = results.get(desc.getDescriptor());
+                Cursor cursor = mock(Cursor.class);
+                when(cursor.hasNext()).thenReturn(result != null).thenReturn(false);
+                when(cursor.next()).thenReturn(result);
+                PreparedStatement statement = mock(PreparedStatement.class);
+                when(statement.executeQuery()).thenReturn(cursor);
+                statements.put(desc.getDescriptor(), statement);
+                return statement;
+            }
+        });
+        return storage;
+    }
+
+    private static interface TestPojo extends TimeStampedPojo {
+        double getValue();
+    }
+}
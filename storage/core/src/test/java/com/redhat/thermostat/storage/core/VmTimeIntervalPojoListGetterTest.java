@@ -40,16 +40,25 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.redhat.thermostat.common.Clock;
 import com.redhat.thermostat.storage.model.TimeStampedPojo;
 
 public class VmTimeIntervalPojoListGetterTest {
@@ -62,6 +71,9 @@ public class VmTimeIntervalPojoListGetterTest {
     // Make this one static so we don't get IllegalStateException from trying
     // to make category of same name while running tests in same classloader.
     private static final Category<TestPojo> cat = new Category<>(CATEGORY_NAME, TestPojo.class);
+    private static final Category<TestPojo> retainedCat = new Category<>("vm-timeinterval-retained", TestPojo.class,
+            Arrays.<Key<?>>asList(Key.AGENT_ID, Key.VM_ID, Key.TIMESTAMP), Arrays.<Key<?>>asList(Key.TIMESTAMP),
+            new DataRetentionPolicy(1, 30, 365, TimeUnit.DAYS));
 
     private static long t1 = 1;
     private static long t2 = 5;
@@ -186,6 +198,156 @@ public class VmTimeIntervalPojoListGetterTest {
         assertEquals(lc2, stat2.getData());
     }
 
+    @Test
+    public void testRollupCategoriesAreRegistered() {
+        Storage storage = mock(Storage.class);
+        new VmTimeIntervalPojoListGetter<>(storage, retainedCat);
+
+        verify(storage).registerCategory(RollupResolution.MINUTE.getCategory(retainedCat));
+        verify(storage).registerCategory(RollupResolution.HOUR.getCategory(retainedCat));
+        verifyNoMoreInteractions(storage);
+    }
+
+    @Test
+    public void testGetIntervalSelectsResolution() throws DescriptorParsingException, StatementExecutionException {
+        long now = TimeUnit.DAYS.toMillis(1000);
+        Clock clock = mock(Clock.class);
+        when(clock.getRealTimeMillis()).thenReturn(now);
+        long hour = TimeUnit.HOURS.toMillis(1);
+        Map<String, List<TestPojo>> results = new HashMap<>();
+        // rolled up until a day ago
+        results.put(newestQuery(RollupResolution.HOUR), Arrays.asList(pojoAt(now - 24 * hour - hour)));
+        List<StatementDescriptor<TestPojo>> descs = new ArrayList<>();
+        Storage storage = storageReturning(results, descs, new ArrayList<PreparedStatement<TestPojo>>());
+
+        VmTimeIntervalPojoListGetter<TestPojo> getter = new VmTimeIntervalPojoListGetter<>(storage, retainedCat, clock);
+
+        getter.getLatest(agentId, vmId, now - hour, now);
+        getter.getLatest(agentId, vmId, now - 30 * 24 * hour, now - 2 * 24 * hour);
+
+        assertEquals(3, descs.size());
+        assertEquals(retainedCat, descs.get(0).getCategory());
+        assertEquals(intervalQuery(retainedCat), descs.get(0).getDescriptor());
+        Category<TestPojo> hours = RollupResolution.HOUR.getCategory(retainedCat);
+        assertEquals(hours, descs.get(1).getCategory());
+        assertEquals(newestQuery(RollupResolution.HOUR), descs.get(1).getDescriptor());
+        assertEquals(hours, descs.get(2).getCategory());
+        assertEquals(intervalQuery(hours), descs.get(2).getDescriptor());
+    }
+
+    @Test
+    public void testGetIntervalStitchesRollupsAndRawSamplesAtWatermark() throws DescriptorParsingException, StatementExecutionException {
+        long now = TimeUnit.DAYS.toMillis(1000);
+        Clock clock = mock(Clock.class);
+        when(clock.getRealTimeMillis()).thenReturn(now);
+        long day = TimeUnit.DAYS.toMillis(1);
+        long watermark = now - day;
+        Category<TestPojo> hours = RollupResolution.HOUR.getCategory(retainedCat);
+        TestPojo newestRollup = pojoAt(watermark - TimeUnit.HOURS.toMillis(1));
+        TestPojo olderRollup = pojoAt(watermark - TimeUnit.HOURS.toMillis(2));
+        TestPojo raw = pojoAt(now - 1000);
+        Map<String, List<TestPojo>> results = new HashMap<>();
+        results.put(newestQuery(RollupResolution.HOUR), Arrays.asList(newestRollup));
+        results.put(intervalQuery(hours), Arrays.asList(newestRollup, olderRollup));
+        results.put(intervalQuery(retainedCat), Arrays.asList(raw));
+        List<StatementDescriptor<TestPojo>> descs = new ArrayList<>();
+        List<PreparedStatement<TestPojo>> statements = new ArrayList<>();
+        Storage storage = storageReturning(results, descs, statements);
+
+        VmTimeIntervalPojoListGetter<TestPojo> getter = new VmTimeIntervalPojoListGetter<>(storage, retainedCat, clock);
+        List<TestPojo> result = getter.getLatest(agentId, vmId, now - 30 * day, now);
+
+        assertEquals(Arrays.asList(raw, newestRollup, olderRollup), result);
+        assertEquals(3, descs.size());
+        assertEquals(intervalQuery(retainedCat), descs.get(1).getDescriptor());
+        verify(statements.get(1)).setLong(2, watermark);
+        verify(statements.get(1)).setLong(3, now);
+        assertEquals(intervalQuery(hours), descs.get(2).getDescriptor());
+        verify(statements.get(2)).setLong(2, now - 30 * day);
+        verify(statements.get(2)).setLong(3, watermark);
+    }
+
+    @Test
+    public void testGetIntervalQueriesRawSamplesOnlyWithoutRollups() throws DescriptorParsingException, StatementExecutionException {
+        long now = TimeUnit.DAYS.toMillis(1000);
+        Clock clock = mock(Clock.class);
+        when(clock.getRealTimeMillis()).thenReturn(now);
+        TestPojo pojo = pojoAt(now - 1000);
+        Map<String, List<TestPojo>> results = new HashMap<>();
+        results.put(intervalQuery(retainedCat), Arrays.asList(pojo));
+        List<StatementDescriptor<TestPojo>> descs = new ArrayList<>();
+        Storage storage = storageReturning(results, descs, new ArrayList<PreparedStatement<TestPojo>>());
+
+        VmTimeIntervalPojoListGetter<TestPojo> getter = new VmTimeIntervalPojoListGetter<>(storage, retainedCat, clock);
+        long since = now - TimeUnit.DAYS.toMillis(30);
+        assertEquals(Arrays.asList(pojo), getter.getLatest(agentId, vmId, since, now));
+        assertEquals(Arrays.asList(pojo), getter.getLatest(agentId, vmId, since, now));
+
+        // one lookup of the missing watermark, then a single query per call
+        assertEquals(3, descs.size());
+        assertEquals(newestQuery(RollupResolution.HOUR), descs.get(0).getDescriptor());
+        assertEquals(intervalQuery(retainedCat), descs.get(1).getDescriptor());
+        assertEquals(intervalQuery(retainedCat), descs.get(2).getDescriptor());
+
+        // watermarks are looked up again once they may have moved
+        when(clock.getRealTimeMillis()).thenReturn(now + IntervalQueries.WATERMARK_REFRESH);
+        getter.getLatest(agentId, vmId, since, now);
+        assertEquals(5, descs.size());
+        assertEquals(newestQuery(RollupResolution.HOUR), descs.get(3).getDescriptor());
+    }
+
+    private static String intervalQuery(Category<?> category) {
+        return String.format(VmTimeIntervalPojoListGetter.VM_INTERVAL_QUERY_FORMAT, category.getName());
+    }
+
+    private static String newestQuery(RollupResolution resolution) {
+        return String.format(VmBoundaryPojoGetter.DESC_NEWEST_VM_STAT, resolution.getCategoryName(retainedCat.getName()));
+    }
+
+    private static TestPojo pojoAt(long timeStamp) {
+        TestPojo pojo = mock(TestPojo.class);
+        when(pojo.getTimeStamp()).thenReturn(timeStamp);
+        return pojo;
+    }
+
+    /**
+     * Creates a storage which answers each descriptor with the given
+     * results, or none, and records the prepared statements.
+     */
+    @SuppressWarnings("unchecked")
+    private Storage storageReturning(final Map<String, List<TestPojo>> results,
+            final List<StatementDescriptor<TestPojo>> descs, final List<PreparedStatement<TestPojo>> statements)
+            throws DescriptorParsingException {
+        Storage storage = mock(Storage.class);
+        when(storage.prepareStatement(anyDescriptor())).thenAnswer(new Answer<PreparedStatement<TestPojo>>() {
+            @Override
+            public PreparedStatement<TestPojo> answer(InvocationOnMock invocation) throws Throwable {
+                StatementDescriptor<TestPojo> desc = (StatementDescriptor<TestPojo>) invocation.getArguments()[0];
+                List<TestPojo> result = results.get(desc.getDescriptor());
+                final Iterator<TestPojo> iterator = (result == null ? Collections.<TestPojo>emptyList() : result).iterator();
+                Cursor<TestPojo> cursor = mock(Cursor.class);
+                when(cursor.hasNext()).thenAnswer(new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) {
+                        return iterator.hasNext();
+                    }
+                });
+                when(cursor.next()).thenAnswer(new Answer<TestPojo>() {
+                    @Override
+                    public TestPojo answer(InvocationOnMock invocation) {
+                        return iterator.next();
+                    }
+                });
+                PreparedStatement<TestPojo> statement = (PreparedStatement<TestPojo>) mock(PreparedStatement.class);
+                when(statement.executeQuery()).thenReturn(cursor);
+                descs.add(desc);
+                statements.add(statement);
+                return statement;
+            }
+        });
+        return storage;
+    }
+
     private static interface TestPojo extends TimeStampedPojo {
         long getData();
     }
@@ -36,13 +36,16 @@
 
 package com.redhat.thermostat.storage.core.experimental.statement;
 
+import com.redhat.thermostat.storage.core.DataRetentionPolicy;
 import com.redhat.thermostat.storage.core.Key;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class CategoryBuilderTest {
@@ -76,4 +79,19 @@ public class CategoryBuilderTest {
         assertTrue(keys.contains(key1));
         assertTrue(keys.contains(key2));
     }
+
+    @Test
+    public void testBuildRetained() throws Exception {
+        com.redhat.thermostat.storage.core.Category<RetainedSampleBean> category =
+                new CategoryBuilder<>(RetainedSampleBean.class).build();
+
+        assertEquals("testRetainedCategory", category.getName());
+        assertTrue(category.getIndexedKeys().isEmpty());
+        assertEquals(new DataRetentionPolicy(12, TimeUnit.HOURS), category.getRetentionPolicy());
+    }
+
+    @Test
+    public void testBuildNotRetained() throws Exception {
+        assertNull(new CategoryBuilder<>(SampleBean.class).build().getRetentionPolicy());
+    }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.redhat.thermostat.shared.perflog.PerformanceLogFormatter;
+import com.redhat.thermostat.shared.perflog.PerformanceLogFormatter.LogTag;
+import com.redhat.thermostat.storage.core.BatchableAdd;
+import com.redhat.thermostat.storage.core.Category;
+import com.redhat.thermostat.storage.core.Statement;
+import com.redhat.thermostat.storage.model.Pojo;
+
+public class AddBatcherTest {
+
+    private static final Category<FooPojo> FOO_CATEGORY = new Category<>("add-batcher-foo", FooPojo.class);
+    private static final Category<FooPojo> BAR_CATEGORY = new Category<>("add-batcher-bar", FooPojo.class);
+
+    private List<Runnable> tasks;
+    private Executor executor;
+    private ScheduledExecutorService timer;
+    private List<List<BatchableAdd<FooPojo>>> writtenBatches;
+
+    @Before
+    public void setUp() {
+        tasks = new ArrayList<>();
+        executor = new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        timer = mock(ScheduledExecutorService.class);
+        writtenBatches = new ArrayList<>();
+    }
+
+    @Test
+    public void addsAreQueuedUntilBatchSizeReached() {
+        AddBatcher batcher = new AddBatcher(executor, 3, 100, 10, null, null, timer);
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        assertTrue(tasks.isEmpty());
+        assertEquals(2, batcher.getQueueDepth(FOO_CATEGORY.getName()));
+
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+
+        assertEquals(1, writtenBatches.size());
+        assertEquals(3, writtenBatches.get(0).size());
+        assertEquals(0, batcher.getQueueDepth(FOO_CATEGORY.getName()));
+    }
+
+    @Test
+    public void onlyOneFlushScheduledPerCategory() {
+        AddBatcher batcher = new AddBatcher(executor, 2, 100, 10, null, null, timer);
+        for (int i = 0; i < 5; i++) {
+            batcher.add(new TestAdd(FOO_CATEGORY));
+        }
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        // 5 adds with batch size 2 => 3 bulk writes
+        assertEquals(3, writtenBatches.size());
+        assertEquals(1, writtenBatches.get(2).size());
+    }
+
+    @Test
+    public void categoriesAreBatchedSeparately() {
+        AddBatcher batcher = new AddBatcher(executor, 2, 100, 10, null, null, timer);
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        batcher.add(new TestAdd(BAR_CATEGORY));
+        assertTrue(tasks.isEmpty());
+        assertEquals(1, batcher.getQueueDepth(FOO_CATEGORY.getName()));
+        assertEquals(1, batcher.getQueueDepth(BAR_CATEGORY.getName()));
+    }
+
+    @Test
+    public void timerFlushesPartialBatches() {
+        AddBatcher batcher = new AddBatcher(executor, 5, 100, 10, null, null, timer);
+        ArgumentCaptor<Runnable> timerTask = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).scheduleAtFixedRate(timerTask.capture(), eq(100L), eq(100L), eq(TimeUnit.MILLISECONDS));
+
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        assertTrue(tasks.isEmpty());
+        timerTask.getValue().run();
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(1, writtenBatches.size());
+        assertEquals(1, writtenBatches.get(0).size());
+    }
+
+    @Test
+    public void fullQueueWritesOnCallingThread() {
+        AddBatcher batcher = new AddBatcher(executor, 2, 100, 2, null, null, timer);
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        assertEquals(1, tasks.size());
+        // flush task did not run yet and queue is at capacity
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        assertEquals(1, writtenBatches.size());
+        assertEquals(2, writtenBatches.get(0).size());
+        assertEquals(1, batcher.getQueueDepth(FOO_CATEGORY.getName()));
+    }
+
+    @Test
+    public void shutdownFlushesPendingAdds() {
+        AddBatcher batcher = new AddBatcher(executor, 5, 100, 10, null, null, timer);
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        batcher.add(new TestAdd(BAR_CATEGORY));
+        batcher.shutdown();
+        verify(timer).shutdownNow();
+        assertEquals(2, writtenBatches.size());
+        assertTrue(tasks.isEmpty());
+
+        // adds after shutdown are applied right away
+        TestAdd add = new TestAdd(FOO_CATEGORY);
+        batcher.add(add);
+        assertEquals(1, add.applyCount);
+        assertEquals(0, batcher.getQueueDepth(FOO_CATEGORY.getName()));
+    }
+
+    @Test
+    public void queueDepthAndBatchWritesAreLogged() {
+        PerformanceLogFormatter formatter = mock(PerformanceLogFormatter.class);
+        when(formatter.format(any(LogTag.class), any(String.class))).thenReturn("depth");
+        when(formatter.format(any(LogTag.class), any(String.class), anyLong())).thenReturn("write");
+        AddBatcher batcher = new AddBatcher(executor, 2, 100, 10, formatter, LogTag.STORAGE_FRONT_END, timer);
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        verify(formatter).format(LogTag.STORAGE_FRONT_END, "Q_SIZE(add-batcher-foo) 1");
+        batcher.add(new TestAdd(FOO_CATEGORY));
+        verify(formatter, never()).format(any(LogTag.class), any(String.class), anyLong());
+        tasks.get(0).run();
+        verify(formatter).format(eq(LogTag.STORAGE_FRONT_END), eq("DB_WRITE_BATCH(2) add-batcher-foo"), anyLong());
+    }
+
+    @Test
+    public void failedBatchDoesNotStopDraining() {
+        AddBatcher batcher = new AddBatcher(executor, 2, 100, 10, null, null, timer);
+        batcher.add(new TestAdd(FOO_CATEGORY, new IllegalArgumentException("refused")));
+        for (int i = 0; i < 3; i++) {
+            batcher.add(new TestAdd(FOO_CATEGORY));
+        }
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        // the first batch failed, the second one was still written
+        assertEquals(1, writtenBatches.size());
+        assertEquals(2, writtenBatches.get(0).size());
+        assertEquals(0, batcher.getQueueDepth(FOO_CATEGORY.getName()));
+    }
+
+    @Test
+    public void failedSingleAddAfterShutdownIsNotPropagated() {
+        AddBatcher batcher = new AddBatcher(executor, 2, 100, 10, null, null, timer);
+        batcher.shutdown();
+        TestAdd add = new TestAdd(FOO_CATEGORY, new IllegalArgumentException("refused"));
+        batcher.add(add);
+        assertEquals(1, add.applyCount);
+    }
+
+    private class TestAdd implements BatchableAdd<FooPojo> {
+
+        private final Category<FooPojo> category;
+        private final RuntimeException failure;
+        private int applyCount;
+
+        private TestAdd(Category<FooPojo> category) {
+            this(category, null);
+        }
+
+        private TestAdd(Category<FooPojo> category, RuntimeException failure) {
+            this.category = category;
+            this.failure = failure;
+        }
+
+        @Override
+        public void set(String key, Object value) {
+            // not used
+        }
+
+        @Override
+        public int apply() {
+            applyCount++;
+            if (failure != null) {
+                throw failure;
+            }
+            return 1;
+        }
+
+        @Override
+        public Statement<FooPojo> getRawDuplicate() {
+            return new TestAdd(category);
+        }
+
+        @Override
+        public Category<FooPojo> getCategory() {
+            return category;
+        }
+
+        @Override
+        public int applyBatch(List<BatchableAdd<FooPojo>> batch) {
+            if (failure != null) {
+                throw failure;
+            }
+            writtenBatches.add(new ArrayList<>(batch));
+            return batch.size();
+        }
+    }
+
+    private static class FooPojo implements Pojo {
+        // Dummy class for testing
+    }
+}
+
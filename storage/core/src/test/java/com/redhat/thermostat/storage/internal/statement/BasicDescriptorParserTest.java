@@ -168,6 +168,15 @@ public class BasicDescriptorParserTest {
         runAggregateCountTest(descrString, AggregateFunction.DISTINCT);
     }
     
+    /*
+     * Bucketed with a specific key. Tests basic parsing.
+     */
+    @Test
+    public void testParseAggregateBucketedWithParam() throws DescriptorParsingException {
+        String descrString = "QUERY-BUCKETED(a) %s WHERE 'a' = 'b'";
+        runAggregateCountTest(descrString, AggregateFunction.BUCKETED);
+    }
+    
     @SuppressWarnings({ "rawtypes", "unchecked" })
     @Test
     public void testParseAggregateCountNoWhereClause() throws DescriptorParsingException {
@@ -230,6 +239,12 @@ public class BasicDescriptorParserTest {
         runParamAggregateAssertedValueTest(formatedDesc, AggregateFunction.DISTINCT);
     }
     
+    @Test
+    public void testParseQueryBucketedWithAssertedParamValue() throws DescriptorParsingException {
+        String formatedDesc = "QUERY-BUCKETED(a) %s";
+        runParamAggregateAssertedValueTest(formatedDesc, AggregateFunction.BUCKETED);
+    }
+    
     @SuppressWarnings({ "unchecked", "rawtypes" })
     private void runParamAggregateAssertedValueTest(String aggregateDescFormat, AggregateFunction function) throws DescriptorParsingException {
         AggregateQuery<AggregateCount> query = mock(AggregateQuery.class);
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.internal.statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.storage.core.Add;
+import com.redhat.thermostat.storage.core.BackingStorage;
+import com.redhat.thermostat.storage.core.DescriptorParsingException;
+import com.redhat.thermostat.storage.core.Key;
+import com.redhat.thermostat.storage.core.Query;
+import com.redhat.thermostat.storage.core.StatementDescriptor;
+import com.redhat.thermostat.storage.dao.AgentInfoDAO;
+import com.redhat.thermostat.storage.model.AgentInformation;
+
+public class ParsedStatementCacheTest {
+
+    private static final String QUERY_DESC = "QUERY " + AgentInfoDAO.CATEGORY.getName() +
+            " WHERE '" + Key.AGENT_ID.getName() + "' = ?s";
+
+    private BackingStorage storage;
+    private ParsedStatementCache cache;
+
+    @Before
+    public void setup() {
+        storage = createStorage();
+        cache = new ParsedStatementCache(storage, 2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private BackingStorage createStorage() {
+        BackingStorage storage = mock(BackingStorage.class);
+        Query<AgentInformation> mockQuery = mock(Query.class);
+        when(storage.createQuery(eq(AgentInfoDAO.CATEGORY))).thenReturn(mockQuery);
+        Add<AgentInformation> mockAdd = mock(Add.class);
+        when(storage.createAdd(eq(AgentInfoDAO.CATEGORY))).thenReturn(mockAdd);
+        return storage;
+    }
+
+    @Test
+    public void parsesDescriptorOnlyOnce() throws DescriptorParsingException {
+        StatementDescriptor<AgentInformation> desc = new StatementDescriptor<>(AgentInfoDAO.CATEGORY, QUERY_DESC);
+        ParsedStatementImpl<AgentInformation> first = cache.get(desc);
+        // equal, but not the same descriptor
+        StatementDescriptor<AgentInformation> desc2 = new StatementDescriptor<>(AgentInfoDAO.CATEGORY, QUERY_DESC);
+        ParsedStatementImpl<AgentInformation> second = cache.get(desc2);
+        assertSame(first, second);
+        assertEquals(1, cache.size());
+        // parsing creates the raw statement
+        verify(storage, times(1)).createQuery(AgentInfoDAO.CATEGORY);
+    }
+
+    @Test
+    public void cachesPerStorage() throws DescriptorParsingException {
+        StatementDescriptor<AgentInformation> desc = new StatementDescriptor<>(AgentInfoDAO.CATEGORY, QUERY_DESC);
+        BackingStorage otherStorage = createStorage();
+        ParsedStatementCache otherCache = new ParsedStatementCache(otherStorage, 2);
+        ParsedStatementImpl<AgentInformation> first = cache.get(desc);
+        ParsedStatementImpl<AgentInformation> second = otherCache.get(desc);
+        assertNotSame(first, second);
+        assertSame(otherStorage.createQuery(AgentInfoDAO.CATEGORY), second.getRawStatement());
+    }
+
+    @Test
+    public void doesNotCacheParsingFailures() {
+        StatementDescriptor<AgentInformation> desc = new StatementDescriptor<>(AgentInfoDAO.CATEGORY, "QUERY " + AgentInfoDAO.CATEGORY.getName() + " WHERE");
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.get(desc);
+                fail("Expected parsing to fail");
+            } catch (DescriptorParsingException e) {
+                // pass
+            }
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void cacheSizeIsBounded() throws DescriptorParsingException {
+        String addDesc = "ADD " + AgentInfoDAO.CATEGORY.getName() + " SET " +
+                "'" + Key.AGENT_ID.getName() + "' = ?s , " +
+                "'" + AgentInfoDAO.START_TIME_KEY.getName() + "' = ?l , " +
+                "'" + AgentInfoDAO.STOP_TIME_KEY.getName() + "' = ?l , " +
+                "'" + AgentInfoDAO.ALIVE_KEY.getName() + "' = ?b , " +
+                "'" + AgentInfoDAO.CONFIG_LISTEN_ADDRESS.getName() + "' = ?s";
+        String limitDesc = QUERY_DESC + " LIMIT 1";
+        cache.get(new StatementDescriptor<>(AgentInfoDAO.CATEGORY, QUERY_DESC));
+        cache.get(new StatementDescriptor<>(AgentInfoDAO.CATEGORY, addDesc));
+        assertEquals(2, cache.size());
+        cache.get(new StatementDescriptor<>(AgentInfoDAO.CATEGORY, limitDesc));
+        assertEquals(1, cache.size());
+    }
+}
+
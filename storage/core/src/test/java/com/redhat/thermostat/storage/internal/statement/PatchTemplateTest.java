@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.internal.statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.storage.core.Add;
+import com.redhat.thermostat.storage.core.BackingStorage;
+import com.redhat.thermostat.storage.core.IllegalPatchException;
+import com.redhat.thermostat.storage.core.Key;
+import com.redhat.thermostat.storage.core.PreparedParameter;
+import com.redhat.thermostat.storage.core.PreparedParameters;
+import com.redhat.thermostat.storage.core.Query;
+import com.redhat.thermostat.storage.core.Query.SortDirection;
+import com.redhat.thermostat.storage.core.StatementDescriptor;
+import com.redhat.thermostat.storage.dao.AgentInfoDAO;
+import com.redhat.thermostat.storage.model.AgentInformation;
+import com.redhat.thermostat.storage.query.BinaryLogicalExpression;
+import com.redhat.thermostat.storage.query.Expression;
+import com.redhat.thermostat.storage.query.ExpressionFactory;
+
+public class PatchTemplateTest {
+
+    private BackingStorage storage;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        storage = mock(BackingStorage.class);
+        Query<AgentInformation> mockQuery = mock(Query.class);
+        when(storage.createQuery(eq(AgentInfoDAO.CATEGORY))).thenReturn(mockQuery);
+        Add<AgentInformation> mockAdd = mock(Add.class);
+        when(storage.createAdd(eq(AgentInfoDAO.CATEGORY))).thenReturn(mockAdd);
+    }
+
+    private PatchTemplate createTemplate(String descriptor) throws Exception {
+        StatementDescriptor<AgentInformation> desc = new StatementDescriptor<>(AgentInfoDAO.CATEGORY, descriptor);
+        SemanticsEnabledDescriptorParser<AgentInformation> parser = new SemanticsEnabledDescriptorParser<>(storage, desc);
+        ParsedStatementImpl<AgentInformation> parsed = (ParsedStatementImpl<AgentInformation>) parser.parse();
+        return new PatchTemplate(parsed.getSuffixExpression(), parsed.getSetList());
+    }
+
+    @Test
+    public void constantWhereExpressionIsPatchedOnce() throws Exception {
+        PatchTemplate template = createTemplate("QUERY " + AgentInfoDAO.CATEGORY.getName() +
+                " WHERE '" + Key.AGENT_ID.getName() + "' = 'foo' SORT '" +
+                AgentInfoDAO.START_TIME_KEY.getName() + "' DSC LIMIT 3");
+        PreparedParameter[] params = new PreparedParameters(0).getParams();
+        Expression where = template.patchWhere(params);
+        assertEquals(new ExpressionFactory().equalTo(Key.AGENT_ID, "foo"), where);
+        assertSame(where, template.patchWhere(params));
+
+        PatchedSortMember[] members = template.patchSort(params);
+        assertEquals(1, members.length);
+        assertEquals(AgentInfoDAO.START_TIME_KEY.getName(), members[0].getSortKey().getName());
+        assertEquals(SortDirection.DESCENDING, members[0].getDirection());
+        assertTrue(template.hasLimit());
+        assertEquals(3, template.patchLimit(params));
+        assertEquals(0, template.patchSetList(params).length);
+    }
+
+    @Test
+    public void freeParametersArePatchedEachTime() throws Exception {
+        PatchTemplate template = createTemplate("QUERY " + AgentInfoDAO.CATEGORY.getName() +
+                " WHERE '" + Key.AGENT_ID.getName() + "' = ?s AND '" +
+                AgentInfoDAO.ALIVE_KEY.getName() + "' = ?b LIMIT ?i");
+        ExpressionFactory factory = new ExpressionFactory();
+        PreparedParameters params = new PreparedParameters(3);
+        params.setString(0, "foo");
+        params.setBoolean(1, true);
+        params.setInt(2, 5);
+        Expression expected = factory.and(factory.equalTo(Key.AGENT_ID, "foo"),
+                factory.equalTo(AgentInfoDAO.ALIVE_KEY, true));
+        Expression where = template.patchWhere(params.getParams());
+        assertTrue(where instanceof BinaryLogicalExpression);
+        assertEquals(expected, where);
+        assertEquals(5, template.patchLimit(params.getParams()));
+        assertNull(template.patchSort(params.getParams()));
+
+        params.setString(0, "bar");
+        params.setInt(2, 10);
+        expected = factory.and(factory.equalTo(Key.AGENT_ID, "bar"),
+                factory.equalTo(AgentInfoDAO.ALIVE_KEY, true));
+        assertEquals(expected, template.patchWhere(params.getParams()));
+        assertEquals(10, template.patchLimit(params.getParams()));
+    }
+
+    @Test
+    public void canPatchSetList() throws Exception {
+        PatchTemplate template = createTemplate("ADD " + AgentInfoDAO.CATEGORY.getName() + " SET " +
+                "'" + Key.AGENT_ID.getName() + "' = ?s , " +
+                "'" + AgentInfoDAO.START_TIME_KEY.getName() + "' = ?l , " +
+                "'" + AgentInfoDAO.STOP_TIME_KEY.getName() + "' = ?l , " +
+                "'" + AgentInfoDAO.ALIVE_KEY.getName() + "' = ?b , " +
+                "'" + AgentInfoDAO.CONFIG_LISTEN_ADDRESS.getName() + "' = ?s");
+        PreparedParameters params = new PreparedParameters(5);
+        params.setString(0, "agent");
+        params.setLong(1, 1);
+        params.setLong(2, 2);
+        params.setBoolean(3, false);
+        params.setString(4, "127.0.0.1:12000");
+        PatchedSetListMember[] members = template.patchSetList(params.getParams());
+        assertEquals(5, members.length);
+        assertEquals(Key.AGENT_ID, members[0].getKey());
+        assertEquals("agent", members[0].getValue());
+        assertEquals(AgentInfoDAO.STOP_TIME_KEY, members[2].getKey());
+        assertEquals(2L, members[2].getValue());
+        assertEquals("127.0.0.1:12000", members[4].getValue());
+        assertNull(template.patchWhere(params.getParams()));
+        assertNull(template.patchSort(params.getParams()));
+    }
+
+    @Test
+    public void wronglyTypedParameterFailsPatching() throws Exception {
+        PatchTemplate template = createTemplate("QUERY " + AgentInfoDAO.CATEGORY.getName() +
+                " WHERE '" + Key.AGENT_ID.getName() + "' = ?s");
+        PreparedParameters params = new PreparedParameters(1);
+        params.setInt(0, 1);
+        try {
+            template.patchWhere(params.getParams());
+            fail("Expected patching to fail");
+        } catch (IllegalPatchException e) {
+            // pass
+        }
+    }
+}
+
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.internal.statement;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.redhat.thermostat.storage.core.Add;
+import com.redhat.thermostat.storage.core.BackingStorage;
+import com.redhat.thermostat.storage.core.DataModifyingStatement;
+import com.redhat.thermostat.storage.core.Key;
+import com.redhat.thermostat.storage.core.PreparedParameter;
+import com.redhat.thermostat.storage.core.PreparedParameters;
+import com.redhat.thermostat.storage.core.Statement;
+import com.redhat.thermostat.storage.core.StatementDescriptor;
+import com.redhat.thermostat.storage.dao.AgentInfoDAO;
+import com.redhat.thermostat.storage.model.AgentInformation;
+import com.redhat.thermostat.testutils.PerformanceTest;
+
+/**
+ * Compares the per-statement cost of preparing and patching a statement
+ * with and without {@link ParsedStatementCache} and {@link PatchTemplate}.
+ * 
+ * JUnit categorized performance test. It'll be only run for
+ * the perf-tests profile during a full build.
+ */
+@Category(PerformanceTest.class)
+public class PreparedStatementPerformanceTest {
+
+    private static final boolean DEBUG = true;
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int ITERATIONS = 100_000;
+    // Agents write with descriptors like this one
+    private static final String ADD_DESC = "ADD " + AgentInfoDAO.CATEGORY.getName() + " SET " +
+            "'" + Key.AGENT_ID.getName() + "' = ?s , " +
+            "'" + AgentInfoDAO.START_TIME_KEY.getName() + "' = ?l , " +
+            "'" + AgentInfoDAO.STOP_TIME_KEY.getName() + "' = ?l , " +
+            "'" + AgentInfoDAO.ALIVE_KEY.getName() + "' = ?b , " +
+            "'" + AgentInfoDAO.CONFIG_LISTEN_ADDRESS.getName() + "' = ?s";
+
+    private BackingStorage storage;
+    private StatementDescriptor<AgentInformation> desc;
+    private PreparedParameter[] params;
+
+    @Before
+    public void setup() {
+        storage = mock(BackingStorage.class);
+        when(storage.createAdd(eq(AgentInfoDAO.CATEGORY))).thenReturn(new NoopAdd());
+        desc = new StatementDescriptor<>(AgentInfoDAO.CATEGORY, ADD_DESC);
+        PreparedParameters preparedParams = new PreparedParameters(5);
+        preparedParams.setString(0, "agent");
+        preparedParams.setLong(1, 1);
+        preparedParams.setLong(2, 2);
+        preparedParams.setBoolean(3, true);
+        preparedParams.setString(4, "127.0.0.1:12000");
+        params = preparedParams.getParams();
+    }
+
+    @Test
+    public void cachedStatementsArePreparedFaster() throws Exception {
+        // warm up
+        parseAndWalkTree(WARMUP_ITERATIONS);
+        useCacheAndTemplate(WARMUP_ITERATIONS);
+
+        long start = System.nanoTime();
+        parseAndWalkTree(ITERATIONS);
+        long uncached = System.nanoTime() - start;
+        start = System.nanoTime();
+        useCacheAndTemplate(ITERATIONS);
+        long cached = System.nanoTime() - start;
+
+        if (DEBUG) {
+            System.out.println(PreparedStatementPerformanceTest.class.getSimpleName() + ":");
+            System.out.println("  parse + tree patch:     " + (uncached / ITERATIONS) + " ns/statement");
+            System.out.println("  cache + template patch: " + (cached / ITERATIONS) + " ns/statement");
+            System.out.println("  speedup: " + ((double) uncached / cached));
+        }
+        assertTrue("Expected cached statements to be at least 5 times faster", uncached > 5 * cached);
+    }
+
+    // What every prepareStatement() + execute() did before parsed statements
+    // were cached
+    private void parseAndWalkTree(int iterations) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            SemanticsEnabledDescriptorParser<AgentInformation> parser = new SemanticsEnabledDescriptorParser<>(storage, desc);
+            ParsedStatementImpl<AgentInformation> parsed = (ParsedStatementImpl<AgentInformation>) parser.parse();
+            parsed.getRawStatement().getRawDuplicate();
+            parsed.getSetList().patch(params);
+        }
+    }
+
+    private void useCacheAndTemplate(int iterations) throws Exception {
+        ParsedStatementCache cache = new ParsedStatementCache(storage, 16);
+        for (int i = 0; i < iterations; i++) {
+            cache.get(desc).patchStatement(params);
+        }
+    }
+
+    // Mocks record invocations, which would dominate the measurements
+    private static class NoopAdd implements Add<AgentInformation> {
+
+        @Override
+        public Statement<AgentInformation> getRawDuplicate() {
+            return new NoopAdd();
+        }
+
+        @Override
+        public void set(String key, Object value) {
+            // nothing
+        }
+
+        @Override
+        public int apply() {
+            return DataModifyingStatement.DEFAULT_STATUS_SUCCESS;
+        }
+    }
+}
+
@@ -52,6 +52,7 @@ import com.redhat.thermostat.storage.core.Add;
 import com.redhat.thermostat.storage.core.AggregateQuery;
 import com.redhat.thermostat.storage.core.AggregateQuery.AggregateFunction;
 import com.redhat.thermostat.storage.core.BackingStorage;
+import com.redhat.thermostat.storage.core.Category;
 import com.redhat.thermostat.storage.core.DescriptorParsingException;
 import com.redhat.thermostat.storage.core.Key;
 import com.redhat.thermostat.storage.core.ParsedStatement;
@@ -79,6 +80,13 @@ public class SemanticsEnabledDescriptorParserTest {
             "'" + AgentInfoDAO.ALIVE_KEY.getName() + "' = ?b , " +
             "'" + AgentInfoDAO.CONFIG_LISTEN_ADDRESS.getName() + "' = ?s";
 
+    private static final Key<Double> VALUE_KEY = new Key<>("value");
+    // Bucketed queries need a time stamp key. Data class doesn't matter
+    // for parsing.
+    private static final Category<AgentInformation> TIMESTAMPED_CATEGORY = new Category<>(
+            "semantics-parser-timestamped", AgentInformation.class,
+            Key.AGENT_ID, Key.TIMESTAMP, VALUE_KEY);
+
     private BackingStorage storage;
     private Query<AgentInformation> mockQuery;
     private AggregateQuery<AgentInformation> aggQuery;
@@ -98,6 +106,8 @@ public class SemanticsEnabledDescriptorParserTest {
         when(storage.createQuery(eq(AgentInfoDAO.CATEGORY))).thenReturn(mockQuery);
         when(storage.createAggregateQuery(eq(AggregateFunction.COUNT), (eq(AgentInfoDAO.CATEGORY)))).thenReturn(aggQuery);
         when(storage.createAggregateQuery(eq(AggregateFunction.DISTINCT), (eq(AgentInfoDAO.CATEGORY)))).thenReturn(aggQuery);
+        when(storage.createAggregateQuery(eq(AggregateFunction.BUCKETED), (eq(AgentInfoDAO.CATEGORY)))).thenReturn(aggQuery);
+        when(storage.createAggregateQuery(eq(AggregateFunction.BUCKETED), (eq(TIMESTAMPED_CATEGORY)))).thenReturn(aggQuery);
         // setup for ADD
         mockAdd = mock(Add.class);
         when(storage.createAdd(eq(AgentInfoDAO.CATEGORY))).thenReturn(mockAdd);
@@ -144,6 +154,68 @@ public class SemanticsEnabledDescriptorParserTest {
         doSemanticsBasicParseTest(descString);
     }
     
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void canParseQueryBucketedWithKeyAndLimit() throws DescriptorParsingException {
+        when(aggQuery.getAggregateFunction()).thenReturn(AggregateFunction.BUCKETED);
+        when(aggQuery.getAggregateKey()).thenReturn((Key)VALUE_KEY);
+        String descString = "QUERY-BUCKETED(" + VALUE_KEY.getName() + ") "
+                              + TIMESTAMPED_CATEGORY.getName()
+                              + " WHERE '" + Key.TIMESTAMP.getName() + "' >= ?l LIMIT ?i";
+        StatementDescriptor<AgentInformation> desc = new StatementDescriptor<>(TIMESTAMPED_CATEGORY, descString);
+        parser = new SemanticsEnabledDescriptorParser<>(storage, desc);
+        ParsedStatement<AgentInformation> p = parser.parse();
+        assertNotNull(p);
+        assertEquals(2, p.getNumParams());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void rejectQueryBucketedWithoutLimit() throws DescriptorParsingException {
+        when(aggQuery.getAggregateFunction()).thenReturn(AggregateFunction.BUCKETED);
+        when(aggQuery.getAggregateKey()).thenReturn((Key)VALUE_KEY);
+        String descString = "QUERY-BUCKETED(" + VALUE_KEY.getName() + ") " + TIMESTAMPED_CATEGORY.getName();
+        doRejectBucketedTest(TIMESTAMPED_CATEGORY, descString, "LIMIT required for QUERY-BUCKETED");
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void rejectQueryBucketedWithSort() throws DescriptorParsingException {
+        when(aggQuery.getAggregateFunction()).thenReturn(AggregateFunction.BUCKETED);
+        when(aggQuery.getAggregateKey()).thenReturn((Key)VALUE_KEY);
+        String descString = "QUERY-BUCKETED(" + VALUE_KEY.getName() + ") " + TIMESTAMPED_CATEGORY.getName()
+                              + " SORT '" + Key.TIMESTAMP.getName() + "' DSC LIMIT 100";
+        doRejectBucketedTest(TIMESTAMPED_CATEGORY, descString, "SORT not allowed for QUERY-BUCKETED");
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void rejectQueryBucketedWithoutTimeStampKey() throws DescriptorParsingException {
+        when(aggQuery.getAggregateFunction()).thenReturn(AggregateFunction.BUCKETED);
+        when(aggQuery.getAggregateKey()).thenReturn((Key)AgentInfoDAO.START_TIME_KEY);
+        String descString = "QUERY-BUCKETED(" + AgentInfoDAO.START_TIME_KEY.getName() + ") "
+                              + AgentInfoDAO.CATEGORY.getName() + " LIMIT 100";
+        doRejectBucketedTest(AgentInfoDAO.CATEGORY, descString, "to have a 'timeStamp' key");
+    }
+
+    @Test
+    public void rejectQueryBucketedWithUnknownKeyAsParam() throws DescriptorParsingException {
+        when(aggQuery.getAggregateFunction()).thenReturn(AggregateFunction.BUCKETED);
+        doRejectQueryAggregateTestWithParam(AggregateFunction.BUCKETED);
+    }
+
+    private void doRejectBucketedTest(Category<AgentInformation> category, String descString, String expectedMsg) {
+        StatementDescriptor<AgentInformation> desc = new StatementDescriptor<>(category, descString);
+        parser = new SemanticsEnabledDescriptorParser<>(storage, desc);
+        try {
+            parser.parse();
+            fail("'" + descString + "' should not parse");
+        } catch (DescriptorParsingException e) {
+            // pass
+            assertTrue(e.getMessage(), e.getMessage().contains(expectedMsg));
+        }
+    }
+
     @Test
     public void canParseQueryWithSort() throws DescriptorParsingException {
         String descString = "QUERY " + AgentInfoDAO.CATEGORY.getName() + " SORT 'foo' DSC";
@@ -51,10 +51,16 @@ class MongoCursor<T extends Pojo> extends BasicBatchCursor<T> {
     private final FindIterable<Document> findIterable;
     private final Class<T> resultClass;
     private final com.mongodb.client.MongoCursor<Document> cursor;
+    private final MongoPojoConverter converter;
 
     MongoCursor(FindIterable<Document> iterable, Class<T> resultClass) {
+        this(iterable, resultClass, new MongoPojoConverter());
+    }
+
+    MongoCursor(FindIterable<Document> iterable, Class<T> resultClass, MongoPojoConverter converter) {
         this.findIterable = iterable;
         this.resultClass = resultClass;
+        this.converter = converter;
         this.cursor = iterable.iterator();
     }
 
@@ -74,7 +80,6 @@ class MongoCursor<T extends Pojo> extends BasicBatchCursor<T> {
             if (next == null) {
                 throw new NoSuchElementException();
             }
-            MongoPojoConverter converter = new MongoPojoConverter();
             return converter.convertMongoToPojo(next, resultClass);
         } catch (MongoException me) {
             throw new StorageException(me);
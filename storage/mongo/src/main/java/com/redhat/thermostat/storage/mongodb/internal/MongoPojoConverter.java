@@ -37,134 +37,51 @@
 
 package com.redhat.thermostat.storage.mongodb.internal;
 
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.commons.beanutils.PropertyUtils;
 import org.bson.Document;
 
-import com.redhat.thermostat.storage.core.Persist;
-import com.redhat.thermostat.storage.core.StorageException;
 import com.redhat.thermostat.storage.model.Pojo;
 
-// We have to use raw types and unchecked casts, since we don't have
-// the relevant generic type info in this class. Suppress warnings
-// in this class.
-@SuppressWarnings({"rawtypes", "unchecked"})
+/**
+ * Converts {@link Pojo}s to and from mongo {@link Document}s, using one
+ * {@link PojoCodec} per pojo class. Codecs are created on first use, or
+ * up front via {@link #register(Class)}.
+ */
 class MongoPojoConverter {
 
-    public Document convertPojoToMongo(Pojo obj) {
-        try {
-            return convertPojoToMongoImpl(obj);
-        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException ex) {
-            throw new StorageException(ex);
-        }
-    }
-
-    private Document convertPojoToMongoImpl(Pojo obj) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-        Document dbObj = new Document();
-        PropertyDescriptor[] descs = PropertyUtils.getPropertyDescriptors(obj);
-        for (PropertyDescriptor desc : descs) {
-            storePropertyToDBObject(obj, dbObj, desc);
-        }
-        return dbObj;
-    }
+    private final ConcurrentMap<Class<?>, PojoCodec> codecs = new ConcurrentHashMap<>();
 
-    private void storePropertyToDBObject(Pojo obj, Document dbObj, PropertyDescriptor desc) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-        if (hasPersistentAnnotation(desc)) {
-            String name = desc.getName();
-            Object value = PropertyUtils.getProperty(obj, name);
-            if (desc.getPropertyType().isArray()) {
-                value = convertIndexedProperty(value);
-            }
-            if (value instanceof Pojo) {
-                value = convertPojoToMongoImpl((Pojo) value);
-            }
-            dbObj.put(name, value);
-        }
+    /**
+     * Prepares the codec for the given class, so that the first conversion
+     * does not pay for inspecting it.
+     */
+    public void register(Class<? extends Pojo> pojoClass) {
+        getCodec(pojoClass);
     }
 
-    private Object convertIndexedProperty(Object values) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-        int length = Array.getLength(values);
-        List list = new ArrayList(length);
-        for (int i = 0; i < length; i++) {
-            Object value = Array.get(values, i);
-            if (value instanceof Pojo) {
-                value = convertPojoToMongoImpl((Pojo) value);
-            }
-            list.add(value);
-        }
-        return list;
+    public Document convertPojoToMongo(Pojo obj) {
+        return getCodec(obj.getClass()).encode(obj);
     }
 
     public <T extends Pojo> T convertMongoToPojo(Document dbObj, Class<T> pojoClass) {
-        try {
-            return convertMongoToPojoImpl(dbObj, pojoClass);
-        } catch (IllegalAccessException | InstantiationException | InvocationTargetException | NoSuchMethodException ex) {
-            throw new StorageException(ex);
-        }
-    }
-
-    private <T extends Pojo> T convertMongoToPojoImpl(Document dbObj, Class pojoClass) throws InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
         if (dbObj == null) {
             return null;
         }
-        T pojo = (T) pojoClass.newInstance();
-        Set<String> keys = dbObj.keySet();
-        for (String name : keys) {
-            if (! name.equals("_id")) {
-                storePropertyToPojo(dbObj, pojo, name);
-            }
-        }
-        return pojo;
+        return pojoClass.cast(getCodec(pojoClass).decode(dbObj));
     }
 
-    private <T extends Pojo> void storePropertyToPojo(Document dbObj, T pojo, String name)
-            throws IllegalAccessException, InvocationTargetException, NoSuchMethodException, InstantiationException {
-
-        PropertyDescriptor desc = PropertyUtils.getPropertyDescriptor(pojo, name);
-        if (hasPersistentAnnotation(desc)) {
-            Object value = dbObj.get(name);
-            if (desc.getPropertyType().isArray()) {
-                value = convertIndexedPropertyFromMongo(desc, (List) value);
-            }
-            if (value instanceof Document) {
-                value = convertMongoToPojoImpl((Document) value, desc.getPropertyType());
+    PojoCodec getCodec(Class<?> pojoClass) {
+        PojoCodec codec = codecs.get(pojoClass);
+        if (codec == null) {
+            PojoCodec newCodec = new PojoCodec(this, pojoClass);
+            codec = codecs.putIfAbsent(pojoClass, newCodec);
+            if (codec == null) {
+                codec = newCodec;
             }
-            PropertyUtils.setProperty(pojo, name, value);
-        } else {
-            throw new StorageException("no available mapping for extra property: '" + name + "' in " + pojo.getClass().getName());
-        }
-    }
-
-    private Object convertIndexedPropertyFromMongo(PropertyDescriptor desc, List values) throws InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-        Class componentType = desc.getPropertyType().getComponentType();
-        Object array = Array.newInstance(componentType, values.size());
-        int i = 0;
-        for (Object value : values) {
-            if (value instanceof Document) {
-                value = convertMongoToPojoImpl((Document) value, componentType);
-            }
-            Array.set(array, i, value);
-            i++;
-        }
-        return array;
-    }
-
-    private boolean hasPersistentAnnotation(PropertyDescriptor desc) {
-        if (desc == null) {
-            return false;
         }
-        Method writeMethod = desc.getWriteMethod();
-        Method readMethod = desc.getReadMethod();
-        return writeMethod != null && writeMethod.isAnnotationPresent(Persist.class)
-               && readMethod != null && readMethod.isAnnotationPresent(Persist.class);
+        return codec;
     }
 
 }
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.mongodb.internal;
+
+import java.beans.PropertyDescriptor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.redhat.thermostat.common.Clock;
+import com.redhat.thermostat.common.SystemClock;
+import com.redhat.thermostat.common.utils.LoggingUtils;
+import com.redhat.thermostat.storage.core.Category;
+import com.redhat.thermostat.storage.core.DataRetentionPolicy;
+import com.redhat.thermostat.storage.core.Key;
+import com.redhat.thermostat.storage.core.RollupResolution;
+
+/**
+ * Enforces the {@link DataRetentionPolicy}s of registered categories in the
+ * background.
+ * <p>
+ * Once a minute, raw samples of complete buckets are rolled up into the
+ * rollup collections of the category, using the aggregation framework.
+ * Afterwards raw samples and rollups older than their retention are
+ * removed. Mongo's TTL indexes are not used, because they only expire
+ * documents by BSON dates and our timestamps are plain longs.
+ * <p>
+ * A rollup document holds the averages of the numeric properties, the first
+ * value of other properties and a {@link #ROLLUP_KEY} sub-document with the
+ * number of samples as well as their minimum and maximum values. Samples
+ * arriving after their bucket has been rolled up are not included in the
+ * rollups.
+ * <p>
+ * Policies are only enforced if enabled via {@link RetentionConfiguration},
+ * which can also override them per category.
+ */
+class MongoRetentionManager {
+
+    static final String ROLLUP_KEY = "_rollup";
+    static final String ROLLUP_COUNT_KEY = "count";
+    static final String ROLLUP_MIN_KEY = "min";
+    static final String ROLLUP_MAX_KEY = "max";
+
+    private static final Logger logger = LoggingUtils.getLogger(MongoRetentionManager.class);
+    private static final long RUN_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final String TIMESTAMP = Key.TIMESTAMP.getName();
+    private static final String ID_KEY = "_id";
+    private static final String AVG_PREFIX = "avg_";
+    private static final String MIN_PREFIX = "min_";
+    private static final String MAX_PREFIX = "max_";
+    private static final String FIRST_PREFIX = "first_";
+
+    private final Clock clock;
+    private final RetentionConfiguration config;
+    private final List<RetainedCategory> categories = new CopyOnWriteArrayList<>();
+    // guarded by this
+    private ScheduledExecutorService executor;
+
+    MongoRetentionManager() {
+        this(new SystemClock(), new RetentionConfiguration());
+    }
+
+    MongoRetentionManager(Clock clock, RetentionConfiguration config) {
+        this.clock = clock;
+        this.config = config;
+    }
+
+    /**
+     * Starts enforcing the retention policy of the given category on the
+     * given raw sample collection. Rollup collections are taken from the
+     * database. Does nothing if the configuration does not enforce a policy
+     * for the category.
+     */
+    void register(Category<?> category, MongoDatabase db, MongoCollection<Document> rawCollection) {
+        DataRetentionPolicy policy = config.getPolicy(category);
+        if (policy == null) {
+            return;
+        }
+        Map<RollupResolution, MongoCollection<Document>> rollupCollections = new EnumMap<>(RollupResolution.class);
+        for (RollupResolution resolution : policy.getRollupResolutions()) {
+            rollupCollections.put(resolution, db.getCollection(resolution.getCategoryName(category.getName())));
+        }
+        RetainedCategory retained = new RetainedCategory(category, policy, rawCollection, rollupCollections);
+        retained.createIndexes();
+        categories.add(retained);
+        start();
+    }
+
+    private synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "mongo-data-retention");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                enforceRetention();
+            }
+        }, RUN_INTERVAL, RUN_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    // package-private for testing
+    void enforceRetention() {
+        long now = clock.getRealTimeMillis();
+        for (RetainedCategory category : categories) {
+            try {
+                category.rollUp(now);
+                category.prune(now);
+            } catch (MongoException | IllegalStateException e) {
+                // Try again on the next run
+                logger.log(Level.WARNING, "Failed to enforce data retention for " + category.name, e);
+            }
+        }
+    }
+
+    private static class RetainedCategory {
+
+        private final String name;
+        private final DataRetentionPolicy policy;
+        private final MongoCollection<Document> rawCollection;
+        private final Map<RollupResolution, MongoCollection<Document>> rollupCollections;
+        // End of the rolled up range per resolution, null if not known yet
+        private final Map<RollupResolution, Long> rolledUpUntil = new EnumMap<>(RollupResolution.class);
+        private final List<String> groupKeys = new ArrayList<>();
+        private final Map<String, Class<?>> numericKeys = new LinkedHashMap<>();
+        private final List<String> otherKeys = new ArrayList<>();
+
+        RetainedCategory(Category<?> category, DataRetentionPolicy policy, MongoCollection<Document> rawCollection,
+                Map<RollupResolution, MongoCollection<Document>> rollupCollections) {
+            this.name = category.getName();
+            this.policy = policy;
+            this.rawCollection = rawCollection;
+            this.rollupCollections = rollupCollections;
+            Map<String, Class<?>> propertyTypes = new LinkedHashMap<>();
+            for (PropertyDescriptor desc : PropertyUtils.getPropertyDescriptors(category.getDataClass())) {
+                propertyTypes.put(desc.getName(), desc.getPropertyType());
+            }
+            for (Key<?> key : category.getKeys()) {
+                String keyName = key.getName();
+                if (keyName.equals(TIMESTAMP) || keyName.equals(ID_KEY)) {
+                    continue;
+                }
+                if (keyName.equals(Key.AGENT_ID.getName()) || keyName.equals(Key.VM_ID.getName())) {
+                    groupKeys.add(keyName);
+                } else if (isNumeric(propertyTypes.get(keyName))) {
+                    numericKeys.put(keyName, propertyTypes.get(keyName));
+                } else {
+                    otherKeys.add(keyName);
+                }
+            }
+        }
+
+        private static boolean isNumeric(Class<?> type) {
+            return type == int.class || type == Integer.class
+                    || type == long.class || type == Long.class
+                    || type == float.class || type == Float.class
+                    || type == double.class || type == Double.class;
+        }
+
+        void createIndexes() {
+            // pruning removes by timestamp
+            rawCollection.createIndex(new Document(TIMESTAMP, 1));
+            Document rollupIndex = new Document();
+            for (String key : groupKeys) {
+                rollupIndex.append(key, 1);
+            }
+            rollupIndex.append(TIMESTAMP, 1);
+            for (MongoCollection<Document> rollups : rollupCollections.values()) {
+                rollups.createIndex(rollupIndex);
+                rollups.createIndex(new Document(TIMESTAMP, 1));
+            }
+        }
+
+        void rollUp(long now) {
+            for (Map.Entry<RollupResolution, MongoCollection<Document>> entry : rollupCollections.entrySet()) {
+                RollupResolution resolution = entry.getKey();
+                MongoCollection<Document> rollups = entry.getValue();
+                long end = resolution.getBucketStart(now);
+                Long start = rolledUpUntil.get(resolution);
+                if (start == null) {
+                    start = findRolledUpUntil(rollups, resolution);
+                }
+                if (start >= end) {
+                    continue;
+                }
+                List<WriteModel<Document>> writes = new ArrayList<>();
+                for (Document group : rawCollection.aggregate(createPipeline(resolution, start, end))) {
+                    Document rollup = createRollup(group);
+                    writes.add(new ReplaceOneModel<>(createFilter(rollup), rollup, new UpdateOptions().upsert(true)));
+                }
+                if (!writes.isEmpty()) {
+                    rollups.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+                }
+                rolledUpUntil.put(resolution, end);
+            }
+        }
+
+        // Resumes after the latest existing rollup, or rolls up all raw
+        // samples there are.
+        private long findRolledUpUntil(MongoCollection<Document> rollups, RollupResolution resolution) {
+            Document latest = rollups.find().sort(new Document(TIMESTAMP, -1)).limit(1).first();
+            if (latest == null) {
+                return 0;
+            }
+            return ((Number) latest.get(TIMESTAMP)).longValue() + resolution.getBucketSize();
+        }
+
+        List<Bson> createPipeline(RollupResolution resolution, long start, long end) {
+            Document match = new Document(TIMESTAMP, new Document("$gte", start).append("$lt", end));
+            Document id = new Document();
+            for (String key : groupKeys) {
+                id.append(key, "$" + key);
+            }
+            String timeStamp = "$" + TIMESTAMP;
+            id.append(TIMESTAMP, new Document("$subtract", Arrays.<Object>asList(timeStamp,
+                    new Document("$mod", Arrays.<Object>asList(timeStamp, resolution.getBucketSize())))));
+            Document group = new Document(ID_KEY, id);
+            group.append(ROLLUP_COUNT_KEY, new Document("$sum", 1));
+            for (String key : numericKeys.keySet()) {
+                group.append(AVG_PREFIX + key, new Document("$avg", "$" + key));
+                group.append(MIN_PREFIX + key, new Document("$min", "$" + key));
+                group.append(MAX_PREFIX + key, new Document("$max", "$" + key));
+            }
+            for (String key : otherKeys) {
+                group.append(FIRST_PREFIX + key, new Document("$first", "$" + key));
+            }
+            return Arrays.<Bson>asList(new Document("$match", match), new Document("$group", group));
+        }
+
+        Document createRollup(Document group) {
+            Document id = (Document) group.get(ID_KEY);
+            Document rollup = new Document();
+            for (String key : groupKeys) {
+                rollup.append(key, id.get(key));
+            }
+            rollup.append(TIMESTAMP, ((Number) id.get(TIMESTAMP)).longValue());
+            Document min = new Document();
+            Document max = new Document();
+            for (Map.Entry<String, Class<?>> entry : numericKeys.entrySet()) {
+                String key = entry.getKey();
+                Number avg = (Number) group.get(AVG_PREFIX + key);
+                if (avg != null) {
+                    rollup.append(key, toPropertyType(avg, entry.getValue()));
+                    min.append(key, group.get(MIN_PREFIX + key));
+                    max.append(key, group.get(MAX_PREFIX + key));
+                }
+            }
+            for (String key : otherKeys) {
+                Object first = group.get(FIRST_PREFIX + key);
+                if (first != null) {
+                    rollup.append(key, first);
+                }
+            }
+            rollup.append(ROLLUP_KEY, new Document(ROLLUP_COUNT_KEY, group.get(ROLLUP_COUNT_KEY))
+                    .append(ROLLUP_MIN_KEY, min)
+                    .append(ROLLUP_MAX_KEY, max));
+            return rollup;
+        }
+
+        // Rollups have to be readable as pojos of the category's data class
+        private static Object toPropertyType(Number avg, Class<?> type) {
+            if (type == int.class || type == Integer.class) {
+                return (int) Math.round(avg.doubleValue());
+            } else if (type == long.class || type == Long.class) {
+                return Math.round(avg.doubleValue());
+            } else if (type == float.class || type == Float.class) {
+                return avg.floatValue();
+            }
+            return avg.doubleValue();
+        }
+
+        private Document createFilter(Document rollup) {
+            Document filter = new Document();
+            for (String key : groupKeys) {
+                filter.append(key, rollup.get(key));
+            }
+            filter.append(TIMESTAMP, rollup.get(TIMESTAMP));
+            return filter;
+        }
+
+        void prune(long now) {
+            rawCollection.deleteMany(olderThan(now - policy.getRawDataRetention()));
+            for (Map.Entry<RollupResolution, MongoCollection<Document>> entry : rollupCollections.entrySet()) {
+                long retention = policy.getRollupRetention(entry.getKey());
+                entry.getValue().deleteMany(olderThan(now - retention));
+            }
+        }
+
+        private static Document olderThan(long timeStamp) {
+            return new Document(TIMESTAMP, new Document("$lt", timeStamp));
+        }
+    }
+}
@@ -38,6 +38,7 @@ package com.redhat.thermostat.storage.mongodb.internal;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -47,6 +48,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.logging.Logger;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
 import com.mongodb.MongoException;
 import com.mongodb.client.DistinctIterable;
@@ -56,7 +58,9 @@ import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
 import com.mongodb.client.gridfs.GridFSDownloadStream;
+import com.mongodb.client.gridfs.model.GridFSFile;
 import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
@@ -67,6 +71,7 @@ import com.redhat.thermostat.storage.core.Add;
 import com.redhat.thermostat.storage.core.AggregateQuery;
 import com.redhat.thermostat.storage.core.AggregateQuery.AggregateFunction;
 import com.redhat.thermostat.storage.core.BackingStorage;
+import com.redhat.thermostat.storage.core.BatchableAdd;
 import com.redhat.thermostat.storage.core.Category;
 import com.redhat.thermostat.storage.core.Connection;
 import com.redhat.thermostat.storage.core.Connection.ConnectionListener;
@@ -79,6 +84,7 @@ import com.redhat.thermostat.storage.core.PreparedStatementFactory;
 import com.redhat.thermostat.storage.core.Query;
 import com.redhat.thermostat.storage.core.Remove;
 import com.redhat.thermostat.storage.core.Replace;
+import com.redhat.thermostat.storage.core.RollupResolution;
 import com.redhat.thermostat.storage.core.SaveFileListener;
 import com.redhat.thermostat.storage.core.SaveFileListener.EventType;
 import com.redhat.thermostat.storage.core.SchemaInfo;
@@ -90,6 +96,7 @@ import com.redhat.thermostat.storage.core.StorageException;
 import com.redhat.thermostat.storage.core.Update;
 import com.redhat.thermostat.storage.model.AggregateCount;
 import com.redhat.thermostat.storage.model.AggregateResult;
+import com.redhat.thermostat.storage.model.BucketedResult;
 import com.redhat.thermostat.storage.model.DistinctResult;
 import com.redhat.thermostat.storage.model.Pojo;
 import com.redhat.thermostat.storage.query.Expression;
@@ -102,6 +109,13 @@ import com.redhat.thermostat.storage.query.Expression;
 public class MongoStorage implements BackingStorage, SchemaInfoInserter {
     
     private static final Logger logger = LoggingUtils.getLogger(MongoStorage.class);
+    private static final String ID_KEY = "_id";
+    private static final String BUCKET_COUNT = "count";
+    private static final String BUCKET_MIN = "min";
+    private static final String BUCKET_MAX = "max";
+    private static final String BUCKET_AVG = "avg";
+    private static final String BUCKET_LAST = "last";
+    private static final String BUCKET_WEIGHTED_SUM = "weightedSum";
     
     private class MongoDistinctQuery<T extends Pojo> extends AggregateQuery<T> {
 
@@ -156,13 +170,41 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
         }
     }
     
+    private class MongoBucketedQuery<T extends Pojo> extends AggregateQuery<T> {
+
+        private final Category<T> category;
+
+        private MongoBucketedQuery(MongoQuery<T> queryToAggregate, Category<T> category) {
+            super(AggregateFunction.BUCKETED, queryToAggregate);
+            this.category = category;
+        }
+
+        @Override
+        public Cursor<T> execute() {
+            return executeBucketedQuery(this, category, (MongoQuery<T>)queryToAggregate);
+        }
+
+        @Override
+        public Statement<T> getRawDuplicate() {
+            // The where clause and limit get patched into the underlying
+            // query, so don't share it with the duplicate.
+            @SuppressWarnings("unchecked")
+            MongoQuery<T> query = (MongoQuery<T>) queryToAggregate.getRawDuplicate();
+            MongoBucketedQuery<T> dupe = new MongoBucketedQuery<>(query, category);
+            dupe.setAggregateKey(getAggregateKey());
+            return dupe;
+        }
+    }
+
     private static abstract class MongoSetter<T extends Pojo> {
         
         protected final Document values;
         protected final Category<T> category;
+        private final MongoPojoConverter converter;
         
-        private MongoSetter(Category<T> category) {
+        private MongoSetter(Category<T> category, MongoPojoConverter converter) {
             this.category = category;
+            this.converter = converter;
             this.values = new Document();
         }
         
@@ -170,11 +212,9 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
             // convert pojo values to mongo DB objects if need be
             if (value instanceof Pojo) {
                 Pojo pojo = (Pojo)value;
-                MongoPojoConverter converter = new MongoPojoConverter();
                 value = converter.convertPojoToMongo(pojo);
             } else if (value instanceof Pojo[]) {
                 List<Document> pojos = new ArrayList<>();
-                MongoPojoConverter converter = new MongoPojoConverter();
                 Pojo[] list = (Pojo[])value;
                 for (Pojo p: list) {
                     Document converted = converter.convertPojoToMongo(p);
@@ -194,10 +234,10 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
     }
 
     private class MongoAdd<T extends Pojo> extends MongoSetter<T>
-            implements Add<T> {
+            implements BatchableAdd<T> {
         
         private MongoAdd(Category<T> category) {
-            super(category);
+            super(category, MongoStorage.this.converter);
         }
         
         @Override
@@ -205,6 +245,24 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
             return addImpl(category, values);
         }
 
+        @Override
+        public Category<T> getCategory() {
+            return category;
+        }
+
+        @Override
+        public int applyBatch(List<BatchableAdd<T>> batch) {
+            List<Document> documents = new ArrayList<>(batch.size());
+            for (BatchableAdd<T> add : batch) {
+                MongoAdd<T> mongoAdd = (MongoAdd<T>) add;
+                if (!category.equals(mongoAdd.category)) {
+                    throw new IllegalArgumentException("Batch must only contain adds into " + category.getName());
+                }
+                documents.add(mongoAdd.values);
+            }
+            return addBatchImpl(category, documents);
+        }
+
         @Override
         public void set(String key, Object value) {
             super.set(key, value);
@@ -224,7 +282,7 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
         private final MongoExpressionParser parser;
 
         private MongoReplace(Category<T> category) {
-            super(category);
+            super(category, MongoStorage.this.converter);
             this.parser = new MongoExpressionParser();
         }
         
@@ -264,7 +322,7 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
         private final MongoExpressionParser parser;
 
         private MongoUpdate(Category<T> category) {
-            super(category);
+            super(category, MongoStorage.this.converter);
             this.parser = new MongoExpressionParser();
         }
 
@@ -327,6 +385,9 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
 
     private final MongoConnection conn;
     private final Map<String, MongoCollection<Document>> collectionCache = new HashMap<>();
+    private final MongoPojoConverter converter = new MongoPojoConverter();
+    private final MongoRetentionManager retentionManager = new MongoRetentionManager();
+    private final PreparedStatementFactory statementFactory = new PreparedStatementFactory(this);
     private final CountDownLatch connectedLatch;
     private volatile MongoDatabase db = null;
 
@@ -432,6 +493,159 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
         }
     }
     
+    private <T extends Pojo> Cursor<T> executeBucketedQuery(MongoBucketedQuery<T> aggQuery, Category<T> category, MongoQuery<T> queryToAggregate) {
+        try {
+            MongoCollection<Document> coll = getCachedCollection(category);
+            Key<?> aggregateKey = aggQuery.getAggregateKey();
+            BucketedResult result = new BucketedResult();
+            result.setKey(aggregateKey);
+            int maxBuckets = queryToAggregate.getLimit();
+            if (maxBuckets <= 0) {
+                throw new IllegalStateException("Bucketed queries require a positive limit. Limit was: " + maxBuckets);
+            }
+            Document query = queryToAggregate.getGeneratedQuery();
+            if (coll == null) {
+                return result.getCursor();
+            }
+            // Bucket boundaries are derived from the actual time span of
+            // the matching samples. Both lookups are covered by the
+            // time stamp index.
+            Long first = findBoundaryTimeStamp(coll, query, 1);
+            if (first == null) {
+                return result.getCursor();
+            }
+            long last = findBoundaryTimeStamp(coll, query, -1);
+            long bucketSize = computeBucketSize(first, last, maxBuckets);
+            RollupResolution resolution = RollupResolution.fromCategoryName(category.getName());
+            List<Bson> pipeline;
+            if (resolution == null) {
+                pipeline = createBucketPipeline(query, aggregateKey.getName(), first, bucketSize);
+            } else {
+                // Buckets cannot be narrower than the rollups they are made of
+                bucketSize = Math.max(bucketSize, resolution.getBucketSize());
+                pipeline = createRollupBucketPipeline(query, aggregateKey.getName(), first, bucketSize);
+            }
+            result.setBucketSize(bucketSize);
+
+            List<Document> buckets = new ArrayList<>();
+            for (Document bucket : coll.aggregate(pipeline)) {
+                buckets.add(bucket);
+            }
+            int size = buckets.size();
+            long[] timeStamps = new long[size];
+            long[] counts = new long[size];
+            double[] mins = new double[size];
+            double[] maxs = new double[size];
+            double[] avgs = new double[size];
+            double[] lasts = new double[size];
+            for (int i = 0; i < size; i++) {
+                Document bucket = buckets.get(i);
+                timeStamps[i] = ((Number) bucket.get(ID_KEY)).longValue();
+                counts[i] = ((Number) bucket.get(BUCKET_COUNT)).longValue();
+                mins[i] = toDouble(bucket.get(BUCKET_MIN));
+                maxs[i] = toDouble(bucket.get(BUCKET_MAX));
+                avgs[i] = toDouble(bucket.get(BUCKET_AVG));
+                lasts[i] = toDouble(bucket.get(BUCKET_LAST));
+            }
+            result.setTimeStamps(timeStamps);
+            result.setCounts(counts);
+            result.setMinimums(mins);
+            result.setMaximums(maxs);
+            result.setAverages(avgs);
+            result.setLasts(lasts);
+            return result.getCursor();
+        } catch (MongoException me) {
+            throw new StorageException(me);
+        }
+    }
+
+    private Long findBoundaryTimeStamp(MongoCollection<Document> coll, Document query, int direction) {
+        String timeStamp = Key.TIMESTAMP.getName();
+        Document boundary = coll.find(query)
+                .projection(new Document(timeStamp, 1))
+                .sort(new Document(timeStamp, direction))
+                .limit(1)
+                .first();
+        if (boundary == null || boundary.get(timeStamp) == null) {
+            return null;
+        }
+        return ((Number) boundary.get(timeStamp)).longValue();
+    }
+
+    // package-private for testing
+    static long computeBucketSize(long first, long last, int maxBuckets) {
+        long span = last - first + 1;
+        // round up so that we never produce more than maxBuckets buckets
+        return Math.max(1, (span + maxBuckets - 1) / maxBuckets);
+    }
+
+    // package-private for testing
+    static List<Bson> createBucketPipeline(Document query, String key, long origin, long bucketSize) {
+        String timeStamp = "$" + Key.TIMESTAMP.getName();
+        String value = "$" + key;
+        // bucket start: timeStamp - ((timeStamp - origin) % bucketSize)
+        Document offset = new Document("$subtract", Arrays.<Object>asList(timeStamp, origin));
+        Document bucketStart = new Document("$subtract", Arrays.<Object>asList(timeStamp,
+                new Document("$mod", Arrays.<Object>asList(offset, bucketSize))));
+        Document group = new Document(ID_KEY, bucketStart)
+                .append(BUCKET_COUNT, new Document("$sum", 1))
+                .append(BUCKET_MIN, new Document("$min", value))
+                .append(BUCKET_MAX, new Document("$max", value))
+                .append(BUCKET_AVG, new Document("$avg", value))
+                .append(BUCKET_LAST, new Document("$last", value));
+        return Arrays.<Bson>asList(
+                new Document("$match", query),
+                // $last relies on the input order
+                new Document("$sort", new Document(Key.TIMESTAMP.getName(), 1)),
+                new Document("$group", group),
+                new Document("$sort", new Document(ID_KEY, 1)));
+    }
+
+    /**
+     * Like {@link #createBucketPipeline(Document, String, long, long)}, but
+     * for rollups. Counts, minimums and maximums are taken from the rollup
+     * statistics and averages are weighted by the number of samples in each
+     * rollup. The last value of a bucket is the average of its newest
+     * rollup.
+     */
+    // package-private for testing
+    static List<Bson> createRollupBucketPipeline(Document query, String key, long origin, long bucketSize) {
+        String timeStamp = "$" + Key.TIMESTAMP.getName();
+        String value = "$" + key;
+        String rollup = "$" + MongoRetentionManager.ROLLUP_KEY + ".";
+        String count = rollup + MongoRetentionManager.ROLLUP_COUNT_KEY;
+        Document offset = new Document("$subtract", Arrays.<Object>asList(timeStamp, origin));
+        Document bucketStart = new Document("$subtract", Arrays.<Object>asList(timeStamp,
+                new Document("$mod", Arrays.<Object>asList(offset, bucketSize))));
+        Document group = new Document(ID_KEY, bucketStart)
+                .append(BUCKET_COUNT, new Document("$sum", count))
+                .append(BUCKET_MIN, new Document("$min", rollup + MongoRetentionManager.ROLLUP_MIN_KEY + "." + key))
+                .append(BUCKET_MAX, new Document("$max", rollup + MongoRetentionManager.ROLLUP_MAX_KEY + "." + key))
+                .append(BUCKET_WEIGHTED_SUM, new Document("$sum",
+                        new Document("$multiply", Arrays.<Object>asList(value, count))))
+                .append(BUCKET_LAST, new Document("$last", value));
+        Document project = new Document(BUCKET_COUNT, 1)
+                .append(BUCKET_MIN, 1)
+                .append(BUCKET_MAX, 1)
+                .append(BUCKET_AVG, new Document("$divide",
+                        Arrays.<Object>asList("$" + BUCKET_WEIGHTED_SUM, "$" + BUCKET_COUNT)))
+                .append(BUCKET_LAST, 1);
+        return Arrays.<Bson>asList(
+                new Document("$match", query),
+                new Document("$sort", new Document(Key.TIMESTAMP.getName(), 1)),
+                new Document("$group", group),
+                new Document("$project", project),
+                new Document("$sort", new Document(ID_KEY, 1)));
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        // no numeric samples in this bucket
+        return Double.NaN;
+    }
+
     private String[] convertToStringList(Iterable<String> iterable, String keyName) {
         List<String> stringList = new ArrayList<>();
         Iterator<String> iter = iterable.iterator();
@@ -456,6 +670,21 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
         }
     }
 
+    private <T extends Pojo> int addBatchImpl(final Category<T> cat, final List<Document> values) {
+        try {
+            MongoCollection<Document> coll = getCachedCollection(cat);
+            for (Document doc : values) {
+                assertContainsWriterID(doc);
+            }
+            // Samples are independent of each other. Unordered inserts let
+            // the server continue past individual failures.
+            coll.insertMany(values, new InsertManyOptions().ordered(false));
+            return values.size();
+        } catch (MongoException me) {
+            throw new StorageException(me);
+        }
+    }
+
     private <T extends Pojo> long replaceImpl(final Category<T> cat, final Document values, final Document query) {
         try {
             MongoCollection<Document> coll = getCachedCollection(cat);
@@ -538,6 +767,7 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
                 // adapted aggregate category, no need to actually register
                 return;
             }
+            converter.register(category.getDataClass());
             String name = category.getName();
             if (collectionCache.containsKey(name)) {
                 throw new IllegalStateException("Category may only be associated with one backend.");
@@ -575,6 +805,9 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
                 coll = db.getCollection(name);
             }
             collectionCache.put(name, coll);
+            if (category.getRetentionPolicy() != null) {
+                retentionManager.register(category, db, coll);
+            }
             if(!isSchemaInfo) {
                 insertSchemaInfo(category);
             }
@@ -610,8 +843,12 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
                 iterable = coll.find();
             }
             iterable.batchSize(Cursor.DEFAULT_BATCH_SIZE);
+            if (RollupResolution.fromCategoryName(mongoQuery.getCategory().getName()) != null) {
+                // Rollup statistics are not part of the pojo
+                iterable = iterable.projection(new Document(MongoRetentionManager.ROLLUP_KEY, 0));
+            }
             iterable = applySortAndLimit(mongoQuery, iterable);
-            Cursor<T> mongoCursor = new MongoCursor<T>(iterable, resultClass);
+            Cursor<T> mongoCursor = new MongoCursor<T>(iterable, resultClass, converter);
             return mongoCursor;
         } catch (MongoException me) {
             throw new StorageException(me);
@@ -661,7 +898,24 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
     }
 
     @Override
-    public void shutdown() {}
+    public void deleteFile(String filename) {
+        try {
+            GridFSBucket gridFsBucket = createGridFSBucket();
+            // every revision saved under that name
+            List<GridFSFile> files = gridFsBucket.find(new Document("filename", filename))
+                    .into(new ArrayList<GridFSFile>());
+            for (GridFSFile file : files) {
+                gridFsBucket.delete(file.getObjectId());
+            }
+        } catch (MongoException me) {
+            throw new StorageException(me);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        retentionManager.shutdown();
+    }
 
     /*
      *  QueuedStorage decorator uses this method and "wraps" the returned
@@ -670,10 +924,8 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
     @Override
     public <T extends Pojo> PreparedStatement<T> prepareStatement(StatementDescriptor<T> statementDesc)
             throws DescriptorParsingException {
-        // FIXME: Use some kind of cache in order to avoid parsing of
-        // descriptors each time this is called. At least if the descriptor
-        // class is the same we should be able to do something here.
-        return PreparedStatementFactory.getInstance(this, statementDesc);
+        // Parsed descriptors are cached by the factory
+        return statementFactory.prepareStatement(statementDesc);
     }
 
     @Override
@@ -685,6 +937,8 @@ public class MongoStorage implements BackingStorage, SchemaInfoInserter {
             return new MongoCountQuery<>(query, category);
         case DISTINCT:
             return new MongoDistinctQuery<>(query, category); 
+        case BUCKETED:
+            return new MongoBucketedQuery<>(query, category);
         default:
             throw new IllegalStateException("function not supported: "
                     + function);
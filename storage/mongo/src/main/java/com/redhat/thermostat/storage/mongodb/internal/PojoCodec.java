@@ -0,0 +1,434 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.mongodb.internal;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.bson.Document;
+
+import com.redhat.thermostat.storage.core.Persist;
+import com.redhat.thermostat.storage.core.StorageException;
+import com.redhat.thermostat.storage.model.Pojo;
+
+/**
+ * Converts instances of one {@link Pojo} class to and from mongo
+ * {@link Document}s.
+ * <p>
+ * The persistent properties of the class are looked up once, when the codec
+ * is created, and are accessed through method handles afterwards. Arrays of
+ * {@code int}, {@code long} and {@code double} are put into documents as they
+ * are; the driver encodes them with the array codecs registered in
+ * {@link MongoConnection}.
+ */
+final class PojoCodec {
+
+    private static final String ID_KEY = "_id";
+
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Class<?> pojoClass;
+    // null if the class cannot be instantiated. Encoding still works then.
+    private final MethodHandle constructor;
+    private final PropertyAccessor[] properties;
+    private final Map<String, PropertyAccessor> propertiesByName;
+
+    PojoCodec(MongoPojoConverter converter, Class<?> pojoClass) {
+        this.pojoClass = pojoClass;
+        this.constructor = findConstructor(pojoClass);
+        List<PropertyAccessor> accessors = new ArrayList<>();
+        Map<String, PropertyAccessor> byName = new HashMap<>();
+        for (PropertyDescriptor desc : PropertyUtils.getPropertyDescriptors(pojoClass)) {
+            if (hasPersistentAnnotation(desc)) {
+                PropertyAccessor accessor = createPropertyAccessor(converter, desc);
+                accessors.add(accessor);
+                byName.put(accessor.name, accessor);
+            }
+        }
+        this.properties = accessors.toArray(new PropertyAccessor[accessors.size()]);
+        this.propertiesByName = Collections.unmodifiableMap(byName);
+    }
+
+    Class<?> getPojoClass() {
+        return pojoClass;
+    }
+
+    Document encode(Object pojo) {
+        Document document = new Document();
+        for (PropertyAccessor property : properties) {
+            document.put(property.name, property.encode(pojo));
+        }
+        return document;
+    }
+
+    Object decode(Document document) {
+        Object pojo = newInstance();
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            String name = entry.getKey();
+            if (ID_KEY.equals(name)) {
+                continue;
+            }
+            PropertyAccessor property = propertiesByName.get(name);
+            if (property == null) {
+                throw new StorageException("no available mapping for extra property: '" + name + "' in " + pojoClass.getName());
+            }
+            property.decode(pojo, entry.getValue());
+        }
+        return pojo;
+    }
+
+    private Object newInstance() {
+        if (constructor == null) {
+            throw new StorageException("no accessible default constructor in " + pojoClass.getName());
+        }
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (Throwable t) {
+            throw asStorageException(t);
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> pojoClass) {
+        if (pojoClass.isInterface() || pojoClass.isArray() || pojoClass.isPrimitive()) {
+            return null;
+        }
+        try {
+            Constructor<?> ctor = pojoClass.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(ctor).asType(CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static boolean hasPersistentAnnotation(PropertyDescriptor desc) {
+        Method writeMethod = desc.getWriteMethod();
+        Method readMethod = desc.getReadMethod();
+        return writeMethod != null && writeMethod.isAnnotationPresent(Persist.class)
+               && readMethod != null && readMethod.isAnnotationPresent(Persist.class);
+    }
+
+    private static PropertyAccessor createPropertyAccessor(MongoPojoConverter converter, PropertyDescriptor desc) {
+        String name = desc.getName();
+        MethodHandle getter = unreflect(desc.getReadMethod()).asType(GETTER_TYPE);
+        MethodHandle setter = unreflect(desc.getWriteMethod()).asType(SETTER_TYPE);
+        Class<?> type = desc.getPropertyType();
+        if (!type.isArray()) {
+            return new ValueAccessor(name, getter, setter, converter, type);
+        }
+        Class<?> componentType = type.getComponentType();
+        if (componentType == int.class) {
+            return new IntArrayAccessor(name, getter, setter);
+        } else if (componentType == long.class) {
+            return new LongArrayAccessor(name, getter, setter);
+        } else if (componentType == double.class) {
+            return new DoubleArrayAccessor(name, getter, setter);
+        } else if (componentType == String.class) {
+            return new StringArrayAccessor(name, getter, setter);
+        } else if (Pojo.class.isAssignableFrom(componentType)) {
+            return new PojoArrayAccessor(name, getter, setter, converter, componentType);
+        }
+        return new GenericArrayAccessor(name, getter, setter, converter, componentType);
+    }
+
+    private static MethodHandle unreflect(Method method) {
+        try {
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException | SecurityException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private static StorageException asStorageException(Throwable t) {
+        if (t instanceof StorageException) {
+            return (StorageException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new StorageException(t);
+    }
+
+    /**
+     * Reads one property of a pojo into its document representation and
+     * writes it back.
+     */
+    private static abstract class PropertyAccessor {
+
+        final String name;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        PropertyAccessor(String name, MethodHandle getter, MethodHandle setter) {
+            this.name = name;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        final Object encode(Object pojo) {
+            Object value;
+            try {
+                value = (Object) getter.invokeExact(pojo);
+            } catch (Throwable t) {
+                throw asStorageException(t);
+            }
+            return value == null ? null : toDocumentValue(value);
+        }
+
+        final void decode(Object pojo, Object value) {
+            Object pojoValue = value == null ? null : toPojoValue(value);
+            try {
+                setter.invokeExact(pojo, pojoValue);
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("property '" + name + "' can not be set to " + value, e);
+            } catch (Throwable t) {
+                throw asStorageException(t);
+            }
+        }
+
+        /** Converts a non-null property value. */
+        abstract Object toDocumentValue(Object value);
+
+        /** Converts a non-null document value. */
+        abstract Object toPojoValue(Object value);
+    }
+
+    private static Object encodeElement(MongoPojoConverter converter, Object element) {
+        if (element instanceof Pojo) {
+            return converter.getCodec(element.getClass()).encode(element);
+        }
+        return element;
+    }
+
+    private static Object decodeElement(MongoPojoConverter converter, Class<?> type, Object element) {
+        if (element instanceof Document) {
+            return converter.getCodec(type).decode((Document) element);
+        }
+        return element;
+    }
+
+    private static class ValueAccessor extends PropertyAccessor {
+
+        private final MongoPojoConverter converter;
+        private final Class<?> type;
+
+        ValueAccessor(String name, MethodHandle getter, MethodHandle setter, MongoPojoConverter converter, Class<?> type) {
+            super(name, getter, setter);
+            this.converter = converter;
+            this.type = type;
+        }
+
+        @Override
+        Object toDocumentValue(Object value) {
+            return encodeElement(converter, value);
+        }
+
+        @Override
+        Object toPojoValue(Object value) {
+            return decodeElement(converter, type, value);
+        }
+    }
+
+    private static class IntArrayAccessor extends PropertyAccessor {
+
+        IntArrayAccessor(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        Object toDocumentValue(Object value) {
+            return value;
+        }
+
+        @Override
+        Object toPojoValue(Object value) {
+            List<?> values = (List<?>) value;
+            int[] array = new int[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ((Number) values.get(i)).intValue();
+            }
+            return array;
+        }
+    }
+
+    private static class LongArrayAccessor extends PropertyAccessor {
+
+        LongArrayAccessor(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        Object toDocumentValue(Object value) {
+            return value;
+        }
+
+        @Override
+        Object toPojoValue(Object value) {
+            List<?> values = (List<?>) value;
+            long[] array = new long[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ((Number) values.get(i)).longValue();
+            }
+            return array;
+        }
+    }
+
+    private static class DoubleArrayAccessor extends PropertyAccessor {
+
+        DoubleArrayAccessor(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        Object toDocumentValue(Object value) {
+            return value;
+        }
+
+        @Override
+        Object toPojoValue(Object value) {
+            List<?> values = (List<?>) value;
+            double[] array = new double[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ((Number) values.get(i)).doubleValue();
+            }
+            return array;
+        }
+    }
+
+    private static class StringArrayAccessor extends PropertyAccessor {
+
+        StringArrayAccessor(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, getter, setter);
+        }
+
+        @Override
+        Object toDocumentValue(Object value) {
+            // Not handed to StringArrayCodec, which rejects null elements
+            return Arrays.asList((String[]) value);
+        }
+
+        @Override
+        Object toPojoValue(Object value) {
+            List<?> values = (List<?>) value;
+            return values.toArray(new String[values.size()]);
+        }
+    }
+
+    private static class PojoArrayAccessor extends PropertyAccessor {
+
+        private final MongoPojoConverter converter;
+        private final Class<?> componentType;
+
+        PojoArrayAccessor(String name, MethodHandle getter, MethodHandle setter, MongoPojoConverter converter, Class<?> componentType) {
+            super(name, getter, setter);
+            this.converter = converter;
+            this.componentType = componentType;
+        }
+
+        @Override
+        Object toDocumentValue(Object value) {
+            Object[] pojos = (Object[]) value;
+            List<Object> list = new ArrayList<>(pojos.length);
+            for (Object pojo : pojos) {
+                list.add(encodeElement(converter, pojo));
+            }
+            return list;
+        }
+
+        @Override
+        Object toPojoValue(Object value) {
+            List<?> values = (List<?>) value;
+            Object[] array = (Object[]) Array.newInstance(componentType, values.size());
+            for (int i = 0; i < array.length; i++) {
+                array[i] = decodeElement(converter, componentType, values.get(i));
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Arrays without a registered codec are stored as lists. This is the
+     * slow path, but the persisted model classes do not use such arrays.
+     */
+    private static class GenericArrayAccessor extends PropertyAccessor {
+
+        private final MongoPojoConverter converter;
+        private final Class<?> componentType;
+
+        GenericArrayAccessor(String name, MethodHandle getter, MethodHandle setter, MongoPojoConverter converter, Class<?> componentType) {
+            super(name, getter, setter);
+            this.converter = converter;
+            this.componentType = componentType;
+        }
+
+        @Override
+        Object toDocumentValue(Object value) {
+            int length = Array.getLength(value);
+            List<Object> list = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                list.add(encodeElement(converter, Array.get(value, i)));
+            }
+            return list;
+        }
+
+        @Override
+        Object toPojoValue(Object value) {
+            List<?> values = (List<?>) value;
+            Object array = Array.newInstance(componentType, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                Array.set(array, i, decodeElement(converter, componentType, values.get(i)));
+            }
+            return array;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.storage.mongodb.internal;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.redhat.thermostat.common.utils.LoggingUtils;
+import com.redhat.thermostat.storage.core.Category;
+import com.redhat.thermostat.storage.core.DataRetentionPolicy;
+import com.redhat.thermostat.storage.core.RollupResolution;
+
+/**
+ * Decides which {@link DataRetentionPolicy}s the storage enforces, based on
+ * system properties. Categories only declare the policy they would like to
+ * have. Enforcing a policy removes data, so nothing is enforced unless
+ * enabled explicitly.
+ */
+class RetentionConfiguration {
+
+    private static final Logger logger = LoggingUtils.getLogger(RetentionConfiguration.class);
+
+    /*
+     * Boolean. If set to true, the retention policies declared by categories
+     * are enforced. Otherwise all data is kept forever and no rollups are
+     * written.
+     */
+    static final String RETENTION_ENABLED = "com.redhat.thermostat.storage.retention.enabled";
+
+    /*
+     * Per-category override, followed by the category name. Either "off",
+     * which keeps all data of the category, or the number of days raw samples
+     * of the category are kept for. Rollups are kept as declared.
+     */
+    static final String RETENTION_OVERRIDE_PREFIX = "com.redhat.thermostat.storage.retention.";
+
+    static final String RETENTION_OFF = "off";
+
+    private final Properties properties;
+
+    RetentionConfiguration() {
+        this(System.getProperties());
+    }
+
+    // for testing
+    RetentionConfiguration(Properties properties) {
+        this.properties = properties;
+    }
+
+    boolean isEnabled() {
+        return Boolean.parseBoolean(properties.getProperty(RETENTION_ENABLED));
+    }
+
+    /**
+     * @return the policy to enforce for the given category, or {@code null}
+     *         if its data should be kept forever. A malformed override
+     *         keeps the data too.
+     */
+    DataRetentionPolicy getPolicy(Category<?> category) {
+        DataRetentionPolicy declared = category.getRetentionPolicy();
+        if (declared == null || !isEnabled()) {
+            return null;
+        }
+        String property = RETENTION_OVERRIDE_PREFIX + category.getName();
+        String override = properties.getProperty(property);
+        if (override == null) {
+            return declared;
+        }
+        if (RETENTION_OFF.equals(override.trim())) {
+            logger.log(Level.CONFIG, "Data retention disabled for " + category.getName());
+            return null;
+        }
+        try {
+            long rawDays = Long.parseLong(override.trim());
+            DataRetentionPolicy policy = new DataRetentionPolicy(TimeUnit.DAYS.toMillis(rawDays),
+                    declared.getRollupRetention(RollupResolution.MINUTE),
+                    declared.getRollupRetention(RollupResolution.HOUR),
+                    TimeUnit.MILLISECONDS);
+            logger.log(Level.CONFIG, "Using data retention " + policy + " for " + category.getName());
+            return policy;
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException is an IllegalArgumentException too.
+            // Rather keep data than remove it based on a typo.
+            logger.log(Level.SEVERE, "Value of property " + property + ": " + override
+                    + " is neither '" + RETENTION_OFF + "' nor a valid number of days."
+                    + " Keeping all data of " + category.getName(), e);
+            return null;
+        }
+    }
+}
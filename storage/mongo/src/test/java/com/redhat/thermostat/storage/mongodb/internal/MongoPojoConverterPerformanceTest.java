@@ -0,0 +1,266 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.mongodb.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWrapper;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.mongodb.MongoClient;
+import com.redhat.thermostat.storage.core.Persist;
+import com.redhat.thermostat.storage.model.AgentInformation;
+import com.redhat.thermostat.storage.model.BackendInformation;
+import com.redhat.thermostat.storage.model.HostInfo;
+import com.redhat.thermostat.storage.model.NetworkInterfaceInfo;
+import com.redhat.thermostat.storage.model.Pojo;
+import com.redhat.thermostat.storage.model.VmInfo;
+import com.redhat.thermostat.testutils.PerformanceTest;
+
+/**
+ * Compares {@link MongoPojoConverter} against the beanutils based conversion
+ * it replaced, for the pojos of the categories registered by storage core.
+ * 
+ * JUnit categorized performance test. It'll be only run for
+ * the perf-tests profile during a full build.
+ */
+@Category(PerformanceTest.class)
+public class MongoPojoConverterPerformanceTest {
+
+    private static final boolean DEBUG = true;
+    private static final int WARMUP_ITERATIONS = 10_000;
+    private static final int ITERATIONS = 30_000;
+
+    private Pojo[] pojos;
+    private Document[] documents;
+
+    @Before
+    public void setup() {
+        AgentInformation agentInfo = new AgentInformation("writer");
+        agentInfo.setAgentId("agent");
+        agentInfo.setStartTime(1);
+        agentInfo.setStopTime(2);
+        agentInfo.setAlive(true);
+        agentInfo.setConfigListenAddress("127.0.0.1:12000");
+
+        BackendInformation backendInfo = new BackendInformation("writer");
+        backendInfo.setAgentId("agent");
+        backendInfo.setName("backend");
+        backendInfo.setDescription("a backend");
+        backendInfo.setObserveNewJvm(true);
+        backendInfo.setPids(new int[] { 1, 2, 3, 4 });
+        backendInfo.setActive(true);
+        backendInfo.setOrderValue(10);
+
+        HostInfo hostInfo = new HostInfo("writer", "host", "Linux", "4.0", "cpu", 8, 16_000_000_000L);
+        hostInfo.setAgentId("agent");
+
+        NetworkInterfaceInfo nicInfo = new NetworkInterfaceInfo("writer", "eth0");
+        nicInfo.setAgentId("agent");
+        nicInfo.setIp4Addr("10.0.0.1");
+        nicInfo.setIp6Addr("fe80::1");
+
+        Map<String, String> props = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            props.put("key" + i, "value" + i);
+        }
+        VmInfo vmInfo = new VmInfo("writer", "vm", 1234, 1, 2, "1.8", "/usr/lib/jvm",
+                "Main", "java Main", "OpenJDK", "mixed mode", "25.0", "-Xmx1g",
+                props, props, new String[] { "libjava.so", "libnio.so" }, 1000, "user");
+        vmInfo.setAgentId("agent");
+
+        pojos = new Pojo[] { agentInfo, backendInfo, hostInfo, nicInfo, vmInfo };
+        documents = new Document[pojos.length];
+        MongoPojoConverter converter = new MongoPojoConverter();
+        for (int i = 0; i < pojos.length; i++) {
+            documents[i] = asReturnedByDriver(converter.convertPojoToMongo(pojos[i]));
+        }
+    }
+
+    @Test
+    public void codecsAreFasterThanBeanUtils() throws Exception {
+        BeanUtilsConverter beanUtils = new BeanUtilsConverter();
+        MongoPojoConverter converter = new MongoPojoConverter();
+        for (Pojo pojo : pojos) {
+            converter.register(pojo.getClass());
+        }
+
+        // warm up
+        runBeanUtils(beanUtils, WARMUP_ITERATIONS);
+        runCodecs(converter, WARMUP_ITERATIONS);
+
+        long start = System.nanoTime();
+        int beanUtilsCount = runBeanUtils(beanUtils, ITERATIONS);
+        long beanUtilsTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        int codecsCount = runCodecs(converter, ITERATIONS);
+        long codecsTime = System.nanoTime() - start;
+        assertEquals(beanUtilsCount, codecsCount);
+
+        if (DEBUG) {
+            int conversions = ITERATIONS * pojos.length;
+            System.out.println(MongoPojoConverterPerformanceTest.class.getSimpleName() + ":");
+            System.out.println("  beanutils: " + (beanUtilsTime / conversions) + " ns/pojo (encode + decode)");
+            System.out.println("  codecs:    " + (codecsTime / conversions) + " ns/pojo (encode + decode)");
+            System.out.println("  speedup: " + ((double) beanUtilsTime / codecsTime));
+        }
+        assertTrue("Expected codecs to be at least 3 times faster", beanUtilsTime > 3 * codecsTime);
+    }
+
+    private int runBeanUtils(BeanUtilsConverter converter, int iterations) throws Exception {
+        int keys = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (int j = 0; j < pojos.length; j++) {
+                keys += converter.convertPojoToMongo(pojos[j]).size();
+                converter.convertMongoToPojo(documents[j], pojos[j].getClass());
+            }
+        }
+        return keys;
+    }
+
+    private int runCodecs(MongoPojoConverter converter, int iterations) {
+        int keys = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (int j = 0; j < pojos.length; j++) {
+                keys += converter.convertPojoToMongo(pojos[j]).size();
+                converter.convertMongoToPojo(documents[j], pojos[j].getClass());
+            }
+        }
+        return keys;
+    }
+
+    // Arrays come back from the driver as lists
+    private static Document asReturnedByDriver(Document document) {
+        CodecRegistry registry = CodecRegistries.fromRegistries(
+                MongoClient.getDefaultCodecRegistry(),
+                CodecRegistries.fromCodecs(new DoubleArrayCodec(),
+                                           new IntegerArrayCodec(),
+                                           new LongArrayCodec(),
+                                           new StringArrayCodec()));
+        BsonDocument bson = new BsonDocumentWrapper<>(document, registry.get(Document.class));
+        return registry.get(Document.class).decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+    }
+
+    /*
+     * The conversion MongoPojoConverter did before it used PojoCodecs.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static class BeanUtilsConverter {
+
+        Document convertPojoToMongo(Pojo obj) throws Exception {
+            Document dbObj = new Document();
+            for (PropertyDescriptor desc : PropertyUtils.getPropertyDescriptors(obj)) {
+                if (hasPersistentAnnotation(desc)) {
+                    String name = desc.getName();
+                    Object value = PropertyUtils.getProperty(obj, name);
+                    if (desc.getPropertyType().isArray()) {
+                        int length = Array.getLength(value);
+                        List list = new ArrayList(length);
+                        for (int i = 0; i < length; i++) {
+                            Object element = Array.get(value, i);
+                            list.add(element instanceof Pojo ? convertPojoToMongo((Pojo) element) : element);
+                        }
+                        value = list;
+                    }
+                    if (value instanceof Pojo) {
+                        value = convertPojoToMongo((Pojo) value);
+                    }
+                    dbObj.put(name, value);
+                }
+            }
+            return dbObj;
+        }
+
+        Object convertMongoToPojo(Document dbObj, Class pojoClass) throws Exception {
+            Object pojo = pojoClass.newInstance();
+            for (String name : dbObj.keySet()) {
+                PropertyDescriptor desc = PropertyUtils.getPropertyDescriptor(pojo, name);
+                if (!hasPersistentAnnotation(desc)) {
+                    throw new IllegalStateException(name);
+                }
+                Object value = dbObj.get(name);
+                if (desc.getPropertyType().isArray()) {
+                    Class componentType = desc.getPropertyType().getComponentType();
+                    List values = (List) value;
+                    Object array = Array.newInstance(componentType, values.size());
+                    int i = 0;
+                    for (Object element : values) {
+                        if (element instanceof Document) {
+                            element = convertMongoToPojo((Document) element, componentType);
+                        }
+                        Array.set(array, i++, element);
+                    }
+                    value = array;
+                }
+                if (value instanceof Document) {
+                    value = convertMongoToPojo((Document) value, desc.getPropertyType());
+                }
+                PropertyUtils.setProperty(pojo, name, value);
+            }
+            return pojo;
+        }
+
+        private boolean hasPersistentAnnotation(PropertyDescriptor desc) {
+            if (desc == null) {
+                return false;
+            }
+            Method writeMethod = desc.getWriteMethod();
+            Method readMethod = desc.getReadMethod();
+            return writeMethod != null && writeMethod.isAnnotationPresent(Persist.class)
+                   && readMethod != null && readMethod.isAnnotationPresent(Persist.class);
+        }
+    }
+}
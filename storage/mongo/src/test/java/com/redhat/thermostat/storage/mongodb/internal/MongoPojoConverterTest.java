@@ -37,16 +37,27 @@
 
 package com.redhat.thermostat.storage.mongodb.internal;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.List;
 
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWrapper;
 import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.junit.Test;
 
+import com.mongodb.MongoClient;
 import com.redhat.thermostat.storage.core.Entity;
 import com.redhat.thermostat.storage.core.Persist;
 import com.redhat.thermostat.storage.core.StorageException;
@@ -129,6 +140,55 @@ public class MongoPojoConverterTest {
         }
     }
 
+    @Entity
+    public static class ArraysPojo implements Pojo {
+
+        private long[] longs;
+        private double[] doubles;
+        private String[] strings;
+        private boolean[] booleans;
+
+        @Persist
+        public long[] getLongs() {
+            return longs;
+        }
+
+        @Persist
+        public void setLongs(long[] longs) {
+            this.longs = longs;
+        }
+
+        @Persist
+        public double[] getDoubles() {
+            return doubles;
+        }
+
+        @Persist
+        public void setDoubles(double[] doubles) {
+            this.doubles = doubles;
+        }
+
+        @Persist
+        public String[] getStrings() {
+            return strings;
+        }
+
+        @Persist
+        public void setStrings(String[] strings) {
+            this.strings = strings;
+        }
+
+        @Persist
+        public boolean[] getBooleans() {
+            return booleans;
+        }
+
+        @Persist
+        public void setBooleans(boolean[] booleans) {
+            this.booleans = booleans;
+        }
+    }
+
     public static class BrokenPojo1 extends SimplePojo {
         @SuppressWarnings("unused")
         private int broken;
@@ -272,13 +332,86 @@ public class MongoPojoConverterTest {
         Document dbObject = conv.convertPojoToMongo(obj);
         assertEquals(2, dbObject.keySet().size());
         assertEquals("test", dbObject.get("test"));
-        List<?> indexedDbObj = (List<?>) dbObject.get("indexed");
+        // primitive arrays are left to the registered array codecs
+        assertArrayEquals(new int[] { 1, 2, 3 }, (int[]) dbObject.get("indexed"));
+
+        Document decoded = roundTrip(dbObject);
+        List<?> indexedDbObj = (List<?>) decoded.get("indexed");
         assertEquals(3, indexedDbObj.size());
 
         assertEquals(1, indexedDbObj.get(0));
         assertEquals(2, indexedDbObj.get(1));
         assertEquals(3, indexedDbObj.get(2));
+    }
+
+    @Test
+    public void testPrimitiveArraysRoundTrip() {
+        MongoPojoConverter conv = new MongoPojoConverter();
+        ArraysPojo obj = new ArraysPojo();
+        obj.setLongs(new long[] { 1, Long.MAX_VALUE });
+        obj.setDoubles(new double[] { 0.5, -2.25 });
+        obj.setStrings(new String[] { "a", null, "c" });
+        obj.setBooleans(new boolean[] { true, false });
+
+        Document dbObject = roundTrip(conv.convertPojoToMongo(obj));
+        ArraysPojo result = conv.convertMongoToPojo(dbObject, ArraysPojo.class);
+
+        assertArrayEquals(obj.getLongs(), result.getLongs());
+        assertArrayEquals(obj.getDoubles(), result.getDoubles(), 0);
+        assertArrayEquals(obj.getStrings(), result.getStrings());
+        assertEquals(2, result.getBooleans().length);
+        assertTrue(result.getBooleans()[0]);
+        assertFalse(result.getBooleans()[1]);
+    }
+
+    @Test
+    public void testNullArraysRoundTrip() {
+        MongoPojoConverter conv = new MongoPojoConverter();
+        ArraysPojo obj = new ArraysPojo();
+
+        Document dbObject = conv.convertPojoToMongo(obj);
+        assertEquals(4, dbObject.keySet().size());
+        assertNull(dbObject.get("longs"));
+
+        ArraysPojo result = conv.convertMongoToPojo(roundTrip(dbObject), ArraysPojo.class);
+        assertNull(result.getLongs());
+        assertNull(result.getDoubles());
+        assertNull(result.getStrings());
+        assertNull(result.getBooleans());
+    }
+
+    @Test
+    public void testCodecIsCreatedOncePerClass() {
+        MongoPojoConverter conv = new MongoPojoConverter();
+        conv.register(NestedPojo.class);
+        PojoCodec codec = conv.getCodec(NestedPojo.class);
+        assertEquals(NestedPojo.class, codec.getPojoClass());
+
+        NestedPojo obj = new NestedPojo();
+        obj.setNested(new SimplePojo());
+        conv.convertPojoToMongo(obj);
+        assertSame(codec, conv.getCodec(NestedPojo.class));
+    }
+
+    @Test
+    public void testConvertNullDocument() {
+        MongoPojoConverter conv = new MongoPojoConverter();
+        assertNull(conv.convertMongoToPojo(null, SimplePojo.class));
+    }
 
+    /*
+     * Encodes and decodes the document the way the driver does, with the
+     * codecs MongoConnection registers.
+     */
+    private static Document roundTrip(Document document) {
+        CodecRegistry registry = CodecRegistries.fromRegistries(
+                MongoClient.getDefaultCodecRegistry(),
+                CodecRegistries.fromCodecs(new DoubleArrayCodec(),
+                                           new IntegerArrayCodec(),
+                                           new LongArrayCodec(),
+                                           new StringArrayCodec()));
+        BsonDocument bson = new BsonDocumentWrapper<>(document, registry.get(Document.class));
+        return registry.get(Document.class).decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
     }
 
     @Test
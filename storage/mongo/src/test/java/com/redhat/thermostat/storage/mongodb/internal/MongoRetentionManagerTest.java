@@ -0,0 +1,297 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.storage.mongodb.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.redhat.thermostat.common.Clock;
+import com.redhat.thermostat.storage.core.Category;
+import com.redhat.thermostat.storage.core.DataRetentionPolicy;
+import com.redhat.thermostat.storage.core.Key;
+import com.redhat.thermostat.storage.core.Persist;
+import com.redhat.thermostat.storage.model.BasePojo;
+import com.redhat.thermostat.storage.model.TimeStampedPojo;
+
+public class MongoRetentionManagerTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long NOW = 1000 * DAY + 30 * MINUTE + 30_000;
+
+    private static final Key<Double> LOAD = new Key<>("load");
+    private static final Key<Integer> THREADS = new Key<>("threads");
+    private static final Key<String> STATE = new Key<>("state");
+    private static final Category<TestStat> category = new Category<>("retention-manager-test", TestStat.class,
+            Arrays.<Key<?>>asList(Key.AGENT_ID, Key.VM_ID, Key.TIMESTAMP, LOAD, THREADS, STATE),
+            Arrays.<Key<?>>asList(Key.TIMESTAMP),
+            new DataRetentionPolicy(1, 7, 0, TimeUnit.DAYS));
+
+    private MongoRetentionManager manager;
+    private MongoCollection<Document> raw;
+    private MongoCollection<Document> minutes;
+    private AggregateIterable<Document> aggregated;
+    private MongoCursor<Document> aggregatedCursor;
+    private FindIterable<Document> latestRollup;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() {
+        Clock clock = mock(Clock.class);
+        when(clock.getRealTimeMillis()).thenReturn(NOW);
+        Properties props = new Properties();
+        props.setProperty(RetentionConfiguration.RETENTION_ENABLED, "true");
+        manager = new MongoRetentionManager(clock, new RetentionConfiguration(props));
+
+        raw = mock(MongoCollection.class);
+        aggregated = mock(AggregateIterable.class);
+        aggregatedCursor = mock(MongoCursor.class);
+        when(aggregated.iterator()).thenReturn(aggregatedCursor);
+        when(raw.aggregate(anyListOf(Bson.class))).thenReturn(aggregated);
+
+        minutes = mock(MongoCollection.class);
+        latestRollup = mock(FindIterable.class);
+        when(minutes.find()).thenReturn(latestRollup);
+        when(latestRollup.sort(any(Bson.class))).thenReturn(latestRollup);
+        when(latestRollup.limit(1)).thenReturn(latestRollup);
+
+        MongoDatabase db = mock(MongoDatabase.class);
+        when(db.getCollection("retention-manager-test-rollup-1m")).thenReturn(minutes);
+        manager.register(category, db, raw);
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    public void testRegisterCreatesIndexes() {
+        verify(raw).createIndex(new Document("timeStamp", 1));
+        verify(minutes).createIndex(new Document("agentId", 1).append("vmId", 1).append("timeStamp", 1));
+        verify(minutes).createIndex(new Document("timeStamp", 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRegisterDoesNothingIfRetentionNotEnabled() {
+        MongoRetentionManager disabled = new MongoRetentionManager(mock(Clock.class),
+                new RetentionConfiguration(new Properties()));
+        MongoCollection<Document> otherRaw = mock(MongoCollection.class);
+        MongoDatabase db = mock(MongoDatabase.class);
+        disabled.register(category, db, otherRaw);
+        disabled.enforceRetention();
+        disabled.shutdown();
+
+        verifyZeroInteractions(db, otherRaw);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRollUp() {
+        Document id = new Document("agentId", "agent").append("vmId", "vm").append("timeStamp", 1000 * DAY);
+        Document group = new Document("_id", id)
+                .append("count", 3)
+                .append("avg_load", 0.5).append("min_load", 0.25).append("max_load", 0.75)
+                .append("avg_threads", 10.6).append("min_threads", 9).append("max_threads", 12)
+                .append("first_state", "RUNNABLE");
+        when(aggregatedCursor.hasNext()).thenReturn(true).thenReturn(false);
+        when(aggregatedCursor.next()).thenReturn(group);
+
+        manager.enforceRetention();
+
+        ArgumentCaptor<List> pipelineCaptor = ArgumentCaptor.forClass(List.class);
+        verify(raw).aggregate(pipelineCaptor.capture());
+        List<Document> pipeline = pipelineCaptor.getValue();
+        assertEquals(2, pipeline.size());
+        // no rollups yet, everything up to the current minute gets rolled up
+        Document match = new Document("timeStamp", new Document("$gte", 0L).append("$lt", NOW - 30_000));
+        assertEquals(new Document("$match", match), pipeline.get(0));
+        Document groupStage = (Document) pipeline.get(1).get("$group");
+        Document bucket = new Document("$subtract", Arrays.<Object>asList("$timeStamp",
+                new Document("$mod", Arrays.<Object>asList("$timeStamp", MINUTE))));
+        assertEquals(new Document("agentId", "$agentId").append("vmId", "$vmId").append("timeStamp", bucket),
+                groupStage.get("_id"));
+        assertEquals(new Document("$avg", "$load"), groupStage.get("avg_load"));
+        assertEquals(new Document("$max", "$threads"), groupStage.get("max_threads"));
+        assertEquals(new Document("$first", "$state"), groupStage.get("first_state"));
+
+        ArgumentCaptor<List> writesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(minutes).bulkWrite(writesCaptor.capture(), any(BulkWriteOptions.class));
+        List<WriteModel<Document>> writes = writesCaptor.getValue();
+        assertEquals(1, writes.size());
+        ReplaceOneModel<Document> write = (ReplaceOneModel<Document>) writes.get(0);
+        assertEquals(id, write.getFilter());
+        Document rollup = write.getReplacement();
+        assertEquals("agent", rollup.get("agentId"));
+        assertEquals("vm", rollup.get("vmId"));
+        assertEquals(1000 * DAY, rollup.get("timeStamp"));
+        assertEquals(0.5, rollup.get("load"));
+        // rounded to the property type
+        assertEquals(11, rollup.get("threads"));
+        assertEquals("RUNNABLE", rollup.get("state"));
+        Document stats = (Document) rollup.get(MongoRetentionManager.ROLLUP_KEY);
+        assertEquals(3, stats.get("count"));
+        assertEquals(new Document("load", 0.25).append("threads", 9), stats.get("min"));
+        assertEquals(new Document("load", 0.75).append("threads", 12), stats.get("max"));
+        assertTrue(write.getOptions().isUpsert());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRollUpResumes() {
+        when(latestRollup.first()).thenReturn(new Document("timeStamp", NOW - 30_000 - 5 * MINUTE));
+        when(aggregatedCursor.hasNext()).thenReturn(false);
+
+        manager.enforceRetention();
+        manager.enforceRetention();
+
+        // the second run is in the same minute and has nothing to do
+        @SuppressWarnings("rawtypes")
+        ArgumentCaptor<List> pipelineCaptor = ArgumentCaptor.forClass(List.class);
+        verify(raw, times(1)).aggregate(pipelineCaptor.capture());
+        Document match = new Document("timeStamp", new Document("$gte", NOW - 30_000 - 4 * MINUTE).append("$lt", NOW - 30_000));
+        assertEquals(new Document("$match", match), pipelineCaptor.getValue().get(0));
+        verify(minutes, times(1)).find();
+        verify(minutes, never()).bulkWrite(any(List.class), any(BulkWriteOptions.class));
+    }
+
+    @Test
+    public void testPrune() {
+        when(aggregatedCursor.hasNext()).thenReturn(false);
+
+        manager.enforceRetention();
+
+        verify(raw).deleteMany(eq(new Document("timeStamp", new Document("$lt", NOW - DAY))));
+        verify(minutes).deleteMany(eq(new Document("timeStamp", new Document("$lt", NOW - 7 * DAY))));
+    }
+
+    public static class TestStat extends BasePojo implements TimeStampedPojo {
+
+        private String vmId;
+        private long timeStamp;
+        private double load;
+        private int threads;
+        private String state;
+
+        public TestStat() {
+            super(null);
+        }
+
+        @Persist
+        public String getVmId() {
+            return vmId;
+        }
+
+        @Persist
+        public void setVmId(String vmId) {
+            this.vmId = vmId;
+        }
+
+        @Persist
+        @Override
+        public long getTimeStamp() {
+            return timeStamp;
+        }
+
+        @Persist
+        public void setTimeStamp(long timeStamp) {
+            this.timeStamp = timeStamp;
+        }
+
+        @Persist
+        public double getLoad() {
+            return load;
+        }
+
+        @Persist
+        public void setLoad(double load) {
+            this.load = load;
+        }
+
+        @Persist
+        public int getThreads() {
+            return threads;
+        }
+
+        @Persist
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        @Persist
+        public String getState() {
+            return state;
+        }
+
+        @Persist
+        public void setState(String state) {
+            this.state = state;
+        }
+    }
+}
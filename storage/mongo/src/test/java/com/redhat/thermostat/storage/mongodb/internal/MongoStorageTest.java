@@ -40,6 +40,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
@@ -47,37 +48,50 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.CountDownLatch;
 
 import com.redhat.thermostat.common.internal.test.Bug;
+import org.bson.BsonObjectId;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.mongodb.MongoClient;
+import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.DistinctIterable;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.MongoIterable;
 import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSFindIterable;
+import com.mongodb.client.gridfs.model.GridFSFile;
 import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
@@ -86,6 +100,7 @@ import com.redhat.thermostat.storage.core.Add;
 import com.redhat.thermostat.storage.core.AggregateQuery;
 import com.redhat.thermostat.storage.core.AggregateQuery.AggregateFunction;
 import com.redhat.thermostat.storage.core.BackingStorage;
+import com.redhat.thermostat.storage.core.BatchableAdd;
 import com.redhat.thermostat.storage.core.Category;
 import com.redhat.thermostat.storage.core.CategoryAdapter;
 import com.redhat.thermostat.storage.core.Connection.ConnectionListener;
@@ -96,6 +111,7 @@ import com.redhat.thermostat.storage.core.Key;
 import com.redhat.thermostat.storage.core.Persist;
 import com.redhat.thermostat.storage.core.Query;
 import com.redhat.thermostat.storage.core.Remove;
+import com.redhat.thermostat.storage.core.RollupResolution;
 import com.redhat.thermostat.storage.core.Replace;
 import com.redhat.thermostat.storage.core.SaveFileListener;
 import com.redhat.thermostat.storage.core.SaveFileListener.EventType;
@@ -106,6 +122,7 @@ import com.redhat.thermostat.storage.core.Update;
 import com.redhat.thermostat.storage.dao.HostInfoDAO;
 import com.redhat.thermostat.storage.model.AggregateCount;
 import com.redhat.thermostat.storage.model.BasePojo;
+import com.redhat.thermostat.storage.model.BucketedResult;
 import com.redhat.thermostat.storage.model.DistinctResult;
 import com.redhat.thermostat.storage.model.HostInfo;
 import com.redhat.thermostat.storage.model.Pojo;
@@ -439,6 +456,33 @@ public class MongoStorageTest {
         verify(testCollection).find(same(generatedQuery));
     }
 
+    @Test
+    public void verifyFindAllExcludesRollupStatistics() throws Exception {
+        MongoStorage storage = makeStorage();
+        Category<TestClass> rollupCategory = RollupResolution.MINUTE.getCategory(testCategory);
+        storage.mapCategoryToDBCollection(rollupCategory, testCollection);
+        when(cursor.projection(any(Document.class))).thenReturn(cursor);
+
+        @SuppressWarnings("unchecked")
+        MongoQuery<TestClass> query = mock(MongoQuery.class);
+        when(query.getCategory()).thenReturn(rollupCategory);
+        storage.findAllPojos(query, TestClass.class);
+
+        verify(cursor).projection(new Document(MongoRetentionManager.ROLLUP_KEY, 0));
+    }
+
+    @Test
+    public void verifyFindAllDoesNotProjectRawSamples() throws Exception {
+        MongoStorage storage = makeStorage();
+
+        @SuppressWarnings("unchecked")
+        MongoQuery<TestClass> query = mock(MongoQuery.class);
+        when(query.getCategory()).thenReturn(testCategory);
+        storage.findAllPojos(query, TestClass.class);
+
+        verify(cursor, never()).projection(any(Document.class));
+    }
+
     @Test
     public void verifyFindAllReturnsCorrectCursor() throws Exception {
         MongoStorage storage = makeStorage();
@@ -550,6 +594,27 @@ public class MongoStorageTest {
         assertEquals("123", val.get("agentId"));
     }
     
+    @Test
+    public void verifyBatchedAddsUseSingleInsertMany() throws Exception {
+        MongoStorage storage = makeStorage();
+        BatchableAdd<TestClass> first = (BatchableAdd<TestClass>) storage.createAdd(testCategory);
+        first.set(Key.AGENT_ID.getName(), "123");
+        BatchableAdd<TestClass> second = (BatchableAdd<TestClass>) storage.createAdd(testCategory);
+        second.set(Key.AGENT_ID.getName(), "456");
+        assertSame(testCategory, first.getCategory());
+
+        int written = first.applyBatch(Arrays.asList(first, second));
+
+        assertEquals(2, written);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Document>> docs = (ArgumentCaptor<List<Document>>) (ArgumentCaptor<?>) ArgumentCaptor.forClass(List.class);
+        verify(testCollection).insertMany(docs.capture(), any(InsertManyOptions.class));
+        verify(testCollection, never()).insertOne(any(Document.class));
+        assertEquals(2, docs.getValue().size());
+        assertEquals("123", docs.getValue().get(0).get("agentId"));
+        assertEquals("456", docs.getValue().get(1).get("agentId"));
+    }
+
     /*
      *  This test verifies if pojo types get converted correctly. This
      *  add isn't really using the correct type parameter. It should be using
@@ -641,6 +706,168 @@ public class MongoStorageTest {
         assertEquals(key2, r.getKey());
     }
     
+    @SuppressWarnings("unchecked")
+    @Test
+    public void verifyAggregateBucketed() throws Exception {
+        // boundary lookups: first oldest, then newest matching sample
+        FindIterable<Document> boundaries = mock(FindIterable.class);
+        when(boundaries.projection(any(Bson.class))).thenReturn(boundaries);
+        when(boundaries.sort(any(Bson.class))).thenReturn(boundaries);
+        when(boundaries.limit(1)).thenReturn(boundaries);
+        when(boundaries.first()).thenReturn(new Document(Key.TIMESTAMP.getName(), 1000L))
+                                .thenReturn(new Document(Key.TIMESTAMP.getName(), 1999L));
+        when(testCollection.find(any(Document.class))).thenReturn(boundaries);
+
+        Document bucket1 = new Document("_id", 1000L).append("count", 3).append("min", 1.0)
+                .append("max", 5.0).append("avg", 3.0).append("last", 2.0);
+        Document bucket2 = new Document("_id", 1500L).append("count", 1).append("min", 4L)
+                .append("max", 4L).append("avg", 4.0).append("last", 4L);
+        AggregateIterable<Document> aggregated = mock(AggregateIterable.class);
+        com.mongodb.client.MongoCursor<Document> aggCursor = mock(com.mongodb.client.MongoCursor.class);
+        when(aggregated.iterator()).thenReturn(aggCursor);
+        when(aggCursor.hasNext()).thenReturn(true).thenReturn(true).thenReturn(false);
+        when(aggCursor.next()).thenReturn(bucket1).thenReturn(bucket2);
+        ArgumentCaptor<List> pipelineCaptor = ArgumentCaptor.forClass(List.class);
+        when(testCollection.aggregate(pipelineCaptor.capture())).thenReturn(aggregated);
+
+        MongoStorage storage = makeStorage();
+        CategoryAdapter<TestClass, BucketedResult> adapter = new CategoryAdapter<>(testCategory);
+        Category<BucketedResult> adaptedCategory = adapter.getAdapted(BucketedResult.class);
+        AggregateQuery<BucketedResult> aggQuery = storage.createAggregateQuery(AggregateFunction.BUCKETED, adaptedCategory);
+        aggQuery.setAggregateKey(key1);
+        aggQuery.limit(2);
+        Cursor<BucketedResult> cursor = aggQuery.execute();
+        assertTrue(cursor.hasNext());
+        BucketedResult r = cursor.next();
+        assertFalse(cursor.hasNext());
+
+        assertEquals(key1, r.getKey());
+        assertEquals(500L, r.getBucketSize());
+        assertEquals(2, r.size());
+        Assert.assertArrayEquals(new long[] { 1000L, 1500L }, r.getTimeStamps());
+        Assert.assertArrayEquals(new long[] { 3L, 1L }, r.getCounts());
+        Assert.assertArrayEquals(new double[] { 1.0, 4.0 }, r.getMinimums(), 0);
+        Assert.assertArrayEquals(new double[] { 5.0, 4.0 }, r.getMaximums(), 0);
+        Assert.assertArrayEquals(new double[] { 3.0, 4.0 }, r.getAverages(), 0);
+        Assert.assertArrayEquals(new double[] { 2.0, 4.0 }, r.getLasts(), 0);
+        assertEquals(MongoStorage.createBucketPipeline(new Document(), key1.getName(), 1000L, 500L),
+                pipelineCaptor.getValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void verifyAggregateBucketedNoMatches() throws Exception {
+        FindIterable<Document> boundaries = mock(FindIterable.class);
+        when(boundaries.projection(any(Bson.class))).thenReturn(boundaries);
+        when(boundaries.sort(any(Bson.class))).thenReturn(boundaries);
+        when(boundaries.limit(1)).thenReturn(boundaries);
+        when(boundaries.first()).thenReturn(null);
+        when(testCollection.find(any(Document.class))).thenReturn(boundaries);
+
+        MongoStorage storage = makeStorage();
+        CategoryAdapter<TestClass, BucketedResult> adapter = new CategoryAdapter<>(testCategory);
+        Category<BucketedResult> adaptedCategory = adapter.getAdapted(BucketedResult.class);
+        AggregateQuery<BucketedResult> aggQuery = storage.createAggregateQuery(AggregateFunction.BUCKETED, adaptedCategory);
+        aggQuery.setAggregateKey(key1);
+        aggQuery.limit(100);
+        BucketedResult r = aggQuery.execute().next();
+        assertEquals(0, r.size());
+        verify(testCollection, never()).aggregate(any(List.class));
+    }
+
+    @Test
+    public void testComputeBucketSize() {
+        assertEquals(1, MongoStorage.computeBucketSize(1000, 1000, 100));
+        assertEquals(1, MongoStorage.computeBucketSize(1000, 1009, 100));
+        assertEquals(10, MongoStorage.computeBucketSize(0, 999, 100));
+        // rounds up, never more than the requested number of buckets
+        assertEquals(11, MongoStorage.computeBucketSize(0, 1000, 100));
+        // 7 days across 1000 pixels
+        assertEquals(604800, MongoStorage.computeBucketSize(0, 7 * 24 * 3600 * 1000L - 1, 1000));
+    }
+
+    @Test
+    public void testBucketPipeline() {
+        Document query = new Document("agentId", "foo");
+        List<Bson> pipeline = MongoStorage.createBucketPipeline(query, "value", 1000L, 500L);
+        assertEquals(4, pipeline.size());
+        assertEquals(new Document("$match", query), pipeline.get(0));
+        assertEquals(new Document("$sort", new Document("timeStamp", 1)), pipeline.get(1));
+        Document group = (Document) ((Document) pipeline.get(2)).get("$group");
+        Document offset = new Document("$subtract", Arrays.<Object>asList("$timeStamp", 1000L));
+        Document bucketStart = new Document("$subtract", Arrays.<Object>asList("$timeStamp",
+                new Document("$mod", Arrays.<Object>asList(offset, 500L))));
+        assertEquals(bucketStart, group.get("_id"));
+        assertEquals(new Document("$last", "$value"), group.get("last"));
+        assertEquals(new Document("$sort", new Document("_id", 1)), pipeline.get(3));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void verifyAggregateBucketedRollups() throws Exception {
+        FindIterable<Document> boundaries = mock(FindIterable.class);
+        when(boundaries.projection(any(Bson.class))).thenReturn(boundaries);
+        when(boundaries.sort(any(Bson.class))).thenReturn(boundaries);
+        when(boundaries.limit(1)).thenReturn(boundaries);
+        when(boundaries.first()).thenReturn(new Document(Key.TIMESTAMP.getName(), 60000L))
+                                .thenReturn(new Document(Key.TIMESTAMP.getName(), 120000L));
+        when(testCollection.find(any(Document.class))).thenReturn(boundaries);
+        AggregateIterable<Document> aggregated = mock(AggregateIterable.class);
+        when(aggregated.iterator()).thenReturn(mock(com.mongodb.client.MongoCursor.class));
+        ArgumentCaptor<List> pipelineCaptor = ArgumentCaptor.forClass(List.class);
+        when(testCollection.aggregate(pipelineCaptor.capture())).thenReturn(aggregated);
+
+        MongoStorage storage = makeStorage();
+        Category<TestClass> rollupCategory = RollupResolution.MINUTE.getCategory(testCategory);
+        storage.mapCategoryToDBCollection(rollupCategory, testCollection);
+        CategoryAdapter<TestClass, BucketedResult> adapter = new CategoryAdapter<>(rollupCategory);
+        Category<BucketedResult> adaptedCategory = adapter.getAdapted(BucketedResult.class);
+        AggregateQuery<BucketedResult> aggQuery = storage.createAggregateQuery(AggregateFunction.BUCKETED, adaptedCategory);
+        aggQuery.setAggregateKey(key1);
+        aggQuery.limit(100);
+        BucketedResult r = aggQuery.execute().next();
+
+        // two minutes across 100 buckets, but not narrower than a rollup
+        assertEquals(60000L, r.getBucketSize());
+        assertEquals(MongoStorage.createRollupBucketPipeline(new Document(), key1.getName(), 60000L, 60000L),
+                pipelineCaptor.getValue());
+    }
+
+    @Test
+    public void testRollupBucketPipeline() {
+        Document query = new Document("agentId", "foo");
+        List<Bson> pipeline = MongoStorage.createRollupBucketPipeline(query, "value", 0L, 60000L);
+        assertEquals(5, pipeline.size());
+        assertEquals(new Document("$match", query), pipeline.get(0));
+        Document group = (Document) ((Document) pipeline.get(2)).get("$group");
+        assertEquals(new Document("$sum", "$_rollup.count"), group.get("count"));
+        assertEquals(new Document("$min", "$_rollup.min.value"), group.get("min"));
+        assertEquals(new Document("$max", "$_rollup.max.value"), group.get("max"));
+        assertEquals(new Document("$sum", new Document("$multiply", Arrays.<Object>asList("$value", "$_rollup.count"))),
+                group.get("weightedSum"));
+        Document project = (Document) ((Document) pipeline.get(3)).get("$project");
+        assertEquals(new Document("$divide", Arrays.<Object>asList("$weightedSum", "$count")), project.get("avg"));
+        assertEquals(new Document("$sort", new Document("_id", 1)), pipeline.get(4));
+    }
+
+    @Test
+    public void canDuplicateAggregateBucketed() throws Exception {
+        MongoStorage storage = makeStorage();
+        CategoryAdapter<TestClass, BucketedResult> adapter = new CategoryAdapter<>(testCategory);
+        Category<BucketedResult> adaptedCategory = adapter.getAdapted(BucketedResult.class);
+        AggregateQuery<BucketedResult> aggQuery = storage.createAggregateQuery(AggregateFunction.BUCKETED, adaptedCategory);
+        aggQuery.setAggregateKey(key1);
+        aggQuery.limit(10);
+
+        AggregateQuery<BucketedResult> rawCopy = (AggregateQuery<BucketedResult>) aggQuery.getRawDuplicate();
+        assertEquals(AggregateFunction.BUCKETED, rawCopy.getAggregateFunction());
+        assertEquals("Expected key to be copied for dupe", key1, rawCopy.getAggregateKey());
+        // patching the duplicate must not affect the original
+        rawCopy.limit(20);
+        aggQuery.where(factory.equalTo(key2, "bar"));
+        assertNull(rawCopy.getWhereExpression());
+    }
+
     /*
      * The statement descriptor subsystem uses getRawDuplicate. That duplicate
      * needs to keep the key parameter set for distinct aggregate queries.
@@ -728,6 +955,39 @@ public class MongoStorageTest {
         verify(mockBucket).openDownloadStreamByName("test");
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void verifyDeleteFileDeletesAllRevisions() throws Exception {
+        final GridFSBucket mockBucket = mock(GridFSBucket.class);
+        GridFSFindIterable found = mock(GridFSFindIterable.class);
+        final GridFSFile first = new GridFSFile(new BsonObjectId(new ObjectId()), "test", 1, 1, new Date(), "", null);
+        final GridFSFile second = new GridFSFile(new BsonObjectId(new ObjectId()), "test", 1, 1, new Date(), "", null);
+        when(found.into(any(Collection.class))).thenAnswer(new Answer<Collection<GridFSFile>>() {
+            @Override
+            public Collection<GridFSFile> answer(InvocationOnMock invocation) throws Throwable {
+                Collection<GridFSFile> target = (Collection<GridFSFile>) invocation.getArguments()[0];
+                target.add(first);
+                target.add(second);
+                return target;
+            }
+        });
+        when(mockBucket.find(any(Bson.class))).thenReturn(found);
+        MongoStorage storage = new MongoStorage(mock(MongoDatabase.class), new CountDownLatch(0)) {
+            
+            @Override
+            GridFSBucket createGridFSBucket() {
+                return mockBucket;
+            }
+        };
+        storage.deleteFile("test");
+
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        verify(mockBucket).find(filter.capture());
+        assertEquals(new Document("filename", "test"), filter.getValue());
+        verify(mockBucket).delete(first.getObjectId());
+        verify(mockBucket).delete(second.getObjectId());
+    }
+
     @Test
     public void verifySimpleUpdate() {
         MongoStorage storage = makeStorage();
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.storage.mongodb.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.storage.core.Category;
+import com.redhat.thermostat.storage.core.DataRetentionPolicy;
+import com.redhat.thermostat.storage.core.Key;
+import com.redhat.thermostat.storage.model.TimeStampedPojo;
+
+public class RetentionConfigurationTest {
+
+    private static final DataRetentionPolicy declared = new DataRetentionPolicy(1, 30, 365, TimeUnit.DAYS);
+    private static final Category<TestStat> retained = new Category<>("retention-config-test", TestStat.class,
+            Arrays.<Key<?>>asList(Key.AGENT_ID, Key.TIMESTAMP), Arrays.<Key<?>>asList(Key.TIMESTAMP),
+            declared);
+    private static final Category<TestStat> unretained = new Category<>("retention-config-test-unretained",
+            TestStat.class, Key.AGENT_ID, Key.TIMESTAMP);
+
+    private Properties props;
+    private RetentionConfiguration config;
+
+    @Before
+    public void setUp() {
+        props = new Properties();
+        config = new RetentionConfiguration(props);
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertFalse(config.isEnabled());
+        assertNull(config.getPolicy(retained));
+    }
+
+    @Test
+    public void testEnabledUsesDeclaredPolicy() {
+        props.setProperty(RetentionConfiguration.RETENTION_ENABLED, "true");
+        assertTrue(config.isEnabled());
+        assertEquals(declared, config.getPolicy(retained));
+        assertNull(config.getPolicy(unretained));
+    }
+
+    @Test
+    public void testOverrideOff() {
+        props.setProperty(RetentionConfiguration.RETENTION_ENABLED, "true");
+        props.setProperty(RetentionConfiguration.RETENTION_OVERRIDE_PREFIX + retained.getName(), "off");
+        assertNull(config.getPolicy(retained));
+    }
+
+    @Test
+    public void testOverrideRawRetention() {
+        props.setProperty(RetentionConfiguration.RETENTION_ENABLED, "true");
+        props.setProperty(RetentionConfiguration.RETENTION_OVERRIDE_PREFIX + retained.getName(), "3");
+        assertEquals(new DataRetentionPolicy(3, 30, 365, TimeUnit.DAYS), config.getPolicy(retained));
+    }
+
+    @Test
+    public void testOverrideIgnoredIfDisabled() {
+        props.setProperty(RetentionConfiguration.RETENTION_OVERRIDE_PREFIX + retained.getName(), "3");
+        assertNull(config.getPolicy(retained));
+    }
+
+    @Test
+    public void testMalformedOverrideKeepsData() {
+        props.setProperty(RetentionConfiguration.RETENTION_ENABLED, "true");
+        props.setProperty(RetentionConfiguration.RETENTION_OVERRIDE_PREFIX + retained.getName(), "a week");
+        assertNull(config.getPolicy(retained));
+        props.setProperty(RetentionConfiguration.RETENTION_OVERRIDE_PREFIX + retained.getName(), "0");
+        assertNull(config.getPolicy(retained));
+    }
+
+    private static interface TestStat extends TimeStampedPojo {
+    }
+}
@@ -40,11 +40,15 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import com.redhat.thermostat.storage.core.Add;
 import com.redhat.thermostat.storage.core.AggregateQuery;
 import com.redhat.thermostat.storage.core.AggregateQuery.AggregateFunction;
 import com.redhat.thermostat.storage.core.BackingStorage;
 import com.redhat.thermostat.storage.core.Category;
+import com.redhat.thermostat.storage.core.Key;
 import com.redhat.thermostat.storage.core.Query;
 import com.redhat.thermostat.storage.core.Remove;
 import com.redhat.thermostat.storage.core.Replace;
@@ -54,6 +58,8 @@ import com.redhat.thermostat.storage.model.Pojo;
 import com.redhat.thermostat.storage.testutils.ParserType;
 
 class DescriptorParserImplFactory {
+
+    private static final Pattern AGGREGATE_KEY_PATTERN = Pattern.compile("^QUERY-[A-Z]+\\(([a-zA-Z_]+)\\)");
     
     <T extends Pojo> StatementDescriptorParser<T> getParser(ParserType type, StatementDescriptor<T> desc) {
         switch (type) {
@@ -82,6 +88,13 @@ class DescriptorParserImplFactory {
         AggregateQuery aggregateQuery = mock(AggregateQuery.class);
         if (desc.contains("QUERY-COUNT")) {
             when(aggregateQuery.getAggregateFunction()).thenReturn(AggregateFunction.COUNT);
+        } else if (desc.contains("QUERY-BUCKETED")) {
+            when(aggregateQuery.getAggregateFunction()).thenReturn(AggregateFunction.BUCKETED);
+            // bucketed queries are checked for a known aggregate key
+            Matcher keyMatcher = AGGREGATE_KEY_PATTERN.matcher(desc);
+            if (keyMatcher.find()) {
+                when(aggregateQuery.getAggregateKey()).thenReturn(new Key<>(keyMatcher.group(1)));
+            }
         } else {
             when(aggregateQuery.getAggregateFunction()).thenReturn(AggregateFunction.DISTINCT);
         }
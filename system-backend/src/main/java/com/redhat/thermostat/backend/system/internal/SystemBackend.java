@@ -37,8 +37,8 @@
 package com.redhat.thermostat.backend.system.internal;
 
 import java.net.URISyntaxException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,6 +51,7 @@ import sun.jvmstat.monitor.MonitoredHost;
 
 import com.redhat.thermostat.agent.VmBlacklist;
 import com.redhat.thermostat.common.portability.UserNameUtil;
+import com.redhat.thermostat.backend.BackendScheduler;
 import com.redhat.thermostat.backend.BaseBackend;
 import com.redhat.thermostat.common.Version;
 import com.redhat.thermostat.common.utils.LoggingUtils;
@@ -72,7 +73,7 @@ public class SystemBackend extends BaseBackend {
 
     private long procCheckInterval = 1000; // TODO make this configurable.
 
-    private Timer timer = null;
+    private ScheduledExecutorService executor = null;
 
     private HostIdentifier hostId = null;
     private MonitoredHost host = null;
@@ -104,7 +105,7 @@ public class SystemBackend extends BaseBackend {
 
     @Override
     public synchronized boolean activate() {
-        if (timer != null) {
+        if (executor != null) {
             return true;
         }
 
@@ -114,15 +115,15 @@ public class SystemBackend extends BaseBackend {
         HostInfo hostInfo = InfoBuilderFactory.INSTANCE.createHostInfoBuilder(writerId).build();
         hostInfos.putHostInfo(hostInfo);
 
-        timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
+        executor = BackendScheduler.getInstance().createExecutor("system-backend");
+        executor.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
                 for (NetworkInterfaceInfo info: networkInfoBuilder.build()) {
                     networkInterfaces.putNetworkInterfaceInfo(info);
                 }
             }
-        }, 0, procCheckInterval);
+        }, 0, procCheckInterval, TimeUnit.MILLISECONDS);
 
         try {
             hostId = new HostIdentifier((String) null);
@@ -142,12 +143,12 @@ public class SystemBackend extends BaseBackend {
 
     @Override
     public synchronized boolean deactivate() {
-        if (timer == null) {
+        if (executor == null) {
             return true;
         }
 
-        timer.cancel();
-        timer = null;
+        executor.shutdown();
+        executor = null;
 
         try {
             host.removeHostListener(hostListener);
@@ -162,7 +163,7 @@ public class SystemBackend extends BaseBackend {
 
     @Override
     public synchronized boolean isActive() {
-        return (timer != null);
+        return (executor != null);
     }
 
     @Override
@@ -41,6 +41,7 @@ import com.redhat.thermostat.storage.core.experimental.statement.ResultHandler;
 import com.redhat.thermostat.storage.dao.AgentInfoDAO;
 import com.redhat.thermostat.thread.dao.ThreadDao;
 import com.redhat.thermostat.thread.model.SessionID;
+import com.redhat.thermostat.thread.model.StackTrace;
 import com.redhat.thermostat.thread.model.ThreadSession;
 import com.redhat.thermostat.thread.model.ThreadState;
 import com.redhat.thermostat.thread.model.ThreadSummary;
@@ -86,5 +87,11 @@ public interface ThreadCollector {
     void getThreadStates(SessionID session,
                          ResultHandler<ThreadState> handler,
                          Range<Long> range);
+
+    /**
+     * Returns the stack trace of the given thread state. Stack traces are
+     * shared by many states, and are cached.
+     */
+    StackTrace getStackTrace(ThreadState state);
 }
 
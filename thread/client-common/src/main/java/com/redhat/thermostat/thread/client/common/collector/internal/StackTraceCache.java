@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.thread.client.common.collector.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.redhat.thermostat.storage.core.VmRef;
+import com.redhat.thermostat.thread.dao.ThreadDao;
+import com.redhat.thermostat.thread.model.StackFrame;
+import com.redhat.thermostat.thread.model.StackTrace;
+import com.redhat.thermostat.thread.model.ThreadStackFrame;
+import com.redhat.thermostat.thread.model.ThreadStackTrace;
+
+/**
+ * Resolves stack trace ids, as found in
+ * {@link com.redhat.thermostat.thread.model.ThreadState#getStackTraceId()},
+ * to {@link StackTrace}s, remembering recently used stack traces and frames.
+ * <p>
+ * Ids are derived from content alone, so one cache can be shared by all
+ * collectors, whatever VM they are for.
+ */
+class StackTraceCache {
+
+    static final int MAX_STACKS = 16 * 1024;
+    static final int MAX_FRAMES = 64 * 1024;
+
+    private final Map<String, StackTrace> stacks = new BoundedMap<>(MAX_STACKS);
+    private final Map<String, StackFrame> frames = new BoundedMap<>(MAX_FRAMES);
+
+    /**
+     * @return the stack trace with the given id, or an empty one if it can not
+     * be found in storage
+     */
+    synchronized StackTrace getStackTrace(ThreadDao dao, VmRef ref, String stackId) {
+        StackTrace stackTrace = stacks.get(stackId);
+        if (stackTrace != null) {
+            return stackTrace;
+        }
+
+        ThreadStackTrace stored = dao.getStackTrace(ref, stackId);
+        if (stored == null) {
+            // may not have been saved yet; try again next time
+            return new StackTrace();
+        }
+
+        List<StackFrame> stackFrames = new ArrayList<>();
+        for (String frameId : stored.getFrameIdList()) {
+            StackFrame frame = getStackFrame(dao, ref, frameId);
+            if (frame == null) {
+                return new StackTrace();
+            }
+            stackFrames.add(frame);
+        }
+
+        stackTrace = new StackTrace(stackFrames);
+        stacks.put(stackId, stackTrace);
+        return stackTrace;
+    }
+
+    private StackFrame getStackFrame(ThreadDao dao, VmRef ref, String frameId) {
+        StackFrame frame = frames.get(frameId);
+        if (frame == null) {
+            ThreadStackFrame stored = dao.getStackFrame(ref, frameId);
+            if (stored == null) {
+                return null;
+            }
+            frame = StackFrame.fromJson(stored.getFrame());
+            frames.put(frameId, frame);
+        }
+        return frame;
+    }
+
+    /** A map that forgets the least recently used entries beyond a bound. */
+    @SuppressWarnings("serial")
+    private static class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+        private final int maxSize;
+
+        BoundedMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -50,6 +50,7 @@ public class ThreadCollectorFactoryImpl implements ThreadCollectorFactory {
     private BundleContext context;
     private AgentInfoDAO agentDao;
     private ThreadDao threadDao;
+    private final StackTraceCache stackTraceCache = new StackTraceCache();
     
     public ThreadCollectorFactoryImpl() {
         this(FrameworkUtil.getBundle(ThreadCollectorFactoryImpl.class).getBundleContext());
@@ -70,7 +71,7 @@ public class ThreadCollectorFactoryImpl implements ThreadCollectorFactory {
     @Override
     public synchronized ThreadCollector getCollector(VmRef reference) {
         // TODO set the values when the agent/thread dao changes
-        ThreadMXBeanCollector result = new ThreadMXBeanCollector(context, reference);
+        ThreadMXBeanCollector result = new ThreadMXBeanCollector(context, reference, stackTraceCache);
         result.setAgentInfoDao(agentDao);
         result.setThreadDao(threadDao);
         return result;
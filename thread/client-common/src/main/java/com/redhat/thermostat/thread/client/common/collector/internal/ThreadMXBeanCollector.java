@@ -60,6 +60,7 @@ import com.redhat.thermostat.thread.client.common.collector.ThreadCollector;
 import com.redhat.thermostat.thread.collector.HarvesterCommand;
 import com.redhat.thermostat.thread.dao.ThreadDao;
 import com.redhat.thermostat.thread.model.SessionID;
+import com.redhat.thermostat.thread.model.StackTrace;
 import com.redhat.thermostat.thread.model.ThreadHarvestingStatus;
 import com.redhat.thermostat.thread.model.ThreadSession;
 import com.redhat.thermostat.thread.model.ThreadState;
@@ -79,10 +80,16 @@ public class ThreadMXBeanCollector implements ThreadCollector {
     private ThreadDao threadDao;
     private BundleContext context;
     private VmRef ref;
+    private StackTraceCache stackTraceCache;
 
     public ThreadMXBeanCollector(BundleContext context, VmRef ref) {
+        this(context, ref, new StackTraceCache());
+    }
+
+    ThreadMXBeanCollector(BundleContext context, VmRef ref, StackTraceCache stackTraceCache) {
         this.context = context;
         this.ref = ref;
+        this.stackTraceCache = stackTraceCache;
     }
 
     @Override
@@ -207,6 +214,16 @@ public class ThreadMXBeanCollector implements ThreadCollector {
                                   ThreadDao.Sort.ASCENDING);
     }
 
+    @Override
+    public StackTrace getStackTrace(ThreadState state) {
+        String stackTraceId = state.getStackTraceId();
+        if (stackTraceId == null) {
+            // saved by an older harvester, with the full stack trace
+            return StackTrace.fromJson(state.getStackTrace());
+        }
+        return stackTraceCache.getStackTrace(threadDao, ref, stackTraceId);
+    }
+
     @Override
     public List<ThreadSummary> getThreadSummary(Range<Long> range) {
         List<ThreadSummary> summary = threadDao.getSummary(ref, range, Integer.MAX_VALUE);
@@ -46,9 +46,18 @@ import com.redhat.thermostat.thread.model.ThreadState;
 public class TimelineFactory {
 
     public static TimelineProbe createTimelineProbe(ThreadState state)
+    {
+        return createTimelineProbe(state, state.getTimeStamp());
+    }
+
+    /**
+     * Creates a probe showing the given state as still current at the given
+     * time, which may be later than the time the state was sampled at.
+     */
+    public static TimelineProbe createTimelineProbe(ThreadState state, long timeStamp)
     {
         Thread.State threadState = Thread.State.valueOf(state.getState());
         Palette color = ChartColors.getPaletteColor(threadState);
-        return new TimelineProbe(color, state.getState(), state.getTimeStamp());
+        return new TimelineProbe(color, state.getState(), timeStamp);
     }
 }
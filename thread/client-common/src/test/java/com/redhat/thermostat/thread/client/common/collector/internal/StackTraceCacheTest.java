@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.thread.client.common.collector.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.storage.core.VmRef;
+import com.redhat.thermostat.thread.dao.ThreadDao;
+import com.redhat.thermostat.thread.model.StackFrame;
+import com.redhat.thermostat.thread.model.StackTrace;
+import com.redhat.thermostat.thread.model.ThreadStackFrame;
+import com.redhat.thermostat.thread.model.ThreadStackTrace;
+
+public class StackTraceCacheTest {
+
+    private ThreadDao dao;
+    private VmRef ref;
+    private StackTraceCache cache;
+
+    @Before
+    public void setUp() {
+        dao = mock(ThreadDao.class);
+        ref = mock(VmRef.class);
+        cache = new StackTraceCache();
+    }
+
+    @Test
+    public void resolvesStackTraceFromFrames() {
+        storeStack("stack", "foo", "main");
+        storeFrame("foo", "com.example.Foo", "foo");
+        storeFrame("main", "com.example.Main", "main");
+
+        StackTrace trace = cache.getStackTrace(dao, ref, "stack");
+
+        assertEquals(2, trace.getFrames().size());
+        assertEquals("foo", trace.getFrames().get(0).getMethodName());
+        assertEquals("Main", trace.getFrames().get(1).getClassName());
+    }
+
+    @Test
+    public void stackTracesAndFramesAreOnlyLoadedOnce() {
+        storeStack("first", "foo", "main");
+        storeStack("second", "bar", "main");
+        storeFrame("foo", "com.example.Foo", "foo");
+        storeFrame("bar", "com.example.Bar", "bar");
+        storeFrame("main", "com.example.Main", "main");
+
+        StackTrace first = cache.getStackTrace(dao, ref, "first");
+        cache.getStackTrace(dao, ref, "second");
+
+        assertSame(first, cache.getStackTrace(dao, ref, "first"));
+        verify(dao, times(1)).getStackTrace(ref, "first");
+        verify(dao, times(1)).getStackFrame(ref, "main");
+    }
+
+    @Test
+    public void missingStackTraceIsEmptyAndNotCached() {
+        StackTrace trace = cache.getStackTrace(dao, ref, "stack");
+        assertTrue(trace.getFrames().isEmpty());
+
+        storeStack("stack", "foo");
+        storeFrame("foo", "com.example.Foo", "foo");
+
+        assertEquals(1, cache.getStackTrace(dao, ref, "stack").getFrames().size());
+    }
+
+    private void storeStack(String stackId, String... frameIds) {
+        ThreadStackTrace stack = new ThreadStackTrace();
+        stack.setStackId(stackId);
+        stack.setFrameIdList(Arrays.asList(frameIds));
+        when(dao.getStackTrace(ref, stackId)).thenReturn(stack);
+    }
+
+    private void storeFrame(String frameId, String className, String methodName) {
+        ThreadStackFrame frame = new ThreadStackFrame();
+        frame.setFrameId(frameId);
+        frame.setFrame(new StackFrame(new StackTraceElement(className, methodName, null, -1)).toString());
+        when(dao.getStackFrame(ref, frameId)).thenReturn(frame);
+    }
+}
@@ -36,6 +36,7 @@
 
 package com.redhat.thermostat.thread.client.common.collector.internal;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -45,6 +46,8 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -62,7 +65,10 @@ import com.redhat.thermostat.testutils.StubBundleContext;
 import com.redhat.thermostat.thread.client.common.collector.ThreadCollector;
 import com.redhat.thermostat.thread.collector.HarvesterCommand;
 import com.redhat.thermostat.thread.dao.ThreadDao;
+import com.redhat.thermostat.thread.model.StackFrame;
+import com.redhat.thermostat.thread.model.StackTrace;
 import com.redhat.thermostat.thread.model.ThreadHarvestingStatus;
+import com.redhat.thermostat.thread.model.ThreadState;
 
 public class ThreadCollectorTest {
     
@@ -100,6 +106,34 @@ public class ThreadCollectorTest {
         assertTrue(collector.isHarvesterCollecting());
     }
     
+    @Test
+    public void testGetStackTraceOfLegacyState() {
+        StackTrace trace = new StackTrace(new StackTraceElement[] {
+                new StackTraceElement("com.example.Foo", "foo", "Foo.java", 1) });
+        ThreadState state = new ThreadState();
+        state.setStackTrace(trace.toString());
+        ThreadCollector collector = new ThreadMXBeanCollector(context, reference);
+        collector.setThreadDao(threadDao);
+
+        StackTrace result = collector.getStackTrace(state);
+
+        assertEquals(1, result.getFrames().size());
+        assertEquals("foo", result.getFrames().get(0).getMethodName());
+    }
+
+    @Test
+    public void testGetStackTraceUsesSharedCache() {
+        StackTraceCache cache = mock(StackTraceCache.class);
+        StackTrace trace = new StackTrace(Arrays.asList(new StackFrame()));
+        when(cache.getStackTrace(threadDao, reference, "stack-id")).thenReturn(trace);
+        ThreadState state = new ThreadState();
+        state.setStackTraceId("stack-id");
+        ThreadCollector collector = new ThreadMXBeanCollector(context, reference, cache);
+        collector.setThreadDao(threadDao);
+
+        assertSame(trace, collector.getStackTrace(state));
+    }
+
     @Test
     public void testStart() {
         final RequestQueue requestQueue = mock(RequestQueue.class);
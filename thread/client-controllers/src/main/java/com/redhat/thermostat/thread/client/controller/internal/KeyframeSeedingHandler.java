@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.thread.client.controller.internal;
+
+import com.redhat.thermostat.common.model.Range;
+import com.redhat.thermostat.storage.core.experimental.statement.ResultHandler;
+import com.redhat.thermostat.thread.client.common.model.timeline.ThreadInfo;
+import com.redhat.thermostat.thread.dao.ThreadDao;
+import com.redhat.thermostat.thread.model.ThreadState;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds the state of every thread in a range from the last keyframe
+ * before it and the changes saved after it.
+ * <p>
+ * The harvester only saves threads that changed, plus every thread on each
+ * keyframe, so a thread that stays parked may have no state at all in a
+ * short range. States are fed to this handler in ascending time order,
+ * starting from {@link #widen(Range)}. States before the start of the range
+ * are held back, keeping the last one of each thread. Before the first state
+ * inside the range, or on {@link #finish()}, the last state of each thread
+ * that was still alive is passed on, followed by the states in the range.
+ * <p>
+ * Not thread safe.
+ */
+class KeyframeSeedingHandler implements ResultHandler<ThreadState> {
+
+    private final ResultHandler<ThreadState> delegate;
+    private final long rangeStart;
+
+    private final Map<ThreadInfo, ThreadState> seeds = new LinkedHashMap<>();
+    private boolean seeded;
+    private boolean stopped;
+
+    KeyframeSeedingHandler(ResultHandler<ThreadState> delegate, long rangeStart) {
+        this.delegate = delegate;
+        this.rangeStart = rangeStart;
+    }
+
+    /**
+     * @return the range to query so that it includes the last keyframe
+     * before {@code range}
+     */
+    static Range<Long> widen(Range<Long> range) {
+        return new Range<>(range.getMin() - ThreadDao.KEYFRAME_LOOKBACK_MILLIS, range.getMax());
+    }
+
+    @Override
+    public boolean onResult(ThreadState state) {
+        if (stopped) {
+            return false;
+        }
+        if (!seeded && state.getTimeStamp() < rangeStart) {
+            ThreadInfo key = new ThreadInfo();
+            key.setName(state.getName());
+            key.setId(state.getId());
+            seeds.put(key, state);
+            return true;
+        }
+        if (!seed()) {
+            return false;
+        }
+        stopped = !delegate.onResult(state);
+        return !stopped;
+    }
+
+    /**
+     * Passes on the seeded states if no state inside the range was seen.
+     */
+    void finish() {
+        seed();
+    }
+
+    private boolean seed() {
+        if (seeded) {
+            return !stopped;
+        }
+        seeded = true;
+        for (ThreadState seed : seeds.values()) {
+            if (!Thread.State.TERMINATED.name().equals(seed.getState())) {
+                if (!delegate.onResult(seed)) {
+                    stopped = true;
+                    break;
+                }
+            }
+        }
+        seeds.clear();
+        return !stopped;
+    }
+}
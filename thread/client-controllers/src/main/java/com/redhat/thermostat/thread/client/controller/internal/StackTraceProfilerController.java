@@ -136,6 +136,10 @@ public class StackTraceProfilerController extends CommonController {
         protected void actionPerformed(SessionID session, Range<Long> range,
                                        Range<Long> totalRange)
         {
+            // Unlike the timeline and the table, this needs no keyframe
+            // before the range: only RUNNABLE states are profiled, and the
+            // harvester saves those on every sample
+
             // let's see what do we have in the cache
             RangedCache<ThreadState> cache = getCache(session);
             List<ThreadState> values = cache.getValues(range);
@@ -179,7 +183,7 @@ public class StackTraceProfilerController extends CommonController {
 
     // for testing
     StackTrace getStackTrace(ThreadState state) {
-        return StackTrace.fromJson(state.getStackTrace());
+        return collector.getStackTrace(state);
     }
 
     private volatile boolean stopLooping;
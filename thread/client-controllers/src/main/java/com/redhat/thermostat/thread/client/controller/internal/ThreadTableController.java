@@ -46,7 +46,6 @@ import com.redhat.thermostat.thread.client.common.model.timeline.ThreadInfo;
 import com.redhat.thermostat.thread.client.common.view.ThreadTableView;
 import com.redhat.thermostat.thread.client.controller.internal.cache.AppCache;
 import com.redhat.thermostat.thread.model.SessionID;
-import com.redhat.thermostat.thread.model.StackTrace;
 import com.redhat.thermostat.thread.model.ThreadState;
 
 import java.util.HashMap;
@@ -116,6 +115,7 @@ public class ThreadTableController extends CommonController {
 
         private void resetState() {
             handler.threadStates.clear();
+            handler.lastStates.clear();
             threadTableView.clear();
         }
 
@@ -128,18 +128,27 @@ public class ThreadTableController extends CommonController {
         protected void actionPerformed(SessionID session, Range<Long> range,
                                        Range<Long> totalRange)
         {
+            // threads that did not change are only saved on keyframes, so
+            // start from the last keyframe before the range
+            Range<Long> seededRange = KeyframeSeedingHandler.widen(range);
+            KeyframeSeedingHandler seedingHandler =
+                    new KeyframeSeedingHandler(handler, range.getMin());
+
             // let's see what do we have in the cache
             RangedCache<ThreadState> cache = getCache(session);
-            List<ThreadState> values = cache.getValues(range);
+            List<ThreadState> values = cache.getValues(seededRange);
             if (!values.isEmpty()) {
                 // add the results we have to the view
+                handler.setCacheResults(false);
                 for (ThreadState state : values) {
-                    handler.onResult(state);
+                    seedingHandler.onResult(state);
                 }
+                seedingHandler.finish();
+                handler.setCacheResults(true);
 
                 ThreadState threadState = values.get(values.size() - 1);
 
-                long lastSampled = threadState.getTimeStamp() + 1;
+                long lastSampled = Math.max(threadState.getTimeStamp() + 1, range.getMin());
                 long delta = range.getMax() - lastSampled;
                 if (delta > PERIOD) {
                     Range<Long> rangeToQuery = new Range<>(lastSampled, range.getMax());
@@ -148,7 +157,8 @@ public class ThreadTableController extends CommonController {
                                               rangeToQuery);
                 }
             } else {
-                collector.getThreadStates(session, handler, range);
+                collector.getThreadStates(session, seedingHandler, seededRange);
+                seedingHandler.finish();
             }
 
             threadTableView.submitChanges();
@@ -167,10 +177,12 @@ public class ThreadTableController extends CommonController {
 
     private class ThreadResultHandler implements ResultHandler<ThreadState> {
         private Map<ThreadInfo, ThreadTableBean> threadStates;
+        private Map<ThreadInfo, ThreadState> lastStates;
         private boolean cache;
 
         public ThreadResultHandler() {
             this.threadStates = new HashMap<>();
+            this.lastStates = new HashMap<>();
             cache = true;
         }
 
@@ -199,7 +211,16 @@ public class ThreadTableController extends CommonController {
                 threadStates.put(key, bean);
             }
 
-            setCurrentStateTime(bean, thread);
+            // states are only saved when they change, so each one lasts
+            // until the next state seen for the same thread
+            ThreadState lastState = lastStates.get(key);
+            if (lastState == null || lastState.getTimeStamp() < thread.getTimeStamp()) {
+                if (lastState != null) {
+                    setCurrentStateTime(bean, lastState,
+                                        thread.getTimeStamp() - lastState.getTimeStamp());
+                }
+                lastStates.put(key, thread);
+            }
 
             double totalRunningTime = bean.getRunningTime()  +
                                       bean.getMonitorTime()  +
@@ -224,7 +245,7 @@ public class ThreadTableController extends CommonController {
 
             bean.setStopTimeStamp(thread.getTimeStamp());
 
-            bean.addStackTrace(StackTrace.fromJson(thread.getStackTrace()));
+            bean.addStackTrace(collector.getStackTrace(thread));
 
             threadTableView.display(bean);
 
@@ -233,24 +254,24 @@ public class ThreadTableController extends CommonController {
         }
     }
 
-    void setCurrentStateTime(ThreadTableBean bean, ThreadState thread) {
+    void setCurrentStateTime(ThreadTableBean bean, ThreadState thread, long time) {
         Thread.State threadState = Thread.State.valueOf(thread.getState());
 
         switch (threadState) {
             case RUNNABLE:
-                bean.setRunningTime(bean.getRunningTime() + 1);
+                bean.setRunningTime(bean.getRunningTime() + time);
                 break;
 
             case BLOCKED:
-                bean.setMonitorTime(bean.getMonitorTime() + 1);
+                bean.setMonitorTime(bean.getMonitorTime() + time);
                 break;
 
             case TIMED_WAITING:
-                bean.setSleepingTime(bean.getSleepingTime() + 1);
+                bean.setSleepingTime(bean.getSleepingTime() + time);
                 break;
 
             case WAITING:
-                bean.setWaitingTime(bean.getWaitingTime() + 1);
+                bean.setWaitingTime(bean.getWaitingTime() + time);
                 break;
 
             case NEW:
@@ -113,6 +113,8 @@ public class ThreadTimelineController extends CommonController {
             view.clear();
             lastRange = null;
             threadStateResultHandler.knownStates.clear();
+            threadStateResultHandler.lastStates.clear();
+            threadStateResultHandler.lastTimeStamp = Long.MIN_VALUE;
             threadStateResultHandler.key = new ThreadInfo();
         }
 
@@ -130,20 +132,27 @@ public class ThreadTimelineController extends CommonController {
             }
             lastRange = totalRange;
 
+            // threads that did not change are only saved on keyframes, so
+            // start from the last keyframe before the range
+            Range<Long> seededRange = KeyframeSeedingHandler.widen(range);
+            KeyframeSeedingHandler seedingHandler =
+                    new KeyframeSeedingHandler(threadStateResultHandler, range.getMin());
+
             // let's see what do we have in the cache
             RangedCache<ThreadState> cache = getCache(session);
-            List<ThreadState> values = cache.getValues(range);
+            List<ThreadState> values = cache.getValues(seededRange);
             if (!values.isEmpty()) {
                 // add the results we have to the view
                 threadStateResultHandler.setCacheResults(false);
                 for (ThreadState state : values) {
-                    threadStateResultHandler.onResult(state);
+                    seedingHandler.onResult(state);
                 }
+                seedingHandler.finish();
                 threadStateResultHandler.setCacheResults(true);
 
                 ThreadState threadState = values.get(values.size() - 1);
 
-                long lastSampled = threadState.getTimeStamp() + 1;
+                long lastSampled = Math.max(threadState.getTimeStamp() + 1, range.getMin());
                 long delta = range.getMax() - lastSampled;
                 if (delta > PERIOD) {
                     Range<Long> rangeToQuery = new Range<>(lastSampled, range.getMax());
@@ -152,8 +161,11 @@ public class ThreadTimelineController extends CommonController {
                                               rangeToQuery);
                 }
             } else {
-                collector.getThreadStates(session, threadStateResultHandler, range);
+                collector.getThreadStates(session, seedingHandler, seededRange);
+                seedingHandler.finish();
             }
+
+            threadStateResultHandler.extendToLastSample();
         }
 
         @Override
@@ -189,11 +201,15 @@ public class ThreadTimelineController extends CommonController {
     class ThreadStateResultHandler implements ResultHandler<ThreadState> {
         private ThreadInfo key;
         private Set<ThreadInfo> knownStates;
+        private Map<ThreadInfo, ThreadState> lastStates;
+        private long lastTimeStamp;
         private boolean cache;
 
         public ThreadStateResultHandler() {
             this.key = new ThreadInfo();
             knownStates = new HashSet<>();
+            lastStates = new HashMap<>();
+            lastTimeStamp = Long.MIN_VALUE;
             cache = true;
         }
 
@@ -221,9 +237,34 @@ public class ThreadTimelineController extends CommonController {
             TimelineProbe probe = TimelineFactory.createTimelineProbe(state);
             view.addProbe(info, probe);
 
+            ThreadState lastState = lastStates.get(info);
+            if (lastState == null || lastState.getTimeStamp() <= state.getTimeStamp()) {
+                lastStates.put(info, state);
+            }
+            lastTimeStamp = Math.max(lastTimeStamp, state.getTimeStamp());
+
             boolean _stopLooping = stopLooping;
             return !_stopLooping;
         }
+
+        /**
+         * The harvester only saves a thread when it changes, plus a full
+         * keyframe every now and then; a thread stays in its last state until
+         * it terminates. Extends every live thread up to the latest sample
+         * seen, so idle threads don't look like they stopped being sampled.
+         */
+        void extendToLastSample() {
+            for (Map.Entry<ThreadInfo, ThreadState> entry : lastStates.entrySet()) {
+                ThreadState state = entry.getValue();
+                if (state.getTimeStamp() < lastTimeStamp &&
+                    !Thread.State.TERMINATED.name().equals(state.getState()))
+                {
+                    TimelineProbe probe =
+                            TimelineFactory.createTimelineProbe(state, lastTimeStamp);
+                    view.addProbe(entry.getKey(), probe);
+                }
+            }
+        }
     }
 }
 
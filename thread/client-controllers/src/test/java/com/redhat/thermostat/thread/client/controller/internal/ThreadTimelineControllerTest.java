@@ -36,9 +36,14 @@
 
 package com.redhat.thermostat.thread.client.controller.internal;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -47,13 +52,17 @@ import com.redhat.thermostat.thread.client.controller.internal.cache.AppCache;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.redhat.thermostat.common.Timer;
 import com.redhat.thermostat.common.model.Range;
 import com.redhat.thermostat.storage.core.experimental.statement.ResultHandler;
 import com.redhat.thermostat.thread.client.common.collector.ThreadCollector;
 import com.redhat.thermostat.thread.client.common.model.timeline.ThreadInfo;
+import com.redhat.thermostat.thread.client.common.model.timeline.TimelineProbe;
 import com.redhat.thermostat.thread.client.common.view.ThreadTimelineView;
+import com.redhat.thermostat.thread.dao.ThreadDao;
 import com.redhat.thermostat.thread.model.SessionID;
 import com.redhat.thermostat.thread.model.ThreadState;
 
@@ -174,24 +183,25 @@ public class ThreadTimelineControllerTest {
 
         timerAction.run();
 
-        ThreadTimelineController.ThreadStateResultHandler handler =
-                (ThreadTimelineController.ThreadStateResultHandler) captor2.getValue();
-        handler.setCacheResults(false);
+        ResultHandler<ThreadState> handler = captor2.getValue();
 
         ThreadState state0 = mock(ThreadState.class);
         when(state0.getName()).thenReturn("state0");
         when(state0.getId()).thenReturn(0l);
         when(state0.getState()).thenReturn("NEW");
+        when(state0.getSession()).thenReturn("42");
 
         ThreadState state1 = mock(ThreadState.class);
         when(state1.getName()).thenReturn("state1");
         when(state1.getId()).thenReturn(1l);
         when(state1.getState()).thenReturn("NEW");
+        when(state1.getSession()).thenReturn("42");
 
         ThreadState state2 = mock(ThreadState.class);
         when(state2.getName()).thenReturn("state2");
         when(state2.getId()).thenReturn(2l);
         when(state2.getState()).thenReturn("NEW");
+        when(state2.getSession()).thenReturn("42");
 
         handler.onResult(state0);
         handler.onResult(state1);
@@ -211,4 +221,118 @@ public class ThreadTimelineControllerTest {
         info.setId(2l);
         verify(view).addThread(info);
     }
+
+    @Test
+    public void testIdleThreadsExtendedToLastSample() {
+        ArgumentCaptor<Runnable> captor =
+                ArgumentCaptor.forClass(Runnable.class);
+        doNothing().when(timer).setAction(captor.capture());
+
+        ThreadTimelineController controller =
+                new ThreadTimelineController(view, collector, timer, cache);
+
+        ThreadTimelineController.ThreadStateResultHandler handler =
+                controller.new ThreadStateResultHandler();
+        handler.setCacheResults(false);
+
+        ThreadState idle = createState("idle", 0l, "WAITING", 10l);
+        ThreadState busy = createState("busy", 1l, "RUNNABLE", 20l);
+        ThreadState gone = createState("gone", 2l, "TERMINATED", 15l);
+
+        handler.onResult(idle);
+        handler.onResult(gone);
+        handler.onResult(busy);
+
+        handler.extendToLastSample();
+
+        ThreadInfo idleInfo = new ThreadInfo();
+        idleInfo.setName("idle");
+        idleInfo.setId(0l);
+        ArgumentCaptor<TimelineProbe> probes = ArgumentCaptor.forClass(TimelineProbe.class);
+        verify(view, times(2)).addProbe(eq(idleInfo), probes.capture());
+        assertEquals(20l, probes.getValue().getTimeStamp());
+        assertEquals("WAITING", probes.getValue().getState());
+
+        ThreadInfo goneInfo = new ThreadInfo();
+        goneInfo.setName("gone");
+        goneInfo.setId(2l);
+        verify(view, times(1)).addProbe(eq(goneInfo), any(TimelineProbe.class));
+
+        ThreadInfo busyInfo = new ThreadInfo();
+        busyInfo.setName("busy");
+        busyInfo.setId(1l);
+        verify(view, times(1)).addProbe(eq(busyInfo), any(TimelineProbe.class));
+    }
+
+    @Test
+    public void testParkedThreadShownInShortRange() {
+        ArgumentCaptor<Runnable> captor =
+                ArgumentCaptor.forClass(Runnable.class);
+        doNothing().when(timer).setAction(captor.capture());
+
+        final ThreadState parked = createState("parked", 0l, "WAITING", 6000l);
+        final ThreadState exited = createState("exited", 1l, "TERMINATED", 7000l);
+        final ThreadState busy0 = createState("busy", 2l, "RUNNABLE", 10250l);
+        final ThreadState busy1 = createState("busy", 2l, "RUNNABLE", 10750l);
+
+        ArgumentCaptor<Range> queried = ArgumentCaptor.forClass(Range.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked")
+                ResultHandler<ThreadState> handler =
+                        (ResultHandler<ThreadState>) invocation.getArguments()[1];
+                handler.onResult(parked);
+                handler.onResult(exited);
+                handler.onResult(busy0);
+                handler.onResult(busy1);
+                return null;
+            }
+        }).when(collector).getThreadStates(any(SessionID.class),
+                                           any(ResultHandler.class),
+                                           queried.capture());
+
+        // the parked thread was last saved on a keyframe before the range
+        Range<Long> totalRange = new Range<>(0l, 11000l);
+        when(collector.getThreadRange(session)).thenReturn(totalRange);
+
+        ThreadTimelineController controller =
+                new ThreadTimelineController(view, collector, timer, cache) {
+                    @Override
+                    long __test__getTimeDeltaOnNewSession() {
+                        return 10000l;
+                    }
+                };
+        Runnable timerAction = captor.getValue();
+
+        timerAction.run();
+
+        assertEquals(10000l - ThreadDao.KEYFRAME_LOOKBACK_MILLIS,
+                     (long) queried.getValue().getMin());
+
+        ThreadInfo parkedInfo = new ThreadInfo();
+        parkedInfo.setName("parked");
+        parkedInfo.setId(0l);
+        verify(view).addThread(parkedInfo);
+
+        ArgumentCaptor<TimelineProbe> probes = ArgumentCaptor.forClass(TimelineProbe.class);
+        verify(view, times(2)).addProbe(eq(parkedInfo), probes.capture());
+        assertEquals(10750l, probes.getValue().getTimeStamp());
+        assertEquals("WAITING", probes.getValue().getState());
+
+        ThreadInfo exitedInfo = new ThreadInfo();
+        exitedInfo.setName("exited");
+        exitedInfo.setId(1l);
+        verify(view, never()).addThread(exitedInfo);
+    }
+
+    private static ThreadState createState(String name, long id, String state, long timeStamp) {
+        ThreadState threadState = mock(ThreadState.class);
+        when(threadState.getName()).thenReturn(name);
+        when(threadState.getId()).thenReturn(id);
+        when(threadState.getState()).thenReturn(state);
+        when(threadState.getTimeStamp()).thenReturn(timeStamp);
+        when(threadState.getSession()).thenReturn("42");
+        return threadState;
+    }
 }
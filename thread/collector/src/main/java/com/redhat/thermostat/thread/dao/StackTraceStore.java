@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.thread.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.thermostat.common.Clock;
+import com.redhat.thermostat.common.SystemClock;
+
+import com.redhat.thermostat.thread.model.StackFrame;
+import com.redhat.thermostat.thread.model.ThreadStackFrame;
+import com.redhat.thermostat.thread.model.ThreadStackTrace;
+
+/**
+ * Saves stack traces of one VM to storage by content: each distinct frame
+ * and each distinct stack trace is saved once, under an id derived from a
+ * hash of its content, and the id is what {@link
+ * com.redhat.thermostat.thread.model.ThreadState ThreadState}s refer to.
+ * <p>
+ * Frames and stack traces are saved with {@link ThreadDao#putStackFrame}
+ * and {@link ThreadDao#putStackTrace}, which replace an earlier copy with
+ * the same id. Only a bounded number of recently seen ids is remembered; an
+ * id that was forgotten, or that was seen for the first time since the agent
+ * started, is simply saved again.
+ * <p>
+ * Ids in use are saved again every {@link #REFRESH_INTERVAL} to renew their
+ * timestamp. Frames and stack traces are retained for that long beyond the
+ * retention of thread states, so they outlive all states referring to them.
+ * <p>
+ * Not thread safe.
+ */
+public class StackTraceStore {
+
+    static final int MAX_REMEMBERED_FRAMES = 64 * 1024;
+    static final int MAX_REMEMBERED_STACKS = 16 * 1024;
+    static final long REFRESH_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ThreadDao threadDao;
+    private final String writerId;
+    private final String vmId;
+    private final Clock clock;
+
+    /** frames already saved, and their ids */
+    private final Map<StackTraceElement, String> frameIds = new BoundedMap<>(MAX_REMEMBERED_FRAMES);
+    /** when frames and stack traces were last saved, by id */
+    private final Map<String, Long> savedAt = new BoundedMap<>(MAX_REMEMBERED_FRAMES + MAX_REMEMBERED_STACKS);
+
+    private final MessageDigest digest;
+
+    public StackTraceStore(ThreadDao threadDao, String writerId, String vmId) {
+        this(threadDao, writerId, vmId, new SystemClock());
+    }
+
+    StackTraceStore(ThreadDao threadDao, String writerId, String vmId, Clock clock) {
+        this.threadDao = threadDao;
+        this.writerId = writerId;
+        this.vmId = vmId;
+        this.clock = clock;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform implementation is required to support SHA-1
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Saves the given stack trace, and any of its frames, unless they have
+     * been saved already.
+     *
+     * @param stack the frames, innermost first, as returned by
+     * {@link Thread#getStackTrace()}
+     * @return the id of the stack trace
+     */
+    public String store(StackTraceElement[] stack) {
+        long now = clock.getRealTimeMillis();
+        List<String> ids = new ArrayList<>(stack.length);
+        for (StackTraceElement element : stack) {
+            ids.add(storeFrame(element, now));
+        }
+
+        for (String id : ids) {
+            digest.update(id.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ',');
+        }
+        String stackId = toHex(digest.digest());
+
+        if (needsSaving(stackId, now)) {
+            ThreadStackTrace stackTrace = new ThreadStackTrace(writerId);
+            stackTrace.setVmId(vmId);
+            stackTrace.setTimeStamp(now);
+            stackTrace.setStackId(stackId);
+            stackTrace.setFrameIdList(ids);
+            threadDao.putStackTrace(stackTrace);
+            savedAt.put(stackId, now);
+        }
+        return stackId;
+    }
+
+    private String storeFrame(StackTraceElement element, long now) {
+        String frameId = frameIds.get(element);
+        if (frameId != null && !needsSaving(frameId, now)) {
+            return frameId;
+        }
+
+        String json = new StackFrame(element).toString();
+        if (frameId == null) {
+            frameId = toHex(digest.digest(json.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        ThreadStackFrame frame = new ThreadStackFrame(writerId);
+        frame.setVmId(vmId);
+        frame.setTimeStamp(now);
+        frame.setFrameId(frameId);
+        frame.setFrame(json);
+        threadDao.putStackFrame(frame);
+        frameIds.put(element, frameId);
+        savedAt.put(frameId, now);
+        return frameId;
+    }
+
+    private boolean needsSaving(String id, long now) {
+        Long saved = savedAt.get(id);
+        return saved == null || now - saved >= REFRESH_INTERVAL;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /** A map that forgets the least recently used entries beyond a bound. */
+    @SuppressWarnings("serial")
+    private static class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+        private final int maxSize;
+
+        BoundedMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -47,6 +47,8 @@ import com.redhat.thermostat.storage.core.experimental.statement.ResultHandler;
 import com.redhat.thermostat.thread.model.SessionID;
 import com.redhat.thermostat.thread.model.ThreadHarvestingStatus;
 import com.redhat.thermostat.thread.model.ThreadSession;
+import com.redhat.thermostat.thread.model.ThreadStackFrame;
+import com.redhat.thermostat.thread.model.ThreadStackTrace;
 import com.redhat.thermostat.thread.model.ThreadState;
 import com.redhat.thermostat.thread.model.ThreadSummary;
 import com.redhat.thermostat.thread.model.VmDeadLockData;
@@ -58,6 +60,24 @@ public interface ThreadDao {
         DESCENDING,
     }
 
+    /**
+     * How often the harvester samples the threads of a VM, in milliseconds.
+     */
+    static final long SAMPLING_PERIOD_MILLIS = 250;
+
+    /**
+     * Every this many samples the harvester saves a {@link ThreadState} for
+     * every thread. In between, only threads that changed are saved.
+     */
+    static final int KEYFRAME_INTERVAL = 20;
+
+    /**
+     * How far before the start of a range to look for the last keyframe,
+     * which gives the state of every thread at the start of the range. One
+     * sample more than the keyframe interval, to allow for late samples.
+     */
+    static final long KEYFRAME_LOOKBACK_MILLIS = (KEYFRAME_INTERVAL + 1) * SAMPLING_PERIOD_MILLIS;
+
     /*
      * vm-thread-harvesting schema
      */
@@ -110,9 +130,45 @@ public interface ThreadDao {
      */
     void addThreadState(ThreadState thread);
 
+    /**
+     * Passes the {@link ThreadState}s saved in the given range to the
+     * handler.
+     * <p>
+     * Between keyframes only the threads that changed are saved, so a thread
+     * that stays parked may not have any state in a short range. To know the
+     * state of every thread at the start of a range, query from
+     * {@link #KEYFRAME_LOOKBACK_MILLIS} before it and carry the last state of
+     * each thread forward.
+     */
     void getThreadStates(VmRef ref, SessionID session,
                          ResultHandler<ThreadState> handler,
                          Range<Long> range, int limit, Sort order);
 
+    /**
+     * Saves the given stack trace, replacing the one with the same id of the
+     * same VM, if any. Use {@link StackTraceStore} to avoid saving each
+     * distinct stack trace over and over.
+     */
+    void putStackTrace(ThreadStackTrace stackTrace);
+
+    /**
+     * Saves the given stack frame, replacing the one with the same id of the
+     * same VM, if any. Use {@link StackTraceStore} to avoid saving each
+     * distinct frame over and over.
+     */
+    void putStackFrame(ThreadStackFrame frame);
+
+    /**
+     * @return the stack trace with the given id, or {@code null} if there is
+     * none
+     */
+    ThreadStackTrace getStackTrace(VmRef ref, String stackId);
+
+    /**
+     * @return the stack frame with the given id, or {@code null} if there is
+     * none
+     */
+    ThreadStackFrame getStackFrame(VmRef ref, String frameId);
+
     long getDeadLockCount();
 }
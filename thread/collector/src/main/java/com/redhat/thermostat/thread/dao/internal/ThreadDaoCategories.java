@@ -42,6 +42,8 @@ import com.redhat.thermostat.storage.core.Storage;
 import com.redhat.thermostat.storage.core.experimental.statement.CategoryBuilder;
 import com.redhat.thermostat.storage.model.Pojo;
 import com.redhat.thermostat.thread.model.ThreadSession;
+import com.redhat.thermostat.thread.model.ThreadStackFrame;
+import com.redhat.thermostat.thread.model.ThreadStackTrace;
 import com.redhat.thermostat.thread.model.ThreadState;
 import com.redhat.thermostat.thread.model.ThreadSummary;
 import java.util.ArrayList;
@@ -60,6 +62,8 @@ public class ThreadDaoCategories {
         public static final String SUMMARY = "vm-thread-summary";
         public static final String SESSION = "vm-thread-session";
         public static final String STATE = "vm-thread-state";
+        public static final String STACK_TRACE = "vm-thread-stack-trace";
+        public static final String STACK_FRAME = "vm-thread-stack-frame";
 
     }
 
@@ -68,6 +72,8 @@ public class ThreadDaoCategories {
         BEANS.add(ThreadSummary.class);
         BEANS.add(ThreadSession.class);
         BEANS.add(ThreadState.class);
+        BEANS.add(ThreadStackTrace.class);
+        BEANS.add(ThreadStackFrame.class);
     }
 
     public static void register(Collection<String> collection) {
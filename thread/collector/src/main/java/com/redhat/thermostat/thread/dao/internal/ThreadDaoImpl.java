@@ -58,6 +58,7 @@ import com.redhat.thermostat.storage.core.Storage;
 import com.redhat.thermostat.storage.core.VmRef;
 import com.redhat.thermostat.storage.core.experimental.statement.BeanAdapter;
 import com.redhat.thermostat.storage.core.experimental.statement.BeanAdapterBuilder;
+import com.redhat.thermostat.storage.core.experimental.statement.CategoryBuilder;
 import com.redhat.thermostat.storage.core.experimental.statement.Query;
 import com.redhat.thermostat.storage.core.experimental.statement.QueryValues;
 import com.redhat.thermostat.storage.core.experimental.statement.ResultHandler;
@@ -66,11 +67,15 @@ import com.redhat.thermostat.storage.model.AggregateCount;
 import com.redhat.thermostat.storage.model.Pojo;
 import com.redhat.thermostat.thread.dao.ThreadDao;
 import com.redhat.thermostat.thread.dao.internal.statement.SessionQueries;
+import com.redhat.thermostat.thread.dao.internal.statement.StackFrameQuery;
+import com.redhat.thermostat.thread.dao.internal.statement.StackTraceQuery;
 import com.redhat.thermostat.thread.dao.internal.statement.StateQueries;
 import com.redhat.thermostat.thread.dao.internal.statement.SummaryQuery;
 import com.redhat.thermostat.thread.model.SessionID;
 import com.redhat.thermostat.thread.model.ThreadHarvestingStatus;
 import com.redhat.thermostat.thread.model.ThreadSession;
+import com.redhat.thermostat.thread.model.ThreadStackFrame;
+import com.redhat.thermostat.thread.model.ThreadStackTrace;
 import com.redhat.thermostat.thread.model.ThreadState;
 import com.redhat.thermostat.thread.model.ThreadSummary;
 import com.redhat.thermostat.thread.model.VmDeadLockData;
@@ -82,6 +87,8 @@ public class ThreadDaoImpl extends BaseCountable implements ThreadDao {
     static final BeanAdapter<ThreadSummary> ThreadSummaryAdapter = new BeanAdapterBuilder<>(ThreadSummary.class, new SummaryQuery()).build();
     static final BeanAdapter<ThreadSession> ThreadSessionAdapter = new BeanAdapterBuilder<>(ThreadSession.class, SessionQueries.asList()).build();
     static final BeanAdapter<ThreadState> ThreadStateAdapter = new BeanAdapterBuilder<>(ThreadState.class, StateQueries.asList()).build();
+    static final BeanAdapter<ThreadStackTrace> ThreadStackTraceAdapter = new BeanAdapterBuilder<>(ThreadStackTrace.class, new StackTraceQuery()).build();
+    static final BeanAdapter<ThreadStackFrame> ThreadStackFrameAdapter = new BeanAdapterBuilder<>(ThreadStackFrame.class, new StackFrameQuery()).build();
 
     static final String QUERY_LATEST_HARVESTING_STATUS = "QUERY "
             + THREAD_HARVESTING_STATUS.getName() + " WHERE '"
@@ -111,6 +118,31 @@ public class ThreadDaoImpl extends BaseCountable implements ThreadDao {
                  "'" + DEADLOCK_DESCRIPTION_KEY.getName() + "' = ?s";
 
 
+    static final Category<ThreadStackTrace> STACK_TRACE_CATEGORY = new CategoryBuilder<>(ThreadStackTrace.class).build();
+    static final Category<ThreadStackFrame> STACK_FRAME_CATEGORY = new CategoryBuilder<>(ThreadStackFrame.class).build();
+
+    // Stack traces and frames are saved by content id, replacing earlier
+    // copies, so that restarting the agent does not duplicate them.
+    static final String DESC_REPLACE_STACK_TRACE = "REPLACE " + STACK_TRACE_CATEGORY.getName() +
+            " SET '" + Key.AGENT_ID.getName() + "' = ?s , " +
+                 "'" + Key.VM_ID.getName() + "' = ?s , " +
+                 "'" + Key.TIMESTAMP.getName() + "' = ?l , " +
+                 "'stackId' = ?s , " +
+                 "'frameIds' = ?s" +
+            " WHERE '" + Key.AGENT_ID.getName() + "' = ?s AND " +
+                   "'" + Key.VM_ID.getName() + "' = ?s AND " +
+                   "'stackId' = ?s";
+
+    static final String DESC_REPLACE_STACK_FRAME = "REPLACE " + STACK_FRAME_CATEGORY.getName() +
+            " SET '" + Key.AGENT_ID.getName() + "' = ?s , " +
+                 "'" + Key.VM_ID.getName() + "' = ?s , " +
+                 "'" + Key.TIMESTAMP.getName() + "' = ?l , " +
+                 "'frameId' = ?s , " +
+                 "'frame' = ?s" +
+            " WHERE '" + Key.AGENT_ID.getName() + "' = ?s AND " +
+                   "'" + Key.VM_ID.getName() + "' = ?s AND " +
+                   "'frameId' = ?s";
+
     private final Category<AggregateCount> aggregateCategory;
     private Storage storage;
     
@@ -175,6 +207,96 @@ public class ThreadDaoImpl extends BaseCountable implements ThreadDao {
         }
     }
 
+    @Override
+    public void putStackTrace(ThreadStackTrace stackTrace) {
+        StatementDescriptor<ThreadStackTrace> desc = new StatementDescriptor<>(STACK_TRACE_CATEGORY, DESC_REPLACE_STACK_TRACE);
+        PreparedStatement<ThreadStackTrace> prepared;
+        try {
+            prepared = storage.prepareStatement(desc);
+            // SET params.
+            prepared.setString(0, stackTrace.getAgentId());
+            prepared.setString(1, stackTrace.getVmId());
+            prepared.setLong(2, stackTrace.getTimeStamp());
+            prepared.setString(3, stackTrace.getStackId());
+            prepared.setString(4, stackTrace.getFrameIds());
+            // WHERE params.
+            prepared.setString(5, stackTrace.getAgentId());
+            prepared.setString(6, stackTrace.getVmId());
+            prepared.setString(7, stackTrace.getStackId());
+            prepared.execute();
+        } catch (DescriptorParsingException e) {
+            logger.log(Level.SEVERE, "Preparing stmt '" + desc + "' failed!", e);
+        } catch (StatementExecutionException e) {
+            logger.log(Level.SEVERE, "Exception saving stack trace: " + stackTrace, e);
+        }
+    }
+
+    @Override
+    public void putStackFrame(ThreadStackFrame frame) {
+        StatementDescriptor<ThreadStackFrame> desc = new StatementDescriptor<>(STACK_FRAME_CATEGORY, DESC_REPLACE_STACK_FRAME);
+        PreparedStatement<ThreadStackFrame> prepared;
+        try {
+            prepared = storage.prepareStatement(desc);
+            // SET params.
+            prepared.setString(0, frame.getAgentId());
+            prepared.setString(1, frame.getVmId());
+            prepared.setLong(2, frame.getTimeStamp());
+            prepared.setString(3, frame.getFrameId());
+            prepared.setString(4, frame.getFrame());
+            // WHERE params.
+            prepared.setString(5, frame.getAgentId());
+            prepared.setString(6, frame.getVmId());
+            prepared.setString(7, frame.getFrameId());
+            prepared.execute();
+        } catch (DescriptorParsingException e) {
+            logger.log(Level.SEVERE, "Preparing stmt '" + desc + "' failed!", e);
+        } catch (StatementExecutionException e) {
+            logger.log(Level.SEVERE, "Exception saving stack frame: " + frame, e);
+        }
+    }
+
+    @Override
+    public ThreadStackTrace getStackTrace(VmRef ref, String stackId) {
+        Query<ThreadStackTrace> query = ThreadStackTraceAdapter.getQuery(StackTraceQuery.id);
+
+        QueryValues values = query.createValues();
+        values.set(StackTraceQuery.CriteriaId.vmId, ref.getVmId());
+        values.set(StackTraceQuery.CriteriaId.agentId, ref.getHostRef().getAgentId());
+        values.set(StackTraceQuery.CriteriaId.stackId, stackId);
+        values.set(StackTraceQuery.CriteriaId.limit, 1);
+
+        final List<ThreadStackTrace> results = new ArrayList<>();
+        try {
+            ThreadStackTraceAdapter.query(values, new FirstResultHandler<>(results), storage);
+
+        } catch (StatementExecutionException e) {
+            logger.log(Level.SEVERE, "Exception retrieving stack trace", e);
+        }
+
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    @Override
+    public ThreadStackFrame getStackFrame(VmRef ref, String frameId) {
+        Query<ThreadStackFrame> query = ThreadStackFrameAdapter.getQuery(StackFrameQuery.id);
+
+        QueryValues values = query.createValues();
+        values.set(StackFrameQuery.CriteriaId.vmId, ref.getVmId());
+        values.set(StackFrameQuery.CriteriaId.agentId, ref.getHostRef().getAgentId());
+        values.set(StackFrameQuery.CriteriaId.frameId, frameId);
+        values.set(StackFrameQuery.CriteriaId.limit, 1);
+
+        final List<ThreadStackFrame> results = new ArrayList<>();
+        try {
+            ThreadStackFrameAdapter.query(values, new FirstResultHandler<>(results), storage);
+
+        } catch (StatementExecutionException e) {
+            logger.log(Level.SEVERE, "Exception retrieving stack frame", e);
+        }
+
+        return results.isEmpty() ? null : results.get(0);
+    }
+
     @Override
     public List<ThreadSummary> getSummary(VmRef ref, Range<Long> range, int limit) {
         final List<ThreadSummary> results = new ArrayList<>();
@@ -339,6 +461,20 @@ public class ThreadDaoImpl extends BaseCountable implements ThreadDao {
         return stmt;
     }
 
+    private static class FirstResultHandler<T> implements ResultHandler<T> {
+        private final List<T> results;
+
+        FirstResultHandler(List<T> results) {
+            this.results = results;
+        }
+
+        @Override
+        public boolean onResult(T result) {
+            results.add(result);
+            return false;
+        }
+    }
+
     private <T extends Pojo> T getFirstResult(PreparedStatement<T> stmt) {
         Cursor<T> cursor;
         try {
@@ -61,9 +61,13 @@ public class ThreadDaoImplStatementDescriptorRegistration implements
         descs.addAll(ThreadDaoImpl.ThreadSummaryAdapter.describeStatements());
         descs.addAll(ThreadDaoImpl.ThreadSessionAdapter.describeStatements());
         descs.addAll(ThreadDaoImpl.ThreadStateAdapter.describeStatements());
+        descs.addAll(ThreadDaoImpl.ThreadStackTraceAdapter.describeStatements());
+        descs.addAll(ThreadDaoImpl.ThreadStackFrameAdapter.describeStatements());
 
         descs.add(ThreadDaoImpl.DESC_ADD_THREAD_DEADLOCK_DATA);
         descs.add(ThreadDaoImpl.DESC_ADD_THREAD_HARVESTING_STATUS);
+        descs.add(ThreadDaoImpl.DESC_REPLACE_STACK_TRACE);
+        descs.add(ThreadDaoImpl.DESC_REPLACE_STACK_FRAME);
     }
     
     @Override
@@ -40,14 +40,17 @@ import com.redhat.thermostat.storage.core.Entity;
 import com.redhat.thermostat.storage.core.Persist;
 import com.redhat.thermostat.storage.core.experimental.statement.Category;
 import com.redhat.thermostat.storage.core.experimental.statement.Indexed;
+import com.redhat.thermostat.storage.core.experimental.statement.Retained;
 import com.redhat.thermostat.storage.model.BasePojo;
 import com.redhat.thermostat.storage.model.TimeStampedPojo;
 import com.redhat.thermostat.thread.dao.internal.ThreadDaoCategories;
 
 /**
- * Represents a single delta variation of a Thread state.
+ * Represents a single delta variation of a Thread state. States are kept for
+ * a week if the storage enforces data retention.
  */
 @Category(ThreadDaoCategories.Categories.STATE)
+@Retained(7)
 @Entity
 public class ThreadState extends BasePojo implements TimeStampedPojo {
 
@@ -64,6 +67,7 @@ public class ThreadState extends BasePojo implements TimeStampedPojo {
     private long waitedCount;
     private long waitedTime;
     private String stackTrace;
+    private String stackTraceId;
 
     public ThreadState() {
         this(null);
@@ -164,6 +168,13 @@ public class ThreadState extends BasePojo implements TimeStampedPojo {
         return inNative;
     }
 
+    /**
+     * The full stack trace, as a {@link StackTrace} in JSON. Only states
+     * saved by older harvesters have one; others have an empty string here
+     * and refer to a {@link ThreadStackTrace} instead.
+     *
+     * @see #getStackTraceId()
+     */
     @Persist
     public void setStackTrace(String stackTrace) {
         this.stackTrace = stackTrace;
@@ -174,6 +185,20 @@ public class ThreadState extends BasePojo implements TimeStampedPojo {
         return stackTrace;
     }
 
+    /**
+     * The id of the {@link ThreadStackTrace} holding this thread's stack,
+     * or {@code null} for states that carry the full stack trace.
+     */
+    @Persist
+    public void setStackTraceId(String stackTraceId) {
+        this.stackTraceId = stackTraceId;
+    }
+
+    @Persist
+    public String getStackTraceId() {
+        return stackTraceId;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -195,6 +220,8 @@ public class ThreadState extends BasePojo implements TimeStampedPojo {
             return false;
         if (stackTrace != null ? !stackTrace.equals(that.stackTrace) : that.stackTrace != null)
             return false;
+        if (stackTraceId != null ? !stackTraceId.equals(that.stackTraceId) : that.stackTraceId != null)
+            return false;
 
         return true;
     }
@@ -210,6 +237,7 @@ public class ThreadState extends BasePojo implements TimeStampedPojo {
         result = 31 * result + (suspended ? 1 : 0);
         result = 31 * result + (inNative ? 1 : 0);
         result = 31 * result + (stackTrace != null ? stackTrace.hashCode() : 0);
+        result = 31 * result + (stackTraceId != null ? stackTraceId.hashCode() : 0);
         return result;
     }
 
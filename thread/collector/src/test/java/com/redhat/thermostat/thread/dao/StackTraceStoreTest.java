@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.thread.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.redhat.thermostat.common.Clock;
+import com.redhat.thermostat.thread.model.StackFrame;
+import com.redhat.thermostat.thread.model.ThreadStackFrame;
+import com.redhat.thermostat.thread.model.ThreadStackTrace;
+
+public class StackTraceStoreTest {
+
+    private static final StackTraceElement MAIN = new StackTraceElement("com.example.Main", "main", "Main.java", 10);
+    private static final StackTraceElement FOO = new StackTraceElement("com.example.Foo", "foo", "Foo.java", 20);
+    private static final StackTraceElement BAR = new StackTraceElement("com.example.Bar", "bar", "Bar.java", 30);
+
+    private static final long NOW = 1_000_000;
+
+    private ThreadDao dao;
+    private List<ThreadStackTrace> stacks;
+    private List<ThreadStackFrame> frames;
+    private Clock clock;
+    private StackTraceStore store;
+
+    @Before
+    public void setUp() {
+        dao = mock(ThreadDao.class);
+        stacks = new ArrayList<>();
+        frames = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                stacks.add((ThreadStackTrace) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(dao).putStackTrace(any(ThreadStackTrace.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                frames.add((ThreadStackFrame) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(dao).putStackFrame(any(ThreadStackFrame.class));
+
+        clock = mock(Clock.class);
+        when(clock.getRealTimeMillis()).thenReturn(NOW);
+        store = new StackTraceStore(dao, "writer", "vm", clock);
+    }
+
+    @Test
+    public void storesStackAndFrames() {
+        String id = store.store(new StackTraceElement[] { FOO, MAIN });
+
+        assertEquals(1, stacks.size());
+        ThreadStackTrace stack = stacks.get(0);
+        assertEquals(id, stack.getStackId());
+        assertEquals("vm", stack.getVmId());
+        assertEquals("writer", stack.getAgentId());
+        assertEquals(NOW, stack.getTimeStamp());
+
+        assertEquals(2, frames.size());
+        List<String> frameIds = Arrays.asList(frames.get(0).getFrameId(), frames.get(1).getFrameId());
+        assertEquals(frameIds, stack.getFrameIdList());
+        StackFrame foo = StackFrame.fromJson(frames.get(0).getFrame());
+        assertEquals("Foo", foo.getClassName());
+        assertEquals("com.example", foo.getPackageName());
+        assertEquals(20, foo.getLineNumber());
+    }
+
+    @Test
+    public void sameStackIsStoredOnce() {
+        String first = store.store(new StackTraceElement[] { FOO, MAIN });
+        String second = store.store(new StackTraceElement[] { FOO, MAIN });
+
+        assertEquals(first, second);
+        verify(dao, times(1)).putStackTrace(any(ThreadStackTrace.class));
+        verify(dao, times(2)).putStackFrame(any(ThreadStackFrame.class));
+    }
+
+    @Test
+    public void stackInUseIsSavedAgainAfterRefreshInterval() {
+        store.store(new StackTraceElement[] { FOO, MAIN });
+        when(clock.getRealTimeMillis()).thenReturn(NOW + StackTraceStore.REFRESH_INTERVAL - 1);
+        store.store(new StackTraceElement[] { FOO, MAIN });
+
+        assertEquals(1, stacks.size());
+        assertEquals(2, frames.size());
+
+        long later = NOW + StackTraceStore.REFRESH_INTERVAL;
+        when(clock.getRealTimeMillis()).thenReturn(later);
+        String id = store.store(new StackTraceElement[] { FOO, MAIN });
+
+        assertEquals(2, stacks.size());
+        assertEquals(id, stacks.get(1).getStackId());
+        assertEquals(later, stacks.get(1).getTimeStamp());
+        assertEquals(4, frames.size());
+        assertEquals(frames.get(0).getFrameId(), frames.get(2).getFrameId());
+        assertEquals(later, frames.get(2).getTimeStamp());
+    }
+
+    @Test
+    public void sharedFramesAreStoredOnce() {
+        String first = store.store(new StackTraceElement[] { FOO, MAIN });
+        String second = store.store(new StackTraceElement[] { BAR, MAIN });
+
+        assertFalse(first.equals(second));
+        assertEquals(2, stacks.size());
+        assertEquals(3, frames.size());
+        assertEquals(stacks.get(0).getFrameIdList().get(1), stacks.get(1).getFrameIdList().get(1));
+    }
+
+    @Test
+    public void idsDependOnlyOnContent() {
+        StackTraceStore other = new StackTraceStore(mock(ThreadDao.class), "other-writer", "other-vm");
+
+        String id = store.store(new StackTraceElement[] { FOO, MAIN });
+
+        assertEquals(id, other.store(new StackTraceElement[] {
+                new StackTraceElement("com.example.Foo", "foo", "Foo.java", 20),
+                new StackTraceElement("com.example.Main", "main", "Main.java", 10) }));
+        assertFalse(id.equals(other.store(new StackTraceElement[] { MAIN, FOO })));
+    }
+
+    @Test
+    public void emptyStackIsStored() {
+        String id = store.store(new StackTraceElement[0]);
+
+        assertEquals(1, stacks.size());
+        assertEquals(id, stacks.get(0).getStackId());
+        assertEquals(0, stacks.get(0).getFrameIdList().size());
+    }
+}
@@ -64,6 +64,8 @@ import com.redhat.thermostat.storage.model.AggregateCount;
 import com.redhat.thermostat.storage.model.Pojo;
 import com.redhat.thermostat.thread.dao.ThreadDao;
 import com.redhat.thermostat.thread.model.ThreadHarvestingStatus;
+import com.redhat.thermostat.thread.model.ThreadStackFrame;
+import com.redhat.thermostat.thread.model.ThreadStackTrace;
 import com.redhat.thermostat.thread.model.VmDeadLockData;
 
 public class ThreadDaoImplTest {
@@ -101,6 +103,22 @@ public class ThreadDaoImplTest {
                                                     "'timeStamp' = ?l , " +
                                                     "'harvesting' = ?b";
         assertEquals(addThreadHarvesting, ThreadDaoImpl.DESC_ADD_THREAD_HARVESTING_STATUS);
+
+        String replaceStackTrace = "REPLACE vm-thread-stack-trace SET 'agentId' = ?s , " +
+                                                    "'vmId' = ?s , " +
+                                                    "'timeStamp' = ?l , " +
+                                                    "'stackId' = ?s , " +
+                                                    "'frameIds' = ?s " +
+                                   "WHERE 'agentId' = ?s AND 'vmId' = ?s AND 'stackId' = ?s";
+        assertEquals(replaceStackTrace, ThreadDaoImpl.DESC_REPLACE_STACK_TRACE);
+
+        String replaceStackFrame = "REPLACE vm-thread-stack-frame SET 'agentId' = ?s , " +
+                                                    "'vmId' = ?s , " +
+                                                    "'timeStamp' = ?l , " +
+                                                    "'frameId' = ?s , " +
+                                                    "'frame' = ?s " +
+                                   "WHERE 'agentId' = ?s AND 'vmId' = ?s AND 'frameId' = ?s";
+        assertEquals(replaceStackFrame, ThreadDaoImpl.DESC_REPLACE_STACK_FRAME);
     }
     
     @Test
@@ -164,6 +182,49 @@ public class ThreadDaoImplTest {
     }
 
     @SuppressWarnings("unchecked")
+    @Test
+    public void testGetStackTrace() throws DescriptorParsingException, StatementExecutionException {
+        Storage storage = mock(Storage.class);
+        @SuppressWarnings("unchecked")
+        PreparedStatement<ThreadStackTrace> stmt = (PreparedStatement<ThreadStackTrace>) mock(PreparedStatement.class);
+        when(storage.prepareStatement(anyDescriptor(ThreadStackTrace.class))).thenReturn(stmt);
+        @SuppressWarnings("unchecked")
+        Cursor<ThreadStackTrace> cursor = (Cursor<ThreadStackTrace>) mock(Cursor.class);
+        ThreadStackTrace data = new ThreadStackTrace();
+
+        when(cursor.hasNext()).thenReturn(true);
+        when(cursor.next()).thenReturn(data);
+        when(stmt.executeQuery()).thenReturn(cursor);
+
+        ThreadDaoImpl dao = new ThreadDaoImpl(storage);
+        ThreadStackTrace result = dao.getStackTrace(vmRef, "stack-id");
+
+        assertSame(data, result);
+
+        verify(stmt).setString(0, VM_ID);
+        verify(stmt).setString(1, AGENT_ID);
+        verify(stmt).setString(2, "stack-id");
+        verify(stmt).setInt(3, 1);
+        verify(stmt).executeQuery();
+        verifyNoMoreInteractions(stmt);
+    }
+
+    @Test
+    public void testGetStackTraceWithNoData() throws DescriptorParsingException, StatementExecutionException {
+        Storage storage = mock(Storage.class);
+        @SuppressWarnings("unchecked")
+        PreparedStatement<ThreadStackTrace> stmt = (PreparedStatement<ThreadStackTrace>) mock(PreparedStatement.class);
+        when(storage.prepareStatement(anyDescriptor(ThreadStackTrace.class))).thenReturn(stmt);
+        @SuppressWarnings("unchecked")
+        Cursor<ThreadStackTrace> cursor = (Cursor<ThreadStackTrace>) mock(Cursor.class);
+        when(cursor.hasNext()).thenReturn(false);
+        when(stmt.executeQuery()).thenReturn(cursor);
+
+        ThreadDaoImpl dao = new ThreadDaoImpl(storage);
+
+        assertNull(dao.getStackTrace(vmRef, "stack-id"));
+    }
+
     @Test
     public void testSaveDeadLockStatus() throws DescriptorParsingException, StatementExecutionException {
         Storage storage = mock(Storage.class);
@@ -244,6 +305,39 @@ public class ThreadDaoImplTest {
         verifyNoMoreInteractions(add);
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPutStackFrame() throws DescriptorParsingException, StatementExecutionException {
+        Storage storage = mock(Storage.class);
+        PreparedStatement<ThreadStackFrame> replace = mock(PreparedStatement.class);
+        when(storage.prepareStatement(any(StatementDescriptor.class))).thenReturn(replace);
+
+        ThreadStackFrame frame = new ThreadStackFrame(AGENT_ID);
+        frame.setVmId(VM_ID);
+        frame.setTimeStamp(42);
+        frame.setFrameId("frame-id");
+        frame.setFrame("{}");
+
+        ThreadDaoImpl dao = new ThreadDaoImpl(storage);
+        dao.putStackFrame(frame);
+
+        @SuppressWarnings("rawtypes")
+        ArgumentCaptor<StatementDescriptor> captor = ArgumentCaptor.forClass(StatementDescriptor.class);
+        verify(storage).prepareStatement(captor.capture());
+        assertEquals(ThreadDaoImpl.DESC_REPLACE_STACK_FRAME, captor.getValue().getDescriptor());
+
+        verify(replace).setString(0, AGENT_ID);
+        verify(replace).setString(1, VM_ID);
+        verify(replace).setLong(2, 42);
+        verify(replace).setString(3, "frame-id");
+        verify(replace).setString(4, "{}");
+        verify(replace).setString(5, AGENT_ID);
+        verify(replace).setString(6, VM_ID);
+        verify(replace).setString(7, "frame-id");
+        verify(replace).execute();
+        verifyNoMoreInteractions(replace);
+    }
+
     @Test
     public void testGetDeadLockCount()
             throws DescriptorParsingException, StatementExecutionException {
@@ -43,6 +43,8 @@ public class ThreadModelPojosTest extends DataObjectTest {
     private static final Class<?>[] CLASSES_LIST = new Class[] {
         LockInfo.class,
         ThreadHarvestingStatus.class,
+        ThreadStackFrame.class,
+        ThreadStackTrace.class,
         ThreadState.class,
         ThreadSummary.class,
         VmDeadLockData.class,
@@ -37,7 +37,6 @@
 package com.redhat.thermostat.thread.harvester.internal;
 
 import java.util.Objects;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.osgi.framework.BundleActivator;
@@ -48,6 +47,7 @@ import com.redhat.thermostat.agent.VmStatusListenerRegistrar;
 import com.redhat.thermostat.agent.command.ReceiverRegistry;
 import com.redhat.thermostat.agent.utils.management.MXBeanConnectionPool;
 import com.redhat.thermostat.backend.Backend;
+import com.redhat.thermostat.backend.BackendScheduler;
 import com.redhat.thermostat.backend.BackendService;
 import com.redhat.thermostat.common.MultipleServiceTracker;
 import com.redhat.thermostat.common.MultipleServiceTracker.Action;
@@ -58,6 +58,10 @@ import com.redhat.thermostat.thread.dao.LockInfoDao;
 import com.redhat.thermostat.thread.dao.ThreadDao;
 
 public class Activator implements BundleActivator {
+
+    // the size of the pool the harvester had before it used BackendScheduler
+    static final int HARVESTER_THREADS = 24;
+
     private MultipleServiceTracker threadBackendTracker;
     private MultipleServiceTracker threadCountTracker;
     private MultipleServiceTracker lockInfoTracker;
@@ -144,7 +148,9 @@ public class Activator implements BundleActivator {
                 WriterID writerId = services.get(WriterID.class);
                 ThreadDao threadDao = services.get(ThreadDao.class);
 
-                executor = Executors.newScheduledThreadPool(24);
+                // harvesting blocks on JMX calls into the monitored VMs, so
+                // keep it off the workers the other backends share
+                executor = BackendScheduler.getInstance().createExecutor("thread-harvester", HARVESTER_THREADS);
                 ThreadHarvester harvester = new ThreadHarvester(executor, pool, writerId);
                 harvester.setThreadDao(threadDao);
 
@@ -43,17 +43,28 @@ import com.redhat.thermostat.thread.model.ThreadSession;
 import com.redhat.thermostat.thread.model.ThreadState;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
+import java.util.List;
 
 /*
  */
 class HarvesterHelper {
 
+    /**
+     * Every this many samples all threads are saved, whether they changed or
+     * not, so that readers can rebuild the state of every thread from the
+     * last keyframe and the changes after it.
+     */
+    static final int KEYFRAME_INTERVAL = ThreadDao.KEYFRAME_INTERVAL;
+
     private Clock clock;
     private String vmId;
 
     private ThreadStateHelper stateHelper;
     private ThreadSessionHelper sessionHelper;
 
+    private final ThreadStateTracker tracker;
+    private int samples;
+
     HarvesterHelper(ThreadDao threadDao, Clock clock, String vmId, WriterID writerId)
     {
         this(clock, vmId,
@@ -64,12 +75,21 @@ class HarvesterHelper {
     HarvesterHelper(Clock clock, String vmId,
                     ThreadStateHelper stateHelper,
                     ThreadSessionHelper sessionHelper)
+    {
+        this(clock, vmId, stateHelper, sessionHelper, new ThreadStateTracker());
+    }
+
+    HarvesterHelper(Clock clock, String vmId,
+                    ThreadStateHelper stateHelper,
+                    ThreadSessionHelper sessionHelper,
+                    ThreadStateTracker tracker)
     {
         this.vmId = vmId;
         this.clock = clock;
 
         this.stateHelper = stateHelper;
         this.sessionHelper = sessionHelper;
+        this.tracker = tracker;
     }
 
     synchronized void collectAndSaveThreadData(ThreadSession session,
@@ -85,22 +105,48 @@ class HarvesterHelper {
          */
         ThreadInfo[] threadInfos = collectorBean.dumpAllThreads(false, false);
 
+        boolean keyframe = (samples % KEYFRAME_INTERVAL) == 0;
+        samples++;
+
+        tracker.beginSample();
         for (int i = 0; i < threadInfos.length; i++) {
 
             ThreadInfo beanInfo = threadInfos[i];
 
             if (beanInfo != null) {
-                // state information
-                ThreadState state =
-                        stateHelper.createThreadState(beanInfo,
-                                session.getSessionID(),
-                                timestamp);
-                stateHelper.saveThreadState(state);
+                String stackTraceId = stateHelper.storeStackTrace(beanInfo);
+                boolean changed = tracker.update(beanInfo, stackTraceId);
+
+                // runnable threads are always saved, since the stack trace
+                // profiler counts their samples
+                if (keyframe || changed ||
+                    beanInfo.getThreadState() == Thread.State.RUNNABLE)
+                {
+                    // state information
+                    ThreadState state =
+                            stateHelper.createThreadState(beanInfo,
+                                    stackTraceId,
+                                    session.getSessionID(),
+                                    timestamp);
+                    stateHelper.saveThreadState(state);
+                }
             }
         }
+
+        List<ThreadStateTracker.TerminatedThread> terminated = tracker.endSample();
+        for (ThreadStateTracker.TerminatedThread thread : terminated) {
+            ThreadState state =
+                    stateHelper.createTerminatedThreadState(thread,
+                            session.getSessionID(),
+                            timestamp);
+            stateHelper.saveThreadState(state);
+        }
     }
 
-    public ThreadSession createSession() {
+    public synchronized ThreadSession createSession() {
+        // the first sample of a session is always a keyframe
+        samples = 0;
+        tracker.reset();
         return sessionHelper.createSession();
     }
 
@@ -37,9 +37,9 @@
 package com.redhat.thermostat.thread.harvester.internal;
 
 import com.redhat.thermostat.storage.core.WriterID;
+import com.redhat.thermostat.thread.dao.StackTraceStore;
 import com.redhat.thermostat.thread.dao.ThreadDao;
 import com.redhat.thermostat.thread.model.SessionID;
-import com.redhat.thermostat.thread.model.StackTrace;
 import com.redhat.thermostat.thread.model.ThreadState;
 
 import java.lang.management.ThreadInfo;
@@ -49,16 +49,39 @@ public class ThreadStateHelper {
     private ThreadDao threadDao;
     private final WriterID writerId;
     private final String vmId;
+    private final StackTraceStore stackTraceStore;
 
     public ThreadStateHelper(ThreadDao threadDao,
                              WriterID writerId, String vmId)
+    {
+        this(threadDao, writerId, vmId,
+             new StackTraceStore(threadDao, writerId.getWriterID(), vmId));
+    }
+
+    ThreadStateHelper(ThreadDao threadDao, WriterID writerId, String vmId,
+                      StackTraceStore stackTraceStore)
     {
         this.threadDao = threadDao;
         this.writerId = writerId;
         this.vmId = vmId;
+        this.stackTraceStore = stackTraceStore;
+    }
+
+    /**
+     * Saves the stack trace of the given thread, unless it was saved already.
+     *
+     * @return the id of the stack trace
+     */
+    String storeStackTrace(ThreadInfo beanInfo) {
+        return stackTraceStore.store(beanInfo.getStackTrace());
     }
 
+    /**
+     * @param stackTraceId the id returned by {@link #storeStackTrace} for
+     * the same thread
+     */
     public ThreadState createThreadState(ThreadInfo beanInfo,
+                                         String stackTraceId,
                                          SessionID sessionID,
                                          long timestamp)
     {
@@ -84,13 +107,45 @@ public class ThreadStateHelper {
         state.setWaitedCount(beanInfo.getWaitedCount());
         state.setWaitedTime(beanInfo.getWaitedTime());
 
-        state.setStackTrace(new StackTrace(beanInfo.getStackTrace()).toString());
+        // the stack itself is only saved the first time it is seen
+        state.setStackTrace("");
+        state.setStackTraceId(stackTraceId);
 
         // TODO: lock information
 
         return state;
     }
 
+    /**
+     * Creates the state recording that a thread seen in an earlier sample is
+     * no longer alive.
+     */
+    ThreadState createTerminatedThreadState(ThreadStateTracker.TerminatedThread thread,
+                                            SessionID sessionID,
+                                            long timestamp)
+    {
+        ThreadState state = new ThreadState(writerId.getWriterID());
+
+        state.setTimeStamp(timestamp);
+        state.setSession(sessionID.get());
+        state.setVmId(vmId);
+
+        state.setName(thread.name);
+        state.setId(thread.id);
+
+        state.setState(Thread.State.TERMINATED.name());
+
+        state.setBlockedCount(thread.blockedCount);
+        state.setBlockedTime(thread.blockedTime);
+        state.setWaitedCount(thread.waitedCount);
+        state.setWaitedTime(thread.waitedTime);
+
+        state.setStackTrace("");
+        state.setStackTraceId(stackTraceStore.store(new StackTraceElement[0]));
+
+        return state;
+    }
+
     public void saveThreadState(ThreadState thread) {
         threadDao.addThreadState(thread);
     }
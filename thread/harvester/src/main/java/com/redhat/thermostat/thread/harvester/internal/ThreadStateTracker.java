@@ -0,0 +1,275 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.thread.harvester.internal;
+
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Remembers what every thread looked like in the previous sample, so that
+ * only the threads that changed since then need to be saved.
+ * <p>
+ * A sample is kept in primitive arrays, as an open addressing table keyed by
+ * thread id. Two tables are used in turn: one holds the previous sample while
+ * the other one is filled with the current sample.
+ * <p>
+ * This class is not thread safe.
+ */
+class ThreadStateTracker {
+
+    /**
+     * A thread that was alive in the previous sample but is gone from the
+     * current one, with the last values seen for it.
+     */
+    static class TerminatedThread {
+        final long id;
+        final String name;
+        final long blockedCount;
+        final long blockedTime;
+        final long waitedCount;
+        final long waitedTime;
+
+        TerminatedThread(long id, String name, long blockedCount, long blockedTime,
+                         long waitedCount, long waitedTime)
+        {
+            this.id = id;
+            this.name = name;
+            this.blockedCount = blockedCount;
+            this.blockedTime = blockedTime;
+            this.waitedCount = waitedCount;
+            this.waitedTime = waitedTime;
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Sample previous = new Sample(INITIAL_CAPACITY);
+    private Sample current = new Sample(INITIAL_CAPACITY);
+
+    /**
+     * Starts a new sample. Every thread alive in the sample must then be
+     * passed to {@link #update(ThreadInfo)}, followed by a call to
+     * {@link #endSample()}.
+     */
+    void beginSample() {
+        Sample swap = previous;
+        previous = current;
+        current = swap;
+        current.clear();
+    }
+
+    /**
+     * Records the thread in the current sample.
+     *
+     * @param stackTraceId the id under which {@link
+     * com.redhat.thermostat.thread.dao.StackTraceStore StackTraceStore} saved
+     * the stack trace of the thread
+     * @return {@code true} if the thread was not in the previous sample or
+     * its state, lock counters or stack trace changed since
+     */
+    boolean update(ThreadInfo info, String stackTraceId) {
+        long id = info.getThreadId();
+        int state = info.getThreadState().ordinal();
+        int flags = (info.isSuspended() ? Sample.SUSPENDED : 0) |
+                    (info.isInNative() ? Sample.IN_NATIVE : 0);
+        long blockedCount = info.getBlockedCount();
+        long waitedCount = info.getWaitedCount();
+
+        int slot = current.put(id);
+        current.names[slot] = info.getThreadName();
+        current.states[slot] = state;
+        current.flags[slot] = flags;
+        current.blockedCounts[slot] = blockedCount;
+        current.blockedTimes[slot] = info.getBlockedTime();
+        current.waitedCounts[slot] = waitedCount;
+        current.waitedTimes[slot] = info.getWaitedTime();
+        current.stackTraceIds[slot] = stackTraceId;
+
+        int before = previous.find(id);
+        return before < 0 ||
+               previous.states[before] != state ||
+               previous.flags[before] != flags ||
+               previous.blockedCounts[before] != blockedCount ||
+               previous.waitedCounts[before] != waitedCount ||
+               !Objects.equals(previous.stackTraceIds[before], stackTraceId);
+    }
+
+    /**
+     * Finishes the current sample.
+     *
+     * @return the threads that were in the previous sample but not in this one
+     */
+    List<TerminatedThread> endSample() {
+        List<TerminatedThread> terminated = Collections.emptyList();
+        for (int slot = 0; slot < previous.ids.length; slot++) {
+            long id = previous.ids[slot];
+            if (id != Sample.EMPTY && current.find(id) < 0) {
+                if (terminated.isEmpty()) {
+                    terminated = new ArrayList<>();
+                }
+                terminated.add(new TerminatedThread(id, previous.names[slot],
+                                                    previous.blockedCounts[slot],
+                                                    previous.blockedTimes[slot],
+                                                    previous.waitedCounts[slot],
+                                                    previous.waitedTimes[slot]));
+            }
+        }
+        return terminated;
+    }
+
+    /**
+     * Forgets all the samples seen so far.
+     */
+    void reset() {
+        previous.clear();
+        current.clear();
+    }
+
+    private static class Sample {
+
+        static final long EMPTY = -1;
+
+        static final int SUSPENDED = 1;
+        static final int IN_NATIVE = 2;
+
+        private int size;
+
+        long[] ids;
+        String[] names;
+        int[] states;
+        int[] flags;
+        long[] blockedCounts;
+        long[] blockedTimes;
+        long[] waitedCounts;
+        long[] waitedTimes;
+        String[] stackTraceIds;
+
+        Sample(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            ids = new long[capacity];
+            Arrays.fill(ids, EMPTY);
+            names = new String[capacity];
+            states = new int[capacity];
+            flags = new int[capacity];
+            blockedCounts = new long[capacity];
+            blockedTimes = new long[capacity];
+            waitedCounts = new long[capacity];
+            waitedTimes = new long[capacity];
+            stackTraceIds = new String[capacity];
+            size = 0;
+        }
+
+        void clear() {
+            Arrays.fill(ids, EMPTY);
+            Arrays.fill(names, null);
+            Arrays.fill(stackTraceIds, null);
+            size = 0;
+        }
+
+        int find(long id) {
+            int mask = ids.length - 1;
+            for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+                if (ids[slot] == id) {
+                    return slot;
+                }
+                if (ids[slot] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        /**
+         * @return the slot for the given id, claiming a free one if needed
+         */
+        int put(long id) {
+            // keep the table at most half full
+            if ((size + 1) * 2 > ids.length) {
+                grow();
+            }
+
+            int mask = ids.length - 1;
+            int slot = hash(id) & mask;
+            while (ids[slot] != EMPTY && ids[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            if (ids[slot] == EMPTY) {
+                ids[slot] = id;
+                size++;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldIds = ids;
+            String[] oldNames = names;
+            int[] oldStates = states;
+            int[] oldFlags = flags;
+            long[] oldBlockedCounts = blockedCounts;
+            long[] oldBlockedTimes = blockedTimes;
+            long[] oldWaitedCounts = waitedCounts;
+            long[] oldWaitedTimes = waitedTimes;
+            String[] oldStackTraceIds = stackTraceIds;
+
+            allocate(oldIds.length * 2);
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldIds[i] != EMPTY) {
+                    int slot = put(oldIds[i]);
+                    names[slot] = oldNames[i];
+                    states[slot] = oldStates[i];
+                    flags[slot] = oldFlags[i];
+                    blockedCounts[slot] = oldBlockedCounts[i];
+                    blockedTimes[slot] = oldBlockedTimes[i];
+                    waitedCounts[slot] = oldWaitedCounts[i];
+                    waitedTimes[slot] = oldWaitedTimes[i];
+                    stackTraceIds[slot] = oldStackTraceIds[i];
+                }
+            }
+        }
+
+        private static int hash(long id) {
+            int h = (int) (id ^ (id >>> 32));
+            return h ^ (h >>> 16);
+        }
+    }
+}
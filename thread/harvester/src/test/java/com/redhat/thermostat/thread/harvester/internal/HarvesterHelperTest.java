@@ -36,9 +36,12 @@
 
 package com.redhat.thermostat.thread.harvester.internal;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -47,9 +50,12 @@ import java.lang.management.ThreadMXBean;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import com.redhat.thermostat.common.Clock;
 import com.redhat.thermostat.thread.dao.ThreadDao;
+import com.redhat.thermostat.thread.harvester.internal.ThreadStateTracker.TerminatedThread;
+import com.redhat.thermostat.thread.model.SessionID;
 import com.redhat.thermostat.thread.model.ThreadSession;
 import com.redhat.thermostat.thread.model.ThreadState;
 
@@ -92,9 +98,9 @@ public class HarvesterHelperTest {
     @Test
     public void testThreadInfoPassedToThreadStateHelper() {
         ThreadInfo[] infos = new ThreadInfo[3];
-        infos[0] = mock(ThreadInfo.class);
-        infos[1] = mock(ThreadInfo.class);
-        infos[2] = mock(ThreadInfo.class);
+        infos[0] = createThreadInfo(1, Thread.State.RUNNABLE);
+        infos[1] = createThreadInfo(2, Thread.State.WAITING);
+        infos[2] = createThreadInfo(3, Thread.State.BLOCKED);
 
         when(collectorBean.dumpAllThreads(eq(false), eq(false))).thenReturn(infos);
 
@@ -102,9 +108,9 @@ public class HarvesterHelperTest {
         ThreadState state2 = mock(ThreadState.class);
         ThreadState state3 = mock(ThreadState.class);
 
-        when(stateHelper.createThreadState(eq(infos[0]),eq(session.getSessionID()), eq(DEFAULT_TIMESTAMP))).thenReturn(state1);
-        when(stateHelper.createThreadState(eq(infos[1]), eq(session.getSessionID()), eq(DEFAULT_TIMESTAMP))).thenReturn(state2);
-        when(stateHelper.createThreadState(eq(infos[2]), eq(session.getSessionID()), eq(DEFAULT_TIMESTAMP))).thenReturn(state3);
+        when(stateHelper.createThreadState(eq(infos[0]), any(String.class), eq(session.getSessionID()), eq(DEFAULT_TIMESTAMP))).thenReturn(state1);
+        when(stateHelper.createThreadState(eq(infos[1]), any(String.class), eq(session.getSessionID()), eq(DEFAULT_TIMESTAMP))).thenReturn(state2);
+        when(stateHelper.createThreadState(eq(infos[2]), any(String.class), eq(session.getSessionID()), eq(DEFAULT_TIMESTAMP))).thenReturn(state3);
 
         HarvesterHelper harvester = new HarvesterHelper(clock, vmId,
                                                         stateHelper,
@@ -115,4 +121,124 @@ public class HarvesterHelperTest {
         verify(stateHelper).saveThreadState(state2);
         verify(stateHelper).saveThreadState(state3);
     }
+
+    @Test
+    public void testOnlyChangedThreadsSavedBetweenKeyframes() {
+        ThreadInfo running = createThreadInfo(1, Thread.State.RUNNABLE);
+        ThreadInfo parked = createThreadInfo(2, Thread.State.WAITING);
+        ThreadInfo waking = createThreadInfo(3, Thread.State.WAITING);
+
+        when(collectorBean.dumpAllThreads(false, false)).
+                thenReturn(new ThreadInfo[] { running, parked, waking });
+
+        ThreadState runningState = mock(ThreadState.class);
+        ThreadState parkedState = mock(ThreadState.class);
+        ThreadState wakingState = mock(ThreadState.class);
+        when(stateHelper.createThreadState(eq(running), any(String.class), any(SessionID.class), any(Long.class))).thenReturn(runningState);
+        when(stateHelper.createThreadState(eq(parked), any(String.class), any(SessionID.class), any(Long.class))).thenReturn(parkedState);
+        when(stateHelper.createThreadState(eq(waking), any(String.class), any(SessionID.class), any(Long.class))).thenReturn(wakingState);
+
+        HarvesterHelper harvester = new HarvesterHelper(clock, vmId,
+                                                        stateHelper,
+                                                        threadSessionHelper);
+        harvester.collectAndSaveThreadData(session, collectorBean);
+
+        when(waking.getThreadState()).thenReturn(Thread.State.BLOCKED);
+        harvester.collectAndSaveThreadData(session, collectorBean);
+
+        verify(stateHelper, times(2)).saveThreadState(runningState);
+        verify(stateHelper, times(1)).saveThreadState(parkedState);
+        verify(stateHelper, times(2)).saveThreadState(wakingState);
+
+        // the next keyframe saves everything again
+        for (int i = 2; i <= HarvesterHelper.KEYFRAME_INTERVAL; i++) {
+            harvester.collectAndSaveThreadData(session, collectorBean);
+        }
+        verify(stateHelper, times(2)).saveThreadState(parkedState);
+        verify(stateHelper, times(3)).saveThreadState(wakingState);
+    }
+
+    @Test
+    public void testStackTraceChangesAreComparedByStoredId() {
+        ThreadInfo parked = createThreadInfo(2, Thread.State.WAITING);
+        when(collectorBean.dumpAllThreads(false, false)).
+                thenReturn(new ThreadInfo[] { parked });
+        when(stateHelper.storeStackTrace(parked)).
+                thenReturn("stack-a").
+                thenReturn("stack-a").
+                thenReturn("stack-b");
+
+        ThreadState parkedState = mock(ThreadState.class);
+        when(stateHelper.createThreadState(eq(parked), any(String.class), any(SessionID.class), any(Long.class))).thenReturn(parkedState);
+
+        HarvesterHelper harvester = new HarvesterHelper(clock, vmId,
+                                                        stateHelper,
+                                                        threadSessionHelper);
+        harvester.collectAndSaveThreadData(session, collectorBean);
+        harvester.collectAndSaveThreadData(session, collectorBean);
+        verify(stateHelper, times(1)).saveThreadState(parkedState);
+
+        harvester.collectAndSaveThreadData(session, collectorBean);
+        verify(stateHelper, times(2)).saveThreadState(parkedState);
+        verify(stateHelper).createThreadState(eq(parked), eq("stack-b"), any(SessionID.class), any(Long.class));
+    }
+
+    @Test
+    public void testTerminatedThreadsSaved() {
+        ThreadInfo parked = createThreadInfo(2, Thread.State.WAITING);
+        when(parked.getThreadName()).thenReturn("parked");
+        when(parked.getWaitedCount()).thenReturn(3l);
+
+        when(collectorBean.dumpAllThreads(false, false)).
+                thenReturn(new ThreadInfo[] { parked }).
+                thenReturn(new ThreadInfo[0]);
+
+        ThreadState terminatedState = mock(ThreadState.class);
+        ArgumentCaptor<TerminatedThread> captor = ArgumentCaptor.forClass(TerminatedThread.class);
+        when(stateHelper.createTerminatedThreadState(captor.capture(), eq(session.getSessionID()), eq(DEFAULT_TIMESTAMP))).
+                thenReturn(terminatedState);
+
+        HarvesterHelper harvester = new HarvesterHelper(clock, vmId,
+                                                        stateHelper,
+                                                        threadSessionHelper);
+        harvester.collectAndSaveThreadData(session, collectorBean);
+        verify(stateHelper, never()).saveThreadState(terminatedState);
+
+        harvester.collectAndSaveThreadData(session, collectorBean);
+        verify(stateHelper).saveThreadState(terminatedState);
+
+        TerminatedThread terminated = captor.getValue();
+        assertEquals(2, terminated.id);
+        assertEquals("parked", terminated.name);
+        assertEquals(3, terminated.waitedCount);
+    }
+
+    @Test
+    public void testNewSessionStartsWithKeyframe() {
+        ThreadInfo parked = createThreadInfo(2, Thread.State.WAITING);
+        when(collectorBean.dumpAllThreads(false, false)).
+                thenReturn(new ThreadInfo[] { parked });
+
+        ThreadState parkedState = mock(ThreadState.class);
+        when(stateHelper.createThreadState(eq(parked), any(String.class), any(SessionID.class), any(Long.class))).thenReturn(parkedState);
+
+        HarvesterHelper harvester = new HarvesterHelper(clock, vmId,
+                                                        stateHelper,
+                                                        threadSessionHelper);
+        harvester.collectAndSaveThreadData(session, collectorBean);
+        harvester.collectAndSaveThreadData(session, collectorBean);
+        verify(stateHelper, times(1)).saveThreadState(parkedState);
+
+        harvester.createSession();
+        harvester.collectAndSaveThreadData(session, collectorBean);
+        verify(stateHelper, times(2)).saveThreadState(parkedState);
+    }
+
+    private static ThreadInfo createThreadInfo(long id, Thread.State state) {
+        ThreadInfo info = mock(ThreadInfo.class);
+        when(info.getThreadId()).thenReturn(id);
+        when(info.getThreadState()).thenReturn(state);
+        when(info.getStackTrace()).thenReturn(new StackTraceElement[0]);
+        return info;
+    }
 }
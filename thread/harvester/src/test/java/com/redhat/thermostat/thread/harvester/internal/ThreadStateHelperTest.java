@@ -49,6 +49,7 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import com.redhat.thermostat.storage.core.WriterID;
+import com.redhat.thermostat.thread.dao.StackTraceStore;
 import com.redhat.thermostat.thread.dao.ThreadDao;
 import com.redhat.thermostat.thread.model.SessionID;
 import com.redhat.thermostat.thread.model.ThreadState;
@@ -89,7 +90,7 @@ public class ThreadStateHelperTest {
 
         long timestamp = -1l;
 
-        ThreadState state = helper.createThreadState(info, sessionID, timestamp);
+        ThreadState state = helper.createThreadState(info, "stack-id", sessionID, timestamp);
         assertNotNull(state);
 
         assertEquals(timestamp, state.getTimeStamp());
@@ -97,6 +98,45 @@ public class ThreadStateHelperTest {
         assertEquals(DEFAULT_SESSION_ID, state.getSession());
     }
 
+    @Test
+    public void testCreateThreadStateRefersToStoredStackTrace() throws Exception {
+        StackTraceStore store = mock(StackTraceStore.class);
+        StackTraceElement[] stack = new StackTraceElement[] {
+                new StackTraceElement("Foo", "bar", "Foo.java", 1),
+        };
+        when(store.store(stack)).thenReturn("stack-id");
+        ThreadStateHelper helper = new ThreadStateHelper(threadDao, writerId, vmId, store);
+
+        ThreadInfo info = mock(ThreadInfo.class);
+        when(info.getThreadState()).thenReturn(Thread.State.RUNNABLE);
+        when(info.getStackTrace()).thenReturn(stack);
+
+        String stackTraceId = helper.storeStackTrace(info);
+        ThreadState state = helper.createThreadState(info, stackTraceId, sessionID, 1l);
+
+        verify(store).store(stack);
+        assertEquals("stack-id", state.getStackTraceId());
+        assertEquals("", state.getStackTrace());
+    }
+
+    @Test
+    public void testCreateTerminatedThreadState() throws Exception {
+        ThreadStateHelper helper = new ThreadStateHelper(threadDao, writerId, vmId);
+
+        ThreadStateTracker.TerminatedThread thread =
+                new ThreadStateTracker.TerminatedThread(7, "worker", 1, 2, 3, 4);
+
+        ThreadState state = helper.createTerminatedThreadState(thread, sessionID, 10l);
+
+        assertEquals(10l, state.getTimeStamp());
+        assertEquals(7, state.getId());
+        assertEquals("worker", state.getName());
+        assertEquals(Thread.State.TERMINATED.name(), state.getState());
+        assertEquals(3, state.getWaitedCount());
+        assertEquals(DEFAULT_SESSION_ID, state.getSession());
+        assertNotNull(state.getStackTraceId());
+    }
+
     @Test
     public void testSaveThreadState() throws Exception {
         ThreadStateHelper helper = new ThreadStateHelper(threadDao, writerId, vmId);
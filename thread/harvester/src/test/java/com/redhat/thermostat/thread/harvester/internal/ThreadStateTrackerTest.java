@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.thread.harvester.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ThreadInfo;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.thread.harvester.internal.ThreadStateTracker.TerminatedThread;
+
+public class ThreadStateTrackerTest {
+
+    private static final String STACK_ID = "stack-id";
+
+    private ThreadStateTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new ThreadStateTracker();
+    }
+
+    @Test
+    public void newThreadsAreChanged() {
+        tracker.beginSample();
+        assertTrue(tracker.update(createThreadInfo(1, Thread.State.RUNNABLE), STACK_ID));
+        assertTrue(tracker.endSample().isEmpty());
+    }
+
+    @Test
+    public void unchangedThreadsAreNotChanged() {
+        ThreadInfo info = createThreadInfo(1, Thread.State.WAITING);
+        sample(info);
+
+        tracker.beginSample();
+        assertFalse(tracker.update(info, STACK_ID));
+        tracker.endSample();
+    }
+
+    @Test
+    public void stateChangesAreDetected() {
+        ThreadInfo info = createThreadInfo(1, Thread.State.WAITING);
+        sample(info);
+
+        when(info.getThreadState()).thenReturn(Thread.State.BLOCKED);
+        tracker.beginSample();
+        assertTrue(tracker.update(info, STACK_ID));
+        tracker.endSample();
+    }
+
+    @Test
+    public void counterChangesAreDetected() {
+        ThreadInfo info = createThreadInfo(1, Thread.State.WAITING);
+        sample(info);
+
+        when(info.getWaitedCount()).thenReturn(1l);
+        tracker.beginSample();
+        assertTrue(tracker.update(info, STACK_ID));
+        tracker.endSample();
+    }
+
+    @Test
+    public void stackChangesAreDetected() {
+        ThreadInfo info = createThreadInfo(1, Thread.State.RUNNABLE);
+        sample(info);
+
+        tracker.beginSample();
+        assertTrue(tracker.update(info, "other-stack-id"));
+        tracker.endSample();
+    }
+
+    @Test
+    public void missingThreadsAreTerminated() {
+        ThreadInfo alive = createThreadInfo(1, Thread.State.WAITING);
+        ThreadInfo dying = createThreadInfo(2, Thread.State.RUNNABLE);
+        when(dying.getThreadName()).thenReturn("dying");
+        when(dying.getBlockedCount()).thenReturn(5l);
+        sample(alive, dying);
+
+        tracker.beginSample();
+        tracker.update(alive, STACK_ID);
+        List<TerminatedThread> terminated = tracker.endSample();
+
+        assertEquals(1, terminated.size());
+        assertEquals(2, terminated.get(0).id);
+        assertEquals("dying", terminated.get(0).name);
+        assertEquals(5, terminated.get(0).blockedCount);
+
+        // only reported once
+        tracker.beginSample();
+        tracker.update(alive, STACK_ID);
+        assertTrue(tracker.endSample().isEmpty());
+    }
+
+    @Test
+    public void manyThreadsAreTracked() {
+        int count = 1000;
+        ThreadInfo[] infos = new ThreadInfo[count];
+        for (int i = 0; i < count; i++) {
+            infos[i] = createThreadInfo(i + 1, Thread.State.TIMED_WAITING);
+        }
+        sample(infos);
+
+        tracker.beginSample();
+        for (int i = 0; i < count; i++) {
+            assertFalse(tracker.update(infos[i], STACK_ID));
+        }
+        assertTrue(tracker.endSample().isEmpty());
+    }
+
+    @Test
+    public void resetForgetsThreads() {
+        ThreadInfo info = createThreadInfo(1, Thread.State.WAITING);
+        sample(info);
+
+        tracker.reset();
+
+        tracker.beginSample();
+        assertTrue(tracker.update(info, STACK_ID));
+        assertTrue(tracker.endSample().isEmpty());
+    }
+
+    private void sample(ThreadInfo... infos) {
+        tracker.beginSample();
+        for (ThreadInfo info : infos) {
+            tracker.update(info, STACK_ID);
+        }
+        tracker.endSample();
+    }
+
+    private static ThreadInfo createThreadInfo(long id, Thread.State state) {
+        ThreadInfo info = mock(ThreadInfo.class);
+        when(info.getThreadId()).thenReturn(id);
+        when(info.getThreadState()).thenReturn(state);
+        return info;
+    }
+}
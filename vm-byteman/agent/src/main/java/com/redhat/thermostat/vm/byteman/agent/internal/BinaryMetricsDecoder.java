@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.vm.byteman.agent.internal;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.redhat.thermostat.vm.byteman.common.BytemanMetric;
+
+/**
+ * Decodes metric batches in the binary form written by the byteman helper's
+ * {@code BinaryMetricEncoder}. Constants must be kept in sync with it.
+ * <p>
+ * Data values are stored the same way as for JSON batches: numbers become
+ * doubles and the data map is serialized with the receiver's {@link Gson}.
+ */
+class BinaryMetricsDecoder {
+    
+    static final byte FORMAT_VERSION = 1;
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_DOUBLE = 3;
+    static final byte TYPE_FLOAT = 4;
+    static final byte TYPE_BOOLEAN = 5;
+    static final byte TYPE_NUMBER = 6;
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final Gson gson;
+    
+    BinaryMetricsDecoder(Gson gson) {
+        this.gson = gson;
+    }
+    
+    static boolean isBinary(ByteBuffer buf) {
+        return buf.hasRemaining() && buf.get(buf.position()) == FORMAT_VERSION;
+    }
+    
+    List<BytemanMetric> decode(ByteBuffer buf) throws IOException {
+        try {
+            byte version = buf.get();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unknown metrics format version: " + version);
+            }
+            int count = buf.getInt();
+            List<BytemanMetric> metrics = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                metrics.add(decodeMetric(buf));
+            }
+            return metrics;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated or malformed metrics data", e);
+        }
+    }
+    
+    private BytemanMetric decodeMetric(ByteBuffer buf) throws IOException {
+        BytemanMetric metric = new BytemanMetric();
+        metric.setMarker(getString(buf));
+        metric.setTimeStamp(buf.getLong());
+        int entries = buf.getInt();
+        Map<String, Object> data = null;
+        if (entries >= 0) {
+            data = new HashMap<>();
+            for (int i = 0; i < entries; i++) {
+                String key = getString(buf);
+                data.put(key, getValue(buf));
+            }
+        }
+        metric.setData(gson.toJson(data, HashMap.class));
+        return metric;
+    }
+    
+    private Object getValue(ByteBuffer buf) throws IOException {
+        byte type = buf.get();
+        switch (type) {
+        case TYPE_NULL:
+            return null;
+        case TYPE_STRING:
+            return getString(buf);
+        case TYPE_LONG:
+            return (double) buf.getLong();
+        case TYPE_DOUBLE:
+            return buf.getDouble();
+        case TYPE_FLOAT:
+            return (double) buf.getFloat();
+        case TYPE_BOOLEAN:
+            return buf.get() != 0;
+        case TYPE_NUMBER:
+            String number = getString(buf);
+            try {
+                return Double.valueOf(number);
+            } catch (NumberFormatException | NullPointerException e) {
+                return number;
+            }
+        default:
+            throw new IOException("Unknown metric value type: " + type);
+        }
+    }
+    
+    private String getString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+    
+}
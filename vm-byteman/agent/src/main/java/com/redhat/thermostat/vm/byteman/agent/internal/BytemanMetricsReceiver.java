@@ -36,11 +36,14 @@
 
 package com.redhat.thermostat.vm.byteman.agent.internal;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.gson.Gson;
@@ -58,6 +61,7 @@ class BytemanMetricsReceiver implements ThermostatIPCCallbacks {
     private final VmBytemanDAO dao;
     private final VmSocketIdentifier socketId;
     private final Gson gson;
+    private final BinaryMetricsDecoder decoder;
     
     BytemanMetricsReceiver(VmBytemanDAO dao, VmSocketIdentifier socketId) {
         this.dao = dao;
@@ -67,15 +71,28 @@ class BytemanMetricsReceiver implements ThermostatIPCCallbacks {
                 .serializeNulls()
                 .disableHtmlEscaping()
                 .create();
+        this.decoder = new BinaryMetricsDecoder(gson);
     }
 
     @Override
     public void messageReceived(IPCMessage message) {
         ByteBuffer buf = message.get();
-        CharBuffer charBuf = Charset.forName("UTF-8").decode(buf);
-        String jsonMetric = charBuf.toString();
-        logger.fine("Received metrics from byteman for socketId: " + socketId.getName() + ". Metric was: " + jsonMetric);
-        List<BytemanMetric> metrics = convertFromJson(jsonMetric);
+        List<BytemanMetric> metrics;
+        if (BinaryMetricsDecoder.isBinary(buf)) {
+            try {
+                metrics = setIds(decoder.decode(buf));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to decode metrics from byteman for socketId: " + socketId.getName(), e);
+                return;
+            }
+            logger.fine("Received " + metrics.size() + " metrics from byteman for socketId: " + socketId.getName());
+        } else {
+            // Sent by older helpers
+            CharBuffer charBuf = Charset.forName("UTF-8").decode(buf);
+            String jsonMetric = charBuf.toString();
+            logger.fine("Received metrics from byteman for socketId: " + socketId.getName() + ". Metric was: " + jsonMetric);
+            metrics = convertFromJson(jsonMetric);
+        }
         for (BytemanMetric metric: metrics) {
             dao.addMetric(metric);
         }
@@ -83,6 +100,10 @@ class BytemanMetricsReceiver implements ThermostatIPCCallbacks {
 
     private List<BytemanMetric> convertFromJson(String data) {
         BytemanMetric[] metrics = gson.fromJson(data, BytemanMetric[].class);
+        return setIds(Arrays.asList(metrics));
+    }
+    
+    private List<BytemanMetric> setIds(List<BytemanMetric> metrics) {
         List<BytemanMetric> listOfMetrics = new ArrayList<>();
         for (BytemanMetric m: metrics) {
             m.setAgentId(socketId.getAgentId());
@@ -38,12 +38,18 @@ package com.redhat.thermostat.vm.byteman.agent.internal;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.List;
@@ -121,4 +127,78 @@ public class BytemanMetricsReceiverTest {
         assertEquals("value = foo", dataVals.get("key"));
     }
     
+    @Test
+    public void canSendBinaryDataToStorage() throws IOException {
+        VmBytemanDAO dao = mock(VmBytemanDAO.class);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(BinaryMetricsDecoder.FORMAT_VERSION);
+        out.writeInt(2);
+        writeString(out, "marker");
+        out.writeLong(30L);
+        out.writeInt(4);
+        writeString(out, "key");
+        out.writeByte(BinaryMetricsDecoder.TYPE_STRING);
+        writeString(out, "value = foo");
+        writeString(out, "count");
+        out.writeByte(BinaryMetricsDecoder.TYPE_LONG);
+        out.writeLong(3L);
+        writeString(out, "flag");
+        out.writeByte(BinaryMetricsDecoder.TYPE_BOOLEAN);
+        out.writeByte(1);
+        writeString(out, "none");
+        out.writeByte(BinaryMetricsDecoder.TYPE_NULL);
+        writeString(out, "other");
+        out.writeLong(31L);
+        out.writeInt(-1);
+        IPCMessage message = mock(IPCMessage.class);
+        when(message.get()).thenReturn(ByteBuffer.wrap(bytes.toByteArray()));
+        ArgumentCaptor<BytemanMetric> metricsCaptor = ArgumentCaptor.forClass(BytemanMetric.class);
+        VmSocketIdentifier sockId = new VmSocketIdentifier("vm-id", SOME_PID, "agent-id");
+        
+        BytemanMetricsReceiver receiver = new BytemanMetricsReceiver(dao, sockId);
+        receiver.messageReceived(message);
+        
+        verify(dao, times(2)).addMetric(metricsCaptor.capture());
+        List<BytemanMetric> metrics = metricsCaptor.getAllValues();
+        BytemanMetric metric = metrics.get(0);
+        assertEquals("vm-id", metric.getVmId());
+        assertEquals("agent-id", metric.getAgentId());
+        assertEquals("marker", metric.getMarker());
+        assertEquals(30L, metric.getTimeStamp());
+        Map<String, Object> dataVals = metric.getDataAsMap();
+        assertEquals(4, dataVals.size());
+        // Same as for JSON batches, numbers are stored as doubles
+        assertEquals("value = foo", dataVals.get("key"));
+        assertEquals(3.0, dataVals.get("count"));
+        assertEquals(true, dataVals.get("flag"));
+        assertTrue(dataVals.containsKey("none"));
+        assertNull(dataVals.get("none"));
+        
+        assertEquals("other", metrics.get(1).getMarker());
+        assertEquals("null", metrics.get(1).getData());
+    }
+    
+    @Test
+    public void truncatedBinaryDataIsDropped() {
+        VmBytemanDAO dao = mock(VmBytemanDAO.class);
+        ByteBuffer data = ByteBuffer.allocate(5);
+        data.put(BinaryMetricsDecoder.FORMAT_VERSION);
+        data.putInt(1);
+        data.flip();
+        IPCMessage message = mock(IPCMessage.class);
+        when(message.get()).thenReturn(data);
+        
+        BytemanMetricsReceiver receiver = new BytemanMetricsReceiver(dao, mock(VmSocketIdentifier.class));
+        receiver.messageReceived(message);
+        
+        verify(dao, never()).addMetric(any(BytemanMetric.class));
+    }
+    
+    private void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(Charset.forName("UTF-8"));
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
 }
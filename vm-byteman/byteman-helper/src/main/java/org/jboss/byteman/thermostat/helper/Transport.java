@@ -40,10 +40,12 @@ import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jboss.byteman.thermostat.Properties;
 
@@ -54,15 +56,37 @@ public abstract class Transport implements Closeable {
     
     public static final String SEND_THRESHOLD_PROPERTY = Properties.PREFIX + "sendThreshold";
     public static final String LOSE_THRESHOLD_PROPERTY = Properties.PREFIX + "loseThreshold";
+    public static final String OVERFLOW_POLICY_PROPERTY = Properties.PREFIX + "overflowPolicy";
+    // upper bound for the cache, loseThreshold defaults to Integer.MAX_VALUE
+    static final int MAX_CACHE_SIZE = 1 << 16;
+    // attempts to make room for a record with DROP_OLDEST before dropping it instead
+    private static final int MAX_EVICT_ATTEMPTS = 4;
+
+    /**
+     * What to do with a record sent while the cache is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Lose the record being sent
+         */
+        DROP_NEWEST,
+        /**
+         * Lose the oldest cached record to make room for the one being sent
+         */
+        DROP_OLDEST
+    }
+
     // settings
     private final int sendThreshold;
-    private final int loseThreshold;
+    private final OverflowPolicy overflowPolicy;
     // state
-    private AtomicBoolean sending = new AtomicBoolean(false);
+    private final AtomicBoolean transferScheduled = new AtomicBoolean(false);
     // cache
-    private ArrayList<BytemanMetric> cache = new ArrayList<BytemanMetric>();
-    private final Object cacheLock = new Object();
-    private long lostCount = 0;
+    private final RingBuffer<BytemanMetric> cache;
+    private final AtomicLong lostCount = new AtomicLong(0);
+    // only touched by the executor thread
+    private final ArrayList<BytemanMetric> records = new ArrayList<BytemanMetric>();
+    private final Runnable transferTask = new TransferTask();
     // executor
     private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThermostatThreadFactory("thermostat"));
 
@@ -73,35 +97,65 @@ public abstract class Transport implements Closeable {
      * @param loseThreshold max number of packages to cache
      */
     protected Transport(int sendThreshold, int loseThreshold) {
-        this.sendThreshold = sendThreshold;
-        this.loseThreshold = loseThreshold;
+        this(sendThreshold, loseThreshold, OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Constructor for inheritors
+     *
+     * @param sendThreshold min number of records to cache before sending
+     * @param loseThreshold max number of packages to cache
+     * @param overflowPolicy what to do with records sent while the cache is full
+     */
+    protected Transport(int sendThreshold, int loseThreshold, OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        int capacity = Math.max(1, Math.min(loseThreshold, MAX_CACHE_SIZE));
+        // a threshold above the capacity could never be reached, so a full cache must trigger the transfer
+        this.sendThreshold = Math.min(sendThreshold, capacity);
+        this.cache = new RingBuffer<BytemanMetric>(capacity);
     }
 
     /**
      * This method should transfer specified records to Thermostat
      * It will be called from the background thread and no more than from
-     * a single thread simultaneously
+     * a single thread simultaneously. The list is reused once this method
+     * returns, so implementations must not keep a reference to it.
      *
      * @param records records to transfer
      */
     protected abstract void transferToPeer(ArrayList<BytemanMetric> records);
 
+    /**
+     * Caches the specified record for sending. Called from instrumented code,
+     * so this never blocks: the record is added to a lock-free ring buffer, and
+     * the transfer is left to the background thread.
+     *
+     * @param rec record to send
+     */
     public void send(BytemanMetric rec) {
-        synchronized (cacheLock) {
-            if (null != rec) {
-                if (cache.size() < loseThreshold) {
-                    cache.add(rec);
-                    if (cache.size() >= sendThreshold && !sending.get()) {
-                        ArrayList<BytemanMetric> records = cache;
-                        cache = new ArrayList<BytemanMetric>();
-                        TransferTask task = new TransferTask(records);
-                        executor.execute(task);
-                    }
-                } else {
-                    lostCount += 1;
+        if (null == rec) {
+            return;
+        }
+        if (!cache.offer(rec)) {
+            handleOverflow(rec);
+        }
+        if (cache.size() >= sendThreshold && transferScheduled.compareAndSet(false, true)) {
+            executor.execute(transferTask);
+        }
+    }
+
+    private void handleOverflow(BytemanMetric rec) {
+        if (OverflowPolicy.DROP_OLDEST == overflowPolicy) {
+            for (int i = 0; i < MAX_EVICT_ATTEMPTS; i++) {
+                if (null != cache.poll()) {
+                    lostCount.incrementAndGet();
+                }
+                if (cache.offer(rec)) {
+                    return;
                 }
             }
         }
+        lostCount.incrementAndGet();
     }
 
     /**
@@ -109,11 +163,16 @@ public abstract class Transport implements Closeable {
      */
     @Override
     public void close() {
-        synchronized (cacheLock) {
-            if (!sending.get() && cache.size() > 0) {
-                TransferTask task = new TransferTask(cache);
-                task.run();
-            }
+        // Runs after any transfer already scheduled
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    transferAll(true);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Already closed
         }
         // Shut down executor and wait (with a timeout) for it to finish
         executor.shutdown();
@@ -130,27 +189,42 @@ public abstract class Transport implements Closeable {
      * @return number of lost records
      */
     public long getLostCount() {
-        return lostCount;
+        return lostCount.get();
     }
 
-    private class TransferTask implements Runnable {
-        private final ArrayList<BytemanMetric> records;
-
-        private TransferTask(ArrayList<BytemanMetric> records) {
-            this.records = records;
-        }
-
-        @Override
-        public void run() {
-            sending.set(true);
+    /**
+     * Transfers cached records in chunks of what was cached when each chunk started
+     *
+     * @param flush whether to transfer records below the send threshold too
+     */
+    private void transferAll(boolean flush) {
+        int count = cache.size();
+        while (count > 0 && (flush || count >= sendThreshold)) {
+            records.clear();
+            if (0 == cache.drainTo(records, count)) {
+                break;
+            }
             try {
                 transferToPeer(records);
             } catch (Exception e) {
                 System.err.println("ERROR: Thermostat helper transfer data error:");
                 e.printStackTrace();
             } finally {
-                sending.set(false);
+                records.clear();
             }
+            count = cache.size();
+        }
+    }
+
+    private class TransferTask implements Runnable {
+        @Override
+        public void run() {
+            do {
+                transferAll(false);
+                transferScheduled.set(false);
+                // A record may have arrived after the last drain but before the flag was cleared
+            } while (cache.size() >= sendThreshold && cache.size() > 0
+                    && transferScheduled.compareAndSet(false, true));
         }
     }
 
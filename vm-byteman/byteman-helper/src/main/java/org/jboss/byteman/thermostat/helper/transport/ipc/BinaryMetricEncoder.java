@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package org.jboss.byteman.thermostat.helper.transport.ipc;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.byteman.thermostat.helper.BytemanMetric;
+
+/**
+ * Encodes batches of records into a reused buffer. The layout, big-endian,
+ * is read by the Thermostat agent's byteman metrics receiver:
+ *
+ * <pre>
+ * byte   format version, never '[' which starts a JSON batch
+ * int    number of records
+ * per record:
+ *   string marker
+ *   long   timestamp
+ *   int    number of data entries, -1 if data is null
+ *   per entry: string key, byte value type, value
+ * string: int length of UTF-8 bytes, -1 if null, followed by the bytes
+ * </pre>
+ *
+ * Not thread-safe, only used from the transport's sending thread.
+ */
+class BinaryMetricEncoder {
+
+    static final byte FORMAT_VERSION = 1;
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_DOUBLE = 3;
+    static final byte TYPE_FLOAT = 4;
+    static final byte TYPE_BOOLEAN = 5;
+    // any other Number, as its decimal string form
+    static final byte TYPE_NUMBER = 6;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final CharsetEncoder encoder;
+    private ByteBuffer buffer;
+
+    BinaryMetricEncoder() {
+        this.encoder = Charset.forName("UTF-8").newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Encodes the specified records
+     *
+     * @param records list to take records from
+     * @param from index of the first record to encode
+     * @param to index after the last record to encode
+     * @return buffer ready to be read, valid until the next call
+     */
+    ByteBuffer encode(List<BytemanMetric> records, int from, int to) {
+        while (true) {
+            buffer.clear();
+            try {
+                buffer.put(FORMAT_VERSION);
+                buffer.putInt(to - from);
+                for (int i = from; i < to; i++) {
+                    putRecord(records.get(i));
+                }
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                // Start over with a buffer large enough for this batch
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    private void putRecord(BytemanMetric rec) {
+        putString(rec.getMarker());
+        buffer.putLong(rec.getTimestamp());
+        Map<String, Object> data = rec.getData();
+        if (null == data) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(data.size());
+        for (Map.Entry<String, Object> en : data.entrySet()) {
+            putString(en.getKey());
+            putValue(en.getValue());
+        }
+    }
+
+    private void putValue(Object valObj) {
+        if (null == valObj) {
+            buffer.put(TYPE_NULL);
+        } else if (valObj instanceof String) {
+            buffer.put(TYPE_STRING);
+            putString((String) valObj);
+        } else if (valObj instanceof Long || valObj instanceof Integer
+                || valObj instanceof Short || valObj instanceof Byte) {
+            buffer.put(TYPE_LONG);
+            buffer.putLong(((Number) valObj).longValue());
+        } else if (valObj instanceof Double) {
+            buffer.put(TYPE_DOUBLE);
+            buffer.putDouble((Double) valObj);
+        } else if (valObj instanceof Float) {
+            buffer.put(TYPE_FLOAT);
+            buffer.putFloat((Float) valObj);
+        } else if (valObj instanceof Boolean) {
+            buffer.put(TYPE_BOOLEAN);
+            buffer.put((byte) (((Boolean) valObj) ? 1 : 0));
+        } else if (valObj instanceof Number) {
+            buffer.put(TYPE_NUMBER);
+            putString(valObj.toString());
+        } else {
+            throw new UnsupportedOperationException("Cannot serialize object of type " + valObj.getClass().getName());
+        }
+    }
+
+    private void putString(String str) {
+        if (null == str) {
+            buffer.putInt(-1);
+            return;
+        }
+        // Encode in place, then go back and fill in the length
+        int lengthPos = buffer.position();
+        buffer.putInt(0);
+        int start = buffer.position();
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(str), buffer, true);
+        if (!result.isOverflow()) {
+            result = encoder.flush(buffer);
+        }
+        if (result.isOverflow()) {
+            throw new BufferOverflowException();
+        }
+        if (result.isError()) {
+            // Not reachable with REPLACE actions
+            try {
+                result.throwException();
+            } catch (CharacterCodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        buffer.putInt(lengthPos, buffer.position() - start);
+    }
+
+    // package-private for testing
+    int getBufferCapacity() {
+        return buffer.capacity();
+    }
+}
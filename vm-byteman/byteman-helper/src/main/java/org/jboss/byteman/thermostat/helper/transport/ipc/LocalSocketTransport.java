@@ -39,17 +39,17 @@ package org.jboss.byteman.thermostat.helper.transport.ipc;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.jboss.byteman.thermostat.helper.BytemanMetric;
 import org.jboss.byteman.thermostat.helper.Transport;
+import org.jboss.byteman.thermostat.helper.Transport.OverflowPolicy;
 import org.jboss.byteman.thermostat.helper.Utils;
 
 /**
  * Transport implementation that sends records to the Thermostat agent over
- * local IPC
+ * local IPC, encoded with {@link BinaryMetricEncoder}
  *
  * @author akashche
  */
@@ -59,6 +59,7 @@ class LocalSocketTransport extends Transport {
     private final long breakIntervalMillis;
     private final LocalSocketChannel channel;
     private final String socketName;
+    private final BinaryMetricEncoder encoder;
 
     /**
      * Constructor
@@ -73,7 +74,26 @@ class LocalSocketTransport extends Transport {
      * @param channelFactory A channel factory suitable for creating a new IPC channel
      */
     LocalSocketTransport(int sendThreshold, int loseThreshold, File ipcConfig, String socketName, int batchSize, int attempts, long breakIntervalMillis, LocalSocketChannelFactory channelFactory) {
-        super(sendThreshold, loseThreshold);
+        this(sendThreshold, loseThreshold, OverflowPolicy.DROP_NEWEST, ipcConfig, socketName, batchSize, attempts,
+                breakIntervalMillis, channelFactory);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param sendThreshold min number of records to cache before sending
+     * @param loseThreshold max number of packages to cache
+     * @param overflowPolicy what to do with records sent while the cache is full
+     * @param socketName the named server socket to connect to
+     * @param batchSize number of records to send at once
+     * @param attempts number of send attempts to repeat in case of error
+     * @param breakIntervalMillis number of milliseconds to wait between the attempts
+     * @param ipcConfig reference to the Thermostat IPC config file.
+     * @param channelFactory A channel factory suitable for creating a new IPC channel
+     */
+    LocalSocketTransport(int sendThreshold, int loseThreshold, OverflowPolicy overflowPolicy, File ipcConfig, String socketName, int batchSize, int attempts, long breakIntervalMillis, LocalSocketChannelFactory channelFactory) {
+        super(sendThreshold, loseThreshold, overflowPolicy);
+        this.encoder = new BinaryMetricEncoder();
         this.batchSize = batchSize;
         this.attempts = attempts;
         this.breakIntervalMillis = breakIntervalMillis;
@@ -133,35 +153,13 @@ class LocalSocketTransport extends Transport {
     }
 
     private void tryToWrite(ArrayList<BytemanMetric> records) throws IOException {
-        ArrayList<BytemanMetric> batch = new ArrayList<BytemanMetric>(batchSize);
-        for (BytemanMetric re : records) {
-            batch.add(re);
-            if (batchSize == batch.size()) {
-                writeBatch(batch);
-                batch.clear();
-            }
-        }
-        if (batch.size() > 0) {
-            writeBatch(batch);
-        }
-    }
-
-    private void writeBatch(ArrayList<BytemanMetric> records) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        boolean first = true;
-        for (BytemanMetric rec : records) {
-            if (!first) {
-                sb.append(",");
-            } else {
-                first = false;
+        int size = records.size();
+        for (int from = 0; from < size; from += batchSize) {
+            int to = Math.min(from + batchSize, size);
+            ByteBuffer envelope = encoder.encode(records, from, to);
+            synchronized (channel) {
+                channel.write(envelope);
             }
-            sb.append(rec.toJson());
-        }
-        sb.append("]");
-        ByteBuffer envelope = ByteBuffer.wrap(sb.toString().getBytes(Charset.forName("UTF-8")));
-        synchronized (channel) {
-            channel.write(envelope);
         }
     }
 
@@ -42,6 +42,7 @@ import java.io.File;
 
 import org.jboss.byteman.thermostat.Properties;
 import org.jboss.byteman.thermostat.helper.Transport;
+import org.jboss.byteman.thermostat.helper.Transport.OverflowPolicy;
 
 public class LocalSocketTransportFactory {
     
@@ -56,6 +57,7 @@ public class LocalSocketTransportFactory {
     public static Transport create() {
         int sendThreshold = Integer.parseInt(getProperty(Transport.SEND_THRESHOLD_PROPERTY, "0"));
         int loseThreshold = Integer.parseInt(getProperty(Transport.LOSE_THRESHOLD_PROPERTY, Integer.toString(Integer.MAX_VALUE)));
+        OverflowPolicy overflowPolicy = parseOverflowPolicy(getProperty(Transport.OVERFLOW_POLICY_PROPERTY, OverflowPolicy.DROP_NEWEST.name()));
         String socketName = getProperty(SOCKET_NAME_PROPERTY, "byteman-thermostat-ipc");
         String ipcConfigStr = getProperty(SOCKET_CONFIG_PROPERTY, "i-do-not-exist");
         File ipcConfig = new File(ipcConfigStr);
@@ -63,12 +65,22 @@ public class LocalSocketTransportFactory {
         int socketAttempts = Integer.parseInt(getProperty(SOCKET_SEND_ATTEMPTS_PROPERTY, "1"));
         int socketBreak = Integer.parseInt(getProperty(SOCKET_PAUSE_TIME_MILLIS_PROPERTY, "100"));
         LocalSocketChannelFactory factory = new LocalSocketChannelFactoryImpl();
-        CreatorHolder holder = new CreatorHolder(sendThreshold, loseThreshold, socketBatchSize, socketAttempts, socketBreak,
+        CreatorHolder holder = new CreatorHolder(sendThreshold, loseThreshold, overflowPolicy, socketBatchSize, socketAttempts, socketBreak,
                           socketName, ipcConfig, factory);
         LocalSocketTransportFactory instance = LocalSocketTransportFactory.getInstance();
         return instance.create(holder);
     }
     
+    static OverflowPolicy parseOverflowPolicy(String value) {
+        try {
+            return OverflowPolicy.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            System.err.println("WARNING: Thermostat unknown " + Transport.OVERFLOW_POLICY_PROPERTY + ": [" + value + "], using "
+                    + OverflowPolicy.DROP_NEWEST.name());
+            return OverflowPolicy.DROP_NEWEST;
+        }
+    }
+
     private static synchronized LocalSocketTransportFactory getInstance() {
         if (instance == null) {
             instance = new LocalSocketTransportFactory();
@@ -88,6 +100,7 @@ public class LocalSocketTransportFactory {
         
         private final int sendThreshold;
         private final int loseThreshold;
+        private final OverflowPolicy overflowPolicy;
         private final int socketBatchSize;
         private final int socketAttempts;
         private final int socketBreak;
@@ -95,10 +108,11 @@ public class LocalSocketTransportFactory {
         private final File ipcConfigFile;
         private final LocalSocketChannelFactory factory;
         
-        CreatorHolder(int sendThreshold, int loseThreshold, int socketBatchSize, int socketAttempts, int socketBreak,
+        CreatorHolder(int sendThreshold, int loseThreshold, OverflowPolicy overflowPolicy, int socketBatchSize, int socketAttempts, int socketBreak,
                       String socketName, File ipcConfigFile, LocalSocketChannelFactory factory) {
             this.sendThreshold = sendThreshold;
             this.loseThreshold = loseThreshold;
+            this.overflowPolicy = overflowPolicy;
             this.socketBatchSize = socketBatchSize;
             this.socketAttempts = socketAttempts;
             this.socketBreak = socketBreak;
@@ -108,7 +122,7 @@ public class LocalSocketTransportFactory {
         }
         
         private Transport create() {
-            return new LocalSocketTransport(sendThreshold, loseThreshold, ipcConfigFile, socketName, socketBatchSize,
+            return new LocalSocketTransport(sendThreshold, loseThreshold, overflowPolicy, ipcConfigFile, socketName, socketBatchSize,
                     socketAttempts, socketBreak, factory);
         }
         
@@ -119,5 +133,9 @@ public class LocalSocketTransportFactory {
         File getIpcConfigFile() {
             return ipcConfigFile;
         }
+
+        OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package org.jboss.byteman.thermostat.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCapacityIsRejected() {
+        new RingBuffer<String>(0);
+    }
+
+    @Test
+    public void pollReturnsElementsInOrder() {
+        RingBuffer<String> buffer = new RingBuffer<String>(4);
+        assertTrue(buffer.offer("a"));
+        assertTrue(buffer.offer("b"));
+        assertEquals(2, buffer.size());
+        assertEquals("a", buffer.poll());
+        assertEquals("b", buffer.poll());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void offerFailsWhenFull() {
+        RingBuffer<String> buffer = new RingBuffer<String>(2);
+        assertTrue(buffer.offer("a"));
+        assertTrue(buffer.offer("b"));
+        assertFalse(buffer.offer("c"));
+        assertEquals(2, buffer.size());
+        assertEquals("a", buffer.poll());
+        assertTrue(buffer.offer("c"));
+    }
+
+    @Test
+    public void slotsAreReusedAfterWrapAround() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(3);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(buffer.offer(i));
+            assertEquals(Integer.valueOf(i), buffer.poll());
+        }
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void drainToMovesAtMostMax() {
+        RingBuffer<String> buffer = new RingBuffer<String>(4);
+        buffer.offer("a");
+        buffer.offer("b");
+        buffer.offer("c");
+        List<String> target = new ArrayList<String>();
+        assertEquals(2, buffer.drainTo(target, 2));
+        assertEquals(2, target.size());
+        assertEquals("a", target.get(0));
+        assertEquals("b", target.get(1));
+        assertEquals(1, buffer.size());
+    }
+
+    /*
+     * Several producers against one consumer: every element accepted by offer()
+     * must be polled exactly once, and elements from one producer stay in order.
+     */
+    @Test(timeout = 30000)
+    public void concurrentProducersLoseNothingAccepted() throws Exception {
+        final int producers = 4;
+        final int perProducer = 20000;
+        final RingBuffer<long[]> buffer = new RingBuffer<long[]>(64);
+        final AtomicInteger accepted = new AtomicInteger(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perProducer; i++) {
+                            while (!buffer.offer(new long[] { producer, i })) {
+                                Thread.yield();
+                            }
+                            accepted.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+
+        long[] lastSeen = new long[producers];
+        for (int p = 0; p < producers; p++) {
+            lastSeen[p] = -1;
+        }
+        int polled = 0;
+        start.countDown();
+        while (polled < producers * perProducer) {
+            long[] element = buffer.poll();
+            if (null == element) {
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) element[0];
+            assertEquals(lastSeen[producer] + 1, element[1]);
+            lastSeen[producer] = element[1];
+            polled += 1;
+        }
+        done.await();
+        assertEquals(producers * perProducer, accepted.get());
+        assertNull(buffer.poll());
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package org.jboss.byteman.thermostat.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.redhat.thermostat.testutils.PerformanceTest;
+
+/**
+ * Measures the cost of {@link Transport#send(BytemanMetric)}, which runs in
+ * the instrumented code, with many threads sending at once. The ring buffer
+ * based {@link Transport} is compared with a copy of the transport it
+ * replaced, which took a global lock and appended to an {@link ArrayList}.
+ * Neither transfers anything, so only the cost of caching is compared.
+ * <p>
+ * Senders pause between rounds so the transfer thread can keep up, since
+ * a {@link Transport} drops records beyond {@link Transport#MAX_CACHE_SIZE}
+ * and dropping a record is cheaper than caching it.
+ *
+ * JUnit categorized performance test. It'll be only run for
+ * the perf-tests profile during a full build.
+ */
+@Category(PerformanceTest.class)
+public class TransportPerformanceTest {
+
+    private static final boolean DEBUG = true;
+    private static final int THREADS = 8;
+    private static final int SEND_THRESHOLD = 100;
+    // each thread's share of a round, so a round fits in the capped cache
+    private static final int SENDS_PER_ROUND = Transport.MAX_CACHE_SIZE / THREADS / 4;
+    private static final int WARMUP_ROUNDS = 100;
+    private static final int ROUNDS = 500;
+    // time for the transfer thread to empty the cache between rounds
+    private static final long DRAIN_MILLIS = 2;
+
+    private interface Sender {
+        void send(BytemanMetric rec);
+        long getLostCount();
+        void close();
+    }
+
+    @Test
+    public void ringBufferIsCheaperThanLocking() throws Exception {
+        BytemanMetric metric = new BytemanMetric("marker", null);
+
+        run(new LockingSender(), metric, WARMUP_ROUNDS);
+        run(new RingBufferSender(), metric, WARMUP_ROUNDS);
+
+        LockingSender locking = new LockingSender();
+        long withLock = run(locking, metric, ROUNDS);
+        RingBufferSender ringBuffer = new RingBufferSender();
+        long withRingBuffer = run(ringBuffer, metric, ROUNDS);
+
+        double sends = 1.0 * ROUNDS * SENDS_PER_ROUND * THREADS;
+        if (DEBUG) {
+            System.out.println(TransportPerformanceTest.class.getSimpleName() + ":");
+            System.out.println("  lock + ArrayList: " + (withLock / sends) + " ns per send, "
+                    + locking.getLostCount() + " lost");
+            System.out.println("  ring buffer:      " + (withRingBuffer / sends) + " ns per send, "
+                    + ringBuffer.getLostCount() + " lost");
+        }
+        assertEquals("Expected the transfer thread to keep up", 0, ringBuffer.getLostCount());
+        assertTrue("Expected the ring buffer to be faster than locking", withRingBuffer < withLock);
+    }
+
+    /** @return wall clock nanoseconds spent sending, not counting the pauses */
+    private long run(final Sender sender, final BytemanMetric metric, final int rounds)
+            throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(THREADS + 1);
+        final CyclicBarrier done = new CyclicBarrier(THREADS + 1);
+        for (int i = 0; i < THREADS; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 0; round < rounds; round++) {
+                            start.await();
+                            for (int j = 0; j < SENDS_PER_ROUND; j++) {
+                                sender.send(metric);
+                            }
+                            done.await();
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (BrokenBarrierException e) {
+                        return;
+                    }
+                }
+            }.start();
+        }
+        long elapsed = 0;
+        for (int round = 0; round < rounds; round++) {
+            start.await();
+            long begin = System.nanoTime();
+            done.await();
+            elapsed += System.nanoTime() - begin;
+            Thread.sleep(DRAIN_MILLIS);
+        }
+        sender.close();
+        return elapsed;
+    }
+
+    private static class RingBufferSender extends Transport implements Sender {
+
+        RingBufferSender() {
+            super(SEND_THRESHOLD, Integer.MAX_VALUE);
+        }
+
+        @Override
+        protected void transferToPeer(ArrayList<BytemanMetric> records) {
+            // nothing to do
+        }
+    }
+
+    // What Transport did before it used RingBuffer
+    private static class LockingSender implements Sender {
+
+        private final int loseThreshold = Integer.MAX_VALUE;
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+        private ArrayList<BytemanMetric> cache = new ArrayList<BytemanMetric>();
+        private final Object cacheLock = new Object();
+        private long lostCount = 0;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        @Override
+        public void send(BytemanMetric rec) {
+            synchronized (cacheLock) {
+                if (null != rec) {
+                    if (cache.size() < loseThreshold) {
+                        cache.add(rec);
+                        if (cache.size() >= SEND_THRESHOLD && !sending.get()) {
+                            final ArrayList<BytemanMetric> records = cache;
+                            cache = new ArrayList<BytemanMetric>();
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    sending.set(true);
+                                    try {
+                                        records.size();
+                                    } finally {
+                                        sending.set(false);
+                                    }
+                                }
+                            });
+                        }
+                    } else {
+                        lostCount += 1;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long getLostCount() {
+            synchronized (cacheLock) {
+                return lostCount;
+            }
+        }
+
+        @Override
+        public void close() {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(5000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
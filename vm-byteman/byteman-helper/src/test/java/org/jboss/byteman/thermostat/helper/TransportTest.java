@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package org.jboss.byteman.thermostat.helper;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.byteman.thermostat.helper.Transport.OverflowPolicy;
+import org.junit.Test;
+
+public class TransportTest {
+
+    @Test
+    public void dropNewestLosesRecordsSentWhileFull() {
+        RecordingTransport transport = new RecordingTransport(Integer.MAX_VALUE, 2, OverflowPolicy.DROP_NEWEST);
+        BytemanMetric m1 = new BytemanMetric("m1", null);
+        BytemanMetric m2 = new BytemanMetric("m2", null);
+        BytemanMetric m3 = new BytemanMetric("m3", null);
+        transport.send(m1);
+        transport.send(m2);
+        transport.send(m3);
+        transport.close();
+        assertEquals(1, transport.getLostCount());
+        assertEquals(2, transport.transferred.size());
+        assertEquals(m1, transport.transferred.get(0));
+        assertEquals(m2, transport.transferred.get(1));
+    }
+
+    @Test
+    public void dropOldestMakesRoomForNewRecords() {
+        RecordingTransport transport = new RecordingTransport(Integer.MAX_VALUE, 2, OverflowPolicy.DROP_OLDEST);
+        BytemanMetric m1 = new BytemanMetric("m1", null);
+        BytemanMetric m2 = new BytemanMetric("m2", null);
+        BytemanMetric m3 = new BytemanMetric("m3", null);
+        transport.send(m1);
+        transport.send(m2);
+        transport.send(m3);
+        transport.close();
+        assertEquals(1, transport.getLostCount());
+        assertEquals(2, transport.transferred.size());
+        assertEquals(m2, transport.transferred.get(0));
+        assertEquals(m3, transport.transferred.get(1));
+    }
+
+    @Test(timeout = 30000)
+    public void sendThresholdAboveCapacityStillTransfersWhenFull() throws Exception {
+        RecordingTransport transport = new RecordingTransport(Integer.MAX_VALUE, 2, OverflowPolicy.DROP_NEWEST);
+        transport.send(new BytemanMetric("m1", null));
+        transport.send(new BytemanMetric("m2", null));
+        while (transport.transferredCount() < 2) {
+            Thread.sleep(10);
+        }
+        transport.send(new BytemanMetric("m3", null));
+        transport.close();
+        assertEquals(0, transport.getLostCount());
+        assertEquals(3, transport.transferredCount());
+    }
+
+    @Test
+    public void nullRecordsAreIgnored() {
+        RecordingTransport transport = new RecordingTransport(0, 2, OverflowPolicy.DROP_NEWEST);
+        transport.send(null);
+        transport.close();
+        assertEquals(0, transport.getLostCount());
+        assertEquals(0, transport.transferred.size());
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentSendersTransferEverything() throws Exception {
+        final int senders = 4;
+        final int perSender = 5000;
+        final RecordingTransport transport = new RecordingTransport(16, senders * perSender, OverflowPolicy.DROP_NEWEST);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int s = 0; s < senders; s++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perSender; i++) {
+                        transport.send(new BytemanMetric("m", null));
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        transport.close();
+        assertEquals(0, transport.getLostCount());
+        assertEquals(senders * perSender, transport.transferred.size());
+    }
+
+    private static class RecordingTransport extends Transport {
+
+        // only touched from the transfer thread until close() returns
+        private final List<BytemanMetric> transferred = new ArrayList<BytemanMetric>();
+        private volatile int transferredCount;
+
+        RecordingTransport(int sendThreshold, int loseThreshold, OverflowPolicy overflowPolicy) {
+            super(sendThreshold, loseThreshold, overflowPolicy);
+        }
+
+        @Override
+        protected void transferToPeer(ArrayList<BytemanMetric> records) {
+            transferred.addAll(records);
+            transferredCount = transferred.size();
+        }
+
+        int transferredCount() {
+            return transferredCount;
+        }
+    }
+}
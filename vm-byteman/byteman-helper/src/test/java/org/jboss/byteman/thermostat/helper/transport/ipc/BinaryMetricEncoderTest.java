@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package org.jboss.byteman.thermostat.helper.transport.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.jboss.byteman.thermostat.helper.BytemanMetric;
+import org.junit.Test;
+
+public class BinaryMetricEncoderTest {
+
+    @Test
+    public void encodesAllValueTypes() {
+        LinkedHashMap<String, Object> data = new LinkedHashMap<String, Object>();
+        data.put("string", "välue");
+        data.put("int", 42);
+        data.put("double", 4.5);
+        data.put("float", 1.5f);
+        data.put("boolean", true);
+        data.put("big", new BigDecimal("12.25"));
+        data.put("null", null);
+        BytemanMetric metric = new BytemanMetric(null, data);
+        List<BytemanMetric> records = new ArrayList<BytemanMetric>();
+        records.add(metric);
+
+        ByteBuffer buf = new BinaryMetricEncoder().encode(records, 0, 1);
+
+        assertEquals(BinaryMetricEncoder.FORMAT_VERSION, buf.get());
+        assertEquals(1, buf.getInt());
+        assertEquals(-1, buf.getInt()); // null marker
+        assertEquals(metric.getTimestamp(), buf.getLong());
+        assertEquals(7, buf.getInt());
+        assertEquals("string", getString(buf));
+        assertEquals(BinaryMetricEncoder.TYPE_STRING, buf.get());
+        assertEquals("välue", getString(buf));
+        assertEquals("int", getString(buf));
+        assertEquals(BinaryMetricEncoder.TYPE_LONG, buf.get());
+        assertEquals(42L, buf.getLong());
+        assertEquals("double", getString(buf));
+        assertEquals(BinaryMetricEncoder.TYPE_DOUBLE, buf.get());
+        assertEquals(4.5, buf.getDouble(), 0);
+        assertEquals("float", getString(buf));
+        assertEquals(BinaryMetricEncoder.TYPE_FLOAT, buf.get());
+        assertEquals(1.5f, buf.getFloat(), 0);
+        assertEquals("boolean", getString(buf));
+        assertEquals(BinaryMetricEncoder.TYPE_BOOLEAN, buf.get());
+        assertEquals(1, buf.get());
+        assertEquals("big", getString(buf));
+        assertEquals(BinaryMetricEncoder.TYPE_NUMBER, buf.get());
+        assertEquals("12.25", getString(buf));
+        assertEquals("null", getString(buf));
+        assertEquals(BinaryMetricEncoder.TYPE_NULL, buf.get());
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void encodesOnlyRequestedRange() {
+        List<BytemanMetric> records = new ArrayList<BytemanMetric>();
+        records.add(new BytemanMetric("a", null));
+        records.add(new BytemanMetric("b", null));
+        records.add(new BytemanMetric("c", null));
+
+        ByteBuffer buf = new BinaryMetricEncoder().encode(records, 1, 3);
+
+        buf.get();
+        assertEquals(2, buf.getInt());
+        assertEquals("b", getString(buf));
+        buf.getLong();
+        assertEquals(-1, buf.getInt());
+        assertEquals("c", getString(buf));
+    }
+
+    @Test
+    public void bufferIsReusedAndGrown() {
+        BinaryMetricEncoder encoder = new BinaryMetricEncoder();
+        List<BytemanMetric> small = new ArrayList<BytemanMetric>();
+        small.add(new BytemanMetric("a", null));
+        ByteBuffer first = encoder.encode(small, 0, 1);
+        ByteBuffer second = encoder.encode(small, 0, 1);
+        assertSame(first, second);
+
+        int initialCapacity = encoder.getBufferCapacity();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < initialCapacity; i++) {
+            sb.append('x');
+        }
+        List<BytemanMetric> large = new ArrayList<BytemanMetric>();
+        large.add(new BytemanMetric(sb.toString(), null));
+        ByteBuffer buf = encoder.encode(large, 0, 1);
+        assertTrue(encoder.getBufferCapacity() > initialCapacity);
+        buf.get();
+        buf.getInt();
+        assertEquals(sb.toString(), getString(buf));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void unsupportedValueTypeIsRejected() {
+        LinkedHashMap<String, Object> data = new LinkedHashMap<String, Object>();
+        data.put("object", new Object());
+        List<BytemanMetric> records = new ArrayList<BytemanMetric>();
+        records.add(new BytemanMetric("a", data));
+        new BinaryMetricEncoder().encode(records, 0, 1);
+    }
+
+    private String getString(ByteBuffer buf) {
+        int length = buf.getInt();
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, Charset.forName("UTF-8"));
+    }
+}
@@ -39,6 +39,7 @@ package org.jboss.byteman.thermostat.helper.transport.ipc;
 import static org.junit.Assert.assertEquals;
 
 import org.jboss.byteman.thermostat.helper.Transport;
+import org.jboss.byteman.thermostat.helper.Transport.OverflowPolicy;
 import org.jboss.byteman.thermostat.helper.transport.ipc.LocalSocketTransportFactory;
 import org.jboss.byteman.thermostat.helper.transport.ipc.LocalSocketTransportFactory.CreatorHolder;
 import org.junit.After;
@@ -63,6 +64,7 @@ public class LocalSocketTransportFactoryTest {
     @After
     public void teardown() {
         System.clearProperty(IPC_CONFIG);
+        System.clearProperty(Transport.OVERFLOW_POLICY_PROPERTY);
     }
 
     @Test
@@ -74,6 +76,24 @@ public class LocalSocketTransportFactoryTest {
         assertEquals(IPC_SOCKET_NAME_VALUE, holder.getSocketName());
         assertEquals(IPC_CONFIG_VALUE, holder.getIpcConfigFile().getAbsolutePath());
     }
+
+    @Test
+    public void createFallsBackToDropNewestOnUnknownOverflowPolicy() {
+        System.setProperty(Transport.OVERFLOW_POLICY_PROPERTY, "DROP_EVERYTHING");
+        TestLocalTransportFactory factory = new TestLocalTransportFactory();
+        LocalSocketTransportFactory.setInstance(factory);
+        LocalSocketTransportFactory.create(); // sets holder
+        assertEquals(OverflowPolicy.DROP_NEWEST, factory.holder.getOverflowPolicy());
+    }
+
+    @Test
+    public void createReadsOverflowPolicy() {
+        System.setProperty(Transport.OVERFLOW_POLICY_PROPERTY, OverflowPolicy.DROP_OLDEST.name());
+        TestLocalTransportFactory factory = new TestLocalTransportFactory();
+        LocalSocketTransportFactory.setInstance(factory);
+        LocalSocketTransportFactory.create(); // sets holder
+        assertEquals(OverflowPolicy.DROP_OLDEST, factory.holder.getOverflowPolicy());
+    }
     
     static class TestLocalTransportFactory extends LocalSocketTransportFactory {
         
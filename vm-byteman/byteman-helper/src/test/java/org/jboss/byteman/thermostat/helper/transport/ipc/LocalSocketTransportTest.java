@@ -36,6 +36,7 @@
 
 package org.jboss.byteman.thermostat.helper.transport.ipc;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -44,6 +45,8 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -125,37 +128,36 @@ public class LocalSocketTransportTest {
             throw e;
         }
         transport.close();
-        String actualJson = getFromByteBuffer(byteBuffer.getValue());
-        String expectedJson = "[" +
-                                    "{" +
-                                        "\"marker\":\"marker1\"," +
-                                        "\"timestamp\":\"" + t1 + "\"," +
-                                        "\"data\":{" +
-                                            "\"key1\":\"value1\"" +
-                                        "}" +
-                                    "}," +
-                                    "{" +
-                                        "\"marker\":\"marker2\"," +
-                                        "\"timestamp\":\"" + t2 + "\"," +
-                                        "\"data\":{" +
-                                            "\"key2\":\"value2\"" +
-                                        "}" +
-                                    "}," +
-                                    "{" +
-                                        "\"marker\":\"marker3\"," +
-                                        "\"timestamp\":\"" + t3 + "\"," +
-                                        "\"data\":{" +
-                                            "\"key3\":\"value3\"" +
-                                        "}" +
-                                    "}" +
-                               "]";
-        assertEquals(expectedJson, actualJson);
+        byte[] actual = getFromByteBuffer(byteBuffer.getValue());
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(expected);
+        out.writeByte(BinaryMetricEncoder.FORMAT_VERSION);
+        out.writeInt(3);
+        writeExpectedRecord(out, "marker1", t1, "key1", "value1");
+        writeExpectedRecord(out, "marker2", t2, "key2", "value2");
+        writeExpectedRecord(out, "marker3", t3, "key3", "value3");
+        assertArrayEquals(expected.toByteArray(), actual);
     }
     
-    private String getFromByteBuffer(ByteBuffer byteBuffer) {
+    private void writeExpectedRecord(DataOutputStream out, String marker, long timestamp, String key, String value) throws IOException {
+        writeExpectedString(out, marker);
+        out.writeLong(timestamp);
+        out.writeInt(1);
+        writeExpectedString(out, key);
+        out.writeByte(BinaryMetricEncoder.TYPE_STRING);
+        writeExpectedString(out, value);
+    }
+    
+    private void writeExpectedString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(Charset.forName("UTF-8"));
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private byte[] getFromByteBuffer(ByteBuffer byteBuffer) {
         byte[] bytes = new byte[byteBuffer.remaining()];
         byteBuffer.get(bytes);
-        return new String(bytes, Charset.forName("UTF-8"));
+        return bytes;
     }
 
     @Test
@@ -36,7 +36,6 @@
 
 package com.redhat.thermostat.vm.cpu.agent.internal;
 
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.osgi.framework.BundleActivator;
@@ -45,6 +44,7 @@ import org.osgi.framework.ServiceRegistration;
 
 import com.redhat.thermostat.agent.VmStatusListenerRegistrar;
 import com.redhat.thermostat.backend.Backend;
+import com.redhat.thermostat.backend.BackendScheduler;
 import com.redhat.thermostat.backend.BackendService;
 import com.redhat.thermostat.common.MultipleServiceTracker;
 import com.redhat.thermostat.common.MultipleServiceTracker.Action;
@@ -64,7 +64,7 @@ public class Activator implements BundleActivator {
     public void start(final BundleContext context) throws Exception {
         final VmStatusListenerRegistrar registrar = new VmStatusListenerRegistrar(context);
 
-        executor = Executors.newSingleThreadScheduledExecutor();
+        executor = BackendScheduler.getInstance().createExecutor("vm-cpu");
 
         Class<?>[] deps = new Class<?>[] {
                 BackendService.class,
@@ -54,7 +54,10 @@ import com.redhat.thermostat.common.Timer.SchedulingType;
 import com.redhat.thermostat.common.model.Range;
 import com.redhat.thermostat.shared.locale.LocalizedString;
 import com.redhat.thermostat.shared.locale.Translate;
+import com.redhat.thermostat.storage.core.AgentId;
+import com.redhat.thermostat.storage.core.VmId;
 import com.redhat.thermostat.storage.core.VmRef;
+import com.redhat.thermostat.storage.model.BucketedResult;
 import com.redhat.thermostat.storage.model.DiscreteTimeData;
 import com.redhat.thermostat.vm.cpu.client.core.VmCpuView;
 import com.redhat.thermostat.vm.cpu.client.core.VmCpuView.UserAction;
@@ -67,6 +70,13 @@ public class VmCpuController implements InformationServiceController<VmRef> {
 
     private static final Translate<LocaleResources> translator = LocaleResources.createLocalizer();
 
+    /*
+     * Upper bound on the number of points fetched for any one interval. This
+     * is roughly the number of pixels a chart can show, so anything more
+     * would only be drawn on top of itself.
+     */
+    static final int MAX_BUCKETS = 1000;
+
     private final VmRef ref;
     private final VmCpuStatDAO dao;
     private final VmCpuView view;
@@ -75,7 +85,7 @@ public class VmCpuController implements InformationServiceController<VmRef> {
 
     private Duration userDesiredDuration;
 
-    private TimeRangeController<VmCpuStat, VmRef> timeRangeController;
+    private TimeRangeController<DiscreteTimeData<Double>, VmRef> timeRangeController;
 
     public VmCpuController(ApplicationService appSvc, VmCpuStatDAO vmCpuStatDao, VmRef ref, VmCpuViewProvider provider) {
         this.ref = ref;
@@ -149,22 +159,29 @@ public class VmCpuController implements InformationServiceController<VmRef> {
 
         Range<Long> newAvailableRange = new Range<>(oldest.getTimeStamp(), newest.getTimeStamp());
 
-        TimeRangeController.StatsSupplier<VmCpuStat, VmRef> singleValueSupplier = new TimeRangeController.StatsSupplier<VmCpuStat, VmRef>() {
+        TimeRangeController.StatsSupplier<DiscreteTimeData<Double>, VmRef> bucketSupplier = new TimeRangeController.StatsSupplier<DiscreteTimeData<Double>, VmRef>() {
             @Override
-            public List<VmCpuStat> getStats(final VmRef ref, final long since, final long to) {
-                return dao.getVmCpuStats(ref, since, to);
-
-           }
+            public List<DiscreteTimeData<Double>> getStats(final VmRef ref, final long since, final long to) {
+                BucketedResult buckets = dao.getVmCpuLoadBuckets(new AgentId(ref.getHostRef().getAgentId()),
+                        new VmId(ref.getVmId()), since, to, MAX_BUCKETS);
+                long[] timeStamps = buckets.getTimeStamps();
+                double[] averages = buckets.getAverages();
+                List<DiscreteTimeData<Double>> result = new ArrayList<>(buckets.size());
+                for (int i = 0; i < buckets.size(); i++) {
+                    result.add(new DiscreteTimeData<>(timeStamps[i], averages[i]));
+                }
+                return result;
+            }
         };
 
-        TimeRangeController.SingleArgRunnable<VmCpuStat> runnable = new TimeRangeController.SingleArgRunnable<VmCpuStat>() {
+        TimeRangeController.SingleArgRunnable<DiscreteTimeData<Double>> runnable = new TimeRangeController.SingleArgRunnable<DiscreteTimeData<Double>>() {
             @Override
-            public void run(VmCpuStat arg) {
-                data.add(new DiscreteTimeData<>(arg.getTimeStamp(), arg.getCpuLoad()));
+            public void run(DiscreteTimeData<Double> arg) {
+                data.add(arg);
             }
         };
 
-        timeRangeController.update(userDesiredDuration, newAvailableRange, singleValueSupplier, ref, runnable);
+        timeRangeController.update(userDesiredDuration, newAvailableRange, bucketSupplier, ref, runnable);
         view.setAvailableDataRange(timeRangeController.getAvailableRange());
         view.addData(data);
     }
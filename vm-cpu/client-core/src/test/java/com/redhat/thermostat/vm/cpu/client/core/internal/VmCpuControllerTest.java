@@ -37,8 +37,12 @@
 package com.redhat.thermostat.vm.cpu.client.core.internal;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -56,7 +60,11 @@ import com.redhat.thermostat.common.ApplicationService;
 import com.redhat.thermostat.common.Duration;
 import com.redhat.thermostat.common.Timer;
 import com.redhat.thermostat.common.TimerFactory;
+import com.redhat.thermostat.storage.core.AgentId;
+import com.redhat.thermostat.storage.core.HostRef;
+import com.redhat.thermostat.storage.core.VmId;
 import com.redhat.thermostat.storage.core.VmRef;
+import com.redhat.thermostat.storage.model.BucketedResult;
 import com.redhat.thermostat.vm.cpu.client.core.VmCpuView;
 import com.redhat.thermostat.vm.cpu.client.core.VmCpuViewProvider;
 import com.redhat.thermostat.vm.cpu.common.VmCpuStatDAO;
@@ -72,7 +80,11 @@ public class VmCpuControllerTest {
     
     @Before
     public void setup() {
+        HostRef hostRef = mock(HostRef.class);
+        when(hostRef.getAgentId()).thenReturn("foo-agent");
         ref = mock(VmRef.class);
+        when(ref.getHostRef()).thenReturn(hostRef);
+        when(ref.getVmId()).thenReturn("vmId");
     }
 
     @SuppressWarnings({ "unchecked"}) // any(List.class)
@@ -86,6 +98,8 @@ public class VmCpuControllerTest {
         when(vmCpuStatDAO.getLatestVmCpuStats(any(VmRef.class), any(Long.class))).thenThrow(new AssertionError("Unbounded queries are bad!"));
         when(vmCpuStatDAO.getOldest(ref)).thenReturn(stat1);
         when(vmCpuStatDAO.getNewest(ref)).thenReturn(stat1);
+        when(vmCpuStatDAO.getVmCpuLoadBuckets(any(AgentId.class), any(VmId.class), anyLong(), anyLong(), anyInt()))
+                .thenReturn(new BucketedResult());
         
         setupWithVmCPUStatDAO(vmCpuStatDAO);
 
@@ -100,6 +114,9 @@ public class VmCpuControllerTest {
         verify(timer).stop();
 
         verify(view).addData(any(List.class));
+        verify(vmCpuStatDAO).getVmCpuLoadBuckets(eq(new AgentId("foo-agent")), eq(new VmId("vmId")),
+                anyLong(), anyLong(), eq(VmCpuController.MAX_BUCKETS));
+        verify(vmCpuStatDAO, never()).getVmCpuStats(any(VmRef.class), anyLong(), anyLong());
         // We don't verify atMost() since we might increase the update rate in the future.
     }
     
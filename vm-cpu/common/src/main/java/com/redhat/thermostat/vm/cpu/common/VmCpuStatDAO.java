@@ -38,13 +38,16 @@ package com.redhat.thermostat.vm.cpu.common;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.redhat.thermostat.annotations.Service;
 import com.redhat.thermostat.storage.core.AgentId;
 import com.redhat.thermostat.storage.core.Category;
+import com.redhat.thermostat.storage.core.DataRetentionPolicy;
 import com.redhat.thermostat.storage.core.Key;
 import com.redhat.thermostat.storage.core.VmId;
 import com.redhat.thermostat.storage.core.VmRef;
+import com.redhat.thermostat.storage.model.BucketedResult;
 import com.redhat.thermostat.vm.cpu.common.model.VmCpuStat;
 
 @Service
@@ -52,8 +55,14 @@ public interface VmCpuStatDAO {
 
     static final Key<Double> vmCpuLoadKey = new Key<>("cpuLoad");
 
+    // If the storage enforces retention, raw samples are kept for a day,
+    // per-minute rollups for 30 days and per-hour rollups for a year. See
+    // DataRetentionPolicy for how to enable and override this.
+    static final DataRetentionPolicy vmCpuStatRetention = new DataRetentionPolicy(1, 30, 365, TimeUnit.DAYS);
+
     static final Category<VmCpuStat> vmCpuStatCategory = new Category<>("vm-cpu-stats", VmCpuStat.class,
-            Arrays.<Key<?>>asList(Key.AGENT_ID, Key.VM_ID, Key.TIMESTAMP, vmCpuLoadKey), Arrays.<Key<?>>asList(Key.TIMESTAMP));
+            Arrays.<Key<?>>asList(Key.AGENT_ID, Key.VM_ID, Key.TIMESTAMP, vmCpuLoadKey), Arrays.<Key<?>>asList(Key.TIMESTAMP),
+            vmCpuStatRetention);
 
     public abstract VmCpuStat getOldest(VmRef ref);
 
@@ -66,6 +75,12 @@ public interface VmCpuStatDAO {
 
     public abstract List<VmCpuStat> getVmCpuStats(VmRef ref, long since, long to);
 
+    /**
+     * @return The cpu load in {@code [since, to)} downsampled by storage into
+     *         at most {@code maxBuckets} time buckets.
+     */
+    public abstract BucketedResult getVmCpuLoadBuckets(AgentId agentId, VmId vmId, long since, long to, int maxBuckets);
+
     public abstract void putVmCpuStat(VmCpuStat stat);
 
 }
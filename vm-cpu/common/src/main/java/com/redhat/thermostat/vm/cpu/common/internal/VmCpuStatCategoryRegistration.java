@@ -39,6 +39,7 @@ package com.redhat.thermostat.vm.cpu.common.internal;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.redhat.thermostat.storage.core.RollupResolution;
 import com.redhat.thermostat.storage.core.auth.CategoryRegistration;
 import com.redhat.thermostat.vm.cpu.common.VmCpuStatDAO;
 
@@ -52,8 +53,12 @@ public class VmCpuStatCategoryRegistration implements CategoryRegistration {
 
     @Override
     public Set<String> getCategoryNames() {
-        Set<String> categories = new HashSet<>(1);
-        categories.add(VmCpuStatDAO.vmCpuStatCategory.getName());
+        Set<String> categories = new HashSet<>(3);
+        String name = VmCpuStatDAO.vmCpuStatCategory.getName();
+        categories.add(name);
+        for (RollupResolution resolution : VmCpuStatDAO.vmCpuStatCategory.getRetentionPolicy().getRollupResolutions()) {
+            categories.add(resolution.getCategoryName(name));
+        }
         return categories;
     }
 
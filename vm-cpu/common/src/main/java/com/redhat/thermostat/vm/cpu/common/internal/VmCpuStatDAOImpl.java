@@ -49,12 +49,14 @@ import com.redhat.thermostat.storage.core.StatementDescriptor;
 import com.redhat.thermostat.storage.core.StatementExecutionException;
 import com.redhat.thermostat.storage.core.Storage;
 import com.redhat.thermostat.storage.core.VmBoundaryPojoGetter;
+import com.redhat.thermostat.storage.core.VmBucketedPojoGetter;
 import com.redhat.thermostat.storage.core.VmId;
 import com.redhat.thermostat.storage.core.VmLatestPojoListGetter;
 import com.redhat.thermostat.storage.core.VmRef;
 import com.redhat.thermostat.storage.core.VmTimeIntervalPojoListGetter;
 import com.redhat.thermostat.storage.dao.AbstractDao;
 import com.redhat.thermostat.storage.dao.AbstractDaoStatement;
+import com.redhat.thermostat.storage.model.BucketedResult;
 import com.redhat.thermostat.storage.model.Pojo;
 import com.redhat.thermostat.vm.cpu.common.VmCpuStatDAO;
 import com.redhat.thermostat.vm.cpu.common.model.VmCpuStat;
@@ -76,6 +78,7 @@ public class VmCpuStatDAOImpl extends AbstractDao implements VmCpuStatDAO {
     private final VmLatestPojoListGetter<VmCpuStat> latestGetter;
     private final VmTimeIntervalPojoListGetter<VmCpuStat> intervalGetter;
     private final VmBoundaryPojoGetter<VmCpuStat> boundaryGetter;
+    private final VmBucketedPojoGetter<VmCpuStat> bucketedGetter;
 
     VmCpuStatDAOImpl(Storage storage) {
         this.storage = storage;
@@ -83,6 +86,7 @@ public class VmCpuStatDAOImpl extends AbstractDao implements VmCpuStatDAO {
         this.latestGetter = new VmLatestPojoListGetter<>(storage, vmCpuStatCategory);
         this.intervalGetter = new VmTimeIntervalPojoListGetter<>(storage, vmCpuStatCategory);
         this.boundaryGetter = new VmBoundaryPojoGetter<>(storage, vmCpuStatCategory);
+        this.bucketedGetter = new VmBucketedPojoGetter<>(storage, intervalGetter, vmCpuLoadKey);
     }
 
     @Override
@@ -100,6 +104,11 @@ public class VmCpuStatDAOImpl extends AbstractDao implements VmCpuStatDAO {
         return intervalGetter.getLatest(ref, since, to);
     }
 
+    @Override
+    public BucketedResult getVmCpuLoadBuckets(AgentId agentId, VmId vmId, long since, long to, int maxBuckets) {
+        return bucketedGetter.getBuckets(agentId, vmId, since, to, maxBuckets);
+    }
+
     @Override
     public VmCpuStat getNewest(VmRef ref) {
         return boundaryGetter.getNewestStat(ref);
@@ -39,7 +39,9 @@ package com.redhat.thermostat.vm.cpu.common.internal;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.redhat.thermostat.storage.core.RollupResolution;
 import com.redhat.thermostat.storage.core.VmBoundaryPojoGetter;
+import com.redhat.thermostat.storage.core.VmBucketedPojoGetter;
 import com.redhat.thermostat.storage.core.VmLatestPojoListGetter;
 import com.redhat.thermostat.storage.core.VmTimeIntervalPojoListGetter;
 import com.redhat.thermostat.storage.core.auth.StatementDescriptorRegistration;
@@ -57,6 +59,8 @@ public class VmCpuStatDAOImplStatementDescriptorRegistration implements
             VmCpuStatDAO.vmCpuStatCategory.getName());
     static final String rangeDescriptor = String.format(VmTimeIntervalPojoListGetter.VM_INTERVAL_QUERY_FORMAT,
             VmCpuStatDAO.vmCpuStatCategory.getName());
+    static final String bucketedDescriptor = String.format(VmBucketedPojoGetter.VM_BUCKETED_QUERY_FORMAT,
+            VmCpuStatDAO.vmCpuLoadKey.getName(), VmCpuStatDAO.vmCpuStatCategory.getName());
     static final String latestStatDescriptor = String.format(VmBoundaryPojoGetter.DESC_NEWEST_VM_STAT,
             VmCpuStatDAO.vmCpuStatCategory.getName());
     static final String oldestStatDescriptor = String.format(VmBoundaryPojoGetter.DESC_OLDEST_VM_STAT,
@@ -71,6 +75,17 @@ public class VmCpuStatDAOImplStatementDescriptorRegistration implements
         descs.add(oldestStatDescriptor);
         descs.add(latestDescriptor);
         descs.add(rangeDescriptor);
+        descs.add(bucketedDescriptor);
+        // VmTimeIntervalPojoListGetter and VmBucketedPojoGetter query rollups
+        // for longer ranges, up to the newest rollup
+        String name = VmCpuStatDAO.vmCpuStatCategory.getName();
+        for (RollupResolution resolution : VmCpuStatDAO.vmCpuStatCategory.getRetentionPolicy().getRollupResolutions()) {
+            String rollupName = resolution.getCategoryName(name);
+            descs.add(String.format(VmTimeIntervalPojoListGetter.VM_INTERVAL_QUERY_FORMAT, rollupName));
+            descs.add(String.format(VmBucketedPojoGetter.VM_BUCKETED_QUERY_FORMAT,
+                    VmCpuStatDAO.vmCpuLoadKey.getName(), rollupName));
+            descs.add(String.format(VmBoundaryPojoGetter.DESC_NEWEST_VM_STAT, rollupName));
+        }
         return descs;
     }
 
@@ -58,9 +58,11 @@ public class VmCpuStatCategoryRegistrationTest extends ServiceLoaderTest<Categor
     public void registersAllCategories() {
         VmCpuStatCategoryRegistration reg = new VmCpuStatCategoryRegistration();
         Set<String> categories = reg.getCategoryNames();
-        assertEquals(1, categories.size());
+        assertEquals(3, categories.size());
         assertFalse("null descriptor not allowed", categories.contains(null));
         assertTrue(categories.contains(VmCpuStatDAO.vmCpuStatCategory.getName()));
+        assertTrue(categories.contains("vm-cpu-stats-rollup-1m"));
+        assertTrue(categories.contains("vm-cpu-stats-rollup-1h"));
     }
 
 }
@@ -56,7 +56,7 @@ public class VmCpuStatDAOImplStatementDescriptorRegistrationTest extends Service
     public void registersAllDescriptors() {
         VmCpuStatDAOImplStatementDescriptorRegistration reg = new VmCpuStatDAOImplStatementDescriptorRegistration();
         Set<String> descriptors = reg.getStatementDescriptors();
-        assertEquals(5, descriptors.size());
+        assertEquals(12, descriptors.size());
         assertFalse("null descriptor not allowed", descriptors.contains(null));
     }
 
@@ -54,6 +54,7 @@ import org.mockito.ArgumentCaptor;
 
 import com.redhat.thermostat.common.Pair;
 import com.redhat.thermostat.storage.core.AgentId;
+import com.redhat.thermostat.storage.core.CategoryAdapter;
 import com.redhat.thermostat.storage.core.Cursor;
 import com.redhat.thermostat.storage.core.DescriptorParsingException;
 import com.redhat.thermostat.storage.core.HostRef;
@@ -64,6 +65,7 @@ import com.redhat.thermostat.storage.core.StatementExecutionException;
 import com.redhat.thermostat.storage.core.Storage;
 import com.redhat.thermostat.storage.core.VmId;
 import com.redhat.thermostat.storage.core.VmRef;
+import com.redhat.thermostat.storage.model.BucketedResult;
 import com.redhat.thermostat.storage.testutils.StatementDescriptorTester;
 import com.redhat.thermostat.vm.cpu.common.VmCpuStatDAO;
 import com.redhat.thermostat.vm.cpu.common.model.VmCpuStat;
@@ -103,6 +105,20 @@ public class VmCpuStatDAOTest {
         }
     }
 
+    @Test
+    public void canParseBucketedDescriptor() {
+        StatementDescriptorTester<BucketedResult> tester = new StatementDescriptorTester<>();
+        CategoryAdapter<VmCpuStat, BucketedResult> adapter = new CategoryAdapter<>(VmCpuStatDAO.vmCpuStatCategory);
+        StatementDescriptor<BucketedResult> desc = new StatementDescriptor<>(adapter.getAdapted(BucketedResult.class),
+                VmCpuStatDAOImplStatementDescriptorRegistration.bucketedDescriptor);
+        try {
+            tester.testParseSemantic(desc);
+            // pass
+        } catch (DescriptorParsingException e) {
+            fail(e.getMessage());
+        }
+    }
+
     @Test
     public void testCategory() {
         assertEquals("vm-cpu-stats", VmCpuStatDAO.vmCpuStatCategory.getName());
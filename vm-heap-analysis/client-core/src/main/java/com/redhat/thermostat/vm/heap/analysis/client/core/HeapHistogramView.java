@@ -36,6 +36,8 @@
 
 package com.redhat.thermostat.vm.heap.analysis.client.core;
 
+import java.util.Map;
+
 import com.redhat.thermostat.client.core.views.BasicView;
 import com.redhat.thermostat.client.core.views.UIComponent;
 import com.redhat.thermostat.common.ActionListener;
@@ -49,6 +51,12 @@ public abstract class HeapHistogramView extends BasicView implements UIComponent
 
     public abstract void setHistogram(ObjectHistogram histogram);
 
+    /**
+     * @param retainedSizes the retained size of each class, by class name.
+     * Classes without an entry are shown without a retained size.
+     */
+    public abstract void setRetainedSizes(Map<String, Long> retainedSizes);
+
     public abstract void addHistogramActionListener(ActionListener<HistogramAction> listener);
 
 }
@@ -82,6 +82,7 @@ import com.redhat.thermostat.vm.heap.analysis.common.DumpFile;
 import com.redhat.thermostat.vm.heap.analysis.common.HeapDAO;
 import com.redhat.thermostat.vm.heap.analysis.common.HeapDump;
 import com.redhat.thermostat.vm.heap.analysis.common.model.HeapInfo;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.ProgressListener;
 import com.redhat.thermostat.vm.memory.common.VmMemoryStatDAO;
 import com.redhat.thermostat.vm.memory.common.model.VmMemoryStat;
 import com.redhat.thermostat.vm.memory.common.model.VmMemoryStat.Generation;
@@ -363,6 +364,7 @@ public class HeapDumpController implements InformationServiceController<VmRef> {
                 handle.runTask(new Runnable() {
                     @Override
                     public void run() {
+                        dump.getSnapshot(new LoadingProgress(handle));
                         showHeapDumpDetails(dump);
                         appService.getApplicationCache().addAttribute(ref, dump);
                     }
@@ -371,6 +373,34 @@ public class HeapDumpController implements InformationServiceController<VmRef> {
         });
     }
 
+    /**
+     * Drives a {@link ProgressHandle} while a heap dump is loaded. Reading the
+     * file fills the first half of the range, resolving objects the second.
+     */
+    static class LoadingProgress implements ProgressListener {
+
+        private final ProgressHandle handle;
+        private int percent = -1;
+
+        LoadingProgress(ProgressHandle handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        public synchronized void progressChanged(Phase phase, long done, long total) {
+            int percentOfPhase = total > 0 ? (int) (done * 50 / total) : 0;
+            int newPercent = phase == Phase.READING ? percentOfPhase : 50 + percentOfPhase;
+            if (newPercent == percent) {
+                return;
+            }
+            if (percent == -1) {
+                handle.setIndeterminate(false);
+            }
+            percent = newPercent;
+            handle.setProgress(percent);
+        }
+    }
+
     void exportDump(final HeapDump dump) {
         DumpFile localHeapDump = new DumpFile();
         SimpleDateFormat format = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss_SSS");
@@ -38,6 +38,7 @@ package com.redhat.thermostat.vm.heap.analysis.client.core.internal;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -127,6 +128,13 @@ public class HeapDumpDetailsController {
 
         // do a dummy search right now to prep the index
         dump.searchObjects("A_RANDOM_PATTERN", 1);
+
+        // read from the dominator tree cache, if there is one, without
+        // loading the heap dump
+        Map<String, Long> retainedSizes = dump.getRetainedSizesByClassName();
+        if (retainedSizes != null) {
+            heapHistogramView.setRetainedSizes(retainedSizes);
+        }
     }
 
     private ObjectHistogram readHistogram() {
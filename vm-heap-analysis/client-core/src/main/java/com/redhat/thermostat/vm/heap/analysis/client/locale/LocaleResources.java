@@ -58,6 +58,7 @@ public enum LocaleResources {
     HEAP_DUMP_HISTOGRAM_COLUMN_CLASS,
     HEAP_DUMP_HISTOGRAM_COLUMN_INSTANCES,
     HEAP_DUMP_HISTOGRAM_COLUMN_SIZE,
+    HEAP_DUMP_HISTOGRAM_COLUMN_RETAINED_SIZE,
     HEAP_DUMP_HISTOGRAM_BROWSE_SEARCH_HINT,
 
     HEAP_DUMP_OBJECT_BROWSE_SEARCH_HINT,
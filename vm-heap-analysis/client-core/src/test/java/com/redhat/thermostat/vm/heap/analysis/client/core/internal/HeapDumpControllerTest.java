@@ -37,6 +37,7 @@
 package com.redhat.thermostat.vm.heap.analysis.client.core.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
@@ -66,6 +67,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import com.lowagie.text.pdf.codec.Base64.InputStream;
+import com.redhat.thermostat.client.core.progress.ProgressHandle;
 import com.redhat.thermostat.client.core.progress.ProgressNotifier;
 import com.redhat.thermostat.common.ActionEvent;
 import com.redhat.thermostat.common.ActionListener;
@@ -99,6 +101,7 @@ import com.redhat.thermostat.vm.heap.analysis.common.HeapDAO;
 import com.redhat.thermostat.vm.heap.analysis.common.HeapDump;
 import com.redhat.thermostat.vm.heap.analysis.common.ObjectHistogram;
 import com.redhat.thermostat.vm.heap.analysis.common.model.HeapInfo;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.ProgressListener.Phase;
 import com.redhat.thermostat.vm.memory.common.VmMemoryStatDAO;
 import com.redhat.thermostat.vm.memory.common.model.VmMemoryStat;
 import com.redhat.thermostat.vm.memory.common.model.VmMemoryStat.Generation;
@@ -605,4 +608,24 @@ public class HeapDumpControllerTest {
         verify(heapDumpListController, times(2)).setDumps(any(List.class));
     }
 
+    @Test
+    public void testLoadingProgressSplitsRangeBetweenPhases() {
+        ProgressHandle handle = new ProgressHandle(new LocalizedString("loading"));
+        handle.setIndeterminate(true);
+        HeapDumpController.LoadingProgress progress = new HeapDumpController.LoadingProgress(handle);
+
+        progress.progressChanged(Phase.READING, 500, 1000);
+        assertFalse(handle.isIndeterminate());
+        assertEquals(25, handle.getProgress());
+
+        progress.progressChanged(Phase.READING, 1000, 1000);
+        assertEquals(50, handle.getProgress());
+
+        progress.progressChanged(Phase.RESOLVING, 30, 300);
+        assertEquals(55, handle.getProgress());
+
+        progress.progressChanged(Phase.RESOLVING, 300, 300);
+        assertEquals(100, handle.getProgress());
+    }
+
 }
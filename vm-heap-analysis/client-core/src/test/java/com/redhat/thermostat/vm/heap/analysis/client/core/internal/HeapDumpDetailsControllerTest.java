@@ -60,6 +60,7 @@ import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
@@ -140,6 +141,20 @@ public class HeapDumpDetailsControllerTest {
                 isA(HeapTreeMapView.class));
     }
 
+    @Test
+    public void testSetDumpDisplaysRetainedSizesByClassName() throws IOException {
+        HeapDump dump = mock(HeapDump.class);
+        ObjectHistogram histogram = mock(ObjectHistogram.class);
+        when(dump.getHistogram()).thenReturn(histogram);
+        Map<String, Long> retainedSizes = Collections.singletonMap("java.lang.String", 42L);
+        when(dump.getRetainedSizesByClassName()).thenReturn(retainedSizes);
+
+        controller.setDump(dump, 1);
+
+        verify(histogramView).setRetainedSizes(retainedSizes);
+        verify(dump, never()).getDominatorTree();
+    }
+
     @Test
     public void testEmptySearchStringDisplaysFullHistogram() throws IOException {
         HeapDump dump = mock(HeapDump.class);
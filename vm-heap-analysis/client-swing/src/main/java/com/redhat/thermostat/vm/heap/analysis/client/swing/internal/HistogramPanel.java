@@ -39,7 +39,9 @@ package com.redhat.thermostat.vm.heap.analysis.client.swing.internal;
 import java.awt.Component;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.BoxLayout;
 import javax.swing.GroupLayout;
@@ -77,6 +79,10 @@ public class HistogramPanel extends HeapHistogramView implements SwingComponent
 
     private ThermostatTable table;
 
+    // only accessed on the EDT
+    private ObjectHistogram histogram;
+    private Map<String, Long> retainedSizes = Collections.emptyMap();
+
     private final ActionNotifier<HistogramAction> notifier = new ActionNotifier<>(this);
 
 
@@ -146,7 +152,21 @@ public class HistogramPanel extends HeapHistogramView implements SwingComponent
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                table.setModel(new HistogramTableModel(histogram));
+                HistogramPanel.this.histogram = histogram;
+                table.setModel(new HistogramTableModel(histogram, retainedSizes));
+            }
+        });
+    }
+
+    @Override
+    public void setRetainedSizes(final Map<String, Long> retainedSizes) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                HistogramPanel.this.retainedSizes = retainedSizes;
+                if (histogram != null) {
+                    table.setModel(new HistogramTableModel(histogram, retainedSizes));
+                }
             }
         });
     }
@@ -161,7 +181,7 @@ public class HistogramPanel extends HeapHistogramView implements SwingComponent
 
         @Override
         protected void setValue(Object v) {
-            String formatted = formatter.format(v);
+            String formatted = v == null ? "" : formatter.format(v);
             setText(formatted);
         }
     }
@@ -172,13 +192,16 @@ public class HistogramPanel extends HeapHistogramView implements SwingComponent
             translator.localize(LocaleResources.HEAP_DUMP_HISTOGRAM_COLUMN_CLASS).getContents(),
             translator.localize(LocaleResources.HEAP_DUMP_HISTOGRAM_COLUMN_INSTANCES).getContents(),
             translator.localize(LocaleResources.HEAP_DUMP_HISTOGRAM_COLUMN_SIZE).getContents(),
+            translator.localize(LocaleResources.HEAP_DUMP_HISTOGRAM_COLUMN_RETAINED_SIZE).getContents(),
         };
 
         private List<HistogramRecord> histogram;
+        private final Map<String, Long> retainedSizes;
 
-        public HistogramTableModel(ObjectHistogram objHistogram) {
+        public HistogramTableModel(ObjectHistogram objHistogram, Map<String, Long> retainedSizes) {
             histogram = new ArrayList<>();
             histogram.addAll(objHistogram.getHistogram());
+            this.retainedSizes = retainedSizes;
         }
 
         @Override
@@ -213,6 +236,9 @@ public class HistogramPanel extends HeapHistogramView implements SwingComponent
                 case 2:
                     result = Long.valueOf(record.getTotalSize());
                     break;
+                case 3:
+                    result = retainedSizes.get(record.getClassname());
+                    break;
                 default:
                     throw new ArrayIndexOutOfBoundsException();
                 }
@@ -222,7 +248,7 @@ public class HistogramPanel extends HeapHistogramView implements SwingComponent
 
         @Override
         public int getColumnCount() {
-            return 3;
+            return columnNames.length;
         }
 
         @Override
@@ -66,6 +66,7 @@ public class Activator implements BundleActivator {
         registerCommand("find-objects", new FindObjectsCommand());
         registerCommand("object-info", new ObjectInfoCommand());
         registerCommand("find-root", new FindRootCommand());
+        registerCommand("retained", new RetainedSizeCommand());
 
         Class<?>[] serviceDeps = new Class<?>[] {
                 AgentInfoDAO.class,
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.command.internal;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+
+import com.redhat.thermostat.common.cli.AbstractCommand;
+import com.redhat.thermostat.common.cli.CommandContext;
+import com.redhat.thermostat.common.cli.CommandException;
+import com.redhat.thermostat.common.cli.TableRenderer;
+import com.redhat.thermostat.shared.locale.Translate;
+import com.redhat.thermostat.vm.heap.analysis.command.locale.LocaleResources;
+import com.redhat.thermostat.vm.heap.analysis.common.HeapDAO;
+import com.redhat.thermostat.vm.heap.analysis.common.HeapDump;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.DominatorTree;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaClass;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaHeapObject;
+
+public class RetainedSizeCommand extends AbstractCommand {
+
+    static final String COMMAND_NAME = "retained";
+
+    private static final Translate<LocaleResources> translator = LocaleResources.createLocalizer();
+
+    private static final int DEFAULT_LIMIT = 10;
+
+    private static final String LIMIT_ARG = "limit";
+
+    private final BundleContext context;
+
+    public RetainedSizeCommand() {
+        this(FrameworkUtil.getBundle(RetainedSizeCommand.class).getBundleContext());
+    }
+
+    RetainedSizeCommand(BundleContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public void run(CommandContext ctx) throws CommandException {
+        ServiceReference heapDaoRef = context.getServiceReference(HeapDAO.class.getName());
+        requireNonNull(heapDaoRef, translator.localize(LocaleResources.HEAP_SERVICE_UNAVAILABLE));
+        HeapDAO heapDao = (HeapDAO) context.getService(heapDaoRef);
+
+        try {
+            run(ctx, heapDao);
+        } finally {
+            context.ungetService(heapDaoRef);
+        }
+    }
+
+    private void run(CommandContext ctx, HeapDAO heapDao) throws CommandException {
+        HeapCommandHelper helper = HeapCommandHelper.getHelper(ctx, heapDao);
+        HeapDump heapDump = helper.getHeapDump();
+        DominatorTree dominators = heapDump.getDominatorTree();
+        PrintStream out = ctx.getConsole().getOutput();
+        if (dominators == null) {
+            String heapId = ctx.getArguments().getArgument(HeapCommandHelper.HEAP_ID_ARG);
+            out.println(translator.localize(LocaleResources.COMMAND_RETAINED_UNAVAILABLE, heapId).getContents());
+            return;
+        }
+
+        if (ctx.getArguments().hasArgument(HeapCommandHelper.OBJECT_ID_ARG)) {
+            printObject(helper.getJavaHeapObject(ctx), dominators, out);
+        } else {
+            int limit = parseLimit(ctx.getArguments().getArgument(LIMIT_ARG));
+            printClasses(dominators, limit, out);
+        }
+    }
+
+    private void printObject(JavaHeapObject obj, DominatorTree dominators, PrintStream out) {
+        JavaHeapObject dominator = dominators.getDominator(obj);
+        String dominatorText = dominator == null
+                ? translator.localize(LocaleResources.COMMAND_RETAINED_GC_ROOTS).getContents()
+                : PrintObjectUtils.objectToString(dominator);
+
+        TableRenderer table = new TableRenderer(2);
+        table.printLine(translator.localize(LocaleResources.COMMAND_OBJECT_INFO_OBJECT_ID).getContents(), obj.getIdString());
+        table.printLine(translator.localize(LocaleResources.COMMAND_OBJECT_INFO_TYPE).getContents(), obj.getClazz().getName());
+        table.printLine(translator.localize(LocaleResources.COMMAND_OBJECT_INFO_SIZE).getContents(), obj.getSize() + " bytes");
+        table.printLine(translator.localize(LocaleResources.COMMAND_RETAINED_RETAINED_SIZE).getContents(), dominators.getRetainedSize(obj) + " bytes");
+        table.printLine(translator.localize(LocaleResources.COMMAND_RETAINED_DOMINATOR).getContents(), dominatorText);
+        table.render(out);
+    }
+
+    private void printClasses(DominatorTree dominators, int limit, PrintStream out) {
+        List<Map.Entry<JavaClass, Long>> classes = new ArrayList<>(dominators.getRetainedSizesByClass().entrySet());
+        Collections.sort(classes, new Comparator<Map.Entry<JavaClass, Long>>() {
+            @Override
+            public int compare(Map.Entry<JavaClass, Long> a, Map.Entry<JavaClass, Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+
+        TableRenderer table = new TableRenderer(4);
+        table.printHeader(translator.localize(LocaleResources.TABLE_CLASS_NAME).getContents(),
+                translator.localize(LocaleResources.TABLE_NUMBER_INSTANCES).getContents(),
+                translator.localize(LocaleResources.TABLE_TOTAL_SIZE).getContents(),
+                translator.localize(LocaleResources.TABLE_RETAINED_SIZE).getContents());
+        for (Map.Entry<JavaClass, Long> entry : classes.subList(0, Math.min(limit, classes.size()))) {
+            JavaClass clazz = entry.getKey();
+            table.printLine(clazz.getName(),
+                    String.valueOf(clazz.getInstancesCount(false)),
+                    String.valueOf(clazz.getTotalInstanceSize()),
+                    String.valueOf(entry.getValue()));
+        }
+        table.render(out);
+    }
+
+    private int parseLimit(String limitArg) throws CommandException {
+        int limit = DEFAULT_LIMIT;
+        if (limitArg != null) {
+            try {
+                limit = Integer.parseInt(limitArg);
+            } catch (NumberFormatException ex) {
+                throw new CommandException(translator.localize(LocaleResources.INVALID_LIMIT, limitArg));
+            }
+        }
+        return limit;
+    }
+
+}
@@ -65,6 +65,11 @@ public enum LocaleResources {
 
     COMMAND_FIND_ROOT_NO_ROOT_FOUND,
 
+    COMMAND_RETAINED_RETAINED_SIZE,
+    COMMAND_RETAINED_DOMINATOR,
+    COMMAND_RETAINED_GC_ROOTS,
+    COMMAND_RETAINED_UNAVAILABLE,
+
     COMMAND_OBJECT_INFO_OBJECT_ID,
     COMMAND_OBJECT_INFO_TYPE,
     COMMAND_OBJECT_INFO_SIZE,
@@ -82,6 +87,7 @@ public enum LocaleResources {
     TABLE_CLASS_NAME,
     TABLE_NUMBER_INSTANCES,
     TABLE_TOTAL_SIZE,
+    TABLE_RETAINED_SIZE,
     ;
     
     static final String RESOURCE_BUNDLE = "com.redhat.thermostat.vm.heap.analysis.command.locale.strings";
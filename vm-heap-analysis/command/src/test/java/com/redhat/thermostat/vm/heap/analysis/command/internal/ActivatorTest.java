@@ -71,6 +71,7 @@ public class ActivatorTest {
         assertCommandIsRegistered(ctx, "find-root", FindRootCommand.class);
         assertCommandIsRegistered(ctx, "list-heap-dumps", ListHeapDumpsCommand.class);
         assertCommandIsRegistered(ctx, "object-info", ObjectInfoCommand.class);
+        assertCommandIsRegistered(ctx, "retained", RetainedSizeCommand.class);
         assertCommandIsRegistered(ctx, "save-heap-dump-to-file", SaveHeapDumpToFileCommand.class);
         assertCommandIsRegistered(ctx, "show-heap-histogram", ShowHeapHistogramCommand.class);
 
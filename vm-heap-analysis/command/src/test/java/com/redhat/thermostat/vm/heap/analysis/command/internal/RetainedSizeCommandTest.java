@@ -0,0 +1,199 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.command.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.common.cli.CommandException;
+import com.redhat.thermostat.common.cli.SimpleArguments;
+import com.redhat.thermostat.common.internal.test.TestCommandContextFactory;
+import com.redhat.thermostat.testutils.StubBundleContext;
+import com.redhat.thermostat.vm.heap.analysis.common.HeapDAO;
+import com.redhat.thermostat.vm.heap.analysis.common.HeapDump;
+import com.redhat.thermostat.vm.heap.analysis.common.model.HeapInfo;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.DominatorTree;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaClass;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaHeapObject;
+
+public class RetainedSizeCommandTest {
+
+    private static final String HEAP_ID = "TEST_HEAP_ID";
+
+    private RetainedSizeCommand cmd;
+    private HeapDump heapDump;
+    private DominatorTree dominators;
+    private HeapDAO dao;
+
+    @Before
+    public void setUp() {
+        JavaClass fooClass = createMockClass("FooType", 3, 30);
+        JavaClass barClass = createMockClass("BarType", 1, 100);
+        JavaClass bazClass = createMockClass("BazType", 2, 20);
+        Map<JavaClass, Long> classSizes = new HashMap<>();
+        classSizes.put(fooClass, 300L);
+        classSizes.put(barClass, 100L);
+        classSizes.put(bazClass, 200L);
+
+        JavaHeapObject fooObj = createMockObject(fooClass, "123", 10);
+        JavaHeapObject barObj = createMockObject(barClass, "456", 100);
+
+        dominators = mock(DominatorTree.class);
+        when(dominators.getRetainedSizesByClass()).thenReturn(classSizes);
+        when(dominators.getRetainedSize(fooObj)).thenReturn(110L);
+        when(dominators.getDominator(fooObj)).thenReturn(barObj);
+        when(dominators.getRetainedSize(barObj)).thenReturn(210L);
+        when(dominators.getDominator(barObj)).thenReturn(null);
+
+        heapDump = mock(HeapDump.class);
+        when(heapDump.getDominatorTree()).thenReturn(dominators);
+        when(heapDump.findObject("foo")).thenReturn(fooObj);
+        when(heapDump.findObject("bar")).thenReturn(barObj);
+
+        HeapInfo heapInfo = mock(HeapInfo.class);
+        dao = mock(HeapDAO.class);
+        when(dao.getHeapInfo(HEAP_ID)).thenReturn(heapInfo);
+        when(dao.getHeapDump(heapInfo)).thenReturn(heapDump);
+
+        StubBundleContext context = new StubBundleContext();
+        context.registerService(HeapDAO.class, dao, null);
+        cmd = new RetainedSizeCommand(context);
+    }
+
+    private JavaClass createMockClass(String name, int instances, long totalSize) {
+        JavaClass cls = mock(JavaClass.class);
+        when(cls.getName()).thenReturn(name);
+        when(cls.getInstancesCount(false)).thenReturn(instances);
+        when(cls.getTotalInstanceSize()).thenReturn(totalSize);
+        return cls;
+    }
+
+    private JavaHeapObject createMockObject(JavaClass cls, String id, int size) {
+        JavaHeapObject obj = mock(JavaHeapObject.class);
+        when(obj.getIdString()).thenReturn(id);
+        when(obj.getClazz()).thenReturn(cls);
+        when(obj.getSize()).thenReturn(size);
+        return obj;
+    }
+
+    @Test
+    public void testStorageRequired() {
+        assertTrue(cmd.isStorageRequired());
+    }
+
+    @Test
+    public void testClassesSortedByRetainedSize() throws CommandException {
+        TestCommandContextFactory factory = new TestCommandContextFactory();
+        SimpleArguments args = new SimpleArguments();
+        args.addArgument("heapId", HEAP_ID);
+        args.addArgument("limit", "2");
+
+        cmd.run(factory.createContext(args));
+
+        String expected = "Class Name Instances Total Size Retained Size\n" +
+                          "FooType    3         30         300\n" +
+                          "BazType    2         20         200\n";
+        assertEquals(expected, factory.getOutput());
+    }
+
+    @Test
+    public void testObject() throws CommandException {
+        TestCommandContextFactory factory = new TestCommandContextFactory();
+        SimpleArguments args = new SimpleArguments();
+        args.addArgument("heapId", HEAP_ID);
+        args.addArgument("objectId", "foo");
+
+        cmd.run(factory.createContext(args));
+
+        String expected = "Object ID:     123\n" +
+                          "Type:          FooType\n" +
+                          "Size:          10 bytes\n" +
+                          "Retained size: 110 bytes\n" +
+                          "Dominator:     BarType@456\n";
+        assertEquals(expected, factory.getOutput());
+    }
+
+    @Test
+    public void testObjectDominatedByRoots() throws CommandException {
+        TestCommandContextFactory factory = new TestCommandContextFactory();
+        SimpleArguments args = new SimpleArguments();
+        args.addArgument("heapId", HEAP_ID);
+        args.addArgument("objectId", "bar");
+
+        cmd.run(factory.createContext(args));
+
+        assertTrue(factory.getOutput().contains("Dominator:     GC roots\n"));
+    }
+
+    @Test
+    public void testDominatorTreeUnavailable() throws CommandException {
+        when(heapDump.getDominatorTree()).thenReturn(null);
+        TestCommandContextFactory factory = new TestCommandContextFactory();
+        SimpleArguments args = new SimpleArguments();
+        args.addArgument("heapId", HEAP_ID);
+
+        cmd.run(factory.createContext(args));
+
+        assertEquals("Unable to compute retained sizes for heap ID: " + HEAP_ID + "\n", factory.getOutput());
+    }
+
+    @Test
+    public void testInvalidLimit() {
+        TestCommandContextFactory factory = new TestCommandContextFactory();
+        SimpleArguments args = new SimpleArguments();
+        args.addArgument("heapId", HEAP_ID);
+        args.addArgument("limit", "many");
+
+        try {
+            cmd.run(factory.createContext(args));
+            fail();
+        } catch (CommandException e) {
+            assertEquals("Invalid limit many", e.getMessage());
+        }
+    }
+
+}
@@ -37,15 +37,21 @@
 package com.redhat.thermostat.vm.heap.analysis.common;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,14 +71,18 @@ import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.store.RAMDirectory;
 
 import com.redhat.thermostat.common.utils.LoggingUtils;
 import com.redhat.thermostat.vm.heap.analysis.common.model.HeapInfo;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.DominatorTree;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaClass;
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaHeapObject;
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.Snapshot;
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser.Reader;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.ProgressListener;
 
 /**
  * NOTE: This class is thread-safe with respect to loading the heapdump and creating the index.
@@ -95,6 +105,8 @@ public class HeapDump {
 
     private Directory luceneIndex;
 
+    private DominatorTree dominatorTree;
+
     // package-private for testing
     HeapDump(HeapInfo heapInfo, HeapDAO heapDAO, Snapshot snapshot) {
         this.heapInfo = heapInfo;
@@ -126,7 +138,7 @@ public class HeapDump {
     private synchronized Directory getLuceneIndex() {
         if (luceneIndex == null) {
             try {
-                luceneIndex = createLuceneIndex();
+                luceneIndex = openOrCreateLuceneIndex();
             } catch (IOException ex) {
                 log.log(Level.SEVERE, "Unexpected IO Exception while creating heap dump index", ex);
                 return null;
@@ -135,14 +147,89 @@ public class HeapDump {
         return luceneIndex;
     }
 
+    /*
+     * The index is stored next to the downloaded heap dump, so that searching
+     * the same heap dump again, even from another session, neither has to
+     * load nor index it. Heap ids are never reused, so an index is only
+     * replaced if it is incomplete.
+     */
+    private Directory openOrCreateLuceneIndex() throws IOException {
+        File indexDir;
+        try {
+            indexDir = new File(getOrCreateHeapDumpDir(), "heapdump-" + heapInfo.getHeapId() + ".index");
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Unable to store heap dump index, keeping it in memory", e);
+            return createInMemoryLuceneIndex();
+        }
+        Directory existing = openStoredLuceneIndex(indexDir);
+        if (existing != null) {
+            return existing;
+        }
+        deleteIndexDir(indexDir);
+
+        // build the index in a directory of its own, so that an interrupted
+        // build is never mistaken for a complete index and builds in other
+        // sessions do not write to the same files
+        File tmpDir = null;
+        try {
+            tmpDir = Files.createTempDirectory(indexDir.getParentFile().toPath(), indexDir.getName()).toFile();
+            try (Directory dir = FSDirectory.open(tmpDir.toPath())) {
+                createLuceneIndex(dir);
+            }
+            Files.move(tmpDir.toPath(), indexDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteIndexDir(tmpDir);
+            // another session may have stored its index first
+            existing = openStoredLuceneIndex(indexDir);
+            if (existing != null) {
+                return existing;
+            }
+            log.log(Level.WARNING, "Unable to store heap dump index in " + indexDir + ", keeping it in memory", e);
+            return createInMemoryLuceneIndex();
+        }
+        return FSDirectory.open(indexDir.toPath());
+    }
+
+    private static Directory openStoredLuceneIndex(File indexDir) throws IOException {
+        if (!indexDir.isDirectory()) {
+            return null;
+        }
+        // on 64 bit JVMs, this maps the index files into memory
+        Directory dir = FSDirectory.open(indexDir.toPath());
+        if (DirectoryReader.indexExists(dir)) {
+            return dir;
+        }
+        dir.close();
+        return null;
+    }
+
+    private Directory createInMemoryLuceneIndex() throws IOException {
+        Directory dir = new RAMDirectory();
+        createLuceneIndex(dir);
+        return dir;
+    }
+
+    private static void deleteIndexDir(File indexDir) {
+        if (indexDir == null) {
+            return;
+        }
+        // lucene indexes are flat directories
+        File[] files = indexDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        indexDir.delete();
+    }
+
     // package-private for testing
-    Directory createLuceneIndex() throws IOException,
+    void createLuceneIndex(Directory dir) throws IOException,
             CorruptIndexException, LockObtainFailedException {
 
         loadHeapDumpIfNecessary();
 
         Enumeration<JavaHeapObject> thingos = snapshot.getThings();
-        Directory dir = new RAMDirectory();
         IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new SimpleAnalyzer());
         IndexWriter writer = new IndexWriter(dir, indexWriterConfig);
         while (thingos.hasMoreElements()) {
@@ -153,7 +240,6 @@ public class HeapDump {
             writer.addDocument(doc);
         }
         writer.close();
-        return dir;
     }
 
     public Snapshot getSnapshot() {
@@ -161,17 +247,31 @@ public class HeapDump {
         return snapshot;
     }
 
-    private synchronized void loadHeapDumpIfNecessary() {
+    /**
+     * Like {@link #getSnapshot()}, but reports progress to the given listener
+     * while the heap dump is read and resolved. Nothing is reported if the
+     * heap dump is already loaded.
+     */
+    public Snapshot getSnapshot(ProgressListener progress) {
+        loadHeapDumpIfNecessary(progress);
+        return snapshot;
+    }
+
+    private void loadHeapDumpIfNecessary() {
+        loadHeapDumpIfNecessary(ProgressListener.NONE);
+    }
+
+    private synchronized void loadHeapDumpIfNecessary(ProgressListener progress) {
         if (snapshot == null) {
             try {
-                loadHeapDump();
+                loadHeapDump(progress);
             } catch (IOException e) {
                 log.log(Level.SEVERE, "Unexpected IO Exception while loading heap dump", e);
             }
         }
     }
 
-    private void loadHeapDump() throws IOException {
+    private void loadHeapDump(ProgressListener progress) throws IOException {
         String filename = "heapdump-" + heapInfo.getHeapId();
         File tmpDir = getOrCreateHeapDumpDir();
         File tmpFile = new File(tmpDir, filename);
@@ -181,8 +281,97 @@ public class HeapDump {
             }
             
         }
-        snapshot = Reader.readFile(tmpFile.getAbsolutePath(), true, 0);
-        snapshot.resolve(true);
+        // the object table spares parsing the heap dump again next time
+        File objectTable = new File(tmpDir, filename + ".objects");
+        Snapshot loaded = Reader.readFile(tmpFile.getAbsolutePath(), true, 0, progress, objectTable);
+        loaded.resolve(true, progress);
+        snapshot = loaded;
+    }
+
+    /**
+     * @return the dominator tree of this heap dump, which gives the retained
+     * size of each object and class. It is computed once and cached in a file
+     * next to the downloaded heap dump. Returns null if the heap dump can not
+     * be loaded.
+     */
+    public synchronized DominatorTree getDominatorTree() {
+        if (dominatorTree == null) {
+            loadHeapDumpIfNecessary();
+            if (snapshot == null) {
+                return null;
+            }
+            dominatorTree = loadOrComputeDominatorTree();
+        }
+        return dominatorTree;
+    }
+
+    /**
+     * @return the retained size of the instances of each class by class name,
+     * see {@link DominatorTree#getRetainedSizesByClass()}. If the dominator
+     * tree of this heap dump has been cached before, the sizes are read from
+     * the cache without loading the heap dump. Returns null if the heap dump
+     * can not be loaded.
+     */
+    public synchronized Map<String, Long> getRetainedSizesByClassName() {
+        if (dominatorTree == null) {
+            File cacheFile = getDominatorTreeCacheFile();
+            if (cacheFile != null && cacheFile.exists()) {
+                try (InputStream in = new FileInputStream(cacheFile)) {
+                    return DominatorTree.readRetainedSizesByClassName(in);
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Ignoring unreadable dominator tree cache " + cacheFile, e);
+                }
+            }
+        }
+        DominatorTree tree = getDominatorTree();
+        if (tree == null) {
+            return null;
+        }
+        Map<String, Long> result = new HashMap<>();
+        for (Map.Entry<JavaClass, Long> entry : tree.getRetainedSizesByClass().entrySet()) {
+            String name = entry.getKey().getName();
+            Long previous = result.get(name);
+            result.put(name, previous == null ? entry.getValue() : previous + entry.getValue());
+        }
+        return result;
+    }
+
+    private File getDominatorTreeCacheFile() {
+        try {
+            return new File(getOrCreateHeapDumpDir(), "heapdump-" + heapInfo.getHeapId() + ".dominators");
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Unable to cache dominator tree", e);
+            return null;
+        }
+    }
+
+    private DominatorTree loadOrComputeDominatorTree() {
+        File cacheFile = getDominatorTreeCacheFile();
+        if (cacheFile == null) {
+            return new DominatorTree(snapshot);
+        }
+        if (cacheFile.exists()) {
+            try (InputStream in = new FileInputStream(cacheFile)) {
+                return DominatorTree.read(snapshot, in);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Ignoring unreadable dominator tree cache " + cacheFile, e);
+            }
+        }
+        DominatorTree tree = new DominatorTree(snapshot);
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+            try (OutputStream out = new FileOutputStream(tmpFile)) {
+                tree.write(out);
+            }
+            Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Unable to cache dominator tree in " + cacheFile, e);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+        return tree;
     }
 
     private File getOrCreateHeapDumpDir() throws IOException {
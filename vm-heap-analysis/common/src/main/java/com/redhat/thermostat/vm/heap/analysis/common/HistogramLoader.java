@@ -38,33 +38,24 @@ package com.redhat.thermostat.vm.heap.analysis.common;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Enumeration;
 
-import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaHeapObject;
-import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.Snapshot;
-import com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser.Reader;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser.HistogramScanner;
 
+/**
+ * Computes the histogram of a heap dump with a streaming scan, so that the
+ * agent does not need memory for a model of every object in the dump.
+ */
 public class HistogramLoader {
 
     public ObjectHistogram load(String filename) throws IOException {
-        Snapshot snapshot = loadHeapdump(filename);
-        return computeHistogram(snapshot);
-    }
-
-    private Snapshot loadHeapdump(String filename) throws IOException {
+        final ObjectHistogram histogram = new ObjectHistogram();
         File heapdump = new File(filename);
-        Snapshot snapshot = Reader.readFile(heapdump.getAbsolutePath(), true, 0);
-        snapshot.resolve(true);
-        return snapshot;
-    }
-
-    private ObjectHistogram computeHistogram(Snapshot snapshot) {
-        Enumeration<JavaHeapObject> thingos = snapshot.getThings();
-        ObjectHistogram histogram = new ObjectHistogram();
-        while (thingos.hasMoreElements()) {
-            JavaHeapObject thingo = thingos.nextElement();
-            histogram.addThing(thingo);
-        }
+        HistogramScanner.scan(heapdump.getAbsolutePath(), new HistogramScanner.Visitor() {
+            @Override
+            public void visitClass(String className, long instances, long totalSize) {
+                histogram.addRecord(new HistogramRecord(className, instances, totalSize));
+            }
+        });
         return histogram;
     }
 
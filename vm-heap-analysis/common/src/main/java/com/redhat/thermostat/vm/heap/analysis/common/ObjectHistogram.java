@@ -62,6 +62,20 @@ public class ObjectHistogram implements Serializable {
         record.totalSize += thing.getSize();
     }
 
+    /**
+     * Adds the instances counted by {@code record} to the record of the same
+     * class name, if there is one.
+     */
+    public void addRecord(HistogramRecord record) {
+        HistogramRecord existing = histogram.get(record.classname);
+        if (existing == null) {
+            histogram.put(record.classname, new HistogramRecord(record.classname, record.numberOf, record.totalSize));
+        } else {
+            existing.numberOf += record.numberOf;
+            existing.totalSize += record.totalSize;
+        }
+    }
+
     public Collection<HistogramRecord> getHistogram() {
         return histogram.values();
     }
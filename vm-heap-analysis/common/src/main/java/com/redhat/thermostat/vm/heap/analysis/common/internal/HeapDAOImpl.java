@@ -43,14 +43,13 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.redhat.thermostat.common.utils.LoggingUtils;
 import com.redhat.thermostat.storage.core.AgentId;
+import com.redhat.thermostat.storage.core.ChunkedFiles;
 import com.redhat.thermostat.storage.core.CloseOnSave;
 import com.redhat.thermostat.storage.core.Key;
 import com.redhat.thermostat.storage.core.PreparedStatement;
@@ -100,9 +99,12 @@ public class HeapDAOImpl extends AbstractDao implements HeapDAO {
                  "'" + histogramIdKey.getName() + "' = ?s";
     
     private final Storage storage;
+    // heap dumps are big and compress well
+    private final ChunkedFiles heapDumpFiles;
 
     HeapDAOImpl(Storage storage) {
         this.storage = storage;
+        this.heapDumpFiles = new ChunkedFiles(storage);
         storage.registerCategory(heapInfoCategory);
     }
 
@@ -127,8 +129,7 @@ public class HeapDAOImpl extends AbstractDao implements HeapDAO {
         if (histogramData != null) {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             try {
-                ObjectOutputStream oos = new ObjectOutputStream(baos);
-                oos.writeObject(histogramData);
+                HistogramFormat.write(histogramData, baos);
                 ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
                 storage.saveFile(histogramId, bais, new CloseOnSave(bais));
             } catch (IOException e) {
@@ -156,7 +157,7 @@ public class HeapDAOImpl extends AbstractDao implements HeapDAO {
     private void uploadHeapDump(final File heapDumpData, String heapDumpId, final Runnable heapDumpCleanup)
             throws FileNotFoundException {
         final InputStream heapDumpStream = new FileInputStream(heapDumpData);
-        storage.saveFile(heapDumpId, heapDumpStream, new SaveFileListener() {
+        heapDumpFiles.saveFile(heapDumpId, heapDumpStream, new SaveFileListener() {
 
             @Override
             public void notify(EventType type, Object additionalArguments) {
@@ -210,15 +211,14 @@ public class HeapDAOImpl extends AbstractDao implements HeapDAO {
 
     @Override
     public InputStream getHeapDumpData(HeapInfo heapInfo) {
-        return storage.loadFile(heapInfo.getHeapDumpId());
+        return heapDumpFiles.loadFile(heapInfo.getHeapDumpId());
     }
 
     @Override
     public ObjectHistogram getHistogram(HeapInfo heapInfo) {
         try (InputStream in = storage.loadFile(heapInfo.getHistogramId())) {
-            ObjectInputStream ois = new ObjectInputStream(in);
-            return (ObjectHistogram) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
+            return HistogramFormat.read(in);
+        } catch (IOException e) {
             logger.log(Level.SEVERE, "Unexpected error while reading histogram", e);
             return null;
         }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.common.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import com.redhat.thermostat.vm.heap.analysis.common.HistogramRecord;
+import com.redhat.thermostat.vm.heap.analysis.common.ObjectHistogram;
+
+/**
+ * The binary format histograms are stored in: a magic number and version,
+ * followed by the number of records and each record's class name, number of
+ * instances and total size.
+ * <p>
+ * Histograms used to be stored with java serialization. Those can still be
+ * read.
+ */
+class HistogramFormat {
+
+    static final int MAGIC = 0x54484849; // "THHI"
+    static final int VERSION = 1;
+
+    // java.io.ObjectStreamConstants.STREAM_MAGIC and STREAM_VERSION
+    private static final int SERIALIZED_MAGIC = 0xaced0005;
+
+    static void write(ObjectHistogram histogram, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        Collection<HistogramRecord> records = histogram.getHistogram();
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(records.size());
+        for (HistogramRecord record : records) {
+            data.writeUTF(record.getClassname());
+            data.writeLong(record.getNumberOf());
+            data.writeLong(record.getTotalSize());
+        }
+        data.flush();
+    }
+
+    static ObjectHistogram read(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(4);
+        DataInputStream data = new DataInputStream(buffered);
+        int magic = data.readInt();
+        if (magic == SERIALIZED_MAGIC) {
+            buffered.reset();
+            return readSerialized(buffered);
+        }
+        if (magic != MAGIC) {
+            throw new IOException("Not a histogram");
+        }
+        int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported histogram version " + version);
+        }
+        ObjectHistogram histogram = new ObjectHistogram();
+        int records = data.readInt();
+        for (int i = 0; i < records; i++) {
+            String classname = data.readUTF();
+            long numberOf = data.readLong();
+            long totalSize = data.readLong();
+            histogram.addRecord(new HistogramRecord(classname, numberOf, totalSize));
+        }
+        return histogram;
+    }
+
+    private static ObjectHistogram readSerialized(InputStream in) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(in);
+        try {
+            return (ObjectHistogram) ois.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid serialized histogram", e);
+        }
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.vm.heap.analysis.common.model.HeapInfo;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.DominatorTree;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaClass;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaHeapObject;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.Snapshot;
+
+/*
+ * Object graph used by these tests, as node -> referenced nodes:
+ *
+ *   0 -> 1, 2    (GC root)
+ *   1 -> 3
+ *   2 -> 3, 4
+ *   3 -> 5
+ *   4 -> 5
+ *   5 -> 6
+ *   6 -> 3
+ *   7 -> 0       (unreachable)
+ *   8 -> 5       (GC root)
+ */
+public class DominatorTreeTest {
+
+    private File dumpFile;
+    private File cacheFile;
+    private File objectTable;
+    private HeapInfo heapInfo;
+    private HeapDAO heapDAO;
+
+    @Before
+    public void setUp() throws IOException {
+        String heapId = "DOMINATOR_TEST_" + System.nanoTime();
+        File dir = new File(System.getProperty("java.io.tmpdir"), "thermostat-" + System.getProperty("user.name"));
+        dumpFile = new File(dir, "heapdump-" + heapId);
+        cacheFile = new File(dir, "heapdump-" + heapId + ".dominators");
+        objectTable = new File(dir, "heapdump-" + heapId + ".objects");
+
+        SyntheticHeapDump dump = new SyntheticHeapDump(9);
+        dump.addNode(1, 2);   // 0
+        dump.addNode(3, -1);  // 1
+        dump.addNode(3, 4);   // 2
+        dump.addNode(5, -1);  // 3
+        dump.addNode(5, -1);  // 4
+        dump.addNode(6, -1);  // 5
+        dump.addNode(3, -1);  // 6
+        dump.addNode(0, -1);  // 7
+        dump.addNode(5, -1);  // 8
+        dump.addRoot(0);
+        dump.addRoot(8);
+        File source = File.createTempFile("thermostat-dominators-", ".hprof");
+        source.deleteOnExit();
+        dump.write(source, 4);
+
+        heapInfo = mock(HeapInfo.class);
+        when(heapInfo.getHeapId()).thenReturn(heapId);
+        heapDAO = mock(HeapDAO.class);
+        when(heapDAO.getHeapDumpData(heapInfo)).thenReturn(new FileInputStream(source));
+    }
+
+    @After
+    public void tearDown() {
+        dumpFile.delete();
+        cacheFile.delete();
+        objectTable.delete();
+    }
+
+    @Test
+    public void testDominators() {
+        HeapDump heapDump = new HeapDump(heapInfo, heapDAO);
+        DominatorTree tree = heapDump.getDominatorTree();
+        assertNotNull(tree);
+        Snapshot snapshot = heapDump.getSnapshot();
+
+        assertNull(tree.getDominator(node(snapshot, 0)));
+        assertNull(tree.getDominator(node(snapshot, 8)));
+        assertSame(node(snapshot, 0), tree.getDominator(node(snapshot, 1)));
+        assertSame(node(snapshot, 0), tree.getDominator(node(snapshot, 2)));
+        assertSame(node(snapshot, 2), tree.getDominator(node(snapshot, 4)));
+        // reachable from both roots, 3 through 8 -> 5 -> 6 -> 3
+        assertNull(tree.getDominator(node(snapshot, 3)));
+        assertNull(tree.getDominator(node(snapshot, 5)));
+        assertSame(node(snapshot, 5), tree.getDominator(node(snapshot, 6)));
+        // unreachable
+        assertNull(tree.getDominator(node(snapshot, 7)));
+    }
+
+    @Test
+    public void testRetainedSizes() {
+        HeapDump heapDump = new HeapDump(heapInfo, heapDAO);
+        DominatorTree tree = heapDump.getDominatorTree();
+        Snapshot snapshot = heapDump.getSnapshot();
+
+        assertEquals(size(snapshot, 4), tree.getRetainedSize(node(snapshot, 4)));
+        assertEquals(size(snapshot, 2) + size(snapshot, 4), tree.getRetainedSize(node(snapshot, 2)));
+        assertEquals(size(snapshot, 5) + size(snapshot, 6), tree.getRetainedSize(node(snapshot, 5)));
+        assertEquals(size(snapshot, 8), tree.getRetainedSize(node(snapshot, 8)));
+        assertEquals(0, tree.getRetainedSize(node(snapshot, 7)));
+        long ownNodes = size(snapshot, 0) + size(snapshot, 1) + size(snapshot, 2) + size(snapshot, 4);
+        // node 0 also retains the classes, which are only reachable through it
+        assertTrue(tree.getRetainedSize(node(snapshot, 0)) >= ownNodes);
+    }
+
+    @Test
+    public void testRetainedSizesByClassCountNestedInstancesOnce() {
+        HeapDump heapDump = new HeapDump(heapInfo, heapDAO);
+        DominatorTree tree = heapDump.getDominatorTree();
+        Snapshot snapshot = heapDump.getSnapshot();
+
+        JavaClass nodeClass = snapshot.findClass(SyntheticHeapDump.NODE_CLASS);
+        Map<JavaClass, Long> byClass = tree.getRetainedSizesByClass();
+        long expected = tree.getRetainedSize(node(snapshot, 0))
+                + tree.getRetainedSize(node(snapshot, 3))
+                + tree.getRetainedSize(node(snapshot, 5))
+                + tree.getRetainedSize(node(snapshot, 8));
+        assertEquals(Long.valueOf(expected), byClass.get(nodeClass));
+    }
+
+    @Test
+    public void testDominatorTreeIsCached() {
+        HeapDump heapDump = new HeapDump(heapInfo, heapDAO);
+        DominatorTree computed = heapDump.getDominatorTree();
+        assertTrue(cacheFile.exists());
+
+        HeapDump reloaded = new HeapDump(heapInfo, heapDAO);
+        DominatorTree cached = reloaded.getDominatorTree();
+        Snapshot snapshot = reloaded.getSnapshot();
+        for (int i = 0; i < 9; i++) {
+            JavaHeapObject obj = node(snapshot, i);
+            assertEquals(computed.getRetainedSize(node(heapDump.getSnapshot(), i)), cached.getRetainedSize(obj));
+        }
+        assertSame(node(snapshot, 2), cached.getDominator(node(snapshot, 4)));
+    }
+
+    @Test
+    public void testRetainedSizesByClassNameAreReadFromCache() {
+        HeapDump heapDump = new HeapDump(heapInfo, heapDAO);
+        Map<String, Long> computed = heapDump.getRetainedSizesByClassName();
+        DominatorTree tree = heapDump.getDominatorTree();
+        JavaClass nodeClass = heapDump.getSnapshot().findClass(SyntheticHeapDump.NODE_CLASS);
+        assertEquals(tree.getRetainedSizesByClass().get(nodeClass), computed.get(SyntheticHeapDump.NODE_CLASS));
+        assertTrue(cacheFile.exists());
+
+        HeapDAO otherDAO = mock(HeapDAO.class);
+        HeapDump reloaded = new HeapDump(heapInfo, otherDAO);
+        assertEquals(computed, reloaded.getRetainedSizesByClassName());
+        // the heap dump itself is never loaded
+        verifyZeroInteractions(otherDAO);
+    }
+
+    @Test
+    public void testInvalidCacheIsRecomputed() throws IOException {
+        new HeapDump(heapInfo, heapDAO).getDominatorTree();
+        try (FileOutputStream out = new FileOutputStream(cacheFile)) {
+            out.write(new byte[] { 1, 2, 3 });
+        }
+
+        HeapDump heapDump = new HeapDump(heapInfo, heapDAO);
+        DominatorTree tree = heapDump.getDominatorTree();
+        Snapshot snapshot = heapDump.getSnapshot();
+        assertSame(node(snapshot, 2), tree.getDominator(node(snapshot, 4)));
+        assertTrue(cacheFile.length() > 3);
+    }
+
+    private static JavaHeapObject node(Snapshot snapshot, int index) {
+        return snapshot.findThing(SyntheticHeapDump.objectId(index));
+    }
+
+    private static long size(Snapshot snapshot, int index) {
+        return node(snapshot, index).getSize();
+    }
+
+}
@@ -40,17 +40,27 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Vector;
 import java.util.zip.GZIPInputStream;
 
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -58,6 +68,8 @@ import com.redhat.thermostat.vm.heap.analysis.common.model.HeapInfo;
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaClass;
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaHeapObject;
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.Snapshot;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.ProgressListener;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.ProgressListener.Phase;
 
 /*
  * This testcase uses a minimalistic heapdump that is stored as binary in
@@ -84,6 +96,7 @@ import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.Snapshot;
 public class HeapDumpTest {
 
     private static final String HEAP_ID = "TEST_HEAP_ID";
+    private static final String PERSISTENT_INDEX_HEAP_ID = "TEST_PERSISTENT_INDEX_HEAP_ID";
 
     private HeapDump heapDump;
     private HeapInfo heapInfo;
@@ -101,6 +114,12 @@ public class HeapDumpTest {
         heapDump = new HeapDump(heapInfo, heapDAO);
     }
 
+    @After
+    public void tearDown() {
+        deleteHeapDumpFiles(HEAP_ID);
+        deleteHeapDumpFiles(PERSISTENT_INDEX_HEAP_ID);
+    }
+
     @Test
     public void testSearchObjects() {
         Collection<String> foundObjectIds = heapDump.searchObjects("java.util.ArrayDeque", 10);
@@ -137,14 +156,38 @@ public class HeapDumpTest {
             things.add(obj2);
             when(mockSnapShot.getThings()).thenReturn(things.elements());
             HeapDump bareDump = new HeapDump(null, null, mockSnapShot);
-            Directory dir = bareDump.createLuceneIndex();
-            assertNotNull(dir);
+            Directory dir = new RAMDirectory();
+            bareDump.createLuceneIndex(dir);
+            assertTrue(DirectoryReader.indexExists(dir));
         } catch (Exception e) {
             e.printStackTrace();
             fail("Failed to create lucene index");
         }
     }
 
+    @Test
+    public void testSearchIndexIsReusedAcrossSessions() {
+        HeapInfo info = mock(HeapInfo.class);
+        when(info.getHeapId()).thenReturn(PERSISTENT_INDEX_HEAP_ID);
+        HeapDump first = new HeapDump(info, null, mockSnapshot("fake-class", "foo"));
+        assertEquals(Arrays.asList("foo"), first.searchObjects("fake-*", 10));
+        assertTrue(getIndexDir(PERSISTENT_INDEX_HEAP_ID).isDirectory());
+
+        Snapshot secondSnapshot = mockSnapshot("fake-class", "bar");
+        HeapDump second = new HeapDump(info, null, secondSnapshot);
+        assertEquals(Arrays.asList("foo"), second.searchObjects("fake-*", 10));
+        verifyZeroInteractions(secondSnapshot);
+    }
+
+    @Test
+    public void testIncompleteSearchIndexIsRebuilt() {
+        assertTrue(getIndexDir(PERSISTENT_INDEX_HEAP_ID).mkdirs());
+        HeapInfo info = mock(HeapInfo.class);
+        when(info.getHeapId()).thenReturn(PERSISTENT_INDEX_HEAP_ID);
+        HeapDump dump = new HeapDump(info, null, mockSnapshot("fake-class", "foo"));
+        assertEquals(Arrays.asList("foo"), dump.searchObjects("fake-*", 10));
+    }
+
     @Test
     public void testSearchObjectsWithLimit() {
         Collection<String> foundObjectIds = heapDump.searchObjects("java.util.ArrayDeque", 2);
@@ -169,6 +212,21 @@ public class HeapDumpTest {
         assertEquals(2, totalMatches);
     }
 
+    @Test
+    public void testGetSnapshotReportsProgress() {
+        ProgressListener progress = mock(ProgressListener.class);
+        Snapshot snapshot = heapDump.getSnapshot(progress);
+
+        assertNotNull(snapshot);
+        verify(progress, atLeastOnce()).progressChanged(eq(Phase.READING), anyLong(), anyLong());
+        verify(progress, atLeastOnce()).progressChanged(eq(Phase.RESOLVING), anyLong(), anyLong());
+
+        // already loaded, so there is nothing to report
+        ProgressListener secondProgress = mock(ProgressListener.class);
+        assertEquals(snapshot, heapDump.getSnapshot(secondProgress));
+        verifyNoMoreInteractions(secondProgress);
+    }
+
     @Test
     public void testFindObject() {
         JavaHeapObject obj = heapDump.findObject("0x7d704eb20");
@@ -229,5 +287,49 @@ public class HeapDumpTest {
             }
         }.wildcardSearch(inputPattern);
     }
-}
 
+    private static Snapshot mockSnapshot(String className, String objectId) {
+        JavaClass clazz = mock(JavaClass.class);
+        when(clazz.getName()).thenReturn(className);
+        JavaHeapObject obj = mock(JavaHeapObject.class);
+        when(obj.getClazz()).thenReturn(clazz);
+        when(obj.getIdString()).thenReturn(objectId);
+        Vector<JavaHeapObject> things = new Vector<>();
+        things.add(obj);
+        Snapshot snapshot = mock(Snapshot.class);
+        when(snapshot.getThings()).thenReturn(things.elements());
+        return snapshot;
+    }
+
+    /**
+     * Deletes the dump, index and any other cache file HeapDump left behind
+     * for the given heap.
+     */
+    private static void deleteHeapDumpFiles(String heapId) {
+        String name = "heapdump-" + heapId;
+        File[] files = getHeapDumpDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().equals(name) || file.getName().startsWith(name + ".")) {
+                File[] children = file.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        child.delete();
+                    }
+                }
+                file.delete();
+            }
+        }
+    }
+
+    private static File getHeapDumpDir() {
+        return new File(System.getProperty("java.io.tmpdir"), "thermostat-" + System.getProperty("user.name"));
+    }
+
+    private static File getIndexDir(String heapId) {
+        return new File(getHeapDumpDir(), "heapdump-" + heapId + ".index");
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaHeapObject;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.Snapshot;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser.Reader;
+
+public class HistogramLoaderTest {
+
+    private File dumpFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dumpFile = File.createTempFile("thermostat-histogram-", ".hprof");
+    }
+
+    @After
+    public void tearDown() {
+        dumpFile.delete();
+    }
+
+    /*
+     * The streaming scan has to agree with the histogram of the object model.
+     */
+    @Test
+    public void testHistogramMatchesSnapshot() throws Exception {
+        try (InputStream in = new GZIPInputStream(getClass().getResourceAsStream("/heapdump.hprof.gz"))) {
+            Files.copy(in, dumpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        ObjectHistogram histogram = new HistogramLoader().load(dumpFile.getAbsolutePath());
+
+        assertEquals(toSet(snapshotHistogram(dumpFile).getHistogram()), toSet(histogram.getHistogram()));
+    }
+
+    @Test
+    public void testHistogramOfSegmentedDump() throws Exception {
+        SyntheticHeapDump dump = new SyntheticHeapDump(10);
+        for (int i = 0; i < 10; i++) {
+            dump.addNode(i - 1, -1);
+        }
+        dump.addRoot(9);
+        dump.write(dumpFile, 3);
+
+        ObjectHistogram histogram = new HistogramLoader().load(dumpFile.getAbsolutePath());
+
+        Collection<HistogramRecord> records = histogram.getHistogram();
+        assertEquals(toSet(snapshotHistogram(dumpFile).getHistogram()), toSet(records));
+        // instance data and an object header of two 4 byte ids
+        assertEquals(true, records.contains(new HistogramRecord(SyntheticHeapDump.NODE_CLASS, 10, 10 * (8 + 8))));
+    }
+
+    private static ObjectHistogram snapshotHistogram(File file) throws Exception {
+        Snapshot snapshot = Reader.readFile(file.getAbsolutePath(), true, 0);
+        try {
+            snapshot.resolve(true);
+            ObjectHistogram histogram = new ObjectHistogram();
+            Enumeration<JavaHeapObject> things = snapshot.getThings();
+            while (things.hasMoreElements()) {
+                histogram.addThing(things.nextElement());
+            }
+            return histogram;
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static HashSet<HistogramRecord> toSet(Collection<HistogramRecord> records) {
+        return new HashSet<>(records);
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaClass;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaHeapObject;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaThing;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.Snapshot;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser.Reader;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.ProgressListener;
+
+/**
+ * Heap dump segments are parsed and resolved in parallel. The result must
+ * not depend on how many threads did the work.
+ */
+public class SegmentedHeapDumpTest {
+
+    private static final String PARALLELISM_PROPERTY = "jhat.parallelism";
+    private static final int OBJECTS = 20000;
+    private static final int OBJECTS_PER_SEGMENT = 150;
+
+    private File dumpFile;
+    private File objectTable;
+    private String oldParallelism;
+
+    @Before
+    public void setUp() throws IOException {
+        oldParallelism = System.getProperty(PARALLELISM_PROPERTY);
+        dumpFile = File.createTempFile("thermostat-segmented-", ".hprof");
+        objectTable = new File(dumpFile.getPath() + ".objects");
+
+        SyntheticHeapDump dump = new SyntheticHeapDump(OBJECTS);
+        Random random = new Random(42);
+        for (int i = 0; i < OBJECTS; i++) {
+            // many referers per object, from all over the dump
+            dump.addNode(random.nextInt(OBJECTS / 10), random.nextInt(OBJECTS));
+        }
+        dump.addRoot(0);
+        dump.addRoot(OBJECTS - 1);
+        dump.write(dumpFile, OBJECTS_PER_SEGMENT);
+    }
+
+    @After
+    public void tearDown() {
+        if (oldParallelism == null) {
+            System.clearProperty(PARALLELISM_PROPERTY);
+        } else {
+            System.setProperty(PARALLELISM_PROPERTY, oldParallelism);
+        }
+        dumpFile.delete();
+        objectTable.delete();
+    }
+
+    @Test
+    public void parallelLoadMatchesSingleThreadedLoad() throws Exception {
+        List<String> expected = load(1);
+        // instances are listed in file order
+        assertEquals(OBJECTS, expected.size());
+        for (int i = 0; i < OBJECTS; i++) {
+            String id = "0x" + Long.toHexString(SyntheticHeapDump.objectId(i));
+            assertEquals(id, expected.get(i).split(" ")[0]);
+        }
+        assertEquals(expected, load(4));
+        assertEquals(expected, load(4));
+    }
+
+    @Test
+    public void loadFromObjectTableMatchesFullLoad() throws Exception {
+        List<String> expected = load(4);
+        // the first load writes the table, the second one reads it
+        assertEquals(expected, load(4, objectTable));
+        assertTrue(objectTable.isFile());
+        // a table that is read is not written again
+        assertTrue(objectTable.setLastModified(1000L));
+        assertEquals(expected, load(4, objectTable));
+        assertEquals(1000L, objectTable.lastModified());
+        assertEquals(expected, load(1, objectTable));
+    }
+
+    @Test
+    public void invalidObjectTableIsRewritten() throws Exception {
+        List<String> expected = load(4);
+        try (FileOutputStream out = new FileOutputStream(objectTable)) {
+            out.write(new byte[] { 1, 2, 3 });
+        }
+        assertEquals(expected, load(4, objectTable));
+        assertTrue(objectTable.length() > 3);
+        assertEquals(expected, load(4, objectTable));
+    }
+
+    private List<String> load(int parallelism) throws Exception {
+        return load(parallelism, null);
+    }
+
+    // describes instances in order, each with its referers in order
+    private List<String> load(int parallelism, File table) throws Exception {
+        System.setProperty(PARALLELISM_PROPERTY, Integer.toString(parallelism));
+        Snapshot snapshot = Reader.readFile(dumpFile.getAbsolutePath(), true, 0, ProgressListener.NONE, table);
+        try {
+            snapshot.resolve(true);
+            assertEquals(2, snapshot.getRootsArray().length);
+
+            List<String> result = new ArrayList<>();
+            JavaClass node = snapshot.findClass(SyntheticHeapDump.NODE_CLASS);
+            Enumeration<JavaHeapObject> instances = node.getInstances(false);
+            while (instances.hasMoreElements()) {
+                JavaHeapObject instance = instances.nextElement();
+                StringBuilder description = new StringBuilder(instance.getIdString());
+                Enumeration<JavaThing> referers = instance.getReferers();
+                while (referers.hasMoreElements()) {
+                    description.append(' ').append(((JavaHeapObject) referers.nextElement()).getIdString());
+                }
+                result.add(description.toString());
+            }
+            return result;
+        } finally {
+            snapshot.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.redhat.thermostat.testutils.PerformanceTest;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaClass;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.JavaHeapObject;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.Snapshot;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser.Reader;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.ProgressListener;
+
+/**
+ * Times reading and resolving a synthetic heap dump of linked objects,
+ * split over many heap dump segments like dumps of large heaps are.
+ *
+ * JUnit categorized performance test. It'll be only run for
+ * the perf-tests profile during a full build.
+ */
+@Category(PerformanceTest.class)
+public class SnapshotLoadingPerformanceTest {
+
+    private static final boolean DEBUG = true;
+    private static final int OBJECTS = 2_000_000;
+    private static final int OBJECTS_PER_SEGMENT = 100_000;
+
+    private File dumpFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dumpFile = File.createTempFile("thermostat-synthetic-", ".hprof");
+        writeHeapDump(dumpFile);
+    }
+
+    @After
+    public void tearDown() {
+        dumpFile.delete();
+    }
+
+    @Test
+    public void loadSyntheticHeapDump() throws Exception {
+        final AtomicBoolean resolvedAll = new AtomicBoolean();
+        ProgressListener progress = new ProgressListener() {
+            @Override
+            public void progressChanged(Phase phase, long done, long total) {
+                if (phase == Phase.RESOLVING && done == total) {
+                    resolvedAll.set(true);
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        Snapshot snapshot = Reader.readFile(dumpFile.getAbsolutePath(), true, 0, progress);
+        long read = System.nanoTime();
+        snapshot.resolve(true, progress);
+        long resolved = System.nanoTime();
+
+        try {
+            if (DEBUG) {
+                System.out.println(SnapshotLoadingPerformanceTest.class.getSimpleName() + ":");
+                System.out.println("  " + OBJECTS + " objects, " + (dumpFile.length() >> 20) + " MB, "
+                        + Runtime.getRuntime().availableProcessors() + " processors");
+                System.out.println("  read:    " + TimeUnit.NANOSECONDS.toMillis(read - start) + " ms");
+                System.out.println("  resolve: " + TimeUnit.NANOSECONDS.toMillis(resolved - read) + " ms");
+            }
+
+            JavaClass node = snapshot.findClass(SyntheticHeapDump.NODE_CLASS);
+            assertEquals(OBJECTS, node.getInstancesCount(false));
+            // every node but the last is referred to by its successor
+            JavaHeapObject first = snapshot.findThing(SyntheticHeapDump.objectId(0));
+            assertTrue(first.getReferers().hasMoreElements());
+            assertTrue(resolvedAll.get());
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static void writeHeapDump(File file) throws IOException {
+        SyntheticHeapDump dump = new SyntheticHeapDump(OBJECTS);
+        Random random = new Random(42);
+        for (int i = 0; i < OBJECTS; i++) {
+            dump.addNode(i - 1, random.nextInt(OBJECTS));
+        }
+        dump.addRoot(OBJECTS - 1);
+        dump.write(file, OBJECTS_PER_SEGMENT);
+    }
+
+}
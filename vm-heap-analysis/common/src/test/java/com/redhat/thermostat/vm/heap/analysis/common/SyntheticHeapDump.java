@@ -0,0 +1,215 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.common;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes hprof files with instances of a single class {@code Node}, which has
+ * two reference fields {@code next} and {@code peer}. Nodes are referred to
+ * by index; -1 stands for null.
+ */
+class SyntheticHeapDump {
+
+    static final String NODE_CLASS = "Node";
+
+    private static final int HPROF_UTF8 = 0x01;
+    private static final int HPROF_LOAD_CLASS = 0x02;
+    private static final int HPROF_TRACE = 0x05;
+    private static final int HPROF_HEAP_DUMP_SEGMENT = 0x1c;
+    private static final int HPROF_HEAP_DUMP_END = 0x2c;
+    private static final int HPROF_GC_ROOT_UNKNOWN = 0xff;
+    private static final int HPROF_GC_CLASS_DUMP = 0x20;
+    private static final int HPROF_GC_INSTANCE_DUMP = 0x21;
+    private static final int TYPE_OBJECT = 2;
+    private static final int STACK_TRACE_SERIAL = 1;
+
+    private static final String[] CLASS_NAMES = {
+        "java/lang/Object", "java/lang/Class", "java/lang/String",
+        "java/lang/ClassLoader", NODE_CLASS,
+    };
+    private static final int NODE_CLASS_INDEX = CLASS_NAMES.length - 1;
+    private static final int NEXT_NAME_ID = 0x50;
+    private static final int PEER_NAME_ID = 0x51;
+    private static final int FIRST_OBJECT_ID = 0x100000;
+
+    private int[] next;
+    private int[] peer;
+    private int nodes;
+    private int[] roots = new int[4];
+    private int rootCount;
+
+    SyntheticHeapDump(int expectedNodes) {
+        next = new int[Math.max(expectedNodes, 1)];
+        peer = new int[next.length];
+    }
+
+    static long objectId(int node) {
+        return FIRST_OBJECT_ID + node * 16L;
+    }
+
+    /**
+     * @return the index of the new node
+     */
+    int addNode(int nextNode, int peerNode) {
+        if (nodes == next.length) {
+            next = Arrays.copyOf(next, nodes * 2);
+            peer = Arrays.copyOf(peer, nodes * 2);
+        }
+        next[nodes] = nextNode;
+        peer[nodes] = peerNode;
+        return nodes++;
+    }
+
+    void addRoot(int node) {
+        if (rootCount == roots.length) {
+            roots = Arrays.copyOf(roots, rootCount * 2);
+        }
+        roots[rootCount++] = node;
+    }
+
+    void write(File file, int nodesPerSegment) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write("JAVA PROFILE 1.0.2".getBytes(StandardCharsets.US_ASCII));
+            out.writeByte(0);
+            out.writeInt(4); // identifier size
+            out.writeLong(System.currentTimeMillis());
+
+            writeName(out, NEXT_NAME_ID, "next");
+            writeName(out, PEER_NAME_ID, "peer");
+            for (int i = 0; i < CLASS_NAMES.length; i++) {
+                writeName(out, i + 1, CLASS_NAMES[i]);
+                writeRecordHeader(out, HPROF_LOAD_CLASS, 16);
+                out.writeInt(i + 1);
+                out.writeInt((int) classId(i));
+                out.writeInt(STACK_TRACE_SERIAL);
+                out.writeInt(i + 1);
+            }
+            // an empty trace, which all objects refer to
+            writeRecordHeader(out, HPROF_TRACE, 12);
+            out.writeInt(STACK_TRACE_SERIAL);
+            out.writeInt(0);
+            out.writeInt(0);
+
+            ByteArrayOutputStream segmentBytes = new ByteArrayOutputStream();
+            DataOutputStream segment = new DataOutputStream(segmentBytes);
+            for (int i = 0; i < CLASS_NAMES.length; i++) {
+                writeClass(segment, i);
+            }
+            for (int i = 0; i < rootCount; i++) {
+                segment.writeByte(HPROF_GC_ROOT_UNKNOWN);
+                segment.writeInt((int) objectId(roots[i]));
+            }
+            for (int i = 0; i < nodes; i++) {
+                segment.writeByte(HPROF_GC_INSTANCE_DUMP);
+                segment.writeInt((int) objectId(i));
+                segment.writeInt(STACK_TRACE_SERIAL);
+                segment.writeInt((int) classId(NODE_CLASS_INDEX));
+                segment.writeInt(8);
+                segment.writeInt(next[i] < 0 ? 0 : (int) objectId(next[i]));
+                segment.writeInt(peer[i] < 0 ? 0 : (int) objectId(peer[i]));
+                if ((i + 1) % nodesPerSegment == 0 || i == nodes - 1) {
+                    writeSegment(out, segment, segmentBytes);
+                }
+            }
+            if (segmentBytes.size() > 0) {
+                writeSegment(out, segment, segmentBytes);
+            }
+            writeRecordHeader(out, HPROF_HEAP_DUMP_END, 0);
+        }
+    }
+
+    private static long classId(int index) {
+        return 0x100 * (index + 1);
+    }
+
+    private static void writeSegment(DataOutputStream out, DataOutputStream segment,
+            ByteArrayOutputStream segmentBytes) throws IOException {
+        segment.flush();
+        writeRecordHeader(out, HPROF_HEAP_DUMP_SEGMENT, segmentBytes.size());
+        segmentBytes.writeTo(out);
+        segmentBytes.reset();
+    }
+
+    private static void writeClass(DataOutputStream out, int index) throws IOException {
+        boolean node = index == NODE_CLASS_INDEX;
+        out.writeByte(HPROF_GC_CLASS_DUMP);
+        out.writeInt((int) classId(index));
+        out.writeInt(STACK_TRACE_SERIAL);
+        out.writeInt(index == 0 ? 0 : (int) classId(0)); // super class
+        out.writeInt(0); // class loader
+        out.writeInt(0); // signers
+        out.writeInt(0); // protection domain
+        out.writeInt(0); // reserved
+        out.writeInt(0); // reserved
+        out.writeInt(node ? 8 : 0); // instance size
+        out.writeShort(0); // constant pool entries
+        out.writeShort(0); // static fields
+        if (node) {
+            out.writeShort(2);
+            out.writeInt(NEXT_NAME_ID);
+            out.writeByte(TYPE_OBJECT);
+            out.writeInt(PEER_NAME_ID);
+            out.writeByte(TYPE_OBJECT);
+        } else {
+            out.writeShort(0);
+        }
+    }
+
+    private static void writeName(DataOutputStream out, int id, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        writeRecordHeader(out, HPROF_UTF8, 4 + bytes.length);
+        out.writeInt(id);
+        out.write(bytes);
+    }
+
+    private static void writeRecordHeader(DataOutputStream out, int type, int length) throws IOException {
+        out.writeByte(type);
+        out.writeInt(0); // timestamp
+        out.writeInt(length);
+    }
+
+}
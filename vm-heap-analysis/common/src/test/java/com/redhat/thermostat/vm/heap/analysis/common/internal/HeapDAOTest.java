@@ -43,6 +43,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -57,11 +58,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectOutputStream;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.redhat.thermostat.storage.core.Category;
 import com.redhat.thermostat.storage.core.CloseOnSave;
@@ -228,37 +235,59 @@ public class HeapDAOTest {
     }
 
     @Test
-    public void testPutHeapInfo() throws IOException,
+    public void testPutHeapInfo() throws IOException, InterruptedException,
             StatementExecutionException, DescriptorParsingException {
         @SuppressWarnings("unchecked")
         PreparedStatement<HeapInfo> add = mock(PreparedStatement.class);
         when(storage.prepareStatement(anyDescriptor())).thenReturn(add);
-        Runnable cleanup = mock(Runnable.class);
+        final Map<String, byte[]> savedFiles = new ConcurrentHashMap<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                InputStream in = (InputStream) invocation.getArguments()[1];
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int b;
+                while ((b = in.read()) != -1) {
+                    out.write(b);
+                }
+                savedFiles.put((String) invocation.getArguments()[0], out.toByteArray());
+                ((SaveFileListener) invocation.getArguments()[2]).notify(EventType.SAVE_COMPLETE, null);
+                return null;
+            }
+        }).when(storage).saveFile(anyString(), any(InputStream.class), any(SaveFileListener.class));
+        when(storage.loadFile(anyString())).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                return new ByteArrayInputStream(savedFiles.get(invocation.getArguments()[0]));
+            }
+        });
+        final CountDownLatch cleanedUp = new CountDownLatch(1);
+        Runnable cleanup = new Runnable() {
+            @Override
+            public void run() {
+                cleanedUp.countDown();
+            }
+        };
         dao.putHeapInfo(heapInfo, heapDumpData, histogram, cleanup);
 
         doAddHeapInfoVerifications(storage, add, heapInfo);
 
-        ArgumentCaptor<InputStream> data = ArgumentCaptor.forClass(InputStream.class);
-        ArgumentCaptor<SaveFileListener> saveListener = ArgumentCaptor.forClass(SaveFileListener.class);
-        verify(storage).saveFile(eq("heapdump-test-vm1-12345"), data.capture(), saveListener.capture());
-        InputStream in = data.getValue();
+        // the heap dump is uploaded in the background
+        assertTrue(cleanedUp.await(5, TimeUnit.SECONDS));
+        verify(storage).saveFile(eq("heapdump-test-vm1-12345.chunk-0"), isA(InputStream.class), isA(SaveFileListener.class));
+        verify(storage).saveFile(eq("heapdump-test-vm1-12345"), isA(InputStream.class), isA(SaveFileListener.class));
+        InputStream in = dao.getHeapDumpData(heapInfo);
         assertEquals(1, in.read());
         assertEquals(2, in.read());
         assertEquals(3, in.read());
         assertEquals(-1, in.read());
-        saveListener.getValue().notify(EventType.SAVE_COMPLETE, null);
-        verify(cleanup).run();
         assertEquals("test-vm1-12345", heapInfo.getHeapId());
-        ArgumentCaptor<InputStream> histoStream = ArgumentCaptor.forClass(InputStream.class);
-        verify(storage).saveFile(eq("histogram-test-vm1-12345"), histoStream.capture(), isA(CloseOnSave.class));
-        InputStream histoActual = histoStream.getValue();
-        int expected;
-        int actual;
-        do {
-            expected = histogramData.read();
-            actual = histoActual.read();
-            assertEquals(expected, actual);
-        } while (expected != -1 && actual != -1);
+        verify(storage).saveFile(eq("histogram-test-vm1-12345"), isA(InputStream.class), isA(CloseOnSave.class));
+        InputStream histoActual = new ByteArrayInputStream(savedFiles.get("histogram-test-vm1-12345"));
+        Collection<HistogramRecord> histoRecs = HistogramFormat.read(histoActual).getHistogram();
+        assertEquals(2, histoRecs.size());
+        assertTrue(histoRecs.contains(new HistogramRecord("class1", 2, 8)));
+        assertTrue(histoRecs.contains(new HistogramRecord("class2", 1, 10)));
     }
 
     @Test
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.common.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Collection;
+
+import org.junit.Test;
+
+import com.redhat.thermostat.vm.heap.analysis.common.HistogramRecord;
+import com.redhat.thermostat.vm.heap.analysis.common.ObjectHistogram;
+
+public class HistogramFormatTest {
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        ObjectHistogram histogram = new ObjectHistogram();
+        histogram.addRecord(new HistogramRecord("java.lang.String", 3, 72));
+        histogram.addRecord(new HistogramRecord("[I", 1, Long.MAX_VALUE));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HistogramFormat.write(histogram, out);
+        ObjectHistogram read = HistogramFormat.read(new ByteArrayInputStream(out.toByteArray()));
+
+        Collection<HistogramRecord> records = read.getHistogram();
+        assertEquals(2, records.size());
+        assertTrue(records.contains(new HistogramRecord("java.lang.String", 3, 72)));
+        assertTrue(records.contains(new HistogramRecord("[I", 1, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testReadSerializedHistogram() throws IOException {
+        ObjectHistogram histogram = new ObjectHistogram();
+        histogram.addRecord(new HistogramRecord("java.lang.String", 3, 72));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(histogram);
+        oos.close();
+
+        ObjectHistogram read = HistogramFormat.read(new ByteArrayInputStream(out.toByteArray()));
+
+        Collection<HistogramRecord> records = read.getHistogram();
+        assertEquals(1, records.size());
+        assertTrue(records.contains(new HistogramRecord("java.lang.String", 3, 72)));
+    }
+
+    @Test
+    public void testReadRejectsUnknownData() {
+        try {
+            HistogramFormat.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 }));
+            fail("should not accept unknown data");
+        } catch (IOException expected) {
+            // pass
+        }
+    }
+
+    @Test
+    public void testReadRejectsNewerVersion() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HistogramFormat.write(new ObjectHistogram(), out);
+        byte[] data = out.toByteArray();
+        data[4] = (byte) (HistogramFormat.VERSION + 1);
+        try {
+            HistogramFormat.read(new ByteArrayInputStream(data));
+            fail("should not accept a newer version");
+        } catch (IOException expected) {
+            // pass
+        }
+    }
+
+}
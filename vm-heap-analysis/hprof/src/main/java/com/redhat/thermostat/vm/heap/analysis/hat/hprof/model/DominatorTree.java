@@ -0,0 +1,525 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.hat.hprof.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The dominator tree of the objects in a {@link Snapshot}, with the retained
+ * size of every object.
+ * <p>
+ * An object <i>d</i> dominates an object <i>o</i> if every path from a GC
+ * root to <i>o</i> goes through <i>d</i>. The retained size of <i>d</i> is
+ * the total size of the objects it dominates, itself included: the memory
+ * that would be freed if <i>d</i> were no longer referenced. The referent of
+ * a {@code java.lang.ref.Reference} does not count as a reference. Objects
+ * that can not be reached from a GC root have no dominator and a retained
+ * size of 0.
+ * <p>
+ * Dominators are computed with the Lengauer-Tarjan algorithm. The reference
+ * graph is kept in int arrays indexed like the heap objects of the snapshot,
+ * plus an artificial node 0 which refers to all GC roots. Node
+ * <i>i</i>&nbsp;+&nbsp;1 is the heap object at index <i>i</i>.
+ */
+public class DominatorTree {
+
+    private static final int CACHE_MAGIC = 0x74686474;
+    // version 2 added the retained sizes by class name
+    private static final int CACHE_VERSION = 2;
+
+    private static final int ROOT = 0;
+    private static final int UNREACHABLE = -1;
+
+    private final Snapshot snapshot;
+    // immediate dominator of each node: ROOT if only the artificial root
+    // dominates it, or UNREACHABLE
+    private final int[] dominators;
+    // retained size of each node
+    private final long[] retainedSizes;
+
+    private Map<JavaClass, Long> classRetainedSizes;
+
+    /**
+     * Computes the dominator tree of a snapshot. The snapshot must be
+     * resolved.
+     */
+    public DominatorTree(Snapshot snapshot) {
+        this.snapshot = snapshot;
+        Graph graph = new Graph(snapshot);
+        this.dominators = computeDominators(graph);
+        this.retainedSizes = computeRetainedSizes(snapshot, dominators, graph.order, graph.reached);
+    }
+
+    private DominatorTree(Snapshot snapshot, int[] dominators, long[] retainedSizes) {
+        this.snapshot = snapshot;
+        this.dominators = dominators;
+        this.retainedSizes = retainedSizes;
+    }
+
+    /**
+     * @return the immediate dominator of {@code obj}, or null if it is only
+     * dominated by the GC roots as a whole, or is not reachable at all
+     */
+    public JavaHeapObject getDominator(JavaHeapObject obj) {
+        int node = nodeOf(obj);
+        if (node == UNREACHABLE || dominators[node] <= ROOT) {
+            return null;
+        }
+        return snapshot.getThingAt(dominators[node] - 1);
+    }
+
+    /**
+     * @return the number of bytes that would be freed if {@code obj} were
+     * no longer referenced
+     */
+    public long getRetainedSize(JavaHeapObject obj) {
+        int node = nodeOf(obj);
+        return node == UNREACHABLE ? 0 : retainedSizes[node];
+    }
+
+    /**
+     * @return the number of bytes that would be freed if no instance of a
+     * class were referenced any more, for each class with reachable
+     * instances. Instances dominated by other instances of the same class
+     * are only counted once.
+     */
+    public synchronized Map<JavaClass, Long> getRetainedSizesByClass() {
+        if (classRetainedSizes == null) {
+            classRetainedSizes = Collections.unmodifiableMap(computeClassRetainedSizes());
+        }
+        return classRetainedSizes;
+    }
+
+    /**
+     * Writes this tree to a stream, so that it can be {@link #read} again
+     * instead of computing it for the same heap dump. The retained sizes by
+     * class are written as well, see {@link #readRetainedSizesByClassName}.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(CACHE_MAGIC);
+        data.writeInt(CACHE_VERSION);
+        data.writeInt(dominators.length);
+        Map<JavaClass, Long> byClass = getRetainedSizesByClass();
+        data.writeInt(byClass.size());
+        for (Map.Entry<JavaClass, Long> entry : byClass.entrySet()) {
+            data.writeUTF(entry.getKey().getName());
+            data.writeLong(entry.getValue());
+        }
+        for (int node = 0; node < dominators.length; node++) {
+            data.writeInt(dominators[node]);
+            data.writeLong(retainedSizes[node]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a tree written by {@link #write} for the same heap dump.
+     *
+     * @throws IOException if the stream does not hold a tree for a snapshot
+     * with as many objects as {@code snapshot}
+     */
+    public static DominatorTree read(Snapshot snapshot, InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        int nodes = readHeader(data);
+        if (nodes != snapshot.getThingsCount() + 1) {
+            throw new IOException("Dominator tree has " + (nodes - 1) + " objects, "
+                    + "but the snapshot has " + snapshot.getThingsCount());
+        }
+        readClassRetainedSizes(data);
+        int[] dominators = new int[nodes];
+        long[] retainedSizes = new long[nodes];
+        for (int node = 0; node < nodes; node++) {
+            dominators[node] = data.readInt();
+            retainedSizes[node] = data.readLong();
+        }
+        return new DominatorTree(snapshot, dominators, retainedSizes);
+    }
+
+    /**
+     * Reads the retained sizes by class of a tree written by {@link #write},
+     * without the snapshot it was computed for. Sizes of classes with the
+     * same name, but different class loaders, are added up.
+     *
+     * @return the number of bytes that would be freed if no instance of a
+     * class were referenced any more, by class name
+     * @see #getRetainedSizesByClass()
+     */
+    public static Map<String, Long> readRetainedSizesByClassName(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        readHeader(data);
+        return readClassRetainedSizes(data);
+    }
+
+    // returns the number of nodes
+    private static int readHeader(DataInputStream data) throws IOException {
+        if (data.readInt() != CACHE_MAGIC || data.readInt() != CACHE_VERSION) {
+            throw new IOException("Not a dominator tree");
+        }
+        return data.readInt();
+    }
+
+    private static Map<String, Long> readClassRetainedSizes(DataInputStream data) throws IOException {
+        int classes = data.readInt();
+        Map<String, Long> result = new HashMap<>();
+        for (int i = 0; i < classes; i++) {
+            String name = data.readUTF();
+            long size = data.readLong();
+            Long previous = result.get(name);
+            result.put(name, previous == null ? size : previous + size);
+        }
+        return result;
+    }
+
+    private int nodeOf(JavaHeapObject obj) {
+        int index = snapshot.indexOf(obj);
+        return index < 0 ? UNREACHABLE : index + 1;
+    }
+
+    //
+    // The reference graph as successor and predecessor lists, and the
+    // nodes in depth first order from the artificial root.
+    //
+    private static class Graph {
+        final int nodes;
+        // references of node v are successors[successorStart[v]] up to
+        // successors[successorStart[v + 1]], likewise for predecessors
+        final int[] successorStart;
+        final int[] successors;
+        final int[] predecessorStart;
+        final int[] predecessors;
+        // depth first number of each node, starting at 1, or 0 if the node
+        // can not be reached
+        final int[] number;
+        // order[k] is the node with number k; parent is its parent in the
+        // depth first tree
+        final int[] order;
+        final int[] parent;
+        // number of reached nodes
+        final int reached;
+
+        Graph(Snapshot snapshot) {
+            nodes = snapshot.getThingsCount() + 1;
+            EdgeCollector edges = new EdgeCollector(snapshot);
+            successorStart = new int[nodes + 1];
+            for (Enumeration<Root> roots = snapshot.getRoots(); roots.hasMoreElements(); ) {
+                JavaHeapObject t = snapshot.findThing(roots.nextElement().getId());
+                if (t != null) {
+                    edges.visit(t);
+                }
+            }
+            for (int index = 0; index < nodes - 1; index++) {
+                successorStart[index + 1] = edges.size;
+                snapshot.getThingAt(index).visitReferencedObjects(edges);
+            }
+            successorStart[nodes] = edges.size;
+            successors = edges.targets;
+
+            predecessorStart = new int[nodes + 1];
+            for (int e = 0; e < edges.size; e++) {
+                predecessorStart[successors[e] + 1]++;
+            }
+            for (int node = 0; node < nodes; node++) {
+                predecessorStart[node + 1] += predecessorStart[node];
+            }
+            predecessors = new int[edges.size];
+            int[] fill = Arrays.copyOf(predecessorStart, nodes);
+            for (int node = 0; node < nodes; node++) {
+                for (int e = successorStart[node]; e < successorStart[node + 1]; e++) {
+                    predecessors[fill[successors[e]]++] = node;
+                }
+            }
+            fill = null;
+
+            number = new int[nodes];
+            order = new int[nodes + 1];
+            parent = new int[nodes];
+            reached = depthFirstSearch();
+        }
+
+        private int depthFirstSearch() {
+            int[] stack = new int[nodes];
+            int[] next = new int[nodes];
+            int count = 0;
+            int top = 0;
+            number[ROOT] = ++count;
+            order[count] = ROOT;
+            next[ROOT] = successorStart[ROOT];
+            stack[top++] = ROOT;
+            while (top > 0) {
+                int v = stack[top - 1];
+                if (next[v] < successorStart[v + 1]) {
+                    int w = successors[next[v]++];
+                    if (number[w] == 0) {
+                        number[w] = ++count;
+                        order[count] = w;
+                        parent[w] = v;
+                        next[w] = successorStart[w];
+                        stack[top++] = w;
+                    }
+                } else {
+                    top--;
+                }
+            }
+            return count;
+        }
+    }
+
+    //
+    // Appends the node of each visited object to a growing int array.
+    //
+    private static class EdgeCollector extends AbstractJavaHeapObjectVisitor {
+        private static final int MAX_EDGES = Integer.MAX_VALUE - 8;
+
+        private final Snapshot snapshot;
+        private final JavaClass referenceClass;
+        int[] targets = new int[1024];
+        int size;
+
+        EdgeCollector(Snapshot snapshot) {
+            this.snapshot = snapshot;
+            this.referenceClass = snapshot.getWeakReferenceClass();
+        }
+
+        @Override
+        public void visit(JavaHeapObject other) {
+            int index = snapshot.indexOf(other);
+            if (index < 0) {
+                return;
+            }
+            if (size == targets.length) {
+                if (size == MAX_EDGES) {
+                    throw new IllegalStateException("More than " + MAX_EDGES + " references");
+                }
+                targets = Arrays.copyOf(targets, (int) Math.min((long) size + (size >> 1), MAX_EDGES));
+            }
+            targets[size++] = index + 1;
+        }
+
+        @Override
+        public boolean mightExclude() {
+            return referenceClass != null;
+        }
+
+        @Override
+        public boolean exclude(JavaClass clazz, JavaField f) {
+            return clazz == referenceClass && "referent".equals(f.getName());
+        }
+    }
+
+    //
+    // Lengauer-Tarjan with path compression. semi holds depth first numbers,
+    // everything else holds nodes.
+    //
+    private static int[] computeDominators(Graph graph) {
+        int nodes = graph.nodes;
+        int[] number = graph.number;
+        int[] order = graph.order;
+        int[] parent = graph.parent;
+
+        int[] semi = Arrays.copyOf(number, nodes);
+        int[] label = new int[nodes];
+        int[] ancestor = new int[nodes];
+        int[] dominators = new int[nodes];
+        int[] bucket = new int[nodes];
+        int[] nextInBucket = new int[nodes];
+        int[] path = new int[nodes];
+        for (int node = 0; node < nodes; node++) {
+            label[node] = node;
+            ancestor[node] = -1;
+            bucket[node] = -1;
+            dominators[node] = UNREACHABLE;
+        }
+
+        for (int k = graph.reached; k >= 2; k--) {
+            int w = order[k];
+            for (int e = graph.predecessorStart[w]; e < graph.predecessorStart[w + 1]; e++) {
+                int v = graph.predecessors[e];
+                if (number[v] == 0) {
+                    continue;
+                }
+                int u = eval(v, ancestor, label, semi, path);
+                if (semi[u] < semi[w]) {
+                    semi[w] = semi[u];
+                }
+            }
+            int s = order[semi[w]];
+            nextInBucket[w] = bucket[s];
+            bucket[s] = w;
+
+            int p = parent[w];
+            ancestor[w] = p;
+            for (int v = bucket[p]; v != -1; v = nextInBucket[v]) {
+                int u = eval(v, ancestor, label, semi, path);
+                dominators[v] = semi[u] < semi[v] ? u : p;
+            }
+            bucket[p] = -1;
+        }
+        for (int k = 2; k <= graph.reached; k++) {
+            int w = order[k];
+            if (dominators[w] != order[semi[w]]) {
+                dominators[w] = dominators[dominators[w]];
+            }
+        }
+        dominators[ROOT] = UNREACHABLE;
+        return dominators;
+    }
+
+    // Returns the node with the smallest semi-dominator on the path from v
+    // up to the root of its tree in the forest built so far, compressing
+    // the path on the way.
+    private static int eval(int v, int[] ancestor, int[] label, int[] semi, int[] path) {
+        if (ancestor[v] == -1) {
+            return v;
+        }
+        int length = 0;
+        int u = v;
+        while (ancestor[ancestor[u]] != -1) {
+            path[length++] = u;
+            u = ancestor[u];
+        }
+        while (length > 0) {
+            int x = path[--length];
+            int a = ancestor[x];
+            if (semi[label[a]] < semi[label[x]]) {
+                label[x] = label[a];
+            }
+            ancestor[x] = ancestor[a];
+        }
+        return label[v];
+    }
+
+    // Dominators come before the nodes they dominate in depth first order,
+    // so going through that order backwards adds up each subtree before
+    // its size is needed.
+    private static long[] computeRetainedSizes(Snapshot snapshot, int[] dominators, int[] order, int reached) {
+        long[] retained = new long[dominators.length];
+        for (int k = reached; k >= 2; k--) {
+            int w = order[k];
+            retained[w] += snapshot.getThingAt(w - 1).getSize();
+            retained[dominators[w]] += retained[w];
+        }
+        return retained;
+    }
+
+    // Walks the dominator tree and adds the retained size of each instance
+    // that has no instance of the same class above it.
+    private Map<JavaClass, Long> computeClassRetainedSizes() {
+        int nodes = dominators.length;
+        int[] childStart = new int[nodes + 1];
+        for (int node = 1; node < nodes; node++) {
+            if (dominators[node] != UNREACHABLE) {
+                childStart[dominators[node] + 1]++;
+            }
+        }
+        for (int node = 0; node < nodes; node++) {
+            childStart[node + 1] += childStart[node];
+        }
+        int[] children = new int[childStart[nodes]];
+        int[] fill = Arrays.copyOf(childStart, nodes);
+        for (int node = 1; node < nodes; node++) {
+            if (dominators[node] != UNREACHABLE) {
+                children[fill[dominators[node]]++] = node;
+            }
+        }
+        fill = null;
+
+        Map<JavaClass, Integer> classIndexes = new IdentityHashMap<>();
+        long[] sizes = new long[16];
+        int[] depths = new int[16];
+        JavaClass[] classes = new JavaClass[16];
+
+        int[] stack = new int[nodes];
+        int[] next = new int[nodes];
+        int[] stackClass = new int[nodes];
+        int top = 0;
+        stack[top] = ROOT;
+        next[top] = childStart[ROOT];
+        stackClass[top] = -1;
+        top++;
+        while (top > 0) {
+            int v = stack[top - 1];
+            if (next[top - 1] < childStart[v + 1]) {
+                int w = children[next[top - 1]++];
+                JavaClass clazz = snapshot.getThingAt(w - 1).getClazz();
+                Integer c = classIndexes.get(clazz);
+                if (c == null) {
+                    c = classIndexes.size();
+                    classIndexes.put(clazz, c);
+                    if (c == classes.length) {
+                        classes = Arrays.copyOf(classes, c * 2);
+                        sizes = Arrays.copyOf(sizes, c * 2);
+                        depths = Arrays.copyOf(depths, c * 2);
+                    }
+                    classes[c] = clazz;
+                }
+                if (depths[c]++ == 0) {
+                    sizes[c] += retainedSizes[w];
+                }
+                stack[top] = w;
+                next[top] = childStart[w];
+                stackClass[top] = c;
+                top++;
+            } else {
+                top--;
+                if (stackClass[top] >= 0) {
+                    depths[stackClass[top]]--;
+                }
+            }
+        }
+
+        Map<JavaClass, Long> result = new HashMap<>();
+        for (int c = 0; c < classIndexes.size(); c++) {
+            result.put(classes[c], sizes[c]);
+        }
+        return result;
+    }
+
+}
@@ -33,7 +33,7 @@
 package com.redhat.thermostat.vm.heap.analysis.hat.hprof.model;
 
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.Misc;
@@ -86,8 +86,9 @@ public abstract class JavaHeapObject extends JavaThing {
     //
     void setupReferers() {
         if (referersLen > 1) {
-            // Copy referers to map, screening out duplicates
-            Map<JavaThing, JavaThing> map = new HashMap<JavaThing, JavaThing>();
+            // Copy referers to map, screening out duplicates. The map keeps
+            // the order in which referers were added.
+            Map<JavaThing, JavaThing> map = new LinkedHashMap<JavaThing, JavaThing>();
             for (int i = 0; i < referersLen; i++) {
                 if (map.get(referers[i]) == null) {
                     map.put(referers[i], referers[i]);
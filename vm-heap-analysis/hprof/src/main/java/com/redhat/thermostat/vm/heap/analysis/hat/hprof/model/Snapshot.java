@@ -34,9 +34,14 @@ package com.redhat.thermostat.vm.heap.analysis.hat.hprof.model;
 
 import java.lang.ref.SoftReference;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser.ReadBuffer;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.LongHashMap;
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.Misc;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.ProgressListener;
 
 /**
  *
@@ -57,12 +62,17 @@ public class Snapshot implements AutoCloseable {
     private static final JavaField[] EMPTY_FIELD_ARRAY = new JavaField[0];
     private static final JavaStatic[] EMPTY_STATIC_ARRAY = new JavaStatic[0];
 
-    // all heap objects
-    private Hashtable<Number, JavaHeapObject> heapObjects =
-                 new Hashtable<Number, JavaHeapObject>();
+    // number of heap objects handled by one task in the parallel parts of
+    // resolve(), and between two progress updates in the sequential parts
+    private static final int RESOLVE_CHUNK = 4096;
 
-    private Hashtable<Number, JavaClass> fakeClasses =
-                 new Hashtable<Number, JavaClass>();
+    // all heap objects, keyed by id. See toKey() for the keys. Every object
+    // in the dump is materialized up front and kept here.
+    private LongHashMap<JavaHeapObject> heapObjects =
+                 new LongHashMap<JavaHeapObject>();
+
+    private LongHashMap<JavaClass> fakeClasses =
+                 new LongHashMap<JavaClass>();
 
     // all Roots in this Snapshot
     private Vector<Root> roots = new Vector<Root>();
@@ -164,7 +174,7 @@ public class Snapshot implements AutoCloseable {
     }
 
     public void addHeapObject(long id, JavaHeapObject ho) {
-        heapObjects.put(makeId(id), ho);
+        heapObjects.put(toKey(id), ho);
     }
 
     public void addRoot(Root r) {
@@ -200,7 +210,7 @@ public class Snapshot implements AutoCloseable {
         JavaClass c = new JavaClass(name, 0, 0, 0, 0, fields,
                                  EMPTY_STATIC_ARRAY, instSize);
         // Add the class
-        addFakeClass(makeId(classID), c);
+        addFakeClass(toKey(classID), c);
         return c;
     }
 
@@ -216,12 +226,105 @@ public class Snapshot implements AutoCloseable {
     }
 
     //
-    // Used in the body of resolve()
+    // Counts the objects done by resolve(), which may be updated from
+    // several threads at once.
+    //
+    private static class ResolveProgress {
+        private final ProgressListener listener;
+        private final AtomicLong done = new AtomicLong();
+        private final long total;
+
+        ResolveProgress(ProgressListener listener, long total) {
+            this.listener = listener;
+            this.total = total;
+        }
+
+        void add(int count) {
+            long now = done.addAndGet(count);
+            listener.progressChanged(ProgressListener.Phase.RESOLVING,
+                                     Math.min(now, total), total);
+        }
+    }
+
+    //
+    // Walks a range of heapObjects, splitting it up until each task has at
+    // most RESOLVE_CHUNK objects, and sets up the referers of each object.
+    //
+    private class SetupReferersTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final ResolveProgress progress;
+
+        SetupReferersTask(int from, int to, ResolveProgress progress) {
+            this.from = from;
+            this.to = to;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > RESOLVE_CHUNK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SetupReferersTask(from, mid, progress),
+                          new SetupReferersTask(mid, to, progress));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                heapObjects.valueAt(i).setupReferers();
+            }
+            progress.add(to - from);
+        }
+    }
+
+    //
+    // Collects the objects that the heap objects in a range refer to. The
+    // references are only recorded here; merge() adds them to the referers
+    // of their targets on a single thread, in the order of the heap objects,
+    // so referers come out the same however the work was scheduled.
     //
-    private static class MyVisitor extends AbstractJavaHeapObjectVisitor {
-        JavaHeapObject t;
-        public void visit(JavaHeapObject other) {
-            other.addReferenceFrom(t);
+    private class ReferenceChunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final List<JavaHeapObject> targets =
+                new ArrayList<JavaHeapObject>();
+        // ends[i - from] is where the targets of object i end in targets
+        private final int[] ends;
+
+        ReferenceChunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+            this.ends = new int[to - from];
+        }
+
+        @Override
+        protected void compute() {
+            AbstractJavaHeapObjectVisitor visitor =
+                    new AbstractJavaHeapObjectVisitor() {
+                public void visit(JavaHeapObject other) {
+                    targets.add(other);
+                }
+            };
+            for (int i = from; i < to; i++) {
+                heapObjects.valueAt(i).visitReferencedObjects(visitor);
+                ends[i - from] = targets.size();
+            }
+        }
+
+        int merge() {
+            int start = 0;
+            for (int i = from; i < to; i++) {
+                JavaHeapObject t = heapObjects.valueAt(i);
+                int end = ends[i - from];
+                for (int j = start; j < end; j++) {
+                    targets.get(j).addReferenceFrom(t);
+                }
+                start = end;
+            }
+            return to - from;
         }
     }
 
@@ -229,6 +332,25 @@ public class Snapshot implements AutoCloseable {
      * Called after reading complete, to initialize the structure
      */
     public void resolve(boolean calculateRefs) {
+        resolve(calculateRefs, ProgressListener.NONE);
+    }
+
+    /**
+     * Called after reading complete, to initialize the structure. Objects
+     * are linked to their classes one by one, in the order they were read,
+     * so that the instances of each class are always listed in that order.
+     * Calculating references and setting up referers, which take most of
+     * the time for large heaps, are spread over a pool from
+     * {@link Misc#newWorkerPool()}. References are added in the order of the
+     * objects, so the referers of each object do not depend on scheduling.
+     *
+     * @param progress receives {@link ProgressListener.Phase#RESOLVING}
+     * updates, counted in objects
+     */
+    public void resolve(boolean calculateRefs, ProgressListener progress) {
+        ResolveProgress resolved = new ResolveProgress(progress,
+                (long) heapObjects.size() * (calculateRefs ? 3 : 2));
+
         // First, resolve the classes.  All classes must be resolved before
         // we try any objects, because the objects use classes in their
         // resolution.
@@ -254,18 +376,24 @@ public class Snapshot implements AutoCloseable {
             addFakeClass(javaLangClassLoader);
         }
 
-        for (JavaHeapObject t : heapObjects.values()) {
+        for (JavaHeapObject t : heapObjects) {
             if (t instanceof JavaClass) {
                 t.resolve(this);
             }
         }
 
         // Now, resolve everything else.
-        for (JavaHeapObject t : heapObjects.values()) {
+        int count = 0;
+        for (JavaHeapObject t : heapObjects) {
             if (!(t instanceof JavaClass)) {
                 t.resolve(this);
             }
+            if (++count == RESOLVE_CHUNK) {
+                resolved.add(count);
+                count = 0;
+            }
         }
+        resolved.add(count);
 
         heapObjects.putAll(fakeClasses);
         fakeClasses.clear();
@@ -282,13 +410,14 @@ public class Snapshot implements AutoCloseable {
             }
         }
 
-        if (calculateRefs) {
-            calculateReferencesToObjects();
-        }
-        int count = 0;
-        for (JavaHeapObject t : heapObjects.values()) {
-            t.setupReferers();
-            ++count;
+        ForkJoinPool pool = Misc.newWorkerPool();
+        try {
+            if (calculateRefs) {
+                calculateReferencesToObjects(pool, resolved);
+            }
+            pool.invoke(new SetupReferersTask(0, heapObjects.size(), resolved));
+        } finally {
+            pool.shutdown();
         }
 
         // to ensure that Iterator.remove() on getClasses()
@@ -296,14 +425,26 @@ public class Snapshot implements AutoCloseable {
         classes = Collections.unmodifiableMap(classes);
     }
 
-    private void calculateReferencesToObjects() {
-        int count = 0;
-        MyVisitor visitor = new MyVisitor();
-        for (JavaHeapObject t : heapObjects.values()) {
-            visitor.t = t;
-            // call addReferenceFrom(t) on all objects t references:
-            t.visitReferencedObjects(visitor);
-            ++count;
+    private void calculateReferencesToObjects(ForkJoinPool pool,
+                                              ResolveProgress resolved) {
+        // Chunks are merged in order as they complete, while the pool works
+        // on the next ones. Only a few chunks per thread are queued at a
+        // time, which bounds the references held before they are merged.
+        int count = heapObjects.size();
+        int window = 4 * pool.getParallelism();
+        ArrayDeque<ReferenceChunk> pending = new ArrayDeque<ReferenceChunk>();
+        int next = 0;
+        while (next < count || !pending.isEmpty()) {
+            while (next < count && pending.size() < window) {
+                ReferenceChunk chunk = new ReferenceChunk(next,
+                        Math.min(count, next + RESOLVE_CHUNK));
+                pool.execute(chunk);
+                pending.add(chunk);
+                next += RESOLVE_CHUNK;
+            }
+            ReferenceChunk chunk = pending.remove();
+            chunk.join();
+            resolved.add(chunk.merge());
         }
         for (Root r : roots) {
             r.resolve(this);
@@ -316,7 +457,7 @@ public class Snapshot implements AutoCloseable {
 
     public void markNewRelativeTo(Snapshot baseline) {
         hasNewSet = true;
-        for (JavaHeapObject t : heapObjects.values()) {
+        for (JavaHeapObject t : heapObjects) {
             boolean isNew;
             long thingID = t.getId();
             if (thingID == 0L || thingID == -1L) {
@@ -337,11 +478,28 @@ public class Snapshot implements AutoCloseable {
         return heapObjects.elements();
     }
 
+    //
+    // Dense access to the heap objects, for analyses like DominatorTree that
+    // keep per-object data in arrays. Indexes are stable after resolve().
+    //
+    int getThingsCount() {
+        return heapObjects.size();
+    }
+
+    JavaHeapObject getThingAt(int index) {
+        return heapObjects.valueAt(index);
+    }
+
+    int indexOf(JavaHeapObject thing) {
+        int index = heapObjects.indexOf(toKey(thing.getId()));
+        return index >= 0 && heapObjects.valueAt(index) == thing ? index : -1;
+    }
+
 
     public JavaHeapObject findThing(long id) {
-        Number idObj = makeId(id);
-        JavaHeapObject jho = heapObjects.get(idObj);
-        return jho != null? jho : fakeClasses.get(idObj);
+        long key = toKey(id);
+        JavaHeapObject jho = heapObjects.get(key);
+        return jho != null? jho : fakeClasses.get(key);
     }
 
     public JavaHeapObject findThing(String id) {
@@ -555,9 +713,10 @@ public class Snapshot implements AutoCloseable {
     }
 
     // Internals only below this point
-    private Number makeId(long id) {
+    // With 4 byte identifiers, ids are looked up by their low 32 bits only
+    private long toKey(long id) {
         if (identifierSize == 4) {
-            return (int)id;
+            return id & SMALL_ID_MASK;
         } else {
             return id;
         }
@@ -579,7 +738,7 @@ public class Snapshot implements AutoCloseable {
         c.resolve(this);
     }
 
-    private void addFakeClass(Number id, JavaClass c) {
+    private void addFakeClass(long id, JavaClass c) {
         fakeClasses.put(id, c);
         addFakeClass(c);
     }
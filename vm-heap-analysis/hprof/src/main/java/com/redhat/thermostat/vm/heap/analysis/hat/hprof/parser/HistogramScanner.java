@@ -0,0 +1,397 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.redhat.thermostat.common.utils.LoggingUtils;
+
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.ArrayTypeCodes;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.Snapshot;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.LongHashMap;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.Misc;
+
+/**
+ * Computes the class histogram of a heap dump in a single pass over the
+ * file, without building a {@link Snapshot}. Only names and a few counters
+ * per class are kept in memory, so the memory needed does not grow with the
+ * number of objects in the dump.
+ * <p>
+ * Classes are named and objects are sized the same way as by the
+ * {@link Snapshot} model, so the histogram is the same as one computed from
+ * {@link Snapshot#getThings()}.
+ */
+public class HistogramScanner {
+
+    /**
+     * Receives the histogram, one call per class with instances.
+     */
+    public interface Visitor {
+        void visitClass(String className, long instances, long totalSize);
+    }
+
+    private static final Logger logger = LoggingUtils.getLogger(HistogramScanner.class);
+
+    private static final String JAVA_LANG_CLASS = "java.lang.Class";
+    private static final String OTHER_ARRAY_TYPE = "[<other>";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int T_CLASS = 2;
+
+    // per class id: whether it was dumped, and its instances and arrays
+    private static class ClassCounter {
+        final long classId;
+        boolean dumped;
+        int instanceSize;
+        long instances;
+        long instancesSize;
+        long arrays;
+        long arraysSize;
+
+        ClassCounter(long classId) {
+            this.classId = classId;
+        }
+    }
+
+    private final PositionDataInputStream in;
+    private int identifierSize;
+    private LongHashMap<String> names = new LongHashMap<>();
+    private final LongHashMap<String> classNameFromObjectID = new LongHashMap<>();
+    private final LongHashMap<ClassCounter> classes = new LongHashMap<>();
+    // primitive arrays, by type code
+    private final long[] primitiveArrays = new long[ArrayTypeCodes.T_LONG + 1];
+    private final long[] primitiveArraysSize = new long[ArrayTypeCodes.T_LONG + 1];
+
+    private HistogramScanner(PositionDataInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Scans the first heap dump in {@code heapFile}. Only hprof 1.0.1 and
+     * 1.0.2 files are supported.
+     */
+    public static void scan(String heapFile, Visitor visitor) throws IOException {
+        try (PositionDataInputStream in = new PositionDataInputStream(
+                new BufferedInputStream(new FileInputStream(heapFile), BUFFER_SIZE))) {
+            int magic = in.readInt();
+            if (magic != HprofReader.MAGIC_NUMBER) {
+                throw new IOException("Unrecognized magic number: " + magic);
+            }
+            HistogramScanner scanner = new HistogramScanner(in);
+            scanner.scanRecords();
+            scanner.report(visitor);
+        }
+    }
+
+    private void scanRecords() throws IOException {
+        readVersionHeader();
+        identifierSize = in.readInt();
+        if (identifierSize != 4 && identifierSize != 8) {
+            throw new IOException("Unsupported identifier size " + identifierSize);
+        }
+        in.readLong(); // creation time stamp
+
+        for (;;) {
+            int type;
+            try {
+                type = in.readUnsignedByte();
+            } catch (EOFException ignored) {
+                return;
+            }
+            in.readInt(); // time stamp
+            long length = in.readInt() & 0xffffffffL;
+            switch (type) {
+            case HprofReader.HPROF_UTF8: {
+                long id = readID();
+                byte[] chars = new byte[(int) length - identifierSize];
+                in.readFully(chars);
+                names.put(id, new String(chars));
+                break;
+            }
+            case HprofReader.HPROF_LOAD_CLASS: {
+                in.readInt(); // serial number
+                long classId = readID();
+                in.readInt(); // stack trace serial number
+                long nameId = readID();
+                String name = names.get(nameId);
+                if (name == null) {
+                    name = "unresolved name " + Misc.toHex(nameId);
+                }
+                classNameFromObjectID.put(classId, name.replace('/', '.'));
+                break;
+            }
+            case HprofReader.HPROF_HEAP_DUMP:
+                scanHeapDump(length);
+                // only the first heap dump is scanned
+                return;
+            case HprofReader.HPROF_HEAP_DUMP_SEGMENT:
+                scanHeapDump(length);
+                break;
+            case HprofReader.HPROF_HEAP_DUMP_END:
+                return;
+            default:
+                skip(length);
+            }
+        }
+    }
+
+    private void readVersionHeader() throws IOException {
+        StringBuilder version = new StringBuilder();
+        for (int c = in.readUnsignedByte(); c != 0; c = in.readUnsignedByte()) {
+            version.append((char) c);
+        }
+        // the magic number holds "JAVA"
+        String header = version.toString();
+        if (!header.equals(" PROFILE 1.0.1") && !header.equals(" PROFILE 1.0.2")) {
+            throw new IOException("Unsupported hprof version: JAVA" + header);
+        }
+    }
+
+    private void scanHeapDump(long length) throws IOException {
+        long end = in.position() + length;
+        try {
+            while (in.position() < end) {
+                int type = in.readUnsignedByte();
+                switch (type) {
+                case HprofReader.HPROF_GC_ROOT_UNKNOWN:
+                case HprofReader.HPROF_GC_ROOT_STICKY_CLASS:
+                case HprofReader.HPROF_GC_ROOT_MONITOR_USED:
+                    skip(identifierSize);
+                    break;
+                case HprofReader.HPROF_GC_ROOT_JNI_GLOBAL:
+                    skip(2 * identifierSize);
+                    break;
+                case HprofReader.HPROF_GC_ROOT_NATIVE_STACK:
+                case HprofReader.HPROF_GC_ROOT_THREAD_BLOCK:
+                    skip(identifierSize + 4);
+                    break;
+                case HprofReader.HPROF_GC_ROOT_THREAD_OBJ:
+                case HprofReader.HPROF_GC_ROOT_JNI_LOCAL:
+                case HprofReader.HPROF_GC_ROOT_JAVA_FRAME:
+                    skip(identifierSize + 8);
+                    break;
+                case HprofReader.HPROF_GC_CLASS_DUMP:
+                    scanClass();
+                    break;
+                case HprofReader.HPROF_GC_INSTANCE_DUMP: {
+                    skip(identifierSize + 4); // id, stack trace
+                    long classId = readID();
+                    int bytesFollowing = in.readInt();
+                    ClassCounter counter = counterFor(classId);
+                    counter.instances++;
+                    counter.instancesSize += bytesFollowing + minimumObjectSize();
+                    skip(bytesFollowing);
+                    break;
+                }
+                case HprofReader.HPROF_GC_OBJ_ARRAY_DUMP: {
+                    skip(identifierSize + 4); // id, stack trace
+                    int num = in.readInt();
+                    long arrayClassId = readID();
+                    ClassCounter counter = counterFor(arrayClassId);
+                    long size = (long) num * identifierSize;
+                    counter.arrays++;
+                    counter.arraysSize += size + minimumObjectSize();
+                    skip(size);
+                    break;
+                }
+                case HprofReader.HPROF_GC_PRIM_ARRAY_DUMP: {
+                    skip(identifierSize + 4); // id, stack trace
+                    int num = in.readInt();
+                    int typeCode = in.readUnsignedByte();
+                    int elementSize = elementSize(typeCode);
+                    long size = (long) num * elementSize;
+                    primitiveArrays[typeCode]++;
+                    primitiveArraysSize[typeCode] += size + minimumObjectSize();
+                    skip(size);
+                    break;
+                }
+                default:
+                    throw new IOException("Unrecognized heap dump sub-record type: " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // a truncated dump; like HprofReader, use what could be read
+            logger.log(Level.WARNING, "Unexpected EOF. Will miss information...");
+        }
+    }
+
+    private void scanClass() throws IOException {
+        long classId = readID();
+        // stack trace, super class, class loader, signers, protection
+        // domain and two reserved ids
+        skip(4 + 6 * identifierSize);
+        int instanceSize = in.readInt();
+
+        int constantPoolEntries = in.readUnsignedShort();
+        for (int i = 0; i < constantPoolEntries; i++) {
+            in.readUnsignedShort(); // index
+            skipValue(in.readUnsignedByte());
+        }
+        int statics = in.readUnsignedShort();
+        for (int i = 0; i < statics; i++) {
+            skip(identifierSize); // name
+            skipValue(in.readUnsignedByte());
+        }
+        int fields = in.readUnsignedShort();
+        skip(fields * (identifierSize + 1L));
+
+        ClassCounter counter = counterFor(classId);
+        counter.dumped = true;
+        counter.instanceSize = instanceSize;
+    }
+
+    private void skipValue(int typeCode) throws IOException {
+        skip(typeCode == T_CLASS ? identifierSize : elementSize(typeCode));
+    }
+
+    private static int elementSize(int typeCode) throws IOException {
+        switch (typeCode) {
+        case ArrayTypeCodes.T_BOOLEAN:
+        case ArrayTypeCodes.T_BYTE:
+            return 1;
+        case ArrayTypeCodes.T_CHAR:
+        case ArrayTypeCodes.T_SHORT:
+            return 2;
+        case ArrayTypeCodes.T_FLOAT:
+        case ArrayTypeCodes.T_INT:
+            return 4;
+        case ArrayTypeCodes.T_DOUBLE:
+        case ArrayTypeCodes.T_LONG:
+            return 8;
+        default:
+            throw new IOException("Invalid type id of " + typeCode);
+        }
+    }
+
+    private static char signature(int typeCode) {
+        switch (typeCode) {
+        case ArrayTypeCodes.T_BOOLEAN: return 'Z';
+        case ArrayTypeCodes.T_BYTE:    return 'B';
+        case ArrayTypeCodes.T_CHAR:    return 'C';
+        case ArrayTypeCodes.T_SHORT:   return 'S';
+        case ArrayTypeCodes.T_FLOAT:   return 'F';
+        case ArrayTypeCodes.T_INT:     return 'I';
+        case ArrayTypeCodes.T_DOUBLE:  return 'D';
+        default:                    return 'J';
+        }
+    }
+
+    private ClassCounter counterFor(long classId) {
+        ClassCounter counter = classes.get(classId);
+        if (counter == null) {
+            counter = new ClassCounter(classId);
+            classes.put(classId, counter);
+        }
+        return counter;
+    }
+
+    private int minimumObjectSize() {
+        return 2 * identifierSize;
+    }
+
+    private long readID() throws IOException {
+        return identifierSize == 4
+                ? Snapshot.SMALL_ID_MASK & (long) in.readInt()
+                : in.readLong();
+    }
+
+    private void skip(long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private void report(Visitor visitor) {
+        names = null;
+
+        long classObjects = 0;
+        int classObjectSize = 0;
+        long otherArrays = 0;
+        long otherArraysSize = 0;
+        for (ClassCounter counter : classes) {
+            long classId = counter.classId;
+            String name = classNameFromObjectID.get(classId);
+            if (counter.dumped) {
+                classObjects++;
+                if (name == null) {
+                    name = "unknown-name@" + Misc.toHex(classId);
+                } else if (name.equals(JAVA_LANG_CLASS)) {
+                    classObjectSize = counter.instanceSize + minimumObjectSize();
+                }
+                long instances = counter.instances + counter.arrays;
+                if (instances > 0) {
+                    visitor.visitClass(name, instances, counter.instancesSize + counter.arraysSize);
+                }
+            } else {
+                // the model makes up classes for these
+                if (counter.instances > 0) {
+                    visitor.visitClass("unknown-class<@" + Misc.toHex(classId) + ">",
+                            counter.instances, counter.instancesSize);
+                }
+                otherArrays += counter.arrays;
+                otherArraysSize += counter.arraysSize;
+            }
+        }
+        if (classObjects > 0) {
+            visitor.visitClass(JAVA_LANG_CLASS, classObjects, classObjects * classObjectSize);
+        }
+        if (otherArrays > 0) {
+            visitor.visitClass(OTHER_ARRAY_TYPE, otherArrays, otherArraysSize);
+        }
+        for (int typeCode = 0; typeCode < primitiveArrays.length; typeCode++) {
+            if (primitiveArrays[typeCode] > 0) {
+                visitor.visitClass("[" + signature(typeCode),
+                        primitiveArrays[typeCode], primitiveArraysSize[typeCode]);
+            }
+        }
+    }
+
+}
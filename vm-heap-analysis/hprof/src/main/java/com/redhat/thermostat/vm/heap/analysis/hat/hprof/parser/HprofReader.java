@@ -33,13 +33,35 @@
 package com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.*;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.LongHashMap;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.Misc;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.ProgressListener;
 
 /**
  * Object that's used to read a hprof file.
+ * <p>
+ * The file is read in two passes. The first pass reads the records in order,
+ * keeping names, classes and stack traces, and only notes where the heap dump
+ * segments are. The second pass parses the heap dump segments in parallel
+ * from the mapped file, and adds what they contain to the snapshot in file
+ * order.
+ * <p>
+ * If given an object table file, the reader writes the heap objects and
+ * roots it finds in the heap dump segments to it, with the offsets of their
+ * records. Reading the same file again with that table skips parsing the
+ * heap dump segments: only class dumps are read again, at their recorded
+ * offsets.
  *
  * @author      Bill Foote
  */
@@ -115,6 +137,19 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
     static final int HPROF_HEAP_DUMP_SEGMENT     = 0x1c;
     static final int HPROF_HEAP_DUMP_END         = 0x2c;
 
+    //
+    // Object table file format: a header with the hprof file length, the
+    // dump number, the identifier size and the start and end of each heap
+    // dump segment, followed by the objects and then the roots of each
+    // segment in file order.
+    //
+    private static final int OBJECT_TABLE_MAGIC = 0x74686f74;
+    private static final int OBJECT_TABLE_VERSION = 1;
+    private static final byte TABLE_CLASS = 1;
+    private static final byte TABLE_INSTANCE = 2;
+    private static final byte TABLE_OBJECT_ARRAY = 3;
+    private static final byte TABLE_VALUE_ARRAY = 4;
+
     private final static int T_CLASS = 2;
 
     private int version;        // The version of .hprof being read
@@ -122,11 +157,12 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
     private int debugLevel;
     private long currPos;        // Current position in the file
 
+    private final int dumpNumber;
     private int dumpsToSkip;
     private boolean callStack;  // If true, read the call stack of objects
 
     private int identifierSize;         // Size, in bytes, of identifiers.
-    private Hashtable<Long, String> names;
+    private LongHashMap<String> names;
 
     // Hashtable<Integer, ThreadObject>, used to map the thread sequence number
     // (aka "serial number") to the thread object ID for
@@ -134,16 +170,16 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
     // at the end of this file.
     private Hashtable<Integer, ThreadObject> threadObjects;
 
-    // Hashtable<Long, String>, maps class object ID to class name
+    // LongHashMap<String>, maps class object ID to class name
     // (with / converted to .)
-    private Hashtable<Long, String> classNameFromObjectID;
+    private LongHashMap<String> classNameFromObjectID;
 
     // Hashtable<Integer, Integer>, maps class serial # to class object ID
     private Hashtable<Integer, String> classNameFromSerialNo;
 
-    // Hashtable<Long, StackFrame> maps stack frame ID to StackFrame.
+    // LongHashMap<StackFrame> maps stack frame ID to StackFrame.
     // Null if we're not tracking them.
-    private Hashtable<Long, StackFrame> stackFrames;
+    private LongHashMap<StackFrame> stackFrames;
 
     // Hashtable<Integer, StackTrace> maps stack frame ID to StackTrace
     // Null if we're not tracking them.
@@ -151,20 +187,60 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
 
     private Snapshot snapshot;
 
+    // The mapped file, which the heap dump segments are parsed from
+    private final ReadBuffer readBuffer;
+
+    // Heap dump segments of the dump being read, found by the first pass
+    private final List<HeapDumpSegment> segments = new ArrayList<HeapDumpSegment>();
+    private static final int SEGMENT_BUFFER_SIZE = 64 * 1024;
+
+    // Progress is reported whenever another 1/PROGRESS_STEPS of the file
+    // has been read, rather than for every record.
+    private static final int PROGRESS_STEPS = 100;
+    private final ProgressListener progress;
+    private final long fileLength;
+    private long nextProgressPos;
+    private final File objectTable;
+
     public HprofReader(String fileName, PositionDataInputStream in,
                        int dumpNumber, boolean callStack, int debugLevel)
                        throws IOException {
+        this(fileName, in, dumpNumber, callStack, debugLevel,
+             ProgressListener.NONE);
+    }
+
+    public HprofReader(String fileName, PositionDataInputStream in,
+                       int dumpNumber, boolean callStack, int debugLevel,
+                       ProgressListener progress)
+                       throws IOException {
+        this(fileName, in, dumpNumber, callStack, debugLevel, progress, null);
+    }
+
+    /**
+     * @param objectTable the object table of the file, which is written if
+     *        it does not exist yet or does not match the file, or
+     *        {@code null}
+     */
+    public HprofReader(String fileName, PositionDataInputStream in,
+                       int dumpNumber, boolean callStack, int debugLevel,
+                       ProgressListener progress, File objectTable)
+                       throws IOException {
         super(in);
+        this.objectTable = objectTable;
+        this.dumpNumber = dumpNumber;
         RandomAccessFile file = new RandomAccessFile(fileName, "r");
-        this.snapshot = new Snapshot(MappedReadBuffer.create(file));
+        this.fileLength = file.length();
+        this.progress = progress;
+        this.readBuffer = MappedReadBuffer.create(file);
+        this.snapshot = new Snapshot(readBuffer);
         this.dumpsToSkip = dumpNumber - 1;
         this.callStack = callStack;
         this.debugLevel = debugLevel;
-        names = new Hashtable<Long, String>();
+        names = new LongHashMap<String>();
         threadObjects = new Hashtable<Integer, ThreadObject>(43);
-        classNameFromObjectID = new Hashtable<Long, String>();
+        classNameFromObjectID = new LongHashMap<String>();
         if (callStack) {
-            stackFrames = new Hashtable<Long, StackFrame>(43);
+            stackFrames = new LongHashMap<StackFrame>(43);
             stackTraces = new Hashtable<Integer, StackTrace>(43);
             classNameFromSerialNo = new Hashtable<Integer, String>();
         }
@@ -210,6 +286,10 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
                                       + " of file.");
             }
             currPos += 9 + length;
+            if (segments.isEmpty()) {
+                // segments report progress as they are added to the snapshot
+                reportProgress(currPos - length);
+            }
             switch (type) {
                 case HPROF_UTF8: {
                     long id = readID();
@@ -223,9 +303,8 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
                     long classID = readID();
                     int stackTraceSerialNo = in.readInt();
                     long classNameID = readID();
-                    Long classIdI = classID;
                     String nm = getNameFromID(classNameID).replace('/', '.');
-                    classNameFromObjectID.put(classIdI, nm);
+                    classNameFromObjectID.put(classID, nm);
                     if (classNameFromSerialNo != null) {
                         classNameFromSerialNo.put(serialNo, nm);
                     }
@@ -234,11 +313,8 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
 
                 case HPROF_HEAP_DUMP: {
                     if (dumpsToSkip <= 0) {
-                        try {
-                            readHeapDump(length, currPos);
-                        } catch (EOFException exp) {
-                            handleEOF(exp, snapshot);
-                        }
+                        addHeapDumpSegment(currPos - length, length);
+                        readHeapDumpSegments();
                         if (debugLevel > 0) {
                             System.out.println("    Finished processing instances in heap dump.");
                         }
@@ -254,6 +330,7 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
                     if (version >= VERSION_JDK6) {
                         if (dumpsToSkip <= 0) {
                             skipBytes(length);  // should be no-op
+                            readHeapDumpSegments();
                             return snapshot;
                         } else {
                             // skip this dump (of the end record for a sequence of dump segments)
@@ -270,12 +347,9 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
                 case HPROF_HEAP_DUMP_SEGMENT: {
                     if (version >= VERSION_JDK6) {
                         if (dumpsToSkip <= 0) {
-                            try {
-                                // read the dump segment
-                                readHeapDump(length, currPos);
-                            } catch (EOFException exp) {
-                                handleEOF(exp, snapshot);
-                            }
+                            // only note where the segment is, it is parsed
+                            // with the others at the end of the dump
+                            addHeapDumpSegment(currPos - length, length);
                         } else {
                             // all segments comprising the heap dump will be skipped
                             skipBytes(length);
@@ -350,11 +424,156 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
             }
         }
 
+        // the file ended without a HPROF_HEAP_DUMP_END
+        readHeapDumpSegments();
         return snapshot;
     }
 
     private void skipBytes(long length) throws IOException {
-        in.skipBytes((int)length);
+        // heap dump segments can be longer than 2 GB
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                break;
+            }
+            length -= skipped;
+        }
+    }
+
+    private void addHeapDumpSegment(long start, long length) throws IOException {
+        // a truncated file ends the segment early, which is reported as EOF
+        long end = Math.min(start + length, fileLength);
+        segments.add(new HeapDumpSegment(start, end));
+        skipBytes(length);
+    }
+
+    //
+    // Parses the heap dump segments found so far on a pool, and adds them
+    // to the snapshot in file order as they complete.
+    //
+    private void readHeapDumpSegments() throws IOException {
+        if (objectTable != null && objectTable.isFile() && readObjectTable()) {
+            for (HeapDumpSegment segment : segments) {
+                segment.addTo(snapshot);
+                reportProgress(segment.segmentEnd);
+            }
+            segments.clear();
+            return;
+        }
+        File tableFile = null;
+        DataOutputStream table = null;
+        if (objectTable != null) {
+            // written under a unique name, so that concurrent reads of the
+            // same file never see a partial table
+            try {
+                tableFile = File.createTempFile(objectTable.getName(), ".tmp",
+                                                objectTable.getAbsoluteFile().getParentFile());
+                table = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tableFile)));
+                writeObjectTableHeader(table);
+            } catch (IOException e) {
+                warn("Unable to write object table " + objectTable + ": " + e);
+                table = finishObjectTable(table, tableFile, false);
+            }
+        }
+        ForkJoinPool pool = Misc.newWorkerPool();
+        boolean complete = false;
+        try {
+            for (HeapDumpSegment segment : segments) {
+                segment.recordTable = table != null;
+                pool.execute(segment);
+            }
+            for (HeapDumpSegment segment : segments) {
+                segment.join();
+                segment.addTo(snapshot);
+                if (table != null) {
+                    try {
+                        segment.writeTable(table);
+                    } catch (IOException e) {
+                        warn("Unable to write object table " + objectTable + ": " + e);
+                        table = finishObjectTable(table, tableFile, false);
+                    }
+                }
+                reportProgress(segment.segmentEnd);
+            }
+            complete = true;
+        } finally {
+            // stops the remaining segments if adding one of them failed
+            pool.shutdownNow();
+            finishObjectTable(table, tableFile, complete);
+        }
+        segments.clear();
+    }
+
+    private void writeObjectTableHeader(DataOutputStream table) throws IOException {
+        table.writeInt(OBJECT_TABLE_MAGIC);
+        table.writeInt(OBJECT_TABLE_VERSION);
+        table.writeLong(fileLength);
+        table.writeInt(dumpNumber);
+        table.writeInt(identifierSize);
+        table.writeInt(segments.size());
+        for (HeapDumpSegment segment : segments) {
+            table.writeLong(segment.segmentStart);
+            table.writeLong(segment.segmentEnd);
+        }
+    }
+
+    //
+    // Closes a table being written, and moves it into place if it is
+    // complete or deletes it otherwise. Failing to store the table does not
+    // affect the snapshot. Returns null for convenience.
+    //
+    private DataOutputStream finishObjectTable(DataOutputStream table, File tableFile, boolean complete) {
+        if (tableFile == null) {
+            return null;
+        }
+        try {
+            if (table != null) {
+                table.close();
+                if (complete) {
+                    Files.move(tableFile.toPath(), objectTable.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException e) {
+            warn("Unable to write object table " + objectTable + ": " + e);
+        } finally {
+            tableFile.delete();
+        }
+        return null;
+    }
+
+    //
+    // Fills the segments from the object table instead of parsing them.
+    // Returns false, with the segments untouched, if the table does not
+    // match the file or can not be read.
+    //
+    private boolean readObjectTable() {
+        List<HeapDumpSegment> read = new ArrayList<HeapDumpSegment>(segments.size());
+        try (DataInputStream table = new DataInputStream(new BufferedInputStream(new FileInputStream(objectTable)))) {
+            if (table.readInt() != OBJECT_TABLE_MAGIC
+                    || table.readInt() != OBJECT_TABLE_VERSION
+                    || table.readLong() != fileLength
+                    || table.readInt() != dumpNumber
+                    || table.readInt() != identifierSize
+                    || table.readInt() != segments.size()) {
+                return false;
+            }
+            for (HeapDumpSegment segment : segments) {
+                if (table.readLong() != segment.segmentStart || table.readLong() != segment.segmentEnd) {
+                    return false;
+                }
+            }
+            for (HeapDumpSegment segment : segments) {
+                HeapDumpSegment copy = new HeapDumpSegment(segment.segmentStart, segment.segmentEnd);
+                copy.readTable(table);
+                read.add(copy);
+            }
+        } catch (IOException e) {
+            warn("Ignoring unreadable object table " + objectTable + ": " + e);
+            return false;
+        }
+        segments.clear();
+        segments.addAll(read);
+        return true;
     }
 
     private int readVersionHeader() throws IOException {
@@ -383,129 +602,11 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
         throw new IOException("Version string not recognized at byte " + (pos+3));
     }
 
-    private void readHeapDump(long bytesLeft, long posAtEnd) throws IOException {
-        while (bytesLeft > 0) {
-            int type = in.readUnsignedByte();
-            if (debugLevel > 0) {
-                System.out.println("    Read heap sub-record type " + type
-                                   + " at position "
-                                   + toHex(posAtEnd - bytesLeft));
-            }
-            bytesLeft--;
-            switch(type) {
-                case HPROF_GC_ROOT_UNKNOWN: {
-                    long id = readID();
-                    bytesLeft -= identifierSize;
-                    snapshot.addRoot(new Root(id, 0, Root.UNKNOWN, ""));
-                    break;
-                }
-                case HPROF_GC_ROOT_THREAD_OBJ: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    int stackSeq = in.readInt();
-                    bytesLeft -= identifierSize + 8;
-                    threadObjects.put(threadSeq,
-                                      new ThreadObject(id, stackSeq));
-                    break;
-                }
-                case HPROF_GC_ROOT_JNI_GLOBAL: {
-                    long id = readID();
-                    long globalRefId = readID();        // Ignored, for now
-                    bytesLeft -= 2*identifierSize;
-                    snapshot.addRoot(new Root(id, 0, Root.NATIVE_STATIC, ""));
-                    break;
-                }
-                case HPROF_GC_ROOT_JNI_LOCAL: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    int depth = in.readInt();
-                    bytesLeft -= identifierSize + 8;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    if (st != null) {
-                        st = st.traceForDepth(depth+1);
-                    }
-                    snapshot.addRoot(new Root(id, to.threadId,
-                                              Root.NATIVE_LOCAL, "", st));
-                    break;
-                }
-                case HPROF_GC_ROOT_JAVA_FRAME: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    int depth = in.readInt();
-                    bytesLeft -= identifierSize + 8;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    if (st != null) {
-                        st = st.traceForDepth(depth+1);
-                    }
-                    snapshot.addRoot(new Root(id, to.threadId,
-                                              Root.JAVA_LOCAL, "", st));
-                    break;
-                }
-                case HPROF_GC_ROOT_NATIVE_STACK: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    bytesLeft -= identifierSize + 4;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    snapshot.addRoot(new Root(id, to.threadId,
-                                              Root.NATIVE_STACK, "", st));
-                    break;
-                }
-                case HPROF_GC_ROOT_STICKY_CLASS: {
-                    long id = readID();
-                    bytesLeft -= identifierSize;
-                    snapshot.addRoot(new Root(id, 0, Root.SYSTEM_CLASS, ""));
-                    break;
-                }
-                case HPROF_GC_ROOT_THREAD_BLOCK: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    bytesLeft -= identifierSize + 4;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    snapshot.addRoot(new Root(id, to.threadId,
-                                     Root.THREAD_BLOCK, "", st));
-                    break;
-                }
-                case HPROF_GC_ROOT_MONITOR_USED: {
-                    long id = readID();
-                    bytesLeft -= identifierSize;
-                    snapshot.addRoot(new Root(id, 0, Root.BUSY_MONITOR, ""));
-                    break;
-                }
-                case HPROF_GC_CLASS_DUMP: {
-                    int bytesRead = readClass();
-                    bytesLeft -= bytesRead;
-                    break;
-                }
-                case HPROF_GC_INSTANCE_DUMP: {
-                    int bytesRead = readInstance();
-                    bytesLeft -= bytesRead;
-                    break;
-                }
-                case HPROF_GC_OBJ_ARRAY_DUMP: {
-                    int bytesRead = readArray(false);
-                    bytesLeft -= bytesRead;
-                    break;
-                }
-                case HPROF_GC_PRIM_ARRAY_DUMP: {
-                    int bytesRead = readArray(true);
-                    bytesLeft -= bytesRead;
-                    break;
-                }
-                default: {
-                    throw new IOException("Unrecognized heap dump sub-record type:  " + type);
-                }
-            }
-        }
-        if (bytesLeft != 0) {
-            warn("Error reading heap dump or heap dump segment:  Byte count is " + bytesLeft + " instead of 0");
-            skipBytes(bytesLeft);
-        }
-        if (debugLevel > 0) {
-            System.out.println("    Finished heap sub-records.");
+    private void reportProgress(long pos) {
+        if (pos >= nextProgressPos) {
+            progress.progressChanged(ProgressListener.Phase.READING,
+                                     pos, fileLength);
+            nextProgressPos = pos + Math.max(1, fileLength / PROGRESS_STEPS);
         }
     }
 
@@ -514,100 +615,6 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
             (Snapshot.SMALL_ID_MASK & (long)in.readInt()) : in.readLong();
     }
 
-    //
-    // Read a java value.  If result is non-null, it's expected to be an
-    // array of one element.  We use it to fake multiple return values.
-    // @returns the number of bytes read
-    //
-    private int readValue(JavaThing[] resultArr) throws IOException {
-        byte type = in.readByte();
-        return 1 + readValueForType(type, resultArr);
-    }
-
-    private int readValueForType(byte type, JavaThing[] resultArr)
-            throws IOException {
-        if (version >= VERSION_JDK12BETA4) {
-            type = signatureFromTypeId(type);
-        }
-        return readValueForTypeSignature(type, resultArr);
-    }
-
-    private int readValueForTypeSignature(byte type, JavaThing[] resultArr)
-            throws IOException {
-        switch (type) {
-            case '[':
-            case 'L': {
-                long id = readID();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaObjectRef(id);
-                }
-                return identifierSize;
-            }
-            case 'Z': {
-                int b = in.readByte();
-                if (b != 0 && b != 1) {
-                    warn("Illegal boolean value read");
-                }
-                if (resultArr != null) {
-                    resultArr[0] = new JavaBoolean(b != 0);
-                }
-                return 1;
-            }
-            case 'B': {
-                byte b = in.readByte();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaByte(b);
-                }
-                return 1;
-            }
-            case 'S': {
-                short s = in.readShort();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaShort(s);
-                }
-                return 2;
-            }
-            case 'C': {
-                char ch = in.readChar();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaChar(ch);
-                }
-                return 2;
-            }
-            case 'I': {
-                int val = in.readInt();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaInt(val);
-                }
-                return 4;
-            }
-            case 'J': {
-                long val = in.readLong();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaLong(val);
-                }
-                return 8;
-            }
-            case 'F': {
-                float val = in.readFloat();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaFloat(val);
-                }
-                return 4;
-            }
-            case 'D': {
-                double val = in.readDouble();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaDouble(val);
-                }
-                return 8;
-            }
-            default: {
-                throw new IOException("Bad value signature:  " + type);
-            }
-        }
-    }
-
     private ThreadObject getThreadObjectFromSequence(int threadSeq)
             throws IOException {
         ThreadObject to = threadObjects.get(threadSeq);
@@ -619,17 +626,13 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
     }
 
     private String getNameFromID(long id) throws IOException {
-        return getNameFromID(Long.valueOf(id));
-    }
-
-    private String getNameFromID(Long id) throws IOException {
-        if (id.longValue() == 0L) {
+        if (id == 0L) {
             return "";
         }
         String result = names.get(id);
         if (result == null) {
-            warn("Name not found at " + toHex(id.longValue()));
-            return "unresolved name " + toHex(id.longValue());
+            warn("Name not found at " + toHex(id));
+            return "unresolved name " + toHex(id);
         }
         return result;
     }
@@ -645,188 +648,10 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
         return result;
     }
 
-    //
-    // Handle a HPROF_GC_CLASS_DUMP
-    // Return number of bytes read
-    //
-    private int readClass() throws IOException {
-        long id = readID();
-        StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
-        long superId = readID();
-        long classLoaderId = readID();
-        long signersId = readID();
-        long protDomainId = readID();
-        long reserved1 = readID();
-        long reserved2 = readID();
-        int instanceSize = in.readInt();
-        int bytesRead = 7 * identifierSize + 8;
-
-        int numConstPoolEntries = in.readUnsignedShort();
-        bytesRead += 2;
-        for (int i = 0; i < numConstPoolEntries; i++) {
-            int index = in.readUnsignedShort(); // unused
-            bytesRead += 2;
-            bytesRead += readValue(null);       // We ignore the values
-        }
-
-        int numStatics = in.readUnsignedShort();
-        bytesRead += 2;
-        JavaThing[] valueBin = new JavaThing[1];
-        JavaStatic[] statics = new JavaStatic[numStatics];
-        for (int i = 0; i < numStatics; i++) {
-            long nameId = readID();
-            bytesRead += identifierSize;
-            byte type = in.readByte();
-            bytesRead++;
-            bytesRead += readValueForType(type, valueBin);
-            String fieldName = getNameFromID(nameId);
-            if (version >= VERSION_JDK12BETA4) {
-                type = signatureFromTypeId(type);
-            }
-            String signature = "" + ((char) type);
-            JavaField f = new JavaField(fieldName, signature);
-            statics[i] = new JavaStatic(f, valueBin[0]);
-        }
-
-        int numFields = in.readUnsignedShort();
-        bytesRead += 2;
-        JavaField[] fields = new JavaField[numFields];
-        for (int i = 0; i < numFields; i++) {
-            long nameId = readID();
-            bytesRead += identifierSize;
-            byte type = in.readByte();
-            bytesRead++;
-            String fieldName = getNameFromID(nameId);
-            if (version >= VERSION_JDK12BETA4) {
-                type = signatureFromTypeId(type);
-            }
-            String signature = "" + ((char) type);
-            fields[i] = new JavaField(fieldName, signature);
-        }
-        String name = classNameFromObjectID.get(id);
-        if (name == null) {
-            warn("Class name not found for " + toHex(id));
-            name = "unknown-name@" + toHex(id);
-        }
-        JavaClass c = new JavaClass(id, name, superId, classLoaderId, signersId,
-                                    protDomainId, fields, statics,
-                                    instanceSize);
-        snapshot.addClass(id, c);
-        snapshot.setSiteTrace(c, stackTrace);
-
-        return bytesRead;
-    }
-
     private String toHex(long addr) {
         return com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.Misc.toHex(addr);
     }
 
-    //
-    // Handle a HPROF_GC_INSTANCE_DUMP
-    // Return number of bytes read
-    //
-    private int readInstance() throws IOException {
-        long start = in.position();
-        long id = readID();
-        StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
-        long classID = readID();
-        int bytesFollowing = in.readInt();
-        int bytesRead = (2 * identifierSize) + 8 + bytesFollowing;
-        JavaObject jobj = new JavaObject(classID, start);
-        skipBytes(bytesFollowing);
-        snapshot.addHeapObject(id, jobj);
-        snapshot.setSiteTrace(jobj, stackTrace);
-        return bytesRead;
-    }
-
-    //
-    // Handle a HPROF_GC_OBJ_ARRAY_DUMP or HPROF_GC_PRIM_ARRAY_DUMP
-    // Return number of bytes read
-    //
-    private int readArray(boolean isPrimitive) throws IOException {
-        long start = in.position();
-        long id = readID();
-        StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
-        int num = in.readInt();
-        int bytesRead = identifierSize + 8;
-        long elementClassID;
-        if (isPrimitive) {
-            elementClassID = in.readByte();
-            bytesRead++;
-        } else {
-            elementClassID = readID();
-            bytesRead += identifierSize;
-        }
-
-        // Check for primitive arrays:
-        byte primitiveSignature = 0x00;
-        int elSize = 0;
-        if (isPrimitive || version < VERSION_JDK12BETA4) {
-            switch ((int)elementClassID) {
-                case T_BOOLEAN: {
-                    primitiveSignature = (byte) 'Z';
-                    elSize = 1;
-                    break;
-                }
-                case T_CHAR: {
-                    primitiveSignature = (byte) 'C';
-                    elSize = 2;
-                    break;
-                }
-                case T_FLOAT: {
-                    primitiveSignature = (byte) 'F';
-                    elSize = 4;
-                    break;
-                }
-                case T_DOUBLE: {
-                    primitiveSignature = (byte) 'D';
-                    elSize = 8;
-                    break;
-                }
-                case T_BYTE: {
-                    primitiveSignature = (byte) 'B';
-                    elSize = 1;
-                    break;
-                }
-                case T_SHORT: {
-                    primitiveSignature = (byte) 'S';
-                    elSize = 2;
-                    break;
-                }
-                case T_INT: {
-                    primitiveSignature = (byte) 'I';
-                    elSize = 4;
-                    break;
-                }
-                case T_LONG: {
-                    primitiveSignature = (byte) 'J';
-                    elSize = 8;
-                    break;
-                }
-            }
-            if (version >= VERSION_JDK12BETA4 && primitiveSignature == 0x00) {
-                throw new IOException("Unrecognized typecode:  "
-                                        + elementClassID);
-            }
-        }
-        if (primitiveSignature != 0x00) {
-            int size = elSize * num;
-            bytesRead += size;
-            JavaValueArray va = new JavaValueArray(primitiveSignature, start);
-            skipBytes(size);
-            snapshot.addHeapObject(id, va);
-            snapshot.setSiteTrace(va, stackTrace);
-        } else {
-            int sz = num * identifierSize;
-            bytesRead += sz;
-            JavaObjectArray arr = new JavaObjectArray(elementClassID, start);
-            skipBytes(sz);
-            snapshot.addHeapObject(id, arr);
-            snapshot.setSiteTrace(arr, stackTrace);
-        }
-        return bytesRead;
-    }
-
     private byte signatureFromTypeId(byte typeId) throws IOException {
         switch (typeId) {
             case T_CLASS: {
@@ -875,6 +700,658 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
         System.out.println("WARNING: " + msg);
     }
 
+    //
+    // A HPROF_HEAP_DUMP or HPROF_HEAP_DUMP_SEGMENT record. The segments of a
+    // dump are parsed on a pool, each from its own stream over the mapped
+    // file. A segment only collects what it finds, and must not touch the
+    // snapshot or change any of the reader's tables while it is parsed.
+    // addTo() then adds what was found to the snapshot, one segment after
+    // the other in file order.
+    //
+    private class HeapDumpSegment extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long segmentStart;
+        private final long segmentEnd;
+        private PositionDataInputStream in;
+
+        // heap objects in file order, with their ids and allocation sites
+        private long[] ids = new long[16];
+        private final List<JavaHeapObject> objects = new ArrayList<JavaHeapObject>();
+        private final List<StackTrace> siteTraces = new ArrayList<StackTrace>();
+        // roots and thread objects in file order
+        private final List<RootRecord> roots = new ArrayList<RootRecord>();
+
+        private EOFException eof;
+        private IOException failure;
+
+        // what the object table needs to add the objects without parsing
+        // the segment again, only kept if the table is written
+        private boolean recordTable;
+        private byte[] tableKinds;
+        private int[] tableSerials;
+        private long[] tableRefs;
+        private long[] tableOffsets;
+
+        HeapDumpSegment(long segmentStart, long segmentEnd) {
+            this.segmentStart = segmentStart;
+            this.segmentEnd = segmentEnd;
+        }
+
+        @Override
+        protected void compute() {
+            in = new PositionDataInputStream(new BufferedInputStream(
+                    new ReadBufferInputStream(readBuffer, segmentStart, segmentEnd),
+                    SEGMENT_BUFFER_SIZE));
+            try {
+                readHeapDump(segmentEnd - segmentStart, segmentEnd);
+            } catch (EOFException exp) {
+                eof = exp;
+            } catch (IOException exp) {
+                failure = exp;
+            } finally {
+                in = null;
+            }
+        }
+
+        void addTo(Snapshot snapshot) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            for (int i = 0; i < objects.size(); i++) {
+                JavaHeapObject ho = objects.get(i);
+                if (ho instanceof JavaClass) {
+                    snapshot.addClass(ids[i], (JavaClass) ho);
+                } else {
+                    snapshot.addHeapObject(ids[i], ho);
+                }
+                snapshot.setSiteTrace(ho, siteTraces.get(i));
+            }
+            for (RootRecord root : roots) {
+                root.addTo(snapshot);
+            }
+            if (eof != null) {
+                handleEOF(eof, snapshot);
+            }
+        }
+
+        //
+        // Adds a heap object found at the given offset. ref is the class id
+        // of instances and object arrays, and the element signature of value
+        // arrays.
+        //
+        private void add(long id, JavaHeapObject ho, StackTrace stackTrace,
+                         byte kind, int serial, long ref, long offset) {
+            int index = objects.size();
+            if (index == ids.length) {
+                ids = Arrays.copyOf(ids, index * 2);
+            }
+            ids[index] = id;
+            objects.add(ho);
+            siteTraces.add(stackTrace);
+            if (recordTable) {
+                if (tableKinds == null) {
+                    tableKinds = new byte[ids.length];
+                    tableSerials = new int[ids.length];
+                    tableRefs = new long[ids.length];
+                    tableOffsets = new long[ids.length];
+                } else if (index == tableKinds.length) {
+                    tableKinds = Arrays.copyOf(tableKinds, ids.length);
+                    tableSerials = Arrays.copyOf(tableSerials, ids.length);
+                    tableRefs = Arrays.copyOf(tableRefs, ids.length);
+                    tableOffsets = Arrays.copyOf(tableOffsets, ids.length);
+                }
+                tableKinds[index] = kind;
+                tableSerials[index] = serial;
+                tableRefs[index] = ref;
+                tableOffsets[index] = offset;
+            }
+        }
+
+        void writeTable(DataOutputStream table) throws IOException {
+            if (eof != null) {
+                throw new IOException("truncated heap dump segment");
+            }
+            table.writeInt(objects.size());
+            for (int i = 0; i < objects.size(); i++) {
+                table.writeByte(tableKinds[i]);
+                if (tableKinds[i] == TABLE_CLASS) {
+                    table.writeLong(tableOffsets[i]);
+                } else {
+                    table.writeLong(ids[i]);
+                    table.writeInt(tableSerials[i]);
+                    table.writeLong(tableRefs[i]);
+                    table.writeLong(tableOffsets[i]);
+                }
+            }
+            table.writeInt(roots.size());
+            for (RootRecord root : roots) {
+                table.writeByte(root.type);
+                table.writeLong(root.id);
+                table.writeInt(root.threadSeq);
+                table.writeInt(root.depth);
+            }
+            tableKinds = null;
+            tableSerials = null;
+            tableRefs = null;
+            tableOffsets = null;
+        }
+
+        void readTable(DataInputStream table) throws IOException {
+            int objectCount = table.readInt();
+            for (int i = 0; i < objectCount; i++) {
+                byte kind = table.readByte();
+                if (kind == TABLE_CLASS) {
+                    long offset = table.readLong();
+                    in = new PositionDataInputStream(new BufferedInputStream(
+                            new ReadBufferInputStream(readBuffer, offset, segmentEnd)));
+                    try {
+                        readClass(offset);
+                    } finally {
+                        in = null;
+                    }
+                    continue;
+                }
+                long id = table.readLong();
+                StackTrace stackTrace = getStackTraceFromSerial(table.readInt());
+                long ref = table.readLong();
+                long offset = table.readLong();
+                switch (kind) {
+                    case TABLE_INSTANCE:
+                        add(id, new JavaObject(ref, offset), stackTrace, kind, 0, 0, 0);
+                        break;
+                    case TABLE_OBJECT_ARRAY:
+                        add(id, new JavaObjectArray(ref, offset), stackTrace, kind, 0, 0, 0);
+                        break;
+                    case TABLE_VALUE_ARRAY:
+                        add(id, new JavaValueArray((byte) ref, offset), stackTrace, kind, 0, 0, 0);
+                        break;
+                    default:
+                        throw new IOException("Bad object table entry " + kind);
+                }
+            }
+            int rootCount = table.readInt();
+            for (int i = 0; i < rootCount; i++) {
+                int type = table.readUnsignedByte();
+                roots.add(new RootRecord(type, table.readLong(), table.readInt(), table.readInt()));
+            }
+        }
+
+        // file position of the next byte to read
+        private long position() {
+            return segmentStart + in.position();
+        }
+
+        private void skipBytes(long length) throws IOException {
+            in.skipBytes((int)length);
+        }
+
+        private void readHeapDump(long bytesLeft, long posAtEnd) throws IOException {
+            while (bytesLeft > 0) {
+                int type = in.readUnsignedByte();
+                if (debugLevel > 0) {
+                    System.out.println("    Read heap sub-record type " + type
+                                       + " at position "
+                                       + toHex(posAtEnd - bytesLeft));
+                }
+                bytesLeft--;
+                switch(type) {
+                    case HPROF_GC_ROOT_UNKNOWN: {
+                        long id = readID();
+                        bytesLeft -= identifierSize;
+                        roots.add(new RootRecord(type, id, 0, 0));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_THREAD_OBJ: {
+                        long id = readID();
+                        int threadSeq = in.readInt();
+                        int stackSeq = in.readInt();
+                        bytesLeft -= identifierSize + 8;
+                        roots.add(new RootRecord(type, id, threadSeq, stackSeq));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_JNI_GLOBAL: {
+                        long id = readID();
+                        long globalRefId = readID();        // Ignored, for now
+                        bytesLeft -= 2*identifierSize;
+                        roots.add(new RootRecord(type, id, 0, 0));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_JNI_LOCAL: {
+                        long id = readID();
+                        int threadSeq = in.readInt();
+                        int depth = in.readInt();
+                        bytesLeft -= identifierSize + 8;
+                        roots.add(new RootRecord(type, id, threadSeq, depth));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_JAVA_FRAME: {
+                        long id = readID();
+                        int threadSeq = in.readInt();
+                        int depth = in.readInt();
+                        bytesLeft -= identifierSize + 8;
+                        roots.add(new RootRecord(type, id, threadSeq, depth));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_NATIVE_STACK: {
+                        long id = readID();
+                        int threadSeq = in.readInt();
+                        bytesLeft -= identifierSize + 4;
+                        roots.add(new RootRecord(type, id, threadSeq, 0));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_STICKY_CLASS: {
+                        long id = readID();
+                        bytesLeft -= identifierSize;
+                        roots.add(new RootRecord(type, id, 0, 0));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_THREAD_BLOCK: {
+                        long id = readID();
+                        int threadSeq = in.readInt();
+                        bytesLeft -= identifierSize + 4;
+                        roots.add(new RootRecord(type, id, threadSeq, 0));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_MONITOR_USED: {
+                        long id = readID();
+                        bytesLeft -= identifierSize;
+                        roots.add(new RootRecord(type, id, 0, 0));
+                        break;
+                    }
+                    case HPROF_GC_CLASS_DUMP: {
+                        int bytesRead = readClass(position());
+                        bytesLeft -= bytesRead;
+                        break;
+                    }
+                    case HPROF_GC_INSTANCE_DUMP: {
+                        int bytesRead = readInstance();
+                        bytesLeft -= bytesRead;
+                        break;
+                    }
+                    case HPROF_GC_OBJ_ARRAY_DUMP: {
+                        int bytesRead = readArray(false);
+                        bytesLeft -= bytesRead;
+                        break;
+                    }
+                    case HPROF_GC_PRIM_ARRAY_DUMP: {
+                        int bytesRead = readArray(true);
+                        bytesLeft -= bytesRead;
+                        break;
+                    }
+                    default: {
+                        throw new IOException("Unrecognized heap dump sub-record type:  " + type);
+                    }
+                }
+            }
+            if (bytesLeft != 0) {
+                warn("Error reading heap dump or heap dump segment:  Byte count is " + bytesLeft + " instead of 0");
+                skipBytes(bytesLeft);
+            }
+            if (debugLevel > 0) {
+                System.out.println("    Finished heap sub-records.");
+            }
+        }
+
+        private long readID() throws IOException {
+            return (identifierSize == 4)?
+                (Snapshot.SMALL_ID_MASK & (long)in.readInt()) : in.readLong();
+        }
+
+        //
+        // Read a java value.  If result is non-null, it's expected to be an
+        // array of one element.  We use it to fake multiple return values.
+        // @returns the number of bytes read
+        //
+        private int readValue(JavaThing[] resultArr) throws IOException {
+            byte type = in.readByte();
+            return 1 + readValueForType(type, resultArr);
+        }
+
+        private int readValueForType(byte type, JavaThing[] resultArr)
+                throws IOException {
+            if (version >= VERSION_JDK12BETA4) {
+                type = signatureFromTypeId(type);
+            }
+            return readValueForTypeSignature(type, resultArr);
+        }
+
+        private int readValueForTypeSignature(byte type, JavaThing[] resultArr)
+                throws IOException {
+            switch (type) {
+                case '[':
+                case 'L': {
+                    long id = readID();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaObjectRef(id);
+                    }
+                    return identifierSize;
+                }
+                case 'Z': {
+                    int b = in.readByte();
+                    if (b != 0 && b != 1) {
+                        warn("Illegal boolean value read");
+                    }
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaBoolean(b != 0);
+                    }
+                    return 1;
+                }
+                case 'B': {
+                    byte b = in.readByte();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaByte(b);
+                    }
+                    return 1;
+                }
+                case 'S': {
+                    short s = in.readShort();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaShort(s);
+                    }
+                    return 2;
+                }
+                case 'C': {
+                    char ch = in.readChar();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaChar(ch);
+                    }
+                    return 2;
+                }
+                case 'I': {
+                    int val = in.readInt();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaInt(val);
+                    }
+                    return 4;
+                }
+                case 'J': {
+                    long val = in.readLong();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaLong(val);
+                    }
+                    return 8;
+                }
+                case 'F': {
+                    float val = in.readFloat();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaFloat(val);
+                    }
+                    return 4;
+                }
+                case 'D': {
+                    double val = in.readDouble();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaDouble(val);
+                    }
+                    return 8;
+                }
+                default: {
+                    throw new IOException("Bad value signature:  " + type);
+                }
+            }
+        }
+
+        //
+        // Handle a HPROF_GC_CLASS_DUMP
+        // Return number of bytes read
+        //
+        private int readClass(long start) throws IOException {
+            long id = readID();
+            StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
+            long superId = readID();
+            long classLoaderId = readID();
+            long signersId = readID();
+            long protDomainId = readID();
+            long reserved1 = readID();
+            long reserved2 = readID();
+            int instanceSize = in.readInt();
+            int bytesRead = 7 * identifierSize + 8;
+
+            int numConstPoolEntries = in.readUnsignedShort();
+            bytesRead += 2;
+            for (int i = 0; i < numConstPoolEntries; i++) {
+                int index = in.readUnsignedShort(); // unused
+                bytesRead += 2;
+                bytesRead += readValue(null);       // We ignore the values
+            }
+
+            int numStatics = in.readUnsignedShort();
+            bytesRead += 2;
+            JavaThing[] valueBin = new JavaThing[1];
+            JavaStatic[] statics = new JavaStatic[numStatics];
+            for (int i = 0; i < numStatics; i++) {
+                long nameId = readID();
+                bytesRead += identifierSize;
+                byte type = in.readByte();
+                bytesRead++;
+                bytesRead += readValueForType(type, valueBin);
+                String fieldName = getNameFromID(nameId);
+                if (version >= VERSION_JDK12BETA4) {
+                    type = signatureFromTypeId(type);
+                }
+                String signature = "" + ((char) type);
+                JavaField f = new JavaField(fieldName, signature);
+                statics[i] = new JavaStatic(f, valueBin[0]);
+            }
+
+            int numFields = in.readUnsignedShort();
+            bytesRead += 2;
+            JavaField[] fields = new JavaField[numFields];
+            for (int i = 0; i < numFields; i++) {
+                long nameId = readID();
+                bytesRead += identifierSize;
+                byte type = in.readByte();
+                bytesRead++;
+                String fieldName = getNameFromID(nameId);
+                if (version >= VERSION_JDK12BETA4) {
+                    type = signatureFromTypeId(type);
+                }
+                String signature = "" + ((char) type);
+                fields[i] = new JavaField(fieldName, signature);
+            }
+            String name = classNameFromObjectID.get(id);
+            if (name == null) {
+                warn("Class name not found for " + toHex(id));
+                name = "unknown-name@" + toHex(id);
+            }
+            JavaClass c = new JavaClass(id, name, superId, classLoaderId, signersId,
+                                        protDomainId, fields, statics,
+                                        instanceSize);
+            add(id, c, stackTrace, TABLE_CLASS, 0, 0, start);
+
+            return bytesRead;
+        }
+
+        //
+        // Handle a HPROF_GC_INSTANCE_DUMP
+        // Return number of bytes read
+        //
+        private int readInstance() throws IOException {
+            long start = position();
+            long id = readID();
+            int serial = in.readInt();
+            StackTrace stackTrace = getStackTraceFromSerial(serial);
+            long classID = readID();
+            int bytesFollowing = in.readInt();
+            int bytesRead = (2 * identifierSize) + 8 + bytesFollowing;
+            JavaObject jobj = new JavaObject(classID, start);
+            skipBytes(bytesFollowing);
+            add(id, jobj, stackTrace, TABLE_INSTANCE, serial, classID, start);
+            return bytesRead;
+        }
+
+        //
+        // Handle a HPROF_GC_OBJ_ARRAY_DUMP or HPROF_GC_PRIM_ARRAY_DUMP
+        // Return number of bytes read
+        //
+        private int readArray(boolean isPrimitive) throws IOException {
+            long start = position();
+            long id = readID();
+            int serial = in.readInt();
+            StackTrace stackTrace = getStackTraceFromSerial(serial);
+            int num = in.readInt();
+            int bytesRead = identifierSize + 8;
+            long elementClassID;
+            if (isPrimitive) {
+                elementClassID = in.readByte();
+                bytesRead++;
+            } else {
+                elementClassID = readID();
+                bytesRead += identifierSize;
+            }
+
+            // Check for primitive arrays:
+            byte primitiveSignature = 0x00;
+            int elSize = 0;
+            if (isPrimitive || version < VERSION_JDK12BETA4) {
+                switch ((int)elementClassID) {
+                    case T_BOOLEAN: {
+                        primitiveSignature = (byte) 'Z';
+                        elSize = 1;
+                        break;
+                    }
+                    case T_CHAR: {
+                        primitiveSignature = (byte) 'C';
+                        elSize = 2;
+                        break;
+                    }
+                    case T_FLOAT: {
+                        primitiveSignature = (byte) 'F';
+                        elSize = 4;
+                        break;
+                    }
+                    case T_DOUBLE: {
+                        primitiveSignature = (byte) 'D';
+                        elSize = 8;
+                        break;
+                    }
+                    case T_BYTE: {
+                        primitiveSignature = (byte) 'B';
+                        elSize = 1;
+                        break;
+                    }
+                    case T_SHORT: {
+                        primitiveSignature = (byte) 'S';
+                        elSize = 2;
+                        break;
+                    }
+                    case T_INT: {
+                        primitiveSignature = (byte) 'I';
+                        elSize = 4;
+                        break;
+                    }
+                    case T_LONG: {
+                        primitiveSignature = (byte) 'J';
+                        elSize = 8;
+                        break;
+                    }
+                }
+                if (version >= VERSION_JDK12BETA4 && primitiveSignature == 0x00) {
+                    throw new IOException("Unrecognized typecode:  "
+                                            + elementClassID);
+                }
+            }
+            if (primitiveSignature != 0x00) {
+                int size = elSize * num;
+                bytesRead += size;
+                JavaValueArray va = new JavaValueArray(primitiveSignature, start);
+                skipBytes(size);
+                add(id, va, stackTrace, TABLE_VALUE_ARRAY, serial, primitiveSignature, start);
+            } else {
+                int sz = num * identifierSize;
+                bytesRead += sz;
+                JavaObjectArray arr = new JavaObjectArray(elementClassID, start);
+                skipBytes(sz);
+                add(id, arr, stackTrace, TABLE_OBJECT_ARRAY, serial, elementClassID, start);
+            }
+            return bytesRead;
+        }
+    }
+
+    //
+    // A root, or a HPROF_GC_ROOT_THREAD_OBJ, read from a heap dump segment.
+    // Roots on the stack of a thread refer to the thread objects of earlier
+    // records, so they are only looked up when the segment is added to the
+    // snapshot, in file order.
+    //
+    private class RootRecord {
+        private final int type;
+        private final long id;
+        private final int threadSeq;
+        // the stack depth, or the stack trace serial number of a thread object
+        private final int depth;
+
+        RootRecord(int type, long id, int threadSeq, int depth) {
+            this.type = type;
+            this.id = id;
+            this.threadSeq = threadSeq;
+            this.depth = depth;
+        }
+
+        void addTo(Snapshot snapshot) throws IOException {
+            switch (type) {
+                case HPROF_GC_ROOT_UNKNOWN: {
+                    snapshot.addRoot(new Root(id, 0, Root.UNKNOWN, ""));
+                    break;
+                }
+                case HPROF_GC_ROOT_THREAD_OBJ: {
+                    threadObjects.put(threadSeq, new ThreadObject(id, depth));
+                    break;
+                }
+                case HPROF_GC_ROOT_JNI_GLOBAL: {
+                    snapshot.addRoot(new Root(id, 0, Root.NATIVE_STATIC, ""));
+                    break;
+                }
+                case HPROF_GC_ROOT_JNI_LOCAL: {
+                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
+                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                    if (st != null) {
+                        st = st.traceForDepth(depth+1);
+                    }
+                    snapshot.addRoot(new Root(id, to.threadId,
+                                              Root.NATIVE_LOCAL, "", st));
+                    break;
+                }
+                case HPROF_GC_ROOT_JAVA_FRAME: {
+                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
+                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                    if (st != null) {
+                        st = st.traceForDepth(depth+1);
+                    }
+                    snapshot.addRoot(new Root(id, to.threadId,
+                                              Root.JAVA_LOCAL, "", st));
+                    break;
+                }
+                case HPROF_GC_ROOT_NATIVE_STACK: {
+                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
+                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                    snapshot.addRoot(new Root(id, to.threadId,
+                                              Root.NATIVE_STACK, "", st));
+                    break;
+                }
+                case HPROF_GC_ROOT_STICKY_CLASS: {
+                    snapshot.addRoot(new Root(id, 0, Root.SYSTEM_CLASS, ""));
+                    break;
+                }
+                case HPROF_GC_ROOT_THREAD_BLOCK: {
+                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
+                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                    snapshot.addRoot(new Root(id, to.threadId,
+                                     Root.THREAD_BLOCK, "", st));
+                    break;
+                }
+                case HPROF_GC_ROOT_MONITOR_USED: {
+                    snapshot.addRoot(new Root(id, 0, Root.BUSY_MONITOR, ""));
+                    break;
+                }
+                default: {
+                    throw new IllegalStateException("not a root: " + type);
+                }
+            }
+        }
+    }
+
     //
     // A trivial data-holder class for HPROF_GC_ROOT_THREAD_OBJ.
     //
@@ -32,50 +32,76 @@
 
 package com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
 /**
- * Implementation of ReadBuffer using mapped file buffer
+ * Implementation of ReadBuffer using mapped file buffers.
+ *
+ * A single MappedByteBuffer can not be larger than 2 GB, so the file is
+ * mapped as a sequence of segments. Each segment overlaps the next one by
+ * the size of the largest primitive, so primitive reads never have to be
+ * stitched together from two segments. Only byte array reads may span
+ * segments.
+ *
+ * All reads use absolute positions and never touch the position of a
+ * shared buffer, so no locking is needed and lazily read objects can be
+ * read from many threads at once.
  *
  * @author A. Sundararajan
  */
 class MappedReadBuffer implements ReadBuffer {
-    private MappedByteBuffer buf;
-    private RandomAccessFile file;
+    // Size of a segment, not counting the overlap, is 1 GB by default. A
+    // power of two, so that the segment of a position can be found by
+    // shifting.
+    static final int DEFAULT_SEGMENT_SHIFT = 30;
+    // Size of the largest primitive read
+    static final int SEGMENT_OVERLAP = 8;
+
+    private final int segmentShift;
+    private final long segmentSize;
+    private final long segmentMask;
+    private final MappedByteBuffer[] segments;
+    private final RandomAccessFile file;
 
-    MappedReadBuffer(RandomAccessFile file, MappedByteBuffer buf) {
+    /**
+     * Maps the given file in segments of {@code 1 << segmentShift} bytes.
+     * Tests use small segments to exercise reads across segment boundaries.
+     */
+    MappedReadBuffer(RandomAccessFile file, int segmentShift) throws IOException {
+        if (segmentShift < 3 || segmentShift > DEFAULT_SEGMENT_SHIFT) {
+            // segments must not be smaller than the overlap, and must fit
+            // in a MappedByteBuffer together with it
+            throw new IllegalArgumentException("segment shift out of range: " + segmentShift);
+        }
         this.file = file;
-        this.buf = buf;
+        this.segmentShift = segmentShift;
+        this.segmentSize = 1L << segmentShift;
+        this.segmentMask = segmentSize - 1;
+        FileChannel ch = file.getChannel();
+        this.segments = map(ch, ch.size());
+        ch.close();
     }
 
     /**
      * Factory method to create correct ReadBuffer for a given file.
      *
-     * The initial purpose of this method was to choose how to read hprof file for parsing
-     * depending on the size of the file and the system property 'jhat.disableFileMap':
-     * "If file size is more than 2 GB and when file mapping is configured (default),
-     * use mapped file reader".
-     *
-     * However, it has been discovered a problem with this approach.
      * Creating java.nio.MappedByteBuffer from inside the test leads to hprof file
      * is locked on Windows until test process dies since there is no good way to
-     * release this resource.
+     * release this resource. Other platforms do not have this problem, so
+     * file mapping is the default only on Linux.
      *
-     * java.nio.MappedByteBuffer will be used only if 'jhat.enableFileMap' is set to true.
-     * Per default 'jhat.enableFileMap' is not set.
+     * Set system property 'jhat.enableFileMap' to 'true' or 'false' to
+     * override the default.
      */
     static ReadBuffer create(RandomAccessFile file) throws IOException {
         if (canUseFileMap()) {
-            MappedByteBuffer buf;
             try {
-                FileChannel ch = file.getChannel();
-                long size = ch.size();
-                buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
-                ch.close();
-                return new MappedReadBuffer(file, buf);
+                return new MappedReadBuffer(file, DEFAULT_SEGMENT_SHIFT);
             } catch (IOException exp) {
                 exp.printStackTrace();
                 System.err.println("File mapping failed, will use direct read");
@@ -85,47 +111,102 @@ class MappedReadBuffer implements ReadBuffer {
         return new FileReadBuffer(file);
     }
 
-    /**
-     * Set system property 'jhat.enableFileMap' to 'true' to enable file mapping.
-     */
+    private MappedByteBuffer[] map(FileChannel ch, long size) throws IOException {
+        int count = (int) ((size + segmentSize - 1) >>> segmentShift);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << segmentShift;
+            long length = Math.min(segmentSize + SEGMENT_OVERLAP, size - start);
+            segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        return segments;
+    }
+
     private static boolean canUseFileMap() {
         String prop = System.getProperty("jhat.enableFileMap");
-        return prop != null && prop.equals("true");
+        if (prop != null) {
+            return prop.equals("true");
+        }
+        String os = System.getProperty("os.name");
+        return os != null && os.startsWith("Linux");
+    }
+
+    private MappedByteBuffer segment(long pos) throws EOFException {
+        long index = pos >>> segmentShift;
+        if (pos < 0 || index >= segments.length) {
+            throw beyondEnd(pos);
+        }
+        return segments[(int) index];
     }
 
-    private void seek(long pos) throws IOException {
-        assert pos <= Integer.MAX_VALUE :  "position overflow";
-        buf.position((int)pos);
+    private int offset(long pos) {
+        return (int) (pos & segmentMask);
     }
 
-    public synchronized void get(long pos, byte[] res) throws IOException {
-        seek(pos);
-        buf.get(res);
+    private static EOFException beyondEnd(long pos) {
+        return new EOFException("read beyond end of file at " + pos);
     }
 
-    public synchronized char getChar(long pos) throws IOException {
-        seek(pos);
-        return buf.getChar();
+    public void get(long pos, byte[] res) throws IOException {
+        int done = 0;
+        while (done < res.length) {
+            long current = pos + done;
+            // a private view, so that concurrent reads do not race on the
+            // position of the segment
+            ByteBuffer view = segment(current).duplicate();
+            int offset = offset(current);
+            if (offset >= view.limit()) {
+                throw beyondEnd(current);
+            }
+            view.position(offset);
+            int length = (int) Math.min(res.length - done, segmentSize - offset);
+            length = Math.min(length, view.remaining());
+            view.get(res, done, length);
+            done += length;
+        }
+    }
+
+    // The segment's bounds check fails for reads past the end of the last
+    // segment; report those like the end of the file.
+
+    public char getChar(long pos) throws IOException {
+        try {
+            return segment(pos).getChar(offset(pos));
+        } catch (IndexOutOfBoundsException e) {
+            throw beyondEnd(pos);
+        }
     }
 
-    public synchronized byte getByte(long pos) throws IOException {
-        seek(pos);
-        return buf.get();
+    public byte getByte(long pos) throws IOException {
+        try {
+            return segment(pos).get(offset(pos));
+        } catch (IndexOutOfBoundsException e) {
+            throw beyondEnd(pos);
+        }
     }
 
-    public synchronized short getShort(long pos) throws IOException {
-        seek(pos);
-        return buf.getShort();
+    public short getShort(long pos) throws IOException {
+        try {
+            return segment(pos).getShort(offset(pos));
+        } catch (IndexOutOfBoundsException e) {
+            throw beyondEnd(pos);
+        }
     }
 
-    public synchronized int getInt(long pos) throws IOException {
-        seek(pos);
-        return buf.getInt();
+    public int getInt(long pos) throws IOException {
+        try {
+            return segment(pos).getInt(offset(pos));
+        } catch (IndexOutOfBoundsException e) {
+            throw beyondEnd(pos);
+        }
     }
 
-    public synchronized long getLong(long pos) throws IOException {
-        seek(pos);
-        return buf.getLong();
+    public long getLong(long pos) throws IOException {
+        try {
+            return segment(pos).getLong(offset(pos));
+        } catch (IndexOutOfBoundsException e) {
+            throw beyondEnd(pos);
+        }
     }
 
     @Override
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream over a range of a {@link ReadBuffer}. Each stream keeps
+ * its own position, so several of them can read different parts of the same
+ * buffer at once.
+ */
+class ReadBufferInputStream extends InputStream {
+
+    private final ReadBuffer buf;
+    private final long end;
+    private long pos;
+    private byte[] scratch;
+
+    /**
+     * @param start position of the first byte to read
+     * @param end position after the last byte to read
+     */
+    ReadBufferInputStream(ReadBuffer buf, long start, long end) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos >= end) {
+            return -1;
+        }
+        return buf.getByte(pos++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = (int) Math.min(len, end - pos);
+        if (n <= 0) {
+            return -1;
+        }
+        if (off == 0 && n == b.length) {
+            buf.get(pos, b);
+        } else {
+            if (scratch == null || scratch.length != n) {
+                scratch = new byte[n];
+            }
+            buf.get(pos, scratch);
+            System.arraycopy(scratch, 0, b, off, n);
+        }
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, end - pos));
+        pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - pos);
+    }
+}
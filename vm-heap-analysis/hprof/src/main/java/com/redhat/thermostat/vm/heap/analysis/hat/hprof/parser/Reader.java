@@ -35,6 +35,7 @@ package com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser;
 import java.io.*;
 
 import com.redhat.thermostat.vm.heap.analysis.hat.hprof.model.*;
+import com.redhat.thermostat.vm.heap.analysis.hat.hprof.util.ProgressListener;
 
 /**
  * Abstract base class for reading object dump files.  A reader need not be
@@ -66,6 +67,36 @@ public abstract class Reader {
     public static Snapshot readFile(String heapFile, boolean callStack,
                                     int debugLevel)
             throws IOException {
+        return readFile(heapFile, callStack, debugLevel, ProgressListener.NONE);
+    }
+
+    /**
+     * Read a snapshot from a file, reporting how much of it has been read.
+     *
+     * @param heapFile The name of a file containing a heap dump
+     * @param callStack If true, read the call stack of allocaation sites
+     * @param progress Receives {@link ProgressListener.Phase#READING} updates
+     */
+    public static Snapshot readFile(String heapFile, boolean callStack,
+                                    int debugLevel, ProgressListener progress)
+            throws IOException {
+        return readFile(heapFile, callStack, debugLevel, progress, null);
+    }
+
+    /**
+     * Read a snapshot from a file, keeping a table of its heap objects in
+     * another file. If the table was written by an earlier read of the same
+     * heap dump, the heap dump records are not parsed again.
+     *
+     * @param heapFile The name of a file containing a heap dump
+     * @param callStack If true, read the call stack of allocaation sites
+     * @param progress Receives {@link ProgressListener.Phase#READING} updates
+     * @param objectTable The object table file, or {@code null}
+     */
+    public static Snapshot readFile(String heapFile, boolean callStack,
+                                    int debugLevel, ProgressListener progress,
+                                    File objectTable)
+            throws IOException {
         int dumpNumber = 1;
         int pos = heapFile.lastIndexOf('#');
         if (pos > -1) {
@@ -88,7 +119,8 @@ public abstract class Reader {
             if (i == HprofReader.MAGIC_NUMBER) {
                 Reader r
                     = new HprofReader(heapFile, in, dumpNumber,
-                                      callStack, debugLevel);
+                                      callStack, debugLevel, progress,
+                                      objectTable);
                 return r.read();
             } else {
                 throw new IOException("Unrecognized magic number: " + i);
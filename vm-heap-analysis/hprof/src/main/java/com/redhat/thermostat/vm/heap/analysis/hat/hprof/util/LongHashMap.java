@@ -0,0 +1,273 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.vm.heap.analysis.hat.hprof.util;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A map from primitive {@code long} keys to objects, for the object id
+ * tables of a heap dump.
+ * <p>
+ * Keys live in an open addressing hash table, which maps them to a dense
+ * index into a values array in insertion order. Compared to a
+ * {@code Hashtable<Long, V>} this saves the boxed key and the entry object
+ * per mapping. It does not make the values themselves any smaller: every
+ * value is still a live object, so a snapshot still needs enough heap for
+ * one model object per object in the dump.
+ * <p>
+ * This map is not synchronized and mappings can not be removed. It may be
+ * read from many threads once it is no longer modified.
+ */
+public class LongHashMap<V> implements Iterable<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAX_TABLE_SIZE = 1 << 30;
+
+    // hash table of keys. A slot is in use if its entry in indexes is not 0.
+    private long[] keys;
+    // 1 + the dense index of the key in the same slot, 0 for free slots
+    private int[] indexes;
+    private int mask;
+    private int threshold;
+
+    // values in insertion order
+    private Object[] values;
+    private int size;
+
+    public LongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of mappings the map should hold without
+     *        growing
+     */
+    public LongHashMap(int expectedSize) {
+        int tableSize = tableSizeFor(expectedSize);
+        allocateTable(tableSize);
+        values = new Object[Math.max(expectedSize, 1)];
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        // stay below a load factor of 3/4
+        long wanted = Math.max(DEFAULT_CAPACITY, (long) expectedSize * 4 / 3 + 1);
+        if (wanted >= MAX_TABLE_SIZE) {
+            return MAX_TABLE_SIZE;
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    private void allocateTable(int tableSize) {
+        keys = new long[tableSize];
+        indexes = new int[tableSize];
+        mask = tableSize - 1;
+        threshold = tableSize / 4 * 3;
+    }
+
+    // package-private for testing
+    static int hash(long key) {
+        // heap ids are aligned addresses, spread the bits
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the dense index of {@code key}, or -1 if it is not mapped
+     */
+    public int indexOf(long key) {
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int index = indexes[slot];
+            if (index == 0) {
+                return -1;
+            }
+            if (keys[slot] == key) {
+                return index - 1;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public V get(long key) {
+        int index = indexOf(key);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    /**
+     * @return the value at a dense index in {@code [0, size())}
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        return (V) values[index];
+    }
+
+    /**
+     * Maps {@code key} to {@code value}. A key which is already mapped keeps
+     * its dense index.
+     *
+     * @return the previous value for {@code key}, or null
+     */
+    public V put(long key, V value) {
+        int slot = hash(key) & mask;
+        while (indexes[slot] != 0) {
+            if (keys[slot] == key) {
+                int index = indexes[slot] - 1;
+                V previous = valueAt(index);
+                values[index] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size >= keys.length - 1) {
+            throw new IllegalStateException("map is full");
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, (int) Math.min(MAX_TABLE_SIZE, size + (size >> 1) + 1L));
+        }
+        values[size] = value;
+        keys[slot] = key;
+        indexes[slot] = ++size;
+        if (size > threshold) {
+            grow();
+        }
+        return null;
+    }
+
+    /**
+     * Adds all mappings of {@code other} to this map.
+     */
+    public void putAll(LongHashMap<? extends V> other) {
+        for (int slot = 0; slot < other.indexes.length; slot++) {
+            int index = other.indexes[slot];
+            if (index != 0) {
+                put(other.keys[slot], other.valueAt(index - 1));
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(indexes, 0);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    private void grow() {
+        if (keys.length == MAX_TABLE_SIZE) {
+            // keep going at a higher load factor
+            threshold = Integer.MAX_VALUE;
+            return;
+        }
+        long[] oldKeys = keys;
+        int[] oldIndexes = indexes;
+        allocateTable(oldKeys.length * 2);
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            if (oldIndexes[oldSlot] != 0) {
+                int slot = hash(oldKeys[oldSlot]) & mask;
+                while (indexes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[oldSlot];
+                indexes[slot] = oldIndexes[oldSlot];
+            }
+        }
+    }
+
+    /**
+     * @return the values in insertion order
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new ValueIterator();
+    }
+
+    /**
+     * @return the values in insertion order
+     */
+    public Enumeration<V> elements() {
+        return new ValueIterator();
+    }
+
+    private class ValueIterator implements Iterator<V>, Enumeration<V> {
+
+        private int next = 0;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public V next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return valueAt(next++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return hasNext();
+        }
+
+        @Override
+        public V nextElement() {
+            return next();
+        }
+    }
+
+}
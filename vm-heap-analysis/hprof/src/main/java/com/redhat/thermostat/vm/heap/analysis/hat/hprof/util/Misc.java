@@ -32,6 +32,7 @@
 
 package com.redhat.thermostat.vm.heap.analysis.hat.hprof.util;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Miscellaneous functions I couldn't think of a good place to put.
@@ -81,6 +82,18 @@ public class Misc {
         return result;
     }
 
+    /**
+     * Creates a pool for the parallel parts of reading and resolving a heap
+     * dump. It has one thread per processor, unless the system property
+     * 'jhat.parallelism' asks for a different number. The caller must shut
+     * the pool down when done with it.
+     */
+    public static ForkJoinPool newWorkerPool() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int parallelism = Integer.getInteger("jhat.parallelism", processors);
+        return new ForkJoinPool(Math.max(1, parallelism));
+    }
+
     public static String encodeHtml(String str) {
         final int len = str.length();
         StringBuilder sb = new StringBuilder();
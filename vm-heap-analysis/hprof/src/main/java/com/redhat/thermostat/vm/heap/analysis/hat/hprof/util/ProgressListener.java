@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.heap.analysis.hat.hprof.util;
+
+/**
+ * Receives progress updates while a heap dump is read and resolved.
+ * <p>
+ * Updates may arrive from several threads at once, so implementations must
+ * be thread-safe. They are called often and should return quickly.
+ */
+public interface ProgressListener {
+
+    /** A listener that ignores all updates. */
+    ProgressListener NONE = new ProgressListener() {
+        @Override
+        public void progressChanged(Phase phase, long done, long total) {
+            // nothing
+        }
+    };
+
+    enum Phase {
+        /** Records are read from the hprof file. Units are bytes. */
+        READING,
+        /** Objects are linked and references are computed. Units are objects. */
+        RESOLVING,
+    }
+
+    /**
+     * @param phase the phase that made progress
+     * @param done the units of work done so far in this phase
+     * @param total the units of work in this phase
+     */
+    void progressChanged(Phase phase, long done, long total);
+
+}
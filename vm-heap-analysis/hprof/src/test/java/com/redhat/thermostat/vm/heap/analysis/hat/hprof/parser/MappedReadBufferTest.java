@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.vm.heap.analysis.hat.hprof.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedReadBufferTest {
+
+    // 16 byte segments, each mapped with 8 bytes of overlap
+    private static final int SEGMENT_SHIFT = 4;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    // not a multiple of the segment size, so the last segment is short
+    private static final int FILE_SIZE = 5 * SEGMENT_SIZE + 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] content;
+    private ByteBuffer expected;
+    private MappedReadBuffer buffer;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 7 + 3);
+        }
+        expected = ByteBuffer.wrap(content);
+        buffer = open(content);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        buffer.close();
+    }
+
+    private MappedReadBuffer open(byte[] bytes) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        return new MappedReadBuffer(new RandomAccessFile(file, "r"), SEGMENT_SHIFT);
+    }
+
+    @Test
+    public void primitivesAtEveryPosition() throws IOException {
+        for (int pos = 0; pos < FILE_SIZE; pos++) {
+            assertEquals(expected.get(pos), buffer.getByte(pos));
+            if (pos + 2 <= FILE_SIZE) {
+                assertEquals(expected.getShort(pos), buffer.getShort(pos));
+                assertEquals(expected.getChar(pos), buffer.getChar(pos));
+            }
+            if (pos + 4 <= FILE_SIZE) {
+                assertEquals(expected.getInt(pos), buffer.getInt(pos));
+            }
+            if (pos + 8 <= FILE_SIZE) {
+                assertEquals("long at " + pos, expected.getLong(pos), buffer.getLong(pos));
+            }
+        }
+    }
+
+    @Test
+    public void primitivesCrossingSegmentBoundaries() throws IOException {
+        // the last byte of a primitive lies in the overlap of the segment
+        for (int boundary = SEGMENT_SIZE; boundary + 7 <= FILE_SIZE; boundary += SEGMENT_SIZE) {
+            assertEquals(expected.getLong(boundary - 1), buffer.getLong(boundary - 1));
+            assertEquals(expected.getLong(boundary - 7), buffer.getLong(boundary - 7));
+            assertEquals(expected.getInt(boundary - 2), buffer.getInt(boundary - 2));
+            assertEquals(expected.getShort(boundary - 1), buffer.getShort(boundary - 1));
+        }
+    }
+
+    @Test
+    public void arraysWithinOneSegment() throws IOException {
+        assertRead(0, 1);
+        assertRead(3, 10);
+        assertRead(SEGMENT_SIZE, SEGMENT_SIZE);
+    }
+
+    @Test
+    public void arraysCrossingSegmentBoundaries() throws IOException {
+        // longer than the overlap
+        assertRead(SEGMENT_SIZE - 3, 12);
+        // spanning several segments
+        assertRead(5, 3 * SEGMENT_SIZE + 2);
+        // the whole file
+        assertRead(0, FILE_SIZE);
+        // up to the very end
+        assertRead(2 * SEGMENT_SIZE - 1, FILE_SIZE - 2 * SEGMENT_SIZE + 1);
+        assertRead(FILE_SIZE - 1, 1);
+    }
+
+    @Test
+    public void emptyArray() throws IOException {
+        buffer.get(FILE_SIZE, new byte[0]);
+    }
+
+    @Test
+    public void arraysPastTheEnd() throws IOException {
+        assertArrayReadFails(FILE_SIZE - 3, 4);
+        assertArrayReadFails(FILE_SIZE, 1);
+        // ends exactly on a segment boundary past the end of the file
+        assertArrayReadFails(FILE_SIZE - 5, 2 * SEGMENT_SIZE);
+        assertArrayReadFails(10 * SEGMENT_SIZE, 1);
+    }
+
+    @Test
+    public void primitivesPastTheEnd() throws IOException {
+        try {
+            buffer.getByte(FILE_SIZE);
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+            // pass
+        }
+        try {
+            buffer.getInt(FILE_SIZE - 2);
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+            // pass
+        }
+        try {
+            buffer.getLong(FILE_SIZE - 7);
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+            // pass
+        }
+        try {
+            buffer.getShort(100 * SEGMENT_SIZE);
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+            // pass
+        }
+        try {
+            buffer.getChar(-1);
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+            // pass
+        }
+    }
+
+    @Test
+    public void fileOfExactlyOneSegment() throws Exception {
+        byte[] bytes = Arrays.copyOf(content, SEGMENT_SIZE);
+        try (MappedReadBuffer exact = open(bytes)) {
+            assertEquals(expected.getLong(SEGMENT_SIZE - 8), exact.getLong(SEGMENT_SIZE - 8));
+            byte[] all = new byte[SEGMENT_SIZE];
+            exact.get(0, all);
+            assertArrayEquals(bytes, all);
+            try {
+                exact.getByte(SEGMENT_SIZE);
+                fail("expected EOFException");
+            } catch (EOFException expected) {
+                // pass
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void segmentsMustHoldTheOverlap() throws IOException {
+        new MappedReadBuffer(new RandomAccessFile(folder.newFile(), "r"), 2);
+    }
+
+    private void assertRead(int pos, int length) throws IOException {
+        byte[] result = new byte[length];
+        buffer.get(pos, result);
+        assertArrayEquals("read of " + length + " at " + pos,
+                Arrays.copyOfRange(content, pos, pos + length), result);
+    }
+
+    private void assertArrayReadFails(long pos, int length) throws IOException {
+        try {
+            buffer.get(pos, new byte[length]);
+            fail("expected EOFException for read of " + length + " at " + pos);
+        } catch (EOFException expected) {
+            // pass
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.vm.heap.analysis.hat.hprof.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+public class LongHashMapTest {
+
+    @Test
+    public void emptyMap() {
+        LongHashMap<String> map = new LongHashMap<>();
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertNull(map.get(42));
+        assertFalse(map.containsKey(0));
+        assertEquals(-1, map.indexOf(42));
+        assertFalse(map.iterator().hasNext());
+    }
+
+    @Test
+    public void putAndGet() {
+        LongHashMap<String> map = new LongHashMap<>();
+        assertNull(map.put(0x1000, "a"));
+        assertNull(map.put(0, "zero"));
+        assertNull(map.put(-1, "minus one"));
+        assertNull(map.put(Long.MIN_VALUE, "min"));
+        assertNull(map.put(Long.MAX_VALUE, "max"));
+
+        assertEquals(5, map.size());
+        assertEquals("a", map.get(0x1000));
+        assertEquals("zero", map.get(0));
+        assertEquals("minus one", map.get(-1));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+        assertEquals("max", map.get(Long.MAX_VALUE));
+        assertTrue(map.containsKey(0));
+        assertNull(map.get(0x1008));
+    }
+
+    @Test
+    public void putReplacesValueAndKeepsIndex() {
+        LongHashMap<String> map = new LongHashMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+
+        assertEquals("a", map.put(1, "c"));
+        assertEquals(2, map.size());
+        assertEquals(0, map.indexOf(1));
+        assertEquals("c", map.valueAt(0));
+        assertEquals(Arrays.asList("c", "b"), toList(map.iterator()));
+    }
+
+    @Test
+    public void nullValues() {
+        LongHashMap<String> map = new LongHashMap<>();
+        map.put(1, null);
+        assertTrue(map.containsKey(1));
+        assertNull(map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        LongHashMap<Long> map = new LongHashMap<>(2);
+        int count = 100_000;
+        for (int i = 0; i < count; i++) {
+            // aligned like heap object ids
+            long key = 0x7f0000000000L + i * 8L;
+            assertNull(map.put(key, key));
+        }
+
+        assertEquals(count, map.size());
+        for (int i = 0; i < count; i++) {
+            long key = 0x7f0000000000L + i * 8L;
+            assertEquals(Long.valueOf(key), map.get(key));
+            assertEquals(i, map.indexOf(key));
+        }
+        assertFalse(map.containsKey(0x7f0000000000L + count * 8L));
+    }
+
+    @Test
+    public void collidingKeys() {
+        // keys which all start probing at the same slot of the initial table
+        int mask = 15;
+        int slot = LongHashMap.hash(0) & mask;
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < 10; key++) {
+            if ((LongHashMap.hash(key) & mask) == slot) {
+                keys.add(key);
+            }
+        }
+
+        LongHashMap<Long> map = new LongHashMap<>();
+        map.put(0, 0L);
+        for (Long key : keys) {
+            map.put(key, key);
+        }
+
+        assertEquals(keys.size() + 1, map.size());
+        assertEquals(Long.valueOf(0), map.get(0));
+        for (Long key : keys) {
+            assertEquals(key, map.get(key));
+        }
+        // and they still resolve after the table was rehashed
+        for (long key = 1000; key < 1100; key++) {
+            map.put(key, key);
+        }
+        for (Long key : keys) {
+            assertEquals(key, map.get(key));
+        }
+    }
+
+    @Test
+    public void putAll() {
+        LongHashMap<String> first = new LongHashMap<>();
+        first.put(1, "a");
+        first.put(2, "b");
+        LongHashMap<String> second = new LongHashMap<>();
+        second.put(2, "c");
+        for (int i = 3; i < 50; i++) {
+            second.put(i, "v" + i);
+        }
+
+        first.putAll(second);
+
+        assertEquals(49, first.size());
+        assertEquals("a", first.get(1));
+        assertEquals("c", first.get(2));
+        assertEquals(1, first.indexOf(2));
+        for (int i = 3; i < 50; i++) {
+            assertEquals("v" + i, first.get(i));
+        }
+        // the source is left alone
+        assertEquals(48, second.size());
+    }
+
+    @Test
+    public void clear() {
+        LongHashMap<String> map = new LongHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            map.put(i, "v" + i);
+        }
+
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertNull(map.get(5));
+        assertFalse(map.iterator().hasNext());
+        try {
+            map.valueAt(0);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+            // pass
+        }
+
+        // reusable after clearing, with fresh indexes
+        map.put(7, "x");
+        assertEquals(0, map.indexOf(7));
+        assertEquals("x", map.get(7));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void iteratesInInsertionOrder() {
+        LongHashMap<Long> map = new LongHashMap<>();
+        List<Long> expected = new ArrayList<>();
+        for (long key = 1000; key > 0; key -= 7) {
+            long value = key * 31;
+            map.put(key, value);
+            expected.add(value);
+        }
+
+        assertEquals(expected, toList(map.iterator()));
+
+        List<Long> enumerated = new ArrayList<>();
+        Enumeration<Long> elements = map.elements();
+        while (elements.hasMoreElements()) {
+            enumerated.add(elements.nextElement());
+        }
+        assertEquals(expected, enumerated);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void iteratorThrowsPastTheEnd() {
+        LongHashMap<String> map = new LongHashMap<>();
+        map.put(1, "a");
+        Iterator<String> iter = map.iterator();
+        iter.next();
+        iter.next();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void iteratorDoesNotRemove() {
+        LongHashMap<String> map = new LongHashMap<>();
+        map.put(1, "a");
+        Iterator<String> iter = map.iterator();
+        iter.next();
+        iter.remove();
+    }
+
+    private static <T> List<T> toList(Iterator<T> iter) {
+        List<T> list = new ArrayList<>();
+        while (iter.hasNext()) {
+            list.add(iter.next());
+        }
+        return list;
+    }
+}
@@ -38,10 +38,12 @@ package com.redhat.thermostat.vm.memory.common;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.redhat.thermostat.annotations.Service;
 import com.redhat.thermostat.storage.core.AgentId;
 import com.redhat.thermostat.storage.core.Category;
+import com.redhat.thermostat.storage.core.DataRetentionPolicy;
 import com.redhat.thermostat.storage.core.Key;
 import com.redhat.thermostat.storage.core.VmId;
 import com.redhat.thermostat.storage.core.VmRef;
@@ -61,7 +63,9 @@ public interface VmMemoryStatDAO {
             Arrays.<Key<?>>asList(Key.AGENT_ID, Key.VM_ID, Key.TIMESTAMP,
                     KEY_METASPACE_MAX_CAPACITY, KEY_METASPACE_MIN_CAPACITY, KEY_METASPACE_CAPACITY, KEY_METASPACE_USED,
                     generationsKey),
-            Arrays.<Key<?>>asList(Key.TIMESTAMP));
+            Arrays.<Key<?>>asList(Key.TIMESTAMP),
+            // Only enforced if the storage enables retention, see DataRetentionPolicy
+            new DataRetentionPolicy(30, TimeUnit.DAYS));
 
     public VmMemoryStat getNewestMemoryStat(VmRef ref);
 
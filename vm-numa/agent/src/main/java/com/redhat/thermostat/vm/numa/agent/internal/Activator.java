@@ -37,7 +37,6 @@
 package com.redhat.thermostat.vm.numa.agent.internal;
 
 import java.io.IOException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -52,6 +51,7 @@ import org.osgi.framework.ServiceRegistration;
 
 import com.redhat.thermostat.agent.VmStatusListenerRegistrar;
 import com.redhat.thermostat.backend.Backend;
+import com.redhat.thermostat.backend.BackendScheduler;
 import com.redhat.thermostat.backend.BackendService;
 import com.redhat.thermostat.common.MultipleServiceTracker;
 import com.redhat.thermostat.common.MultipleServiceTracker.DependencyProvider;
@@ -71,7 +71,7 @@ public class Activator implements BundleActivator {
     @Override
     public void start(final BundleContext context) throws Exception {
         final VmStatusListenerRegistrar registrar = new VmStatusListenerRegistrar(context);
-        executor = Executors.newSingleThreadScheduledExecutor();
+        executor = BackendScheduler.getInstance().createExecutor("vm-numa");
         Class<?>[] deps = new Class<?>[] {
                 BackendService.class,
                 VmNumaDAO.class,
@@ -67,6 +67,10 @@ public class ProfilerRequestReceiver implements RequestReceiver {
         try {
             switch (value) {
             case ProfileRequest.START_PROFILING:
+                String mode = request.getParameter(ProfileRequest.MODE);
+                if (ProfileRequest.MODE_SAMPLING.equals(mode)) {
+                    return startSampling(vmId, getSamplingInterval(request));
+                }
                 return startProfiling(vmId);
             case ProfileRequest.STOP_PROFILING:
                 return stopProfiling(vmId);
@@ -91,6 +95,25 @@ public class ProfilerRequestReceiver implements RequestReceiver {
         }
     }
 
+    private long getSamplingInterval(Request request) {
+        String interval = request.getParameter(ProfileRequest.SAMPLING_INTERVAL);
+        if (interval == null) {
+            return ProfileRequest.DEFAULT_SAMPLING_INTERVAL_MILLIS;
+        }
+        return Long.parseLong(interval);
+    }
+
+    private Response startSampling(String vmId, long intervalMillis) {
+        logger.info("Starting sampling " + vmId + " every " + intervalMillis + "ms");
+        try {
+            profiler.startSampling(vmId, intervalMillis);
+            return OK;
+        } catch (Exception e) {
+            logger.log(Level.INFO, "start sampling failed", e);
+            return ERROR;
+        }
+    }
+
     private Response stopProfiling(String vmId) {
         logger.info("Stopping profiling " + vmId);
         try {
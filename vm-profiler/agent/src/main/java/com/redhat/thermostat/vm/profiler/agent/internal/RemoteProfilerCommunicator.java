@@ -92,6 +92,11 @@ class RemoteProfilerCommunicator {
         invokeMethodOnInstrumentation(pid, "startProfiling");
     }
 
+    public void startSampling(int pid, long intervalMillis) throws ProfilerException {
+        invokeMethodOnInstrumentation(pid, "startSampling",
+                new Object[] { intervalMillis }, new String[] { long.class.getName() });
+    }
+
     public void stopProfiling(int pid) throws ProfilerException {
         invokeMethodOnInstrumentation(pid, "stopProfiling");
     }
@@ -101,12 +106,16 @@ class RemoteProfilerCommunicator {
     }
 
     private Object invokeMethodOnInstrumentation(int pid, String name) throws ProfilerException {
+        return invokeMethodOnInstrumentation(pid, name, new Object[0], new String[0]);
+    }
+
+    private Object invokeMethodOnInstrumentation(int pid, String name, Object[] params, String[] signature) throws ProfilerException {
         try {
             MXBeanConnection connection = connectionPool.acquire(pid);
             try {
                 ObjectName instrumentation = new ObjectName(INSTRUMENTATION_OBJECT);
                 MBeanServerConnection server = connection.get();
-                return server.invoke(instrumentation, name, new Object[0], new String[0]);
+                return server.invoke(instrumentation, name, params, signature);
             } finally {
                 connectionPool.release(pid, connection);
             }
@@ -130,6 +130,26 @@ public class VmProfiler {
     }
 
     public synchronized void startProfiling(String vmId) throws ProfilerException {
+        int pid = prepareToProfile(vmId);
+
+        remote.startProfiling(pid);
+
+        profilingStarted(vmId, pid);
+    }
+
+    public synchronized void startSampling(String vmId, long intervalMillis) throws ProfilerException {
+        if (intervalMillis <= 0) {
+            throw new ProfilerException("Invalid sampling interval: " + intervalMillis);
+        }
+        int pid = prepareToProfile(vmId);
+
+        remote.startSampling(pid, intervalMillis);
+
+        profilingStarted(vmId, pid);
+    }
+
+    /** @return the pid of the VM, which has the profiling agent loaded */
+    private int prepareToProfile(String vmId) throws ProfilerException {
         int pid = vmIdToPid.getPid(vmId);
         if (pid == VmIdToPidMapper.UNKNOWN_VMID) {
             throw new ProfilerException("Unknown VmId " + vmId);
@@ -148,9 +168,10 @@ public class VmProfiler {
             remote.loadAgentIntoPid(pid, agentJarPath, agentArgs);
             vmsWithAgentLoaded.add(pid);
         }
+        return pid;
+    }
 
-        remote.startProfiling(pid);
-
+    private void profilingStarted(String vmId, int pid) {
         long startTime = clock.getRealTimeMillis();
         currentlyProfiledVmPids.add(pid);
         vmStartTimeStamps.put(pid, startTime);
@@ -75,6 +75,25 @@ public class ProfilerRequestReceiverTest {
         assertEquals(ResponseType.OK, result.getType());
     }
 
+    @Test
+    public void forwardsStartSamplingRequestToProfiler() throws Exception {
+        Request request = ProfileRequest.createStartSampling(null, VM_ID, 20);
+        Response result = requestReceiver.receive(request);
+
+        verify(profiler).startSampling(VM_ID, 20);
+
+        assertEquals(ResponseType.OK, result.getType());
+    }
+
+    @Test
+    public void exceptionThrownFromProfilerResultsInStartSamplingError() throws Exception {
+        doThrow(ProfilerException.class).when(profiler).startSampling(VM_ID, 20);
+        Request request = ProfileRequest.createStartSampling(null, VM_ID, 20);
+        Response result = requestReceiver.receive(request);
+
+        assertEquals(ResponseType.NOK, result.getType());
+    }
+
     @Test
     public void exceptionThrownFromProfilerResultsInStarError() throws Exception {
         doThrow(ProfilerException.class).when(profiler).startProfiling(VM_ID);
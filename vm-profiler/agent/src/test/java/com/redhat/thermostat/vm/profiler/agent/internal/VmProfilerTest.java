@@ -131,6 +131,23 @@ public class VmProfilerTest {
         verifyNoMoreInteractions(remote);
     }
 
+    @Test
+    public void startingSamplingLoadsJvmAgentAndMakesAnRmiCall() throws Exception {
+        profiler.vmStarted(VM_ID, PID);
+        profiler.startSampling(VM_ID, 10);
+
+        verify(remote).loadAgentIntoPid(PID, AGENT_JAR, AGENT_OPTIONS);
+        verify(remote).startSampling(PID, 10);
+        verify(dao).addStatus(new ProfileStatusChange(AGENT_ID, VM_ID, TIMESTAMP, true));
+        verifyNoMoreInteractions(remote);
+    }
+
+    @Test (expected=ProfilerException.class)
+    public void doesNotSampleWithInvalidInterval() throws Exception {
+        profiler.vmStarted(VM_ID, PID);
+        profiler.startSampling(VM_ID, 0);
+    }
+
     @Test
     public void onlyLoadsAgentOnceForRepeatedProfiling() throws Exception {
         final String FILE = "foobar";
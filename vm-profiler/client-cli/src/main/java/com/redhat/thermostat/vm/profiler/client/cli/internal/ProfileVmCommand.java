@@ -47,6 +47,7 @@ import java.util.concurrent.Semaphore;
 import com.redhat.thermostat.client.cli.VmArgument;
 import com.redhat.thermostat.client.command.RequestQueue;
 import com.redhat.thermostat.common.cli.AbstractCommand;
+import com.redhat.thermostat.common.cli.Arguments;
 import com.redhat.thermostat.common.cli.CommandContext;
 import com.redhat.thermostat.common.cli.CommandException;
 import com.redhat.thermostat.common.cli.Console;
@@ -78,6 +79,9 @@ public class ProfileVmCommand extends AbstractCommand {
     static final String STATUS_ARGUMENT = "status";
     static final String SHOW_ARGUMENT = "show";
 
+    static final String SAMPLE_OPTION = "sample";
+    static final String INTERVAL_OPTION = "interval";
+
     private final DependencyServices myServices = new DependencyServices();
 
     @Override
@@ -103,7 +107,12 @@ public class ProfileVmCommand extends AbstractCommand {
         String command = ctx.getArguments().getSubcommand();
         switch (command) {
         case START_ARGUMENT:
-            sendStartProfilingRequest(ctx.getConsole(), requestQueue, target, vmId.get());
+            if (ctx.getArguments().hasArgument(SAMPLE_OPTION)) {
+                long interval = getSamplingInterval(ctx.getArguments());
+                sendStartSamplingRequest(ctx.getConsole(), requestQueue, target, vmId.get(), interval);
+            } else {
+                sendStartProfilingRequest(ctx.getConsole(), requestQueue, target, vmId.get());
+            }
             break;
         case STOP_ARGUMENT:
             sendStopProfilingRequest(ctx.getConsole(), requestQueue, target, vmId.get());
@@ -117,10 +126,35 @@ public class ProfileVmCommand extends AbstractCommand {
         }
     }
 
+    private long getSamplingInterval(Arguments args) throws CommandException {
+        if (!args.hasArgument(INTERVAL_OPTION)) {
+            return ProfileRequest.DEFAULT_SAMPLING_INTERVAL_MILLIS;
+        }
+        String value = args.getArgument(INTERVAL_OPTION);
+        try {
+            long interval = Long.parseLong(value);
+            if (interval > 0) {
+                return interval;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new CommandException(translator.localize(LocaleResources.INVALID_SAMPLING_INTERVAL, value));
+    }
+
     public void sendStartProfilingRequest(Console console, RequestQueue queue, InetSocketAddress target, String vmId) throws CommandException {
         Response response = sendProfilingRequestAndGetResponse(
-                console, queue, target, ProfileRequest.START_PROFILING, vmId);
+                console, queue, ProfileRequest.create(target, vmId, ProfileRequest.START_PROFILING));
+        printStartResponse(console, vmId, response);
+    }
 
+    public void sendStartSamplingRequest(Console console, RequestQueue queue, InetSocketAddress target, String vmId, long intervalMillis) throws CommandException {
+        Response response = sendProfilingRequestAndGetResponse(
+                console, queue, ProfileRequest.createStartSampling(target, vmId, intervalMillis));
+        printStartResponse(console, vmId, response);
+    }
+
+    private void printStartResponse(Console console, String vmId, Response response) {
         if (response.getType() == ResponseType.OK) {
             console.getOutput().println(translator.localize(LocaleResources.STARTED_PROFILING, vmId).getContents());
         } else if (response.getType() == ResponseType.NOOP) {
@@ -148,9 +182,12 @@ public class ProfileVmCommand extends AbstractCommand {
     }
 
     public Response sendProfilingRequestAndGetResponse(Console console, RequestQueue queue, InetSocketAddress target, String action, String vmId) throws CommandException {
+        return sendProfilingRequestAndGetResponse(console, queue, ProfileRequest.create(target, vmId, action));
+    }
+
+    private Response sendProfilingRequestAndGetResponse(Console console, RequestQueue queue, Request request) throws CommandException {
         final Response[] responses = new Response[1];
         final Semaphore responseReceived = new Semaphore(0);
-        Request request = ProfileRequest.create(target, vmId, action);
 
         request.addListener(new RequestResponseListener() {
             @Override
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.vm.profiler.client.core;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A calling-context tree read from a profile: one node per distinct call
+ * path, with the time spent in that path's last method itself (self time)
+ * and including the methods it called (total time). Times are in
+ * nanoseconds.
+ * <p>
+ * Nodes are ints from {@code 0} ({@link #ROOT}) to {@code getNodeCount() - 1},
+ * in pre-order, so a node's parent always comes before it.
+ * <p>
+ * The binary format is written by the agent's {@code CallTreeWriter}:
+ *
+ * <pre>
+ * int     magic, {@link #MAGIC}
+ * byte    version, {@link #VERSION}
+ * varint  number of properties, then for each: key and value (modified UTF-8)
+ * varint  number of strings, then for each: the string (modified UTF-8)
+ * varint  number of nodes, including the root
+ * varlong root self time, varlong root total time
+ * for each other node, in pre-order:
+ *   varint  distance to the parent (node index - parent index)
+ *   varint  index of the method name in the strings
+ *   varlong self time
+ *   varlong total time
+ * </pre>
+ *
+ * Varints are unsigned LEB128.
+ */
+public class ProfileTree {
+
+    public static final int MAGIC = 0x54505246;
+    public static final int VERSION = 1;
+
+    public static final int ROOT = 0;
+
+    private final Map<String, String> properties;
+    private final String[] strings;
+    private final int[] parents;
+    private final int[] methods;
+    private final long[] selfTimes;
+    private final long[] totalTimes;
+
+    /** children of node i are childNodes[childStart[i]] to childNodes[childStart[i + 1] - 1] */
+    private volatile int[] childStart;
+    private int[] childNodes;
+
+    private ProfileTree(Map<String, String> properties, String[] strings,
+            int[] parents, int[] methods, long[] selfTimes, long[] totalTimes) {
+        this.properties = Collections.unmodifiableMap(properties);
+        this.strings = strings;
+        this.parents = parents;
+        this.methods = methods;
+        this.selfTimes = selfTimes;
+        this.totalTimes = totalTimes;
+    }
+
+    /**
+     * Reads a tree, starting at the magic number.
+     *
+     * @throws IOException if the data is not a profile tree or is corrupt
+     */
+    public static ProfileTree read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not a profile tree: bad magic " + Integer.toHexString(magic));
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported profile tree version: " + version);
+        }
+
+        int propertyCount = readCount(in);
+        Map<String, String> properties = new LinkedHashMap<>();
+        for (int i = 0; i < propertyCount; i++) {
+            properties.put(in.readUTF(), in.readUTF());
+        }
+
+        String[] strings = new String[readCount(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+
+        int nodeCount = readCount(in);
+        if (nodeCount < 1) {
+            throw new IOException("Profile tree has no root");
+        }
+        int[] parents = new int[nodeCount];
+        int[] methods = new int[nodeCount];
+        long[] selfTimes = new long[nodeCount];
+        long[] totalTimes = new long[nodeCount];
+        parents[ROOT] = -1;
+        methods[ROOT] = -1;
+        selfTimes[ROOT] = readVarLong(in);
+        totalTimes[ROOT] = readVarLong(in);
+        for (int node = ROOT + 1; node < nodeCount; node++) {
+            long distance = readVarLong(in);
+            if (distance < 1 || distance > node) {
+                throw new IOException("Bad parent for node " + node);
+            }
+            parents[node] = node - (int) distance;
+            long method = readVarLong(in);
+            if (method < 0 || method >= strings.length) {
+                throw new IOException("Bad method name for node " + node);
+            }
+            methods[node] = (int) method;
+            selfTimes[node] = readVarLong(in);
+            totalTimes[node] = readVarLong(in);
+        }
+
+        return new ProfileTree(properties, strings, parents, methods, selfTimes, totalTimes);
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        long count = readVarLong(in);
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IOException("Bad count: " + count);
+        }
+        return (int) count;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /** @return how the profile was collected, such as the sampling mode */
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /** @return the number of nodes, including the root */
+    public int getNodeCount() {
+        return parents.length;
+    }
+
+    /** @return the parent of {@code node}, or {@code -1} for the root */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    public int[] getChildren(int node) {
+        if (childStart == null) {
+            indexChildren();
+        }
+        return Arrays.copyOfRange(childNodes, childStart[node], childStart[node + 1]);
+    }
+
+    private synchronized void indexChildren() {
+        if (childStart != null) {
+            return;
+        }
+        int count = parents.length;
+        int[] start = new int[count + 1];
+        for (int node = ROOT + 1; node < count; node++) {
+            start[parents[node] + 1]++;
+        }
+        for (int node = 0; node < count; node++) {
+            start[node + 1] += start[node];
+        }
+        int[] next = Arrays.copyOf(start, count);
+        int[] nodes = new int[Math.max(count - 1, 0)];
+        for (int node = ROOT + 1; node < count; node++) {
+            nodes[next[parents[node]]++] = node;
+        }
+        childNodes = nodes;
+        childStart = start;
+    }
+
+    /** @return the method name and descriptor of {@code node}, or {@code null} for the root */
+    public String getMethodName(int node) {
+        return node == ROOT ? null : strings[methods[node]];
+    }
+
+    /** @return the time spent in {@code node}'s method itself, in nanoseconds */
+    public long getSelfTime(int node) {
+        return selfTimes[node];
+    }
+
+    /** @return the time spent in {@code node} and its descendants, in nanoseconds */
+    public long getTotalTime(int node) {
+        return totalTimes[node];
+    }
+
+    /**
+     * @return method name -> time spent in the method itself, in
+     * nanoseconds, added up over all call paths
+     */
+    public Map<String, Long> getSelfTimesByMethod() {
+        long[] times = new long[strings.length];
+        for (int node = ROOT + 1; node < parents.length; node++) {
+            times[methods[node]] += selfTimes[node];
+        }
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < times.length; i++) {
+            result.put(strings[i], times[i]);
+        }
+        return result;
+    }
+}
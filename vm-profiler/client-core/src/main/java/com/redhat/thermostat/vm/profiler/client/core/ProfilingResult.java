@@ -57,12 +57,26 @@ public class ProfilingResult {
     }
 
     private List<MethodInfo> info;
+    private ProfileTree callTree;
 
     public ProfilingResult(List<MethodInfo> data) {
+        this(data, null);
+    }
+
+    public ProfilingResult(List<MethodInfo> data, ProfileTree callTree) {
         this.info = Collections.unmodifiableList(data);
+        this.callTree = callTree;
     }
 
     public List<MethodInfo> getMethodInfo() {
         return info;
     }
+
+    /**
+     * @return the calling-context tree the method info was computed from, or
+     * {@code null} if the profile only has per-method times
+     */
+    public ProfileTree getCallTree() {
+        return callTree;
+    }
 }
\ No newline at end of file
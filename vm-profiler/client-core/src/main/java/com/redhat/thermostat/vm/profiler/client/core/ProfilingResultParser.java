@@ -36,7 +36,10 @@
 
 package com.redhat.thermostat.vm.profiler.client.core;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -57,7 +60,8 @@ import com.redhat.thermostat.common.utils.MethodDescriptorConverter.MethodDeclar
 import com.redhat.thermostat.vm.profiler.client.core.ProfilingResult.MethodInfo;
 
 /**
- * Results are expected to be in this format, one result per line:
+ * Results are expected to be a {@link ProfileTree}. Results written by older
+ * agents are in this format instead, one result per line:
  *
  * <pre>
  * [methodTime] [method]
@@ -68,15 +72,52 @@ import com.redhat.thermostat.vm.profiler.client.core.ProfilingResult.MethodInfo;
  * descriptor, as defined by the <a href=
  * "http://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.3.3">
  * Java Language</a>. An example is {@code foo(I)I} to indicate
- * {@code int foo(int)}.
+ * {@code int foo(int)}. Results from sampling only know the method name, so
+ * they have no descriptor.
+ * <p>
+ * Lines starting with {@code #} describe how the results were collected and
+ * are skipped.
  */
 public class ProfilingResultParser {
 
     private static final Logger logger = LoggingUtils.getLogger(ProfilingResultParser.class);
 
+    private static final String COMMENT_PREFIX = "#";
+
     public ProfilingResult parse(InputStream in) {
-        Map<String, Long> methodAndTimes = readData(in);
-        return convertToResult(methodAndTimes);
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        try {
+            if (isProfileTree(buffered)) {
+                try (InputStream toClose = buffered) {
+                    return parseTree(buffered);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to parse profiling data: ", e);
+            return convertToResult(new HashMap<String, Long>(), null);
+        }
+        Map<String, Long> methodAndTimes = readData(buffered);
+        return convertToResult(methodAndTimes, null);
+    }
+
+    private boolean isProfileTree(BufferedInputStream in) throws IOException {
+        in.mark(4);
+        try {
+            return new DataInputStream(in).readInt() == ProfileTree.MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+
+    private ProfilingResult parseTree(InputStream in) throws IOException {
+        ProfileTree tree = ProfileTree.read(in);
+        Map<String, Long> methodAndTimes = new HashMap<String, Long>();
+        for (Entry<String, Long> entry : tree.getSelfTimesByMethod().entrySet()) {
+            methodAndTimes.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue()));
+        }
+        return convertToResult(methodAndTimes, tree);
     }
 
     private Map<String, Long> readData(InputStream in) {
@@ -85,6 +126,9 @@ public class ProfilingResultParser {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
             String line;
             while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)) {
+                    continue;
+                }
                 String[] parts = line.split("\\s+");
                 long time = TimeUnit.NANOSECONDS.toMillis(Long.valueOf(parts[0]));
                 String name = parts[1];
@@ -97,7 +141,7 @@ public class ProfilingResultParser {
         return result;
     }
 
-    private ProfilingResult convertToResult(Map<String, Long> results) {
+    private ProfilingResult convertToResult(Map<String, Long> results, ProfileTree tree) {
         ArrayList<MethodInfo> info = new ArrayList<>();
         long totalTime = 0;
         for (Entry<String, Long> entry : results.entrySet()) {
@@ -118,7 +162,7 @@ public class ProfilingResultParser {
             }
         });
 
-        return new ProfilingResult(info);
+        return new ProfilingResult(info, tree);
     }
 
     private MethodDeclaration breakDownMethod(String name) {
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.vm.profiler.client.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ProfileTreeTest {
+
+    /**
+     * main()V (self 1)
+     *   foo()V (self 10)
+     *     bar()V (self 3000)
+     *   bar()V (self 200)
+     */
+    static byte[] sampleTree() throws IOException {
+        TreeBuilder builder = new TreeBuilder();
+        builder.property("mode", "sampling");
+        builder.strings("main()V", "foo()V", "bar()V");
+        builder.nodes(5, 0, 3211);
+        builder.node(1, 0, 1, 3211);
+        builder.node(1, 1, 10, 3010);
+        builder.node(1, 2, 3000, 3000);
+        builder.node(3, 2, 200, 200);
+        return builder.toByteArray();
+    }
+
+    @Test
+    public void readsNodesAndProperties() throws IOException {
+        ProfileTree tree = ProfileTree.read(new ByteArrayInputStream(sampleTree()));
+
+        assertEquals("sampling", tree.getProperties().get("mode"));
+        assertEquals(5, tree.getNodeCount());
+        assertNull(tree.getMethodName(ProfileTree.ROOT));
+        assertEquals(3211, tree.getTotalTime(ProfileTree.ROOT));
+
+        assertEquals("bar()V", tree.getMethodName(3));
+        assertEquals(2, tree.getParent(3));
+        assertEquals(3000, tree.getSelfTime(3));
+        assertEquals(1, tree.getParent(4));
+        assertEquals(200, tree.getTotalTime(4));
+    }
+
+    @Test
+    public void childrenAreIndexed() throws IOException {
+        ProfileTree tree = ProfileTree.read(new ByteArrayInputStream(sampleTree()));
+
+        assertArrayEquals(new int[] { 1 }, tree.getChildren(ProfileTree.ROOT));
+        assertArrayEquals(new int[] { 2, 4 }, tree.getChildren(1));
+        assertArrayEquals(new int[] { 3 }, tree.getChildren(2));
+        assertArrayEquals(new int[0], tree.getChildren(4));
+    }
+
+    @Test
+    public void selfTimesAreAddedUpPerMethod() throws IOException {
+        ProfileTree tree = ProfileTree.read(new ByteArrayInputStream(sampleTree()));
+
+        Map<String, Long> times = tree.getSelfTimesByMethod();
+
+        assertEquals(3, times.size());
+        assertEquals(1l, (long) times.get("main()V"));
+        assertEquals(10l, (long) times.get("foo()V"));
+        assertEquals(3200l, (long) times.get("bar()V"));
+    }
+
+    @Test(expected = IOException.class)
+    public void badMagicIsRejected() throws IOException {
+        ProfileTree.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 1 }));
+    }
+
+    @Test(expected = IOException.class)
+    public void badParentIsRejected() throws IOException {
+        TreeBuilder builder = new TreeBuilder();
+        builder.strings("main()V");
+        builder.nodes(2, 0, 1);
+        builder.node(2, 0, 1, 1);
+        ProfileTree.read(new ByteArrayInputStream(builder.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedDataIsRejected() throws IOException {
+        byte[] data = sampleTree();
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        ProfileTree.read(new ByteArrayInputStream(truncated));
+    }
+
+    /** Writes the profile tree format by hand. Call the methods in order. */
+    static class TreeBuilder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final ByteArrayOutputStream properties = new ByteArrayOutputStream();
+        private int propertyCount = 0;
+
+        void property(String key, String value) throws IOException {
+            DataOutputStream propertyOut = new DataOutputStream(properties);
+            propertyOut.writeUTF(key);
+            propertyOut.writeUTF(value);
+            propertyCount++;
+        }
+
+        void strings(String... strings) throws IOException {
+            out.writeInt(ProfileTree.MAGIC);
+            out.writeByte(ProfileTree.VERSION);
+            writeVarLong(propertyCount);
+            out.write(properties.toByteArray());
+            writeVarLong(strings.length);
+            for (String string : strings) {
+                out.writeUTF(string);
+            }
+        }
+
+        void nodes(int count, long rootSelf, long rootTotal) throws IOException {
+            writeVarLong(count);
+            writeVarLong(rootSelf);
+            writeVarLong(rootTotal);
+        }
+
+        void node(int parentDistance, int string, long self, long total) throws IOException {
+            writeVarLong(parentDistance);
+            writeVarLong(string);
+            writeVarLong(self);
+            writeVarLong(total);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.writeByte((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+}
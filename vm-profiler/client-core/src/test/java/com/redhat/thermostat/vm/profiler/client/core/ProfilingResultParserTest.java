@@ -37,6 +37,7 @@
 package com.redhat.thermostat.vm.profiler.client.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
@@ -65,4 +66,47 @@ public class ProfilingResultParserTest {
         assertEquals("int bar()", method1.decl.toString());
         assertEquals(2, method1.totalTimeInMillis);
     }
+
+    @Test
+    public void skipsCommentsFromSampling() throws Exception {
+        String data = "# samples: 10\n# sampling overhead: 0.50%\n3000000 com.example.Foo.run\n";
+        ByteArrayInputStream in = new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+
+        ProfilingResult result = new ProfilingResultParser().parse(in);
+
+        List<MethodInfo> methods = result.getMethodInfo();
+        assertEquals(1, methods.size());
+        assertEquals("com.example.Foo.run", methods.get(0).decl.getName());
+        assertEquals(3, methods.get(0).totalTimeInMillis);
+    }
+
+    @Test
+    public void parsesCallTrees() throws Exception {
+        ProfileTreeTest.TreeBuilder builder = new ProfileTreeTest.TreeBuilder();
+        builder.strings("foo()V", "bar()I");
+        builder.nodes(4, 0, 6000000);
+        builder.node(1, 0, 1000000, 6000000);
+        builder.node(1, 1, 2000000, 2000000);
+        builder.node(2, 1, 3000000, 3000000);
+        ByteArrayInputStream in = new ByteArrayInputStream(builder.toByteArray());
+
+        ProfilingResult result = new ProfilingResultParser().parse(in);
+
+        List<MethodInfo> methods = result.getMethodInfo();
+        assertEquals(2, methods.size());
+        assertEquals("void foo()", methods.get(0).decl.toString());
+        assertEquals(1, methods.get(0).totalTimeInMillis);
+        assertEquals("int bar()", methods.get(1).decl.toString());
+        assertEquals(5, methods.get(1).totalTimeInMillis);
+        assertEquals(4, result.getCallTree().getNodeCount());
+    }
+
+    @Test
+    public void legacyResultsHaveNoCallTree() throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream("1000000 foo()V\n".getBytes(StandardCharsets.UTF_8));
+
+        ProfilingResult result = new ProfilingResultParser().parse(in);
+
+        assertNull(result.getCallTree());
+    }
 }
@@ -52,6 +52,14 @@ public class ProfileRequest {
         return request;
     }
 
+    /** Creates a request to start profiling by sampling thread stacks */
+    public static Request createStartSampling(InetSocketAddress address, String vmId, long samplingIntervalMillis) {
+        Request request = create(address, vmId, START_PROFILING);
+        request.setParameter(ProfileRequest.MODE, ProfileRequest.MODE_SAMPLING);
+        request.setParameter(ProfileRequest.SAMPLING_INTERVAL, String.valueOf(samplingIntervalMillis));
+        return request;
+    }
+
     /** Value of Request.ACTION */
     public static final String NAME = "profile-vm";
 
@@ -67,4 +75,21 @@ public class ProfileRequest {
 
     /** Key that specifies the VM's id */
     public static final String VM_ID = "vm-id";
+
+    /**
+     * Key that specifies how to profile, for {@link #START_PROFILING}.
+     * Defaults to {@link #MODE_INSTRUMENTING} if absent.
+     */
+    public static final String MODE = "profile-mode";
+
+    /** value for {@link #MODE}: record every method call through bytecode instrumentation */
+    public static final String MODE_INSTRUMENTING = "instrumenting";
+    /** value for {@link #MODE}: periodically sample the stacks of running threads */
+    public static final String MODE_SAMPLING = "sampling";
+
+    /** Key that specifies the time between samples in milliseconds, for {@link #MODE_SAMPLING} */
+    public static final String SAMPLING_INTERVAL = "sampling-interval";
+
+    /** default value for {@link #SAMPLING_INTERVAL} */
+    public static final long DEFAULT_SAMPLING_INTERVAL_MILLIS = 10;
 }
@@ -51,6 +51,17 @@ public class AsmBasedInstrumentor extends ProfilerInstrumentor {
     private static final String RECORDER_CLASS_NAME =
             ProfileRecorder.class.getCanonicalName().replace('.', '/');
 
+    private final ProfileRecorder recorder;
+
+    public AsmBasedInstrumentor() {
+        this(ProfileRecorder.getInstance());
+    }
+
+    /** for testing only */
+    AsmBasedInstrumentor(ProfileRecorder recorder) {
+        this.recorder = recorder;
+    }
+
     @Override
     public byte[] transform(ClassLoader cl, String className, byte[] classBytes) {
         try {
@@ -58,7 +69,7 @@ public class AsmBasedInstrumentor extends ProfilerInstrumentor {
             // pipe data: reader -> instrumentor -> writer
             ClassReader reader = new ClassReader(classBytes);
             ClassWriter writer = new ClassLoaderFriendlyClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS, cl);
-            InstrumentingClassAdapter instrumentor = new InstrumentingClassAdapter(writer);
+            InstrumentingClassAdapter instrumentor = new InstrumentingClassAdapter(writer, recorder);
             reader.accept(instrumentor, ClassReader.SKIP_FRAMES);
             byte[] data = writer.toByteArray();
 
@@ -77,10 +88,12 @@ public class AsmBasedInstrumentor extends ProfilerInstrumentor {
 
     static class InstrumentingClassAdapter extends ClassVisitor {
 
+        private final ProfileRecorder recorder;
         private String className;
 
-        public InstrumentingClassAdapter(ClassVisitor visitor) {
+        public InstrumentingClassAdapter(ClassVisitor visitor, ProfileRecorder recorder) {
             super(Opcodes.ASM5, visitor);
+            this.recorder = recorder;
         }
 
         @Override
@@ -99,7 +112,8 @@ public class AsmBasedInstrumentor extends ProfilerInstrumentor {
 
             // FIXME instrument constructors
             if (mv != null && !(name.equals("<init>"))) {
-                MethodVisitor instrumentor = new InstrumentingMethodAdapter(mv, className, access, name, desc);
+                int methodId = recorder.registerMethod(className + "." + name + desc);
+                MethodVisitor instrumentor = new InstrumentingMethodAdapter(mv, methodId, access, name, desc);
                 mv = new JSRInlinerAdapter(instrumentor, access, name, desc, signature, exceptions);
             }
 
@@ -124,12 +138,12 @@ public class AsmBasedInstrumentor extends ProfilerInstrumentor {
      *
      * <pre>
      * public Object foo(int bar) {
-     *     ProfilerData.enterMethod(&quot;description&quot;);
+     *     ProfilerData.enterMethod(methodId);
      *     try {
      *         // do something
      *         return object
      *     } finally {
-     *         profilerData.exitMethod(&quot;description&quot;);
+     *         profilerData.exitMethod(methodId);
      *     }
      * }
      * </pre>
@@ -140,22 +154,23 @@ public class AsmBasedInstrumentor extends ProfilerInstrumentor {
      * block. Because there may already be exception-handling code in the
      * method, it adds an exception-table entry in the last place that covers
      * the entire method.
+     * <p>
+     * {@code methodId} is the id {@link ProfileRecorder#registerMethod(String)}
+     * assigned to the method when it was instrumented.
      */
     static class InstrumentingMethodAdapter extends AdviceAdapter {
 
         private static final String EXIT_METHOD = "exitMethod";
 
-        private String className;
-        private String methodName;
+        private final int methodId;
 
         private Label startFinally = new Label();
         private Label endFinally = new Label();
 
-        protected InstrumentingMethodAdapter(MethodVisitor mv, String className, int access, String methodName, String desc) {
+        protected InstrumentingMethodAdapter(MethodVisitor mv, int methodId, int access, String methodName, String desc) {
             super(Opcodes.ASM5, mv, access, methodName, desc);
 
-            this.className = className;
-            this.methodName = methodName;
+            this.methodId = methodId;
         }
 
         @Override
@@ -197,8 +212,18 @@ public class AsmBasedInstrumentor extends ProfilerInstrumentor {
 
         private void callProfilerRecorder(String method) {
             mv.visitMethodInsn(Opcodes.INVOKESTATIC, RECORDER_CLASS_NAME, "getInstance", "()L" + RECORDER_CLASS_NAME + ";", false);
-            mv.visitLdcInsn(className + "." + methodName + methodDesc);
-            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, RECORDER_CLASS_NAME, method, "(Ljava/lang/String;)V", false);
+            pushMethodId();
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, RECORDER_CLASS_NAME, method, "(I)V", false);
+        }
+
+        private void pushMethodId() {
+            if (methodId <= Byte.MAX_VALUE) {
+                mv.visitIntInsn(BIPUSH, methodId);
+            } else if (methodId <= Short.MAX_VALUE) {
+                mv.visitIntInsn(SIPUSH, methodId);
+            } else {
+                mv.visitLdcInsn(methodId);
+            }
         }
 
         // for debugging: insert opcodes to invoke System.exit()
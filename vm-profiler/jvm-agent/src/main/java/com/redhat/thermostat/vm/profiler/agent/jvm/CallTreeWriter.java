@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.profiler.agent.jvm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link CallingContextTree} in the binary profile format read by
+ * the client's {@code ProfileTree}:
+ *
+ * <pre>
+ * int     magic, {@link #MAGIC}
+ * byte    version, {@link #VERSION}
+ * varint  number of properties, then for each: key and value (modified UTF-8)
+ * varint  number of strings, then for each: the string (modified UTF-8)
+ * varint  number of nodes, including the root
+ * varlong root self time, varlong root total time
+ * for each other node, in pre-order:
+ *   varint  distance to the parent (node index - parent index)
+ *   varint  index of the method name in the strings
+ *   varlong self time
+ *   varlong total time
+ * </pre>
+ *
+ * Times are in nanoseconds. Varints are unsigned LEB128. Nodes with no time
+ * recorded in their subtree are left out.
+ */
+public class CallTreeWriter {
+
+    public static final int MAGIC = 0x54505246;
+    public static final int VERSION = 1;
+
+    private final DataOutputStream out;
+
+    public CallTreeWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    /**
+     * @param methodNames method id -> method name, for the tree's methods
+     * @param properties how the profile was collected
+     */
+    public void write(CallingContextTree tree, List<String> methodNames, Map<String, String> properties) throws IOException {
+        int count = tree.getNodeCount();
+
+        long[] totalTimes = new long[count];
+        for (int node = count - 1; node >= 0; node--) {
+            totalTimes[node] += tree.getSelfTime(node);
+            if (node != CallingContextTree.ROOT) {
+                totalTimes[tree.getParent(node)] += totalTimes[node];
+            }
+        }
+
+        // children lists; parents always come before their children
+        int[] firstChild = new int[count];
+        int[] nextSibling = new int[count];
+        Arrays.fill(firstChild, CallingContextTree.NO_NODE);
+        for (int node = count - 1; node > CallingContextTree.ROOT; node--) {
+            if (totalTimes[node] != 0) {
+                int parent = tree.getParent(node);
+                nextSibling[node] = firstChild[parent];
+                firstChild[parent] = node;
+            }
+        }
+
+        int[] order = new int[count];
+        int[] position = new int[count];
+        int written = preOrder(firstChild, nextSibling, order, position);
+
+        // only the names that are used, in order of first use
+        int[] stringIndex = new int[methodNames.size()];
+        Arrays.fill(stringIndex, -1);
+        int[] strings = new int[methodNames.size()];
+        int stringCount = 0;
+        for (int i = 1; i < written; i++) {
+            int method = tree.getMethod(order[i]);
+            if (stringIndex[method] == -1) {
+                stringIndex[method] = stringCount;
+                strings[stringCount++] = method;
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        writeVarLong(properties.size());
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            out.writeUTF(property.getKey());
+            out.writeUTF(property.getValue());
+        }
+        writeVarLong(stringCount);
+        for (int i = 0; i < stringCount; i++) {
+            out.writeUTF(methodNames.get(strings[i]));
+        }
+        writeVarLong(written);
+        writeVarLong(tree.getSelfTime(CallingContextTree.ROOT));
+        writeVarLong(totalTimes[CallingContextTree.ROOT]);
+        for (int i = 1; i < written; i++) {
+            int node = order[i];
+            writeVarLong(i - position[tree.getParent(node)]);
+            writeVarLong(stringIndex[tree.getMethod(node)]);
+            writeVarLong(tree.getSelfTime(node));
+            writeVarLong(totalTimes[node]);
+        }
+        out.flush();
+    }
+
+    /** @return the number of nodes visited */
+    private static int preOrder(int[] firstChild, int[] nextSibling, int[] order, int[] position) {
+        int[] stack = new int[order.length];
+        int depth = 0;
+        int visited = 0;
+        stack[depth++] = CallingContextTree.ROOT;
+        while (depth > 0) {
+            int node = stack[--depth];
+            position[node] = visited;
+            order[visited++] = node;
+            // push in reverse so the first child is visited first
+            int childCount = 0;
+            for (int child = firstChild[node]; child != CallingContextTree.NO_NODE; child = nextSibling[child]) {
+                stack[depth + childCount++] = child;
+            }
+            reverse(stack, depth, depth + childCount);
+            depth += childCount;
+        }
+        return visited;
+    }
+
+    private static void reverse(int[] array, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.profiler.agent.jvm;
+
+import java.util.Arrays;
+
+/**
+ * A calling-context tree: one node per distinct call path, each holding the
+ * time spent in that path's last method itself. Methods are identified by
+ * ints; what they mean is up to the caller.
+ * <p>
+ * The number of nodes is bounded. Once the budget is used up,
+ * {@link #getOrAddChild(int, int)} returns {@link #NO_NODE} and callers
+ * record against the deepest node that exists instead.
+ * <p>
+ * Only one thread may modify a tree. Other threads may call
+ * {@link #merge(CallingContextTree)} on it while it is being modified; they
+ * see all nodes added before the last {@link #getNodeCount()} and times that
+ * may be a little stale.
+ */
+public class CallingContextTree {
+
+    static final int ROOT = 0;
+    static final int NO_NODE = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int maxNodes;
+
+    private volatile int nodeCount = 1;
+    private int[] nodeMethods = new int[INITIAL_CAPACITY];
+    private int[] nodeParents = new int[INITIAL_CAPACITY];
+    private long[] nodeSelfTimes = new long[INITIAL_CAPACITY];
+    /** the child most recently looked up, to skip the hash lookup when a method is called repeatedly */
+    private int[] nodeLastChild = new int[INITIAL_CAPACITY];
+
+    /** open addressing hash table: (parent, method) -> child */
+    private long[] childKeys = new long[INITIAL_CAPACITY * 2];
+    private int[] childValues = new int[INITIAL_CAPACITY * 2];
+
+    public CallingContextTree(int maxNodes) {
+        if (maxNodes < 1) {
+            throw new IllegalArgumentException("maxNodes must be positive");
+        }
+        this.maxNodes = maxNodes;
+        nodeMethods[ROOT] = -1;
+        nodeParents[ROOT] = NO_NODE;
+        nodeLastChild[ROOT] = NO_NODE;
+        Arrays.fill(childValues, NO_NODE);
+    }
+
+    /**
+     * @return the child of {@code parent} for {@code method}, adding it if
+     * needed, or {@link #NO_NODE} if it does not exist and the tree is full
+     */
+    public int getOrAddChild(int parent, int method) {
+        int last = nodeLastChild[parent];
+        if (last != NO_NODE && nodeMethods[last] == method) {
+            return last;
+        }
+        int child = getChild(parent, method);
+        if (child == NO_NODE) {
+            if (nodeCount == maxNodes) {
+                return NO_NODE;
+            }
+            child = addNode(parent, method);
+        }
+        nodeLastChild[parent] = child;
+        return child;
+    }
+
+    /** @return the child of {@code parent} for {@code method}, or {@link #NO_NODE} */
+    public int getChild(int parent, int method) {
+        long key = childKey(parent, method);
+        int mask = childKeys.length - 1;
+        for (int i = hash(key) & mask; childValues[i] != NO_NODE; i = (i + 1) & mask) {
+            if (childKeys[i] == key) {
+                return childValues[i];
+            }
+        }
+        return NO_NODE;
+    }
+
+    private int addNode(int parent, int method) {
+        int node = nodeCount;
+        if (node == nodeMethods.length) {
+            int capacity = node * 2;
+            nodeMethods = Arrays.copyOf(nodeMethods, capacity);
+            nodeParents = Arrays.copyOf(nodeParents, capacity);
+            nodeSelfTimes = Arrays.copyOf(nodeSelfTimes, capacity);
+            nodeLastChild = Arrays.copyOf(nodeLastChild, capacity);
+        }
+        nodeMethods[node] = method;
+        nodeParents[node] = parent;
+        nodeLastChild[node] = NO_NODE;
+        if ((node + 1) * 2 > childKeys.length) {
+            rehash(childKeys.length * 2);
+        }
+        putChild(childKey(parent, method), node);
+        // publishes the node to merging threads
+        nodeCount = node + 1;
+        return node;
+    }
+
+    private void putChild(long key, int child) {
+        int mask = childKeys.length - 1;
+        int i = hash(key) & mask;
+        while (childValues[i] != NO_NODE) {
+            i = (i + 1) & mask;
+        }
+        childKeys[i] = key;
+        childValues[i] = child;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = childKeys;
+        int[] oldValues = childValues;
+        childKeys = new long[capacity];
+        childValues = new int[capacity];
+        Arrays.fill(childValues, NO_NODE);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NO_NODE) {
+                putChild(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static long childKey(int parent, int method) {
+        return ((long) parent << 32) | (method & 0xffffffffL);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public void addSelfTime(int node, long time) {
+        nodeSelfTimes[node] += time;
+    }
+
+    /** Sets all times to zero, keeping the nodes. */
+    public void clearTimes() {
+        Arrays.fill(nodeSelfTimes, 0);
+    }
+
+    /**
+     * Adds the nodes and times of {@code other}, which must use the same
+     * method ids, to this tree.
+     */
+    public void merge(CallingContextTree other) {
+        int count = other.nodeCount;
+        int[] methods = other.nodeMethods;
+        int[] parents = other.nodeParents;
+        long[] selfTimes = other.nodeSelfTimes;
+        int[] mapping = new int[count];
+        mapping[ROOT] = ROOT;
+        nodeSelfTimes[ROOT] += selfTimes[ROOT];
+        // parents always come before their children
+        for (int node = ROOT + 1; node < count; node++) {
+            int parent = mapping[parents[node]];
+            int child = getOrAddChild(parent, methods[node]);
+            mapping[node] = child == NO_NODE ? parent : child;
+            nodeSelfTimes[mapping[node]] += selfTimes[node];
+        }
+    }
+
+    /** @return the number of nodes, including the root */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** @return true if no more nodes can be added */
+    public boolean isFull() {
+        return nodeCount == maxNodes;
+    }
+
+    /** @return the parent of {@code node}, or {@link #NO_NODE} for the root */
+    public int getParent(int node) {
+        return nodeParents[node];
+    }
+
+    public int getMethod(int node) {
+        return nodeMethods[node];
+    }
+
+    public long getSelfTime(int node) {
+        return nodeSelfTimes[node];
+    }
+}
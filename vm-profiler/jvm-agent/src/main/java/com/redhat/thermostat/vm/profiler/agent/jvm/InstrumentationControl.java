@@ -36,12 +36,12 @@
 
 package com.redhat.thermostat.vm.profiler.agent.jvm;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
 import java.lang.management.ManagementFactory;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
@@ -50,10 +50,11 @@ import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
 
 public class InstrumentationControl implements InstrumentationControlMXBean {
 
@@ -61,8 +62,11 @@ public class InstrumentationControl implements InstrumentationControlMXBean {
     private final ProfilerInstrumentor classInstrumentor;
     private final ProfileRecorder recorder;
     private final ResultsFileCreator resultsFileCreator;
+    private final StackSamplerCreator samplerCreator;
 
     private boolean profiling = false;
+    /** non-null while sampling */
+    private StackSampler sampler = null;
 
     private boolean resultsWrittenToDisk = true;
     private String lastResults = null;
@@ -75,10 +79,19 @@ public class InstrumentationControl implements InstrumentationControlMXBean {
             ProfilerInstrumentor instrumentor,
             ProfileRecorder recorder,
             ResultsFileCreator resultsFileCreator) {
+        this(instrumentation, instrumentor, recorder, resultsFileCreator, new StackSamplerCreator());
+    }
+
+    InstrumentationControl(Instrumentation instrumentation,
+            ProfilerInstrumentor instrumentor,
+            ProfileRecorder recorder,
+            ResultsFileCreator resultsFileCreator,
+            StackSamplerCreator samplerCreator) {
         this.instrumentation = instrumentation;
         this.classInstrumentor = instrumentor;
         this.recorder = recorder;
         this.resultsFileCreator = resultsFileCreator;
+        this.samplerCreator = samplerCreator;
 
         addShutdownHookToSaveData();
     }
@@ -109,6 +122,19 @@ public class InstrumentationControl implements InstrumentationControlMXBean {
         retransformAlreadyLoadedClasses(instrumentation, classInstrumentor);
     }
 
+    @Override
+    public void startSampling(long intervalMillis) {
+        if (profiling) {
+            throw new IllegalStateException("Already started");
+        }
+        StackSampler newSampler = samplerCreator.create(intervalMillis);
+        profiling = true;
+        resultsWrittenToDisk = false;
+
+        sampler = newSampler;
+        sampler.start();
+    }
+
     @Override
     public void stopProfiling() {
         if (!profiling) {
@@ -116,6 +142,13 @@ public class InstrumentationControl implements InstrumentationControlMXBean {
         }
         profiling = false;
 
+        if (sampler != null) {
+            sampler.stop();
+            writeProfilingResultsToDisk();
+            sampler = null;
+            return;
+        }
+
         instrumentation.removeTransformer(classInstrumentor);
         retransformAlreadyLoadedClasses(instrumentation, classInstrumentor);
 
@@ -164,6 +197,9 @@ public class InstrumentationControl implements InstrumentationControlMXBean {
 
     private void writeResultsToDiskIfNotWritten() {
         if (!resultsWrittenToDisk) {
+            if (sampler != null) {
+                sampler.stop();
+            }
             writeProfilingResultsToDisk();
         }
     }
@@ -172,14 +208,27 @@ public class InstrumentationControl implements InstrumentationControlMXBean {
         try {
             ResultsFile resultsFile = resultsFileCreator.get();
             String path = resultsFile.getPath();
-            BufferedWriter out = null;
+            OutputStream out = null;
             try {
-                out = resultsFile.getWriter();
-                Map<String, AtomicLong> data = recorder.getData();
-                Debug.println("AGENT: Writing " + data.size() + " results to: " + path);
-                for (Map.Entry<String, AtomicLong> entry : data.entrySet()) {
-                    out.write(entry.getValue().get() + "\t" + entry.getKey() + "\n");
+                out = resultsFile.getOutputStream();
+                CallingContextTree tree;
+                List<String> methodNames;
+                Map<String, String> properties;
+                if (sampler != null) {
+                    tree = sampler.getTree();
+                    methodNames = sampler.getMethodNames();
+                    properties = describeSampling(sampler);
+                } else {
+                    tree = recorder.getData();
+                    methodNames = recorder.getMethodNames();
+                    properties = new LinkedHashMap<String, String>();
+                    properties.put("mode", "instrumenting");
+                }
+                Debug.println("AGENT: Writing " + tree.getNodeCount() + " call tree nodes to: " + path);
+                for (Map.Entry<String, String> property : properties.entrySet()) {
+                    Debug.println("AGENT: " + property.getKey() + ": " + property.getValue());
                 }
+                new CallTreeWriter(out).write(tree, methodNames, properties);
                 resultsWrittenToDisk = true;
                 lastResults = path;
             } finally {
@@ -197,6 +246,16 @@ public class InstrumentationControl implements InstrumentationControlMXBean {
         }
     }
 
+    private static Map<String, String> describeSampling(StackSampler sampler) {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        result.put("mode", "sampling");
+        result.put("samples", String.valueOf(sampler.getSampleCount()));
+        result.put("sampling overhead", String.format(Locale.ROOT, "%.2f", sampler.getOverheadPercentage()) + "%");
+        result.put("call tree nodes", String.valueOf(sampler.getTree().getNodeCount()));
+        result.put("truncated stacks", String.valueOf(sampler.getTruncatedSampleCount()));
+        return result;
+    }
+
     private void clearProfileData() {
         recorder.clearData();
     }
@@ -211,6 +270,12 @@ public class InstrumentationControl implements InstrumentationControlMXBean {
         return lastResults;
     }
 
+    static class StackSamplerCreator {
+        StackSampler create(long intervalMillis) {
+            return new StackSampler(intervalMillis);
+        }
+    }
+
     static class ResultsFileCreator {
 
         ResultsFile get() throws IOException {
@@ -252,14 +317,14 @@ public class InstrumentationControl implements InstrumentationControlMXBean {
 
         String getPath() { return path.toString(); }
 
-        /** Caller must close the writer when done */
-        BufferedWriter getWriter() throws IOException {
+        /** Caller must close the stream when done */
+        OutputStream getOutputStream() throws IOException {
             OpenOption[] options = new OpenOption[] {
                     StandardOpenOption.WRITE,
                     StandardOpenOption.TRUNCATE_EXISTING
             };
 
-            return Files.newBufferedWriter(path, StandardCharsets.UTF_8, options);
+            return new BufferedOutputStream(Files.newOutputStream(path, options));
         }
     }
 }
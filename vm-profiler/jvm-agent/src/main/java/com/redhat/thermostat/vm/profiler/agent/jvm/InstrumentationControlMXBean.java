@@ -42,7 +42,13 @@ public interface InstrumentationControlMXBean {
     /** Enable profiling. */
     void startProfiling();
 
-    /** Disable profiling */
+    /**
+     * Enable profiling by sampling thread stacks every
+     * {@code intervalMillis} milliseconds instead of instrumenting classes.
+     */
+    void startSampling(long intervalMillis);
+
+    /** Disable profiling, whichever way it was started */
     void stopProfiling();
 
     /** @return whether profiling is currently active or not */
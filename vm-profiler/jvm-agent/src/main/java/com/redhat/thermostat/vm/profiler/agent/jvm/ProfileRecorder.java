@@ -36,34 +36,78 @@
 
 package com.redhat.thermostat.vm.profiler.agent.jvm;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Records the time spent in each instrumented method, per calling context.
+ * <p>
+ * Methods are identified by ids handed out by {@link #registerMethod(String)}
+ * when a class is instrumented, so the instrumented code passes an int around
+ * instead of a String. Each thread keeps its own {@link CallingContextTree};
+ * these are only merged when the results are read through {@link #getData()}.
+ */
 public class ProfileRecorder {
 
     private static final ProfileRecorder profileRecorder = new ProfileRecorder(new TimeSource());
 
-    /** shared between threads */
-    private ConcurrentHashMap<String, AtomicLong> profileData = new ConcurrentHashMap<String, AtomicLong>();
+    /** node budget of each thread's calling-context tree */
+    static final int MAX_NODES_PER_THREAD = 1 << 16;
+    /** node budget of the merged calling-context tree */
+    static final int MAX_NODES = 1 << 20;
+
+    private final TimeSource timeSource;
 
-    // TODO deal with thread id wrap-around
+    /** method id -> name, guarded by this */
+    private final List<String> methodNames = new ArrayList<String>();
+    /** name -> method id, guarded by this */
+    private final Map<String, Integer> methodIds = new HashMap<String, Integer>();
+
+    /** every thread that recorded anything, guarded by this */
+    private final List<ThreadData> threads = new ArrayList<ThreadData>();
 
     /**
-     * thread id -> info.
-     * <p>
-     * only the thread with the matching thread id is allowed to mutate 'info'
+     * Bumped by {@link #clearData()}. Threads throw away their times when they
+     * notice it changed, so clearing never races with a thread's own writes.
+     * They keep their trees, since they may be in the middle of a call path.
      */
-    private Map<Long, Info> threads = new ConcurrentHashMap<Long, Info>();
-
-    private final TimeSource timeSource;
+    private volatile int generation = 0;
+
+    private final ThreadLocal<ThreadData> threadData = new ThreadLocal<ThreadData>() {
+        @Override
+        protected ThreadData initialValue() {
+            ThreadData data = new ThreadData(Thread.currentThread(), generation);
+            synchronized (ProfileRecorder.this) {
+                threads.add(data);
+            }
+            return data;
+        }
+    };
 
-    final static class Info {
-        public Deque<String> stackFrames = new ArrayDeque<String>();
-        public long timeStamp = Long.MIN_VALUE;
+    /**
+     * Per-thread profiling state.
+     * <p>
+     * Only the owning thread mutates this. {@link ProfileRecorder#getData()}
+     * merges {@code tree} from other threads; a time it reads may be a
+     * little stale, which is fine for profiling results.
+     */
+    final static class ThreadData {
+        final Thread thread;
+        int generation;
+        final CallingContextTree tree = new CallingContextTree(MAX_NODES_PER_THREAD);
+        /** the node of the method currently executing */
+        int node = CallingContextTree.ROOT;
+        /** calls below {@code node} that did not fit in the tree */
+        int overflowDepth = 0;
+        long timeStamp = Long.MIN_VALUE;
+
+        ThreadData(Thread thread, int generation) {
+            this.thread = thread;
+            this.generation = generation;
+        }
     }
 
     /** for testing */
@@ -82,68 +126,112 @@ public class ProfileRecorder {
         return profileRecorder;
     }
 
+    /**
+     * Called when instrumenting a method. Returns the id that the
+     * instrumented code passes to {@link #enterMethod(int)} and
+     * {@link #exitMethod(int)}. The same name always gets the same id.
+     */
+    public synchronized int registerMethod(String fullyQualifiedName) {
+        Integer id = methodIds.get(fullyQualifiedName);
+        if (id == null) {
+            id = methodNames.size();
+            methodNames.add(fullyQualifiedName);
+            methodIds.put(fullyQualifiedName, id);
+        }
+        return id;
+    }
+
     /** called by instrumented code on every method enter */
-    public void enterMethod(String fullyQualifiedName) {
+    public void enterMethod(int methodId) {
         long currentTime = timeSource.nanoTime();
-        long threadId = Thread.currentThread().getId();
+        ThreadData data = getThreadData();
 
-        Info info = threads.get(threadId);
-
-        if (info == null) {
-            info = new Info();
-            threads.put(threadId, info);
-        }
-
-        if (info.stackFrames.size() != 0) {
+        if (data.node != CallingContextTree.ROOT) {
             // update time for previous method on the stack
-            Long oldTime = info.timeStamp;
-            long diff = currentTime - oldTime;
-            addData(info.stackFrames.peek(), diff);
+            data.tree.addSelfTime(data.node, currentTime - data.timeStamp);
         }
 
-        info.timeStamp = currentTime;
-        info.stackFrames.push(fullyQualifiedName);
+        int child = CallingContextTree.NO_NODE;
+        if (data.overflowDepth == 0) {
+            child = data.tree.getOrAddChild(data.node, methodId);
+        }
+        if (child == CallingContextTree.NO_NODE) {
+            data.overflowDepth++;
+        } else {
+            data.node = child;
+        }
+        data.timeStamp = currentTime;
     }
 
     /** called by instrumented code on every method exit */
-    public void exitMethod(String fullyQualifiedName) {
+    public void exitMethod(int methodId) {
         long currentTime = timeSource.nanoTime();
-        long threadId = Thread.currentThread().getId();
-
-        Info info = threads.get(threadId);
-        Queue<String> stack = info.stackFrames;
+        ThreadData data = getThreadData();
 
-        Long oldTime = info.timeStamp;
-        long diff = currentTime - oldTime;
-
-        if (!fullyQualifiedName.equals(stack.peek())) {
+        if (data.node == CallingContextTree.ROOT) {
             throw new AssertionError("should not happen:\n"
-                    + "name: '" + fullyQualifiedName + "'\n"
-                    + "stack top: '" + stack.peek() + "'\n"
-                    + "stack: " + stack);
+                    + "method: '" + getMethodName(methodId) + "'\n"
+                    + "stack is empty");
         }
 
-        addData(stack.poll(), diff);
-
-        info.timeStamp = currentTime;
+        data.tree.addSelfTime(data.node, currentTime - data.timeStamp);
+        if (data.overflowDepth > 0) {
+            data.overflowDepth--;
+        } else {
+            int top = data.tree.getMethod(data.node);
+            if (top != methodId) {
+                throw new AssertionError("should not happen:\n"
+                        + "method: '" + getMethodName(methodId) + "'\n"
+                        + "stack top: '" + getMethodName(top) + "'");
+            }
+            data.node = data.tree.getParent(data.node);
+        }
+        data.timeStamp = currentTime;
     }
 
-    private void addData(String dataName, long time) {
-        AtomicLong value = profileData.get(dataName);
-        if (value == null) {
-            value = profileData.putIfAbsent(dataName, new AtomicLong(time));
+    private ThreadData getThreadData() {
+        ThreadData data = threadData.get();
+        int currentGeneration = generation;
+        if (data.generation != currentGeneration) {
+            data.tree.clearTimes();
+            data.generation = currentGeneration;
         }
-        if (value != null) {
-            value.addAndGet(time);
+        return data;
+    }
+
+    private synchronized String getMethodName(int methodId) {
+        return methodNames.get(methodId);
+    }
+
+    /**
+     * Merges the calling-context trees of all threads, with the times
+     * recorded since the last {@link #clearData()}. Method ids in the tree
+     * are indexes into {@link #getMethodNames()}.
+     */
+    public synchronized CallingContextTree getData() {
+        CallingContextTree result = new CallingContextTree(MAX_NODES);
+        for (ThreadData data : threads) {
+            if (data.generation == generation) {
+                result.merge(data.tree);
+            }
         }
+        return result;
     }
 
-    public Map<String, AtomicLong> getData() {
-        return profileData;
+    /** @return method id -> method name */
+    public synchronized List<String> getMethodNames() {
+        return new ArrayList<String>(methodNames);
     }
 
-    public void clearData() {
-        profileData.clear();
+    public synchronized void clearData() {
+        generation++;
+        // nothing recorded by dead threads is needed any more
+        Iterator<ThreadData> iter = threads.iterator();
+        while (iter.hasNext()) {
+            if (!iter.next().thread.isAlive()) {
+                iter.remove();
+            }
+        }
     }
 
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.profiler.agent.jvm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.thermostat.vm.profiler.agent.jvm.ProfileRecorder.TimeSource;
+
+/**
+ * Periodically captures the stacks of all runnable threads and adds them to
+ * a {@link CallingContextTree}. Unlike {@link ProfilerInstrumentor}, this
+ * needs no bytecode changes, at the cost of only seeing where threads happen
+ * to be when a sample is taken.
+ * <p>
+ * Taking a sample stops the JVM briefly. To keep the cost bounded, the
+ * sampler skips samples whenever the total time spent sampling so far is
+ * above {@link #MAX_OVERHEAD} of the time elapsed since sampling started,
+ * even if that means sampling less often than asked for.
+ * <p>
+ * Stacks that need more nodes than the tree has left are charged to their
+ * deepest existing node and counted as truncated.
+ */
+public class StackSampler {
+
+    /** fraction of wall clock time the sampler may spend taking samples */
+    static final double MAX_OVERHEAD = 0.02;
+
+    /** node budget of the calling-context tree */
+    static final int MAX_NODES = 100000;
+
+    private final ThreadMXBean threadBean;
+    private final TimeSource timeSource;
+    private final long intervalNanos;
+    private final CallingContextTree tree;
+
+    // used by the sampler thread only, read after it has stopped
+    /** method name -> method id */
+    private final Map<String, Integer> methodIds = new HashMap<String, Integer>();
+    /** method id -> method name */
+    private final List<String> methodNames = new ArrayList<String>();
+
+    private Thread samplerThread;
+    private volatile boolean running;
+
+    // written by the sampler thread, read after it has stopped
+    private long samples = 0;
+    private long truncatedSamples = 0;
+    private long samplingTime = 0;
+    private long startTime;
+    private long stopTime;
+    private long lastSampleTime;
+
+    public StackSampler(long intervalMillis) {
+        this(intervalMillis, ManagementFactory.getThreadMXBean(), new TimeSource(), new CallingContextTree(MAX_NODES));
+    }
+
+    /** for testing only */
+    StackSampler(long intervalMillis, ThreadMXBean threadBean, TimeSource timeSource, CallingContextTree tree) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("sampling interval must be positive");
+        }
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.threadBean = threadBean;
+        this.timeSource = timeSource;
+        this.tree = tree;
+    }
+
+    public synchronized void start() {
+        if (samplerThread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        startTime = lastSampleTime = timeSource.nanoTime();
+        running = true;
+        samplerThread = new Thread("thermostat-profiler-sampler") {
+            @Override
+            public void run() {
+                sampleUntilStopped();
+            }
+        };
+        samplerThread.setDaemon(true);
+        samplerThread.start();
+    }
+
+    /** Stops sampling and waits for the last sample to finish. */
+    public synchronized void stop() {
+        if (samplerThread == null || !running) {
+            return;
+        }
+        running = false;
+        samplerThread.interrupt();
+        boolean interrupted = false;
+        while (samplerThread.isAlive()) {
+            try {
+                samplerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        stopTime = timeSource.nanoTime();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sampleUntilStopped() {
+        long delay = intervalNanos;
+        while (running) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                break;
+            }
+            takeSample();
+            // wait until the time spent sampling is back within budget
+            long elapsed = timeSource.nanoTime() - startTime;
+            delay = Math.max(intervalNanos, (long) (samplingTime / MAX_OVERHEAD) - elapsed);
+        }
+    }
+
+    /**
+     * Takes one sample. Each runnable thread's stack is charged with the time
+     * since the previous sample.
+     *
+     * @return how long taking the sample took, in nanoseconds
+     */
+    long takeSample() {
+        long begin = timeSource.nanoTime();
+        ThreadInfo[] threads = threadBean.dumpAllThreads(false, false);
+        long self = Thread.currentThread().getId();
+        long weight = begin - lastSampleTime;
+        for (ThreadInfo thread : threads) {
+            if (thread == null || thread.getThreadId() == self
+                    || thread.getThreadState() != Thread.State.RUNNABLE) {
+                continue;
+            }
+            StackTraceElement[] stack = thread.getStackTrace();
+            if (stack.length > 0) {
+                addSample(stack, weight);
+            }
+        }
+        long end = timeSource.nanoTime();
+        lastSampleTime = begin;
+        samples++;
+        samplingTime += end - begin;
+        return end - begin;
+    }
+
+    private void addSample(StackTraceElement[] stack, long weight) {
+        int node = CallingContextTree.ROOT;
+        // outermost frame first
+        for (int i = stack.length - 1; i >= 0; i--) {
+            int child = getOrAddChild(node, stack[i]);
+            if (child == CallingContextTree.NO_NODE) {
+                truncatedSamples++;
+                break;
+            }
+            node = child;
+        }
+        tree.addSelfTime(node, weight);
+    }
+
+    private int getOrAddChild(int parent, StackTraceElement frame) {
+        String name = frame.getClassName() + "." + frame.getMethodName();
+        Integer methodId = methodIds.get(name);
+        if (methodId != null) {
+            return tree.getOrAddChild(parent, methodId);
+        }
+        if (tree.isFull()) {
+            // don't intern names that will never be used
+            return CallingContextTree.NO_NODE;
+        }
+        methodId = methodNames.size();
+        methodNames.add(name);
+        methodIds.put(name, methodId);
+        return tree.getOrAddChild(parent, methodId);
+    }
+
+    /** Method ids in the tree are indexes into {@link #getMethodNames()}. */
+    public CallingContextTree getTree() {
+        return tree;
+    }
+
+    public List<String> getMethodNames() {
+        return methodNames;
+    }
+
+    public long getSampleCount() {
+        return samples;
+    }
+
+    /** @return how many samples were cut short because the tree was full */
+    public long getTruncatedSampleCount() {
+        return truncatedSamples;
+    }
+
+    /** @return the time spent taking samples as a percentage of the time sampled */
+    public double getOverheadPercentage() {
+        long elapsed = stopTime - startTime;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return samplingTime * 100.0 / elapsed;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.vm.profiler.agent.jvm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CallTreeWriterTest {
+
+    private static final List<String> METHODS = Arrays.asList("Main.main", "Foo.foo", "Bar.bar", "Unused.unused");
+
+    @Test
+    public void writesTreeInPreOrderWithTotals() throws IOException {
+        CallingContextTree tree = new CallingContextTree(100);
+        int main = tree.getOrAddChild(CallingContextTree.ROOT, 0);
+        tree.addSelfTime(main, 1);
+        int bar = tree.getOrAddChild(main, 2);
+        tree.addSelfTime(bar, 200);
+        int foo = tree.getOrAddChild(main, 1);
+        tree.addSelfTime(foo, 10);
+        tree.addSelfTime(tree.getOrAddChild(foo, 2), 3000);
+
+        DecodedTree written = write(tree, Collections.<String, String>emptyMap());
+
+        assertArrayEquals(new String[] { null, "Main.main", "Bar.bar", "Foo.foo", "Bar.bar" }, written.names);
+        assertArrayEquals(new int[] { -1, 0, 1, 1, 3 }, written.parents);
+        assertArrayEquals(new long[] { 0, 1, 200, 10, 3000 }, written.selfTimes);
+        assertArrayEquals(new long[] { 3211, 3211, 200, 3010, 3000 }, written.totalTimes);
+        // each name is only written once
+        assertEquals(3, written.stringCount);
+    }
+
+    @Test
+    public void nodesWithoutTimeAreLeftOut() throws IOException {
+        CallingContextTree tree = new CallingContextTree(100);
+        int main = tree.getOrAddChild(CallingContextTree.ROOT, 0);
+        int unused = tree.getOrAddChild(main, 3);
+        tree.getOrAddChild(unused, 1);
+        tree.addSelfTime(tree.getOrAddChild(main, 2), 7);
+
+        DecodedTree written = write(tree, Collections.<String, String>emptyMap());
+
+        assertArrayEquals(new String[] { null, "Main.main", "Bar.bar" }, written.names);
+        assertEquals(2, written.stringCount);
+    }
+
+    @Test
+    public void writesPropertiesAndLargeValues() throws IOException {
+        CallingContextTree tree = new CallingContextTree(100);
+        tree.addSelfTime(tree.getOrAddChild(CallingContextTree.ROOT, 0), Long.MAX_VALUE / 2);
+
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        properties.put("mode", "sampling");
+        properties.put("samples", "12");
+        DecodedTree written = write(tree, properties);
+
+        assertEquals(properties, written.properties);
+        assertEquals(Long.MAX_VALUE / 2, written.totalTimes[0]);
+    }
+
+    private static DecodedTree write(CallingContextTree tree, Map<String, String> properties) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CallTreeWriter(out).write(tree, METHODS, properties);
+        return DecodedTree.read(out.toByteArray());
+    }
+
+    /** Reads back what {@link CallTreeWriter} wrote, node by node. */
+    static class DecodedTree {
+        final Map<String, String> properties = new HashMap<String, String>();
+        int stringCount;
+        String[] names;
+        int[] parents;
+        long[] selfTimes;
+        long[] totalTimes;
+
+        int nodeCount() {
+            return names.length;
+        }
+
+        static DecodedTree read(byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            assertEquals(CallTreeWriter.MAGIC, in.readInt());
+            assertEquals(CallTreeWriter.VERSION, in.readByte());
+
+            DecodedTree result = new DecodedTree();
+            int propertyCount = (int) readVarLong(in);
+            for (int i = 0; i < propertyCount; i++) {
+                result.properties.put(in.readUTF(), in.readUTF());
+            }
+            result.stringCount = (int) readVarLong(in);
+            String[] strings = new String[result.stringCount];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            int nodeCount = (int) readVarLong(in);
+            result.names = new String[nodeCount];
+            result.parents = new int[nodeCount];
+            result.selfTimes = new long[nodeCount];
+            result.totalTimes = new long[nodeCount];
+            result.parents[0] = -1;
+            result.selfTimes[0] = readVarLong(in);
+            result.totalTimes[0] = readVarLong(in);
+            for (int node = 1; node < nodeCount; node++) {
+                result.parents[node] = node - (int) readVarLong(in);
+                result.names[node] = strings[(int) readVarLong(in)];
+                result.selfTimes[node] = readVarLong(in);
+                result.totalTimes[node] = readVarLong(in);
+            }
+            assertEquals(-1, in.read());
+            return result;
+        }
+
+        private static long readVarLong(DataInputStream in) throws IOException {
+            long result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                result |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+package com.redhat.thermostat.vm.profiler.agent.jvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CallingContextTreeTest {
+
+    private static final int MAIN = 0;
+    private static final int FOO = 1;
+    private static final int BAR = 2;
+
+    @Test
+    public void sameMethodInDifferentContextsGetsSeparateNodes() {
+        CallingContextTree tree = new CallingContextTree(100);
+
+        int main = tree.getOrAddChild(CallingContextTree.ROOT, MAIN);
+        int foo = tree.getOrAddChild(main, FOO);
+        int mainBar = tree.getOrAddChild(main, BAR);
+        int fooBar = tree.getOrAddChild(foo, BAR);
+
+        assertEquals(5, tree.getNodeCount());
+        assertTrue(mainBar != fooBar);
+        assertEquals(BAR, tree.getMethod(fooBar));
+        assertEquals(foo, tree.getParent(fooBar));
+        assertEquals(main, tree.getParent(mainBar));
+        assertEquals(CallingContextTree.ROOT, tree.getParent(main));
+    }
+
+    @Test
+    public void existingChildIsReused() {
+        CallingContextTree tree = new CallingContextTree(100);
+
+        int main = tree.getOrAddChild(CallingContextTree.ROOT, MAIN);
+        int foo = tree.getOrAddChild(main, FOO);
+        int bar = tree.getOrAddChild(main, BAR);
+
+        assertEquals(foo, tree.getOrAddChild(main, FOO));
+        assertEquals(bar, tree.getOrAddChild(main, BAR));
+        assertEquals(foo, tree.getChild(main, FOO));
+        assertEquals(CallingContextTree.NO_NODE, tree.getChild(foo, FOO));
+        assertEquals(4, tree.getNodeCount());
+    }
+
+    @Test
+    public void manyChildrenCanBeFound() {
+        CallingContextTree tree = new CallingContextTree(10000);
+
+        for (int method = 0; method < 1000; method++) {
+            int node = tree.getOrAddChild(CallingContextTree.ROOT, method);
+            assertEquals(node, tree.getOrAddChild(node, method) - 1);
+        }
+
+        for (int method = 0; method < 1000; method++) {
+            int node = tree.getChild(CallingContextTree.ROOT, method);
+            assertEquals(method, tree.getMethod(node));
+            assertEquals(node + 1, tree.getChild(node, method));
+        }
+        assertEquals(2001, tree.getNodeCount());
+    }
+
+    @Test
+    public void nodesBeyondBudgetAreNotAdded() {
+        CallingContextTree tree = new CallingContextTree(3);
+
+        int main = tree.getOrAddChild(CallingContextTree.ROOT, MAIN);
+        int foo = tree.getOrAddChild(main, FOO);
+
+        assertTrue(tree.isFull());
+        assertEquals(CallingContextTree.NO_NODE, tree.getOrAddChild(foo, BAR));
+        assertEquals(foo, tree.getOrAddChild(main, FOO));
+        assertEquals(3, tree.getNodeCount());
+    }
+
+    @Test
+    public void clearTimesKeepsNodes() {
+        CallingContextTree tree = new CallingContextTree(100);
+        int main = tree.getOrAddChild(CallingContextTree.ROOT, MAIN);
+        tree.addSelfTime(main, 10);
+        tree.addSelfTime(main, 5);
+        assertEquals(15, tree.getSelfTime(main));
+
+        tree.clearTimes();
+
+        assertEquals(0, tree.getSelfTime(main));
+        assertEquals(main, tree.getChild(CallingContextTree.ROOT, MAIN));
+    }
+
+    @Test
+    public void mergeAddsUpTimesOfMatchingPaths() {
+        CallingContextTree first = new CallingContextTree(100);
+        int main = first.getOrAddChild(CallingContextTree.ROOT, MAIN);
+        first.addSelfTime(first.getOrAddChild(main, FOO), 1);
+
+        CallingContextTree second = new CallingContextTree(100);
+        main = second.getOrAddChild(CallingContextTree.ROOT, MAIN);
+        second.addSelfTime(second.getOrAddChild(main, BAR), 2);
+        second.addSelfTime(second.getOrAddChild(main, FOO), 4);
+
+        CallingContextTree merged = new CallingContextTree(100);
+        merged.merge(first);
+        merged.merge(second);
+
+        assertEquals(4, merged.getNodeCount());
+        main = merged.getChild(CallingContextTree.ROOT, MAIN);
+        assertEquals(5, merged.getSelfTime(merged.getChild(main, FOO)));
+        assertEquals(2, merged.getSelfTime(merged.getChild(main, BAR)));
+    }
+
+    @Test
+    public void mergeChargesPathsBeyondBudgetToDeepestNode() {
+        CallingContextTree source = new CallingContextTree(100);
+        int main = source.getOrAddChild(CallingContextTree.ROOT, MAIN);
+        source.addSelfTime(main, 1);
+        int foo = source.getOrAddChild(main, FOO);
+        source.addSelfTime(foo, 2);
+        source.addSelfTime(source.getOrAddChild(foo, BAR), 4);
+
+        CallingContextTree merged = new CallingContextTree(2);
+        merged.merge(source);
+
+        assertTrue(merged.isFull());
+        main = merged.getChild(CallingContextTree.ROOT, MAIN);
+        assertEquals(7, merged.getSelfTime(main));
+        assertFalse(merged.getChild(main, FOO) != CallingContextTree.NO_NODE);
+    }
+}
@@ -39,23 +39,24 @@ package com.redhat.thermostat.vm.profiler.agent.jvm;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.io.BufferedWriter;
-import java.io.StringWriter;
+import java.io.ByteArrayOutputStream;
 import java.lang.instrument.Instrumentation;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Arrays;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.redhat.thermostat.vm.profiler.agent.jvm.CallTreeWriterTest.DecodedTree;
 import com.redhat.thermostat.vm.profiler.agent.jvm.InstrumentationControl.ResultsFile;
 import com.redhat.thermostat.vm.profiler.agent.jvm.InstrumentationControl.ResultsFileCreator;
+import com.redhat.thermostat.vm.profiler.agent.jvm.InstrumentationControl.StackSamplerCreator;
 
 public class InstrumentationControlTest {
 
@@ -64,9 +65,11 @@ public class InstrumentationControlTest {
     private ProfileRecorder recorder;
     private ResultsFileCreator resultsFileCreator;
     private ResultsFile resultsFile;
+    private StackSamplerCreator samplerCreator;
+    private StackSampler sampler;
 
     private InstrumentationControl control;
-    private StringWriter dataWriter;
+    private ByteArrayOutputStream dataOut;
 
     @Before
     public void setUp() throws Exception {
@@ -78,15 +81,20 @@ public class InstrumentationControlTest {
         when(instrumentor.shouldInstrument(Object.class)).thenReturn(true);
 
         recorder = mock(ProfileRecorder.class);
+        when(recorder.getData()).thenReturn(new CallingContextTree(10));
 
-        dataWriter = new StringWriter();
+        dataOut = new ByteArrayOutputStream();
         resultsFile = mock(ResultsFile.class);
-        when(resultsFile.getWriter()).thenReturn(new BufferedWriter(dataWriter));
+        when(resultsFile.getOutputStream()).thenReturn(dataOut);
 
         resultsFileCreator = mock(ResultsFileCreator.class);
         when(resultsFileCreator.get()).thenReturn(resultsFile);
 
-        control = new InstrumentationControl(instrumentation, instrumentor, recorder, resultsFileCreator);
+        sampler = mock(StackSampler.class);
+        samplerCreator = mock(StackSamplerCreator.class);
+        when(samplerCreator.create(10)).thenReturn(sampler);
+
+        control = new InstrumentationControl(instrumentation, instrumentor, recorder, resultsFileCreator, samplerCreator);
     }
 
     @Test
@@ -133,17 +141,22 @@ public class InstrumentationControlTest {
     public void stopProfilingSavesProfilingResultsToDisk() throws Exception {
         final String DATA_LOCATION = "foobar";
 
-        Map<String, AtomicLong> profileData = new HashMap<String, AtomicLong>();
-        profileData.put("foo", new AtomicLong(1));
-        when(recorder.getData()).thenReturn(profileData);
+        CallingContextTree tree = new CallingContextTree(10);
+        tree.addSelfTime(tree.getOrAddChild(CallingContextTree.ROOT, 0), 1);
+        when(recorder.getData()).thenReturn(tree);
+        when(recorder.getMethodNames()).thenReturn(Arrays.asList("foo"));
 
         when(resultsFile.getPath()).thenReturn(DATA_LOCATION);
         control.startProfiling();
 
         control.stopProfiling();
 
-        verify(resultsFile).getWriter();
-        assertEquals("1\tfoo\n", dataWriter.toString());
+        verify(resultsFile).getOutputStream();
+        DecodedTree written = DecodedTree.read(dataOut.toByteArray());
+        assertEquals("instrumenting", written.properties.get("mode"));
+        assertEquals(2, written.nodeCount());
+        assertEquals("foo", written.names[1]);
+        assertEquals(1, written.selfTimes[1]);
         assertEquals(DATA_LOCATION, control.getProfilingDataFile());
     }
 
@@ -159,9 +172,10 @@ public class InstrumentationControlTest {
     public void vmShutdownSaveDataToDisk() throws Exception {
         final String DATA_LOCATION = "foobar";
 
-        Map<String, AtomicLong> profileData = new HashMap<String, AtomicLong>();
-        profileData.put("foo", new AtomicLong(1));
-        when(recorder.getData()).thenReturn(profileData);
+        CallingContextTree tree = new CallingContextTree(10);
+        tree.addSelfTime(tree.getOrAddChild(CallingContextTree.ROOT, 0), 1);
+        when(recorder.getData()).thenReturn(tree);
+        when(recorder.getMethodNames()).thenReturn(Arrays.asList("foo"));
 
         when(resultsFile.getPath()).thenReturn(DATA_LOCATION);
 
@@ -170,8 +184,56 @@ public class InstrumentationControlTest {
         // simulate vm shutdown:
         control.onVmShutdown();
 
-        verify(resultsFile).getWriter();
-        assertEquals("1\tfoo\n", dataWriter.toString());
+        verify(resultsFile).getOutputStream();
+        DecodedTree written = DecodedTree.read(dataOut.toByteArray());
+        assertEquals("instrumenting", written.properties.get("mode"));
+        assertEquals(2, written.nodeCount());
+        assertEquals("foo", written.names[1]);
+        assertEquals(1, written.selfTimes[1]);
+        assertEquals(DATA_LOCATION, control.getProfilingDataFile());
+    }
+
+    @Test
+    public void startSamplingStartsSamplerWithoutInstrumenting() throws Exception {
+        control.startSampling(10);
+
+        assertTrue(control.isProfiling());
+        verify(sampler).start();
+        verify(instrumentation, never()).addTransformer(any(ProfilerInstrumentor.class), any(Boolean.class));
+    }
+
+    @Test (expected=IllegalStateException.class)
+    public void startingSamplingWhileProfilingThrowsException() throws Exception {
+        control.startProfiling();
+        control.startSampling(10);
+    }
+
+    @Test
+    public void stopProfilingSavesSamplingResultsToDisk() throws Exception {
+        final String DATA_LOCATION = "foobar";
+        CallingContextTree tree = new CallingContextTree(10);
+        tree.addSelfTime(tree.getOrAddChild(CallingContextTree.ROOT, 0), 5);
+        when(sampler.getTree()).thenReturn(tree);
+        when(sampler.getMethodNames()).thenReturn(Arrays.asList("Foo.bar"));
+        when(sampler.getSampleCount()).thenReturn(1l);
+        when(sampler.getOverheadPercentage()).thenReturn(0.5);
+        when(resultsFile.getPath()).thenReturn(DATA_LOCATION);
+
+        control.startSampling(10);
+        control.stopProfiling();
+
+        verify(sampler).stop();
+        verify(instrumentation, never()).removeTransformer(instrumentor);
+        assertFalse(control.isProfiling());
+        DecodedTree written = DecodedTree.read(dataOut.toByteArray());
+        assertEquals("sampling", written.properties.get("mode"));
+        assertEquals("1", written.properties.get("samples"));
+        assertEquals("0.50%", written.properties.get("sampling overhead"));
+        assertEquals("2", written.properties.get("call tree nodes"));
+        assertEquals("0", written.properties.get("truncated stacks"));
+        assertEquals(2, written.nodeCount());
+        assertEquals("Foo.bar", written.names[1]);
+        assertEquals(5, written.selfTimes[1]);
         assertEquals(DATA_LOCATION, control.getProfilingDataFile());
     }
 }
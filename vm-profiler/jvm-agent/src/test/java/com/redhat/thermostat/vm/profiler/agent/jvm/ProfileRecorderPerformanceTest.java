@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.profiler.agent.jvm;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.redhat.thermostat.testutils.PerformanceTest;
+import com.redhat.thermostat.vm.profiler.agent.jvm.ProfileRecorder.TimeSource;
+
+/**
+ * Measures the cost of the enter/exit calls the instrumented code makes, with
+ * several threads calling at once, for {@link ProfileRecorder} and for the
+ * String keyed recorder it replaced. Both use a clock that always returns the
+ * same time, so only the bookkeeping is compared.
+ *
+ * JUnit categorized performance test. It'll be only run for
+ * the perf-tests profile during a full build.
+ */
+@Category(PerformanceTest.class)
+public class ProfileRecorderPerformanceTest {
+
+    private static final boolean DEBUG = true;
+    private static final int THREADS = 4;
+    private static final int WARMUP_ITERATIONS = 1000000;
+    private static final int ITERATIONS = 5000000;
+
+    private interface Recorder {
+        void enter(int methodId, String methodName);
+        void exit(int methodId, String methodName);
+    }
+
+    @Test
+    public void intIdsAreCheaperThanStringKeys() throws Exception {
+        TimeSource clock = new TimeSource() {
+            @Override
+            public long nanoTime() {
+                return 0;
+            }
+        };
+        final ProfileRecorder recorder = new ProfileRecorder(clock);
+        Recorder intRecorder = new Recorder() {
+            @Override
+            public void enter(int methodId, String methodName) {
+                recorder.enterMethod(methodId);
+            }
+            @Override
+            public void exit(int methodId, String methodName) {
+                recorder.exitMethod(methodId);
+            }
+        };
+        final StringKeyedRecorder oldRecorder = new StringKeyedRecorder(clock);
+        Recorder stringRecorder = new Recorder() {
+            @Override
+            public void enter(int methodId, String methodName) {
+                oldRecorder.enterMethod(methodName);
+            }
+            @Override
+            public void exit(int methodId, String methodName) {
+                oldRecorder.exitMethod(methodName);
+            }
+        };
+        int outer = recorder.registerMethod("Outer.outer()V");
+        int inner = recorder.registerMethod("Inner.inner()V");
+
+        run(stringRecorder, outer, inner, WARMUP_ITERATIONS);
+        run(intRecorder, outer, inner, WARMUP_ITERATIONS);
+
+        long withStrings = run(stringRecorder, outer, inner, ITERATIONS);
+        long withInts = run(intRecorder, outer, inner, ITERATIONS);
+
+        // two enter/exit pairs per iteration
+        double calls = 2.0 * ITERATIONS * THREADS;
+        if (DEBUG) {
+            System.out.println(ProfileRecorderPerformanceTest.class.getSimpleName() + ":");
+            System.out.println("  string keys: " + (withStrings / calls) + " ns per enter/exit");
+            System.out.println("  int ids:     " + (withInts / calls) + " ns per enter/exit");
+        }
+        assertTrue("Expected int ids to be at least 1.5 times faster", 2 * withStrings > 3 * withInts);
+    }
+
+    /** @return wall clock nanoseconds for all threads to finish */
+    private long run(final Recorder recorder, final int outer, final int inner, final int iterations)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < iterations; j++) {
+                        recorder.enter(outer, "Outer.outer()V");
+                        recorder.enter(inner, "Inner.inner()V");
+                        recorder.exit(inner, "Inner.inner()V");
+                        recorder.exit(outer, "Outer.outer()V");
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    // What ProfileRecorder did before it used method ids
+    private static class StringKeyedRecorder {
+
+        private final ConcurrentHashMap<String, AtomicLong> profileData = new ConcurrentHashMap<String, AtomicLong>();
+        private final Map<Long, Info> threads = new ConcurrentHashMap<Long, Info>();
+        private final TimeSource timeSource;
+
+        private static class Info {
+            Deque<String> stackFrames = new ArrayDeque<String>();
+            long timeStamp = Long.MIN_VALUE;
+        }
+
+        StringKeyedRecorder(TimeSource timeSource) {
+            this.timeSource = timeSource;
+        }
+
+        void enterMethod(String name) {
+            long currentTime = timeSource.nanoTime();
+            long threadId = Thread.currentThread().getId();
+            Info info = threads.get(threadId);
+            if (info == null) {
+                info = new Info();
+                threads.put(threadId, info);
+            }
+            if (info.stackFrames.size() != 0) {
+                addData(info.stackFrames.peek(), currentTime - info.timeStamp);
+            }
+            info.timeStamp = currentTime;
+            info.stackFrames.push(name);
+        }
+
+        void exitMethod(String name) {
+            long currentTime = timeSource.nanoTime();
+            Info info = threads.get(Thread.currentThread().getId());
+            addData(info.stackFrames.poll(), currentTime - info.timeStamp);
+            info.timeStamp = currentTime;
+        }
+
+        private void addData(String dataName, long time) {
+            AtomicLong value = profileData.get(dataName);
+            if (value == null) {
+                value = profileData.putIfAbsent(dataName, new AtomicLong(time));
+            }
+            if (value != null) {
+                value.addAndGet(time);
+            }
+        }
+    }
+}
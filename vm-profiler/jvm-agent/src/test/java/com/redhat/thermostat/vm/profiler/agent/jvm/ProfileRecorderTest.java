@@ -37,11 +37,14 @@
 package com.redhat.thermostat.vm.profiler.agent.jvm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
 
@@ -63,17 +66,192 @@ public class ProfileRecorderTest {
                                .thenReturn(EXIT_2);
 
         ProfileRecorder recorder = new ProfileRecorder(source);
+        int methodId = recorder.registerMethod(METHOD_NAME);
 
-        recorder.enterMethod(METHOD_NAME);
-        recorder.exitMethod(METHOD_NAME);
-        recorder.enterMethod(METHOD_NAME);
-        recorder.exitMethod(METHOD_NAME);
+        recorder.enterMethod(methodId);
+        recorder.exitMethod(methodId);
+        recorder.enterMethod(methodId);
+        recorder.exitMethod(methodId);
 
-        assertEquals(1, recorder.getData().size());
-        Entry<String, AtomicLong> result = recorder.getData().entrySet().iterator().next();
+        assertEquals(1, selfTimes(recorder).size());
+        Entry<String, Long> result = selfTimes(recorder).entrySet().iterator().next();
         String methodName = result.getKey();
         assertEquals(METHOD_NAME, methodName);
-        AtomicLong methodTimeInNanos = result.getValue();
-        assertEquals((EXIT_1 - ENTER_1) + (EXIT_2 - ENTER_2), methodTimeInNanos.get());
+        long methodTimeInNanos = result.getValue();
+        assertEquals((EXIT_1 - ENTER_1) + (EXIT_2 - ENTER_2), methodTimeInNanos);
+    }
+
+    @Test
+    public void registeringSameMethodTwiceReturnsSameId() {
+        ProfileRecorder recorder = new ProfileRecorder(new TimeSource());
+
+        int foo = recorder.registerMethod("foo");
+        int bar = recorder.registerMethod("bar");
+
+        assertTrue(foo != bar);
+        assertEquals(foo, recorder.registerMethod("foo"));
+    }
+
+    @Test
+    public void timeInCalleeIsNotCountedForCaller() {
+        TimeSource source = mock(TimeSource.class);
+        when(source.nanoTime()).thenReturn(0l)
+                               .thenReturn(10l)
+                               .thenReturn(40l)
+                               .thenReturn(45l);
+
+        ProfileRecorder recorder = new ProfileRecorder(source);
+        int caller = recorder.registerMethod("caller");
+        int callee = recorder.registerMethod("callee");
+
+        recorder.enterMethod(caller);
+        recorder.enterMethod(callee);
+        recorder.exitMethod(callee);
+        recorder.exitMethod(caller);
+
+        Map<String, Long> data = selfTimes(recorder);
+        assertEquals(2, data.size());
+        assertEquals(15l, (long) data.get("caller"));
+        assertEquals(30l, (long) data.get("callee"));
+    }
+
+    @Test
+    public void sameMethodInDifferentContextsIsRecordedSeparately() {
+        TimeSource source = mock(TimeSource.class);
+        when(source.nanoTime()).thenReturn(0l, 10l, 20l, 30l, 40l, 50l, 60l, 70l);
+
+        ProfileRecorder recorder = new ProfileRecorder(source);
+        int main = recorder.registerMethod("main");
+        int foo = recorder.registerMethod("foo");
+        int helper = recorder.registerMethod("helper");
+
+        recorder.enterMethod(main);
+        recorder.enterMethod(helper);
+        recorder.exitMethod(helper);
+        recorder.enterMethod(foo);
+        recorder.enterMethod(helper);
+        recorder.exitMethod(helper);
+        recorder.exitMethod(foo);
+        recorder.exitMethod(main);
+
+        CallingContextTree tree = recorder.getData();
+        // root, main, main/helper, main/foo, main/foo/helper
+        assertEquals(5, tree.getNodeCount());
+        int mainNode = tree.getChild(CallingContextTree.ROOT, main);
+        int fooNode = tree.getChild(mainNode, foo);
+        assertEquals(10l, tree.getSelfTime(tree.getChild(mainNode, helper)));
+        assertEquals(10l, tree.getSelfTime(tree.getChild(fooNode, helper)));
+        assertEquals(20l, tree.getSelfTime(fooNode));
+        assertEquals(30l, tree.getSelfTime(mainNode));
+    }
+
+    @Test
+    public void deepStacksAreSupported() {
+        final int DEPTH = 1000;
+        ProfileRecorder recorder = new ProfileRecorder(new TimeSource());
+        int methodId = recorder.registerMethod("recursive");
+
+        for (int i = 0; i < DEPTH; i++) {
+            recorder.enterMethod(methodId);
+        }
+        for (int i = 0; i < DEPTH; i++) {
+            recorder.exitMethod(methodId);
+        }
+
+        assertEquals(1, selfTimes(recorder).size());
+    }
+
+    @Test
+    public void callsBeyondNodeBudgetAreChargedToDeepestNode() {
+        final int DEPTH = ProfileRecorder.MAX_NODES_PER_THREAD + 10;
+        TimeSource source = mock(TimeSource.class);
+        when(source.nanoTime()).thenReturn(0l);
+
+        ProfileRecorder recorder = new ProfileRecorder(source);
+        int methodId = recorder.registerMethod("recursive");
+
+        for (int i = 0; i < DEPTH; i++) {
+            recorder.enterMethod(methodId);
+        }
+        for (int i = 0; i < DEPTH; i++) {
+            recorder.exitMethod(methodId);
+        }
+
+        assertEquals(ProfileRecorder.MAX_NODES_PER_THREAD, recorder.getData().getNodeCount());
+    }
+
+    @Test(expected = AssertionError.class)
+    public void exitingMethodNotOnTopOfStackFails() {
+        ProfileRecorder recorder = new ProfileRecorder(new TimeSource());
+        int foo = recorder.registerMethod("foo");
+        int bar = recorder.registerMethod("bar");
+
+        recorder.enterMethod(foo);
+        recorder.exitMethod(bar);
+    }
+
+    @Test
+    public void dataFromAllThreadsIsMerged() throws Exception {
+        TimeSource source = mock(TimeSource.class);
+        when(source.nanoTime()).thenReturn(0l)
+                               .thenReturn(10l)
+                               .thenReturn(100l)
+                               .thenReturn(105l);
+
+        final ProfileRecorder recorder = new ProfileRecorder(source);
+        final int methodId = recorder.registerMethod("foo");
+
+        recorder.enterMethod(methodId);
+        recorder.exitMethod(methodId);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                recorder.enterMethod(methodId);
+                recorder.exitMethod(methodId);
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertEquals(15l, (long) selfTimes(recorder).get("foo"));
+    }
+
+    @Test
+    public void clearDataDiscardsRecordedTimes() {
+        TimeSource source = mock(TimeSource.class);
+        when(source.nanoTime()).thenReturn(0l)
+                               .thenReturn(10l)
+                               .thenReturn(100l)
+                               .thenReturn(105l);
+
+        ProfileRecorder recorder = new ProfileRecorder(source);
+        int methodId = recorder.registerMethod("foo");
+
+        recorder.enterMethod(methodId);
+        recorder.exitMethod(methodId);
+        recorder.clearData();
+
+        assertTrue(selfTimes(recorder).isEmpty());
+
+        recorder.enterMethod(methodId);
+        recorder.exitMethod(methodId);
+
+        assertEquals(5l, (long) selfTimes(recorder).get("foo"));
+    }
+
+    /** @return method name -> time spent in the method itself, over all call paths */
+    private static Map<String, Long> selfTimes(ProfileRecorder recorder) {
+        CallingContextTree tree = recorder.getData();
+        List<String> names = recorder.getMethodNames();
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (int node = CallingContextTree.ROOT + 1; node < tree.getNodeCount(); node++) {
+            long time = tree.getSelfTime(node);
+            if (time != 0) {
+                String name = names.get(tree.getMethod(node));
+                Long previous = result.get(name);
+                result.put(name, previous == null ? time : previous + time);
+            }
+        }
+        return result;
     }
 }
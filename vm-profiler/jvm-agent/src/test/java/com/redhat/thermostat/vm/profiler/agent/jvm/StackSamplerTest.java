@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.vm.profiler.agent.jvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.redhat.thermostat.vm.profiler.agent.jvm.ProfileRecorder.TimeSource;
+
+public class StackSamplerTest {
+
+    private ThreadMXBean threadBean;
+    private TimeSource timeSource;
+    private CallingContextTree tree;
+
+    @Before
+    public void setUp() {
+        threadBean = mock(ThreadMXBean.class);
+        timeSource = mock(TimeSource.class);
+        tree = new CallingContextTree(100);
+    }
+
+    @Test
+    public void onlyRunnableThreadsAreSampled() {
+        ThreadInfo running = thread(-1, Thread.State.RUNNABLE, "Foo", "run");
+        ThreadInfo waiting = thread(-2, Thread.State.WAITING, "Bar", "park");
+        when(threadBean.dumpAllThreads(false, false)).thenReturn(new ThreadInfo[] { running, waiting });
+        when(timeSource.nanoTime()).thenReturn(1000l, 1010l);
+
+        StackSampler sampler = new StackSampler(1, threadBean, timeSource, tree);
+        long cost = sampler.takeSample();
+
+        assertEquals(10, cost);
+
+        assertEquals(Arrays.asList("Foo.run"), sampler.getMethodNames());
+        int node = tree.getChild(CallingContextTree.ROOT, 0);
+        assertEquals(1000l, tree.getSelfTime(node));
+        assertEquals(1, sampler.getSampleCount());
+    }
+
+    @Test
+    public void stacksAreAddedOutermostFirst() {
+        ThreadInfo running = thread(-1, Thread.State.RUNNABLE, "Foo", "inner", "outer");
+        when(threadBean.dumpAllThreads(false, false)).thenReturn(new ThreadInfo[] { running });
+        when(timeSource.nanoTime()).thenReturn(1000l, 1010l);
+
+        StackSampler sampler = new StackSampler(1, threadBean, timeSource, tree);
+        sampler.takeSample();
+
+        assertEquals(Arrays.asList("Foo.outer", "Foo.inner"), sampler.getMethodNames());
+        int outer = tree.getChild(CallingContextTree.ROOT, 0);
+        int inner = tree.getChild(outer, 1);
+        assertEquals(0l, tree.getSelfTime(outer));
+        assertEquals(1000l, tree.getSelfTime(inner));
+    }
+
+    @Test
+    public void stacksBeyondNodeBudgetAreTruncated() {
+        tree = new CallingContextTree(3);
+        ThreadInfo first = thread(-1, Thread.State.RUNNABLE, "Foo", "foo", "main");
+        ThreadInfo second = thread(-2, Thread.State.RUNNABLE, "Foo", "bar", "main");
+        when(threadBean.dumpAllThreads(false, false)).thenReturn(new ThreadInfo[] { first, second });
+        when(timeSource.nanoTime()).thenReturn(1000l, 1010l);
+
+        StackSampler sampler = new StackSampler(1, threadBean, timeSource, tree);
+        sampler.takeSample();
+
+        assertEquals(1, sampler.getTruncatedSampleCount());
+        // names of methods that did not fit are not kept
+        assertEquals(Arrays.asList("Foo.main", "Foo.foo"), sampler.getMethodNames());
+        assertEquals(1000l, tree.getSelfTime(tree.getChild(CallingContextTree.ROOT, 0)));
+    }
+
+    @Test
+    public void samplerThreadRunsUntilStopped() throws Exception {
+        ThreadInfo running = thread(-1, Thread.State.RUNNABLE, "Foo", "run");
+        when(threadBean.dumpAllThreads(false, false)).thenReturn(new ThreadInfo[] { running });
+
+        StackSampler sampler = new StackSampler(1, threadBean, new TimeSource(), tree);
+        sampler.start();
+        Thread.sleep(100);
+        sampler.stop();
+
+        long samples = sampler.getSampleCount();
+        assertTrue(samples > 0);
+        assertEquals(Arrays.asList("Foo.run"), sampler.getMethodNames());
+        assertTrue(tree.getSelfTime(tree.getChild(CallingContextTree.ROOT, 0)) > 0);
+        double overhead = sampler.getOverheadPercentage();
+        assertTrue(overhead > 0 && overhead < 100);
+
+        Thread.sleep(10);
+        assertEquals(samples, sampler.getSampleCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void intervalMustBePositive() {
+        new StackSampler(0, threadBean, timeSource, tree);
+    }
+
+    /** frames are given innermost first, like {@link Thread#getStackTrace()} */
+    private static ThreadInfo thread(long id, Thread.State state, String className, String... methodNames) {
+        StackTraceElement[] stack = new StackTraceElement[methodNames.length];
+        for (int i = 0; i < methodNames.length; i++) {
+            stack[i] = new StackTraceElement(className, methodNames[i], null, -1);
+        }
+        ThreadInfo info = mock(ThreadInfo.class);
+        when(info.getThreadId()).thenReturn(id);
+        when(info.getThreadState()).thenReturn(state);
+        when(info.getStackTrace()).thenReturn(stack);
+        return info;
+    }
+}
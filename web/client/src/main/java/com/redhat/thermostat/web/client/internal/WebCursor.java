@@ -37,6 +37,8 @@
 
 package com.redhat.thermostat.web.client.internal;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,20 +50,40 @@ import com.redhat.thermostat.storage.model.Pojo;
 import com.redhat.thermostat.web.common.PreparedStatementResponseCode;
 import com.redhat.thermostat.web.common.WebPreparedStatement;
 import com.redhat.thermostat.web.common.WebQueryResponse;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponseReader;
 
 import java.util.NoSuchElementException;
 
-class WebCursor<T extends Pojo> extends BasicBatchCursor<T> {
+class WebCursor<T extends Pojo> extends BasicBatchCursor<T> implements Closeable {
     
     private static final Logger logger = LoggingUtils.getLogger(WebCursor.class);
 
+    /*
+     * The HTTP entity of a streamed response. It holds on to a pooled
+     * connection until it is closed or aborted.
+     */
+    interface StreamedEntity extends Closeable {
+
+        /**
+         * Releases the connection without reading the remaining response.
+         */
+        void abort();
+    }
+
     private final Type parametrizedTypeToken;
     private final WebStorage storage;
-    private final int cursorId;
     private final WebPreparedStatement<T> stmt;
+    private int cursorId;
     private int batchIndex;
     private T[] dataBatch;
     private boolean hasMoreBatches;
+    // Reader and HTTP entity of a streamed response. Both are null if the
+    // cursor is not streaming or the stream has been read completely.
+    private BinaryQueryResponseReader<T> streamReader;
+    private StreamedEntity streamEntity;
+    // The next streamed result. Read ahead so that the connection is released
+    // as soon as the last result is returned.
+    private T nextStreamed;
 
     // Main constructor called from doQueryExecute()
     WebCursor(WebStorage storage, T[] dataBatch, boolean hasMoreBatches, int cursorId, Type parametrizedTypeToken, WebPreparedStatement<T> stmt) {
@@ -74,13 +96,36 @@ class WebCursor<T extends Pojo> extends BasicBatchCursor<T> {
         this.batchIndex = 0;
     }
 
+    /*
+     * Streaming constructor called from doExecuteQuery(). Results are read
+     * from the response as they are requested. The response header must have
+     * been read already. The cursor takes ownership of entity and closes it
+     * once all results have been read. Cursors which are not read to the end
+     * abort the entity when they are closed or garbage collected.
+     * 
+     * Should the server not support streaming, the response ends with a
+     * cursor id and more results are requested in batches as usual.
+     */
+    @SuppressWarnings("unchecked")
+    WebCursor(WebStorage storage, BinaryQueryResponseReader<T> reader, StreamedEntity entity, Type parametrizedTypeToken, WebPreparedStatement<T> stmt) {
+        this(storage, (T[]) new Pojo[0], false, 0, parametrizedTypeToken, stmt);
+        this.streamReader = reader;
+        this.streamEntity = entity;
+        readNextStreamed();
+    }
+
     @Override
     public boolean hasNext() {
-        return batchIndex < dataBatch.length || hasMoreBatches;
+        return nextStreamed != null || batchIndex < dataBatch.length || hasMoreBatches;
     }
 
     @Override
     public T next() {
+        if (nextStreamed != null) {
+            T result = nextStreamed;
+            readNextStreamed();
+            return result;
+        }
         if (batchIndex >= dataBatch.length && !hasMoreBatches) {
             throw new NoSuchElementException();
         }
@@ -100,6 +145,71 @@ class WebCursor<T extends Pojo> extends BasicBatchCursor<T> {
         return result;
     }
 
+    private void readNextStreamed() throws StorageException {
+        if (streamReader == null) {
+            nextStreamed = null;
+            return;
+        }
+        try {
+            nextStreamed = streamReader.readNext();
+            if (nextStreamed == null) {
+                this.cursorId = streamReader.getCursorId();
+                this.hasMoreBatches = streamReader.hasMoreBatches();
+                closeStream();
+            }
+        } catch (IOException e) {
+            nextStreamed = null;
+            closeStream();
+            throw new StorageException(e);
+        }
+    }
+
+    private void closeStream() {
+        streamReader = null;
+        try {
+            streamEntity.close();
+        } catch (IOException | StorageException e) {
+            logger.log(Level.FINE, "Failed to close streamed query response", e);
+        } finally {
+            streamEntity = null;
+        }
+    }
+
+    /**
+     * Releases the connection of a streamed response which has not been read
+     * to the end. Remaining results are discarded.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void close() {
+        nextStreamed = null;
+        hasMoreBatches = false;
+        dataBatch = (T[]) new Pojo[0];
+        batchIndex = 0;
+        if (streamEntity != null) {
+            streamReader = null;
+            try {
+                streamEntity.abort();
+            } catch (RuntimeException e) {
+                logger.log(Level.FINE, "Failed to abort streamed query response", e);
+            } finally {
+                streamEntity = null;
+            }
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            if (streamEntity != null) {
+                logger.log(Level.FINE, "Streamed query results were not read to the end");
+                close();
+            }
+        } finally {
+            super.finalize();
+        }
+    }
+
     private void fetchBatchFromStorage() throws StorageException {
         logger.log(Level.FINEST, "Getting more results for cursorId: " + cursorId);
         WebQueryResponse<T> nextBatchResponse = storage.getMore(cursorId, parametrizedTypeToken, getBatchSize(), stmt);
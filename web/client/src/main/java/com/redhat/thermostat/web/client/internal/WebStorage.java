@@ -42,6 +42,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -60,13 +61,17 @@ import javax.net.ssl.SSLContext;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
+import org.apache.http.auth.AuthScheme;
 import org.apache.http.auth.AuthSchemeProvider;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.Credentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.AuthSchemes;
 import org.apache.http.client.config.RequestConfig;
@@ -76,21 +81,26 @@ import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.config.Lookup;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionReleaseTrigger;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.impl.auth.BasicSchemeFactory;
+import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.redhat.thermostat.common.ssl.SSLContextFactory;
 import com.redhat.thermostat.common.ssl.SslInitException;
 import com.redhat.thermostat.common.utils.LoggingUtils;
@@ -100,6 +110,7 @@ import com.redhat.thermostat.storage.core.Categories;
 import com.redhat.thermostat.storage.core.Category;
 import com.redhat.thermostat.storage.core.Connection;
 import com.redhat.thermostat.storage.core.Cursor;
+import com.redhat.thermostat.storage.core.DataModifyingStatement;
 import com.redhat.thermostat.storage.core.DescriptorParsingException;
 import com.redhat.thermostat.storage.core.IllegalDescriptorException;
 import com.redhat.thermostat.storage.core.IllegalPatchException;
@@ -119,6 +130,8 @@ import com.redhat.thermostat.web.common.SharedStateId;
 import com.redhat.thermostat.web.common.WebPreparedStatement;
 import com.redhat.thermostat.web.common.WebPreparedStatementResponse;
 import com.redhat.thermostat.web.common.WebQueryResponse;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponse;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponseReader;
 import com.redhat.thermostat.web.common.typeadapters.PojoTypeAdapterFactory;
 import com.redhat.thermostat.web.common.typeadapters.PreparedParameterTypeAdapterFactory;
 import com.redhat.thermostat.web.common.typeadapters.PreparedParametersTypeAdapterFactory;
@@ -138,9 +151,25 @@ public class WebStorage implements Storage, SecureStorage {
     // Transition cache is valid for 30 seconds starting from the current time.
     private static final long TRANSITION_CACHE_OFFSET = TimeUnit.NANOSECONDS.convert(30, TimeUnit.SECONDS);
     
+    /*
+     * Boolean. Set to false in order to always receive query results as JSON.
+     * The compact binary encoding is requested by default and is used if the
+     * endpoint supports it.
+     */
+    static final String BINARY_QUERY_RESPONSES = "com.redhat.thermostat.web.client.binaryQueryResponses";
+    /*
+     * Boolean. Set to true in order to receive all results of a query in one
+     * streamed response rather than in batches. Results are then read as the
+     * returned cursor is advanced. Cursors should be read completely, since
+     * each streaming cursor holds on to a pooled connection until its last
+     * result has been read. Requires binary query responses.
+     */
+    static final String STREAM_QUERY_RESULTS = "com.redhat.thermostat.web.client.streamQueryResults";
+    private static final String QUERY_ACCEPT_HEADER = BinaryQueryResponse.CONTENT_TYPE + ", application/json";
+    
     static final Logger logger = LoggingUtils.getLogger(WebStorage.class);
     
-    private static class CloseableHttpEntity implements Closeable, HttpEntity {
+    private static class CloseableHttpEntity implements Closeable, HttpEntity, WebCursor.StreamedEntity {
 
         private HttpEntity entity;
         private int responseCode;
@@ -205,6 +234,24 @@ public class WebStorage implements Storage, SecureStorage {
             }
         }
 
+        /*
+         * Releases the connection without reading the remaining content. The
+         * connection is closed rather than returned to the pool.
+         */
+        @Override
+        public void abort() {
+            try {
+                InputStream content = entity.getContent();
+                if (content instanceof ConnectionReleaseTrigger) {
+                    ((ConnectionReleaseTrigger) content).abortConnection();
+                    return;
+                }
+            } catch (IOException | IllegalStateException e) {
+                // consume the content instead
+            }
+            close();
+        }
+
         int getResponseCode() {
             return responseCode;
         }
@@ -253,7 +300,7 @@ public class WebStorage implements Storage, SecureStorage {
                         endpointURL.getPort(), "Thermostat Realm");
                 credsProvider.setCredentials(scope, creds);
                 synchronized (httpClientContextLock) {
-                    httpClientContext.setCredentialsProvider(credsProvider);
+                    WebStorage.this.credsProvider = credsProvider;
                 }
             }
         }
@@ -270,6 +317,39 @@ public class WebStorage implements Storage, SecureStorage {
         }
     }
 
+    /*
+     * BasicAuthCache is not thread-safe, but is shared by concurrent
+     * requests.
+     */
+    private static class SynchronizedAuthCache implements AuthCache {
+
+        private final AuthCache delegate;
+
+        SynchronizedAuthCache(AuthCache delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void put(HttpHost host, AuthScheme authScheme) {
+            delegate.put(host, authScheme);
+        }
+
+        @Override
+        public synchronized AuthScheme get(HttpHost host) {
+            return delegate.get(host);
+        }
+
+        @Override
+        public synchronized void remove(HttpHost host) {
+            delegate.remove(host);
+        }
+
+        @Override
+        public synchronized void clear() {
+            delegate.clear();
+        }
+    }
+
     private static class WebDataStream extends InputStream {
 
         private CloseableHttpEntity entity;
@@ -345,6 +425,12 @@ public class WebStorage implements Storage, SecureStorage {
         
         @Override
         public int execute() throws StatementExecutionException {
+            if (writeBatcher != null) {
+                // Serialize now, since callers may re-use this statement
+                // with different parameters once we return.
+                writeBatcher.add(gson.toJsonTree(this, WebPreparedStatement.class));
+                return DataModifyingStatement.DEFAULT_STATUS_SUCCESS;
+            }
             return doWriteExecute(this, 0);
         }
 
@@ -362,9 +448,12 @@ public class WebStorage implements Storage, SecureStorage {
     private Gson gson;
     // The shared http client we use for execution (uses the context below)
     private HttpClient httpClient;
-    private Object httpClientContextLock = new Object();
-    // Http client execution context. Protected via clientContext lock.
-    private HttpClientContext httpClientContext;
+    private final Object httpClientContextLock = new Object();
+    // State shared by the http client execution contexts of all requests.
+    // Protected via the client context lock.
+    private CredentialsProvider credsProvider;
+    private Object userToken;
+    private AuthCache authCache;
     private StorageCredentials creds;
     private SecureRandom random;
     private WebConnection conn;
@@ -372,6 +461,13 @@ public class WebStorage implements Storage, SecureStorage {
     // Temporary cache used for recovering after a server endpoint re-deployment.
     // Will only be valid for 30 seconds for any server endpoint re-deployment.
     private ExpirableWebPreparedStatementCache transitionStmtCache;
+    // Buffers prepared writes for the write-execute-batch endpoint. null if
+    // write batching is disabled.
+    private WriteBatcher writeBatcher;
+    // Whether or not the binary query response encoding is requested.
+    private boolean binaryQueryResponses;
+    // Whether or not query results are requested as a single stream.
+    private boolean streamQueryResults;
     
     // for testing
     WebStorage(String url, StorageCredentials creds, HttpClient client) {
@@ -416,7 +512,7 @@ public class WebStorage implements Storage, SecureStorage {
                 .create();
         httpClient = client;
         synchronized (httpClientContextLock) {
-            httpClientContext = HttpClientContext.create();
+            authCache = new SynchronizedAuthCache(new BasicAuthCache());
         }
         random = new SecureRandom();
         conn = new WebConnection();
@@ -424,6 +520,14 @@ public class WebStorage implements Storage, SecureStorage {
         this.endpoint = url;
         this.creds = creds;
         this.stmtCache = new WebPreparedStatementCache();
+        this.binaryQueryResponses = Boolean.parseBoolean(System.getProperty(BINARY_QUERY_RESPONSES, "true"));
+        this.streamQueryResults = binaryQueryResponses && Boolean.getBoolean(STREAM_QUERY_RESULTS);
+        this.writeBatcher = WriteBatcher.create(new WriteBatcher.BatchSender() {
+            @Override
+            public void send(List<JsonElement> batch) {
+                sendWriteBatch(batch);
+            }
+        });
     }
 
     // package private for testing
@@ -488,30 +592,43 @@ public class WebStorage implements Storage, SecureStorage {
         }
     }
     
+    /*
+     * Posts a query request. Results are requested in the binary encoding
+     * if enabled.
+     */
+    private CloseableHttpEntity postQuery(String url, List<NameValuePair> formparams)
+            throws StorageException {
+        try {
+            HttpEntity entity = new UrlEncodedFormEntity(formparams, "UTF-8");
+            Header[] headers = null;
+            if (binaryQueryResponses) {
+                headers = new Header[] { new BasicHeader("Accept", QUERY_ACCEPT_HEADER) };
+            }
+            return postImpl(url, entity, null, headers);
+        } catch (IOException ex) {
+            throw new StorageException(ex);
+        }
+    }
+    
     private CloseableHttpEntity postImpl(String url, HttpEntity entity, RequestConfig config)
             throws IOException {
+        return postImpl(url, entity, config, null);
+    }
+    
+    private CloseableHttpEntity postImpl(String url, HttpEntity entity, RequestConfig config, Header[] headers)
+            throws IOException {
         HttpPost httpPost = new HttpPost(url);
         if (entity != null) {
             httpPost.setEntity(entity);
         }
-        HttpResponse response = null;
-        // The client context is not thread-safe. Thus protect execution
-        // via the client context lock.
-        synchronized(httpClientContextLock) {
-            RequestConfig oldConfig = httpClientContext.getRequestConfig();
-            if (config != null) {
-                httpClientContext.setRequestConfig(config);
-            }
-            try {
-                response = httpClient.execute(httpPost, httpClientContext);
-            } catch (Throwable e) {
-                throw e;
-            } finally {
-                if (config != null) {
-                    httpClientContext.setRequestConfig(oldConfig);
-                }
+        if (headers != null) {
+            for (Header header : headers) {
+                httpPost.addHeader(header);
             }
         }
+        HttpClientContext context = createRequestContext(config);
+        HttpResponse response = httpClient.execute(httpPost, context);
+        updateSharedContext(context);
         StatusLine status = response.getStatusLine();
         int responseCode = status.getStatusCode();
         switch (responseCode) {
@@ -533,6 +650,38 @@ public class WebStorage implements Storage, SecureStorage {
         return new CloseableHttpEntity(response.getEntity(), responseCode);
     }
 
+    /*
+     * The http client context is not thread-safe. Instead of sharing one
+     * context, each request gets a context of its own. Requests must not
+     * hold a lock while they execute: waiting for a pooled connection
+     * may take as long as streamed query results hold on to theirs.
+     */
+    private HttpClientContext createRequestContext(RequestConfig config) {
+        HttpClientContext context = HttpClientContext.create();
+        synchronized (httpClientContextLock) {
+            if (credsProvider != null) {
+                context.setCredentialsProvider(credsProvider);
+            }
+            // Basic auth is sent preemptively once it succeeded
+            context.setAuthCache(authCache);
+            context.setUserToken(userToken);
+        }
+        if (config != null) {
+            context.setRequestConfig(config);
+        }
+        return context;
+    }
+
+    // Keeps pooled connections of an authenticated user reusable
+    private void updateSharedContext(HttpClientContext context) {
+        Object token = context.getUserToken();
+        if (token != null) {
+            synchronized (httpClientContextLock) {
+                userToken = token;
+            }
+        }
+    }
+
     private CloseableHttpEntity postImpl(String url, HttpEntity entity)
             throws StorageException {
         try {
@@ -596,13 +745,39 @@ public class WebStorage implements Storage, SecureStorage {
     <T extends Pojo> Cursor<T> doExecuteQuery(final WebPreparedStatement<T> stmt, Type parametrizedTypeToken, final int invocationCount) throws StatementExecutionException {
         checkRecursiveInvocationCount(invocationCount);
         NameValuePair queryParam = new BasicNameValuePair("prepared-stmt", gson.toJson(stmt, WebPreparedStatement.class));
-        List<NameValuePair> formparams = Arrays.asList(queryParam);
+        List<NameValuePair> formparams;
+        if (streamQueryResults) {
+            NameValuePair streamParam = new BasicNameValuePair("stream-results", Boolean.TRUE.toString());
+            formparams = Arrays.asList(queryParam, streamParam);
+        } else {
+            formparams = Arrays.asList(queryParam);
+        }
         WebQueryResponse<T> qResp = null;
-        try (CloseableHttpEntity entity = post(endpoint + "/query-execute", formparams)) {
-            Reader reader = getContentAsReader(entity);
-            qResp = gson.fromJson(reader, parametrizedTypeToken);
+        CloseableHttpEntity entity = null;
+        try {
+            entity = postQuery(endpoint + "/query-execute", formparams);
+            if (streamQueryResults && isBinaryQueryResponse(entity)) {
+                Class<T> dataClass = getDataClass(parametrizedTypeToken);
+                BinaryQueryResponseReader<T> reader = new BinaryQueryResponseReader<>(getContent(entity), dataClass, gson);
+                int responseCode = reader.readHeader();
+                if (responseCode == PreparedStatementResponseCode.QUERY_SUCCESS) {
+                    // The cursor reads the remaining results and closes
+                    // the entity.
+                    WebCursor<T> cursor = new WebCursor<>(this, reader, entity, parametrizedTypeToken, stmt);
+                    entity = null;
+                    return cursor;
+                }
+                qResp = new WebQueryResponse<>();
+                qResp.setResponseCode(responseCode);
+            } else {
+                qResp = readQueryResponse(entity, parametrizedTypeToken);
+            }
         } catch (Exception e) {
             throw new StatementExecutionException(e);
+        } finally {
+            if (entity != null) {
+                entity.close();
+            }
         }
         switch(qResp.getResponseCode()) {
         case PreparedStatementResponseCode.QUERY_SUCCESS:
@@ -667,15 +842,41 @@ public class WebStorage implements Storage, SecureStorage {
                                                        cursorIdParam,
                                                        batchSizeParam);
         WebQueryResponse<T> qResp = null;
-        try (CloseableHttpEntity entity = post(endpoint + "/get-more", formparams)) {
-            Reader reader = getContentAsReader(entity);
-            qResp = gson.fromJson(reader, parametrizedTypeToken);
+        try (CloseableHttpEntity entity = postQuery(endpoint + "/get-more", formparams)) {
+            qResp = readQueryResponse(entity, parametrizedTypeToken);
         } catch (Exception e) {
             throw new StorageException(e);
         }
         return qResp;
     }
     
+    /*
+     * Decodes a query response. The encoding is determined by the content type
+     * of the response. Endpoints which don't support the binary encoding
+     * respond with JSON.
+     */
+    private <T extends Pojo> WebQueryResponse<T> readQueryResponse(HttpEntity entity, Type parametrizedTypeToken) throws IOException {
+        if (isBinaryQueryResponse(entity)) {
+            Class<T> dataClass = getDataClass(parametrizedTypeToken);
+            return new BinaryQueryResponseReader<>(getContent(entity), dataClass, gson).read();
+        }
+        Reader reader = getContentAsReader(entity);
+        return gson.fromJson(reader, parametrizedTypeToken);
+    }
+    
+    private static boolean isBinaryQueryResponse(HttpEntity entity) {
+        Header contentType = entity.getContentType();
+        return contentType != null && BinaryQueryResponse.isBinaryContentType(contentType.getValue());
+    }
+    
+    private static <T extends Pojo> Class<T> getDataClass(Type parametrizedTypeToken) {
+        // parametrizedTypeToken is WebQueryResponse<T>
+        Type dataType = ((ParameterizedType) parametrizedTypeToken).getActualTypeArguments()[0];
+        @SuppressWarnings("unchecked")
+        Class<T> dataClass = (Class<T>) dataType;
+        return dataClass;
+    }
+    
     /**
      * Executes a prepared write
      * 
@@ -721,6 +922,49 @@ public class WebStorage implements Storage, SecureStorage {
         return responseCode;
     }
 
+    /**
+     * Package private for testing
+     * 
+     * Executes prepared writes with a single request. Failures are logged
+     * since there is no caller left to report them to. Statements which the
+     * server rejected because of an outdated server token are recovered and
+     * executed one by one.
+     * 
+     * @param batch
+     *            The serialized prepared writes to execute.
+     */
+    void sendWriteBatch(List<JsonElement> batch) {
+        JsonArray stmts = new JsonArray();
+        for (JsonElement stmt : batch) {
+            stmts.add(stmt);
+        }
+        NameValuePair stmtsParam = new BasicNameValuePair("prepared-stmts", gson.toJson(stmts));
+        List<NameValuePair> formparams = Arrays.asList(stmtsParam);
+        int[] responseCodes;
+        try (CloseableHttpEntity entity = post(endpoint + "/write-execute-batch", formparams)) {
+            Reader reader = getContentAsReader(entity);
+            responseCodes = gson.fromJson(reader, int[].class);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to execute batch of " + batch.size() + " writes", e);
+            return;
+        }
+        for (int i = 0; i < responseCodes.length; i++) {
+            int responseCode = responseCodes[i];
+            if (responseCode == PreparedStatementResponseCode.PREP_STMT_BAD_STOKEN) {
+                WebPreparedStatement<?> stmt = gson.fromJson(batch.get(i), WebPreparedStatement.class);
+                try {
+                    WebPreparedStatement<?> newStmt = handlePreparedStmtStateOutOfSync(stmt);
+                    doWriteExecute(newStmt, 1);
+                } catch (DescriptorParsingException | StatementExecutionException e) {
+                    logger.log(Level.WARNING, "Failed to execute write with id: " + stmt.getStatementId(), e);
+                }
+            } else if (responseCode < 0) {
+                logger.log(Level.WARNING, "Write " + i + " of batch failed with response code: " + responseCode
+                                          + ". See server logs for details.");
+            }
+        }
+    }
+
     @Override
     public Connection getConnection() {
         return conn;
@@ -737,6 +981,13 @@ public class WebStorage implements Storage, SecureStorage {
         return new WebDataStream(entity);
     }
 
+    @Override
+    public void deleteFile(String name) throws StorageException {
+        NameValuePair fileParam = new BasicNameValuePair("file", name);
+        List<NameValuePair> formparams = Arrays.asList(fileParam);
+        post(endpoint + "/delete-file", formparams).close();
+    }
+
     @Override
     public void saveFile(String filename, InputStream data, SaveFileListener listener) {
         Objects.requireNonNull(listener);
@@ -806,9 +1057,9 @@ public class WebStorage implements Storage, SecureStorage {
             HttpEntity entity = new UrlEncodedFormEntity(formparams, "UTF-8");
             HttpPost httpPost = new HttpPost(endpoint + "/verify-token");
             httpPost.setEntity(entity);
-            synchronized (httpClientContextLock) {
-                response = httpClient.execute(httpPost, httpClientContext);
-            }
+            HttpClientContext context = createRequestContext(null);
+            response = httpClient.execute(httpPost, context);
+            updateSharedContext(context);
             StatusLine status = response.getStatusLine();
             return status.getStatusCode() == STATUS_OK;
         } catch (IOException ex) {
@@ -826,7 +1077,9 @@ public class WebStorage implements Storage, SecureStorage {
 
     @Override
     public void shutdown() {
-        // Nothing to do here.
+        if (writeBatcher != null) {
+            writeBatcher.shutdown();
+        }
     }
 
     SharedStateId getCategoryId(Category<?> category) {
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.web.client.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.JsonElement;
+import com.redhat.thermostat.common.utils.LoggingUtils;
+import com.redhat.thermostat.shared.config.InvalidConfigurationException;
+
+/**
+ * Collects serialized prepared writes and hands them off in batches. A batch
+ * is sent once it reaches the configured size or once the oldest pending
+ * write has waited for the configured latency, whichever comes first.
+ * Batches are sent in the order writes were added.
+ */
+class WriteBatcher {
+
+    private static final Logger logger = LoggingUtils.getLogger(WriteBatcher.class);
+
+    /*
+     * Integer. The maximum number of prepared writes sent with one request.
+     * Batching is disabled if unset or set to a value <= 1.
+     */
+    static final String BATCH_SIZE = "com.redhat.thermostat.web.client.writeBatchSize";
+
+    /*
+     * Long. The maximum time in milliseconds a write may wait before it gets
+     * sent.
+     */
+    static final String BATCH_LATENCY = "com.redhat.thermostat.web.client.writeBatchLatencyMillis";
+
+    static final long DEFAULT_BATCH_LATENCY_MILLIS = 250;
+
+    interface BatchSender {
+        
+        /**
+         * Sends the given writes. Implementations must not throw exceptions
+         * for failed writes, but should log them instead.
+         * 
+         * @param batch A non-empty list of serialized prepared writes.
+         */
+        void send(List<JsonElement> batch);
+    }
+
+    private final int batchSize;
+    private final BatchSender sender;
+    private final ScheduledExecutorService timer;
+    // Held while swapping out and sending a batch. Keeps batches in order.
+    private final Object sendLock = new Object();
+    // Protected via this.
+    private List<JsonElement> pending;
+
+    WriteBatcher(int batchSize, long maxLatencyMillis, BatchSender sender) {
+        this(batchSize, maxLatencyMillis, sender, Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "WebStorage-write-batch-timer");
+                t.setDaemon(true);
+                return t;
+            }
+        }));
+    }
+
+    // for testing
+    WriteBatcher(int batchSize, long maxLatencyMillis, BatchSender sender, ScheduledExecutorService timer) {
+        this.batchSize = batchSize;
+        this.sender = sender;
+        this.timer = timer;
+        this.pending = new ArrayList<>(batchSize);
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    // Don't let an exception cancel further runs
+                    logger.log(Level.WARNING, "Failed to send pending writes", e);
+                }
+            }
+        }, maxLatencyMillis, maxLatencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a batcher as configured via system properties.
+     * 
+     * @return A new batcher or {@code null} if batching is disabled.
+     */
+    static WriteBatcher create(BatchSender sender) {
+        Integer size = Integer.getInteger(BATCH_SIZE);
+        if (size == null || size <= 1) {
+            return null;
+        }
+        Long latency = Long.getLong(BATCH_LATENCY, DEFAULT_BATCH_LATENCY_MILLIS);
+        if (latency <= 0) {
+            throw new InvalidConfigurationException("Value of property " +
+                    BATCH_LATENCY + ": " + latency + " <= 0");
+        }
+        logger.log(Level.CONFIG, "Sending prepared writes in batches of up to " + size);
+        return new WriteBatcher(size, latency, sender);
+    }
+
+    void add(JsonElement write) {
+        boolean full;
+        synchronized (this) {
+            pending.add(write);
+            full = pending.size() >= batchSize;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    void flush() {
+        synchronized (sendLock) {
+            List<JsonElement> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>(batchSize);
+            }
+            sender.send(batch);
+        }
+    }
+
+    /**
+     * Stops the timer and sends all pending writes.
+     */
+    void shutdown() {
+        timer.shutdownNow();
+        flush();
+    }
+
+    // for testing
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+}
@@ -42,9 +42,13 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.NoSuchElementException;
 
@@ -52,11 +56,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import com.google.gson.Gson;
+
 import com.redhat.thermostat.storage.core.Cursor;
 import com.redhat.thermostat.storage.core.StorageException;
 import com.redhat.thermostat.web.common.PreparedStatementResponseCode;
 import com.redhat.thermostat.web.common.WebPreparedStatement;
 import com.redhat.thermostat.web.common.WebQueryResponse;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponseReader;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponseWriter;
 
 public class WebCursorTest {
 
@@ -215,4 +223,105 @@ public class WebCursorTest {
         Mockito.verifyNoMoreInteractions(storage);
     }
     
+    @Test
+    public void testStreamedResults() throws IOException {
+        WebCursor.StreamedEntity entity = mock(WebCursor.StreamedEntity.class);
+        BinaryQueryResponseReader<TestObj> reader = getStreamReader(false, new TestObj[] { createTestObj("first"), createTestObj("second") });
+        WebCursor<TestObj> cursor = new WebCursor<>(storage, reader, entity, fakeType, stmt);
+        assertTrue(cursor.hasNext());
+        assertEquals("first", cursor.next().getProperty1());
+        verify(entity, never()).close();
+        assertTrue(cursor.hasNext());
+        // Last result has been read ahead. The stream is at its end.
+        assertEquals("second", cursor.next().getProperty1());
+        verify(entity).close();
+        assertFalse(cursor.hasNext());
+        try {
+            cursor.next();
+            fail("Cursor should throw a NoSuchElementException!");
+        } catch (NoSuchElementException e) {
+            // pass
+        }
+        Mockito.verifyZeroInteractions(storage);
+    }
+    
+    /**
+     * Servers which don't support streaming respond with the first batch
+     * only. The remaining results are fetched via get-more.
+     */
+    @Test
+    public void testStreamedResultsWithMoreBatches() throws IOException {
+        WebCursor.StreamedEntity entity = mock(WebCursor.StreamedEntity.class);
+        BinaryQueryResponseReader<TestObj> reader = getStreamReader(true, new TestObj[] { createTestObj("first") });
+        WebCursor<TestObj> cursor = new WebCursor<>(storage, reader, entity, fakeType, stmt);
+        WebQueryResponse<TestObj> response = new WebQueryResponse<>();
+        response.setResponseCode(PreparedStatementResponseCode.QUERY_SUCCESS);
+        response.setCursorId(cursorId);
+        response.setHasMoreBatches(false);
+        response.setResultList(new TestObj[] { createTestObj("second") });
+        when(storage.getMore(cursorId, fakeType, Cursor.DEFAULT_BATCH_SIZE, stmt)).thenReturn(response);
+
+        assertEquals("first", cursor.next().getProperty1());
+        verify(entity).close();
+        assertTrue(cursor.hasNext());
+        assertEquals("second", cursor.next().getProperty1());
+        assertFalse(cursor.hasNext());
+        verify(storage).getMore(cursorId, fakeType, Cursor.DEFAULT_BATCH_SIZE, stmt);
+    }
+    
+    @Test
+    public void testClosingAbandonedStreamAbortsEntity() throws IOException {
+        WebCursor.StreamedEntity entity = mock(WebCursor.StreamedEntity.class);
+        BinaryQueryResponseReader<TestObj> reader = getStreamReader(false, new TestObj[] { createTestObj("first"), createTestObj("second"), createTestObj("third") });
+        WebCursor<TestObj> cursor = new WebCursor<>(storage, reader, entity, fakeType, stmt);
+        assertEquals("first", cursor.next().getProperty1());
+        cursor.close();
+        verify(entity).abort();
+        verify(entity, never()).close();
+        assertFalse(cursor.hasNext());
+        // closing twice is harmless
+        cursor.close();
+        verify(entity).abort();
+    }
+
+    @Test
+    public void testFinalizingAbandonedStreamAbortsEntity() throws Throwable {
+        WebCursor.StreamedEntity entity = mock(WebCursor.StreamedEntity.class);
+        BinaryQueryResponseReader<TestObj> reader = getStreamReader(false, new TestObj[] { createTestObj("first"), createTestObj("second"), createTestObj("third") });
+        WebCursor<TestObj> cursor = new WebCursor<>(storage, reader, entity, fakeType, stmt);
+        cursor.finalize();
+        verify(entity).abort();
+    }
+
+    @Test
+    public void testClosingReadStreamDoesNotAbortEntity() throws IOException {
+        WebCursor.StreamedEntity entity = mock(WebCursor.StreamedEntity.class);
+        BinaryQueryResponseReader<TestObj> reader = getStreamReader(false, new TestObj[] { createTestObj("first") });
+        WebCursor<TestObj> cursor = new WebCursor<>(storage, reader, entity, fakeType, stmt);
+        assertEquals("first", cursor.next().getProperty1());
+        cursor.close();
+        verify(entity).close();
+        verify(entity, never()).abort();
+    }
+
+    private BinaryQueryResponseReader<TestObj> getStreamReader(boolean hasMoreBatches, TestObj[] results) throws IOException {
+        Gson gson = new Gson();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        BinaryQueryResponseWriter<TestObj> writer = new BinaryQueryResponseWriter<>(bout, TestObj.class, gson);
+        writer.writeHeader(PreparedStatementResponseCode.QUERY_SUCCESS);
+        for (TestObj result : results) {
+            writer.writeResult(result);
+        }
+        writer.finish(cursorId, hasMoreBatches);
+        BinaryQueryResponseReader<TestObj> reader = new BinaryQueryResponseReader<>(new ByteArrayInputStream(bout.toByteArray()), TestObj.class, gson);
+        assertEquals(PreparedStatementResponseCode.QUERY_SUCCESS, reader.readHeader());
+        return reader;
+    }
+    
+    private TestObj createTestObj(String property1) {
+        TestObj obj = new TestObj();
+        obj.setProperty1(property1);
+        return obj;
+    }
+    
 }
@@ -53,6 +53,8 @@ import static org.mockito.Mockito.when;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
@@ -91,6 +93,7 @@ import org.mockito.Mockito;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.redhat.thermostat.common.internal.test.FreePortFinder;
 import com.redhat.thermostat.common.internal.test.FreePortFinder.TryPort;
 import com.redhat.thermostat.shared.config.SSLConfiguration;
@@ -103,6 +106,7 @@ import com.redhat.thermostat.storage.core.Connection;
 import com.redhat.thermostat.storage.core.Connection.ConnectionListener;
 import com.redhat.thermostat.storage.core.Connection.ConnectionStatus;
 import com.redhat.thermostat.storage.core.Cursor;
+import com.redhat.thermostat.storage.core.DataModifyingStatement;
 import com.redhat.thermostat.storage.core.DescriptorParsingException;
 import com.redhat.thermostat.storage.core.IllegalDescriptorException;
 import com.redhat.thermostat.storage.core.Key;
@@ -121,8 +125,11 @@ import com.redhat.thermostat.web.common.SharedStateId;
 import com.redhat.thermostat.web.common.WebPreparedStatement;
 import com.redhat.thermostat.web.common.WebPreparedStatementResponse;
 import com.redhat.thermostat.web.common.WebQueryResponse;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponse;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponseWriter;
 import com.redhat.thermostat.web.common.typeadapters.PojoTypeAdapterFactory;
 import com.redhat.thermostat.web.common.typeadapters.PreparedParameterTypeAdapterFactory;
+import com.redhat.thermostat.web.common.typeadapters.PreparedParametersTypeAdapterFactory;
 import com.redhat.thermostat.web.common.typeadapters.SharedStateIdTypeAdapterFactory;
 import com.redhat.thermostat.web.common.typeadapters.WebPreparedStatementResponseTypeAdapterFactory;
 import com.redhat.thermostat.web.common.typeadapters.WebPreparedStatementTypeAdapterFactory;
@@ -137,6 +144,9 @@ public class WebStorageTest {
     // Set these in prepareServer() to determine server behaviour
     private int responseStatus = HttpServletResponse.SC_OK;
     private String responseBody;
+    // If set, takes precedence over responseBody
+    private byte[] responseBytes;
+    private String responseContentType;
 
     // These get set by test server handler (anonymous class in startServer())
     // Check them after WebStorage method call that should interact with server.
@@ -212,7 +222,10 @@ public class WebStorageTest {
                 requestBody = body.toString();
                 // Send response body.
                 response.setStatus(responseStatus);
-                if (responseBody != null) {
+                if (responseBytes != null) {
+                    response.setContentType(responseContentType);
+                    response.getOutputStream().write(responseBytes);
+                } else if (responseBody != null) {
                     response.getWriter().write(responseBody);
                 }
                 baseRequest.setHandled(true);
@@ -225,6 +238,8 @@ public class WebStorageTest {
     private void prepareServer(int responseStatus, String responseBody) {
         this.responseStatus = responseStatus;
         this.responseBody = responseBody;
+        this.responseBytes = null;
+        this.responseContentType = null;
 
         requestBody = null;
         requestURI = null;
@@ -232,6 +247,13 @@ public class WebStorageTest {
         headers.clear();
     }
 
+    // OK status and specified binary response body.
+    private void prepareServer(byte[] responseBytes, String contentType) {
+        prepareServer(HttpServletResponse.SC_OK, null);
+        this.responseBytes = responseBytes;
+        this.responseContentType = contentType;
+    }
+
     // Specified status and null response body.
     private void prepareServer(int responseStatus) {
         prepareServer(responseStatus, null);
@@ -615,6 +637,112 @@ public class WebStorageTest {
         }
     }
     
+    @Test
+    public void canExecuteQueryWithBinaryResponse() throws Exception {
+        Gson gson = getQueryGson();
+        StatementDescriptor<TestObj> desc = new StatementDescriptor<>(category, "QUERY test WHERE 'property1' = ?s");
+        WebPreparedStatementResponse fakeResponse = new WebPreparedStatementResponse();
+        fakeResponse.setNumFreeVariables(1);
+        fakeResponse.setStatementId(new SharedStateId(5, UUID.randomUUID()));
+        prepareServer(gson.toJson(fakeResponse));
+        PreparedStatement<TestObj> stmt = storage.prepareStatement(desc);
+        stmt.setString(0, "fluff");
+
+        WebQueryResponse<TestObj> fakeQueryResponse = new WebQueryResponse<>();
+        fakeQueryResponse.setResponseCode(PreparedStatementResponseCode.QUERY_SUCCESS);
+        fakeQueryResponse.setResultList(getTwoTestObjects());
+        fakeQueryResponse.setCursorId(-1);
+        fakeQueryResponse.setHasMoreBatches(false);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new BinaryQueryResponseWriter<>(bout, TestObj.class, gson).write(fakeQueryResponse);
+        prepareServer(bout.toByteArray(), BinaryQueryResponse.CONTENT_TYPE);
+
+        Cursor<TestObj> results = stmt.executeQuery();
+        assertTrue(requestURI.endsWith("/query-execute"));
+        assertTrue(BinaryQueryResponse.acceptsBinary(headers.get("Accept")));
+        assertEquals("fluffor1", results.next().getProperty1());
+        assertEquals("fluffor2", results.next().getProperty1());
+        assertFalse(results.hasNext());
+    }
+    
+    @Test
+    public void canExecuteStreamingQuery() throws Exception {
+        Gson gson = getQueryGson();
+        PreparedStatement<TestObj> stmt = prepareStreamingStatement();
+
+        WebQueryResponse<TestObj> fakeQueryResponse = new WebQueryResponse<>();
+        fakeQueryResponse.setResponseCode(PreparedStatementResponseCode.QUERY_SUCCESS);
+        fakeQueryResponse.setResultList(getTwoTestObjects());
+        fakeQueryResponse.setCursorId(-1);
+        fakeQueryResponse.setHasMoreBatches(false);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new BinaryQueryResponseWriter<>(bout, TestObj.class, gson).write(fakeQueryResponse);
+        prepareServer(bout.toByteArray(), BinaryQueryResponse.CONTENT_TYPE);
+
+        Cursor<TestObj> results = stmt.executeQuery();
+        assertTrue(requestURI.endsWith("/query-execute"));
+        assertTrue(requestBody.contains("stream-results=true"));
+        assertEquals("fluffor1", results.next().getProperty1());
+        assertEquals("fluffor2", results.next().getProperty1());
+        assertFalse(results.hasNext());
+    }
+
+    /*
+     * Streamed results hold on to a pooled connection until they are read.
+     * Without releasing the connections of abandoned cursors, queries would
+     * block once the pool is exhausted.
+     */
+    @Test(timeout = 10000)
+    public void abandonedStreamingCursorsReleaseTheirConnections() throws Exception {
+        Gson gson = getQueryGson();
+        PreparedStatement<TestObj> stmt = prepareStreamingStatement();
+
+        TestObj[] resultList = new TestObj[1000];
+        for (int i = 0; i < resultList.length; i++) {
+            resultList[i] = new TestObj();
+            resultList[i].setProperty1("fluffor" + i);
+        }
+        WebQueryResponse<TestObj> fakeQueryResponse = new WebQueryResponse<>();
+        fakeQueryResponse.setResponseCode(PreparedStatementResponseCode.QUERY_SUCCESS);
+        fakeQueryResponse.setResultList(resultList);
+        fakeQueryResponse.setCursorId(-1);
+        fakeQueryResponse.setHasMoreBatches(false);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new BinaryQueryResponseWriter<>(bout, TestObj.class, gson).write(fakeQueryResponse);
+        prepareServer(bout.toByteArray(), BinaryQueryResponse.CONTENT_TYPE);
+
+        // more queries than the pool has connections per route
+        for (int i = 0; i < 5; i++) {
+            Cursor<TestObj> results = stmt.executeQuery();
+            assertEquals("fluffor0", results.next().getProperty1());
+            assertTrue(results.hasNext());
+            ((Closeable) results).close();
+            assertFalse(results.hasNext());
+        }
+    }
+
+    private PreparedStatement<TestObj> prepareStreamingStatement() throws Exception {
+        System.setProperty(WebStorage.STREAM_QUERY_RESULTS, "true");
+        WebStorage streamingStorage;
+        try {
+            streamingStorage = new WebStorage("http://localhost:" + port + "/",
+                    new TrivialStorageCredentials(null, null), mock(SSLConfiguration.class));
+        } finally {
+            System.clearProperty(WebStorage.STREAM_QUERY_RESULTS);
+        }
+        Gson gson = getQueryGson();
+        prepareServer(gson.toJson(new SharedStateId(42, serverNonce)));
+        streamingStorage.registerCategory(category);
+        StatementDescriptor<TestObj> desc = new StatementDescriptor<>(category, "QUERY test WHERE 'property1' = ?s");
+        WebPreparedStatementResponse fakeResponse = new WebPreparedStatementResponse();
+        fakeResponse.setNumFreeVariables(1);
+        fakeResponse.setStatementId(new SharedStateId(5, UUID.randomUUID()));
+        prepareServer(gson.toJson(fakeResponse));
+        PreparedStatement<TestObj> stmt = streamingStorage.prepareStatement(desc);
+        stmt.setString(0, "fluff");
+        return stmt;
+    }
+    
     private TestObj[] getTwoTestObjects() {
         TestObj obj1 = new TestObj();
         obj1.setProperty1("fluffor1");
@@ -740,6 +868,78 @@ public class WebStorageTest {
         assertEquals(PreparedStatementResponseCode.WRITE_GENERIC_FAILURE, response);
     }
     
+    @Test
+    public void canBatchPreparedWrites() throws Exception {
+        System.setProperty(WriteBatcher.BATCH_SIZE, "2");
+        System.setProperty(WriteBatcher.BATCH_LATENCY, "60000");
+        WebStorage batchingStorage;
+        try {
+            batchingStorage = new WebStorage("http://localhost:" + port + "/",
+                    new TrivialStorageCredentials(null, null), mock(SSLConfiguration.class));
+        } finally {
+            System.clearProperty(WriteBatcher.BATCH_SIZE);
+            System.clearProperty(WriteBatcher.BATCH_LATENCY);
+        }
+        Gson gson = new GsonBuilder()
+                            .registerTypeAdapterFactory(new SharedStateIdTypeAdapterFactory())
+                            .registerTypeAdapterFactory(new WebPreparedStatementResponseTypeAdapterFactory())
+                            .registerTypeAdapterFactory(new PreparedParameterTypeAdapterFactory())
+                            .registerTypeAdapterFactory(new PreparedParametersTypeAdapterFactory())
+                            .registerTypeAdapterFactory(new WebPreparedStatementTypeAdapterFactory())
+                            .create();
+        prepareServer(gson.toJson(new SharedStateId(42, serverNonce)));
+        batchingStorage.registerCategory(category);
+
+        String strDesc = "ADD test SET 'property1' = ?s";
+        StatementDescriptor<TestObj> desc = new StatementDescriptor<>(category, strDesc);
+        WebPreparedStatementResponse fakeResponse = new WebPreparedStatementResponse();
+        fakeResponse.setNumFreeVariables(1);
+        fakeResponse.setStatementId(new SharedStateId(3, serverNonce));
+        prepareServer(gson.toJson(fakeResponse));
+        PreparedStatement<TestObj> stmt = batchingStorage.prepareStatement(desc);
+
+        prepareServer(gson.toJson(new int[] { 0, 0 }));
+        stmt.setString(0, "fluff1");
+        assertEquals(DataModifyingStatement.DEFAULT_STATUS_SUCCESS, stmt.execute());
+        // first write is buffered
+        assertNull(requestURI);
+
+        // statement gets re-used with a different parameter
+        stmt.setString(0, "fluff2");
+        assertEquals(DataModifyingStatement.DEFAULT_STATUS_SUCCESS, stmt.execute());
+        assertTrue(requestURI.endsWith("/write-execute-batch"));
+        String[] requestParts = URLDecoder.decode(requestBody, "UTF-8").split("=", 2);
+        assertEquals("prepared-stmts", requestParts[0]);
+        WebPreparedStatement<?>[] stmts = gson.fromJson(requestParts[1], WebPreparedStatement[].class);
+        assertEquals(2, stmts.length);
+        assertEquals(3, stmts[0].getStatementId().getId());
+        assertEquals("fluff1", stmts[0].getParams().getParams()[0].getValue());
+        assertEquals("fluff2", stmts[1].getParams().getParams()[0].getValue());
+
+        batchingStorage.shutdown();
+    }
+    
+    @Test
+    public void failingWriteBatchDoesNotThrow() {
+        Gson gson = new GsonBuilder()
+                            .registerTypeAdapterFactory(new SharedStateIdTypeAdapterFactory())
+                            .registerTypeAdapterFactory(new PreparedParameterTypeAdapterFactory())
+                            .registerTypeAdapterFactory(new PreparedParametersTypeAdapterFactory())
+                            .registerTypeAdapterFactory(new WebPreparedStatementTypeAdapterFactory())
+                            .create();
+        WebPreparedStatement<TestObj> stmt = new WebPreparedStatement<>(1, new SharedStateId(3, serverNonce));
+        stmt.setString(0, "fluff");
+        List<JsonElement> batch = Arrays.asList(gson.toJsonTree(stmt, WebPreparedStatement.class));
+
+        prepareServer(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        storage.sendWriteBatch(batch);
+        assertTrue(requestURI.endsWith("/write-execute-batch"));
+
+        prepareServer(gson.toJson(new int[] { PreparedStatementResponseCode.ILLEGAL_PATCH }));
+        storage.sendWriteBatch(batch);
+        assertTrue(requestURI.endsWith("/write-execute-batch"));
+    }
+    
     @Test
     public void forbiddenExecuteWriteReturnsGenericWriteFailure() {
         Gson gson = new GsonBuilder()
@@ -824,6 +1024,14 @@ public class WebStorageTest {
         verify(saveListener).notify(EventType.SAVE_COMPLETE, null);
     }
 
+    @Test
+    public void testDeleteFile() {
+        prepareServer(HttpServletResponse.SC_OK);
+        storage.deleteFile("fluff.chunk-0");
+        assertTrue(requestURI.endsWith("/delete-file"));
+        assertEquals("file=fluff.chunk-0", requestBody.trim());
+    }
+
     @Test
     public void testLoadFile() throws IOException {
         prepareServer(HttpServletResponse.SC_NO_CONTENT);
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.web.client.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.redhat.thermostat.shared.config.InvalidConfigurationException;
+import com.redhat.thermostat.web.client.internal.WriteBatcher.BatchSender;
+
+public class WriteBatcherTest {
+
+    private ScheduledExecutorService timer;
+    private RecordingSender sender;
+    private WriteBatcher batcher;
+
+    @Before
+    public void setup() {
+        timer = mock(ScheduledExecutorService.class);
+        sender = new RecordingSender();
+        batcher = new WriteBatcher(3, 100, sender, timer);
+    }
+
+    @Test
+    public void schedulesTimerWithLatency() {
+        verify(timer).scheduleWithFixedDelay(any(Runnable.class), eq(100L), eq(100L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void sendsWhenBatchIsFull() {
+        batcher.add(new JsonPrimitive(1));
+        batcher.add(new JsonPrimitive(2));
+        assertEquals(0, sender.batches.size());
+        assertEquals(2, batcher.getPendingCount());
+
+        batcher.add(new JsonPrimitive(3));
+        assertEquals(1, sender.batches.size());
+        List<JsonElement> batch = sender.batches.get(0);
+        assertEquals(3, batch.size());
+        assertEquals(1, batch.get(0).getAsInt());
+        assertEquals(3, batch.get(2).getAsInt());
+        assertEquals(0, batcher.getPendingCount());
+    }
+
+    @Test
+    public void timerSendsPendingWrites() {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).scheduleWithFixedDelay(captor.capture(), eq(100L), eq(100L), eq(TimeUnit.MILLISECONDS));
+        Runnable tick = captor.getValue();
+
+        // nothing pending, nothing sent
+        tick.run();
+        assertEquals(0, sender.batches.size());
+
+        batcher.add(new JsonPrimitive(1));
+        tick.run();
+        assertEquals(1, sender.batches.size());
+        assertEquals(1, sender.batches.get(0).size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void timerSurvivesFailingSender() {
+        BatchSender failing = mock(BatchSender.class);
+        doThrow(new IllegalStateException("test")).when(failing).send(any(List.class));
+        ScheduledExecutorService failingTimer = mock(ScheduledExecutorService.class);
+        WriteBatcher failingBatcher = new WriteBatcher(3, 100, failing, failingTimer);
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(failingTimer).scheduleWithFixedDelay(captor.capture(), eq(100L), eq(100L), eq(TimeUnit.MILLISECONDS));
+
+        failingBatcher.add(new JsonPrimitive(1));
+        // must not throw
+        captor.getValue().run();
+    }
+
+    @Test
+    public void shutdownSendsPendingWrites() {
+        batcher.add(new JsonPrimitive(1));
+        batcher.shutdown();
+        verify(timer).shutdownNow();
+        assertEquals(1, sender.batches.size());
+    }
+
+    @Test
+    public void createReturnsNullIfDisabled() {
+        BatchSender mockSender = mock(BatchSender.class);
+        assertNull(WriteBatcher.create(mockSender));
+        System.setProperty(WriteBatcher.BATCH_SIZE, "1");
+        try {
+            assertNull(WriteBatcher.create(mockSender));
+        } finally {
+            System.clearProperty(WriteBatcher.BATCH_SIZE);
+        }
+        verifyZeroInteractions(mockSender);
+    }
+
+    @Test(expected = InvalidConfigurationException.class)
+    public void createRejectsNonPositiveLatency() {
+        System.setProperty(WriteBatcher.BATCH_SIZE, "10");
+        System.setProperty(WriteBatcher.BATCH_LATENCY, "0");
+        try {
+            WriteBatcher.create(mock(BatchSender.class));
+        } finally {
+            System.clearProperty(WriteBatcher.BATCH_SIZE);
+            System.clearProperty(WriteBatcher.BATCH_LATENCY);
+        }
+    }
+
+    private static class RecordingSender implements BatchSender {
+
+        private final List<List<JsonElement>> batches = new ArrayList<>();
+
+        @Override
+        public void send(List<JsonElement> batch) {
+            batches.add(batch);
+        }
+    }
+}
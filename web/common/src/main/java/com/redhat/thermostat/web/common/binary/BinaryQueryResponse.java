@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.web.common.binary;
+
+/**
+ * Constants of the compact binary encoding of
+ * {@link com.redhat.thermostat.web.common.WebQueryResponse}s. Clients
+ * request the binary encoding by sending {@link #CONTENT_TYPE} in the
+ * {@code Accept} header of query requests. Servers which don't support it
+ * respond with JSON.
+ * 
+ * <p>
+ * A response is laid out as follows:
+ * <pre>
+ * magic (2 bytes) | version (1 byte) | response code (varint)
+ * { RECORD_MARKER | pojo }*
+ * END_MARKER | has more batches (1 byte) | cursor id (varint)
+ * </pre>
+ * Property names and types of each Pojo class are sent once per response
+ * as a dictionary. Subsequent records of the same class only carry values.
+ * Long values are delta encoded against the same property of the previous
+ * record, which keeps timestamps small. Strings are sent once per
+ * response and referred to by index afterwards.
+ * 
+ * @see BinaryQueryResponseWriter
+ * @see BinaryQueryResponseReader
+ */
+public final class BinaryQueryResponse {
+
+    public static final String CONTENT_TYPE = "application/x-thermostat-query-response";
+
+    static final byte MAGIC_0 = 'T';
+    static final byte MAGIC_1 = 'Q';
+    static final byte VERSION = 1;
+
+    static final byte END_MARKER = 0;
+    static final byte RECORD_MARKER = 1;
+
+    // Maximum number of strings remembered per response
+    static final int MAX_STRING_TABLE_SIZE = 4096;
+
+    private BinaryQueryResponse() {
+        // constants only
+    }
+
+    /**
+     * 
+     * @param contentType The value of a {@code Content-Type} header. May be
+     *                    {@code null}.
+     * @return {@code true} if the content type denotes the binary encoding.
+     */
+    public static boolean isBinaryContentType(String contentType) {
+        return contentType != null && contentType.startsWith(CONTENT_TYPE);
+    }
+
+    /**
+     * 
+     * @param accept The value of an {@code Accept} header. May be
+     *               {@code null}.
+     * @return {@code true} if the binary encoding is acceptable.
+     */
+    public static boolean acceptsBinary(String accept) {
+        return accept != null && accept.contains(CONTENT_TYPE);
+    }
+}
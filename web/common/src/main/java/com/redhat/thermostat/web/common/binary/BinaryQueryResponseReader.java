@@ -0,0 +1,414 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.web.common.binary;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.gson.Gson;
+import com.redhat.thermostat.storage.model.Pojo;
+import com.redhat.thermostat.web.common.WebQueryResponse;
+import com.redhat.thermostat.web.common.binary.PojoLayout.Property;
+
+/**
+ * Reads query responses in the binary encoding described in
+ * {@link BinaryQueryResponse}. Properties unknown to the local version of a
+ * Pojo class are skipped.
+ * 
+ * Instances are not thread-safe and can be used for a single response only.
+ *
+ * @param <T> The type of the query results.
+ */
+public class BinaryQueryResponseReader<T extends Pojo> {
+
+    private static class Dictionary {
+
+        private final String[] names;
+        private final byte[] tags;
+        private final boolean[] nullable;
+        // Last read value of each long property
+        private final long[] previousLongs;
+        // Local properties matching the properties in the stream for
+        // boundClass. null entries are skipped.
+        private Class<?> boundClass;
+        private Property[] bound;
+
+        private Dictionary(int size) {
+            this.names = new String[size];
+            this.tags = new byte[size];
+            this.nullable = new boolean[size];
+            this.previousLongs = new long[size];
+        }
+
+        private Property[] bind(Class<?> pojoClass) {
+            if (pojoClass == null) {
+                return null;
+            }
+            if (pojoClass != boundClass) {
+                PojoLayout layout = PojoLayout.forClass(pojoClass);
+                Property[] props = new Property[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    Property prop = layout.getWritableProperty(names[i]);
+                    // Skip properties which changed type
+                    if (prop != null && prop.tag == tags[i]) {
+                        props[i] = prop;
+                    }
+                }
+                bound = props;
+                boundClass = pojoClass;
+            }
+            return bound;
+        }
+    }
+
+    private final DataInputStream in;
+    private final Class<T> dataClass;
+    // Used for properties of types without a binary encoding
+    private final Gson gson;
+    private final List<Dictionary> dictionaries = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+    private boolean finished;
+    private int cursorId;
+    private boolean hasMoreBatches;
+
+    public BinaryQueryResponseReader(InputStream in, Class<T> dataClass, Gson gson) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.dataClass = Objects.requireNonNull(dataClass);
+        this.gson = gson;
+    }
+
+    /**
+     * 
+     * @return The response code of the query.
+     * @throws IOException If the stream does not contain a binary query
+     *                     response.
+     */
+    public int readHeader() throws IOException {
+        byte magic0 = in.readByte();
+        byte magic1 = in.readByte();
+        if (magic0 != BinaryQueryResponse.MAGIC_0 || magic1 != BinaryQueryResponse.MAGIC_1) {
+            throw new IOException("Not a binary query response");
+        }
+        byte version = in.readByte();
+        if (version != BinaryQueryResponse.VERSION) {
+            throw new IOException("Unsupported binary query response version: " + version);
+        }
+        return VarInts.readSignedVarInt(in);
+    }
+
+    /**
+     * 
+     * @return The next result or {@code null} if all results have been read.
+     *         {@link #getCursorId()} and {@link #hasMoreBatches()} are
+     *         available after that.
+     */
+    public T readNext() throws IOException {
+        if (finished) {
+            return null;
+        }
+        byte marker = in.readByte();
+        if (marker == BinaryQueryResponse.END_MARKER) {
+            hasMoreBatches = in.readBoolean();
+            cursorId = VarInts.readSignedVarInt(in);
+            finished = true;
+            return null;
+        }
+        if (marker != BinaryQueryResponse.RECORD_MARKER) {
+            throw new IOException("Unexpected marker: " + marker);
+        }
+        Dictionary dict = readDictionaryRef();
+        return dataClass.cast(readProperties(dict, dataClass));
+    }
+
+    public int getCursorId() {
+        checkFinished();
+        return cursorId;
+    }
+
+    public boolean hasMoreBatches() {
+        checkFinished();
+        return hasMoreBatches;
+    }
+
+    private void checkFinished() {
+        if (!finished) {
+            throw new IllegalStateException("Results not read yet");
+        }
+    }
+
+    /**
+     * Reads a complete response.
+     */
+    public WebQueryResponse<T> read() throws IOException {
+        int responseCode = readHeader();
+        List<T> results = new ArrayList<>();
+        T result;
+        while ((result = readNext()) != null) {
+            results.add(result);
+        }
+        @SuppressWarnings("unchecked")
+        T[] resultList = (T[]) Array.newInstance(dataClass, results.size());
+        WebQueryResponse<T> response = new WebQueryResponse<>();
+        response.setResponseCode(responseCode);
+        response.setResultList(results.toArray(resultList));
+        response.setCursorId(cursorId);
+        response.setHasMoreBatches(hasMoreBatches);
+        return response;
+    }
+
+    private Dictionary readDictionaryRef() throws IOException {
+        int id = VarInts.readUnsignedVarInt(in);
+        if (id < dictionaries.size()) {
+            return dictionaries.get(id);
+        }
+        if (id != dictionaries.size()) {
+            throw new IOException("Unexpected dictionary id: " + id);
+        }
+        int size = VarInts.readUnsignedVarInt(in);
+        Dictionary dict = new Dictionary(size);
+        for (int i = 0; i < size; i++) {
+            dict.names[i] = readLiteral();
+            byte tag = in.readByte();
+            dict.nullable[i] = (tag & PojoLayout.NULLABLE_FLAG) != 0;
+            dict.tags[i] = (byte) (tag & ~PojoLayout.NULLABLE_FLAG);
+        }
+        dictionaries.add(dict);
+        return dict;
+    }
+
+    /*
+     * Reads the properties described by dict into a new instance of
+     * pojoClass. If pojoClass is null, properties are skipped and null is
+     * returned.
+     */
+    private Object readProperties(Dictionary dict, Class<?> pojoClass) throws IOException {
+        Object pojo = newInstance(pojoClass);
+        Property[] props = dict.bind(pojoClass);
+        for (int i = 0; i < dict.tags.length; i++) {
+            Property prop = props == null ? null : props[i];
+            Object value = readValue(dict, i, prop);
+            if (prop != null && !(value == null && prop.rawType.isPrimitive())) {
+                prop.set(pojo, value);
+            }
+        }
+        return pojo;
+    }
+
+    private Object newInstance(Class<?> pojoClass) {
+        if (pojoClass == null) {
+            return null;
+        }
+        try {
+            return pojoClass.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Object readValue(Dictionary dict, int index, Property prop) throws IOException {
+        switch (dict.tags[index]) {
+        case PojoLayout.TAG_BOOLEAN:
+            if (readPresence(dict, index)) {
+                return in.readBoolean();
+            }
+            return null;
+        case PojoLayout.TAG_INT:
+            if (readPresence(dict, index)) {
+                return VarInts.readSignedVarInt(in);
+            }
+            return null;
+        case PojoLayout.TAG_LONG:
+            if (readPresence(dict, index)) {
+                long value = dict.previousLongs[index] + VarInts.readSignedVarLong(in);
+                dict.previousLongs[index] = value;
+                return value;
+            }
+            return null;
+        case PojoLayout.TAG_DOUBLE:
+            if (readPresence(dict, index)) {
+                return in.readDouble();
+            }
+            return null;
+        case PojoLayout.TAG_STRING:
+            return readString();
+        case PojoLayout.TAG_INT_ARRAY:
+            return readIntArray();
+        case PojoLayout.TAG_LONG_ARRAY:
+            return readLongArray();
+        case PojoLayout.TAG_DOUBLE_ARRAY:
+            return readDoubleArray();
+        case PojoLayout.TAG_STRING_ARRAY:
+            return readStringArray();
+        case PojoLayout.TAG_POJO:
+            if (readPresence(dict, index)) {
+                Dictionary memberDict = readDictionaryRef();
+                return readProperties(memberDict, prop == null ? null : prop.pojoClass);
+            }
+            return null;
+        case PojoLayout.TAG_POJO_ARRAY:
+            return readPojoArray(prop == null ? null : prop.pojoClass);
+        case PojoLayout.TAG_JSON:
+            String json = readLiteral();
+            if (json == null || prop == null) {
+                return null;
+            }
+            return gson.fromJson(json, prop.genericType);
+        default:
+            throw new IOException("Unknown tag: " + dict.tags[index]);
+        }
+    }
+
+    private boolean readPresence(Dictionary dict, int index) throws IOException {
+        if (!dict.nullable[index]) {
+            return true;
+        }
+        return in.readBoolean();
+    }
+
+    // Returns -1 for null arrays
+    private int readArrayLength() throws IOException {
+        return VarInts.readUnsignedVarInt(in) - 1;
+    }
+
+    private int[] readIntArray() throws IOException {
+        int length = readArrayLength();
+        if (length < 0) {
+            return null;
+        }
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = VarInts.readSignedVarInt(in);
+        }
+        return values;
+    }
+
+    private long[] readLongArray() throws IOException {
+        int length = readArrayLength();
+        if (length < 0) {
+            return null;
+        }
+        long[] values = new long[length];
+        long previous = 0;
+        for (int i = 0; i < length; i++) {
+            previous += VarInts.readSignedVarLong(in);
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    private double[] readDoubleArray() throws IOException {
+        int length = readArrayLength();
+        if (length < 0) {
+            return null;
+        }
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    private String[] readStringArray() throws IOException {
+        int length = readArrayLength();
+        if (length < 0) {
+            return null;
+        }
+        String[] values = new String[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readString();
+        }
+        return values;
+    }
+
+    private Object[] readPojoArray(Class<?> componentType) throws IOException {
+        int length = readArrayLength();
+        if (length < 0) {
+            return null;
+        }
+        Object[] values = componentType == null ? null : (Object[]) Array.newInstance(componentType, length);
+        if (length == 0) {
+            return values;
+        }
+        Dictionary dict = readDictionaryRef();
+        for (int i = 0; i < length; i++) {
+            if (in.readBoolean()) {
+                Object value = readProperties(dict, componentType);
+                if (values != null) {
+                    values[i] = value;
+                }
+            }
+        }
+        return values;
+    }
+
+    private String readString() throws IOException {
+        int ref = VarInts.readUnsignedVarInt(in);
+        if (ref == 0) {
+            return null;
+        }
+        if (ref > 1) {
+            int index = ref - 2;
+            if (index >= strings.size()) {
+                throw new IOException("Unknown string reference: " + index);
+            }
+            return strings.get(index);
+        }
+        String value = readLiteral();
+        if (strings.size() < BinaryQueryResponse.MAX_STRING_TABLE_SIZE) {
+            strings.add(value);
+        }
+        return value;
+    }
+
+    private String readLiteral() throws IOException {
+        int length = VarInts.readUnsignedVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
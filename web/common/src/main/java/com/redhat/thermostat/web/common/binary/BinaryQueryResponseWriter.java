@@ -0,0 +1,339 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.web.common.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.gson.Gson;
+import com.redhat.thermostat.storage.core.Entity;
+import com.redhat.thermostat.storage.model.Pojo;
+import com.redhat.thermostat.web.common.WebQueryResponse;
+import com.redhat.thermostat.web.common.binary.PojoLayout.Property;
+
+/**
+ * Writes query responses in the binary encoding described in
+ * {@link BinaryQueryResponse}. Results can be written one at a time, as
+ * they are read from a cursor:
+ * 
+ * <pre>
+ * writer.writeHeader(PreparedStatementResponseCode.QUERY_SUCCESS);
+ * while (cursor.hasNext()) {
+ *     writer.writeResult(cursor.next());
+ * }
+ * writer.finish(cursorId, hasMoreBatches);
+ * </pre>
+ * 
+ * Instances are not thread-safe and can be used for a single response only.
+ *
+ * @param <T> The type of the query results.
+ */
+public class BinaryQueryResponseWriter<T extends Pojo> {
+
+    private static class Dictionary {
+
+        private final int id;
+        private final Property[] properties;
+        // Last written value of each long property
+        private final long[] previousLongs;
+
+        private Dictionary(int id, Property[] properties) {
+            this.id = id;
+            this.properties = properties;
+            this.previousLongs = new long[properties.length];
+        }
+    }
+
+    private final DataOutputStream out;
+    private final Class<T> dataClass;
+    // Used for properties of types without a binary encoding
+    private final Gson gson;
+    private final Map<Class<?>, Dictionary> dictionaries = new HashMap<>();
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    public BinaryQueryResponseWriter(OutputStream out, Class<T> dataClass, Gson gson) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.dataClass = Objects.requireNonNull(dataClass);
+        this.gson = gson;
+    }
+
+    public void writeHeader(int responseCode) throws IOException {
+        out.writeByte(BinaryQueryResponse.MAGIC_0);
+        out.writeByte(BinaryQueryResponse.MAGIC_1);
+        out.writeByte(BinaryQueryResponse.VERSION);
+        VarInts.writeSignedVarInt(out, responseCode);
+    }
+
+    public void writeResult(T result) throws IOException {
+        Objects.requireNonNull(result);
+        out.writeByte(BinaryQueryResponse.RECORD_MARKER);
+        Dictionary dict = writeDictionaryRef(dataClass);
+        writeProperties(dict, result);
+    }
+
+    /**
+     * Flushes results written so far to the underlying stream. Used when
+     * streaming large result sets.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes the end of the response and flushes the underlying stream.
+     */
+    public void finish(int cursorId, boolean hasMoreBatches) throws IOException {
+        out.writeByte(BinaryQueryResponse.END_MARKER);
+        out.writeBoolean(hasMoreBatches);
+        VarInts.writeSignedVarInt(out, cursorId);
+        out.flush();
+    }
+
+    /**
+     * Writes a complete response.
+     */
+    public void write(WebQueryResponse<T> response) throws IOException {
+        writeHeader(response.getResponseCode());
+        T[] results = response.getResultList();
+        if (results != null) {
+            for (T result : results) {
+                writeResult(result);
+            }
+        }
+        finish(response.getCursorId(), response.hasMoreBatches());
+    }
+
+    /*
+     * Writes the dictionary id of the given class. The dictionary itself gets
+     * written the first time a class is encountered.
+     */
+    private Dictionary writeDictionaryRef(Class<?> pojoClass) throws IOException {
+        Dictionary dict = dictionaries.get(pojoClass);
+        if (dict != null) {
+            VarInts.writeUnsignedVarInt(out, dict.id);
+            return dict;
+        }
+        if (!pojoClass.isAnnotationPresent(Entity.class)) {
+            throw new IllegalArgumentException("attempt to serialize non-Entity class: " + pojoClass.getName());
+        }
+        dict = new Dictionary(dictionaries.size(), PojoLayout.forClass(pojoClass).getReadableProperties());
+        dictionaries.put(pojoClass, dict);
+        VarInts.writeUnsignedVarInt(out, dict.id);
+        VarInts.writeUnsignedVarInt(out, dict.properties.length);
+        for (Property prop : dict.properties) {
+            writeLiteral(prop.name);
+            byte tag = prop.tag;
+            if (prop.nullable) {
+                tag |= PojoLayout.NULLABLE_FLAG;
+            }
+            out.writeByte(tag);
+        }
+        return dict;
+    }
+
+    private void writeProperties(Dictionary dict, Object pojo) throws IOException {
+        Property[] props = dict.properties;
+        for (int i = 0; i < props.length; i++) {
+            writeValue(dict, i, props[i].get(pojo));
+        }
+    }
+
+    private void writeValue(Dictionary dict, int index, Object value) throws IOException {
+        Property prop = dict.properties[index];
+        switch (prop.tag) {
+        case PojoLayout.TAG_BOOLEAN:
+            if (writePresence(prop, value)) {
+                out.writeBoolean((Boolean) value);
+            }
+            break;
+        case PojoLayout.TAG_INT:
+            if (writePresence(prop, value)) {
+                VarInts.writeSignedVarInt(out, (Integer) value);
+            }
+            break;
+        case PojoLayout.TAG_LONG:
+            if (writePresence(prop, value)) {
+                long longValue = (Long) value;
+                VarInts.writeSignedVarLong(out, longValue - dict.previousLongs[index]);
+                dict.previousLongs[index] = longValue;
+            }
+            break;
+        case PojoLayout.TAG_DOUBLE:
+            if (writePresence(prop, value)) {
+                out.writeDouble((Double) value);
+            }
+            break;
+        case PojoLayout.TAG_STRING:
+            writeString((String) value);
+            break;
+        case PojoLayout.TAG_INT_ARRAY:
+            writeIntArray((int[]) value);
+            break;
+        case PojoLayout.TAG_LONG_ARRAY:
+            writeLongArray((long[]) value);
+            break;
+        case PojoLayout.TAG_DOUBLE_ARRAY:
+            writeDoubleArray((double[]) value);
+            break;
+        case PojoLayout.TAG_STRING_ARRAY:
+            writeStringArray((String[]) value);
+            break;
+        case PojoLayout.TAG_POJO:
+            if (writePresence(prop, value)) {
+                Dictionary memberDict = writeDictionaryRef(prop.pojoClass);
+                writeProperties(memberDict, value);
+            }
+            break;
+        case PojoLayout.TAG_POJO_ARRAY:
+            writePojoArray(prop.pojoClass, (Object[]) value);
+            break;
+        case PojoLayout.TAG_JSON:
+            writeLiteral(value == null ? null : gson.toJson(value, prop.genericType));
+            break;
+        default:
+            throw new IllegalStateException("Unknown tag: " + prop.tag);
+        }
+    }
+
+    /*
+     * Writes whether or not a nullable value is present.
+     * 
+     * @return true if the value needs to be written.
+     */
+    private boolean writePresence(Property prop, Object value) throws IOException {
+        if (!prop.nullable) {
+            return true;
+        }
+        out.writeBoolean(value != null);
+        return value != null;
+    }
+
+    // Arrays are prefixed with length + 1. 0 denotes null.
+    private boolean writeArrayLength(Object array, int length) throws IOException {
+        if (array == null) {
+            VarInts.writeUnsignedVarInt(out, 0);
+            return false;
+        }
+        VarInts.writeUnsignedVarInt(out, length + 1);
+        return true;
+    }
+
+    private void writeIntArray(int[] values) throws IOException {
+        if (writeArrayLength(values, values == null ? 0 : values.length)) {
+            for (int value : values) {
+                VarInts.writeSignedVarInt(out, value);
+            }
+        }
+    }
+
+    private void writeLongArray(long[] values) throws IOException {
+        if (writeArrayLength(values, values == null ? 0 : values.length)) {
+            long previous = 0;
+            for (long value : values) {
+                VarInts.writeSignedVarLong(out, value - previous);
+                previous = value;
+            }
+        }
+    }
+
+    private void writeDoubleArray(double[] values) throws IOException {
+        if (writeArrayLength(values, values == null ? 0 : values.length)) {
+            for (double value : values) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    private void writeStringArray(String[] values) throws IOException {
+        if (writeArrayLength(values, values == null ? 0 : values.length)) {
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+    }
+
+    private void writePojoArray(Class<?> componentType, Object[] values) throws IOException {
+        if (writeArrayLength(values, values == null ? 0 : values.length) && values.length > 0) {
+            Dictionary dict = writeDictionaryRef(componentType);
+            for (Object value : values) {
+                out.writeBoolean(value != null);
+                if (value != null) {
+                    writeProperties(dict, value);
+                }
+            }
+        }
+    }
+
+    /*
+     * 0 denotes null, 1 a new string which follows as a literal and n > 1 the
+     * string with index n - 2 in the table of previously written strings.
+     */
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            VarInts.writeUnsignedVarInt(out, 0);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            VarInts.writeUnsignedVarInt(out, index + 2);
+            return;
+        }
+        VarInts.writeUnsignedVarInt(out, 1);
+        writeLiteral(value);
+        if (strings.size() < BinaryQueryResponse.MAX_STRING_TABLE_SIZE) {
+            strings.put(value, strings.size());
+        }
+    }
+
+    // UTF-8 bytes prefixed with length + 1. 0 denotes null.
+    private void writeLiteral(String value) throws IOException {
+        if (value == null) {
+            VarInts.writeUnsignedVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        VarInts.writeUnsignedVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.web.common.binary;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.beanutils.PropertyUtils;
+
+import com.redhat.thermostat.storage.core.Persist;
+import com.redhat.thermostat.storage.model.Pojo;
+
+/**
+ * The persisted properties of a {@link Pojo} class along with their type
+ * tags. Layouts are computed once per class.
+ */
+final class PojoLayout {
+
+    // Property type tags used in dictionaries
+    static final byte TAG_BOOLEAN = 1;
+    static final byte TAG_INT = 2;
+    static final byte TAG_LONG = 3;
+    static final byte TAG_DOUBLE = 4;
+    static final byte TAG_STRING = 5;
+    static final byte TAG_INT_ARRAY = 6;
+    static final byte TAG_LONG_ARRAY = 7;
+    static final byte TAG_DOUBLE_ARRAY = 8;
+    static final byte TAG_STRING_ARRAY = 9;
+    static final byte TAG_POJO = 10;
+    static final byte TAG_POJO_ARRAY = 11;
+    // Any other type. Encoded as a JSON string.
+    static final byte TAG_JSON = 12;
+    // Or'ed to the tag if the property value may be null
+    static final byte NULLABLE_FLAG = (byte) 0x80;
+
+    private static final ClassValue<PojoLayout> LAYOUTS = new ClassValue<PojoLayout>() {
+        @Override
+        protected PojoLayout computeValue(Class<?> type) {
+            return new PojoLayout(type);
+        }
+    };
+
+    static final class Property {
+
+        final String name;
+        final byte tag;
+        final boolean nullable;
+        final Class<?> rawType;
+        final Type genericType;
+        // The Pojo class for TAG_POJO and TAG_POJO_ARRAY. null otherwise.
+        final Class<?> pojoClass;
+        final Method getter;
+        final Method setter;
+
+        private Property(PropertyDescriptor desc, Method getter, Method setter) {
+            this.name = desc.getName();
+            this.rawType = desc.getPropertyType();
+            this.genericType = getter != null ? getter.getGenericReturnType() : setter.getGenericParameterTypes()[0];
+            this.tag = tagFor(rawType);
+            this.nullable = !rawType.isPrimitive();
+            if (tag == TAG_POJO) {
+                pojoClass = rawType;
+            } else if (tag == TAG_POJO_ARRAY) {
+                pojoClass = rawType.getComponentType();
+            } else {
+                pojoClass = null;
+            }
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        Object get(Object pojo) {
+            try {
+                return getter.invoke(pojo);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void set(Object pojo, Object value) {
+            try {
+                setter.invoke(pojo, value);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private final Property[] readable;
+    private final Map<String, Property> writable;
+
+    private PojoLayout(Class<?> type) {
+        List<Property> readableProps = new ArrayList<>();
+        Map<String, Property> writableProps = new HashMap<>();
+        for (PropertyDescriptor desc : PropertyUtils.getPropertyDescriptors(type)) {
+            Method getter = desc.getReadMethod();
+            Method setter = desc.getWriteMethod();
+            if (getter != null && !getter.isAnnotationPresent(Persist.class)) {
+                getter = null;
+            }
+            if (setter != null && !setter.isAnnotationPresent(Persist.class)) {
+                setter = null;
+            }
+            if (getter == null && setter == null) {
+                continue;
+            }
+            Property prop = new Property(desc, getter, setter);
+            if (getter != null) {
+                readableProps.add(prop);
+            }
+            if (setter != null) {
+                writableProps.put(prop.name, prop);
+            }
+        }
+        this.readable = readableProps.toArray(new Property[readableProps.size()]);
+        this.writable = Collections.unmodifiableMap(writableProps);
+    }
+
+    static PojoLayout forClass(Class<?> type) {
+        return LAYOUTS.get(type);
+    }
+
+    /**
+     * 
+     * @return Properties with a persisted getter, in a stable order.
+     */
+    Property[] getReadableProperties() {
+        return readable;
+    }
+
+    /**
+     * 
+     * @return The property with a persisted setter and the given name or
+     *         {@code null} if there is no such property.
+     */
+    Property getWritableProperty(String name) {
+        return writable.get(name);
+    }
+
+    static byte tagFor(Class<?> type) {
+        if (type == boolean.class || type == Boolean.class) {
+            return TAG_BOOLEAN;
+        } else if (type == int.class || type == Integer.class) {
+            return TAG_INT;
+        } else if (type == long.class || type == Long.class) {
+            return TAG_LONG;
+        } else if (type == double.class || type == Double.class) {
+            return TAG_DOUBLE;
+        } else if (type == String.class) {
+            return TAG_STRING;
+        } else if (type == int[].class) {
+            return TAG_INT_ARRAY;
+        } else if (type == long[].class) {
+            return TAG_LONG_ARRAY;
+        } else if (type == double[].class) {
+            return TAG_DOUBLE_ARRAY;
+        } else if (type == String[].class) {
+            return TAG_STRING_ARRAY;
+        } else if (Pojo.class.isAssignableFrom(type)) {
+            return TAG_POJO;
+        } else if (type.isArray() && Pojo.class.isAssignableFrom(type.getComponentType())) {
+            return TAG_POJO_ARRAY;
+        }
+        return TAG_JSON;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.web.common.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.redhat.thermostat.storage.model.Pojo;
+import com.redhat.thermostat.testutils.PerformanceTest;
+import com.redhat.thermostat.web.common.PreparedStatementResponseCode;
+import com.redhat.thermostat.web.common.WebQueryResponse;
+import com.redhat.thermostat.web.common.typeadapters.PojoTypeAdapterFactory;
+import com.redhat.thermostat.web.common.typeadapters.WebQueryResponseTypeAdapterFactory;
+
+/**
+ * Compares the binary encoding of query responses with the JSON encoding.
+ * 
+ * JUnit categorized performance test. It'll be only run for
+ * the perf-tests profile during a full build.
+ */
+@Category(PerformanceTest.class)
+public class BinaryQueryResponsePerformanceTest {
+
+    private static final boolean DEBUG = true;
+    private static final int RESULTS_PER_RESPONSE = 1000;
+    private static final int WARM_UP_ITERATIONS = 50;
+    private static final int ITERATIONS = 200;
+
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapterFactory(new PojoTypeAdapterFactory())
+            .registerTypeAdapterFactory(new WebQueryResponseTypeAdapterFactory())
+            .create();
+
+    @Test
+    public void compareMemoryStatResponses() throws IOException {
+        TestMemoryStat[] stats = new TestMemoryStat[RESULTS_PER_RESPONSE];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = TestMemoryStat.create(i);
+        }
+        compare("TestMemoryStat", TestMemoryStat.class, stats);
+    }
+
+    @Test
+    public void compareThreadStateResponses() throws IOException {
+        TestThreadState[] states = new TestThreadState[RESULTS_PER_RESPONSE];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = TestThreadState.create(i);
+        }
+        compare("TestThreadState", TestThreadState.class, states);
+    }
+
+    private <T extends Pojo> void compare(String name, Class<T> type, T[] results) throws IOException {
+        WebQueryResponse<T> response = new WebQueryResponse<>();
+        response.setResponseCode(PreparedStatementResponseCode.QUERY_SUCCESS);
+        response.setResultList(results);
+        Type responseType = response.getRuntimeParametrizedType(type);
+
+        byte[] json = writeJson(response);
+        byte[] binary = writeBinary(response, type);
+        assertEquals(results.length, readJson(json, responseType).getResultList().length);
+        assertEquals(results.length, readBinary(binary, type).getResultList().length);
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            readJson(writeJson(response), responseType);
+            readBinary(writeBinary(response, type), type);
+        }
+
+        long jsonWrite = 0, jsonRead = 0, binaryWrite = 0, binaryRead = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            json = writeJson(response);
+            jsonWrite += System.nanoTime() - start;
+            start = System.nanoTime();
+            readJson(json, responseType);
+            jsonRead += System.nanoTime() - start;
+            start = System.nanoTime();
+            binary = writeBinary(response, type);
+            binaryWrite += System.nanoTime() - start;
+            start = System.nanoTime();
+            readBinary(binary, type);
+            binaryRead += System.nanoTime() - start;
+        }
+        if (DEBUG) {
+            System.out.println(String.format("%s: %d results, JSON %d bytes, binary %d bytes",
+                    name, results.length, json.length, binary.length));
+            System.out.println(String.format("%s: avg. write JSON %.3fms, binary %.3fms",
+                    name, millis(jsonWrite), millis(binaryWrite)));
+            System.out.println(String.format("%s: avg. read JSON %.3fms, binary %.3fms",
+                    name, millis(jsonRead), millis(binaryRead)));
+        }
+        assertTrue(binary.length < json.length);
+        assertTrue(binaryWrite < jsonWrite);
+        assertTrue(binaryRead < jsonRead);
+    }
+
+    private static double millis(long totalNanos) {
+        return totalNanos / (double) ITERATIONS / 1_000_000;
+    }
+
+    private <T extends Pojo> byte[] writeJson(WebQueryResponse<T> response) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(bout, StandardCharsets.UTF_8)) {
+            gson.toJson(response, WebQueryResponse.class, writer);
+        }
+        return bout.toByteArray();
+    }
+
+    private <T extends Pojo> WebQueryResponse<T> readJson(byte[] json, Type responseType) throws IOException {
+        try (InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, responseType);
+        }
+    }
+
+    private <T extends Pojo> byte[] writeBinary(WebQueryResponse<T> response, Class<T> type) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new BinaryQueryResponseWriter<>(bout, type, gson).write(response);
+        return bout.toByteArray();
+    }
+
+    private <T extends Pojo> WebQueryResponse<T> readBinary(byte[] binary, Class<T> type) throws IOException {
+        return new BinaryQueryResponseReader<>(new ByteArrayInputStream(binary), type, gson).read();
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.web.common.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.redhat.thermostat.storage.core.Entity;
+import com.redhat.thermostat.storage.core.Persist;
+import com.redhat.thermostat.storage.model.Pojo;
+import com.redhat.thermostat.web.common.PreparedStatementResponseCode;
+import com.redhat.thermostat.web.common.WebQueryResponse;
+
+public class BinaryQueryResponseTest {
+
+    private Gson gson;
+
+    @Before
+    public void setup() {
+        gson = new Gson();
+    }
+
+    @Test
+    public void canRoundTripNestedPojos() throws IOException {
+        TestMemoryStat[] stats = new TestMemoryStat[50];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = TestMemoryStat.create(i);
+        }
+        WebQueryResponse<TestMemoryStat> response = new WebQueryResponse<>();
+        response.setResponseCode(PreparedStatementResponseCode.QUERY_SUCCESS);
+        response.setCursorId(3);
+        response.setHasMoreBatches(true);
+        response.setResultList(stats);
+
+        WebQueryResponse<TestMemoryStat> actual = roundTrip(response, TestMemoryStat.class);
+
+        assertEquals(PreparedStatementResponseCode.QUERY_SUCCESS, actual.getResponseCode());
+        assertEquals(3, actual.getCursorId());
+        assertTrue(actual.hasMoreBatches());
+        TestMemoryStat[] actualStats = actual.getResultList();
+        assertEquals(stats.length, actualStats.length);
+        for (int i = 0; i < stats.length; i++) {
+            TestMemoryStat expected = stats[i];
+            TestMemoryStat stat = actualStats[i];
+            assertEquals(expected.getAgentId(), stat.getAgentId());
+            assertEquals(expected.getVmId(), stat.getVmId());
+            assertEquals(expected.getTimeStamp(), stat.getTimeStamp());
+            assertEquals(expected.getMetaspaceUsed(), stat.getMetaspaceUsed());
+            assertEquals(expected.getGenerations().length, stat.getGenerations().length);
+            for (int j = 0; j < expected.getGenerations().length; j++) {
+                TestMemoryStat.Generation expectedGen = expected.getGenerations()[j];
+                TestMemoryStat.Generation gen = stat.getGenerations()[j];
+                assertEquals(expectedGen.getName(), gen.getName());
+                assertEquals(expectedGen.getCollector(), gen.getCollector());
+                assertEquals(expectedGen.getCapacity(), gen.getCapacity());
+                assertEquals(expectedGen.getMaxCapacity(), gen.getMaxCapacity());
+                TestMemoryStat.Space expectedSpace = expectedGen.getSpaces()[1];
+                TestMemoryStat.Space space = gen.getSpaces()[1];
+                assertEquals(expectedSpace.getIndex(), space.getIndex());
+                assertEquals(expectedSpace.getName(), space.getName());
+                assertEquals(expectedSpace.getUsed(), space.getUsed());
+            }
+        }
+    }
+
+    @Test
+    public void canRoundTripNullsAndArrays() throws IOException {
+        ArrayPojo pojo = new ArrayPojo();
+        pojo.setLongs(new long[] { Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE });
+        pojo.setDoubles(new double[] { -0.5, Double.NaN, 3.25 });
+        pojo.setInts(new int[] { Integer.MIN_VALUE, 0, Integer.MAX_VALUE });
+        pojo.setStrings(new String[] { "a", null, "a", "äöü" });
+        pojo.setBooleans(new boolean[] { true, false });
+        pojo.setBoxedLong(null);
+        ArrayPojo empty = new ArrayPojo();
+        empty.setBoxedLong(-5L);
+
+        WebQueryResponse<ArrayPojo> actual = roundTrip(createResponse(ArrayPojo.class, pojo, empty), ArrayPojo.class);
+
+        ArrayPojo[] results = actual.getResultList();
+        assertEquals(2, results.length);
+        assertArrayEquals(pojo.getLongs(), results[0].getLongs());
+        assertArrayEquals(pojo.getDoubles(), results[0].getDoubles(), 0);
+        assertArrayEquals(pojo.getInts(), results[0].getInts());
+        assertArrayEquals(pojo.getStrings(), results[0].getStrings());
+        // booleans use the JSON fallback
+        assertTrue(results[0].getBooleans()[0]);
+        assertFalse(results[0].getBooleans()[1]);
+        assertNull(results[0].getBoxedLong());
+        assertNull(results[1].getLongs());
+        assertNull(results[1].getStrings());
+        assertNull(results[1].getBooleans());
+        assertEquals(Long.valueOf(-5), results[1].getBoxedLong());
+    }
+
+    @Test
+    public void readerSkipsUnknownProperties() throws IOException {
+        TestThreadState state1 = TestThreadState.create(1);
+        TestThreadState state2 = TestThreadState.create(2);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        BinaryQueryResponseWriter<TestThreadState> writer = new BinaryQueryResponseWriter<>(bout, TestThreadState.class, gson);
+        writer.write(createResponse(TestThreadState.class, state1, state2));
+
+        BinaryQueryResponseReader<PartialThreadState> reader = new BinaryQueryResponseReader<>(new ByteArrayInputStream(bout.toByteArray()), PartialThreadState.class, gson);
+        PartialThreadState[] results = reader.read().getResultList();
+        assertEquals(2, results.length);
+        assertEquals(state1.getName(), results[0].getName());
+        assertEquals(state1.getTimeStamp(), results[0].getTimeStamp());
+        assertEquals(state2.getName(), results[1].getName());
+        assertEquals(state2.getTimeStamp(), results[1].getTimeStamp());
+    }
+
+    @Test
+    public void canReadIncrementally() throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        BinaryQueryResponseWriter<TestThreadState> writer = new BinaryQueryResponseWriter<>(bout, TestThreadState.class, gson);
+        writer.writeHeader(PreparedStatementResponseCode.QUERY_SUCCESS);
+        writer.writeResult(TestThreadState.create(1));
+        writer.finish(-1, false);
+
+        BinaryQueryResponseReader<TestThreadState> reader = new BinaryQueryResponseReader<>(new ByteArrayInputStream(bout.toByteArray()), TestThreadState.class, gson);
+        assertEquals(PreparedStatementResponseCode.QUERY_SUCCESS, reader.readHeader());
+        try {
+            reader.getCursorId();
+            fail("cursor id is only known at the end");
+        } catch (IllegalStateException e) {
+            // pass
+        }
+        assertEquals("worker-1", reader.readNext().getName());
+        assertNull(reader.readNext());
+        assertNull(reader.readNext());
+        assertEquals(-1, reader.getCursorId());
+        assertFalse(reader.hasMoreBatches());
+    }
+
+    @Test
+    public void repeatedValuesAreSentOnce() throws IOException {
+        TestThreadState[] states = new TestThreadState[100];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = TestThreadState.create(i);
+        }
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        BinaryQueryResponseWriter<TestThreadState> writer = new BinaryQueryResponseWriter<>(bout, TestThreadState.class, gson);
+        writer.write(createResponse(TestThreadState.class, states));
+        String json = gson.toJson(states);
+        assertTrue(bout.size() * 4 < json.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonBinaryInput() throws IOException {
+        byte[] json = "{\"errno\":0}".getBytes("UTF-8");
+        new BinaryQueryResponseReader<>(new ByteArrayInputStream(json), TestThreadState.class, gson).read();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonEntityClasses() throws IOException {
+        BinaryQueryResponseWriter<NonEntityPojo> writer = new BinaryQueryResponseWriter<>(new ByteArrayOutputStream(), NonEntityPojo.class, gson);
+        writer.writeHeader(PreparedStatementResponseCode.QUERY_SUCCESS);
+        writer.writeResult(new NonEntityPojo());
+    }
+
+    @Test
+    public void contentTypeNegotiation() {
+        assertTrue(BinaryQueryResponse.acceptsBinary(BinaryQueryResponse.CONTENT_TYPE + ", application/json"));
+        assertFalse(BinaryQueryResponse.acceptsBinary("application/json"));
+        assertFalse(BinaryQueryResponse.acceptsBinary(null));
+        assertTrue(BinaryQueryResponse.isBinaryContentType(BinaryQueryResponse.CONTENT_TYPE));
+        assertFalse(BinaryQueryResponse.isBinaryContentType("application/json; charset=UTF-8"));
+        assertFalse(BinaryQueryResponse.isBinaryContentType(null));
+    }
+
+    @SafeVarargs
+    private static <T extends Pojo> WebQueryResponse<T> createResponse(Class<T> type, T... results) {
+        WebQueryResponse<T> response = new WebQueryResponse<>();
+        response.setResponseCode(PreparedStatementResponseCode.QUERY_SUCCESS);
+        response.setResultList(results);
+        return response;
+    }
+
+    private <T extends Pojo> WebQueryResponse<T> roundTrip(WebQueryResponse<T> response, Class<T> type) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        BinaryQueryResponseWriter<T> writer = new BinaryQueryResponseWriter<>(bout, type, gson);
+        writer.write(response);
+        BinaryQueryResponseReader<T> reader = new BinaryQueryResponseReader<>(new ByteArrayInputStream(bout.toByteArray()), type, gson);
+        return reader.read();
+    }
+
+    @Entity
+    public static class ArrayPojo implements Pojo {
+
+        private long[] longs;
+        private double[] doubles;
+        private int[] ints;
+        private String[] strings;
+        private boolean[] booleans;
+        private Long boxedLong;
+
+        @Persist
+        public long[] getLongs() {
+            return longs;
+        }
+
+        @Persist
+        public void setLongs(long[] longs) {
+            this.longs = longs;
+        }
+
+        @Persist
+        public double[] getDoubles() {
+            return doubles;
+        }
+
+        @Persist
+        public void setDoubles(double[] doubles) {
+            this.doubles = doubles;
+        }
+
+        @Persist
+        public int[] getInts() {
+            return ints;
+        }
+
+        @Persist
+        public void setInts(int[] ints) {
+            this.ints = ints;
+        }
+
+        @Persist
+        public String[] getStrings() {
+            return strings;
+        }
+
+        @Persist
+        public void setStrings(String[] strings) {
+            this.strings = strings;
+        }
+
+        @Persist
+        public boolean[] getBooleans() {
+            return booleans;
+        }
+
+        @Persist
+        public void setBooleans(boolean[] booleans) {
+            this.booleans = booleans;
+        }
+
+        @Persist
+        public Long getBoxedLong() {
+            return boxedLong;
+        }
+
+        @Persist
+        public void setBoxedLong(Long boxedLong) {
+            this.boxedLong = boxedLong;
+        }
+    }
+
+    @Entity
+    public static class PartialThreadState implements Pojo {
+
+        private String name;
+        private long timeStamp;
+        // Type differs from the type on the writing side
+        private String id;
+
+        @Persist
+        public String getName() {
+            return name;
+        }
+
+        @Persist
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @Persist
+        public long getTimeStamp() {
+            return timeStamp;
+        }
+
+        @Persist
+        public void setTimeStamp(long timeStamp) {
+            this.timeStamp = timeStamp;
+        }
+
+        @Persist
+        public String getId() {
+            return id;
+        }
+
+        @Persist
+        public void setId(String id) {
+            this.id = id;
+        }
+    }
+
+    public static class NonEntityPojo implements Pojo {
+
+        private int value;
+
+        @Persist
+        public int getValue() {
+            return value;
+        }
+
+        @Persist
+        public void setValue(int value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.web.common.binary;
+
+import com.redhat.thermostat.storage.core.Entity;
+import com.redhat.thermostat.storage.core.Persist;
+import com.redhat.thermostat.storage.model.BasePojo;
+import com.redhat.thermostat.storage.model.Pojo;
+
+/**
+ * Has the shape of VmMemoryStat, which lives in a plug-in.
+ */
+@Entity
+public class TestMemoryStat extends BasePojo {
+
+    @Entity
+    public static class Generation implements Pojo {
+
+        private String name;
+        private long capacity;
+        private long maxCapacity;
+        private Space[] spaces;
+        private String collector;
+
+        @Persist
+        public String getName() {
+            return name;
+        }
+
+        @Persist
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @Persist
+        public long getCapacity() {
+            return capacity;
+        }
+
+        @Persist
+        public void setCapacity(long capacity) {
+            this.capacity = capacity;
+        }
+
+        @Persist
+        public long getMaxCapacity() {
+            return maxCapacity;
+        }
+
+        @Persist
+        public void setMaxCapacity(long maxCapacity) {
+            this.maxCapacity = maxCapacity;
+        }
+
+        @Persist
+        public Space[] getSpaces() {
+            return spaces;
+        }
+
+        @Persist
+        public void setSpaces(Space[] spaces) {
+            this.spaces = spaces;
+        }
+
+        @Persist
+        public String getCollector() {
+            return collector;
+        }
+
+        @Persist
+        public void setCollector(String collector) {
+            this.collector = collector;
+        }
+    }
+
+    @Entity
+    public static class Space implements Pojo {
+
+        private int index;
+        private String name;
+        private long capacity;
+        private long maxCapacity;
+        private long used;
+
+        @Persist
+        public int getIndex() {
+            return index;
+        }
+
+        @Persist
+        public void setIndex(int index) {
+            this.index = index;
+        }
+
+        @Persist
+        public String getName() {
+            return name;
+        }
+
+        @Persist
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @Persist
+        public long getCapacity() {
+            return capacity;
+        }
+
+        @Persist
+        public void setCapacity(long capacity) {
+            this.capacity = capacity;
+        }
+
+        @Persist
+        public long getMaxCapacity() {
+            return maxCapacity;
+        }
+
+        @Persist
+        public void setMaxCapacity(long maxCapacity) {
+            this.maxCapacity = maxCapacity;
+        }
+
+        @Persist
+        public long getUsed() {
+            return used;
+        }
+
+        @Persist
+        public void setUsed(long used) {
+            this.used = used;
+        }
+    }
+
+    private String vmId;
+    private long timeStamp;
+    private Generation[] generations;
+    private long metaspaceUsed;
+
+    public TestMemoryStat() {
+        super(null);
+    }
+
+    @Persist
+    public String getVmId() {
+        return vmId;
+    }
+
+    @Persist
+    public void setVmId(String vmId) {
+        this.vmId = vmId;
+    }
+
+    @Persist
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    @Persist
+    public void setTimeStamp(long timeStamp) {
+        this.timeStamp = timeStamp;
+    }
+
+    @Persist
+    public Generation[] getGenerations() {
+        return generations;
+    }
+
+    @Persist
+    public void setGenerations(Generation[] generations) {
+        this.generations = generations;
+    }
+
+    @Persist
+    public long getMetaspaceUsed() {
+        return metaspaceUsed;
+    }
+
+    @Persist
+    public void setMetaspaceUsed(long metaspaceUsed) {
+        this.metaspaceUsed = metaspaceUsed;
+    }
+
+    static TestMemoryStat create(int mutator) {
+        TestMemoryStat stat = new TestMemoryStat();
+        stat.setAgentId("agent-" + (mutator % 3));
+        stat.setVmId("vm-" + (mutator % 7));
+        stat.setTimeStamp(1_400_000_000_000L + mutator * 1000L);
+        stat.setMetaspaceUsed(20_000_000L + mutator);
+        String[] genNames = { "new", "old" };
+        Generation[] gens = new Generation[genNames.length];
+        for (int i = 0; i < gens.length; i++) {
+            Generation gen = new Generation();
+            gen.setName(genNames[i]);
+            gen.setCollector("G1");
+            gen.setCapacity(64_000_000L * (i + 1));
+            gen.setMaxCapacity(512_000_000L * (i + 1));
+            Space[] spaces = new Space[2];
+            for (int j = 0; j < spaces.length; j++) {
+                Space space = new Space();
+                space.setIndex(j);
+                space.setName(genNames[i] + "-space-" + j);
+                space.setCapacity(32_000_000L);
+                space.setMaxCapacity(256_000_000L);
+                space.setUsed(1_000_000L + mutator * 100L + j);
+                spaces[j] = space;
+            }
+            gen.setSpaces(spaces);
+            gens[i] = gen;
+        }
+        stat.setGenerations(gens);
+        return stat;
+    }
+}
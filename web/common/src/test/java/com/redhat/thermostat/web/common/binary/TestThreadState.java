@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012-2017 Red Hat, Inc.
+ *
+ * This file is part of Thermostat.
+ *
+ * Thermostat is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your
+ * option) any later version.
+ *
+ * Thermostat is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Thermostat; see the file COPYING.  If not see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Linking this code with other modules is making a combined work
+ * based on this code.  Thus, the terms and conditions of the GNU
+ * General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this code give
+ * you permission to link this code with independent modules to
+ * produce an executable, regardless of the license terms of these
+ * independent modules, and to copy and distribute the resulting
+ * executable under terms of your choice, provided that you also
+ * meet, for each linked independent module, the terms and conditions
+ * of the license of that module.  An independent module is a module
+ * which is not derived from or based on this code.  If you modify
+ * this code, you may extend this exception to your version of the
+ * library, but you are not obligated to do so.  If you do not wish
+ * to do so, delete this exception statement from your version.
+ */
+
+
+package com.redhat.thermostat.web.common.binary;
+
+import com.redhat.thermostat.storage.core.Entity;
+import com.redhat.thermostat.storage.core.Persist;
+import com.redhat.thermostat.storage.model.BasePojo;
+
+/**
+ * Has the shape of ThreadState, which lives in a plug-in.
+ */
+@Entity
+public class TestThreadState extends BasePojo {
+
+    private String name;
+    private String vmId;
+    private long timeStamp;
+    private String state;
+    private String session;
+    private long id;
+    private String stackTrace;
+    private long blockedCount;
+    private long blockedTime;
+    private long waitedCount;
+    private long waitedTime;
+
+    public TestThreadState() {
+        super(null);
+    }
+
+    @Persist
+    public String getName() {
+        return name;
+    }
+
+    @Persist
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Persist
+    public String getVmId() {
+        return vmId;
+    }
+
+    @Persist
+    public void setVmId(String vmId) {
+        this.vmId = vmId;
+    }
+
+    @Persist
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    @Persist
+    public void setTimeStamp(long timeStamp) {
+        this.timeStamp = timeStamp;
+    }
+
+    @Persist
+    public String getState() {
+        return state;
+    }
+
+    @Persist
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    @Persist
+    public String getSession() {
+        return session;
+    }
+
+    @Persist
+    public void setSession(String session) {
+        this.session = session;
+    }
+
+    @Persist
+    public long getId() {
+        return id;
+    }
+
+    @Persist
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    @Persist
+    public String getStackTrace() {
+        return stackTrace;
+    }
+
+    @Persist
+    public void setStackTrace(String stackTrace) {
+        this.stackTrace = stackTrace;
+    }
+
+    @Persist
+    public long getBlockedCount() {
+        return blockedCount;
+    }
+
+    @Persist
+    public void setBlockedCount(long blockedCount) {
+        this.blockedCount = blockedCount;
+    }
+
+    @Persist
+    public long getBlockedTime() {
+        return blockedTime;
+    }
+
+    @Persist
+    public void setBlockedTime(long blockedTime) {
+        this.blockedTime = blockedTime;
+    }
+
+    @Persist
+    public long getWaitedCount() {
+        return waitedCount;
+    }
+
+    @Persist
+    public void setWaitedCount(long waitedCount) {
+        this.waitedCount = waitedCount;
+    }
+
+    @Persist
+    public long getWaitedTime() {
+        return waitedTime;
+    }
+
+    @Persist
+    public void setWaitedTime(long waitedTime) {
+        this.waitedTime = waitedTime;
+    }
+
+    static TestThreadState create(int mutator) {
+        String[] states = { "RUNNABLE", "WAITING", "TIMED_WAITING", "BLOCKED" };
+        TestThreadState state = new TestThreadState();
+        state.setAgentId("agent-1");
+        state.setVmId("vm-1");
+        state.setSession("session-" + (mutator / 100));
+        state.setId(mutator % 40);
+        state.setName("worker-" + (mutator % 40));
+        state.setState(states[mutator % states.length]);
+        state.setTimeStamp(1_400_000_000_000L + mutator * 250L);
+        state.setStackTrace("{\"frames\":[\"java.lang.Thread.run(Thread.java:745)\"]}");
+        state.setBlockedCount(mutator / 10);
+        state.setBlockedTime(mutator * 3L);
+        state.setWaitedCount(mutator / 5);
+        state.setWaitedTime(mutator * 7L);
+        return state;
+    }
+}
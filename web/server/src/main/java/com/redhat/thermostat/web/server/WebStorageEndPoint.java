@@ -79,6 +79,7 @@ import com.redhat.thermostat.storage.core.BasicBatchCursor;
 import com.redhat.thermostat.storage.core.Categories;
 import com.redhat.thermostat.storage.core.Category;
 import com.redhat.thermostat.storage.core.CategoryAdapter;
+import com.redhat.thermostat.storage.core.ChunkedFiles;
 import com.redhat.thermostat.storage.core.CloseOnSave;
 import com.redhat.thermostat.storage.core.Connection;
 import com.redhat.thermostat.storage.core.Cursor;
@@ -105,6 +106,8 @@ import com.redhat.thermostat.web.common.SharedStateId;
 import com.redhat.thermostat.web.common.WebPreparedStatement;
 import com.redhat.thermostat.web.common.WebPreparedStatementResponse;
 import com.redhat.thermostat.web.common.WebQueryResponse;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponse;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponseWriter;
 import com.redhat.thermostat.web.common.typeadapters.PojoTypeAdapterFactory;
 import com.redhat.thermostat.web.common.typeadapters.PreparedParameterTypeAdapterFactory;
 import com.redhat.thermostat.web.common.typeadapters.PreparedParametersTypeAdapterFactory;
@@ -292,12 +295,16 @@ public class WebStorageEndPoint extends HttpServlet {
             queryExecute(req, resp);
         } else if (cmd.equals("write-execute")) {
             writeExecute(req, resp);
+        } else if (cmd.equals("write-execute-batch")) {
+            writeExecuteBatch(req, resp);
         } else if (cmd.equals("register-category")) {
             registerCategory(req, resp);
         } else if (cmd.equals("save-file")) {
             saveFile(req, resp);
         } else if (cmd.equals("load-file")) {
             loadFile(req, resp);
+        } else if (cmd.equals("delete-file")) {
+            deleteFile(req, resp);
         } else if (cmd.equals("purge")) {
             purge(req, resp);
         } else if (cmd.equals("ping")) {
@@ -515,6 +522,23 @@ public class WebStorageEndPoint extends HttpServlet {
         }
     }
 
+    @WebStoragePathHandler( path = "delete-file" )
+    private void deleteFile(HttpServletRequest req, HttpServletResponse resp) {
+        // Deleting a file takes the same permissions as overwriting it
+        if (! isAuthorized(req, resp, Roles.SAVE_FILE)) {
+            return;
+        }
+        
+        String name = req.getParameter("file");
+        if (! isAllowedToSaveFile(req, resp, name)) {
+            return;
+        }
+        synchronized (storageLock) {
+            storage.deleteFile(name);
+        }
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+
     @WebStoragePathHandler( path = "save-file" )
     private void saveFile(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         if (! isAuthorized(req, resp, Roles.SAVE_FILE)) {
@@ -549,16 +573,20 @@ public class WebStorageEndPoint extends HttpServlet {
         
     }
 
+    /*
+     * Chunks of files saved via ChunkedFiles are covered by the grants of
+     * the file they belong to.
+     */
     private boolean isAllowedToLoadFile(HttpServletRequest req,
             HttpServletResponse resp, String filename) {
-        String fileRole = FILES_READ_GRANT_ROLE_PREFIX + filename;
+        String fileRole = FILES_READ_GRANT_ROLE_PREFIX + ChunkedFiles.getChunkedFileName(filename);
         return isAllowed(req, resp, filename, Roles.GRANT_FILES_READ_ALL, fileRole);
         
     }
 
     private boolean isAllowedToSaveFile(HttpServletRequest req,
             HttpServletResponse resp, String filename) {
-        String fileRole = FILES_WRITE_GRANT_ROLE_PREFIX + filename;
+        String fileRole = FILES_WRITE_GRANT_ROLE_PREFIX + ChunkedFiles.getChunkedFileName(filename);
         return isAllowed(req, resp, filename, Roles.GRANT_FILES_WRITE_ALL, fileRole);
     }
 
@@ -653,6 +681,10 @@ public class WebStorageEndPoint extends HttpServlet {
      * Handler for query executions (except for getting more results). See
      * {@link #getMore(HttpServletRequest, HttpServletResponse)}.
      * 
+     * Clients accepting the binary encoding may set the "stream-results"
+     * parameter to "true". All results are then returned in one streamed
+     * response and no cursor is kept for subsequent get-more requests.
+     * 
      * @param req
      * @param resp
      * @throws IOException
@@ -702,9 +734,43 @@ public class WebStorageEndPoint extends HttpServlet {
         UserPrincipal userPrincipal = getUserPrincipal(req);
         targetQuery = getQueryForPrincipal(userPrincipal, targetQuery, desc);
         Cursor<T> cursor = targetQuery.execute();
+        // The session has to exist before any of the body is written: once
+        // the response is committed the container can no longer set the
+        // session cookie, and get-more requests would not find the cursor.
+        CursorManager cursorManager = getCursorManager(req);
         List<T> resultsList = null;
-        resultsList = getBatchFromCursor(cursor, DEFAULT_QUERY_BATCH_SIZE);
-        assert(resultsList.size() <= DEFAULT_QUERY_BATCH_SIZE);
+        BinaryQueryResponseWriter<T> binaryWriter = null;
+        if (acceptsBinaryQueryResponse(req)) {
+            // Write results as they are read from the cursor
+            binaryWriter = startBinaryQueryResponse(resp, targetStmtHolder.getDataClass(), response.getResponseCode());
+            if (Boolean.parseBoolean(req.getParameter("stream-results"))) {
+                // The client reads results as they arrive. Thus, there is
+                // no need for get-more requests and the cursor does not
+                // have to be kept in the session.
+                int count = streamFromCursor(resp, binaryWriter, cursor);
+                logger.log(Level.FINEST, "Streamed " + count + " results for user '" + req.getRemoteUser() +
+                                         "'. Statement: " + desc);
+                finishBinaryQueryResponse(resp, binaryWriter, CursorManager.CURSOR_NOT_STORED, false);
+                return;
+            }
+            writeBatchFromCursor(binaryWriter, cursor, DEFAULT_QUERY_BATCH_SIZE);
+        } else {
+            resultsList = getBatchFromCursor(cursor, DEFAULT_QUERY_BATCH_SIZE);
+            assert(resultsList.size() <= DEFAULT_QUERY_BATCH_SIZE);
+        }
+        // Only record cursor if there are more results to return than the
+        // first batch size.
+        int cursorId = cursorManager.put(cursor);
+        if (binaryWriter != null) {
+            finishBinaryQueryResponse(resp, binaryWriter, cursorId, cursor.hasNext());
+            return;
+        }
+        response.setCursorId(cursorId);
+        response.setHasMoreBatches(cursor.hasNext());
+        writeQueryResponse(resp, response, resultsList, targetStmtHolder);
+    }
+    
+    private CursorManager getCursorManager(HttpServletRequest req) {
         CursorManager cursorManager = null;
         HttpSession userSession = req.getSession();
         synchronized(userSession) {
@@ -718,12 +784,7 @@ public class WebStorageEndPoint extends HttpServlet {
                 userSession.setAttribute(CURSOR_MANAGER_KEY, cursorManager);
             }
         }
-        // Only record cursor if there are more results to return than the
-        // first batch size.
-        int cursorId = cursorManager.put(cursor);
-        response.setCursorId(cursorId);
-        response.setHasMoreBatches(cursor.hasNext());
-        writeQueryResponse(resp, response, resultsList, targetStmtHolder);
+        return cursorManager;
     }
     
     // package-private for testing
@@ -760,6 +821,23 @@ public class WebStorageEndPoint extends HttpServlet {
         writeResponse(resp, response, WebQueryResponse.class);
     }
     
+    private boolean acceptsBinaryQueryResponse(HttpServletRequest req) {
+        return BinaryQueryResponse.acceptsBinary(req.getHeader("Accept"));
+    }
+    
+    private <T extends Pojo> BinaryQueryResponseWriter<T> startBinaryQueryResponse(HttpServletResponse resp, Class<T> dataClass, int responseCode) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType(BinaryQueryResponse.CONTENT_TYPE);
+        BinaryQueryResponseWriter<T> writer = new BinaryQueryResponseWriter<>(resp.getOutputStream(), dataClass, gson);
+        writer.writeHeader(responseCode);
+        return writer;
+    }
+    
+    private <T extends Pojo> void finishBinaryQueryResponse(HttpServletResponse resp, BinaryQueryResponseWriter<T> writer, int cursorId, boolean hasMoreBatches) throws IOException {
+        writer.finish(cursorId, hasMoreBatches);
+        resp.flushBuffer();
+    }
+    
     /**
      * Handler for getting more results for a query. Queries return results
      * in batches. The first batch is returned via {@link #queryExecute(HttpServletRequest, HttpServletResponse)}. Subsequent results will get returned using
@@ -829,7 +907,16 @@ public class WebStorageEndPoint extends HttpServlet {
         // This will validate batchSize input
         batchCursor.setBatchSize(batchSize);
         
-        List<T> nextBatch = getBatchFromCursor(batchCursor, batchCursor.getBatchSize());
+        List<T> nextBatch = null;
+        BinaryQueryResponseWriter<T> binaryWriter = null;
+        int batchCount;
+        if (acceptsBinaryQueryResponse(req)) {
+            binaryWriter = startBinaryQueryResponse(resp, targetStmtHolder.getDataClass(), PreparedStatementResponseCode.QUERY_SUCCESS);
+            batchCount = writeBatchFromCursor(binaryWriter, batchCursor, batchCursor.getBatchSize());
+        } else {
+            nextBatch = getBatchFromCursor(batchCursor, batchCursor.getBatchSize());
+            batchCount = nextBatch.size();
+        }
         boolean stillMoreResults = batchCursor.hasNext();
         if (stillMoreResults) {
             // Refresh timestamp of a live cursor so that it won't expire.
@@ -838,8 +925,12 @@ public class WebStorageEndPoint extends HttpServlet {
             // no more results, remove cursor
             cursorManager.removeCursor(cursorId);
         }
-        logger.log(Level.FINEST, "Fetched more results (" + nextBatch.size() + ") for user '" + req.getRemoteUser() + "' cursorId " + cursorId +
+        logger.log(Level.FINEST, "Fetched more results (" + batchCount + ") for user '" + req.getRemoteUser() + "' cursorId " + cursorId +
                                  ". Statement: " + targetStmtHolder.getStatementDescriptor());
+        if (binaryWriter != null) {
+            finishBinaryQueryResponse(resp, binaryWriter, cursorId, stillMoreResults);
+            return;
+        }
         WebQueryResponse<T> response = new WebQueryResponse<>();
         response.setResponseCode(PreparedStatementResponseCode.QUERY_SUCCESS);
         response.setHasMoreBatches(stillMoreResults);
@@ -857,6 +948,32 @@ public class WebStorageEndPoint extends HttpServlet {
         return resultList;
     }
     
+    // Like getBatchFromCursor() but writes results as they are read.
+    // Returns the number of results written.
+    private <T extends Pojo> int writeBatchFromCursor(final BinaryQueryResponseWriter<T> writer, final Cursor<T> cursor, final int batchSize) throws IOException {
+        int count = 0;
+        for (; count < batchSize && cursor.hasNext(); count++) {
+            writer.writeResult(cursor.next());
+        }
+        return count;
+    }
+    
+    // Writes all results of the cursor. The response is flushed after every
+    // DEFAULT_QUERY_BATCH_SIZE results. The response is therefore sent using
+    // chunked transfer encoding and clients can process results while the
+    // remaining ones are still being read from storage.
+    private <T extends Pojo> int streamFromCursor(final HttpServletResponse resp, final BinaryQueryResponseWriter<T> writer, final Cursor<T> cursor) throws IOException {
+        int count = 0;
+        while (cursor.hasNext()) {
+            count += writeBatchFromCursor(writer, cursor, DEFAULT_QUERY_BATCH_SIZE);
+            if (cursor.hasNext()) {
+                writer.flush();
+                resp.flushBuffer();
+            }
+        }
+        return count;
+    }
+    
     @SuppressWarnings("unchecked")
     @WebStoragePathHandler( path = "write-execute" )
     private <T extends Pojo> void writeExecute(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -865,7 +982,45 @@ public class WebStorageEndPoint extends HttpServlet {
         }
         String queryParam = req.getParameter("prepared-stmt");
         WebPreparedStatement<T> stmt = gson.fromJson(queryParam, WebPreparedStatement.class);
-        
+        int response = executeWrite(stmt);
+        writeResponse(resp, response, int.class);
+    }
+    
+    /**
+     * Handler for executing several prepared writes with one request. The
+     * response is an array of response codes, one for each statement in the
+     * order they were sent. A failing statement does not prevent execution
+     * of the remaining statements.
+     * 
+     * @param req
+     * @param resp
+     * @throws IOException
+     */
+    @WebStoragePathHandler( path = "write-execute-batch" )
+    private void writeExecuteBatch(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (! isAuthorized(req, resp, Roles.WRITE)) {
+            return;
+        }
+        String stmtsParam = req.getParameter("prepared-stmts");
+        WebPreparedStatement<?>[] stmts = gson.fromJson(stmtsParam, WebPreparedStatement[].class);
+        int[] responses = new int[stmts.length];
+        for (int i = 0; i < stmts.length; i++) {
+            try {
+                responses[i] = executeWrite(stmts[i]);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to execute write " + i + " of batch", e);
+                responses[i] = PreparedStatementResponseCode.WRITE_GENERIC_FAILURE;
+            }
+        }
+        writeResponse(resp, responses, int[].class);
+    }
+    
+    /*
+     * Patches and applies a single prepared write. Returns the response code
+     * to send back to the client.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Pojo> int executeWrite(WebPreparedStatement<T> stmt) {
         // Check if the server token the client knows about still matches.
         // Bail out early otherwise.
         SharedStateId stmtId = stmt.getStatementId();
@@ -874,8 +1029,7 @@ public class WebStorageEndPoint extends HttpServlet {
             logger.log(Level.INFO, "Server token: '" + serverToken +
                                    "' and client token '" + stmtId.getServerToken() +
                                    "' out of sync.");
-            writeResponse(resp, PreparedStatementResponseCode.PREP_STMT_BAD_STOKEN, int.class);
-            return;
+            return PreparedStatementResponseCode.PREP_STMT_BAD_STOKEN;
         }
         PreparedParameters p = stmt.getParams();
         PreparedParameter[] params = p.getParams();
@@ -890,13 +1044,11 @@ public class WebStorageEndPoint extends HttpServlet {
             targetStatement = (DataModifyingStatement<T>)parsed.patchStatement(params);
         } catch (IllegalPatchException e) {
             logger.log(Level.INFO, "Failed to execute write. Stmt id was: " + stmtId, e);
-            writeResponse(resp, PreparedStatementResponseCode.ILLEGAL_PATCH, int.class);
-            return;
+            return PreparedStatementResponseCode.ILLEGAL_PATCH;
         }
         
         // executes statement
-        int response = targetStatement.apply();
-        writeResponse(resp, response, int.class);
+        return targetStatement.apply();
     }
     
     private UserPrincipal getUserPrincipal(HttpServletRequest req) {
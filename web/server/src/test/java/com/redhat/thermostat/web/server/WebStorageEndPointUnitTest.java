@@ -118,8 +118,8 @@ public class WebStorageEndPointUnitTest {
         // manually maintained list of path handlers which should include
         // authorization checks
         final String[] authPaths = new String[] {
-                "prepare-statement", "query-execute", "write-execute", "register-category",
-                "save-file", "load-file", "purge", "ping", "generate-token", "verify-token",
+                "prepare-statement", "query-execute", "write-execute", "write-execute-batch", "register-category",
+                "save-file", "load-file", "delete-file", "purge", "ping", "generate-token", "verify-token",
                 "get-more"
         };
         Map<String, Boolean> checkedAutPaths = new HashMap<>();
@@ -46,6 +46,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -70,9 +71,11 @@ import java.security.Principal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import javax.security.auth.Subject;
 import javax.security.auth.callback.CallbackHandler;
@@ -110,6 +113,7 @@ import com.redhat.thermostat.storage.core.Add;
 import com.redhat.thermostat.storage.core.AggregateQuery;
 import com.redhat.thermostat.storage.core.AggregateQuery.AggregateFunction;
 import com.redhat.thermostat.storage.core.BackingStorage;
+import com.redhat.thermostat.storage.core.BasicBatchCursor;
 import com.redhat.thermostat.storage.core.Categories;
 import com.redhat.thermostat.storage.core.Category;
 import com.redhat.thermostat.storage.core.CategoryAdapter;
@@ -137,6 +141,8 @@ import com.redhat.thermostat.web.common.SharedStateId;
 import com.redhat.thermostat.web.common.WebPreparedStatement;
 import com.redhat.thermostat.web.common.WebPreparedStatementResponse;
 import com.redhat.thermostat.web.common.WebQueryResponse;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponse;
+import com.redhat.thermostat.web.common.binary.BinaryQueryResponseReader;
 import com.redhat.thermostat.web.common.typeadapters.PojoTypeAdapterFactory;
 import com.redhat.thermostat.web.common.typeadapters.PreparedParameterTypeAdapterFactory;
 import com.redhat.thermostat.web.common.typeadapters.PreparedParametersTypeAdapterFactory;
@@ -506,6 +512,108 @@ public class WebStorageEndpointTest {
         assertEquals("application/json; charset=UTF-8", getMoreConn.getContentType());
     }
 
+    /**
+     * Tests a prepared query execution for a client which accepts the binary
+     * query response encoding.
+     */
+    @Test
+    public void authorizedPrepareQueryWithBinaryResponse() throws Exception {
+        String strDescriptor = setupPreparedQueryWithTrustedDescriptor();
+        SharedStateId catId = registerCategoryAndGetId(category, "ignored1", "ignored2");
+        TrustedPreparedQueryTestResult prepareQueryResult = prepareQuery(catId, strDescriptor, false);
+        WebPreparedStatement<TestClass> stmt = new WebPreparedStatement<>(1, prepareQueryResult.stmtId);
+        stmt.setString(0, "fluff");
+        
+        URL url = new URL(getEndpoint() + "/query-execute");
+        HttpURLConnection queryExecuteConn = (HttpURLConnection) url.openConnection();
+        queryExecuteConn.setRequestMethod("POST");
+        sendAuthentication(queryExecuteConn, "ignored1", "ignored2");
+        queryExecuteConn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        queryExecuteConn.setRequestProperty("Accept", BinaryQueryResponse.CONTENT_TYPE + ", application/json");
+        queryExecuteConn.setDoInput(true);
+        queryExecuteConn.setDoOutput(true);
+        
+        OutputStreamWriter out = new OutputStreamWriter(queryExecuteConn.getOutputStream());
+        String body = "prepared-stmt=" + prepareQueryResult.gson.toJson(stmt, WebPreparedStatement.class);
+        out.write(body + "\n");
+        out.flush();
+        
+        assertEquals(BinaryQueryResponse.CONTENT_TYPE, queryExecuteConn.getContentType());
+        // session must have been established before the body was written
+        assertNotNull(queryExecuteConn.getHeaderField("Set-Cookie"));
+        BinaryQueryResponseReader<TestClass> reader = new BinaryQueryResponseReader<>(queryExecuteConn.getInputStream(), TestClass.class, prepareQueryResult.gson);
+        WebQueryResponse<TestClass> result = reader.read();
+        assertEquals(PreparedStatementResponseCode.QUERY_SUCCESS, result.getResponseCode());
+        assertFalse(result.hasMoreBatches());
+        TestClass[] results = result.getResultList();
+        assertEquals(2, results.length);
+        assertEquals("fluff1", results[0].getKey1());
+        assertEquals(42, results[0].getKey2());
+        assertEquals("fluff2", results[1].getKey1());
+        assertEquals(43, results[1].getKey2());
+    }
+    
+    @Test
+    public void authorizedPrepareQueryWithStreamedResponse() throws Exception {
+        String strDescriptor = setupPreparedQueryWithTrustedDescriptor();
+        SharedStateId catId = registerCategoryAndGetId(category, "ignored1", "ignored2");
+        TrustedPreparedQueryTestResult prepareQueryResult = prepareQuery(catId, strDescriptor, false);
+        // More results than fit into one batch
+        final List<TestClass> expected = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            TestClass obj = new TestClass();
+            obj.setKey1("fluff" + i);
+            obj.setKey2(i);
+            expected.add(obj);
+        }
+        Cursor<TestClass> cursor = new BasicBatchCursor<TestClass>() {
+            private final Iterator<TestClass> it = expected.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public TestClass next() {
+                return it.next();
+            }
+        };
+        when(prepareQueryResult.mockMongoQuery.execute()).thenReturn(cursor);
+        WebPreparedStatement<TestClass> stmt = new WebPreparedStatement<>(1, prepareQueryResult.stmtId);
+        stmt.setString(0, "fluff");
+        
+        URL url = new URL(getEndpoint() + "/query-execute");
+        HttpURLConnection queryExecuteConn = (HttpURLConnection) url.openConnection();
+        queryExecuteConn.setRequestMethod("POST");
+        sendAuthentication(queryExecuteConn, "ignored1", "ignored2");
+        queryExecuteConn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        queryExecuteConn.setRequestProperty("Accept", BinaryQueryResponse.CONTENT_TYPE + ", application/json");
+        queryExecuteConn.setDoInput(true);
+        queryExecuteConn.setDoOutput(true);
+        
+        OutputStreamWriter out = new OutputStreamWriter(queryExecuteConn.getOutputStream());
+        String body = "stream-results=true&prepared-stmt=" + prepareQueryResult.gson.toJson(stmt, WebPreparedStatement.class);
+        out.write(body + "\n");
+        out.flush();
+        
+        assertEquals(BinaryQueryResponse.CONTENT_TYPE, queryExecuteConn.getContentType());
+        assertEquals("chunked", queryExecuteConn.getHeaderField("Transfer-Encoding"));
+        assertNotNull(queryExecuteConn.getHeaderField("Set-Cookie"));
+        BinaryQueryResponseReader<TestClass> reader = new BinaryQueryResponseReader<>(queryExecuteConn.getInputStream(), TestClass.class, prepareQueryResult.gson);
+        WebQueryResponse<TestClass> result = reader.read();
+        assertEquals(PreparedStatementResponseCode.QUERY_SUCCESS, result.getResponseCode());
+        // All results in one response and no cursor to get more from
+        assertFalse(result.hasMoreBatches());
+        assertEquals(CursorManager.CURSOR_NOT_STORED, result.getCursorId());
+        TestClass[] results = result.getResultList();
+        assertEquals(5, results.length);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("fluff" + i, results[i].getKey1());
+            assertEquals(i, results[i].getKey2());
+        }
+    }
+    
     private String executeQuery(Gson gson, Query<TestClass> mockMongoQuery,
             Type typeToken, WebPreparedStatement<TestClass> stmt, boolean moreBatches)
             throws MalformedURLException, IOException, ProtocolException {
@@ -1024,6 +1132,34 @@ public class WebStorageEndpointTest {
             in = new InputStreamReader(conn2.getInputStream());
             int result = gson.fromJson(in, int.class);
             assertEquals(PreparedStatementResponseCode.WRITE_GENERIC_FAILURE, result);
+            
+            // execute the same ADD as a batch, along with one statement
+            // which has an outdated server token
+            SharedStateId staleId = new SharedStateId(response.getStatementId().getId(), UUID.randomUUID());
+            WebPreparedStatement<TestClass> staleStmt = new WebPreparedStatement<>(2, staleId);
+            staleStmt.setString(0, "fluff");
+            staleStmt.setString(1, "test3");
+            
+            url = new URL(endpoint + "/write-execute-batch");
+            HttpURLConnection conn3 = (HttpURLConnection) url.openConnection();
+            conn3.setRequestMethod("POST");
+            sendAuthentication(conn3, "ignored1", "ignored2");
+            conn3.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            conn3.setDoInput(true);
+            conn3.setDoOutput(true);
+            
+            out = new OutputStreamWriter(conn3.getOutputStream());
+            WebPreparedStatement<?>[] stmts = new WebPreparedStatement<?>[] { stmt, staleStmt };
+            body = "prepared-stmts=" + URLEncoder.encode(gson.toJson(stmts, WebPreparedStatement[].class), "UTF-8");
+            out.write(body + "\n");
+            out.flush();
+            
+            in = new InputStreamReader(conn3.getInputStream());
+            int[] results = gson.fromJson(in, int[].class);
+            assertEquals(2, results.length);
+            assertEquals(PreparedStatementResponseCode.WRITE_GENERIC_FAILURE, results[0]);
+            assertEquals(PreparedStatementResponseCode.PREP_STMT_BAD_STOKEN, results[1]);
+            verify(mockMongoAdd, times(2)).apply();
         } finally {
             category = oldCategory; 
         }
@@ -1387,6 +1523,80 @@ public class WebStorageEndpointTest {
         verifyNoMoreInteractions(mockStorage);
     }
 
+    @Test
+    public void authorizedLoadFileChunkWithFileGrant() throws Exception {
+        String filename = "fluff";
+        String chunkName = filename + ".chunk-3";
+        String[] roleNames = new String[] {
+                Roles.LOAD_FILE,
+                Roles.ACCESS_REALM,
+                // Grants reading the file and its chunks
+                WebStorageEndPoint.FILES_READ_GRANT_ROLE_PREFIX + filename
+        };
+        String testuser = "testuser";
+        String password = "testpassword";
+        final LoginService loginService = new TestLoginService(testuser, password, roleNames); 
+        port = FreePortFinder.findFreePort(new TryPort() {
+            
+            @Override
+            public void tryPort(int port) throws Exception {
+                startServer(port, loginService);
+            }
+        });
+        when(mockStorage.loadFile(chunkName)).thenReturn(new ByteArrayInputStream("Hello World".getBytes()));
+
+        String endpoint = getEndpoint();
+        URL url = new URL(endpoint + "/load-file");
+
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        sendAuthentication(conn, testuser, password);
+        conn.setDoOutput(true);
+        OutputStreamWriter out = new OutputStreamWriter(conn.getOutputStream());
+        out.write("file=" + chunkName);
+        out.flush();
+        assertEquals(HttpServletResponse.SC_OK, conn.getResponseCode());
+        verify(mockStorage).loadFile(chunkName);
+    }
+
+    @Test
+    public void authorizedDeleteFile() throws Exception {
+        String filename = "fluff.chunk-0";
+        String[] roleNames = new String[] {
+                Roles.SAVE_FILE,
+                Roles.ACCESS_REALM,
+                WebStorageEndPoint.FILES_WRITE_GRANT_ROLE_PREFIX + "fluff"
+        };
+        String testuser = "testuser";
+        String password = "testpassword";
+        final LoginService loginService = new TestLoginService(testuser, password, roleNames); 
+        port = FreePortFinder.findFreePort(new TryPort() {
+            
+            @Override
+            public void tryPort(int port) throws Exception {
+                startServer(port, loginService);
+            }
+        });
+        String endpoint = getEndpoint();
+        URL url = new URL(endpoint + "/delete-file");
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        sendAuthentication(conn, testuser, password);
+        conn.getOutputStream().write(("file=" + filename).getBytes());
+        assertEquals(HttpServletResponse.SC_OK, conn.getResponseCode());
+        verify(mockStorage).deleteFile(filename);
+    }
+
+    @Test
+    public void unauthorizedDeleteFile() throws Exception {
+        String failMsg = "thermostat-save-file role missing, expected Forbidden!";
+        String[] insufficientRoles = new String[] {
+                Roles.ACCESS_REALM
+        };
+        doUnauthorizedTest("delete-file", failMsg, insufficientRoles, false);
+    }
+
     @Test
     public void authorizedPurge() throws Exception {
         String[] roleNames = new String[] {